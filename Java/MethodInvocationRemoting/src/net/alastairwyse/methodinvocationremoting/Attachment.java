@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.nio.*;
+import java.nio.charset.*;
+
+/**
+ * A block of binary data which is sent as a parameter or return value of a method invocation outside of the serialized document, rather than being encoded within it.
+ * <p>
+ * When a method invocation or return value containing attachments is sent by a MethodInvocationRemoteSender or MethodInvocationRemoteReceiver (using an IAttachmentMethodInvocationSerializer and an IByteRemoteSender such as TcpRemoteSender), the serialized document contains only the index of each attachment, and the bytes of the attachments follow the document in the same message.  This avoids escaping (or base64 encoding) large blocks of data as text.  Attachments can be parameters or return values of a method invocation.
+ * </p>
+ * <p>
+ * A received attachment is a read-only view of the bytes of the received message, and is not copied.
+ * </p>
+ * @author Alastair Wyse
+ */
+public final class Attachment {
+
+    private ByteBuffer data;
+    
+    /**
+     * Initialises a new instance of the Attachment class.
+     * @param data  The bytes of the attachment.  The array is not copied, so should not be changed until the attachment has been sent.
+     */
+    public Attachment(byte[] data) {
+        if (data == null) {
+            throw new IllegalArgumentException("Argument 'data' cannot be null.");
+        }
+        this.data = ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+    
+    /**
+     * Initialises a new instance of the Attachment class.
+     * @param data  Buffer containing the bytes of the attachment between its position and limit.  The bytes are not copied, so should not be changed until the attachment has been sent.
+     */
+    public Attachment(ByteBuffer data) {
+        if (data == null) {
+            throw new IllegalArgumentException("Argument 'data' cannot be null.");
+        }
+        this.data = data.slice().asReadOnlyBuffer();
+    }
+    
+    /**
+     * Initialises a new instance of the Attachment class, containing the specified string encoded as UTF-8.
+     * @param data  The string.
+     */
+    public Attachment(String data) {
+        if (data == null) {
+            throw new IllegalArgumentException("Argument 'data' cannot be null.");
+        }
+        this.data = ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+    
+    /**
+     * @return  A read-only buffer containing the bytes of the attachment between its position and limit.  A new view of the same bytes is returned on each call, so the position of the returned buffer can be changed independently.
+     */
+    public ByteBuffer getData() {
+        return data.duplicate();
+    }
+    
+    /**
+     * @return  The length of the attachment in bytes.
+     */
+    public int getLength() {
+        return data.remaining();
+    }
+    
+    /**
+     * Copies the bytes of the attachment to a new array.
+     * @return  The bytes of the attachment.
+     */
+    public byte[] ToByteArray() {
+        byte[] returnBytes = new byte[data.remaining()];
+        data.duplicate().get(returnBytes);
+        
+        return returnBytes;
+    }
+    
+    /**
+     * Decodes the bytes of the attachment as a UTF-8 encoded string.
+     * @return  The string.
+     */
+    public String DecodeString() {
+        return StandardCharsets.UTF_8.decode(data.duplicate()).toString();
+    }
+}
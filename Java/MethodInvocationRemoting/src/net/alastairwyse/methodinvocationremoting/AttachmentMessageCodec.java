@@ -0,0 +1,216 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Converts a serialized document and the attachments it refers to, to and from a single message.
+ * <p>
+ * The message consists of a 0 byte (which distinguishes it from a message containing only a serialized document, as neither an XML document nor a base64 encoded binary document can begin with a 0 byte), the length of the document as a 4 byte little endian integer, the document, the number of attachments as a 4 byte little endian integer, and then for each attachment, its length as a 4 byte little endian integer followed by its bytes.
+ * </p>
+ * @author Alastair Wyse
+ */
+class AttachmentMessageCodec {
+
+    /** The first byte of a message containing attachments. */
+    private final byte attachmentMessageIndicator = 0;
+    private final int lengthSize = 4;
+    /** The size of the buffer that a document is serialized to, if there is no estimate of the size of the document. */
+    private final int initialDocumentBufferSize = 1024;
+    
+    /** Predict the length of the documents serialized for each method name and return value class, so that the buffer the document is serialized to can be allocated at the predicted size. */
+    private PayloadSizeEstimator methodInvocationSizeEstimator;
+    private PayloadSizeEstimator returnValueSizeEstimator;
+    
+    /**
+     * Initialises a new instance of the AttachmentMessageCodec class.
+     */
+    public AttachmentMessageCodec() {
+        methodInvocationSizeEstimator = new PayloadSizeEstimator();
+        returnValueSizeEstimator = new PayloadSizeEstimator();
+    }
+    
+    /**
+     * Indicates whether any of the specified method invocation parameters are attachments.
+     * @param parameters  The parameters.  May be null.
+     * @return            Whether any of the parameters are attachments.
+     */
+    public boolean ContainsAttachments(Object[] parameters) {
+        if (parameters != null) {
+            for (Object currentParameter : parameters) {
+                if (currentParameter instanceof Attachment) {
+                    return true;
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Serializes a method invocation containing attachments, and creates a message containing the serialized method invocation and the attachments.
+     * @param serializer               The serializer to use to serialize the method invocation.
+     * @param inputMethodInvocation    The method invocation.
+     * @return                         Buffer containing the message between its position and limit.
+     * @throws SerializationException  if an error occurs when serializing the method invocation.
+     */
+    public ByteBuffer EncodeMethodInvocation(IAttachmentMethodInvocationSerializer serializer, IMethodInvocation inputMethodInvocation) throws SerializationException {
+        ArrayList<Attachment> attachments = new ArrayList<Attachment>();
+        ByteBuffer documentBuffer = AllocateDocumentBuffer(methodInvocationSizeEstimator.GetEstimate(inputMethodInvocation.getName()));
+        ByteBuffer document = serializer.Serialize(inputMethodInvocation, documentBuffer, attachments);
+        document.flip();
+        methodInvocationSizeEstimator.Record(inputMethodInvocation.getName(), document.remaining());
+        
+        return Encode(document, attachments);
+    }
+    
+    /**
+     * Serializes a return value containing attachments, and creates a message containing the serialized return value and the attachments.
+     * @param serializer               The serializer to use to serialize the return value.
+     * @param inputReturnValue         The return value.
+     * @return                         Buffer containing the message between its position and limit.
+     * @throws SerializationException  if an error occurs when serializing the return value.
+     */
+    public ByteBuffer EncodeReturnValue(IAttachmentMethodInvocationSerializer serializer, Object inputReturnValue) throws SerializationException {
+        ArrayList<Attachment> attachments = new ArrayList<Attachment>();
+        ByteBuffer documentBuffer = AllocateDocumentBuffer(returnValueSizeEstimator.GetEstimate(inputReturnValue.getClass()));
+        ByteBuffer document = serializer.SerializeReturnValue(inputReturnValue, documentBuffer, attachments);
+        document.flip();
+        returnValueSizeEstimator.Record(inputReturnValue.getClass(), document.remaining());
+        
+        return Encode(document, attachments);
+    }
+    
+    /**
+     * Indicates whether the specified message contains attachments.
+     * @param message  Buffer containing the message between its position and limit.
+     * @return         Whether the message contains attachments.
+     */
+    public boolean IsAttachmentMessage(ByteBuffer message) {
+        return (message.hasRemaining() == true) && (message.get(message.position()) == attachmentMessageIndicator);
+    }
+    
+    /**
+     * Creates a message containing the specified document and attachments.
+     * @param document     Buffer containing the serialized document between its position and limit.
+     * @param attachments  The attachments referred to by the document.
+     * @return             Buffer containing the message between its position and limit.
+     */
+    public ByteBuffer Encode(ByteBuffer document, List<Attachment> attachments) {
+        long messageLength = 1 + lengthSize + document.remaining() + lengthSize;
+        for (Attachment currentAttachment : attachments) {
+            messageLength = messageLength + lengthSize + currentAttachment.getLength();
+        }
+        if (messageLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The total length of the document and attachments exceeds the maximum message size of " + Integer.MAX_VALUE + " bytes.");
+        }
+        
+        ByteBuffer message = ByteBuffer.allocate((int)messageLength);
+        message.order(ByteOrder.LITTLE_ENDIAN);
+        message.put(attachmentMessageIndicator);
+        message.putInt(document.remaining());
+        message.put(document.duplicate());
+        message.putInt(attachments.size());
+        for (Attachment currentAttachment : attachments) {
+            message.putInt(currentAttachment.getLength());
+            message.put(currentAttachment.getData());
+        }
+        message.flip();
+        
+        return message;
+    }
+    
+    /**
+     * Separates a message into the serialized document and the attachments it refers to.  The document and attachments are views of the bytes of the message, and are not copied.
+     * @param message      Buffer containing the message between its position and limit.
+     * @param attachments  The list to add the attachments to.
+     * @return             Buffer containing the serialized document between its position and limit.
+     * @throws Exception   if the message is not a valid message containing attachments.
+     */
+    public ByteBuffer Decode(ByteBuffer message, List<Attachment> attachments) throws Exception {
+        ByteBuffer reader = message.duplicate();
+        reader.order(ByteOrder.LITTLE_ENDIAN);
+        
+        if ((reader.hasRemaining() == false) || (reader.get() != attachmentMessageIndicator)) {
+            throw new Exception("Message does not contain attachments.");
+        }
+        ByteBuffer document = ReadSegment(reader, "document");
+        int attachmentCount = ReadLength(reader, "attachment count");
+        for (int i = 0; i < attachmentCount; i = i + 1) {
+            attachments.add(new Attachment(ReadSegment(reader, "attachment " + i)));
+        }
+        if (reader.hasRemaining() == true) {
+            throw new Exception("Message contains " + reader.remaining() + " bytes following the last attachment.");
+        }
+        
+        return document;
+    }
+    
+    /**
+     * Reads a length prefixed segment of the message, and advances past it.
+     * @param reader       Buffer positioned at the length of the segment.
+     * @param segmentName  A description of the segment to include in exception messages.
+     * @return             Buffer containing the segment between its position and limit.
+     * @throws Exception   if the message ends before the end of the segment.
+     */
+    private ByteBuffer ReadSegment(ByteBuffer reader, String segmentName) throws Exception {
+        int length = ReadLength(reader, segmentName + " length");
+        if (length > reader.remaining()) {
+            throw new Exception("Message ended before the end of the " + segmentName + ".  Expected " + length + " bytes, but " + reader.remaining() + " bytes remain.");
+        }
+        ByteBuffer segment = reader.slice();
+        segment.limit(length);
+        reader.position(reader.position() + length);
+        
+        return segment;
+    }
+    
+    /**
+     * Reads a length or count from the message.
+     * @param reader      Buffer positioned at the length.
+     * @param lengthName  A description of the length to include in exception messages.
+     * @return            The length.
+     * @throws Exception  if the message ends before the end of the length, or the length is negative.
+     */
+    private int ReadLength(ByteBuffer reader, String lengthName) throws Exception {
+        if (reader.remaining() < lengthSize) {
+            throw new Exception("Message ended before the " + lengthName + ".");
+        }
+        int length = reader.getInt();
+        if (length < 0) {
+            throw new Exception("Message contains negative " + lengthName + " " + length + ".");
+        }
+        
+        return length;
+    }
+    
+    /**
+     * Allocates a buffer to serialize a document to.
+     * @param estimatedLength  The estimated length of the document, or 0 if there is no estimate.
+     * @return                 The buffer.
+     */
+    private ByteBuffer AllocateDocumentBuffer(int estimatedLength) {
+        if (estimatedLength > 0) {
+            return ByteBuffer.allocate(estimatedLength);
+        }
+        else {
+            return ByteBuffer.allocate(initialDocumentBufferSize);
+        }
+    }
+}
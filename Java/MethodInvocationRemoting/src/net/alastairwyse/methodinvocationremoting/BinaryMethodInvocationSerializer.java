@@ -0,0 +1,1610 @@
+/*
+ * Copyright 2015 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.math.*;
+import java.lang.reflect.*;
+import javax.xml.stream.*;
+import org.apache.commons.codec.binary.Base64;
+import net.alastairwyse.applicationlogging.*;
+import net.alastairwyse.applicationmetrics.*;
+import net.alastairwyse.methodinvocationremotingmetrics.*;
+
+/**
+ * Implements serialization and deserialization of IMethodInvocation objects using a compact tagged binary format, encoded as a base64 string when serialized to a string, or written directly when serialized to bytes.
+ * <p>
+ * Each item (parameter, return value, or array element) is written as a variable length integer type code followed by the data.  Numeric types are written as fixed width little endian values, strings as a variable length byte count followed by UTF-8 encoded characters, and arrays of the standard types and primitive types as an element count followed by the packed element values.
+ * </p>
+ * <p>
+ * Types other than the standard types must be registered in the ISerializerOperationMap passed to the constructor.  Arrays of registered types are written as an element count followed by the individual items.  Other registered types are serialized to an XML fragment by their IObjectSerializer, and the fragment written as a string.
+ * </p>
+ * <p>
+ * Optionally (see the trackReferences member), an object which occurs more than once in a method invocation or return value is written in full only at its first occurrence, and subsequently as a back-reference to the index of that occurrence.  References are tracked for strings, BigDecimals, GregorianCalendars, arrays, and types registered in the operation map (but not for the other standard types, whose values are smaller than or similar in size to a back-reference).  Documents containing back-references are written with a distinct document type, so they can be deserialized regardless of whether reference tracking is enabled in the deserializing instance.
+ * </p>
+ * <p>
+ * Attachment objects are written as the index of the attachment in a list of attachments held outside of the document, when serialized by the overloads of methods Serialize() and SerializeReturnValue() which accept a list of attachments (see interface IAttachmentMethodInvocationSerializer).
+ * </p>
+ * <p>
+ * Optionally (see method setTokenDictionary()), method names and the serialized type names of types registered in the operation map are written using a SessionTokenDictionary shared by all documents sent over a connection.  The first occurrence of a name is written as a token followed by the name, and subsequent occurrences (in the same or later documents) as the token alone.  Documents containing tokens are written with a distinct document type, and can only be deserialized by an instance with a SessionTokenDictionary set.
+ * </p>
+ * @author Alastair Wyse
+ */
+public class BinaryMethodInvocationSerializer implements IAttachmentMethodInvocationSerializer {
+
+    // Values of the first byte of the serialized data, which indicate the type of the serialized document
+    private final byte methodInvocationDocumentType = 1;
+    private final byte returnValueDocumentType = 2;
+    private final byte voidReturnValueDocumentType = 3;
+    private final byte methodInvocationWithReferencesDocumentType = 4;
+    private final byte returnValueWithReferencesDocumentType = 5;
+    private final byte methodInvocationWithTokensDocumentType = 6;
+    private final byte methodInvocationWithTokensAndReferencesDocumentType = 7;
+    private final byte returnValueWithTokensDocumentType = 8;
+    private final byte returnValueWithTokensAndReferencesDocumentType = 9;
+
+    // Type codes written before each item
+    private final int nullTypeCode = 0;
+    private final int integerTypeCode = 1;
+    private final int stringTypeCode = 2;
+    private final int byteTypeCode = 3;
+    private final int shortTypeCode = 4;
+    private final int longTypeCode = 5;
+    private final int floatTypeCode = 6;
+    private final int doubleTypeCode = 7;
+    private final int characterTypeCode = 8;
+    private final int booleanTypeCode = 9;
+    private final int bigDecimalTypeCode = 10;
+    private final int gregorianCalendarTypeCode = 11;
+    /** Added to the type code of a standard type to give the type code of an array of that type. */
+    private final int arrayTypeCodeOffset = 16;
+    /** Type code indicating a type registered in the operation map.  Followed by the serialized type name. */
+    private final int mappedTypeCode = 32;
+    /** Type code indicating a reference to an object previously written to the same document.  Followed by the index of the object. */
+    private final int backReferenceTypeCode = 33;
+    /** Type code indicating an Attachment held outside of the document.  Followed by the index of the attachment. */
+    private final int attachmentTypeCode = 34;
+    /** Added to the type code of a standard numeric, character, or boolean type to give the type code of an array of the corresponding primitive type (e.g. int[]). */
+    private final int primitiveArrayTypeCodeOffset = 48;
+
+    /** Set in the value written for a name in a document containing tokens, to indicate that the name follows the token (i.e. the first occurrence of the name).  The token is held in the remaining bits of the value. */
+    private final int tokenDefinitionFlag = 1;
+
+    // Values written before each non-null element of a string, BigDecimal, or GregorianCalendar array in a document containing back-references (values greater than 0 are the index of a previously written object plus 1)
+    private final int arrayElementValueFollows = 0;
+
+    // Values of the byte written after the element count of an array of a standard type
+    private final byte arrayContainsNoNulls = 0;
+    private final byte arrayContainsNulls = 1;
+
+    /** The name of the element surrounding the XML fragment written by the IObjectSerializer of a type registered in the operation map. */
+    private final String dataElementName = "Data";
+
+    // Upper and lower boundary values must be set to maintain compatibility with C# Decimal type
+    private final BigDecimal minAllowedBigDecimalValue = new BigDecimal("-79228162514264337593543950335");
+    private final BigDecimal maxAllowedBigDecimalValue = new BigDecimal("79228162514264337593543950335");
+    // Upper boundary for year must be set to maintain compatibility with C# DateTime type
+    private final int maxYear = 9999;
+
+    /** The standard types, indexed by their type code. */
+    private Class<?>[] standardTypes;
+    /** The primitive types, indexed by the type code of the corresponding standard type. */
+    private Class<?>[] primitiveTypes;
+    /** Maps the standard types, arrays of the standard types, and arrays of the primitive types to their type codes. */
+    private HashMap<Class<?>, Integer> standardTypeCodes;
+    private PackedArrayCodec packedArrayCodec;
+    private ParallelArrayProcessor parallelArrayProcessor;
+    /** Predict the length of the documents serialized for each method name and return value class, so that the binary output buffer can be sized before the document is written. */
+    private PayloadSizeEstimator methodInvocationSizeEstimator;
+    private PayloadSizeEstimator returnValueSizeEstimator;
+    private ISerializerOperationMap operationMap;
+    private IApplicationLogger logger;
+    private LoggingUtilities loggingUtilities;
+    private IMetricLogger metricLogger;
+    /** Provides the binary output buffer, and the XML writer and reader used for types registered in the operation map, which are reused by all serialize and deserialize operations on a thread. */
+    private SerializationContextProvider serializationContextProvider;
+    /** The serialized representation of a void return value. */
+    private String voidReturnValue;
+    /** Whether to write an object which occurs more than once in a method invocation or return value as a back-reference to its first occurrence. */
+    protected boolean trackReferences = false;
+    /** Whether, when tracking references, to write a string or BigDecimal which is equal to (rather than the same instance as) a previously written object as a back-reference.  Has no effect if trackReferences is false. */
+    protected boolean matchEqualValues = false;
+    /** The minimum number of elements in an array for the elements to be serialized in parallel chunks on the common ForkJoinPool, or 0 to serialize all arrays on the calling thread.  Applies to serializing and deserializing arrays of primitive types, and to serializing arrays of the standard types other than GregorianCalendar when references are not being tracked.  The serialized document is identical in either case. */
+    protected int parallelArrayThreshold = 0;
+    /** The dictionary used to write method names and serialized type names as tokens, or null if names are written in full. */
+    private volatile SessionTokenDictionary tokenDictionary = null;
+
+    /**
+     * Initialises a new instance of the BinaryMethodInvocationSerializer class.
+     * @param operationMap  The serializer operation map to use for serializing and deserializing types other than the standard types.
+     */
+    public BinaryMethodInvocationSerializer(ISerializerOperationMap operationMap) {
+        this.operationMap = operationMap;
+        serializationContextProvider = new SerializationContextProvider();
+        logger = new ConsoleApplicationLogger(LogLevel.Information, '|', "  ");
+        loggingUtilities = new LoggingUtilities(logger);
+        metricLogger = new NullMetricLogger();
+
+        standardTypes = new Class<?>[gregorianCalendarTypeCode + 1];
+        standardTypes[integerTypeCode] = Integer.class;
+        standardTypes[stringTypeCode] = String.class;
+        standardTypes[byteTypeCode] = Byte.class;
+        standardTypes[shortTypeCode] = Short.class;
+        standardTypes[longTypeCode] = Long.class;
+        standardTypes[floatTypeCode] = Float.class;
+        standardTypes[doubleTypeCode] = Double.class;
+        standardTypes[characterTypeCode] = Character.class;
+        standardTypes[booleanTypeCode] = Boolean.class;
+        standardTypes[bigDecimalTypeCode] = BigDecimal.class;
+        standardTypes[gregorianCalendarTypeCode] = GregorianCalendar.class;
+        primitiveTypes = new Class<?>[gregorianCalendarTypeCode + 1];
+        primitiveTypes[integerTypeCode] = int.class;
+        primitiveTypes[byteTypeCode] = byte.class;
+        primitiveTypes[shortTypeCode] = short.class;
+        primitiveTypes[longTypeCode] = long.class;
+        primitiveTypes[floatTypeCode] = float.class;
+        primitiveTypes[doubleTypeCode] = double.class;
+        primitiveTypes[characterTypeCode] = char.class;
+        primitiveTypes[booleanTypeCode] = boolean.class;
+        standardTypeCodes = new HashMap<Class<?>, Integer>();
+        for (int i = integerTypeCode; i < standardTypes.length; i = i + 1) {
+            standardTypeCodes.put(standardTypes[i], i);
+            standardTypeCodes.put(Array.newInstance(standardTypes[i], 0).getClass(), i + arrayTypeCodeOffset);
+            if (primitiveTypes[i] != null) {
+                standardTypeCodes.put(Array.newInstance(primitiveTypes[i], 0).getClass(), i + primitiveArrayTypeCodeOffset);
+            }
+        }
+        packedArrayCodec = new PackedArrayCodec();
+        parallelArrayProcessor = new ParallelArrayProcessor();
+        methodInvocationSizeEstimator = new PayloadSizeEstimator();
+        returnValueSizeEstimator = new PayloadSizeEstimator();
+
+        voidReturnValue = Base64.encodeBase64String(new byte[] { voidReturnValueDocumentType });
+    }
+
+    /**
+     * Initialises a new instance of the BinaryMethodInvocationSerializer class.
+     * @param operationMap  The serializer operation map to use for serializing and deserializing types other than the standard types.
+     * @param logger        The logger to write log events to.
+     */
+    public BinaryMethodInvocationSerializer(ISerializerOperationMap operationMap, IApplicationLogger logger) {
+        this(operationMap);
+        this.logger = logger;
+        loggingUtilities = new LoggingUtilities(logger);
+    }
+
+    /**
+     * Initialises a new instance of the BinaryMethodInvocationSerializer class.
+     * @param operationMap  The serializer operation map to use for serializing and deserializing types other than the standard types.
+     * @param metricLogger  The metric logger to write metric and instrumentation events to.
+     */
+    public BinaryMethodInvocationSerializer(ISerializerOperationMap operationMap, IMetricLogger metricLogger) {
+        this(operationMap);
+        this.metricLogger = metricLogger;
+    }
+
+    /**
+     * Initialises a new instance of the BinaryMethodInvocationSerializer class.
+     * @param operationMap  The serializer operation map to use for serializing and deserializing types other than the standard types.
+     * @param logger        The logger to write log events to.
+     * @param metricLogger  The metric logger to write metric and instrumentation events to.
+     */
+    public BinaryMethodInvocationSerializer(ISerializerOperationMap operationMap, IApplicationLogger logger, IMetricLogger metricLogger) {
+        this(operationMap);
+        this.logger = logger;
+        loggingUtilities = new LoggingUtilities(logger);
+        this.metricLogger = metricLogger;
+    }
+
+    /**
+     * Sets the dictionary used to write method names and serialized type names as tokens, and to read the names from documents containing tokens.
+     * <p>
+     * The dictionary should be used by a single serializer on each side of a connection, and should be added as a connection established event handler of the TcpRemoteSender and TcpRemoteReceiver used to send and receive the serialized documents, so that the tokens are reset when the connection is re-established.
+     * </p>
+     * @param tokenDictionary  The session token dictionary, or null to write names in full.
+     */
+    public void setTokenDictionary(SessionTokenDictionary tokenDictionary) {
+        this.tokenDictionary = tokenDictionary;
+    }
+
+    /**
+     * @return  The session token dictionary, or null if names are written in full.
+     */
+    public SessionTokenDictionary getTokenDictionary() {
+        return tokenDictionary;
+    }
+
+    @Override
+    public String getVoidReturnValue() throws SerializationException {
+        return voidReturnValue;
+    }
+
+    @Override
+    public String Serialize(IMethodInvocation inputMethodInvocation) throws SerializationException {
+        /* //[BEGIN_METRICS]
+        metricLogger.Begin(new MethodInvocationSerializeTime());
+        //[END_METRICS] */
+
+        String returnString;
+        SerializationContext context = null;
+
+        try {
+            context = serializationContextProvider.Acquire();
+            BinaryWriteBuffer buffer = context.BeginBinaryWrite(methodInvocationSizeEstimator.GetEstimate(inputMethodInvocation.getName()));
+            WriteMethodInvocation(inputMethodInvocation, buffer, context);
+            methodInvocationSizeEstimator.Record(inputMethodInvocation.getName(), buffer.getPosition());
+
+            returnString = Base64.encodeBase64String(buffer.ToByteArray());
+            context.EndTokenTracking();
+            serializationContextProvider.Release(context);
+
+            /* //[BEGIN_METRICS]
+            metricLogger.End(new MethodInvocationSerializeTime());
+            metricLogger.Increment(new MethodInvocationSerialized());
+            metricLogger.Add(new SerializedMethodInvocationSize(returnString.length()));
+            //[END_METRICS] */
+            /* //[BEGIN_LOGGING]
+            loggingUtilities.LogSerializedItem(this, returnString, "method invocation");
+            //[END_LOGGING] */
+        }
+        catch (Exception e) {
+            serializationContextProvider.Discard(context);
+            /* //[BEGIN_METRICS]
+            metricLogger.CancelBegin(new MethodInvocationSerializeTime());
+            //[END_METRICS] */
+            throw new SerializationException("Failed to serialize invocation of method '" + inputMethodInvocation.getName() + "'.", inputMethodInvocation, e);
+        }
+
+        return returnString;
+    }
+
+    @Override
+    public MethodInvocation Deserialize(String serializedMethodInvocation) throws DeserializationException {
+        /* //[BEGIN_METRICS]
+        metricLogger.Begin(new MethodInvocationDeserializeTime());
+        //[END_METRICS] */
+
+        MethodInvocation returnMethodInvocation;
+        SerializationContext context = null;
+
+        try {
+            context = serializationContextProvider.Acquire();
+            returnMethodInvocation = ReadMethodInvocation(new BinaryReadBuffer(Base64.decodeBase64(serializedMethodInvocation)), context);
+            serializationContextProvider.Release(context);
+
+            /* //[BEGIN_METRICS]
+            metricLogger.End(new MethodInvocationDeserializeTime());
+            metricLogger.Increment(new MethodInvocationDeserialized());
+            //[END_METRICS] */
+            /* //[BEGIN_LOGGING]
+            logger.Log(this, LogLevel.Information, "Deserialized string to method invocation '" + returnMethodInvocation.getName() + "'.");
+            //[END_LOGGING] */
+        }
+        catch (Exception e) {
+            serializationContextProvider.Discard(context);
+            /* //[BEGIN_METRICS]
+            metricLogger.CancelBegin(new MethodInvocationDeserializeTime());
+            //[END_METRICS] */
+            throw new DeserializationException("Failed to deserialize method invocation.", serializedMethodInvocation, e);
+        }
+
+        return returnMethodInvocation;
+    }
+
+    @Override
+    public String SerializeReturnValue(Object inputReturnValue) throws SerializationException {
+        /* //[BEGIN_METRICS]
+        metricLogger.Begin(new ReturnValueSerializeTime());
+        //[END_METRICS] */
+
+        String returnString;
+        SerializationContext context = null;
+
+        try {
+            context = serializationContextProvider.Acquire();
+            BinaryWriteBuffer buffer = context.BeginBinaryWrite(returnValueSizeEstimator.GetEstimate(GetSizeEstimateKey(inputReturnValue)));
+            WriteReturnValue(inputReturnValue, buffer, context);
+            returnValueSizeEstimator.Record(GetSizeEstimateKey(inputReturnValue), buffer.getPosition());
+
+            returnString = Base64.encodeBase64String(buffer.ToByteArray());
+            context.EndTokenTracking();
+            serializationContextProvider.Release(context);
+
+            /* //[BEGIN_METRICS]
+            metricLogger.End(new ReturnValueSerializeTime());
+            metricLogger.Increment(new ReturnValueSerialized());
+            metricLogger.Add(new SerializedReturnValueSize(returnString.length()));
+            //[END_METRICS] */
+            /* //[BEGIN_LOGGING]
+            loggingUtilities.LogSerializedItem(this, returnString, "return value");
+            //[END_LOGGING] */
+        }
+        catch (Exception e) {
+            serializationContextProvider.Discard(context);
+            /* //[BEGIN_METRICS]
+            metricLogger.CancelBegin(new ReturnValueSerializeTime());
+            //[END_METRICS] */
+            throw new SerializationException("Failed to serialize return value.", inputReturnValue, e);
+        }
+
+        return returnString;
+    }
+
+    @Override
+    public Object DeserializeReturnValue(String serializedReturnValue) throws DeserializationException {
+        /* //[BEGIN_METRICS]
+        metricLogger.Begin(new ReturnValueDeserializeTime());
+        //[END_METRICS] */
+
+        Object returnValue;
+        SerializationContext context = null;
+
+        try {
+            context = serializationContextProvider.Acquire();
+            returnValue = ReadReturnValue(new BinaryReadBuffer(Base64.decodeBase64(serializedReturnValue)), context);
+            serializationContextProvider.Release(context);
+
+            /* //[BEGIN_METRICS]
+            metricLogger.End(new ReturnValueDeserializeTime());
+            metricLogger.Increment(new ReturnValueDeserialized());
+            //[END_METRICS] */
+            /* //[BEGIN_LOGGING]
+            loggingUtilities.LogDeserializedReturnValue(this, returnValue);
+            //[END_LOGGING] */
+        }
+        catch (Exception e) {
+            serializationContextProvider.Discard(context);
+            /* //[BEGIN_METRICS]
+            metricLogger.CancelBegin(new ReturnValueDeserializeTime());
+            //[END_METRICS] */
+            throw new DeserializationException("Failed to deserialize return value.", serializedReturnValue, e);
+        }
+
+        return returnValue;
+    }
+
+    @Override
+    public ByteBuffer Serialize(IMethodInvocation inputMethodInvocation, ByteBuffer outputBuffer) throws SerializationException {
+        return Serialize(inputMethodInvocation, outputBuffer, null, null);
+    }
+
+    @Override
+    public void Serialize(IMethodInvocation inputMethodInvocation, OutputStream outputStream) throws SerializationException {
+        Serialize(inputMethodInvocation, null, outputStream, null);
+    }
+
+    @Override
+    public MethodInvocation Deserialize(ByteBuffer serializedMethodInvocation) throws DeserializationException {
+        return Deserialize(serializedMethodInvocation, null, null);
+    }
+
+    @Override
+    public MethodInvocation Deserialize(InputStream serializedMethodInvocation) throws DeserializationException {
+        return Deserialize(null, serializedMethodInvocation, null);
+    }
+
+    @Override
+    public ByteBuffer SerializeReturnValue(Object inputReturnValue, ByteBuffer outputBuffer) throws SerializationException {
+        return SerializeReturnValue(inputReturnValue, outputBuffer, null, null);
+    }
+
+    @Override
+    public void SerializeReturnValue(Object inputReturnValue, OutputStream outputStream) throws SerializationException {
+        SerializeReturnValue(inputReturnValue, null, outputStream, null);
+    }
+
+    @Override
+    public Object DeserializeReturnValue(ByteBuffer serializedReturnValue) throws DeserializationException {
+        return DeserializeReturnValue(serializedReturnValue, null, null);
+    }
+
+    @Override
+    public Object DeserializeReturnValue(InputStream serializedReturnValue) throws DeserializationException {
+        return DeserializeReturnValue(null, serializedReturnValue, null);
+    }
+
+    @Override
+    public ByteBuffer Serialize(IMethodInvocation inputMethodInvocation, ByteBuffer outputBuffer, List<Attachment> attachments) throws SerializationException {
+        return Serialize(inputMethodInvocation, outputBuffer, null, attachments);
+    }
+
+    @Override
+    public MethodInvocation Deserialize(ByteBuffer serializedMethodInvocation, List<Attachment> attachments) throws DeserializationException {
+        return Deserialize(serializedMethodInvocation, null, attachments);
+    }
+
+    @Override
+    public ByteBuffer SerializeReturnValue(Object inputReturnValue, ByteBuffer outputBuffer, List<Attachment> attachments) throws SerializationException {
+        return SerializeReturnValue(inputReturnValue, outputBuffer, null, attachments);
+    }
+
+    @Override
+    public Object DeserializeReturnValue(ByteBuffer serializedReturnValue, List<Attachment> attachments) throws DeserializationException {
+        return DeserializeReturnValue(serializedReturnValue, null, attachments);
+    }
+
+    /**
+     * Serializes a method invocation, writing the binary document (without base64 encoding) to either a buffer or a stream.
+     * @param inputMethodInvocation    The method invocation to serialize.
+     * @param outputBuffer             The buffer to write to, or null if writing to a stream.
+     * @param outputStream             The stream to write to, or null if writing to a buffer.
+     * @param attachments              The list to add attachments contained in the method invocation to, or null if the method invocation cannot contain attachments.
+     * @return                         The buffer written to, or null if writing to a stream.
+     * @throws SerializationException  if an error occurs when serializing the method invocation.
+     */
+    private ByteBuffer Serialize(IMethodInvocation inputMethodInvocation, ByteBuffer outputBuffer, OutputStream outputStream, List<Attachment> attachments) throws SerializationException {
+        /* //[BEGIN_METRICS]
+        metricLogger.Begin(new MethodInvocationSerializeTime());
+        //[END_METRICS] */
+
+        SerializationContext context = null;
+
+        try {
+            context = serializationContextProvider.Acquire();
+            context.BeginAttachments(attachments);
+            BinaryWriteBuffer buffer = context.BeginBinaryWrite(methodInvocationSizeEstimator.GetEstimate(inputMethodInvocation.getName()));
+            WriteMethodInvocation(inputMethodInvocation, buffer, context);
+            methodInvocationSizeEstimator.Record(inputMethodInvocation.getName(), buffer.getPosition());
+
+            outputBuffer = WriteDocument(buffer, outputBuffer, outputStream, context);
+            context.EndTokenTracking();
+            context.EndAttachments();
+            serializationContextProvider.Release(context);
+
+            /* //[BEGIN_METRICS]
+            metricLogger.End(new MethodInvocationSerializeTime());
+            metricLogger.Increment(new MethodInvocationSerialized());
+            metricLogger.Add(new SerializedMethodInvocationSize(buffer.getPosition()));
+            //[END_METRICS] */
+            /* //[BEGIN_LOGGING]
+            logger.Log(this, LogLevel.Information, "Serialized method invocation '" + inputMethodInvocation.getName() + "' to " + buffer.getPosition() + " bytes.");
+            //[END_LOGGING] */
+        }
+        catch (Exception e) {
+            serializationContextProvider.Discard(context);
+            /* //[BEGIN_METRICS]
+            metricLogger.CancelBegin(new MethodInvocationSerializeTime());
+            //[END_METRICS] */
+            throw new SerializationException("Failed to serialize invocation of method '" + inputMethodInvocation.getName() + "'.", inputMethodInvocation, e);
+        }
+
+        return outputBuffer;
+    }
+
+    /**
+     * Deserializes a method invocation from a binary document (without base64 encoding) held in either a buffer or a stream.
+     * @param serializedMethodInvocation  Buffer containing the serialized method invocation, or null if reading from a stream.
+     * @param inputStream                 Stream containing the serialized method invocation, or null if reading from a buffer.
+     * @param attachments                 The attachments referred to by the serialized method invocation, or null if the method invocation was received without attachments.
+     * @return                            The method invocation.
+     * @throws DeserializationException   if an error occurs when deserializing the method invocation.
+     */
+    private MethodInvocation Deserialize(ByteBuffer serializedMethodInvocation, InputStream inputStream, List<Attachment> attachments) throws DeserializationException {
+        /* //[BEGIN_METRICS]
+        metricLogger.Begin(new MethodInvocationDeserializeTime());
+        //[END_METRICS] */
+
+        MethodInvocation returnMethodInvocation;
+        ByteBuffer document = null;
+        SerializationContext context = null;
+
+        try {
+            context = serializationContextProvider.Acquire();
+            context.BeginAttachments(attachments);
+            if (inputStream == null) {
+                document = serializedMethodInvocation.duplicate();
+                serializedMethodInvocation.position(serializedMethodInvocation.limit());
+            }
+            else {
+                document = context.ReadStream(inputStream);
+            }
+            returnMethodInvocation = ReadMethodInvocation(CreateReadBuffer(document), context);
+            context.EndAttachments();
+            serializationContextProvider.Release(context);
+
+            /* //[BEGIN_METRICS]
+            metricLogger.End(new MethodInvocationDeserializeTime());
+            metricLogger.Increment(new MethodInvocationDeserialized());
+            //[END_METRICS] */
+            /* //[BEGIN_LOGGING]
+            logger.Log(this, LogLevel.Information, "Deserialized bytes to method invocation '" + returnMethodInvocation.getName() + "'.");
+            //[END_LOGGING] */
+        }
+        catch (Exception e) {
+            serializationContextProvider.Discard(context);
+            /* //[BEGIN_METRICS]
+            metricLogger.CancelBegin(new MethodInvocationDeserializeTime());
+            //[END_METRICS] */
+            throw new DeserializationException("Failed to deserialize method invocation.", EncodeDocument(document), e);
+        }
+
+        return returnMethodInvocation;
+    }
+
+    /**
+     * Serializes the return value of a method invocation, writing the binary document (without base64 encoding) to either a buffer or a stream.
+     * @param inputReturnValue         The return value to serialize.
+     * @param outputBuffer             The buffer to write to, or null if writing to a stream.
+     * @param outputStream             The stream to write to, or null if writing to a buffer.
+     * @param attachments              The list to add attachments contained in the return value to, or null if the return value cannot contain attachments.
+     * @return                         The buffer written to, or null if writing to a stream.
+     * @throws SerializationException  if an error occurs when serializing the return value.
+     */
+    private ByteBuffer SerializeReturnValue(Object inputReturnValue, ByteBuffer outputBuffer, OutputStream outputStream, List<Attachment> attachments) throws SerializationException {
+        /* //[BEGIN_METRICS]
+        metricLogger.Begin(new ReturnValueSerializeTime());
+        //[END_METRICS] */
+
+        SerializationContext context = null;
+
+        try {
+            context = serializationContextProvider.Acquire();
+            context.BeginAttachments(attachments);
+            BinaryWriteBuffer buffer = context.BeginBinaryWrite(returnValueSizeEstimator.GetEstimate(GetSizeEstimateKey(inputReturnValue)));
+            WriteReturnValue(inputReturnValue, buffer, context);
+            returnValueSizeEstimator.Record(GetSizeEstimateKey(inputReturnValue), buffer.getPosition());
+
+            outputBuffer = WriteDocument(buffer, outputBuffer, outputStream, context);
+            context.EndTokenTracking();
+            context.EndAttachments();
+            serializationContextProvider.Release(context);
+
+            /* //[BEGIN_METRICS]
+            metricLogger.End(new ReturnValueSerializeTime());
+            metricLogger.Increment(new ReturnValueSerialized());
+            metricLogger.Add(new SerializedReturnValueSize(buffer.getPosition()));
+            //[END_METRICS] */
+            /* //[BEGIN_LOGGING]
+            logger.Log(this, LogLevel.Information, "Serialized return value to " + buffer.getPosition() + " bytes.");
+            //[END_LOGGING] */
+        }
+        catch (Exception e) {
+            serializationContextProvider.Discard(context);
+            /* //[BEGIN_METRICS]
+            metricLogger.CancelBegin(new ReturnValueSerializeTime());
+            //[END_METRICS] */
+            throw new SerializationException("Failed to serialize return value.", inputReturnValue, e);
+        }
+
+        return outputBuffer;
+    }
+
+    /**
+     * Deserializes the return value of a method invocation from a binary document (without base64 encoding) held in either a buffer or a stream.
+     * @param serializedReturnValue      Buffer containing the serialized return value, or null if reading from a stream.
+     * @param inputStream                Stream containing the serialized return value, or null if reading from a buffer.
+     * @param attachments                The attachments referred to by the serialized return value, or null if the return value was received without attachments.
+     * @return                           The return value.
+     * @throws DeserializationException  if an error occurs when deserializing the return value.
+     */
+    private Object DeserializeReturnValue(ByteBuffer serializedReturnValue, InputStream inputStream, List<Attachment> attachments) throws DeserializationException {
+        /* //[BEGIN_METRICS]
+        metricLogger.Begin(new ReturnValueDeserializeTime());
+        //[END_METRICS] */
+
+        Object returnValue;
+        ByteBuffer document = null;
+        SerializationContext context = null;
+
+        try {
+            context = serializationContextProvider.Acquire();
+            context.BeginAttachments(attachments);
+            if (inputStream == null) {
+                document = serializedReturnValue.duplicate();
+                serializedReturnValue.position(serializedReturnValue.limit());
+            }
+            else {
+                document = context.ReadStream(inputStream);
+            }
+            returnValue = ReadReturnValue(CreateReadBuffer(document), context);
+            context.EndAttachments();
+            serializationContextProvider.Release(context);
+
+            /* //[BEGIN_METRICS]
+            metricLogger.End(new ReturnValueDeserializeTime());
+            metricLogger.Increment(new ReturnValueDeserialized());
+            //[END_METRICS] */
+            /* //[BEGIN_LOGGING]
+            loggingUtilities.LogDeserializedReturnValue(this, returnValue);
+            //[END_LOGGING] */
+        }
+        catch (Exception e) {
+            serializationContextProvider.Discard(context);
+            /* //[BEGIN_METRICS]
+            metricLogger.CancelBegin(new ReturnValueDeserializeTime());
+            //[END_METRICS] */
+            throw new DeserializationException("Failed to deserialize return value.", EncodeDocument(document), e);
+        }
+
+        return returnValue;
+    }
+
+    /**
+     * Writes a method invocation document to the inputted buffer.
+     * @param inputMethodInvocation  The method invocation to write.
+     * @param buffer                 The buffer to write to.
+     * @param context                The serialization context of the current operation.
+     * @throws Exception
+     */
+    private void WriteMethodInvocation(IMethodInvocation inputMethodInvocation, BinaryWriteBuffer buffer, SerializationContext context) throws Exception {
+        WriteDocumentType(buffer, methodInvocationDocumentType, methodInvocationWithReferencesDocumentType, methodInvocationWithTokensDocumentType, methodInvocationWithTokensAndReferencesDocumentType, context);
+        WriteName(inputMethodInvocation.getName(), buffer, context);
+        SerializeParameters(inputMethodInvocation.getParameters(), buffer, context);
+        SerializeReturnType(inputMethodInvocation.getReturnType(), buffer, context);
+        context.EndReferenceTracking();
+    }
+
+    /**
+     * Reads a method invocation document from the inputted buffer.
+     * @param reader   The buffer to read from.
+     * @param context  The serialization context of the current operation.
+     * @return         The method invocation.
+     * @throws Exception
+     */
+    private MethodInvocation ReadMethodInvocation(BinaryReadBuffer reader, SerializationContext context) throws Exception {
+        ReadDocumentType(reader, methodInvocationDocumentType, methodInvocationWithReferencesDocumentType, methodInvocationWithTokensDocumentType, methodInvocationWithTokensAndReferencesDocumentType, "method invocation", context);
+        String methodName = ReadName(reader, context);
+        ArrayList<Object> parameterArray = DeserializeParameters(reader, context);
+        Class<?> returnType = DeserializeReturnType(reader, context);
+        CheckEndOfData(reader);
+        context.EndReferenceTracking();
+        context.EndTokenTracking();
+
+        return BuildMethodInvocation(methodName, parameterArray, returnType);
+    }
+
+    /**
+     * Writes a return value document to the inputted buffer.
+     * @param inputReturnValue  The return value to write.
+     * @param buffer            The buffer to write to.
+     * @param context           The serialization context of the current operation.
+     * @throws Exception
+     */
+    private void WriteReturnValue(Object inputReturnValue, BinaryWriteBuffer buffer, SerializationContext context) throws Exception {
+        WriteDocumentType(buffer, returnValueDocumentType, returnValueWithReferencesDocumentType, returnValueWithTokensDocumentType, returnValueWithTokensAndReferencesDocumentType, context);
+        SerializeItem(inputReturnValue, buffer, context);
+        context.EndReferenceTracking();
+    }
+
+    /**
+     * Reads a return value document from the inputted buffer.
+     * @param reader   The buffer to read from.
+     * @param context  The serialization context of the current operation.
+     * @return         The return value.
+     * @throws Exception
+     */
+    private Object ReadReturnValue(BinaryReadBuffer reader, SerializationContext context) throws Exception {
+        ReadDocumentType(reader, returnValueDocumentType, returnValueWithReferencesDocumentType, returnValueWithTokensDocumentType, returnValueWithTokensAndReferencesDocumentType, "return value", context);
+        Object returnValue = DeserializeItem(reader, context);
+        CheckEndOfData(reader);
+        context.EndReferenceTracking();
+        context.EndTokenTracking();
+
+        return returnValue;
+    }
+
+    /**
+     * Writes the document type to the inputted buffer, and begins tracking references and using the session token dictionary as configured.
+     * @param buffer                       The buffer to write to.
+     * @param type                         The document type, if the document contains neither back-references nor tokens.
+     * @param withReferencesType           The document type, if the document contains back-references.
+     * @param withTokensType               The document type, if the document contains tokens.
+     * @param withTokensAndReferencesType  The document type, if the document contains both back-references and tokens.
+     * @param context                      The serialization context of the current operation.
+     */
+    private void WriteDocumentType(BinaryWriteBuffer buffer, byte type, byte withReferencesType, byte withTokensType, byte withTokensAndReferencesType, SerializationContext context) {
+        SessionTokenDictionary currentTokenDictionary = tokenDictionary;
+
+        if (currentTokenDictionary == null) {
+            buffer.WriteByte((trackReferences == true) ? withReferencesType : type);
+        }
+        else {
+            buffer.WriteByte((trackReferences == true) ? withTokensAndReferencesType : withTokensType);
+            int generation = currentTokenDictionary.getWriteGeneration();
+            buffer.WriteInt32(generation);
+            context.BeginTokenTracking(currentTokenDictionary, generation);
+        }
+        if (trackReferences == true) {
+            context.BeginReferenceTracking();
+        }
+    }
+
+    /**
+     * Writes a method name or serialized type name to the inputted buffer, as a token if the current document contains tokens.
+     * @param name     The name to write.
+     * @param buffer   The buffer to write to.
+     * @param context  The serialization context of the current operation.
+     */
+    private void WriteName(String name, BinaryWriteBuffer buffer, SerializationContext context) {
+        SessionTokenDictionary currentTokenDictionary = context.getTokenDictionary();
+        if (currentTokenDictionary == null) {
+            buffer.WriteString(name);
+            return;
+        }
+
+        // Check for a token assigned earlier in the current document before checking the dictionary, as tokens are only committed to the dictionary once the document has been written
+        HashMap<String, Integer> documentTokens = context.getDocumentTokens();
+        Integer token = documentTokens.get(name);
+        if (token == null) {
+            int writtenToken = currentTokenDictionary.FindWritten(name, context.getTokenGeneration());
+            if (writtenToken >= 0) {
+                token = writtenToken;
+            }
+        }
+
+        if (token != null) {
+            buffer.WriteVarInt(token << 1);
+        }
+        else {
+            int newToken = currentTokenDictionary.AssignToken();
+            documentTokens.put(name, newToken);
+            buffer.WriteVarInt((newToken << 1) | tokenDefinitionFlag);
+            buffer.WriteString(name);
+        }
+    }
+
+    /**
+     * Reads a method name or serialized type name from the inputted buffer, resolving it from its token if the current document contains tokens.
+     * @param reader   The buffer to read from.
+     * @param context  The serialization context of the current operation.
+     * @return         The name.
+     * @throws Exception
+     */
+    private String ReadName(BinaryReadBuffer reader, SerializationContext context) throws Exception {
+        SessionTokenDictionary currentTokenDictionary = context.getTokenDictionary();
+        if (currentTokenDictionary == null) {
+            return reader.ReadString();
+        }
+
+        int tokenValue = reader.ReadVarInt();
+        int token = tokenValue >>> 1;
+        if ((tokenValue & tokenDefinitionFlag) != 0) {
+            String name = reader.ReadString();
+            currentTokenDictionary.AddRead(token, name);
+            return name;
+        }
+        else {
+            return currentTokenDictionary.GetRead(token);
+        }
+    }
+
+    /**
+     * Copies a written document to either a buffer or a stream.
+     * @param buffer        The buffer containing the written document.
+     * @param outputBuffer  The buffer to copy to, or null if copying to a stream.
+     * @param outputStream  The stream to copy to, or null if copying to a buffer.
+     * @param context       The serialization context of the current operation.
+     * @return              The buffer copied to (either the specified buffer, or a newly allocated larger buffer if the specified buffer had insufficient space remaining), or null if copying to a stream.
+     * @throws IOException  if an error occurs writing to the stream.
+     */
+    private ByteBuffer WriteDocument(BinaryWriteBuffer buffer, ByteBuffer outputBuffer, OutputStream outputStream, SerializationContext context) throws IOException {
+        if (outputStream == null) {
+            outputBuffer = context.EnsureRemaining(outputBuffer, buffer.getPosition());
+            outputBuffer.put(buffer.getBuffer(), 0, buffer.getPosition());
+        }
+        else {
+            outputStream.write(buffer.getBuffer(), 0, buffer.getPosition());
+        }
+
+        return outputBuffer;
+    }
+
+    /**
+     * Returns the key used to estimate the serialized size of a return value.
+     * @param returnValue  The return value.
+     * @return             The class of the return value, or null if the return value is null.
+     */
+    private Class<?> GetSizeEstimateKey(Object returnValue) {
+        if (returnValue == null) {
+            return null;
+        }
+        else {
+            return returnValue.getClass();
+        }
+    }
+
+    /**
+     * Creates a BinaryReadBuffer to read the bytes between the position and limit of the specified buffer, without copying them if the buffer is backed by an accessible array.
+     * @param document  The buffer containing the document.
+     * @return          The BinaryReadBuffer.
+     */
+    private BinaryReadBuffer CreateReadBuffer(ByteBuffer document) {
+        if (document.hasArray() == true) {
+            return new BinaryReadBuffer(document.array(), document.arrayOffset() + document.position(), document.remaining());
+        }
+        else {
+            byte[] documentBytes = new byte[document.remaining()];
+            document.duplicate().get(documentBytes);
+            return new BinaryReadBuffer(documentBytes);
+        }
+    }
+
+    /**
+     * Encodes a serialized document as a base64 string, for inclusion in a DeserializationException.
+     * @param document  Buffer containing the document between its position and limit, or null if the document was not read.
+     * @return          The encoded document, or null if the document was not read.
+     */
+    private String EncodeDocument(ByteBuffer document) {
+        if (document == null) {
+            return null;
+        }
+        byte[] documentBytes = new byte[document.remaining()];
+        document.duplicate().get(documentBytes);
+
+        return Base64.encodeBase64String(documentBytes);
+    }
+
+    /**
+     * Attempts to retrieve a serialized type corresponding to an inputted native type from the operation map, and throws an exception if the native type cannot be found.
+     * @param nativeType  The native type to search the operation map for.
+     * @return            The corresponding serialized type.
+     * @throws Exception
+     */
+    private String GetSerializedTypeFromMap(Class<?> nativeType) throws Exception {
+        String returnType = operationMap.GetSerializedType(nativeType);
+
+        if (returnType == null) {
+            throw new Exception("Native type '" + nativeType.getName() + "' does not exist in the operation map.");
+        }
+
+        return returnType;
+    }
+
+    /**
+     * Attempts to retrieve a native type corresponding to an inputted serialized type from the operation map, and throws an exception if the serialized type cannot be found.
+     * @param serializedType  The serialized type to search the operation map for.
+     * @return                The corresponding native type.
+     * @throws Exception
+     */
+    private Class<?> GetDeserializedTypeFromMap(String serializedType) throws Exception {
+        Class<?> returnType = operationMap.GetNativeType(serializedType);
+
+        if (returnType == null) {
+            throw new Exception("Serialized type '" + serializedType + "' does not exist in the operation map.");
+        }
+
+        return returnType;
+    }
+
+    /**
+     * Serializes the method invocation parameters to the inputted buffer.
+     * @param parameters  The method invocation parameters.
+     * @param buffer      The buffer to serialize to.
+     * @param context     The serialization context of the current operation.
+     * @throws Exception
+     */
+    private void SerializeParameters(Object[] parameters, BinaryWriteBuffer buffer, SerializationContext context) throws Exception {
+        if (parameters == null) {
+            buffer.WriteVarInt(0);
+        }
+        else {
+            buffer.WriteVarInt(parameters.length);
+            for (int i = 0; i < parameters.length; i = i + 1) {
+                SerializeItem(parameters[i], buffer, context);
+                /* //[BEGIN_LOGGING]
+                loggingUtilities.LogParameter(this, "Serialized", parameters[i]);
+                //[END_LOGGING] */
+            }
+        }
+    }
+
+    /**
+     * Serializes an item to the inputted buffer.  The item includes a type code as well as the data itself.  The method can be used to serialize parameters, return values, array elements, etc...
+     * @param item     The object to serialize as an item.
+     * @param buffer   The buffer to serialize to.
+     * @param context  The serialization context of the current operation.
+     * @throws Exception
+     */
+    private void SerializeItem(Object item, BinaryWriteBuffer buffer, SerializationContext context) throws Exception {
+        if (item == null) {
+            buffer.WriteVarInt(nullTypeCode);
+        }
+        else if (item instanceof Attachment) {
+            buffer.WriteVarInt(attachmentTypeCode);
+            buffer.WriteVarInt(context.AddAttachment((Attachment)item));
+        }
+        else {
+            Integer typeCode = standardTypeCodes.get(item.getClass());
+            int referenceIndex = FindWrittenReference(item, typeCode, context);
+            if (referenceIndex >= 0) {
+                buffer.WriteVarInt(backReferenceTypeCode);
+                buffer.WriteVarInt(referenceIndex);
+            }
+            else if (typeCode == null) {
+                buffer.WriteVarInt(mappedTypeCode);
+                WriteName(GetSerializedTypeFromMap(item.getClass()), buffer, context);
+                SerializeMappedObject(item, buffer, context);
+            }
+            else if (typeCode < arrayTypeCodeOffset) {
+                buffer.WriteVarInt(typeCode);
+                SerializeStandardObject(typeCode, item, buffer);
+            }
+            else if (typeCode < primitiveArrayTypeCodeOffset) {
+                buffer.WriteVarInt(typeCode);
+                SerializeStandardArray(typeCode - arrayTypeCodeOffset, (Object[])item, buffer, context);
+            }
+            else {
+                buffer.WriteVarInt(typeCode);
+                SerializePrimitiveArray(item, buffer);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the inputted object if it has previously been written to the current document, otherwise records that the object has been written.
+     * @param item      The object being written.
+     * @param typeCode  The type code of the object, or null if the object is of a type registered in the operation map.
+     * @param context   The serialization context of the current operation.
+     * @return          The index of the previously written object, or -1 if the object has not previously been written, references are not being tracked, or references are not tracked for the type of the object.
+     */
+    private int FindWrittenReference(Object item, Integer typeCode, SerializationContext context) {
+        ObjectReferenceTable referenceTable = context.getReferenceTable();
+        if (referenceTable == null) {
+            return -1;
+        }
+        else if (typeCode == null) {
+            return referenceTable.FindOrAddWritten(item, false);
+        }
+        else if (IsReferenceTrackedType(typeCode) == true) {
+            boolean matchEqual = (matchEqualValues == true) && ((typeCode == stringTypeCode) || (typeCode == bigDecimalTypeCode));
+            return referenceTable.FindOrAddWritten(item, matchEqual);
+        }
+        else {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns whether references are tracked for objects with the inputted type code.
+     * @param typeCode  The type code.
+     * @return          Whether references are tracked.
+     */
+    private boolean IsReferenceTrackedType(int typeCode) {
+        return (typeCode == stringTypeCode) || (typeCode == bigDecimalTypeCode) || (typeCode == gregorianCalendarTypeCode) || (typeCode > arrayTypeCodeOffset);
+    }
+
+    /**
+     * Records that the inputted object has been read from the current document, if references are being tracked and are tracked for the type of the object.
+     * @param item      The object read.
+     * @param typeCode  The type code of the object, or null if the object is of a type registered in the operation map.
+     * @param context   The serialization context of the current operation.
+     */
+    private void AddReadReference(Object item, Integer typeCode, SerializationContext context) {
+        ObjectReferenceTable referenceTable = context.getReferenceTable();
+        if ((referenceTable != null) && ((typeCode == null) || (IsReferenceTrackedType(typeCode) == true))) {
+            referenceTable.AddRead(item);
+        }
+    }
+
+    /**
+     * Serializes an object of one of the standard types to the inputted buffer.
+     * @param typeCode     The type code of the object.
+     * @param inputObject  The object to serialize.
+     * @param buffer       The buffer to serialize to.
+     * @throws Exception
+     */
+    private void SerializeStandardObject(int typeCode, Object inputObject, BinaryWriteBuffer buffer) throws Exception {
+        switch (typeCode) {
+            case integerTypeCode:
+                buffer.WriteInt32((Integer)inputObject);
+                break;
+            case stringTypeCode:
+                buffer.WriteString((String)inputObject);
+                break;
+            case byteTypeCode:
+                buffer.WriteByte((Byte)inputObject);
+                break;
+            case shortTypeCode:
+                buffer.WriteInt16((Short)inputObject);
+                break;
+            case longTypeCode:
+                buffer.WriteInt64((Long)inputObject);
+                break;
+            case floatTypeCode:
+                buffer.WriteFloat((Float)inputObject);
+                break;
+            case doubleTypeCode:
+                buffer.WriteDouble((Double)inputObject);
+                break;
+            case characterTypeCode:
+                buffer.WriteInt16((short)((Character)inputObject).charValue());
+                break;
+            case booleanTypeCode:
+                buffer.WriteByte((byte)(((Boolean)inputObject) == true ? 1 : 0));
+                break;
+            case bigDecimalTypeCode:
+                SerializeBigDecimal((BigDecimal)inputObject, buffer);
+                break;
+            case gregorianCalendarTypeCode:
+                SerializeGregorianCalendar((GregorianCalendar)inputObject, buffer);
+                break;
+            default:
+                throw new Exception("Unhandled type code " + typeCode + ".");
+        }
+    }
+
+    /**
+     * Serializes an array of one of the standard types to the inputted buffer.
+     * <p>
+     * The array is written as the element count, followed by a byte indicating whether the array contains nulls, a bitmap of the null elements if it does, and then the values of the non-null elements.
+     * </p>
+     * <p>
+     * When tracking references, each non-null element of a string, BigDecimal, or GregorianCalendar array is preceded by either 0 if the value follows, or the index of a previously written equal or identical object plus 1.
+     * </p>
+     * @param elementTypeCode  The type code of the array elements.
+     * @param inputArray       The array to serialize.
+     * @param buffer           The buffer to serialize to.
+     * @param context          The serialization context of the current operation.
+     * @throws Exception
+     */
+    private void SerializeStandardArray(int elementTypeCode, Object[] inputArray, BinaryWriteBuffer buffer, SerializationContext context) throws Exception {
+        buffer.WriteVarInt(inputArray.length);
+
+        boolean containsNulls = false;
+        for (int i = 0; i < inputArray.length; i = i + 1) {
+            if (inputArray[i] == null) {
+                containsNulls = true;
+                break;
+            }
+        }
+        if (containsNulls == false) {
+            buffer.WriteByte(arrayContainsNoNulls);
+        }
+        else {
+            buffer.WriteByte(arrayContainsNulls);
+            for (int i = 0; i < inputArray.length; i = i + 8) {
+                int bitmapByte = 0;
+                for (int j = 0; (j < 8) && (i + j < inputArray.length); j = j + 1) {
+                    if (inputArray[i + j] == null) {
+                        bitmapByte = bitmapByte | (1 << j);
+                    }
+                }
+                buffer.WriteByte((byte)bitmapByte);
+            }
+        }
+
+        if ((context.getReferenceTable() != null) && (IsReferenceTrackedType(elementTypeCode) == true)) {
+            for (int i = 0; i < inputArray.length; i = i + 1) {
+                if (inputArray[i] != null) {
+                    int referenceIndex = FindWrittenReference(inputArray[i], elementTypeCode, context);
+                    if (referenceIndex >= 0) {
+                        buffer.WriteVarInt(referenceIndex + 1);
+                    }
+                    else {
+                        buffer.WriteVarInt(arrayElementValueFollows);
+                        SerializeStandardObject(elementTypeCode, inputArray[i], buffer);
+                    }
+                }
+            }
+        }
+        // GregorianCalendar arrays are excluded, as reading the fields of a Calendar may modify it, so the same instance cannot be serialized by multiple threads
+        else if ((parallelArrayProcessor.IsParallel(inputArray.length, parallelArrayThreshold) == true) && (elementTypeCode != gregorianCalendarTypeCode)) {
+            SerializeStandardArrayElementsInParallel(elementTypeCode, inputArray, buffer);
+        }
+        else {
+            for (int i = 0; i < inputArray.length; i = i + 1) {
+                if (inputArray[i] != null) {
+                    SerializeStandardObject(elementTypeCode, inputArray[i], buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Serializes the non-null elements of an array of one of the standard types to the inputted buffer, by splitting the elements into chunks which are serialized to separate buffers in parallel, and then written to the inputted buffer in order.
+     * @param elementTypeCode  The type code of the array elements.
+     * @param inputArray       The array to serialize.
+     * @param buffer           The buffer to serialize to.
+     * @throws Exception
+     */
+    private void SerializeStandardArrayElementsInParallel(final int elementTypeCode, final Object[] inputArray, BinaryWriteBuffer buffer) throws Exception {
+        List<BinaryWriteBuffer> chunkBuffers = parallelArrayProcessor.Process(inputArray.length, new ParallelArrayProcessor.IChunkOperation<BinaryWriteBuffer>() {
+            @Override
+            public BinaryWriteBuffer Process(int startIndex, int endIndex) throws Exception {
+                BinaryWriteBuffer chunkBuffer = new BinaryWriteBuffer();
+                for (int i = startIndex; i < endIndex; i = i + 1) {
+                    if (inputArray[i] != null) {
+                        SerializeStandardObject(elementTypeCode, inputArray[i], chunkBuffer);
+                    }
+                }
+                return chunkBuffer;
+            }
+        });
+        for (BinaryWriteBuffer currentChunkBuffer : chunkBuffers) {
+            buffer.WriteBytes(currentChunkBuffer.getBuffer(), 0, currentChunkBuffer.getPosition());
+        }
+    }
+
+    /**
+     * Serializes an array of a primitive type to the inputted buffer, as the element count followed by the raw little endian bytes of the elements.
+     * @param inputArray  The array to serialize.
+     * @param buffer      The buffer to serialize to.
+     * @throws Exception
+     */
+    private void SerializePrimitiveArray(Object inputArray, BinaryWriteBuffer buffer) throws Exception {
+        byte[] packedElements = packedArrayCodec.ToBytes(inputArray, parallelArrayThreshold);
+        buffer.WriteVarInt(Array.getLength(inputArray));
+        buffer.WriteBytes(packedElements, 0, packedElements.length);
+    }
+
+    /**
+     * Serializes an object of a type registered in the operation map to the inputted buffer.
+     * @param inputObject  The object to serialize.
+     * @param buffer       The buffer to serialize to.
+     * @param context      The serialization context of the current operation.
+     * @throws Exception
+     */
+    private void SerializeMappedObject(Object inputObject, BinaryWriteBuffer buffer, SerializationContext context) throws Exception {
+        if ((inputObject.getClass().isArray() == true) && (inputObject.getClass().getComponentType().isPrimitive() == false)) {
+            Object[] inputArray = (Object[])inputObject;
+            buffer.WriteVarInt(inputArray.length);
+            for (int i = 0; i < inputArray.length; i = i + 1) {
+                SerializeItem(inputArray[i], buffer, context);
+            }
+        }
+        else {
+            // The serializer registered for the class of the object accepts the object
+            @SuppressWarnings("unchecked")
+            IObjectSerializer<Object> serializer = (IObjectSerializer<Object>)operationMap.GetSerializer(inputObject.getClass());
+            XMLStreamWriter writer = context.BeginWrite();
+            // Write data start tag (e.g. <Data>)
+            writer.writeStartElement(dataElementName);
+            serializer.Serialize(inputObject, writer);
+            // Write data end tag (e.g. </Data>)
+            writer.writeEndElement();
+            buffer.WriteString(context.EndWrite());
+        }
+    }
+
+    /**
+     * Serializes a BigDecimal to the inputted buffer, as the scale followed by the length prefixed two's complement bytes of the unscaled value.
+     * @param inputBigDecimal  The BigDecimal to serialize.
+     * @param buffer           The buffer to serialize to.
+     * @throws Exception       if the value is outside the range supported by the C# Decimal type.
+     */
+    private void SerializeBigDecimal(BigDecimal inputBigDecimal, BinaryWriteBuffer buffer) throws Exception {
+        if (inputBigDecimal.compareTo(minAllowedBigDecimalValue) == -1) {
+            throw new Exception("BigDecimal value exceeds minimum allowed size of " + minAllowedBigDecimalValue.toString() + ".");
+        }
+        if (inputBigDecimal.compareTo(maxAllowedBigDecimalValue) == 1) {
+            throw new Exception("BigDecimal value exceeds maximum allowed size of " + maxAllowedBigDecimalValue.toString() + ".");
+        }
+
+        byte[] unscaledValue = inputBigDecimal.unscaledValue().toByteArray();
+        buffer.WriteInt32(inputBigDecimal.scale());
+        buffer.WriteVarInt(unscaledValue.length);
+        buffer.WriteBytes(unscaledValue, 0, unscaledValue.length);
+    }
+
+    /**
+     * Serializes a GregorianCalendar to the inputted buffer, as the date and time fields in the default time zone (consistent with class MethodInvocationSerializer).
+     * @param inputCalendar  The GregorianCalendar to serialize.
+     * @param buffer         The buffer to serialize to.
+     * @throws Exception     if the year is greater than that supported by the C# DateTime type.
+     */
+    private void SerializeGregorianCalendar(GregorianCalendar inputCalendar, BinaryWriteBuffer buffer) throws Exception {
+        if (inputCalendar.get(Calendar.YEAR) > maxYear) {
+            throw new Exception("Year value exceeds maximum allowed size of " + maxYear + ".");
+        }
+
+        Calendar localCalendar = inputCalendar;
+        if (inputCalendar.getTimeZone().equals(TimeZone.getDefault()) == false) {
+            localCalendar = new GregorianCalendar();
+            localCalendar.setTimeInMillis(inputCalendar.getTimeInMillis());
+        }
+        buffer.WriteInt16((short)localCalendar.get(Calendar.YEAR));
+        buffer.WriteByte((byte)(localCalendar.get(Calendar.MONTH) + 1));
+        buffer.WriteByte((byte)localCalendar.get(Calendar.DAY_OF_MONTH));
+        buffer.WriteByte((byte)localCalendar.get(Calendar.HOUR_OF_DAY));
+        buffer.WriteByte((byte)localCalendar.get(Calendar.MINUTE));
+        buffer.WriteByte((byte)localCalendar.get(Calendar.SECOND));
+        buffer.WriteInt16((short)localCalendar.get(Calendar.MILLISECOND));
+    }
+
+    /**
+     * Serializes the method return type to the inputted buffer.
+     * @param returnType  The return type.
+     * @param buffer      The buffer to serialize to.
+     * @param context     The serialization context of the current operation.
+     * @throws Exception
+     */
+    private void SerializeReturnType(Class<?> returnType, BinaryWriteBuffer buffer, SerializationContext context) throws Exception {
+        if (returnType == null) {
+            buffer.WriteVarInt(nullTypeCode);
+        }
+        else if (returnType == Attachment.class) {
+            buffer.WriteVarInt(attachmentTypeCode);
+        }
+        else {
+            Integer typeCode = standardTypeCodes.get(returnType);
+            if (typeCode == null) {
+                buffer.WriteVarInt(mappedTypeCode);
+                WriteName(GetSerializedTypeFromMap(returnType), buffer, context);
+            }
+            else {
+                buffer.WriteVarInt(typeCode);
+            }
+        }
+    }
+
+    /**
+     * Reads the document type from the inputted buffer, and throws an exception if it does not match any of the expected types.  Begins tracking references if the document contains back-references, and begins using the session token dictionary if the document contains tokens.
+     * @param reader                               The buffer to read from.
+     * @param expectedType                         The expected document type.
+     * @param expectedWithReferencesType           The expected document type, if the document contains back-references.
+     * @param expectedWithTokensType               The expected document type, if the document contains tokens.
+     * @param expectedWithTokensAndReferencesType  The expected document type, if the document contains both back-references and tokens.
+     * @param expectedTypeName                     A description of the expected document type to include in the exception message.
+     * @param context                              The serialization context of the current operation.
+     * @throws Exception
+     */
+    private void ReadDocumentType(BinaryReadBuffer reader, byte expectedType, byte expectedWithReferencesType, byte expectedWithTokensType, byte expectedWithTokensAndReferencesType, String expectedTypeName, SerializationContext context) throws Exception {
+        byte documentType = reader.ReadByte();
+
+        if ((documentType == expectedWithTokensType) || (documentType == expectedWithTokensAndReferencesType)) {
+            SessionTokenDictionary currentTokenDictionary = tokenDictionary;
+            if (currentTokenDictionary == null) {
+                throw new Exception("Serialized data contains tokens, but a session token dictionary has not been set.");
+            }
+            int generation = reader.ReadInt32();
+            currentTokenDictionary.BeginRead(generation);
+            context.BeginTokenTracking(currentTokenDictionary, generation);
+        }
+        else if ((documentType != expectedType) && (documentType != expectedWithReferencesType)) {
+            throw new Exception("Serialized data does not contain a " + expectedTypeName + " (document type was " + documentType + ").");
+        }
+
+        if ((documentType == expectedWithReferencesType) || (documentType == expectedWithTokensAndReferencesType)) {
+            context.BeginReferenceTracking();
+        }
+    }
+
+    /**
+     * Throws an exception if the inputted buffer contains data which has not been read.
+     * @param reader  The buffer to check.
+     * @throws Exception
+     */
+    private void CheckEndOfData(BinaryReadBuffer reader) throws Exception {
+        if (reader.getRemaining() != 0) {
+            throw new Exception("Serialized data contains " + reader.getRemaining() + " unexpected trailing bytes.");
+        }
+    }
+
+    /**
+     * Deserializes the method invocation parameters from the inputted buffer.
+     * @param reader   The buffer to deserialize from.
+     * @param context  The serialization context of the current operation.
+     * @return         The deserialized objects.
+     * @throws Exception
+     */
+    private ArrayList<Object> DeserializeParameters(BinaryReadBuffer reader, SerializationContext context) throws Exception {
+        int parameterCount = reader.ReadVarInt();
+        // Each parameter occupies at least 1 byte, so check the count before allocating
+        reader.CheckRemaining(parameterCount);
+        ArrayList<Object> returnParameterArray = new ArrayList<Object>(parameterCount);
+
+        for (int i = 0; i < parameterCount; i = i + 1) {
+            Object parameter = DeserializeItem(reader, context);
+            returnParameterArray.add(parameter);
+            /* //[BEGIN_LOGGING]
+            loggingUtilities.LogParameter(this, "Deserialized", parameter);
+            //[END_LOGGING] */
+        }
+
+        return returnParameterArray;
+    }
+
+    /**
+     * Deserializes an item from the inputted buffer.  The item includes a type code as well as the data itself.  The method can be used to deserialize parameters, return values, array elements, etc...
+     * @param reader   The buffer to deserialize from.
+     * @param context  The serialization context of the current operation.
+     * @return         The deserialized object.
+     * @throws Exception
+     */
+    private Object DeserializeItem(BinaryReadBuffer reader, SerializationContext context) throws Exception {
+        int typeCode = reader.ReadVarInt();
+
+        if (typeCode == nullTypeCode) {
+            return null;
+        }
+        else if (typeCode < standardTypes.length) {
+            Object returnObject = DeserializeStandardObject(typeCode, reader);
+            AddReadReference(returnObject, typeCode, context);
+            return returnObject;
+        }
+        else if ((typeCode > arrayTypeCodeOffset) && (typeCode - arrayTypeCodeOffset < standardTypes.length)) {
+            return DeserializeStandardArray(typeCode - arrayTypeCodeOffset, reader, context);
+        }
+        else if (typeCode == mappedTypeCode) {
+            return DeserializeMappedObject(ReadName(reader, context), reader, context);
+        }
+        else if (typeCode == backReferenceTypeCode) {
+            if (context.getReferenceTable() == null) {
+                throw new Exception("Encountered back-reference in a document which does not contain back-references.");
+            }
+            return context.getReferenceTable().GetRead(reader.ReadVarInt());
+        }
+        else if (typeCode == attachmentTypeCode) {
+            return context.GetAttachment(reader.ReadVarInt());
+        }
+        else if ((typeCode > primitiveArrayTypeCodeOffset) && (typeCode - primitiveArrayTypeCodeOffset < primitiveTypes.length) && (primitiveTypes[typeCode - primitiveArrayTypeCodeOffset] != null)) {
+            Object returnArray = DeserializePrimitiveArray(primitiveTypes[typeCode - primitiveArrayTypeCodeOffset], reader);
+            AddReadReference(returnArray, typeCode, context);
+            return returnArray;
+        }
+        else {
+            throw new Exception("Encountered unrecognised type code " + typeCode + ".");
+        }
+    }
+
+    /**
+     * Deserializes an object of one of the standard types from the inputted buffer.
+     * @param typeCode  The type code of the object.
+     * @param reader    The buffer to deserialize from.
+     * @return          The object.
+     * @throws Exception
+     */
+    private Object DeserializeStandardObject(int typeCode, BinaryReadBuffer reader) throws Exception {
+        switch (typeCode) {
+            case integerTypeCode:
+                return reader.ReadInt32();
+            case stringTypeCode:
+                return reader.ReadString();
+            case byteTypeCode:
+                return reader.ReadByte();
+            case shortTypeCode:
+                return reader.ReadInt16();
+            case longTypeCode:
+                return reader.ReadInt64();
+            case floatTypeCode:
+                return reader.ReadFloat();
+            case doubleTypeCode:
+                return reader.ReadDouble();
+            case characterTypeCode:
+                return (char)reader.ReadInt16();
+            case booleanTypeCode:
+                return (reader.ReadByte() != 0);
+            case bigDecimalTypeCode:
+                return DeserializeBigDecimal(reader);
+            case gregorianCalendarTypeCode:
+                return DeserializeGregorianCalendar(reader);
+            default:
+                throw new Exception("Unhandled type code " + typeCode + ".");
+        }
+    }
+
+    /**
+     * Deserializes an array of one of the standard types from the inputted buffer.
+     * @param elementTypeCode  The type code of the array elements.
+     * @param reader           The buffer to deserialize from.
+     * @param context          The serialization context of the current operation.
+     * @return                 The array.
+     * @throws Exception
+     */
+    private Object[] DeserializeStandardArray(int elementTypeCode, BinaryReadBuffer reader, SerializationContext context) throws Exception {
+        int length = reader.ReadVarInt();
+        byte nullIndicator = reader.ReadByte();
+        byte[] nullBitmap = null;
+
+        if (nullIndicator == arrayContainsNoNulls) {
+            // Each element occupies at least 1 byte, so check the length before allocating
+            reader.CheckRemaining(length);
+        }
+        else if (nullIndicator == arrayContainsNulls) {
+            nullBitmap = new byte[(length + 7) / 8];
+            reader.ReadBytes(nullBitmap, 0, nullBitmap.length);
+        }
+        else {
+            throw new Exception("Encountered unrecognised array null indicator " + nullIndicator + ".");
+        }
+
+        Object[] returnArray = (Object[])Array.newInstance(standardTypes[elementTypeCode], length);
+        AddReadReference(returnArray, elementTypeCode + arrayTypeCodeOffset, context);
+        ObjectReferenceTable referenceTable = context.getReferenceTable();
+        boolean elementsHaveReferences = (referenceTable != null) && (IsReferenceTrackedType(elementTypeCode) == true);
+        for (int i = 0; i < length; i = i + 1) {
+            if ((nullBitmap == null) || ((nullBitmap[i / 8] & (1 << (i % 8))) == 0)) {
+                if (elementsHaveReferences == false) {
+                    returnArray[i] = DeserializeStandardObject(elementTypeCode, reader);
+                }
+                else {
+                    int elementReference = reader.ReadVarInt();
+                    if (elementReference == arrayElementValueFollows) {
+                        returnArray[i] = DeserializeStandardObject(elementTypeCode, reader);
+                        referenceTable.AddRead(returnArray[i]);
+                    }
+                    else {
+                        Object referencedObject = referenceTable.GetRead(elementReference - 1);
+                        if (standardTypes[elementTypeCode].isInstance(referencedObject) == false) {
+                            throw new Exception("Referenced object " + (elementReference - 1) + " of type '" + referencedObject.getClass().getName() + "' cannot be stored in an array of type '" + standardTypes[elementTypeCode].getName() + "'.");
+                        }
+                        returnArray[i] = referencedObject;
+                    }
+                }
+            }
+        }
+
+        return returnArray;
+    }
+
+    /**
+     * Deserializes an array of a primitive type from the inputted buffer.
+     * @param componentType  The primitive component type of the array.
+     * @param reader         The buffer to deserialize from.
+     * @return               The array.
+     * @throws Exception
+     */
+    private Object DeserializePrimitiveArray(Class<?> componentType, BinaryReadBuffer reader) throws Exception {
+        int length = reader.ReadVarInt();
+        long packedLength = (long)length * packedArrayCodec.GetElementSize(componentType);
+        if (packedLength > reader.getRemaining()) {
+            throw new Exception("Unexpected end of data encountered when attempting to read " + length + " elements of type '" + componentType.getName() + "'.");
+        }
+        byte[] packedElements = new byte[(int)packedLength];
+        reader.ReadBytes(packedElements, 0, packedElements.length);
+
+        return packedArrayCodec.FromBytes(packedElements, length, componentType, parallelArrayThreshold);
+    }
+
+    /**
+     * Deserializes an object of a type registered in the operation map from the inputted buffer.
+     * @param serializedType  The serialized type of the object.
+     * @param reader          The buffer to deserialize from.
+     * @param context         The serialization context of the current operation.
+     * @return                The object.
+     * @throws Exception
+     */
+    private Object DeserializeMappedObject(String serializedType, BinaryReadBuffer reader, SerializationContext context) throws Exception {
+        Object returnObject;
+
+        Class<?> objectType = GetDeserializedTypeFromMap(serializedType);
+        if ((objectType.isArray() == true) && (objectType.getComponentType().isPrimitive() == false)) {
+            int length = reader.ReadVarInt();
+            // Each element occupies at least 1 byte, so check the length before allocating
+            reader.CheckRemaining(length);
+            Object[] returnArray = (Object[])Array.newInstance(objectType.getComponentType(), length);
+            AddReadReference(returnArray, null, context);
+            for (int i = 0; i < length; i = i + 1) {
+                returnArray[i] = DeserializeItem(reader, context);
+            }
+            returnObject = returnArray;
+        }
+        else {
+            IObjectSerializer<?> serializer = operationMap.GetSerializer(serializedType);
+            XMLStreamReader xmlReader = context.CreateReader(reader.ReadString());
+            SimplifiedXMLStreamReader simpleReader = new SimplifiedXMLStreamReader(xmlReader);
+            // Consume data start tag (e.g. <Data>)
+            simpleReader.ReadStartElement(dataElementName);
+            returnObject = serializer.Deserialize(simpleReader);
+            // End data end tag (e.g. </Data>) is consumed in serializer.Deserialize() routine
+            xmlReader.close();
+            AddReadReference(returnObject, null, context);
+        }
+
+        return returnObject;
+    }
+
+    /**
+     * Deserializes a BigDecimal from the inputted buffer.
+     * @param reader  The buffer to deserialize from.
+     * @return        The BigDecimal.
+     * @throws Exception
+     */
+    private BigDecimal DeserializeBigDecimal(BinaryReadBuffer reader) throws Exception {
+        int scale = reader.ReadInt32();
+        int unscaledValueLength = reader.ReadVarInt();
+        reader.CheckRemaining(unscaledValueLength);
+        byte[] unscaledValue = new byte[unscaledValueLength];
+        reader.ReadBytes(unscaledValue, 0, unscaledValueLength);
+
+        return new BigDecimal(new BigInteger(unscaledValue), scale);
+    }
+
+    /**
+     * Deserializes a GregorianCalendar from the inputted buffer.
+     * @param reader  The buffer to deserialize from.
+     * @return        The GregorianCalendar.
+     * @throws Exception
+     */
+    private GregorianCalendar DeserializeGregorianCalendar(BinaryReadBuffer reader) throws Exception {
+        int year = reader.ReadInt16();
+        int month = reader.ReadByte() - 1;
+        int day = reader.ReadByte();
+        int hour = reader.ReadByte();
+        int minute = reader.ReadByte();
+        int second = reader.ReadByte();
+        int milliSeconds = reader.ReadInt16();
+
+        GregorianCalendar returnCalendar = new GregorianCalendar(year, month, day, hour, minute, second);
+        returnCalendar.set(Calendar.MILLISECOND, milliSeconds);
+
+        return returnCalendar;
+    }
+
+    /**
+     * Deserializes the method return type from the inputted buffer.
+     * @param reader   The buffer to deserialize from.
+     * @param context  The serialization context of the current operation.
+     * @return         The return type, or null if the method is void.
+     * @throws Exception
+     */
+    private Class<?> DeserializeReturnType(BinaryReadBuffer reader, SerializationContext context) throws Exception {
+        int typeCode = reader.ReadVarInt();
+
+        if (typeCode == nullTypeCode) {
+            return null;
+        }
+        else if (typeCode < standardTypes.length) {
+            return standardTypes[typeCode];
+        }
+        else if ((typeCode > arrayTypeCodeOffset) && (typeCode - arrayTypeCodeOffset < standardTypes.length)) {
+            return Array.newInstance(standardTypes[typeCode - arrayTypeCodeOffset], 0).getClass();
+        }
+        else if (typeCode == mappedTypeCode) {
+            return GetDeserializedTypeFromMap(ReadName(reader, context));
+        }
+        else if (typeCode == attachmentTypeCode) {
+            return Attachment.class;
+        }
+        else if ((typeCode > primitiveArrayTypeCodeOffset) && (typeCode - primitiveArrayTypeCodeOffset < primitiveTypes.length) && (primitiveTypes[typeCode - primitiveArrayTypeCodeOffset] != null)) {
+            return Array.newInstance(primitiveTypes[typeCode - primitiveArrayTypeCodeOffset], 0).getClass();
+        }
+        else {
+            throw new Exception("Encountered unrecognised return type code " + typeCode + ".");
+        }
+    }
+
+    /**
+     * Builds a method invocation object from the inputted name, parameters, and return type.
+     * @param name           The name of the method.
+     * @param parameterList  The parameters of the method invocation.
+     * @param returnType     The return type of the method.
+     * @return               The method invocation.
+     * @throws Exception
+     */
+    private MethodInvocation BuildMethodInvocation(String name, ArrayList<Object> parameterList, Class<?> returnType) throws Exception {
+        MethodInvocation returnMethodInvocation;
+
+        try {
+            if (parameterList.size() == 0) {
+                if (returnType == null) {
+                    returnMethodInvocation = new MethodInvocation(name);
+                }
+                else {
+                    returnMethodInvocation = new MethodInvocation(name, returnType);
+                }
+            }
+            else {
+                Object[] parameters = parameterList.toArray();
+
+                if (returnType == null) {
+                    returnMethodInvocation = new MethodInvocation(name, parameters);
+                }
+                else {
+                    returnMethodInvocation = new MethodInvocation(name, parameters, returnType);
+                }
+            }
+        }
+        catch (Exception e) {
+            throw new Exception("Failed to build method invocation object.", e);
+        }
+
+        return returnMethodInvocation;
+    }
+}
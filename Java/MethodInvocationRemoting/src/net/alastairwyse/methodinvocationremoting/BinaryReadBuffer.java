@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.nio.charset.*;
+
+/**
+ * Reads binary serialized data written by class BinaryWriteBuffer.
+ * @author Alastair Wyse
+ */
+class BinaryReadBuffer {
+
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    
+    /**
+     * Initialises a new instance of the BinaryReadBuffer class.
+     * @param buffer  The byte array containing the data to read.
+     * @param offset  The index within the array of the first byte to read.
+     * @param length  The number of bytes available to read.
+     */
+    public BinaryReadBuffer(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        position = offset;
+        limit = offset + length;
+    }
+    
+    /**
+     * Initialises a new instance of the BinaryReadBuffer class.
+     * @param buffer  The byte array containing the data to read.
+     */
+    public BinaryReadBuffer(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+    
+    /**
+     * @return  The number of bytes remaining to be read.
+     */
+    public int getRemaining() {
+        return limit - position;
+    }
+    
+    /**
+     * Reads a single byte.
+     * @return            The byte.
+     * @throws Exception  if the end of the data has been reached.
+     */
+    public byte ReadByte() throws Exception {
+        CheckRemaining(1);
+        byte returnValue = buffer[position];
+        position = position + 1;
+        
+        return returnValue;
+    }
+    
+    /**
+     * Reads a range of bytes into the specified array.
+     * @param destination  The array to read the bytes into.
+     * @param offset       The index within the array to write the first byte to.
+     * @param length       The number of bytes to read.
+     * @throws Exception   if the end of the data has been reached.
+     */
+    public void ReadBytes(byte[] destination, int offset, int length) throws Exception {
+        CheckRemaining(length);
+        System.arraycopy(buffer, position, destination, offset, length);
+        position = position + length;
+    }
+    
+    /**
+     * Reads a non-negative integer written as a variable length value.
+     * @return            The value.
+     * @throws Exception  if the end of the data has been reached, or the value is malformed.
+     */
+    public int ReadVarInt() throws Exception {
+        int returnValue = 0;
+        int shift = 0;
+        byte currentByte;
+        
+        do {
+            if (shift > 28) {
+                throw new Exception("Variable length integer exceeds maximum length of 5 bytes.");
+            }
+            currentByte = ReadByte();
+            returnValue = returnValue | ((currentByte & 0x7F) << shift);
+            shift = shift + 7;
+        }
+        while ((currentByte & 0x80) != 0);
+        
+        if (returnValue < 0) {
+            throw new Exception("Variable length integer value " + (returnValue & 0xFFFFFFFFL) + " exceeds the maximum allowed value.");
+        }
+        
+        return returnValue;
+    }
+    
+    /**
+     * Reads a 2 byte integer.
+     * @return            The value.
+     * @throws Exception  if the end of the data has been reached.
+     */
+    public short ReadInt16() throws Exception {
+        CheckRemaining(2);
+        short returnValue = (short)((buffer[position] & 0xFF) | (buffer[position + 1] << 8));
+        position = position + 2;
+        
+        return returnValue;
+    }
+    
+    /**
+     * Reads a 4 byte integer.
+     * @return            The value.
+     * @throws Exception  if the end of the data has been reached.
+     */
+    public int ReadInt32() throws Exception {
+        CheckRemaining(4);
+        int returnValue = (buffer[position] & 0xFF) | ((buffer[position + 1] & 0xFF) << 8) | ((buffer[position + 2] & 0xFF) << 16) | (buffer[position + 3] << 24);
+        position = position + 4;
+        
+        return returnValue;
+    }
+    
+    /**
+     * Reads an 8 byte integer.
+     * @return            The value.
+     * @throws Exception  if the end of the data has been reached.
+     */
+    public long ReadInt64() throws Exception {
+        CheckRemaining(8);
+        long returnValue = 0;
+        for (int i = 7; i >= 0; i = i - 1) {
+            returnValue = (returnValue << 8) | (buffer[position + i] & 0xFF);
+        }
+        position = position + 8;
+        
+        return returnValue;
+    }
+    
+    /**
+     * Reads a 4 byte IEEE 754 floating point number.
+     * @return            The value.
+     * @throws Exception  if the end of the data has been reached.
+     */
+    public float ReadFloat() throws Exception {
+        return Float.intBitsToFloat(ReadInt32());
+    }
+    
+    /**
+     * Reads an 8 byte IEEE 754 floating point number.
+     * @return            The value.
+     * @throws Exception  if the end of the data has been reached.
+     */
+    public double ReadDouble() throws Exception {
+        return Double.longBitsToDouble(ReadInt64());
+    }
+    
+    /**
+     * Reads a string written as a variable length byte count, followed by UTF-8 encoded characters.
+     * @return            The string.
+     * @throws Exception  if the end of the data has been reached.
+     */
+    public String ReadString() throws Exception {
+        int encodedLength = ReadVarInt();
+        CheckRemaining(encodedLength);
+        String returnValue = new String(buffer, position, encodedLength, StandardCharsets.UTF_8);
+        position = position + encodedLength;
+        
+        return returnValue;
+    }
+    
+    /**
+     * Throws an exception if fewer than the specified number of bytes remain to be read.
+     * @param length      The number of bytes.
+     * @throws Exception  if fewer than the specified number of bytes remain.
+     */
+    public void CheckRemaining(int length) throws Exception {
+        if (length > (limit - position)) {
+            throw new Exception("Unexpected end of data encountered at position " + position + " when attempting to read " + length + " bytes.");
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2015 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.util.*;
+
+/**
+ * Growable byte buffer used to write binary serialized data.
+ * Numeric values are written in little endian byte order, variable length integers are written in unsigned LEB128 format, and strings are written as a variable length byte count followed by UTF-8 encoded characters.
+ * @author Alastair Wyse
+ */
+class BinaryWriteBuffer {
+
+    private final int initialCapacity = 256;
+    
+    private byte[] buffer;
+    private int position;
+    
+    /**
+     * Initialises a new instance of the BinaryWriteBuffer class.
+     */
+    public BinaryWriteBuffer() {
+        buffer = new byte[initialCapacity];
+        position = 0;
+    }
+    
+    /**
+     * @return  The underlying byte array.  Only the bytes before the current position contain written data.
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+    
+    /**
+     * @return  The number of bytes written since the buffer was created or last reset.
+     */
+    public int getPosition() {
+        return position;
+    }
+    
+    /**
+     * Clears the buffer, retaining the underlying byte array so it can be reused.
+     */
+    public void Reset() {
+        position = 0;
+    }
+    
+    /**
+     * @return  A copy of the bytes written to the buffer.
+     */
+    public byte[] ToByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+    
+    /**
+     * Writes a single byte.
+     * @param value  The byte to write.
+     */
+    public void WriteByte(byte value) {
+        EnsureCapacity(1);
+        buffer[position] = value;
+        position = position + 1;
+    }
+    
+    /**
+     * Writes a range of bytes.
+     * @param source  The array containing the bytes to write.
+     * @param offset  The index within the array of the first byte to write.
+     * @param length  The number of bytes to write.
+     */
+    public void WriteBytes(byte[] source, int offset, int length) {
+        EnsureCapacity(length);
+        System.arraycopy(source, offset, buffer, position, length);
+        position = position + length;
+    }
+    
+    /**
+     * Writes a non-negative integer as a variable length (1 to 5 byte) value.
+     * @param value  The value to write.
+     */
+    public void WriteVarInt(int value) {
+        EnsureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            buffer[position] = (byte)((value & 0x7F) | 0x80);
+            position = position + 1;
+            value = value >>> 7;
+        }
+        buffer[position] = (byte)value;
+        position = position + 1;
+    }
+    
+    /**
+     * Writes a 2 byte integer.
+     * @param value  The value to write.
+     */
+    public void WriteInt16(short value) {
+        EnsureCapacity(2);
+        buffer[position] = (byte)value;
+        buffer[position + 1] = (byte)(value >> 8);
+        position = position + 2;
+    }
+    
+    /**
+     * Writes a 4 byte integer.
+     * @param value  The value to write.
+     */
+    public void WriteInt32(int value) {
+        EnsureCapacity(4);
+        buffer[position] = (byte)value;
+        buffer[position + 1] = (byte)(value >> 8);
+        buffer[position + 2] = (byte)(value >> 16);
+        buffer[position + 3] = (byte)(value >> 24);
+        position = position + 4;
+    }
+    
+    /**
+     * Writes an 8 byte integer.
+     * @param value  The value to write.
+     */
+    public void WriteInt64(long value) {
+        EnsureCapacity(8);
+        for (int i = 0; i < 8; i = i + 1) {
+            buffer[position + i] = (byte)(value >> (i * 8));
+        }
+        position = position + 8;
+    }
+    
+    /**
+     * Writes a 4 byte IEEE 754 floating point number.
+     * @param value  The value to write.
+     */
+    public void WriteFloat(float value) {
+        WriteInt32(Float.floatToRawIntBits(value));
+    }
+    
+    /**
+     * Writes an 8 byte IEEE 754 floating point number.
+     * @param value  The value to write.
+     */
+    public void WriteDouble(double value) {
+        WriteInt64(Double.doubleToRawLongBits(value));
+    }
+    
+    /**
+     * Writes a string as a variable length byte count, followed by the UTF-8 encoded characters of the string.
+     * @param value  The string to write.
+     */
+    public void WriteString(String value) {
+        int length = value.length();
+        
+        // Calculate the encoded length first, so that the characters can be encoded directly into the buffer
+        int encodedLength = 0;
+        for (int i = 0; i < length; i = i + 1) {
+            char currentChar = value.charAt(i);
+            if (currentChar < 0x80) {
+                encodedLength = encodedLength + 1;
+            }
+            else if (currentChar < 0x800) {
+                encodedLength = encodedLength + 2;
+            }
+            else if (Character.isSurrogate(currentChar) == true) {
+                if ((Character.isHighSurrogate(currentChar) == true) && (i + 1 < length) && (Character.isLowSurrogate(value.charAt(i + 1)) == true)) {
+                    encodedLength = encodedLength + 4;
+                    i = i + 1;
+                }
+                else {
+                    // Unpaired surrogates are encoded as '?', consistent with String.getBytes()
+                    encodedLength = encodedLength + 1;
+                }
+            }
+            else {
+                encodedLength = encodedLength + 3;
+            }
+        }
+        
+        WriteVarInt(encodedLength);
+        EnsureCapacity(encodedLength);
+        for (int i = 0; i < length; i = i + 1) {
+            char currentChar = value.charAt(i);
+            if (currentChar < 0x80) {
+                buffer[position] = (byte)currentChar;
+                position = position + 1;
+            }
+            else if (currentChar < 0x800) {
+                buffer[position] = (byte)(0xC0 | (currentChar >> 6));
+                buffer[position + 1] = (byte)(0x80 | (currentChar & 0x3F));
+                position = position + 2;
+            }
+            else if (Character.isSurrogate(currentChar) == true) {
+                if ((Character.isHighSurrogate(currentChar) == true) && (i + 1 < length) && (Character.isLowSurrogate(value.charAt(i + 1)) == true)) {
+                    int codePoint = Character.toCodePoint(currentChar, value.charAt(i + 1));
+                    buffer[position] = (byte)(0xF0 | (codePoint >> 18));
+                    buffer[position + 1] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position + 2] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position + 3] = (byte)(0x80 | (codePoint & 0x3F));
+                    position = position + 4;
+                    i = i + 1;
+                }
+                else {
+                    buffer[position] = (byte)'?';
+                    position = position + 1;
+                }
+            }
+            else {
+                buffer[position] = (byte)(0xE0 | (currentChar >> 12));
+                buffer[position + 1] = (byte)(0x80 | ((currentChar >> 6) & 0x3F));
+                buffer[position + 2] = (byte)(0x80 | (currentChar & 0x3F));
+                position = position + 3;
+            }
+        }
+    }
+    
+    /**
+     * Ensures that the buffer has capacity to write the specified number of additional bytes, growing the underlying byte array if required.
+     * @param additionalBytes  The number of additional bytes.
+     */
+    public void EnsureCapacity(int additionalBytes) {
+        int requiredCapacity = position + additionalBytes;
+        if (requiredCapacity > buffer.length) {
+            int newCapacity = Math.max(buffer.length * 2, requiredCapacity);
+            buffer = Arrays.copyOf(buffer, newCapacity);
+        }
+    }
+}
@@ -0,0 +1,1078 @@
+/*
+ * Copyright 2015 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.util.NoSuchElementException;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.*;
+import javax.xml.stream.*;
+
+/**
+ * Lightweight pull parser implementation of javax.xml.stream.XMLStreamReader which reads directly from a character array.
+ * <p>
+ * Supports the subset of XML used by the documents written by class MethodInvocationSerializer (an optional XML declaration, elements, attributes, text, the predefined entities and character references, comments, CDATA sections, and processing instructions).  Text is always coalesced (i.e. text and CDATA sections between two elements are returned as a single CHARACTERS event), consistent with setting property "javax.xml.stream.isCoalescing" on the default implementation.  Element and attribute names are interned, so can be compared by reference.  Namespaces and DTDs are not supported.
+ * </p>
+ * @author Alastair Wyse
+ */
+class CharArrayXMLStreamReader implements XMLStreamReader {
+
+    private final int initialBufferSize = 512;
+    private final int initialElementStackSize = 16;
+    private final int initialAttributeCapacity = 4;
+    private final int initialNameTableSize = 64;
+    /** The maximum number of distinct names cached in the name table.  Limits the memory used when reading documents containing large numbers of distinct element names. */
+    private final int maximumNameTableCount = 512;
+
+    /** The document being read. */
+    private char[] source;
+    private int sourceLength;
+    private int position;
+    private int eventType;
+    /** Indicates that the current start element was an empty element (e.g. &lt;Empty/&gt;), so the next event is the corresponding end element. */
+    private boolean pendingEndElement;
+    private boolean rootElementRead;
+
+    // Details of the current event
+    private String currentName;
+    private QName currentQName;
+    private char[] textBuffer;
+    private int textLength;
+    private String currentPITarget;
+    private String currentPIData;
+    private String[] attributeNames;
+    private QName[] attributeQNames;
+    private String[] attributeValues;
+    private int attributeCount;
+    private char[] attributeValueBuffer;
+
+    // Details of the XML declaration
+    private String version;
+    private String characterEncodingScheme;
+    private boolean standalone;
+    private boolean standaloneSet;
+
+    /** The names of the elements which have been started but not ended. */
+    private String[] elementStack;
+    private int elementStackSize;
+
+    /** Open addressing hash table of the interned element and attribute names encountered, and their corresponding QName objects, which are reused across documents. */
+    private String[] nameTableNames;
+    private QName[] nameTableQNames;
+    private int nameTableCount;
+    /** The results of the most recent call to LookupName(). */
+    private String lookupName;
+    private QName lookupQName;
+
+    /**
+     * Initialises a new instance of the CharArrayXMLStreamReader class.
+     */
+    public CharArrayXMLStreamReader() {
+        source = new char[initialBufferSize];
+        textBuffer = new char[initialBufferSize];
+        attributeValueBuffer = new char[initialBufferSize];
+        attributeNames = new String[initialAttributeCapacity];
+        attributeQNames = new QName[initialAttributeCapacity];
+        attributeValues = new String[initialAttributeCapacity];
+        elementStack = new String[initialElementStackSize];
+        nameTableNames = new String[initialNameTableSize];
+        nameTableQNames = new QName[initialNameTableSize];
+        nameTableCount = 0;
+    }
+
+    /**
+     * Prepares the reader to read the specified document, positioned at the START_DOCUMENT event.
+     * @param document             The XML document to read.
+     * @throws XMLStreamException  if the XML declaration of the document is malformed.
+     */
+    public void Reset(String document) throws XMLStreamException {
+        sourceLength = document.length();
+        if (source.length < sourceLength) {
+            source = new char[sourceLength];
+        }
+        document.getChars(0, sourceLength, source, 0);
+        ResetState();
+    }
+
+    /**
+     * Prepares the reader to read the specified document, positioned at the START_DOCUMENT event.
+     * @param document             Array containing the XML document to read.
+     * @param length               The number of characters in the document.
+     * @throws XMLStreamException  if the XML declaration of the document is malformed.
+     */
+    public void Reset(char[] document, int length) throws XMLStreamException {
+        sourceLength = length;
+        if (source.length < sourceLength) {
+            source = new char[sourceLength];
+        }
+        System.arraycopy(document, 0, source, 0, sourceLength);
+        ResetState();
+    }
+
+    /**
+     * Resets the parsing state after a new document has been copied to the source buffer, and reads the XML declaration.
+     * @throws XMLStreamException  if the XML declaration of the document is malformed.
+     */
+    private void ResetState() throws XMLStreamException {
+        position = 0;
+        eventType = XMLStreamConstants.START_DOCUMENT;
+        pendingEndElement = false;
+        rootElementRead = false;
+        elementStackSize = 0;
+        attributeCount = 0;
+        currentName = null;
+        currentQName = null;
+        textLength = 0;
+        version = null;
+        characterEncodingScheme = null;
+        standalone = false;
+        standaloneSet = false;
+
+        // Skip any byte order mark
+        if ((sourceLength > 0) && (source[0] == '\uFEFF')) {
+            position = 1;
+        }
+        ReadXmlDeclaration();
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        if (eventType == XMLStreamConstants.END_DOCUMENT) {
+            throw new NoSuchElementException("The end of the document has been reached.");
+        }
+        attributeCount = 0;
+
+        if (pendingEndElement == true) {
+            pendingEndElement = false;
+            PopElement();
+            eventType = XMLStreamConstants.END_ELEMENT;
+        }
+        else if (elementStackSize == 0) {
+            ReadOutsideRootElement();
+        }
+        else if (position >= sourceLength) {
+            throw new XMLStreamException("Unexpected end of document encountered inside element '" + elementStack[elementStackSize - 1] + "'.", getLocation());
+        }
+        else if (source[position] != '<') {
+            ReadText();
+        }
+        else if (position + 1 >= sourceLength) {
+            throw new XMLStreamException("Unexpected end of document encountered inside element '" + elementStack[elementStackSize - 1] + "'.", getLocation());
+        }
+        else {
+            char nextChar = source[position + 1];
+            if (nextChar == '/') {
+                ReadEndElement();
+            }
+            else if (nextChar == '?') {
+                ReadProcessingInstruction();
+            }
+            else if (StartsWith("<!--") == true) {
+                ReadComment();
+            }
+            else if (StartsWith("<![CDATA[") == true) {
+                ReadText();
+            }
+            else if (nextChar == '!') {
+                throw new XMLStreamException("Markup declarations are not supported.", getLocation());
+            }
+            else {
+                ReadStartElement();
+            }
+        }
+
+        return eventType;
+    }
+
+    @Override
+    public void require(int type, String namespaceURI, String localName) throws XMLStreamException {
+        if (type != eventType) {
+            throw new XMLStreamException("Expected event type " + type + " but current event type is " + eventType + ".", getLocation());
+        }
+        if ((namespaceURI != null) && (namespaceURI.length() > 0)) {
+            throw new XMLStreamException("Expected namespace '" + namespaceURI + "' but namespaces are not supported.", getLocation());
+        }
+        if ((localName != null) && ((hasName() == false) || (localName.equals(currentName) == false))) {
+            throw new XMLStreamException("Expected local name '" + localName + "' but current local name is '" + currentName + "'.", getLocation());
+        }
+    }
+
+    @Override
+    public String getElementText() throws XMLStreamException {
+        if (eventType != XMLStreamConstants.START_ELEMENT) {
+            throw new XMLStreamException("Current event is not a start element.", getLocation());
+        }
+        StringBuilder returnText = new StringBuilder();
+        int nextEventType = next();
+        while (nextEventType != XMLStreamConstants.END_ELEMENT) {
+            if (nextEventType == XMLStreamConstants.CHARACTERS) {
+                returnText.append(textBuffer, 0, textLength);
+            }
+            else if ((nextEventType != XMLStreamConstants.COMMENT) && (nextEventType != XMLStreamConstants.PROCESSING_INSTRUCTION)) {
+                throw new XMLStreamException("Element text content may not contain a start element.", getLocation());
+            }
+            nextEventType = next();
+        }
+
+        return returnText.toString();
+    }
+
+    @Override
+    public int nextTag() throws XMLStreamException {
+        int nextEventType = next();
+        while (((nextEventType == XMLStreamConstants.CHARACTERS) && (isWhiteSpace() == true)) || (nextEventType == XMLStreamConstants.COMMENT) || (nextEventType == XMLStreamConstants.PROCESSING_INSTRUCTION)) {
+            nextEventType = next();
+        }
+        if ((nextEventType != XMLStreamConstants.START_ELEMENT) && (nextEventType != XMLStreamConstants.END_ELEMENT)) {
+            throw new XMLStreamException("Expected a start or end element.", getLocation());
+        }
+
+        return nextEventType;
+    }
+
+    @Override
+    public boolean hasNext() throws XMLStreamException {
+        return (eventType != XMLStreamConstants.END_DOCUMENT);
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+    }
+
+    @Override
+    public Object getProperty(String name) throws IllegalArgumentException {
+        if (name == null) {
+            throw new IllegalArgumentException("Parameter 'name' cannot be null.");
+        }
+        return null;
+    }
+
+    @Override
+    public String getNamespaceURI(String prefix) {
+        return null;
+    }
+
+    @Override
+    public boolean isStartElement() {
+        return (eventType == XMLStreamConstants.START_ELEMENT);
+    }
+
+    @Override
+    public boolean isEndElement() {
+        return (eventType == XMLStreamConstants.END_ELEMENT);
+    }
+
+    @Override
+    public boolean isCharacters() {
+        return (eventType == XMLStreamConstants.CHARACTERS);
+    }
+
+    @Override
+    public boolean isWhiteSpace() {
+        if (eventType != XMLStreamConstants.CHARACTERS) {
+            return false;
+        }
+        for (int i = 0; i < textLength; i = i + 1) {
+            if (IsWhiteSpace(textBuffer[i]) == false) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String getAttributeValue(String namespaceURI, String localName) {
+        CheckStartElement();
+        for (int i = 0; i < attributeCount; i = i + 1) {
+            if (attributeNames[i].equals(localName) == true) {
+                return attributeValues[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int getAttributeCount() {
+        CheckStartElement();
+        return attributeCount;
+    }
+
+    @Override
+    public QName getAttributeName(int index) {
+        CheckAttributeIndex(index);
+        return attributeQNames[index];
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        CheckAttributeIndex(index);
+        return null;
+    }
+
+    @Override
+    public String getAttributeLocalName(int index) {
+        CheckAttributeIndex(index);
+        return attributeNames[index];
+    }
+
+    @Override
+    public String getAttributePrefix(int index) {
+        CheckAttributeIndex(index);
+        return XMLConstants.DEFAULT_NS_PREFIX;
+    }
+
+    @Override
+    public String getAttributeType(int index) {
+        CheckAttributeIndex(index);
+        return "CDATA";
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        CheckAttributeIndex(index);
+        return attributeValues[index];
+    }
+
+    @Override
+    public boolean isAttributeSpecified(int index) {
+        CheckAttributeIndex(index);
+        return true;
+    }
+
+    @Override
+    public int getNamespaceCount() {
+        return 0;
+    }
+
+    @Override
+    public String getNamespacePrefix(int index) {
+        throw new IndexOutOfBoundsException("Namespaces are not supported by class CharArrayXMLStreamReader.");
+    }
+
+    @Override
+    public String getNamespaceURI(int index) {
+        throw new IndexOutOfBoundsException("Namespaces are not supported by class CharArrayXMLStreamReader.");
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return null;
+    }
+
+    @Override
+    public int getEventType() {
+        return eventType;
+    }
+
+    @Override
+    public String getText() {
+        if (hasText() == false) {
+            throw new IllegalStateException("The current event does not have text.");
+        }
+        return new String(textBuffer, 0, textLength);
+    }
+
+    @Override
+    public char[] getTextCharacters() {
+        if (hasText() == false) {
+            throw new IllegalStateException("The current event does not have text.");
+        }
+        return textBuffer;
+    }
+
+    @Override
+    public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) throws XMLStreamException {
+        if (hasText() == false) {
+            throw new IllegalStateException("The current event does not have text.");
+        }
+        int copyLength = Math.min(length, textLength - sourceStart);
+        if (copyLength < 0) {
+            copyLength = 0;
+        }
+        System.arraycopy(textBuffer, sourceStart, target, targetStart, copyLength);
+        return copyLength;
+    }
+
+    @Override
+    public int getTextStart() {
+        return 0;
+    }
+
+    @Override
+    public int getTextLength() {
+        return textLength;
+    }
+
+    @Override
+    public String getEncoding() {
+        return null;
+    }
+
+    @Override
+    public boolean hasText() {
+        return ((eventType == XMLStreamConstants.CHARACTERS) || (eventType == XMLStreamConstants.COMMENT));
+    }
+
+    @Override
+    public Location getLocation() {
+        return new DocumentLocation(position);
+    }
+
+    @Override
+    public QName getName() {
+        if (hasName() == false) {
+            throw new IllegalStateException("The current event is not a start or end element.");
+        }
+        return currentQName;
+    }
+
+    @Override
+    public String getLocalName() {
+        if (hasName() == false) {
+            throw new IllegalStateException("The current event is not a start or end element.");
+        }
+        return currentName;
+    }
+
+    @Override
+    public boolean hasName() {
+        return ((eventType == XMLStreamConstants.START_ELEMENT) || (eventType == XMLStreamConstants.END_ELEMENT));
+    }
+
+    @Override
+    public String getNamespaceURI() {
+        return null;
+    }
+
+    @Override
+    public String getPrefix() {
+        return XMLConstants.DEFAULT_NS_PREFIX;
+    }
+
+    @Override
+    public String getVersion() {
+        return version;
+    }
+
+    @Override
+    public boolean isStandalone() {
+        return standalone;
+    }
+
+    @Override
+    public boolean standaloneSet() {
+        return standaloneSet;
+    }
+
+    @Override
+    public String getCharacterEncodingScheme() {
+        return characterEncodingScheme;
+    }
+
+    @Override
+    public String getPITarget() {
+        return (eventType == XMLStreamConstants.PROCESSING_INSTRUCTION) ? currentPITarget : null;
+    }
+
+    @Override
+    public String getPIData() {
+        return (eventType == XMLStreamConstants.PROCESSING_INSTRUCTION) ? currentPIData : null;
+    }
+
+    /**
+     * Reads the XML declaration at the start of the document (e.g. &lt;?xml version="1.0" encoding="utf-8"?&gt;) if it exists.
+     * @throws XMLStreamException  if the XML declaration is malformed.
+     */
+    private void ReadXmlDeclaration() throws XMLStreamException {
+        if ((StartsWith("<?xml") == false) || (position + 5 >= sourceLength) || (IsWhiteSpace(source[position + 5]) == false)) {
+            return;
+        }
+        int endIndex = IndexOf("?>", position);
+        if (endIndex == -1) {
+            throw new XMLStreamException("XML declaration is not terminated.", getLocation());
+        }
+        // Read the pseudo attributes of the declaration
+        position = position + 5;
+        SkipWhiteSpace();
+        while (position < endIndex) {
+            int nameStart = position;
+            LookupName(nameStart, ReadName());
+            String name = lookupName;
+            String value = ReadAttributeValue();
+            if (name.equals("version") == true) {
+                version = value;
+            }
+            else if (name.equals("encoding") == true) {
+                characterEncodingScheme = value;
+            }
+            else if (name.equals("standalone") == true) {
+                standaloneSet = true;
+                standalone = value.equals("yes");
+            }
+            SkipWhiteSpace();
+        }
+        if (position != endIndex) {
+            throw new XMLStreamException("XML declaration is malformed.", getLocation());
+        }
+        position = endIndex + 2;
+    }
+
+    /**
+     * Reads the next event before or after the root element, skipping any whitespace.
+     * @throws XMLStreamException  if content other than whitespace, comments, processing instructions, and a single root element is encountered.
+     */
+    private void ReadOutsideRootElement() throws XMLStreamException {
+        SkipWhiteSpace();
+        if (position >= sourceLength) {
+            if (rootElementRead == false) {
+                throw new XMLStreamException("Unexpected end of document encountered before root element.", getLocation());
+            }
+            eventType = XMLStreamConstants.END_DOCUMENT;
+        }
+        else if (StartsWith("<!--") == true) {
+            ReadComment();
+        }
+        else if (StartsWith("<?") == true) {
+            ReadProcessingInstruction();
+        }
+        else if (StartsWith("<!") == true) {
+            throw new XMLStreamException("Document type declarations are not supported.", getLocation());
+        }
+        else if ((source[position] == '<') && (rootElementRead == false)) {
+            ReadStartElement();
+        }
+        else if (rootElementRead == true) {
+            throw new XMLStreamException("Content is not allowed after the root element.", getLocation());
+        }
+        else {
+            throw new XMLStreamException("Content is not allowed before the root element.", getLocation());
+        }
+    }
+
+    /**
+     * Reads a start element (e.g. &lt;Data&gt;, or &lt;Empty/&gt;) including its attributes, with the current position at the opening '&lt;'.
+     * @throws XMLStreamException  if the start element is malformed.
+     */
+    private void ReadStartElement() throws XMLStreamException {
+        position = position + 1;
+        int nameStart = position;
+        LookupName(nameStart, ReadName());
+        currentName = lookupName;
+        currentQName = lookupQName;
+
+        while (true) {
+            boolean whiteSpaceSkipped = SkipWhiteSpace();
+            if (position >= sourceLength) {
+                throw new XMLStreamException("Unexpected end of document encountered in start element '" + currentName + "'.", getLocation());
+            }
+            char currentChar = source[position];
+            if (currentChar == '>') {
+                position = position + 1;
+                break;
+            }
+            else if (currentChar == '/') {
+                if ((position + 1 >= sourceLength) || (source[position + 1] != '>')) {
+                    throw new XMLStreamException("Start element '" + currentName + "' is malformed.", getLocation());
+                }
+                position = position + 2;
+                pendingEndElement = true;
+                break;
+            }
+            else if (whiteSpaceSkipped == false) {
+                throw new XMLStreamException("Start element '" + currentName + "' is malformed.", getLocation());
+            }
+            else {
+                int attributeNameStart = position;
+                LookupName(attributeNameStart, ReadName());
+                AddAttribute(lookupName, lookupQName, ReadAttributeValue());
+            }
+        }
+
+        PushElement(currentName);
+        rootElementRead = true;
+        eventType = XMLStreamConstants.START_ELEMENT;
+    }
+
+    /**
+     * Reads an end element (e.g. &lt;/Data&gt;), with the current position at the opening '&lt;'.
+     * @throws XMLStreamException  if the end element is malformed or does not match the current start element.
+     */
+    private void ReadEndElement() throws XMLStreamException {
+        position = position + 2;
+        int nameStart = position;
+        LookupName(nameStart, ReadName());
+        SkipWhiteSpace();
+        if ((position >= sourceLength) || (source[position] != '>')) {
+            throw new XMLStreamException("End element '" + lookupName + "' is malformed.", getLocation());
+        }
+        position = position + 1;
+        if (lookupName != elementStack[elementStackSize - 1]) {
+            throw new XMLStreamException("The element type '" + elementStack[elementStackSize - 1] + "' must be terminated by the matching end-tag '</" + elementStack[elementStackSize - 1] + ">'.", getLocation());
+        }
+        currentName = lookupName;
+        currentQName = lookupQName;
+        PopElement();
+        eventType = XMLStreamConstants.END_ELEMENT;
+    }
+
+    /**
+     * Reads text content up to the next markup other than a CDATA section, decoding entity references and normalizing line endings.
+     * @throws XMLStreamException  if the text contains an invalid entity reference or an unterminated CDATA section.
+     */
+    private void ReadText() throws XMLStreamException {
+        textLength = 0;
+        while (position < sourceLength) {
+            char currentChar = source[position];
+            if (currentChar == '<') {
+                if (StartsWith("<![CDATA[") == false) {
+                    break;
+                }
+                int endIndex = IndexOf("]]>", position + 9);
+                if (endIndex == -1) {
+                    throw new XMLStreamException("CDATA section is not terminated.", getLocation());
+                }
+                AppendSourceText(position + 9, endIndex);
+                position = endIndex + 3;
+            }
+            else if (currentChar == '&') {
+                position = ReadEntity(position);
+            }
+            else {
+                int endIndex = position + 1;
+                while ((endIndex < sourceLength) && (source[endIndex] != '<') && (source[endIndex] != '&')) {
+                    endIndex = endIndex + 1;
+                }
+                AppendSourceText(position, endIndex);
+                position = endIndex;
+            }
+        }
+        eventType = XMLStreamConstants.CHARACTERS;
+    }
+
+    /**
+     * Reads a comment (e.g. &lt;!-- comment --&gt;), with the current position at the opening '&lt;'.
+     * @throws XMLStreamException  if the comment is not terminated.
+     */
+    private void ReadComment() throws XMLStreamException {
+        int endIndex = IndexOf("-->", position + 4);
+        if (endIndex == -1) {
+            throw new XMLStreamException("Comment is not terminated.", getLocation());
+        }
+        textLength = 0;
+        AppendSourceText(position + 4, endIndex);
+        position = endIndex + 3;
+        eventType = XMLStreamConstants.COMMENT;
+    }
+
+    /**
+     * Reads a processing instruction (e.g. &lt;?target data?&gt;), with the current position at the opening '&lt;'.
+     * @throws XMLStreamException  if the processing instruction is malformed.
+     */
+    private void ReadProcessingInstruction() throws XMLStreamException {
+        int endIndex = IndexOf("?>", position + 2);
+        if (endIndex == -1) {
+            throw new XMLStreamException("Processing instruction is not terminated.", getLocation());
+        }
+        position = position + 2;
+        int targetStart = position;
+        int targetEnd = ReadName();
+        currentPITarget = new String(source, targetStart, targetEnd - targetStart);
+        SkipWhiteSpace();
+        textLength = 0;
+        AppendSourceText(position, endIndex);
+        currentPIData = new String(textBuffer, 0, textLength);
+        textLength = 0;
+        position = endIndex + 2;
+        eventType = XMLStreamConstants.PROCESSING_INSTRUCTION;
+    }
+
+    /**
+     * Reads an entity or character reference (e.g. &amp;lt;, &amp;#60;, or &amp;#x3C;) and appends the character(s) it represents to the text buffer.
+     * @param startIndex           The index of the '&amp;' character.
+     * @return                     The index after the terminating ';' character.
+     * @throws XMLStreamException  if the reference is malformed, or refers to an entity which is not predefined.
+     */
+    private int ReadEntity(int startIndex) throws XMLStreamException {
+        int endIndex = startIndex + 1;
+        while ((endIndex < sourceLength) && (source[endIndex] != ';') && (endIndex - startIndex <= 10)) {
+            endIndex = endIndex + 1;
+        }
+        if ((endIndex >= sourceLength) || (source[endIndex] != ';')) {
+            throw new XMLStreamException("Entity reference is not terminated.", getLocation());
+        }
+        int nameStart = startIndex + 1;
+        int nameLength = endIndex - nameStart;
+
+        if (RegionEquals(nameStart, nameLength, "lt") == true) {
+            AppendText('<');
+        }
+        else if (RegionEquals(nameStart, nameLength, "gt") == true) {
+            AppendText('>');
+        }
+        else if (RegionEquals(nameStart, nameLength, "amp") == true) {
+            AppendText('&');
+        }
+        else if (RegionEquals(nameStart, nameLength, "quot") == true) {
+            AppendText('"');
+        }
+        else if (RegionEquals(nameStart, nameLength, "apos") == true) {
+            AppendText('\'');
+        }
+        else if ((nameLength > 1) && (source[nameStart] == '#')) {
+            int codePoint = ParseCharacterReference(nameStart + 1, endIndex);
+            if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                AppendText(Character.highSurrogate(codePoint));
+                AppendText(Character.lowSurrogate(codePoint));
+            }
+            else {
+                AppendText((char)codePoint);
+            }
+        }
+        else {
+            throw new XMLStreamException("The entity '" + new String(source, nameStart, nameLength) + "' was referenced, but not declared.", getLocation());
+        }
+
+        return endIndex + 1;
+    }
+
+    private int ParseCharacterReference(int startIndex, int endIndex) throws XMLStreamException {
+        int radix = 10;
+        if (source[startIndex] == 'x') {
+            radix = 16;
+            startIndex = startIndex + 1;
+        }
+        if (startIndex == endIndex) {
+            throw new XMLStreamException("Character reference is empty.", getLocation());
+        }
+        int codePoint = 0;
+        for (int i = startIndex; i < endIndex; i = i + 1) {
+            int digit = Character.digit(source[i], radix);
+            if (digit == -1) {
+                throw new XMLStreamException("Character reference contains invalid digit '" + source[i] + "'.", getLocation());
+            }
+            codePoint = (codePoint * radix) + digit;
+            if (codePoint > Character.MAX_CODE_POINT) {
+                throw new XMLStreamException("Character reference is outside the valid range.", getLocation());
+            }
+        }
+
+        return codePoint;
+    }
+
+    /**
+     * Reads a name, with the current position at the first character of the name.
+     * @return                     The index after the last character of the name.
+     * @throws XMLStreamException  if the name is empty.
+     */
+    private int ReadName() throws XMLStreamException {
+        int startIndex = position;
+        while (position < sourceLength) {
+            char currentChar = source[position];
+            if ((IsWhiteSpace(currentChar) == true) || (currentChar == '>') || (currentChar == '/') || (currentChar == '=') || (currentChar == '?') || (currentChar == '<')) {
+                break;
+            }
+            position = position + 1;
+        }
+        if (position == startIndex) {
+            throw new XMLStreamException("Expected a name.", getLocation());
+        }
+
+        return position;
+    }
+
+    /**
+     * Reads the '=' character and quoted value of an attribute, decoding entity references and normalizing whitespace.
+     * @return                     The attribute value.
+     * @throws XMLStreamException  if the attribute value is malformed.
+     */
+    private String ReadAttributeValue() throws XMLStreamException {
+        SkipWhiteSpace();
+        if ((position >= sourceLength) || (source[position] != '=')) {
+            throw new XMLStreamException("Expected '=' after attribute name.", getLocation());
+        }
+        position = position + 1;
+        SkipWhiteSpace();
+        if ((position >= sourceLength) || ((source[position] != '"') && (source[position] != '\''))) {
+            throw new XMLStreamException("Expected quoted attribute value.", getLocation());
+        }
+        char quoteChar = source[position];
+        position = position + 1;
+
+        // Decode the value using the text buffer, preserving the text buffer's existing contents
+        char[] savedTextBuffer = textBuffer;
+        int savedTextLength = textLength;
+        textBuffer = attributeValueBuffer;
+        textLength = 0;
+        while (true) {
+            if (position >= sourceLength) {
+                throw new XMLStreamException("Attribute value is not terminated.", getLocation());
+            }
+            char currentChar = source[position];
+            if (currentChar == quoteChar) {
+                position = position + 1;
+                break;
+            }
+            else if (currentChar == '<') {
+                throw new XMLStreamException("Attribute value cannot contain the '<' character.", getLocation());
+            }
+            else if (currentChar == '&') {
+                position = ReadEntity(position);
+            }
+            else {
+                if ((currentChar == '\r') && (position + 1 < sourceLength) && (source[position + 1] == '\n')) {
+                    position = position + 1;
+                }
+                AppendText(IsWhiteSpace(currentChar) == true ? ' ' : currentChar);
+                position = position + 1;
+            }
+        }
+        String returnValue = new String(textBuffer, 0, textLength);
+        attributeValueBuffer = textBuffer;
+        textBuffer = savedTextBuffer;
+        textLength = savedTextLength;
+
+        return returnValue;
+    }
+
+    /**
+     * Finds the interned name for the specified characters of the source document, and sets members 'lookupName' and 'lookupQName' to the name and its corresponding QName.
+     * @param startIndex  The index of the first character of the name.
+     * @param endIndex    The index after the last character of the name.
+     */
+    private void LookupName(int startIndex, int endIndex) {
+        int hash = 0;
+        for (int i = startIndex; i < endIndex; i = i + 1) {
+            hash = (31 * hash) + source[i];
+        }
+        int mask = nameTableNames.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        while (nameTableNames[index] != null) {
+            if (RegionEquals(startIndex, endIndex - startIndex, nameTableNames[index]) == true) {
+                lookupName = nameTableNames[index];
+                lookupQName = nameTableQNames[index];
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+
+        lookupName = new String(source, startIndex, endIndex - startIndex).intern();
+        lookupQName = new QName(lookupName);
+        if (nameTableCount < maximumNameTableCount) {
+            nameTableNames[index] = lookupName;
+            nameTableQNames[index] = lookupQName;
+            nameTableCount = nameTableCount + 1;
+            // Keep the table at most half full
+            if (nameTableCount * 2 > nameTableNames.length) {
+                ExpandNameTable();
+            }
+        }
+    }
+
+    private void ExpandNameTable() {
+        String[] oldNames = nameTableNames;
+        QName[] oldQNames = nameTableQNames;
+        nameTableNames = new String[oldNames.length * 2];
+        nameTableQNames = new QName[oldNames.length * 2];
+        int mask = nameTableNames.length - 1;
+        for (int i = 0; i < oldNames.length; i = i + 1) {
+            if (oldNames[i] != null) {
+                int index = (oldNames[i].hashCode() ^ (oldNames[i].hashCode() >>> 16)) & mask;
+                while (nameTableNames[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                nameTableNames[index] = oldNames[i];
+                nameTableQNames[index] = oldQNames[i];
+            }
+        }
+    }
+
+    private void AddAttribute(String name, QName qName, String value) throws XMLStreamException {
+        for (int i = 0; i < attributeCount; i = i + 1) {
+            if (attributeNames[i] == name) {
+                throw new XMLStreamException("Attribute '" + name + "' was already specified for element '" + currentName + "'.", getLocation());
+            }
+        }
+        if (attributeCount == attributeNames.length) {
+            String[] newAttributeNames = new String[attributeCount * 2];
+            QName[] newAttributeQNames = new QName[attributeCount * 2];
+            String[] newAttributeValues = new String[attributeCount * 2];
+            System.arraycopy(attributeNames, 0, newAttributeNames, 0, attributeCount);
+            System.arraycopy(attributeQNames, 0, newAttributeQNames, 0, attributeCount);
+            System.arraycopy(attributeValues, 0, newAttributeValues, 0, attributeCount);
+            attributeNames = newAttributeNames;
+            attributeQNames = newAttributeQNames;
+            attributeValues = newAttributeValues;
+        }
+        attributeNames[attributeCount] = name;
+        attributeQNames[attributeCount] = qName;
+        attributeValues[attributeCount] = value;
+        attributeCount = attributeCount + 1;
+    }
+
+    private void PushElement(String name) {
+        if (elementStackSize == elementStack.length) {
+            String[] newElementStack = new String[elementStack.length * 2];
+            System.arraycopy(elementStack, 0, newElementStack, 0, elementStackSize);
+            elementStack = newElementStack;
+        }
+        elementStack[elementStackSize] = name;
+        elementStackSize = elementStackSize + 1;
+    }
+
+    private void PopElement() {
+        elementStackSize = elementStackSize - 1;
+        elementStack[elementStackSize] = null;
+    }
+
+    private void AppendText(char inputChar) {
+        if (textLength == textBuffer.length) {
+            char[] newTextBuffer = new char[textBuffer.length * 2];
+            System.arraycopy(textBuffer, 0, newTextBuffer, 0, textLength);
+            textBuffer = newTextBuffer;
+        }
+        textBuffer[textLength] = inputChar;
+        textLength = textLength + 1;
+    }
+
+    /**
+     * Appends a range of characters of the source document to the text buffer, converting "\r\n" sequences and "\r" characters to "\n", as required by the XML specification.
+     * @param startIndex  The index of the first character to append.
+     * @param endIndex    The index after the last character to append.
+     */
+    private void AppendSourceText(int startIndex, int endIndex) {
+        if (textBuffer.length - textLength < endIndex - startIndex) {
+            char[] newTextBuffer = new char[Math.max(textBuffer.length * 2, textLength + endIndex - startIndex)];
+            System.arraycopy(textBuffer, 0, newTextBuffer, 0, textLength);
+            textBuffer = newTextBuffer;
+        }
+        for (int i = startIndex; i < endIndex; i = i + 1) {
+            char currentChar = source[i];
+            if (currentChar == '\r') {
+                currentChar = '\n';
+                if ((i + 1 < endIndex) && (source[i + 1] == '\n')) {
+                    i = i + 1;
+                }
+            }
+            textBuffer[textLength] = currentChar;
+            textLength = textLength + 1;
+        }
+    }
+
+    /**
+     * Skips whitespace characters at the current position.
+     * @return  True if any whitespace was skipped.
+     */
+    private boolean SkipWhiteSpace() {
+        int startIndex = position;
+        while ((position < sourceLength) && (IsWhiteSpace(source[position]) == true)) {
+            position = position + 1;
+        }
+        return (position != startIndex);
+    }
+
+    private boolean IsWhiteSpace(char inputChar) {
+        return ((inputChar == ' ') || (inputChar == '\n') || (inputChar == '\r') || (inputChar == '\t'));
+    }
+
+    private boolean StartsWith(String value) {
+        return RegionEquals(position, Math.min(value.length(), sourceLength - position), value);
+    }
+
+    private boolean RegionEquals(int startIndex, int length, String value) {
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i = i + 1) {
+            if (source[startIndex + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int IndexOf(String value, int startIndex) {
+        int lastStartIndex = sourceLength - value.length();
+        for (int i = startIndex; i <= lastStartIndex; i = i + 1) {
+            if (RegionEquals(i, value.length(), value) == true) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void CheckStartElement() {
+        if (eventType != XMLStreamConstants.START_ELEMENT) {
+            throw new IllegalStateException("The current event is not a start element.");
+        }
+    }
+
+    private void CheckAttributeIndex(int index) {
+        CheckStartElement();
+        if ((index < 0) || (index >= attributeCount)) {
+            throw new IndexOutOfBoundsException("Attribute index " + index + " is out of range.");
+        }
+    }
+
+    /**
+     * Describes a position in the document being read.  The line and column numbers are calculated on request, as they are only required when reporting errors.
+     */
+    private class DocumentLocation implements Location {
+
+        private int characterOffset;
+        private int lineNumber;
+        private int columnNumber;
+
+        public DocumentLocation(int characterOffset) {
+            this.characterOffset = characterOffset;
+            lineNumber = 1;
+            columnNumber = 1;
+            for (int i = 0; (i < characterOffset) && (i < sourceLength); i = i + 1) {
+                if (source[i] == '\n') {
+                    lineNumber = lineNumber + 1;
+                    columnNumber = 1;
+                }
+                else {
+                    columnNumber = columnNumber + 1;
+                }
+            }
+        }
+
+        @Override
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        @Override
+        public int getColumnNumber() {
+            return columnNumber;
+        }
+
+        @Override
+        public int getCharacterOffset() {
+            return characterOffset;
+        }
+
+        @Override
+        public String getPublicId() {
+            return null;
+        }
+
+        @Override
+        public String getSystemId() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright 2015 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.*;
+
+/**
+ * Lightweight implementation of javax.xml.stream.XMLStreamWriter which writes directly to a growable character array.
+ * <p>
+ * Supports the subset of XML used by the documents written by class MethodInvocationSerializer (elements, attributes, text, comments, CDATA sections, processing instructions, and entity references), and produces output identical to the default javax.xml.stream implementation for that subset (i.e. start tags are not collapsed to empty elements, and only the '&amp;', '&lt;', and '&gt;' characters are escaped in text).  Namespaces are not supported.
+ * </p>
+ * @author Alastair Wyse
+ */
+class CharArrayXMLStreamWriter implements XMLStreamWriter {
+
+    private final int initialBufferSize = 512;
+    private final int initialElementStackSize = 16;
+    private final String namespacesNotSupportedMessage = "Namespaces are not supported by class CharArrayXMLStreamWriter.";
+
+    private char[] buffer;
+    private int length;
+    /** The names of the elements which have been started but not ended. */
+    private String[] elementStack;
+    private int elementStackSize;
+    /** Indicates whether the most recently written start tag is still open (i.e. the closing '>' has not been written, and attributes can be written). */
+    private boolean startTagOpen;
+    /** Indicates whether the currently open start tag is an empty element (i.e. should be closed with '/&gt;'). */
+    private boolean emptyElementOpen;
+
+    /**
+     * Initialises a new instance of the CharArrayXMLStreamWriter class.
+     */
+    public CharArrayXMLStreamWriter() {
+        buffer = new char[initialBufferSize];
+        elementStack = new String[initialElementStackSize];
+        Reset();
+    }
+
+    /**
+     * Discards any content written, so that the writer can be reused to write a new document.
+     */
+    public void Reset() {
+        length = 0;
+        elementStackSize = 0;
+        startTagOpen = false;
+        emptyElementOpen = false;
+    }
+
+    /**
+     * @return  The buffer containing the content written since the writer was created or last reset.  Only the characters up to getLength() are valid.
+     */
+    public char[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return  The number of characters written since the writer was created or last reset.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the content written since the writer was created or last reset.
+     * @return  The content written.
+     */
+    public String ToDocumentString() {
+        return new String(buffer, 0, length);
+    }
+
+    @Override
+    public void writeStartElement(String localName) throws XMLStreamException {
+        CloseStartTag();
+        PushElement(localName);
+        Append('<');
+        Append(localName);
+        startTagOpen = true;
+    }
+
+    @Override
+    public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+        throw new XMLStreamException(namespacesNotSupportedMessage);
+    }
+
+    @Override
+    public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        throw new XMLStreamException(namespacesNotSupportedMessage);
+    }
+
+    @Override
+    public void writeEmptyElement(String localName) throws XMLStreamException {
+        CloseStartTag();
+        Append('<');
+        Append(localName);
+        startTagOpen = true;
+        emptyElementOpen = true;
+    }
+
+    @Override
+    public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
+        throw new XMLStreamException(namespacesNotSupportedMessage);
+    }
+
+    @Override
+    public void writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        throw new XMLStreamException(namespacesNotSupportedMessage);
+    }
+
+    @Override
+    public void writeEndElement() throws XMLStreamException {
+        if (elementStackSize == 0) {
+            throw new XMLStreamException("No element was found to write.");
+        }
+        CloseStartTag();
+        elementStackSize = elementStackSize - 1;
+        Append('<');
+        Append('/');
+        Append(elementStack[elementStackSize]);
+        Append('>');
+        elementStack[elementStackSize] = null;
+    }
+
+    @Override
+    public void writeEndDocument() throws XMLStreamException {
+        while (elementStackSize > 0) {
+            writeEndElement();
+        }
+        CloseStartTag();
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+    }
+
+    @Override
+    public void flush() throws XMLStreamException {
+    }
+
+    @Override
+    public void writeAttribute(String localName, String value) throws XMLStreamException {
+        if (startTagOpen == false) {
+            throw new XMLStreamException("Attribute '" + localName + "' cannot be written as there is no open start tag.");
+        }
+        Append(' ');
+        Append(localName);
+        Append('=');
+        Append('"');
+        AppendEscaped(value, 0, value.length(), true);
+        Append('"');
+    }
+
+    @Override
+    public void writeAttribute(String prefix, String namespaceURI, String localName, String value) throws XMLStreamException {
+        throw new XMLStreamException(namespacesNotSupportedMessage);
+    }
+
+    @Override
+    public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
+        throw new XMLStreamException(namespacesNotSupportedMessage);
+    }
+
+    @Override
+    public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+        throw new XMLStreamException(namespacesNotSupportedMessage);
+    }
+
+    @Override
+    public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+        throw new XMLStreamException(namespacesNotSupportedMessage);
+    }
+
+    @Override
+    public void writeComment(String data) throws XMLStreamException {
+        CloseStartTag();
+        Append("<!--");
+        Append(data);
+        Append("-->");
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target) throws XMLStreamException {
+        CloseStartTag();
+        Append("<?");
+        Append(target);
+        Append("?>");
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target, String data) throws XMLStreamException {
+        CloseStartTag();
+        Append("<?");
+        Append(target);
+        Append(' ');
+        Append(data);
+        Append("?>");
+    }
+
+    @Override
+    public void writeCData(String data) throws XMLStreamException {
+        CloseStartTag();
+        Append("<![CDATA[");
+        Append(data);
+        Append("]]>");
+    }
+
+    @Override
+    public void writeDTD(String dtd) throws XMLStreamException {
+        CloseStartTag();
+        Append(dtd);
+    }
+
+    @Override
+    public void writeEntityRef(String name) throws XMLStreamException {
+        CloseStartTag();
+        Append('&');
+        Append(name);
+        Append(';');
+    }
+
+    @Override
+    public void writeStartDocument() throws XMLStreamException {
+        Append("<?xml version=\"1.0\" ?>");
+    }
+
+    @Override
+    public void writeStartDocument(String version) throws XMLStreamException {
+        Append("<?xml version=\"");
+        Append(version);
+        Append("\"?>");
+    }
+
+    @Override
+    public void writeStartDocument(String encoding, String version) throws XMLStreamException {
+        Append("<?xml version=\"");
+        Append(version);
+        Append("\" encoding=\"");
+        Append(encoding);
+        Append("\"?>");
+    }
+
+    @Override
+    public void writeCharacters(String text) throws XMLStreamException {
+        CloseStartTag();
+        AppendEscaped(text, 0, text.length(), false);
+    }
+
+    @Override
+    public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+        CloseStartTag();
+        EnsureCapacity(len);
+        int end = start + len;
+        for (int i = start; i < end; i = i + 1) {
+            AppendEscaped(text[i], false);
+        }
+    }
+
+    @Override
+    public String getPrefix(String uri) throws XMLStreamException {
+        return null;
+    }
+
+    @Override
+    public void setPrefix(String prefix, String uri) throws XMLStreamException {
+        throw new XMLStreamException(namespacesNotSupportedMessage);
+    }
+
+    @Override
+    public void setDefaultNamespace(String uri) throws XMLStreamException {
+        throw new XMLStreamException(namespacesNotSupportedMessage);
+    }
+
+    @Override
+    public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+        throw new XMLStreamException(namespacesNotSupportedMessage);
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) throws IllegalArgumentException {
+        throw new IllegalArgumentException("Property '" + name + "' is not supported.");
+    }
+
+    /**
+     * Writes the closing '>' (or '/&gt;' for an empty element) of the most recently written start tag, if it is still open.
+     */
+    private void CloseStartTag() {
+        if (startTagOpen == true) {
+            if (emptyElementOpen == true) {
+                Append('/');
+                emptyElementOpen = false;
+            }
+            Append('>');
+            startTagOpen = false;
+        }
+    }
+
+    private void PushElement(String localName) {
+        if (elementStackSize == elementStack.length) {
+            String[] newElementStack = new String[elementStack.length * 2];
+            System.arraycopy(elementStack, 0, newElementStack, 0, elementStackSize);
+            elementStack = newElementStack;
+        }
+        elementStack[elementStackSize] = localName;
+        elementStackSize = elementStackSize + 1;
+    }
+
+    private void Append(char inputChar) {
+        EnsureCapacity(1);
+        buffer[length] = inputChar;
+        length = length + 1;
+    }
+
+    private void Append(String inputString) {
+        int inputLength = inputString.length();
+        EnsureCapacity(inputLength);
+        inputString.getChars(0, inputLength, buffer, length);
+        length = length + inputLength;
+    }
+
+    /**
+     * Appends the specified characters, escaping characters which cannot appear literally in text or attribute values.
+     * @param inputString   The characters to append.
+     * @param start         The index of the first character to append.
+     * @param end           The index after the last character to append.
+     * @param escapeQuotes  Whether to escape the '"' character (i.e. when writing an attribute value).
+     */
+    private void AppendEscaped(String inputString, int start, int end, boolean escapeQuotes) {
+        EnsureCapacity(end - start);
+        for (int i = start; i < end; i = i + 1) {
+            AppendEscaped(inputString.charAt(i), escapeQuotes);
+        }
+    }
+
+    private void AppendEscaped(char inputChar, boolean escapeQuotes) {
+        if (inputChar == '&') {
+            Append("&amp;");
+        }
+        else if (inputChar == '<') {
+            Append("&lt;");
+        }
+        else if (inputChar == '>') {
+            Append("&gt;");
+        }
+        else if ((inputChar == '"') && (escapeQuotes == true)) {
+            Append("&quot;");
+        }
+        else {
+            if (length == buffer.length) {
+                EnsureCapacity(1);
+            }
+            buffer[length] = inputChar;
+            length = length + 1;
+        }
+    }
+
+    /**
+     * Ensures the buffer has space for at least the specified number of additional characters, expanding it if required.
+     * @param additionalLength  The number of additional characters.
+     */
+    public void EnsureCapacity(int additionalLength) {
+        if (length + additionalLength > buffer.length) {
+            int newLength = buffer.length * 2;
+            if (newLength < length + additionalLength) {
+                newLength = length + additionalLength;
+            }
+            char[] newBuffer = new char[newLength];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.util.*;
+
+/**
+ * Stores bi-directional mappings between native Java class types, and their serialized string equivalent, and allows the mappings to be read concurrently by multiple threads without locking.
+ * <p>
+ * The mappings are held in an immutable snapshot, which is replaced (copy on write) whenever a mapping is added or updated.  Mapping changes are expected to be rare (e.g. only when the class is initially populated), whereas reads can occur concurrently on many threads.
+ * </p>
+ * <p>
+ * Unlike class SerializerOperationMap, a native type which is not mapped explicitly is resolved to the mapping of its nearest mapped superclass, or failing that, the first mapped interface it implements (searching the interfaces of the type and then those of its superclasses, breadth first).  The result of resolving each native type is cached, so the hierarchy of a type is only searched the first time the type is looked up.  Note that objects serialized using the mapping of a superclass or interface are deserialized as the mapped type, rather than the original subclass.
+ * </p>
+ * @author Alastair Wyse
+ */
+public class ConcurrentSerializerOperationMap implements ISerializerOperationMap {
+
+    /** The current set of mappings.  Replaced in its entirety when a mapping is added or updated. */
+    private volatile MappingSnapshot snapshot;
+    /** Lock object held while replacing the snapshot, so that concurrent mapping changes are not lost. */
+    private final Object snapshotUpdateLock = new Object();
+
+    /**
+     * Initializes a new instance of the ConcurrentSerializerOperationMap class.
+     */
+    public ConcurrentSerializerOperationMap() {
+        snapshot = new MappingSnapshot(new HashMap<String, NativeTypeSerializerMap>(), new HashMap<Class<?>, SerializedTypeSerializerMap>());
+    }
+
+    @Override
+    public void AddMapping(Class<?> nativeType, String serializedType, IObjectSerializer<?> serializer) {
+        // Check for null parameters
+        CheckAddUpdateParameters(nativeType, serializedType, serializer);
+
+        synchronized (snapshotUpdateLock) {
+            MappingSnapshot currentSnapshot = snapshot;
+
+            // Check for attempt to add duplicate entry
+            if (currentSnapshot.serializedToNativeMap.get(serializedType) != null) {
+                throw new IllegalArgumentException("The serialized type '" + serializedType + "' already exists in the map.");
+            }
+            if (currentSnapshot.nativeToSerializedMap.get(nativeType) != null) {
+                throw new IllegalArgumentException("The native type '" + nativeType.getName() + "' already exists in the map.");
+            }
+
+            // Copy the current mappings, and add the new mapping
+            HashMap<String, NativeTypeSerializerMap> serializedToNativeMap = new HashMap<String, NativeTypeSerializerMap>(currentSnapshot.serializedToNativeMap);
+            HashMap<Class<?>, SerializedTypeSerializerMap> nativeToSerializedMap = new HashMap<Class<?>, SerializedTypeSerializerMap>(currentSnapshot.nativeToSerializedMap);
+            serializedToNativeMap.put(serializedType, new NativeTypeSerializerMap(nativeType, serializer));
+            nativeToSerializedMap.put(nativeType, new SerializedTypeSerializerMap(serializedType, serializer));
+
+            snapshot = new MappingSnapshot(serializedToNativeMap, nativeToSerializedMap);
+        }
+    }
+
+    @Override
+    public void UpdateMapping(Class<?> nativeType, String serializedType, IObjectSerializer<?> serializer) {
+        // Check for null parameters
+        CheckAddUpdateParameters(nativeType, serializedType, serializer);
+
+        synchronized (snapshotUpdateLock) {
+            MappingSnapshot currentSnapshot = snapshot;
+
+            // Check that the mapping already exists, and that the serialized type is not mapped to a different native type
+            SerializedTypeSerializerMap existingMapping = currentSnapshot.nativeToSerializedMap.get(nativeType);
+            if (existingMapping == null) {
+                throw new IllegalArgumentException("The native type '" + nativeType.getName() + "' does not exist in the map.");
+            }
+            NativeTypeSerializerMap existingSerializedTypeMapping = currentSnapshot.serializedToNativeMap.get(serializedType);
+            if ((existingSerializedTypeMapping != null) && (existingSerializedTypeMapping.nativeType != nativeType)) {
+                throw new IllegalArgumentException("The serialized type '" + serializedType + "' already exists in the map.");
+            }
+
+            // Copy the current mappings, and replace the existing mapping
+            HashMap<String, NativeTypeSerializerMap> serializedToNativeMap = new HashMap<String, NativeTypeSerializerMap>(currentSnapshot.serializedToNativeMap);
+            HashMap<Class<?>, SerializedTypeSerializerMap> nativeToSerializedMap = new HashMap<Class<?>, SerializedTypeSerializerMap>(currentSnapshot.nativeToSerializedMap);
+            serializedToNativeMap.remove(existingMapping.serializedType);
+            serializedToNativeMap.put(serializedType, new NativeTypeSerializerMap(nativeType, serializer));
+            nativeToSerializedMap.put(nativeType, new SerializedTypeSerializerMap(serializedType, serializer));
+
+            snapshot = new MappingSnapshot(serializedToNativeMap, nativeToSerializedMap);
+        }
+    }
+
+    @Override
+    public String GetSerializedType(Class<?> nativeType) {
+        SerializedTypeSerializerMap mapping = snapshot.ResolveNativeType(nativeType);
+        if (mapping == null) {
+            return null;
+        }
+        return mapping.serializedType;
+    }
+
+    @Override
+    public Class<?> GetNativeType(String serializedType) {
+        NativeTypeSerializerMap mapping = snapshot.serializedToNativeMap.get(serializedType);
+        if (mapping == null) {
+            return null;
+        }
+        return mapping.nativeType;
+    }
+
+    @Override
+    public IObjectSerializer<?> GetSerializer(Class<?> nativeType) {
+        SerializedTypeSerializerMap mapping = snapshot.ResolveNativeType(nativeType);
+        if (mapping == null) {
+            return null;
+        }
+        return mapping.objectSerializer;
+    }
+
+    @Override
+    public IObjectSerializer<?> GetSerializer(String serializedType) {
+        NativeTypeSerializerMap mapping = snapshot.serializedToNativeMap.get(serializedType);
+        if (mapping == null) {
+            return null;
+        }
+        return mapping.objectSerializer;
+    }
+
+    /**
+     * Checks the inputted parameters, and throws an exception if any are null.
+     * @param nativeType                 The native Java type in the mapping.
+     * @param serializedType             A string representation of the type.
+     * @param serializer                 An IObjectSerializer object which performs serialization and deserialization of the type.
+     * @throws IllegalArgumentException
+     */
+    private void CheckAddUpdateParameters(Class<?> nativeType, String serializedType, IObjectSerializer<?> serializer) {
+        if (nativeType == null) {
+            throw new IllegalArgumentException("Parameter 'nativeType' cannot be null.");
+        }
+        if (serializedType == null) {
+            throw new IllegalArgumentException("Parameter 'serializedType' cannot be null.");
+        }
+        if (serializer == null) {
+            throw new IllegalArgumentException("Parameter 'serializer' cannot be null.");
+        }
+    }
+
+    /**
+     * An immutable set of mappings, and a cache of the mappings resolved for native types which are not mapped explicitly.
+     */
+    private class MappingSnapshot {
+
+        public final HashMap<String, NativeTypeSerializerMap> serializedToNativeMap;
+        public final HashMap<Class<?>, SerializedTypeSerializerMap> nativeToSerializedMap;
+        /** Stores the mapping resolved for each native type looked up.  A new cache is created with each snapshot, so resolved mappings are discarded when the mappings change. */
+        private final ClassValue<SerializedTypeSerializerMap> resolvedMappings;
+        /** Cached in place of a mapping for native types which have no mapping, as ClassValue cannot distinguish a null value from an uncomputed value. */
+        private final SerializedTypeSerializerMap noMapping;
+
+        public MappingSnapshot(HashMap<String, NativeTypeSerializerMap> serializedToNativeMap, HashMap<Class<?>, SerializedTypeSerializerMap> nativeToSerializedMap) {
+            this.serializedToNativeMap = serializedToNativeMap;
+            this.nativeToSerializedMap = nativeToSerializedMap;
+            noMapping = new SerializedTypeSerializerMap(null, null);
+            resolvedMappings = new ClassValue<SerializedTypeSerializerMap>() {
+                @Override
+                protected SerializedTypeSerializerMap computeValue(Class<?> type) {
+                    SerializedTypeSerializerMap mapping = SearchTypeHierarchy(type);
+                    if (mapping == null) {
+                        return noMapping;
+                    }
+                    return mapping;
+                }
+            };
+        }
+
+        /**
+         * Retrieves the mapping for the specified native type, or for its nearest mapped superclass or interface.
+         * @param nativeType  The native type.
+         * @return            The mapping, or null if neither the type nor any of its superclasses or interfaces are mapped.
+         */
+        public SerializedTypeSerializerMap ResolveNativeType(Class<?> nativeType) {
+            SerializedTypeSerializerMap mapping = resolvedMappings.get(nativeType);
+            if (mapping == noMapping) {
+                return null;
+            }
+            return mapping;
+        }
+
+        /**
+         * Searches the specified type, then its superclasses, then the interfaces of the type and its superclasses (breadth first), for a mapped type.
+         * @param nativeType  The native type.
+         * @return            The mapping of the first mapped type found, or null if no mapped type was found.
+         */
+        private SerializedTypeSerializerMap SearchTypeHierarchy(Class<?> nativeType) {
+            for (Class<?> currentClass = nativeType; currentClass != null; currentClass = currentClass.getSuperclass()) {
+                SerializedTypeSerializerMap mapping = nativeToSerializedMap.get(currentClass);
+                if (mapping != null) {
+                    return mapping;
+                }
+            }
+
+            LinkedList<Class<?>> interfacesToSearch = new LinkedList<Class<?>>();
+            HashSet<Class<?>> searchedInterfaces = new HashSet<Class<?>>();
+            for (Class<?> currentClass = nativeType; currentClass != null; currentClass = currentClass.getSuperclass()) {
+                interfacesToSearch.addAll(Arrays.asList(currentClass.getInterfaces()));
+            }
+            while (interfacesToSearch.isEmpty() == false) {
+                Class<?> currentInterface = interfacesToSearch.removeFirst();
+                if (searchedInterfaces.add(currentInterface) == true) {
+                    SerializedTypeSerializerMap mapping = nativeToSerializedMap.get(currentInterface);
+                    if (mapping != null) {
+                        return mapping;
+                    }
+                    interfacesToSearch.addAll(Arrays.asList(currentInterface.getInterfaces()));
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Container used to map a native Java class type to a serializer for objects of that type.
+     */
+    private class NativeTypeSerializerMap {
+
+        public final Class<?> nativeType;
+        public final IObjectSerializer<?> objectSerializer;
+
+        public NativeTypeSerializerMap(Class<?> nativeType, IObjectSerializer<?> objectSerializer) {
+            this.nativeType = nativeType;
+            this.objectSerializer = objectSerializer;
+        }
+    }
+
+    /**
+     * Container used to map the string representation of a type to a serializer for objects of that type.
+     */
+    private class SerializedTypeSerializerMap {
+
+        public final String serializedType;
+        public final IObjectSerializer<?> objectSerializer;
+
+        public SerializedTypeSerializerMap(String serializedType, IObjectSerializer<?> objectSerializer) {
+            this.serializedType = serializedType;
+            this.objectSerializer = objectSerializer;
+        }
+    }
+}
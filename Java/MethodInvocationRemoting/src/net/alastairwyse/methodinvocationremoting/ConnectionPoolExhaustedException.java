@@ -0,0 +1,43 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+/**
+ * The exception that is thrown when no connection in a pool becomes available within the timeout period.
+ * @author Alastair Wyse
+ */
+public class ConnectionPoolExhaustedException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Initialises a new instance of the ConnectionPoolExhaustedException class.
+     * @param message  The message that describes the error.
+     */
+    public ConnectionPoolExhaustedException(String message) {
+        super(message);
+    }
+    
+    /**
+     * Initialises a new instance of the ConnectionPoolExhaustedException class.
+     * @param message  The message that describes the error.
+     * @param cause    The exception that is the cause of the current exception.
+     */
+    public ConnectionPoolExhaustedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
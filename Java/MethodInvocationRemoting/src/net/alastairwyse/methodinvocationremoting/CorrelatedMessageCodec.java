@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.nio.*;
+import java.nio.charset.*;
+
+/**
+ * Adds a correlation id to a message, and reads the correlation id from a message, so that a return value can be matched to the method invocation it was returned for.
+ * <p>
+ * The correlation id is prefixed to the message as a 1 character (which distinguishes it from a message without a correlation id, as neither a serialized document nor a message containing attachments can begin with a 1 character), the correlation id as a decimal number, and a ':' character.  The prefix is encoded as ASCII characters, so can be read from a message sent either as a string, or as a sequence of bytes.
+ * </p>
+ * @author Alastair Wyse
+ */
+class CorrelatedMessageCodec {
+    
+    /** The first character of a message containing a correlation id. */
+    private final char correlatedMessageIndicator = 1;
+    /** The character which separates the correlation id from the remainder of the message. */
+    private final char correlationIdSeparator = ':';
+    
+    /**
+     * Adds a correlation id to the specified message.
+     * @param correlationId  The correlation id.
+     * @param message        The message.
+     * @return               The message with the correlation id added.
+     */
+    public String Encode(long correlationId, String message) {
+        StringBuilder correlatedMessage = new StringBuilder(message.length() + 22);
+        correlatedMessage.append(correlatedMessageIndicator);
+        correlatedMessage.append(correlationId);
+        correlatedMessage.append(correlationIdSeparator);
+        correlatedMessage.append(message);
+        
+        return correlatedMessage.toString();
+    }
+    
+    /**
+     * Adds a correlation id to the specified message.
+     * @param correlationId  The correlation id.
+     * @param message        Buffer containing the message between its position and limit.  The position of the buffer is not changed.
+     * @return               Buffer containing the message with the correlation id added, between its position and limit.
+     */
+    public ByteBuffer Encode(long correlationId, ByteBuffer message) {
+        byte[] prefix = (correlatedMessageIndicator + Long.toString(correlationId) + correlationIdSeparator).getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer correlatedMessage = ByteBuffer.allocate(prefix.length + message.remaining());
+        correlatedMessage.put(prefix);
+        correlatedMessage.put(message.duplicate());
+        correlatedMessage.flip();
+        
+        return correlatedMessage;
+    }
+    
+    /**
+     * Indicates whether the specified message contains a correlation id.
+     * @param message  The message.
+     * @return         Whether the message contains a correlation id.
+     */
+    public boolean IsCorrelatedMessage(String message) {
+        return (message.length() > 0) && (message.charAt(0) == correlatedMessageIndicator);
+    }
+    
+    /**
+     * Indicates whether the specified message contains a correlation id.
+     * @param message  Buffer containing the message between its position and limit.
+     * @return         Whether the message contains a correlation id.
+     */
+    public boolean IsCorrelatedMessage(ByteBuffer message) {
+        return (message.hasRemaining() == true) && (message.get(message.position()) == correlatedMessageIndicator);
+    }
+    
+    /**
+     * Reads the correlation id from the specified message.
+     * @param message     The message.
+     * @return            The correlation id.
+     * @throws Exception  if the message does not contain a correlation id.
+     */
+    public long DecodeCorrelationId(String message) throws Exception {
+        int separatorIndex = FindSeparator(message);
+        try {
+            return Long.parseLong(message.substring(1, separatorIndex));
+        }
+        catch (NumberFormatException e) {
+            throw new Exception("Message contains invalid correlation id '" + message.substring(1, separatorIndex) + "'.", e);
+        }
+    }
+    
+    /**
+     * Removes the correlation id from the specified message.
+     * @param message     The message.
+     * @return            The message without the correlation id.
+     * @throws Exception  if the message does not contain a correlation id.
+     */
+    public String DecodeBody(String message) throws Exception {
+        return message.substring(FindSeparator(message) + 1);
+    }
+    
+    /**
+     * Reads the correlation id from the specified message, and advances the position of the buffer to the remainder of the message.
+     * @param message     Buffer containing the message between its position and limit.
+     * @return            The correlation id.
+     * @throws Exception  if the message does not contain a correlation id.
+     */
+    public long DecodeCorrelationId(ByteBuffer message) throws Exception {
+        if (IsCorrelatedMessage(message) == false) {
+            throw new Exception("Message does not contain a correlation id.");
+        }
+        
+        int separatorIndex = message.position() + 1;
+        while ((separatorIndex < message.limit()) && (message.get(separatorIndex) != correlationIdSeparator)) {
+            separatorIndex++;
+        }
+        if (separatorIndex == message.limit()) {
+            throw new Exception("Message does not contain a correlation id.");
+        }
+        byte[] correlationIdBytes = new byte[separatorIndex - message.position() - 1];
+        message.position(message.position() + 1);
+        message.get(correlationIdBytes);
+        message.position(separatorIndex + 1);
+        
+        String correlationId = new String(correlationIdBytes, StandardCharsets.US_ASCII);
+        try {
+            return Long.parseLong(correlationId);
+        }
+        catch (NumberFormatException e) {
+            throw new Exception("Message contains invalid correlation id '" + correlationId + "'.", e);
+        }
+    }
+    
+    /**
+     * Finds the separator which follows the correlation id in the specified message.
+     * @param message     The message.
+     * @return            The index of the separator.
+     * @throws Exception  if the message does not contain a correlation id.
+     */
+    private int FindSeparator(String message) throws Exception {
+        int separatorIndex = -1;
+        if (IsCorrelatedMessage(message) == true) {
+            separatorIndex = message.indexOf(correlationIdSeparator);
+        }
+        if (separatorIndex == -1) {
+            throw new Exception("Message does not contain a correlation id.");
+        }
+        
+        return separatorIndex;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.util.concurrent.*;
+
+/**
+ * Defines methods to send method invocations (represented by IMethodInvocation objects) to remote locations, without waiting for the invoked method to complete.
+ * @author Alastair Wyse
+ */
+public interface IAsyncMethodInvocationRemoteSender extends IMethodInvocationRemoteSender {
+
+    /**
+     * Invokes a method remotely, without waiting for the method invocation to be sent or the method to complete.
+     * @param inputMethodInvocation  The method to invoke.
+     * @return                       The value returned from invoking the method, which is completed when the value is received, or completed exceptionally if an error occurs when invoking the method.
+     * @throws Exception             if the method invocation cannot be sent asynchronously.
+     */
+    public CompletableFuture<Object> InvokeMethodAsync(IMethodInvocation inputMethodInvocation) throws Exception;
+    
+    /**
+     * Invokes a void method remotely, without waiting for the method invocation to be sent or the method to complete.
+     * @param inputMethodInvocation  The method to invoke.
+     * @return                       Completed when the method has completed, or completed exceptionally if an error occurs when invoking the method.
+     * @throws Exception             if the method invocation cannot be sent asynchronously.
+     */
+    public CompletableFuture<Void> InvokeVoidMethodAsync(IMethodInvocation inputMethodInvocation) throws Exception;
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Defines methods to serialize and deserialize method invocations and return values which contain Attachment objects, where the bytes of the attachments are held outside of the serialized document.
+ * @author Alastair Wyse
+ */
+public interface IAttachmentMethodInvocationSerializer extends IByteMethodInvocationSerializer {
+
+    /**
+     * Serializes a method invocation, writing the serialized document to a buffer, and adding any attachments contained in the method invocation to a list.  The document refers to each attachment by its index in the list.
+     * @param inputMethodInvocation    The method invocation to serialize.
+     * @param outputBuffer             The buffer to write to, starting at its current position.
+     * @param attachments              The list to add the attachments to.
+     * @return                         The buffer written to (either the specified buffer, or a newly allocated larger buffer if the specified buffer had insufficient space remaining), positioned after the last byte written.
+     * @throws SerializationException  if an error occurs when serializing the method invocation.
+     */
+    public ByteBuffer Serialize(IMethodInvocation inputMethodInvocation, ByteBuffer outputBuffer, List<Attachment> attachments) throws SerializationException;
+    
+    /**
+     * Deserializes a method invocation from a buffer, which refers to the specified attachments.
+     * @param serializedMethodInvocation  Buffer containing the serialized method invocation between its position and limit.  The position of the buffer is advanced to its limit.
+     * @param attachments                 The attachments referred to by the serialized method invocation.
+     * @return                            The method invocation.
+     * @throws DeserializationException   if an error occurs when deserializing the method invocation.
+     */
+    public MethodInvocation Deserialize(ByteBuffer serializedMethodInvocation, List<Attachment> attachments) throws DeserializationException;
+    
+    /**
+     * Serializes the return value of a method invocation, writing the serialized document to a buffer, and adding any attachments contained in the return value to a list.  The document refers to each attachment by its index in the list.
+     * @param inputReturnValue         The return value to serialize.
+     * @param outputBuffer             The buffer to write to, starting at its current position.
+     * @param attachments              The list to add the attachments to.
+     * @return                         The buffer written to (either the specified buffer, or a newly allocated larger buffer if the specified buffer had insufficient space remaining), positioned after the last byte written.
+     * @throws SerializationException  if an error occurs when serializing the return value.
+     */
+    public ByteBuffer SerializeReturnValue(Object inputReturnValue, ByteBuffer outputBuffer, List<Attachment> attachments) throws SerializationException;
+    
+    /**
+     * Deserializes the return value of a method invocation from a buffer, which refers to the specified attachments.
+     * @param serializedReturnValue      Buffer containing the serialized return value between its position and limit.  The position of the buffer is advanced to its limit.
+     * @param attachments                The attachments referred to by the serialized return value.
+     * @return                           The return value.
+     * @throws DeserializationException  if an error occurs when deserializing the return value.
+     */
+    public Object DeserializeReturnValue(ByteBuffer serializedReturnValue, List<Attachment> attachments) throws DeserializationException;
+}
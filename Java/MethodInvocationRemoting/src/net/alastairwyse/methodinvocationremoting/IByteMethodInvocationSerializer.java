@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.io.*;
+import java.nio.*;
+
+/**
+ * Defines methods which allow for serializing and deserializing of IMethodInvocation objects directly to and from sequences of bytes, in addition to strings.
+ * <p>
+ * Serializing to bytes avoids creating an intermediate string, and then encoding that string, before the serialized data is sent by an IByteRemoteSender implementation.
+ * </p>
+ * @author Alastair Wyse
+ */
+public interface IByteMethodInvocationSerializer extends IMethodInvocationSerializer {
+
+    /**
+     * Serializes a method invocation, writing the serialized bytes to the specified buffer.
+     * @param inputMethodInvocation    The method invocation to serialize.
+     * @param outputBuffer             The buffer to write to, starting at its current position.  If the buffer has insufficient space remaining, a larger buffer is allocated and the contents of the buffer before its position are copied to it.
+     * @return                         The buffer written to (either the specified buffer, or a newly allocated larger buffer), positioned after the last byte written.
+     * @throws SerializationException  if an error occurs when serializing the method invocation.
+     */
+    public ByteBuffer Serialize(IMethodInvocation inputMethodInvocation, ByteBuffer outputBuffer) throws SerializationException;
+
+    /**
+     * Serializes a method invocation, writing the serialized bytes to the specified stream.
+     * @param inputMethodInvocation    The method invocation to serialize.
+     * @param outputStream             The stream to write to.
+     * @throws SerializationException  if an error occurs when serializing the method invocation.
+     */
+    public void Serialize(IMethodInvocation inputMethodInvocation, OutputStream outputStream) throws SerializationException;
+
+    /**
+     * Deserializes a method invocation.
+     * @param serializedMethodInvocation  Buffer containing the serialized method invocation, between its current position and limit.  The position of the buffer is advanced to its limit.
+     * @return                            The method invocation.
+     * @throws DeserializationException   if an error occurs when deserializing the method invocation.
+     */
+    public MethodInvocation Deserialize(ByteBuffer serializedMethodInvocation) throws DeserializationException;
+
+    /**
+     * Deserializes a method invocation.
+     * @param serializedMethodInvocation  Stream containing the serialized method invocation.  The stream is read until its end.
+     * @return                            The method invocation.
+     * @throws DeserializationException   if an error occurs when deserializing the method invocation.
+     */
+    public MethodInvocation Deserialize(InputStream serializedMethodInvocation) throws DeserializationException;
+
+    /**
+     * Serializes the return value of a method invocation, writing the serialized bytes to the specified buffer.
+     * @param inputReturnValue         The return value to serialize.
+     * @param outputBuffer             The buffer to write to, starting at its current position.  If the buffer has insufficient space remaining, a larger buffer is allocated and the contents of the buffer before its position are copied to it.
+     * @return                         The buffer written to (either the specified buffer, or a newly allocated larger buffer), positioned after the last byte written.
+     * @throws SerializationException  if an error occurs when serializing the return value.
+     */
+    public ByteBuffer SerializeReturnValue(Object inputReturnValue, ByteBuffer outputBuffer) throws SerializationException;
+
+    /**
+     * Serializes the return value of a method invocation, writing the serialized bytes to the specified stream.
+     * @param inputReturnValue         The return value to serialize.
+     * @param outputStream             The stream to write to.
+     * @throws SerializationException  if an error occurs when serializing the return value.
+     */
+    public void SerializeReturnValue(Object inputReturnValue, OutputStream outputStream) throws SerializationException;
+
+    /**
+     * Deserializes the return value of a method invocation.
+     * @param serializedReturnValue      Buffer containing the serialized return value, between its current position and limit.  The position of the buffer is advanced to its limit.
+     * @return                           The return value.
+     * @throws DeserializationException  if an error occurs when deserializing the return value.
+     */
+    public Object DeserializeReturnValue(ByteBuffer serializedReturnValue) throws DeserializationException;
+
+    /**
+     * Deserializes the return value of a method invocation.
+     * @param serializedReturnValue      Stream containing the serialized return value.  The stream is read until its end.
+     * @return                           The return value.
+     * @throws DeserializationException  if an error occurs when deserializing the return value.
+     */
+    public Object DeserializeReturnValue(InputStream serializedReturnValue) throws DeserializationException;
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.nio.*;
+
+/**
+ * Defines methods which allow for sending messages, in the form of a sequence of bytes, to a remote location.
+ * @author Alastair Wyse
+ */
+public interface IByteRemoteSender {
+
+    /**
+     * Sends a message.
+     * Send operation should be synchronous, i.e. should not return control to the client until the message has been sent.
+     * @param message     Buffer containing the message to send, between its current position and limit.  The position of the buffer is advanced to its limit once the message has been sent.
+     * @throws Exception  if an error occurs when attempting to send the message.
+     */
+    void Send(ByteBuffer message) throws Exception;
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+/**
+ * Encapsulates a method that handles when a connection is established or re-established.
+ * @author Alastair Wyse
+ */
+public interface IConnectionEstablishedEventHandler {
+
+    /**
+     * Handles when a connection is established or re-established.
+     * @param source  The object which established the connection.
+     */
+    public void ConnectionEstablished(Object source);
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+/**
+ * Defines methods to handle the body of a received message incrementally, as its bytes arrive, rather than once the complete message has been received.
+ * <p>
+ * For each message, BeginMessageBody() is called first, followed by zero or more calls to MessageBodyReceived(), and then either EndMessageBody() once the complete message has been received, or DiscardMessageBody() if the message could not be received in full (e.g. the connection was broken and the message will be received again from the start).
+ * </p>
+ * @author Alastair Wyse
+ */
+public interface IMessageBodyHandler {
+
+    /**
+     * Handles the start of the body of a received message.
+     * @param length      The length of the message body in bytes.
+     * @throws Exception  if an error occurs handling the start of the message body.
+     */
+    void BeginMessageBody(long length) throws Exception;
+
+    /**
+     * Handles a portion of the body of a received message.
+     * @param bytes       Array containing the received portion of the message body.  The array may be reused once the method returns, so the contents must be copied if they are required later.
+     * @param offset      The index of the first byte of the portion within the array.
+     * @param length      The number of bytes in the portion.
+     * @throws Exception  if an error occurs handling the portion of the message body.
+     */
+    void MessageBodyReceived(byte[] bytes, int offset, int length) throws Exception;
+
+    /**
+     * Handles the end of the body of a received message, once the complete message has been received and acknowledged.
+     * @throws Exception  if an error occurs handling the end of the message body.
+     */
+    void EndMessageBody() throws Exception;
+
+    /**
+     * Discards the portion of the message body received since the last call to BeginMessageBody().
+     */
+    void DiscardMessageBody();
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.net.*;
+
+/**
+ * Defines a method which provides the sender used to send return values to the remote location which sent a method invocation, when method invocations are received from multiple remote locations by a TcpMultiClientRemoteReceiver.
+ * @author Alastair Wyse
+ */
+public interface IReplySenderProvider {
+
+    /**
+     * Returns the sender to use to send return values to the remote location connected on the specified connection.
+     * @param connectionId   The identifier of the connection the method invocation was received on.
+     * @param remoteAddress  The remote address of the connection, or null if it could not be obtained.
+     * @return               The sender, or null to send the return value using the sender passed to the MethodInvocationRemoteReceiver constructor.
+     * @throws Exception     if an error occurs when obtaining the sender.
+     */
+    public IRemoteSender GetReplySender(long connectionId, SocketAddress remoteAddress) throws Exception;
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.util.concurrent.*;
+
+/**
+ * Deserializes the body of a message received by a TcpRemoteReceiver whilst the message is being received, so that the time to deserialize a large message overlaps with the time to receive it.
+ * <p>
+ * Each message body is deserialized on a worker thread, which reads the portions of the body from a bounded buffer as they are passed to the MessageBodyReceived() method.  If the serializer is a MethodInvocationSerializer, the XML document is parsed as it is read.  Other serializers are passed a stream containing the message body, and will typically read the complete stream before deserializing.
+ * </p>
+ * @author Alastair Wyse
+ */
+public class IncrementalMessageDeserializer implements IMessageBodyHandler, AutoCloseable {
+
+    /** The default number of bytes of a message body which can be received but not yet deserialized. */
+    private static final int defaultBufferLimit = 65536;
+    
+    private IByteMethodInvocationSerializer serializer;
+    private boolean deserializeReturnValues;
+    private int bufferLimit;
+    private ExecutorService deserializeExecutor;
+    /** The stream containing the message body currently being received. */
+    private MessageBodyInputStream currentMessageBody;
+    /** The result of deserializing the message body currently being received. */
+    private Future<Object> currentResult;
+    /** The result of deserializing the last message body received in full. */
+    private Future<Object> completedResult;
+    
+    /**
+     * Initialises a new instance of the IncrementalMessageDeserializer class.
+     * @param serializer               The serializer to use to deserialize the message bodies.
+     * @param deserializeReturnValues  Whether the message bodies contain serialized return values (true), or serialized method invocations (false).
+     */
+    public IncrementalMessageDeserializer(IByteMethodInvocationSerializer serializer, boolean deserializeReturnValues) {
+        this(serializer, deserializeReturnValues, defaultBufferLimit);
+    }
+    
+    /**
+     * Initialises a new instance of the IncrementalMessageDeserializer class.
+     * @param serializer               The serializer to use to deserialize the message bodies.
+     * @param deserializeReturnValues  Whether the message bodies contain serialized return values (true), or serialized method invocations (false).
+     * @param bufferLimit              The number of bytes of a message body which can be received but not yet deserialized, before the thread receiving the message is blocked.
+     */
+    public IncrementalMessageDeserializer(IByteMethodInvocationSerializer serializer, boolean deserializeReturnValues, int bufferLimit) {
+        if (serializer == null) {
+            throw new IllegalArgumentException("Argument 'serializer' cannot be null.");
+        }
+        if (bufferLimit < 1) {
+            throw new IllegalArgumentException("Argument 'bufferLimit' must be greater than 0.");
+        }
+        this.serializer = serializer;
+        this.deserializeReturnValues = deserializeReturnValues;
+        this.bufferLimit = bufferLimit;
+        deserializeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread deserializeThread = new Thread(runnable);
+                deserializeThread.setName("IncrementalMessageDeserializer.DeserializeHandler");
+                deserializeThread.setDaemon(true);
+                return deserializeThread;
+            }
+        });
+        currentMessageBody = null;
+        currentResult = null;
+        completedResult = null;
+    }
+    
+    @Override
+    public void BeginMessageBody(long length) throws Exception {
+        DiscardMessageBody();
+        completedResult = null;
+        currentMessageBody = new MessageBodyInputStream(bufferLimit);
+        currentResult = deserializeExecutor.submit(new DeserializeHandler(currentMessageBody));
+    }
+    
+    @Override
+    public void MessageBodyReceived(byte[] bytes, int offset, int length) throws Exception {
+        if (currentMessageBody == null) {
+            throw new Exception("Method BeginMessageBody() must be called before method MessageBodyReceived().");
+        }
+        currentMessageBody.Write(bytes, offset, length);
+    }
+    
+    @Override
+    public void EndMessageBody() throws Exception {
+        if (currentMessageBody == null) {
+            throw new Exception("Method BeginMessageBody() must be called before method EndMessageBody().");
+        }
+        currentMessageBody.End();
+        completedResult = currentResult;
+        currentMessageBody = null;
+        currentResult = null;
+    }
+    
+    @Override
+    public void DiscardMessageBody() {
+        if (currentMessageBody != null) {
+            currentMessageBody.Abort();
+            currentResult.cancel(false);
+            currentMessageBody = null;
+            currentResult = null;
+        }
+    }
+    
+    /**
+     * Returns the method invocation deserialized from the last message body received in full, waiting for the deserialization to complete if necessary.
+     * @return                           The method invocation.
+     * @throws DeserializationException  if an error occurred when deserializing the method invocation.
+     * @throws Exception                 if a message body has not been received in full, or the deserializer was constructed to deserialize return values.
+     */
+    public IMethodInvocation getMethodInvocation() throws Exception {
+        if (deserializeReturnValues == true) {
+            throw new Exception("The deserializer was constructed to deserialize return values.");
+        }
+        return (IMethodInvocation)GetCompletedResult();
+    }
+    
+    /**
+     * Returns the return value deserialized from the last message body received in full, waiting for the deserialization to complete if necessary.
+     * @return                           The return value.
+     * @throws DeserializationException  if an error occurred when deserializing the return value.
+     * @throws Exception                 if a message body has not been received in full, or the deserializer was constructed to deserialize method invocations.
+     */
+    public Object getReturnValue() throws Exception {
+        if (deserializeReturnValues == false) {
+            throw new Exception("The deserializer was constructed to deserialize method invocations.");
+        }
+        return GetCompletedResult();
+    }
+    
+    /**
+     * Discards any message body currently being received, and stops the worker thread.
+     */
+    @Override
+    public void close() {
+        DiscardMessageBody();
+        deserializeExecutor.shutdown();
+    }
+    
+    /**
+     * Waits for and returns the result of deserializing the last message body received in full.
+     * @return            The deserialized method invocation or return value.
+     * @throws Exception  if a message body has not been received in full, or an error occurred when deserializing the message body.
+     */
+    private Object GetCompletedResult() throws Exception {
+        if (completedResult == null) {
+            throw new Exception("A message body has not been received in full.");
+        }
+        try {
+            return completedResult.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception)e.getCause();
+            }
+            else {
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * Deserializes a message body on the worker thread.
+     * @author Alastair Wyse
+     */
+    private class DeserializeHandler implements Callable<Object> {
+        
+        private MessageBodyInputStream messageBody;
+        
+        /**
+         * Initialises a new instance of the DeserializeHandler class.
+         * @param messageBody  The stream containing the message body.
+         */
+        public DeserializeHandler(MessageBodyInputStream messageBody) {
+            this.messageBody = messageBody;
+        }
+        
+        @Override
+        public Object call() throws Exception {
+            try {
+                if (serializer instanceof MethodInvocationSerializer) {
+                    MethodInvocationSerializer methodInvocationSerializer = (MethodInvocationSerializer)serializer;
+                    if (deserializeReturnValues == true) {
+                        return methodInvocationSerializer.DeserializeReturnValueIncrementally(messageBody);
+                    }
+                    else {
+                        return methodInvocationSerializer.DeserializeIncrementally(messageBody);
+                    }
+                }
+                else {
+                    if (deserializeReturnValues == true) {
+                        return serializer.DeserializeReturnValue(messageBody);
+                    }
+                    else {
+                        return serializer.Deserialize(messageBody);
+                    }
+                }
+            }
+            finally {
+                // Close the stream so that the receiving thread is not blocked writing any remaining portions of the message body
+                messageBody.close();
+            }
+        }
+    }
+}
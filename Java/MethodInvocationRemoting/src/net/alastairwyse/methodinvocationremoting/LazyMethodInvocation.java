@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+/**
+ * Container for properties of a method and the parameters used when the method is called or invoked, where the parameters are deserialized only when first accessed.
+ * <p>
+ * Returned by the Deserialize() methods of class MethodInvocationSerializer when lazy deserialization of parameters is enabled.  The method name and return type are deserialized immediately, so a method invocation can be routed, forwarded, or rejected based on its name without incurring the cost of deserializing its parameters.  Individual parameters can be deserialized using the getParameter() method, or all parameters using the getParameters() method.
+ * </p>
+ * <p>
+ * As the getParameters() and getParameter() methods cannot throw checked exceptions, an error deserializing a parameter is thrown as a RuntimeException, with the DeserializationException describing the error as its cause.
+ * </p>
+ * @author Alastair Wyse
+ */
+public class LazyMethodInvocation extends MethodInvocation {
+
+    private int parameterCount;
+    private IParameterDecoder parameterDecoder;
+    /** The parameters which have been deserialized.  Null if no parameters have been deserialized. */
+    private Object[] parameters;
+    /** Indicates which of the parameters have been deserialized. */
+    private boolean[] parameterDeserialized;
+    private boolean allParametersDeserialized;
+    
+    /**
+     * Initializes a new instance of the LazyMethodInvocation class.
+     * @param methodName        The name of the method.
+     * @param methodReturnType  The return type of the method, or null if the method has a void return type.
+     * @param parameterCount    The number of parameters in the serialized method invocation.
+     * @param parameterDecoder  Object to use to deserialize the parameters.
+     */
+    LazyMethodInvocation(String methodName, Class<?> methodReturnType, int parameterCount, IParameterDecoder parameterDecoder) {
+        super(methodName, methodReturnType);
+        this.parameterCount = parameterCount;
+        this.parameterDecoder = parameterDecoder;
+        allParametersDeserialized = false;
+    }
+    
+    /**
+     * @return  The number of parameters sent when the method is invoked.
+     */
+    public int getParameterCount() {
+        return parameterCount;
+    }
+    
+    /**
+     * @return  Whether all of the parameters have been deserialized.
+     */
+    public synchronized boolean getParametersDeserialized() {
+        return allParametersDeserialized;
+    }
+    
+    /**
+     * Returns the parameter at the specified position, deserializing it if it has not already been deserialized.
+     * @param index  The position of the parameter.
+     * @return       The parameter.
+     * @throws IndexOutOfBoundsException  if the index is less than 0, or greater than or equal to the number of parameters.
+     */
+    public synchronized Object getParameter(int index) {
+        if ((index < 0) || (index >= parameterCount)) {
+            throw new IndexOutOfBoundsException("Parameter 'index' with value " + index + " is outside the range of parameters (" + parameterCount + ").");
+        }
+
+        if (allParametersDeserialized == true) {
+            return parameters[index];
+        }
+        if (parameters == null) {
+            parameters = new Object[parameterCount];
+            parameterDeserialized = new boolean[parameterCount];
+        }
+        if (parameterDeserialized[index] == false) {
+            try {
+                parameters[index] = parameterDecoder.DecodeParameter(index);
+            }
+            catch (DeserializationException e) {
+                throw new RuntimeException("Failed to deserialize parameter at index " + index + " of method invocation '" + getName() + "'.", e);
+            }
+            parameterDeserialized[index] = true;
+        }
+        
+        return parameters[index];
+    }
+    
+    /**
+     * Returns the parameters, deserializing any which have not already been deserialized.
+     * @return  The parameters sent when the method is invoked, or null if the method has no parameters.
+     */
+    @Override
+    public synchronized Object[] getParameters() {
+        if (parameterCount == 0) {
+            return null;
+        }
+        
+        if (allParametersDeserialized == false) {
+            Object[] decodedParameters;
+            try {
+                decodedParameters = parameterDecoder.DecodeParameters();
+            }
+            catch (DeserializationException e) {
+                throw new RuntimeException("Failed to deserialize parameters of method invocation '" + getName() + "'.", e);
+            }
+            // Retain any parameters which were previously deserialized individually, so that getParameter() and getParameters() return the same objects
+            if (parameters != null) {
+                for (int i = 0; i < parameterCount; i = i + 1) {
+                    if (parameterDeserialized[i] == true) {
+                        decodedParameters[i] = parameters[i];
+                    }
+                }
+            }
+            parameters = decodedParameters;
+            parameterDeserialized = null;
+            allParametersDeserialized = true;
+            // The serialized method invocation is no longer required
+            parameterDecoder = null;
+        }
+        
+        return parameters;
+    }
+    
+    /**
+     * Deserializes the parameters of a serialized method invocation.
+     */
+    interface IParameterDecoder {
+        
+        /**
+         * Deserializes the parameter at the specified position.
+         * @param index                      The position of the parameter.
+         * @return                           The parameter.
+         * @throws DeserializationException  if an error occurs when deserializing the parameter.
+         */
+        Object DecodeParameter(int index) throws DeserializationException;
+        
+        /**
+         * Deserializes all of the parameters.
+         * @return                           The parameters.
+         * @throws DeserializationException  if an error occurs when deserializing the parameters.
+         */
+        Object[] DecodeParameters() throws DeserializationException;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * An InputStream which is written to by one thread as portions of a message body are received, and read from by another thread which parses the message body.
+ * <p>
+ * The number of bytes written but not yet read is bounded, so that the writing thread is blocked if it gets too far ahead of the reading thread, rather than buffering the complete message body.
+ * </p>
+ * @author Alastair Wyse
+ */
+class MessageBodyInputStream extends InputStream {
+
+    /** The portions of the message body written but not yet read. */
+    private ArrayDeque<byte[]> portions;
+    /** The index of the next byte to read in the first portion. */
+    private int portionOffset;
+    private int bufferedByteCount;
+    private int bufferLimit;
+    private boolean ended;
+    private boolean aborted;
+    private boolean closed;
+    
+    /**
+     * Initialises a new instance of the MessageBodyInputStream class.
+     * @param bufferLimit  The number of bytes which can be written but not yet read, before the writing thread is blocked.
+     */
+    public MessageBodyInputStream(int bufferLimit) {
+        if (bufferLimit < 1) {
+            throw new IllegalArgumentException("Argument 'bufferLimit' must be greater than 0.");
+        }
+        portions = new ArrayDeque<byte[]>();
+        portionOffset = 0;
+        bufferedByteCount = 0;
+        this.bufferLimit = bufferLimit;
+        ended = false;
+        aborted = false;
+        closed = false;
+    }
+    
+    /**
+     * Writes a portion of the message body to the stream, blocking whilst the number of bytes written but not yet read exceeds the buffer limit.
+     * @param bytes                  Array containing the portion of the message body.  The contents are copied, so the array can be reused once the method returns.
+     * @param offset                 The index of the first byte of the portion within the array.
+     * @param length                 The number of bytes in the portion.
+     * @throws InterruptedException  if the thread is interrupted whilst blocked.
+     */
+    public synchronized void Write(byte[] bytes, int offset, int length) throws InterruptedException {
+        if ((length == 0) || (closed == true) || (aborted == true)) {
+            return;
+        }
+        while ((bufferedByteCount >= bufferLimit) && (closed == false) && (aborted == false)) {
+            wait();
+        }
+        if ((closed == true) || (aborted == true)) {
+            return;
+        }
+        portions.addLast(Arrays.copyOfRange(bytes, offset, offset + length));
+        bufferedByteCount = bufferedByteCount + length;
+        notifyAll();
+    }
+    
+    /**
+     * Marks the end of the message body, after which reading past the bytes written returns end of stream.
+     */
+    public synchronized void End() {
+        ended = true;
+        notifyAll();
+    }
+    
+    /**
+     * Abandons the message body, causing any subsequent or blocked reads to throw an IOException.
+     */
+    public synchronized void Abort() {
+        aborted = true;
+        portions.clear();
+        bufferedByteCount = 0;
+        notifyAll();
+    }
+    
+    @Override
+    public synchronized int read() throws IOException {
+        byte[] singleByte = new byte[1];
+        if (read(singleByte, 0, 1) == -1) {
+            return -1;
+        }
+        else {
+            return singleByte[0] & 0xff;
+        }
+    }
+    
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if ((off < 0) || (len < 0) || (len > b.length - off)) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        
+        try {
+            while ((portions.isEmpty() == true) && (ended == false) && (aborted == false)) {
+                wait();
+            }
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted whilst waiting for the message body to be received.");
+        }
+        if (aborted == true) {
+            throw new IOException("The message body was discarded before it was received in full.");
+        }
+        if (portions.isEmpty() == true) {
+            return -1;
+        }
+        
+        // Copy from as many of the written portions as will fit in the specified array
+        int bytesRead = 0;
+        while ((bytesRead < len) && (portions.isEmpty() == false)) {
+            byte[] currentPortion = portions.peekFirst();
+            int copyLength = Math.min(len - bytesRead, currentPortion.length - portionOffset);
+            System.arraycopy(currentPortion, portionOffset, b, off + bytesRead, copyLength);
+            bytesRead = bytesRead + copyLength;
+            portionOffset = portionOffset + copyLength;
+            if (portionOffset == currentPortion.length) {
+                portions.removeFirst();
+                portionOffset = 0;
+            }
+        }
+        bufferedByteCount = bufferedByteCount - bytesRead;
+        notifyAll();
+        
+        return bytesRead;
+    }
+    
+    @Override
+    public synchronized int available() {
+        return bufferedByteCount;
+    }
+    
+    /**
+     * Closes the stream, discarding any unread bytes, and causing subsequent writes to be ignored (so that the writing thread is not blocked once the reading thread has stopped reading).
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        portions.clear();
+        bufferedByteCount = 0;
+        notifyAll();
+    }
+}
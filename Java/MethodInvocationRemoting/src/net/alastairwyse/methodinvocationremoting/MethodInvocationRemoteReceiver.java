@@ -16,12 +16,27 @@
 
 package net.alastairwyse.methodinvocationremoting;
 
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
 import net.alastairwyse.applicationlogging.*;
 import net.alastairwyse.applicationmetrics.*;
 import net.alastairwyse.methodinvocationremotingmetrics.*;
 
 /**
  * Receives method invocations (represented by IMethodInvocation objects) from remote locations.
+ * <p>
+ * Method invocations with Attachment parameters, and Attachment return values, are received and sent as a single message containing the serialized document and the attachments.  This requires the serializer to implement IAttachmentMethodInvocationSerializer and the sender and receiver to implement IByteRemoteSender and IByteRemoteReceiver.  The attachments of a received method invocation are views of the received message, rather than copies.
+ * </p>
+ * <p>
+ * If a ParameterDeltaCache is set, method invocations sent by a MethodInvocationRemoteSender with a ParameterDeltaCache set are reconstructed from the changed parameters received and the parameters of the previous invocation of the same method, before being passed to the received event handler.
+ * </p>
+ * <p>
+ * Method invocations sent by a MethodInvocationRemoteSender with correlation ids enabled are passed to the received event handler along with an IMethodInvocationRemoteReceiver specific to the method invocation, which sends the return value with the correlation id of the method invocation.  The return values of these method invocations can be sent in any order, and from any thread, so the received event handler can complete method invocations concurrently.
+ * </p>
+ * <p>
+ * If a reply sender provider is set (see setReplySenderProvider()), method invocations can be received from multiple remote locations using a TcpMultiClientRemoteReceiver, and the return value of each method invocation is sent using the sender provided for the connection it was received on.
+ * </p>
  * @author Alastair Wyse
  */
 public class MethodInvocationRemoteReceiver implements IMethodInvocationRemoteReceiver {
@@ -34,6 +49,13 @@ public class MethodInvocationRemoteReceiver implements IMethodInvocationRemoteRe
     private volatile boolean cancelRequest = false;
     private IApplicationLogger logger;
     private IMetricLogger metricLogger;
+    private AttachmentMessageCodec attachmentMessageCodec;
+    private ParameterDeltaCache deltaCache;
+    private CorrelatedMessageCodec correlatedMessageCodec;
+    /** Provides the sender to send each return value with, when method invocations are received from multiple remote locations, or null if all return values are sent with the sender passed to the constructor. */
+    private IReplySenderProvider replySenderProvider;
+    /** Lock object which serializes sending return values, as the serializer and sender may not support concurrent sends. */
+    private final Object sendLock = new Object();
     
     /**
      * Initialises a new instance of the MethodInvocationRemoteReceiver class.
@@ -45,6 +67,8 @@ public class MethodInvocationRemoteReceiver implements IMethodInvocationRemoteRe
         this.serializer = serializer;
         this.sender = sender;
         this.receiver = receiver;
+        attachmentMessageCodec = new AttachmentMessageCodec();
+        correlatedMessageCodec = new CorrelatedMessageCodec();
         logger = new ConsoleApplicationLogger(LogLevel.Information, '|', "  ");
         metricLogger = new NullMetricLogger();
     }
@@ -92,11 +116,33 @@ public class MethodInvocationRemoteReceiver implements IMethodInvocationRemoteRe
         this.receivedEventHandler = receivedEventHandler;
     }
 
+    /**
+     * Sets the cache used to reconstruct method invocations sent as the parameters which have changed since the previous invocation of the same method.
+     * @param deltaCache  The cache, or null if method invocations are always sent in full.
+     */
+    public void setDeltaCache(ParameterDeltaCache deltaCache) {
+        this.deltaCache = deltaCache;
+    }
+
+    /**
+     * Sets the object which provides the sender used to send the return value of each method invocation back to the remote location which sent it.
+     * <p>
+     * Requires the receiver to be a TcpMultiClientRemoteReceiver, which receives method invocations from multiple remote locations.  Each method invocation is passed to the received event handler along with an IMethodInvocationRemoteReceiver specific to the method invocation, which sends the return value using the sender provided for the connection the method invocation was received on.
+     * </p>
+     * @param replySenderProvider  The reply sender provider, or null if all return values are sent with the sender passed to the constructor.
+     */
+    public void setReplySenderProvider(IReplySenderProvider replySenderProvider) {
+        this.replySenderProvider = replySenderProvider;
+    }
+
     @Override
     public void Receive() throws Exception {
         if(receivedEventHandler == null) {
             throw new Exception("Member 'ReceivedEventHandler' has not been set.");
         }
+        if ((replySenderProvider != null) && (receiver instanceof TcpMultiClientRemoteReceiver == false)) {
+            throw new Exception("A reply sender provider can only be used with a TcpMultiClientRemoteReceiver.");
+        }
         
         cancelRequest = false;
         receiveLoopThread = new Thread(new ReceiveLoopHandler(this));
@@ -107,9 +153,41 @@ public class MethodInvocationRemoteReceiver implements IMethodInvocationRemoteRe
 
     @Override
     public void SendReturnValue(Object returnValue) throws Exception {
+        SendReturnValue(returnValue, 0, sender);
+    }
+
+    @Override
+    public void SendVoidReturn() throws Exception {
+        SendVoidReturn(0, sender);
+    }
+    
+    /**
+     * Serializes and sends the return value of a method invocation.
+     * @param returnValue        The return value.
+     * @param correlationId      The correlation id of the method invocation, or 0 if the method invocation was received without a correlation id.
+     * @param returnValueSender  The sender to send the return value with.
+     * @throws Exception         if an error occurs when sending the return value.
+     */
+    private void SendReturnValue(Object returnValue, long correlationId, IRemoteSender returnValueSender) throws Exception {
         try {
-            String serializedReturnValue = serializer.SerializeReturnValue(returnValue);
-            sender.Send(serializedReturnValue);
+            if (returnValue instanceof Attachment) {
+                if ((serializer instanceof IAttachmentMethodInvocationSerializer == false) || (returnValueSender instanceof IByteRemoteSender == false)) {
+                    throw new Exception("Attachment return values can only be sent using a serializer which implements IAttachmentMethodInvocationSerializer and a sender which implements IByteRemoteSender.");
+                }
+                synchronized (sendLock) {
+                    SerializeAndSendAttachmentReturnValue(returnValue, correlationId, returnValueSender);
+                }
+            }
+            else if (GetTokenDictionary() != null) {
+                // Serialize under the lock, so that return values are sent in the order their tokens were written to the session token dictionary
+                synchronized (sendLock) {
+                    SendMessage(serializer.SerializeReturnValue(returnValue), correlationId, returnValueSender);
+                }
+            }
+            else {
+                String serializedReturnValue = serializer.SerializeReturnValue(returnValue);
+                SendMessage(serializedReturnValue, correlationId, returnValueSender);
+            }
             /* //[BEGIN_METRICS]
             metricLogger.End(new RemoteMethodReceiveTime());
             metricLogger.Increment(new RemoteMethodReceived());
@@ -126,10 +204,43 @@ public class MethodInvocationRemoteReceiver implements IMethodInvocationRemoteRe
         }
     }
 
-    @Override
-    public void SendVoidReturn() throws Exception {
+    /**
+     * Serializes and sends a return value with attachments as a single message.
+     * @param returnValue        The return value.
+     * @param correlationId      The correlation id of the method invocation, or 0 if the method invocation was received without a correlation id.
+     * @param returnValueSender  The sender to send the return value with.
+     * @throws Exception
+     */
+    private void SerializeAndSendAttachmentReturnValue(Object returnValue, long correlationId, IRemoteSender returnValueSender) throws Exception {
+        SessionTokenDictionary tokenDictionary = GetTokenDictionary();
+        try {
+            ByteBuffer message = attachmentMessageCodec.EncodeReturnValue((IAttachmentMethodInvocationSerializer)serializer, returnValue);
+            if (correlationId != 0) {
+                message = correlatedMessageCodec.Encode(correlationId, message);
+            }
+            ((IByteRemoteSender)returnValueSender).Send(message);
+        }
+        catch (Exception e) {
+            // The names first written in the return value must be written in full again, as the remote dictionary may not have read them
+            if (tokenDictionary != null) {
+                tokenDictionary.RollBackWritten();
+            }
+            throw e;
+        }
+        if (tokenDictionary != null) {
+            tokenDictionary.ConfirmWritten();
+        }
+    }
+
+    /**
+     * Sends the void return value of a method invocation.
+     * @param correlationId      The correlation id of the method invocation, or 0 if the method invocation was received without a correlation id.
+     * @param returnValueSender  The sender to send the void return value with.
+     * @throws Exception         if an error occurs when sending the void return value.
+     */
+    private void SendVoidReturn(long correlationId, IRemoteSender returnValueSender) throws Exception {
         try {
-            sender.Send(serializer.getVoidReturnValue());
+            SendMessage(serializer.getVoidReturnValue(), correlationId, returnValueSender);
             /* //[BEGIN_METRICS]
             metricLogger.End(new RemoteMethodReceiveTime());
             metricLogger.Increment(new RemoteMethodReceived());
@@ -161,6 +272,123 @@ public class MethodInvocationRemoteReceiver implements IMethodInvocationRemoteRe
         //[END_LOGGING] */
     }
 
+    /**
+     * Sends a message to the sender of a method invocation.
+     * @param message            The message.
+     * @param correlationId      The correlation id of the method invocation, or 0 if the method invocation was received without a correlation id.
+     * @param returnValueSender  The sender to send the message with.
+     * @throws Exception         if an error occurs when sending the message.
+     */
+    private void SendMessage(String message, long correlationId, IRemoteSender returnValueSender) throws Exception {
+        if (correlationId != 0) {
+            message = correlatedMessageCodec.Encode(correlationId, message);
+        }
+        synchronized (sendLock) {
+            SessionTokenDictionary tokenDictionary = GetTokenDictionary();
+            try {
+                returnValueSender.Send(message);
+            }
+            catch (Exception e) {
+                // The names first written in the message must be written in full again, as the remote dictionary may not have read them
+                if (tokenDictionary != null) {
+                    tokenDictionary.RollBackWritten();
+                }
+                throw e;
+            }
+            if (tokenDictionary != null) {
+                tokenDictionary.ConfirmWritten();
+            }
+        }
+    }
+
+    /**
+     * @return  The session token dictionary used by the serializer, or null if the serializer does not use one.
+     */
+    private SessionTokenDictionary GetTokenDictionary() {
+        if (serializer instanceof BinaryMethodInvocationSerializer) {
+            return ((BinaryMethodInvocationSerializer)serializer).getTokenDictionary();
+        }
+        else {
+            return null;
+        }
+    }
+
+    /**
+     * Receives a serialized method invocation.
+     * @return            The serialized method invocation and its correlation id, or null if the receive operation was cancelled.
+     * @throws Exception
+     */
+    private ReceivedMessage ReceiveMessage() throws Exception {
+        if (replySenderProvider != null) {
+            // Receive with the connection details, so that the return value can be sent to the remote location which sent the method invocation
+            TcpReceivedMessage message = ((TcpMultiClientRemoteReceiver)receiver).ReceiveWithConnectionId();
+            if (message == null) {
+                return null;
+            }
+            ReceivedMessage receivedMessage = DecodeMessage(message.getMessage());
+            receivedMessage.replySender = replySenderProvider.GetReplySender(message.getConnectionId(), message.getRemoteAddress());
+            return receivedMessage;
+        }
+        // Receive as bytes if possible, as the method invocation may contain attachments
+        else if ((serializer instanceof IAttachmentMethodInvocationSerializer) && (receiver instanceof IByteRemoteReceiver)) {
+            ByteBuffer message = ((IByteRemoteReceiver)receiver).ReceiveBytes();
+            if (message.hasRemaining() == false) {
+                return null;
+            }
+            return DecodeMessage(message);
+        }
+        else {
+            String message = receiver.Receive();
+            if (message != "") {
+                if (correlatedMessageCodec.IsCorrelatedMessage(message) == true) {
+                    return new ReceivedMessage(correlatedMessageCodec.DecodeBody(message), correlatedMessageCodec.DecodeCorrelationId(message));
+                }
+                else {
+                    return new ReceivedMessage(message, 0);
+                }
+            }
+            else {
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * Decodes the correlation id from a message received as bytes, and decodes the serialized method invocation as a String unless the message contains attachments.
+     * @param message  Buffer containing the message.
+     * @return         The serialized method invocation and its correlation id.
+     * @throws Exception
+     */
+    private ReceivedMessage DecodeMessage(ByteBuffer message) throws Exception {
+        long correlationId = 0;
+        if (correlatedMessageCodec.IsCorrelatedMessage(message) == true) {
+            correlationId = correlatedMessageCodec.DecodeCorrelationId(message);
+        }
+        if ((serializer instanceof IAttachmentMethodInvocationSerializer) && (attachmentMessageCodec.IsAttachmentMessage(message) == true)) {
+            return new ReceivedMessage(message, correlationId);
+        }
+        else {
+            return new ReceivedMessage(StandardCharsets.UTF_8.decode(message).toString(), correlationId);
+        }
+    }
+    
+    /**
+     * Deserializes a method invocation.
+     * @param serializedMethodInvocation  The serialized method invocation, either as a String, or as a ByteBuffer containing a message with attachments.
+     * @return                            The deserialized method invocation.
+     * @throws Exception
+     */
+    private IMethodInvocation Deserialize(Object serializedMethodInvocation) throws Exception {
+        if (serializedMethodInvocation instanceof ByteBuffer) {
+            ArrayList<Attachment> attachments = new ArrayList<Attachment>();
+            ByteBuffer document = attachmentMessageCodec.Decode((ByteBuffer)serializedMethodInvocation, attachments);
+            return ((IAttachmentMethodInvocationSerializer)serializer).Deserialize(document, attachments);
+        }
+        else {
+            return serializer.Deserialize((String)serializedMethodInvocation);
+        }
+    }
+
     /**
      * Encapsulates a worker thread operation to receive method invocations.
      */
@@ -176,8 +404,8 @@ public class MethodInvocationRemoteReceiver implements IMethodInvocationRemoteRe
         public void run() {
             while (cancelRequest == false) {
                 try {
-                    String serializedMethodInvocation = receiver.Receive();
-                    if (serializedMethodInvocation != "") {
+                    ReceivedMessage receivedMessage = ReceiveMessage();
+                    if (receivedMessage != null) {
                         /* //[BEGIN_METRICS]
                         metricLogger.Begin(new RemoteMethodReceiveTime());
                         //[END_METRICS] */
@@ -185,8 +413,25 @@ public class MethodInvocationRemoteReceiver implements IMethodInvocationRemoteRe
                         IMethodInvocation receivedMethodInvocation;
                         
                         try {
-                            receivedMethodInvocation = serializer.Deserialize(serializedMethodInvocation);
-                            receivedEventHandler.MethodInvocationReceived(outerClass, receivedMethodInvocation);
+                            receivedMethodInvocation = Deserialize(receivedMessage.serializedMethodInvocation);
+                            if ((deltaCache != null) && (deltaCache.IsEncoded(receivedMethodInvocation) == true)) {
+                                IMethodInvocation decodedMethodInvocation = deltaCache.Decode(receivedMethodInvocation);
+                                if (decodedMethodInvocation == null) {
+                                    // The previous invocation that the changes were made to is not held, so request that the sender send the method invocation in full
+                                    /* //[BEGIN_METRICS]
+                                    metricLogger.CancelBegin(new RemoteMethodReceiveTime());
+                                    //[END_METRICS] */
+                                    SendMessage(deltaCache.getBaseVersionMismatchResponse(), receivedMessage.correlationId, receivedMessage.GetReturnValueSender());
+                                    continue;
+                                }
+                                receivedMethodInvocation = decodedMethodInvocation;
+                            }
+                            if ((receivedMessage.correlationId == 0) && (receivedMessage.replySender == null)) {
+                                receivedEventHandler.MethodInvocationReceived(outerClass, receivedMethodInvocation);
+                            }
+                            else {
+                                receivedEventHandler.MethodInvocationReceived(new ReturnValueSender(receivedMessage.correlationId, receivedMessage.GetReturnValueSender()), receivedMethodInvocation);
+                            }
                         }
                         catch (Exception e) {
                             /* //[BEGIN_METRICS]
@@ -206,4 +451,83 @@ public class MethodInvocationRemoteReceiver implements IMethodInvocationRemoteRe
             }
         }
     }
+    
+    /**
+     * Container class holding a received serialized method invocation, its correlation id, and the sender to send its return value with.
+     */
+    private class ReceivedMessage {
+        /** The serialized method invocation, either as a String, or as a ByteBuffer if the method invocation was received in a message containing attachments. */
+        public Object serializedMethodInvocation;
+        /** The correlation id of the method invocation, or 0 if the method invocation was received without a correlation id. */
+        public long correlationId;
+        /** The sender provided by the reply sender provider to send the return value with, or null if the return value is sent using the sender passed to the constructor. */
+        public IRemoteSender replySender;
+        
+        /**
+         * Initialises a new instance of the ReceivedMessage class.
+         * @param serializedMethodInvocation  The serialized method invocation.
+         * @param correlationId               The correlation id of the method invocation.
+         */
+        public ReceivedMessage(Object serializedMethodInvocation, long correlationId) {
+            this.serializedMethodInvocation = serializedMethodInvocation;
+            this.correlationId = correlationId;
+            replySender = null;
+        }
+        
+        /**
+         * @return  The sender to send the return value of the method invocation with.
+         */
+        public IRemoteSender GetReturnValueSender() {
+            if (replySender != null) {
+                return replySender;
+            }
+            else {
+                return sender;
+            }
+        }
+    }
+    
+    /**
+     * Passed to the received event handler with a method invocation received with a correlation id, or received with a reply sender, and sends the return value of the method invocation with the correlation id using the reply sender.  Other methods are performed on the MethodInvocationRemoteReceiver.
+     */
+    private class ReturnValueSender implements IMethodInvocationRemoteReceiver {
+        
+        private long correlationId;
+        private IRemoteSender returnValueSender;
+        
+        /**
+         * Initialises a new instance of the ReturnValueSender class.
+         * @param correlationId      The correlation id of the method invocation, or 0 if the method invocation was received without a correlation id.
+         * @param returnValueSender  The sender to send the return value with.
+         */
+        public ReturnValueSender(long correlationId, IRemoteSender returnValueSender) {
+            this.correlationId = correlationId;
+            this.returnValueSender = returnValueSender;
+        }
+        
+        @Override
+        public void setReceivedEventHandler(IMethodInvocationReceivedEventHandler receivedEventHandler) {
+            MethodInvocationRemoteReceiver.this.setReceivedEventHandler(receivedEventHandler);
+        }
+        
+        @Override
+        public void Receive() throws Exception {
+            MethodInvocationRemoteReceiver.this.Receive();
+        }
+        
+        @Override
+        public void SendReturnValue(Object returnValue) throws Exception {
+            MethodInvocationRemoteReceiver.this.SendReturnValue(returnValue, correlationId, returnValueSender);
+        }
+        
+        @Override
+        public void SendVoidReturn() throws Exception {
+            MethodInvocationRemoteReceiver.this.SendVoidReturn(correlationId, returnValueSender);
+        }
+        
+        @Override
+        public void CancelReceive() throws Exception {
+            MethodInvocationRemoteReceiver.this.CancelReceive();
+        }
+    }
 }
@@ -16,21 +16,60 @@
 
 package net.alastairwyse.methodinvocationremoting;
 
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
 import net.alastairwyse.applicationlogging.*;
 import net.alastairwyse.applicationmetrics.*;
 import net.alastairwyse.methodinvocationremotingmetrics.*;
 
 /**
  * Sends method invocations (represented by IMethodInvocation objects) to remote locations.
+ * <p>
+ * Method invocations with Attachment parameters, and Attachment return values, are sent and received as a single message containing the serialized document and the attachments.  This requires the serializer to implement IAttachmentMethodInvocationSerializer and the sender and receiver to implement IByteRemoteSender and IByteRemoteReceiver.  Method invocations without attachments are sent as before.
+ * </p>
+ * <p>
+ * If a ParameterDeltaCache is set, each method invocation is sent as the parameters which have changed since the previous invocation of the same method.  The MethodInvocationRemoteReceiver must have a ParameterDeltaCache set to receive method invocations sent this way.
+ * </p>
+ * <p>
+ * By default the message received after sending a method invocation is taken to be its return value, so methods can only be invoked by one thread at a time.  If correlation ids are enabled, each method invocation is sent with a correlation id, and return values are matched to method invocations by the correlation id returned with them, so multiple threads can invoke methods concurrently using the same sender and receiver.
+ * </p>
+ * <p>
+ * If correlation ids are enabled, methods can also be invoked asynchronously using the InvokeMethodAsync() and InvokeVoidMethodAsync() methods.  These queue the method invocation to be serialized and sent by a separate thread, and return without waiting for the method invocation to be sent or for the return value, so a single thread can have many method invocations awaiting their return value.  Method invocations are sent in the order they were queued.
+ * </p>
  * @author Alastair Wyse
  */
-public class MethodInvocationRemoteSender implements IMethodInvocationRemoteSender {
+public class MethodInvocationRemoteSender implements IAsyncMethodInvocationRemoteSender {
 
     private IMethodInvocationSerializer serializer;
     private IRemoteSender sender;
     private IRemoteReceiver receiver;
     private IApplicationLogger logger;
     private IMetricLogger metricLogger;
+    private AttachmentMessageCodec attachmentMessageCodec;
+    private ParameterDeltaCache deltaCache;
+    private CorrelatedMessageCodec correlatedMessageCodec;
+    /** Indicates whether method invocations are sent with a correlation id. */
+    private boolean correlationIdsEnabled;
+    /** Lock object which serializes sending method invocations, as the serializer and sender may not support concurrent sends. */
+    private final Object sendLock = new Object();
+    /** Lock object which serializes allocating correlation ids, so that method invocations can be queued to be sent asynchronously without waiting for a send operation in progress. */
+    private final Object correlationIdLock = new Object();
+    /** The correlation id to send with the next method invocation. */
+    private long nextCorrelationId;
+    /** The return values which have not yet been received, keyed by the correlation id of the method invocation they will be returned for. */
+    private ConcurrentHashMap<Long, CompletableFuture<Object>> pendingReturnValues;
+    /** Receives return values sent with a correlation id, or null if the thread is not running. */
+    private Thread returnValueReceiveThread;
+    private volatile boolean cancelRequest;
+    /** The maximum time to wait for the return value of a method invocation sent with a correlation id in milliseconds, or 0 to wait indefinitely. */
+    private int returnValueTimeout;
+    /** Fails method invocations which have not received their return value within the timeout, or null if no timeout has been set. */
+    private ScheduledThreadPoolExecutor returnValueTimeoutScheduler;
+    /** Serializes and sends method invocations invoked asynchronously, in the order they were invoked. */
+    private ThreadPoolExecutor asyncSendExecutor;
     
     /**
      * Initialises a new instance of the MethodInvocationRemoteSender class.
@@ -42,8 +81,28 @@ public class MethodInvocationRemoteSender implements IMethodInvocationRemoteSend
         this.serializer = serializer;
         this.sender = sender;
         this.receiver = receiver;
+        attachmentMessageCodec = new AttachmentMessageCodec();
         logger = new ConsoleApplicationLogger(LogLevel.Information, '|', "  ");
         metricLogger = new NullMetricLogger();
+        correlatedMessageCodec = new CorrelatedMessageCodec();
+        correlationIdsEnabled = false;
+        nextCorrelationId = 1;
+        pendingReturnValues = new ConcurrentHashMap<Long, CompletableFuture<Object>>();
+        returnValueReceiveThread = null;
+        cancelRequest = false;
+        returnValueTimeout = 0;
+        returnValueTimeoutScheduler = null;
+        asyncSendExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread sendThread = new Thread(runnable);
+                sendThread.setName("MethodInvocationRemoteSender.AsyncSendLoop");
+                sendThread.setDaemon(true);
+                return sendThread;
+            }
+        });
+        // Stop the thread when no method invocations have been invoked asynchronously for the keep alive time
+        asyncSendExecutor.allowCoreThreadTimeOut(true);
     }
     
     /**
@@ -84,6 +143,76 @@ public class MethodInvocationRemoteSender implements IMethodInvocationRemoteSend
         this.metricLogger = metricLogger;
     }
     
+    /**
+     * Sets the cache used to send method invocations as the parameters which have changed since the previous invocation of the same method.
+     * <p>
+     * The cache should also be added as a connection established event handler of the sender (if the sender is a TcpRemoteSender) using addConnectionEstablishedEventHandler(), so that method invocations are sent in full after reconnecting.  The cache cannot be used if the sender is a TcpRemoteSenderPool.
+     * </p>
+     * @param deltaCache  The cache, or null if method invocations should always be sent in full.
+     */
+    public void setDeltaCache(ParameterDeltaCache deltaCache) {
+        this.deltaCache = deltaCache;
+    }
+    
+    /**
+     * Sets whether method invocations are sent with a correlation id, which allows multiple threads to invoke methods concurrently using the same sender and receiver.
+     * <p>
+     * Return values are received by a separate thread, which is started when the first method invocation is sent, and stopped by the CancelReceive() method.  The thread passes each return value to the method invocation with the matching correlation id, so the MethodInvocationRemoteReceiver can send return values in a different order to the method invocations.  The ParameterDeltaCache is not used for method invocations sent with a correlation id.
+     * </p>
+     * @param correlationIdsEnabled  Whether method invocations are sent with a correlation id.  Defaults to false.
+     */
+    public void setCorrelationIdsEnabled(boolean correlationIdsEnabled) {
+        this.correlationIdsEnabled = correlationIdsEnabled;
+    }
+    
+    /**
+     * Sets the maximum time to wait for the return value of a method invocation sent with a correlation id.  If the return value is not received within this time, the method invocation fails with a TimeoutException, and a return value received later is discarded.
+     * @param returnValueTimeout  The maximum time to wait in milliseconds, or 0 to wait indefinitely.  Defaults to 0.
+     */
+    public synchronized void setReturnValueTimeout(int returnValueTimeout) {
+        if (returnValueTimeout < 0) {
+            throw new IllegalArgumentException("Argument 'returnValueTimeout' must be greater than or equal to 0.");
+        }
+        if ((returnValueTimeout > 0) && (returnValueTimeoutScheduler == null)) {
+            returnValueTimeoutScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread timeoutThread = new Thread(runnable);
+                    timeoutThread.setName("MethodInvocationRemoteSender.ReturnValueTimeout");
+                    timeoutThread.setDaemon(true);
+                    return timeoutThread;
+                }
+            });
+            // Remove the timeout of each method invocation from the scheduler when the return value is received, rather than when the timeout would have expired
+            returnValueTimeoutScheduler.setRemoveOnCancelPolicy(true);
+        }
+        this.returnValueTimeout = returnValueTimeout;
+    }
+    
+    /**
+     * Stops the thread which receives return values sent with a correlation id.  Any method invocations which have not received their return value fail.
+     * @throws Exception  if an error occurs when attempting to cancel the receive operation.
+     */
+    public void CancelReceive() throws Exception {
+        Thread receiveThread;
+        synchronized (sendLock) {
+            receiveThread = returnValueReceiveThread;
+        }
+        if (receiveThread != null) {
+            cancelRequest = true;
+            receiver.CancelReceive();
+            receiveThread.join();
+        }
+        
+        /* //[BEGIN_LOGGING]
+        try {
+            logger.Log(this, LogLevel.Information, "Receive operation cancelled.");
+        }
+        catch(Exception e) {
+        }
+        //[END_LOGGING] */
+    }
+    
     @Override
     public Object InvokeMethod(IMethodInvocation inputMethodInvocation) throws Exception {
         /* //[BEGIN_METRICS]
@@ -98,13 +227,7 @@ public class MethodInvocationRemoteSender implements IMethodInvocationRemoteSend
                 throw new IllegalArgumentException("Method invocation cannot have a void return type.");
             }
     
-            String serializedReturnValue = SerializeAndSend(inputMethodInvocation);
-            try {
-                returnValue = serializer.DeserializeReturnValue(serializedReturnValue);
-            }
-            catch (Exception e) {
-                throw new DeserializationException("Failed to deserialize return value.", e);
-            }
+            returnValue = DeserializeReturnValue(SerializeAndSend(inputMethodInvocation));
         }
         catch (Exception e) {
             /* //[BEGIN_METRICS]
@@ -140,10 +263,7 @@ public class MethodInvocationRemoteSender implements IMethodInvocationRemoteSend
                 throw new IllegalArgumentException("Method invocation must have a void return type.");
             }
     
-            String serializedReturnValue = SerializeAndSend(inputMethodInvocation);
-            if (serializedReturnValue.equals(serializer.getVoidReturnValue()) == false) {
-                throw new Exception("Invocation of void method returned non-void.");
-            }
+            CheckVoidReturnValue(SerializeAndSend(inputMethodInvocation));
         }
         catch (Exception e) {
             /* //[BEGIN_METRICS]
@@ -165,21 +285,511 @@ public class MethodInvocationRemoteSender implements IMethodInvocationRemoteSend
         //[END_LOGGING] */
     }
     
+    @Override
+    public CompletableFuture<Object> InvokeMethodAsync(IMethodInvocation inputMethodInvocation) throws Exception {
+        if (inputMethodInvocation.getReturnType() == null) {
+            throw new IllegalArgumentException("Method invocation cannot have a void return type.");
+        }
+        CheckCorrelationIdsEnabled();
+        
+        final CompletableFuture<Object> returnValue = new CompletableFuture<Object>();
+        final CompletableFuture<Object> serializedReturnValue = SendCorrelatedAsync(inputMethodInvocation);
+        serializedReturnValue.whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object result, Throwable exception) {
+                if (exception != null) {
+                    returnValue.completeExceptionally(new Exception("Failed to invoke method.", exception));
+                }
+                else {
+                    try {
+                        returnValue.complete(DeserializeReturnValue(result));
+                    }
+                    catch (Exception e) {
+                        returnValue.completeExceptionally(e);
+                    }
+                }
+            }
+        });
+        CancelOnCancellation(returnValue, serializedReturnValue);
+        
+        return returnValue;
+    }
+    
+    @Override
+    public CompletableFuture<Void> InvokeVoidMethodAsync(IMethodInvocation inputMethodInvocation) throws Exception {
+        if (inputMethodInvocation.getReturnType() != null) {
+            throw new IllegalArgumentException("Method invocation must have a void return type.");
+        }
+        CheckCorrelationIdsEnabled();
+        
+        final CompletableFuture<Void> returnValue = new CompletableFuture<Void>();
+        final CompletableFuture<Object> serializedReturnValue = SendCorrelatedAsync(inputMethodInvocation);
+        serializedReturnValue.whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object result, Throwable exception) {
+                if (exception != null) {
+                    returnValue.completeExceptionally(new Exception("Failed to invoke method.", exception));
+                }
+                else {
+                    try {
+                        CheckVoidReturnValue(result);
+                        returnValue.complete(null);
+                    }
+                    catch (Exception e) {
+                        returnValue.completeExceptionally(e);
+                    }
+                }
+            }
+        });
+        CancelOnCancellation(returnValue, serializedReturnValue);
+        
+        return returnValue;
+    }
+    
     /**
-     * Provides common method invocation serialization and sending functionality to public methods.
+     * Checks that correlation ids are enabled, as required to invoke methods asynchronously.
+     * @throws Exception  if correlation ids are not enabled.
+     */
+    private void CheckCorrelationIdsEnabled() throws Exception {
+        if (correlationIdsEnabled == false) {
+            throw new Exception("Methods can only be invoked asynchronously when correlation ids are enabled.");
+        }
+    }
+    
+    /**
+     * Queues a method invocation to be serialized and sent with a correlation id by the asynchronous send thread, returning any error sending the method invocation as an exceptionally completed result rather than throwing it.
      * @param inputMethodInvocation  The method invocation to serialize and send.
      * @return                       The serialized return value of the method invocation.
+     */
+    private CompletableFuture<Object> SendCorrelatedAsync(final IMethodInvocation inputMethodInvocation) {
+        final CompletableFuture<Object> pendingReturnValue = new CompletableFuture<Object>();
+        final long correlationId = RegisterPendingReturnValue(pendingReturnValue);
+        try {
+            asyncSendExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        SendCorrelated(inputMethodInvocation, correlationId, pendingReturnValue);
+                    }
+                    catch (Exception e) {
+                        // The pending return value has already been completed with the exception
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            pendingReturnValue.completeExceptionally(e);
+        }
+        
+        return pendingReturnValue;
+    }
+    
+    /**
+     * Cancels waiting for the serialized return value of a method invocation if the returned result of the method invocation is cancelled, so that the return value is discarded when received.
+     * @param returnValue            The result of the method invocation returned to the client.
+     * @param serializedReturnValue  The serialized return value.
+     */
+    private void CancelOnCancellation(final CompletableFuture<?> returnValue, final CompletableFuture<Object> serializedReturnValue) {
+        returnValue.whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object result, Throwable exception) {
+                if (returnValue.isCancelled() == true) {
+                    serializedReturnValue.cancel(false);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Deserializes the return value of a method invocation.
+     * @param serializedReturnValue       The serialized return value, either as a String, or as a ByteBuffer if the return value was received in a message containing attachments.
+     * @return                            The return value.
+     * @throws DeserializationException  if an error occurs deserializing the return value.
+     */
+    private Object DeserializeReturnValue(Object serializedReturnValue) throws DeserializationException {
+        try {
+            if (serializedReturnValue instanceof ByteBuffer) {
+                ArrayList<Attachment> attachments = new ArrayList<Attachment>();
+                ByteBuffer document = attachmentMessageCodec.Decode((ByteBuffer)serializedReturnValue, attachments);
+                return ((IAttachmentMethodInvocationSerializer)serializer).DeserializeReturnValue(document, attachments);
+            }
+            else {
+                return serializer.DeserializeReturnValue((String)serializedReturnValue);
+            }
+        }
+        catch (Exception e) {
+            throw new DeserializationException("Failed to deserialize return value.", e);
+        }
+    }
+    
+    /**
+     * Checks that the serialized return value of a void method invocation is the void return value.
+     * @param serializedReturnValue  The serialized return value.
+     * @throws Exception             if the return value is not the void return value.
+     */
+    private void CheckVoidReturnValue(Object serializedReturnValue) throws Exception {
+        if (serializedReturnValue.equals(serializer.getVoidReturnValue()) == false) {
+            throw new Exception("Invocation of void method returned non-void.");
+        }
+    }
+    
+    /**
+     * Provides common method invocation serialization and sending functionality to public methods.
+     * @param inputMethodInvocation  The method invocation to serialize and send.
+     * @return                       The serialized return value of the method invocation, either as a String, or as a ByteBuffer if the return value was received in a message containing attachments.
      * @throws Exception
      */
-    private String SerializeAndSend(IMethodInvocation inputMethodInvocation) throws Exception
+    private Object SerializeAndSend(IMethodInvocation inputMethodInvocation) throws Exception
     {
         try {
+            if (correlationIdsEnabled == true) {
+                return SendCorrelatedAndWait(inputMethodInvocation);
+            }
+            else if ((deltaCache != null) && (deltaCache.CanEncode(inputMethodInvocation) == true)) {
+                return SendChanges(inputMethodInvocation);
+            }
+            else {
+                Send(inputMethodInvocation, 0);
+                return Receive();
+            }
+        }
+        catch (Exception e) {
+            throw new Exception("Failed to invoke method.", e);
+        }
+    }
+    
+    /**
+     * Serializes and sends a method invocation with a correlation id, and waits for the return value.
+     * @param inputMethodInvocation  The method invocation to serialize and send.
+     * @return                       The serialized return value of the method invocation, either as a String, or as a ByteBuffer if the return value was received in a message containing attachments.
+     * @throws Exception
+     */
+    private Object SendCorrelatedAndWait(IMethodInvocation inputMethodInvocation) throws Exception {
+        CompletableFuture<Object> pendingReturnValue = new CompletableFuture<Object>();
+        long correlationId = RegisterPendingReturnValue(pendingReturnValue);
+        SendCorrelated(inputMethodInvocation, correlationId, pendingReturnValue);
+        return WaitForReturnValue(pendingReturnValue);
+    }
+    
+    /**
+     * Allocates a correlation id, and registers a return value to be completed when the return value with the same correlation id is received.
+     * @param pendingReturnValue  The serialized return value of the method invocation.
+     * @return                    The correlation id to send the method invocation with.
+     */
+    private long RegisterPendingReturnValue(final CompletableFuture<Object> pendingReturnValue) {
+        final long correlationId;
+        synchronized (correlationIdLock) {
+            correlationId = nextCorrelationId;
+            if (nextCorrelationId == Long.MAX_VALUE) {
+                nextCorrelationId = 1;
+            }
+            else {
+                nextCorrelationId = nextCorrelationId + 1;
+            }
+        }
+        
+        // The return value is registered before sending, as it may be received before the send operation returns
+        pendingReturnValues.put(correlationId, pendingReturnValue);
+        // If the return value is cancelled or times out, stop waiting for it, so that it is discarded when received (or is not sent if still queued)
+        final ScheduledFuture<?> timeout = ScheduleReturnValueTimeout(pendingReturnValue);
+        pendingReturnValue.whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object result, Throwable exception) {
+                pendingReturnValues.remove(correlationId, pendingReturnValue);
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+            }
+        });
+        
+        return correlationId;
+    }
+    
+    /**
+     * Serializes and sends a method invocation with a correlation id, starting the thread which receives return values if it is not running.  The method invocation is not sent if its return value has already been completed (e.g. it was cancelled or timed out while queued to be sent).
+     * @param inputMethodInvocation  The method invocation to serialize and send.
+     * @param correlationId          The correlation id to send the method invocation with.
+     * @param pendingReturnValue     The registered serialized return value of the method invocation, which is completed exceptionally if the method invocation could not be sent.
+     * @throws Exception             if an error occurs when sending the method invocation.
+     */
+    private void SendCorrelated(IMethodInvocation inputMethodInvocation, long correlationId, CompletableFuture<Object> pendingReturnValue) throws Exception {
+        synchronized (sendLock) {
+            if (pendingReturnValue.isDone() == true) {
+                return;
+            }
+            try {
+                if (returnValueReceiveThread == null) {
+                    StartReturnValueReceiveThread();
+                }
+                Send(inputMethodInvocation, correlationId);
+            }
+            catch (Exception e) {
+                pendingReturnValue.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * Schedules the specified return value to fail if it is not received within the return value timeout.
+     * @param pendingReturnValue  The return value.
+     * @return                    The scheduled timeout, or null if no return value timeout is set.
+     */
+    private synchronized ScheduledFuture<?> ScheduleReturnValueTimeout(final CompletableFuture<Object> pendingReturnValue) {
+        if (returnValueTimeout == 0) {
+            return null;
+        }
+        
+        final int timeoutPeriod = returnValueTimeout;
+        return returnValueTimeoutScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                pendingReturnValue.completeExceptionally(new TimeoutException("Failed to receive return value within timeout period of " + timeoutPeriod + " milliseconds."));
+            }
+        }, timeoutPeriod, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Waits for a serialized return value sent with a correlation id to be received.
+     * @param pendingReturnValue  The serialized return value.
+     * @return                    The serialized return value, either as a String, or as a ByteBuffer if the return value was received in a message containing attachments.
+     * @throws Exception          if the return value could not be received.
+     */
+    private Object WaitForReturnValue(CompletableFuture<Object> pendingReturnValue) throws Exception {
+        try {
+            return pendingReturnValue.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception)e.getCause();
+            }
+            else {
+                throw new Exception("Failed to receive return value.", e.getCause());
+            }
+        }
+    }
+    
+    /**
+     * Starts the thread which receives return values sent with a correlation id.
+     */
+    private void StartReturnValueReceiveThread() {
+        cancelRequest = false;
+        returnValueReceiveThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ReceiveCorrelatedReturnValues();
+            }
+        });
+        returnValueReceiveThread.setName("MethodInvocationRemoteSender.ReturnValueReceiveLoop");
+        returnValueReceiveThread.setDaemon(true);
+        returnValueReceiveThread.start();
+    }
+    
+    /**
+     * Receives return values sent with a correlation id, and completes the pending return value with the matching correlation id, until the receive operation is cancelled or fails.
+     */
+    private void ReceiveCorrelatedReturnValues() {
+        Exception receiveException = null;
+        
+        while (cancelRequest == false) {
+            Object message;
+            try {
+                message = ReceiveMessage();
+            }
+            catch (Exception e) {
+                receiveException = e;
+                break;
+            }
+            
+            try {
+                long correlationId;
+                Object serializedReturnValue;
+                if (message instanceof ByteBuffer) {
+                    ByteBuffer messageBytes = (ByteBuffer)message;
+                    if (messageBytes.hasRemaining() == false) {
+                        // The receive operation was cancelled
+                        continue;
+                    }
+                    correlationId = correlatedMessageCodec.DecodeCorrelationId(messageBytes);
+                    serializedReturnValue = DecodeReturnValue(messageBytes);
+                }
+                else {
+                    String messageString = (String)message;
+                    if (messageString.length() == 0) {
+                        continue;
+                    }
+                    correlationId = correlatedMessageCodec.DecodeCorrelationId(messageString);
+                    serializedReturnValue = correlatedMessageCodec.DecodeBody(messageString);
+                }
+                
+                CompletableFuture<Object> pendingReturnValue = pendingReturnValues.remove(correlationId);
+                if (pendingReturnValue != null) {
+                    pendingReturnValue.complete(serializedReturnValue);
+                }
+                /* //[BEGIN_LOGGING]
+                else {
+                    logger.Log(this, LogLevel.Warning, "Received return value with correlation id " + correlationId + " which does not match any method invocation awaiting a return value (the method invocation may have timed out or been cancelled).");
+                }
+                //[END_LOGGING] */
+            }
+            catch (Exception e) {
+                try {
+                    logger.Log(this, LogLevel.Error, e.getClass().getSimpleName() + " occurred whilst decoding received return value.", e);
+                }
+                catch (Exception loggingException) {
+                }
+            }
+        }
+        
+        // Fail the method invocations which have not received their return value, and allow the next method invocation to start a new thread
+        synchronized (sendLock) {
+            returnValueReceiveThread = null;
+            Exception pendingReturnValueException;
+            if (receiveException != null) {
+                pendingReturnValueException = new Exception("Failed to receive return value.", receiveException);
+            }
+            else {
+                pendingReturnValueException = new Exception("Receive operation was cancelled before the return value was received.");
+            }
+            for (CompletableFuture<Object> currentReturnValue : pendingReturnValues.values()) {
+                currentReturnValue.completeExceptionally(pendingReturnValueException);
+            }
+            pendingReturnValues.clear();
+        }
+    }
+    
+    /**
+     * Sends the changes to the parameters of a method invocation since the previous invocation of the same method, and sends the method invocation in full if the receiver does not hold the previous invocation.
+     * @param inputMethodInvocation  The method invocation to send.
+     * @return                       The serialized return value of the method invocation.
+     * @throws Exception
+     */
+    private Object SendChanges(IMethodInvocation inputMethodInvocation) throws Exception {
+        try {
+            Send(deltaCache.Encode(inputMethodInvocation, false), 0);
+            Object serializedReturnValue = Receive();
+            if (deltaCache.getBaseVersionMismatchResponse().equals(serializedReturnValue) == true) {
+                /* //[BEGIN_LOGGING]
+                logger.Log(this, LogLevel.Warning, "Receiver did not hold previous invocation of method '" + inputMethodInvocation.getName() + "', resending in full.");
+                //[END_LOGGING] */
+                Send(deltaCache.Encode(inputMethodInvocation, true), 0);
+                serializedReturnValue = Receive();
+            }
+            deltaCache.Commit(inputMethodInvocation.getName());
+            
+            return serializedReturnValue;
+        }
+        catch (Exception e) {
+            deltaCache.Discard(inputMethodInvocation.getName());
+            throw e;
+        }
+    }
+    
+    /**
+     * Serializes and sends a method invocation, and confirms or rolls back the tokens first written in the method invocation if the serializer uses a session token dictionary.
+     * @param inputMethodInvocation  The method invocation to serialize and send.
+     * @param correlationId          The correlation id to send with the method invocation, or 0 to send the method invocation without a correlation id.
+     * @throws Exception
+     */
+    private void Send(IMethodInvocation inputMethodInvocation, long correlationId) throws Exception {
+        SessionTokenDictionary tokenDictionary = GetTokenDictionary();
+        if ((sender instanceof TcpRemoteSenderPool) && ((deltaCache != null) || (tokenDictionary != null))) {
+            throw new Exception("A ParameterDeltaCache or SessionTokenDictionary cannot be used with a TcpRemoteSenderPool, as consecutive messages may be sent on different connections.");
+        }
+        try {
+            SerializeAndSendMessage(inputMethodInvocation, correlationId);
+        }
+        catch (Exception e) {
+            // The names first written in the method invocation must be written in full again, as the remote dictionary may not have read them
+            if (tokenDictionary != null) {
+                tokenDictionary.RollBackWritten();
+            }
+            throw e;
+        }
+        if (tokenDictionary != null) {
+            tokenDictionary.ConfirmWritten();
+        }
+    }
+    
+    /**
+     * Serializes a method invocation and sends it as a single message.
+     * @param inputMethodInvocation  The method invocation to serialize and send.
+     * @param correlationId          The correlation id to send with the method invocation, or 0 if the method invocation is sent without a correlation id.
+     * @throws Exception
+     */
+    private void SerializeAndSendMessage(IMethodInvocation inputMethodInvocation, long correlationId) throws Exception {
+        if (attachmentMessageCodec.ContainsAttachments(inputMethodInvocation.getParameters()) == true) {
+            if ((serializer instanceof IAttachmentMethodInvocationSerializer == false) || (sender instanceof IByteRemoteSender == false)) {
+                throw new Exception("Method invocations with attachment parameters can only be sent using a serializer which implements IAttachmentMethodInvocationSerializer and a sender which implements IByteRemoteSender.");
+            }
+            ByteBuffer message = attachmentMessageCodec.EncodeMethodInvocation((IAttachmentMethodInvocationSerializer)serializer, inputMethodInvocation);
+            if (correlationId != 0) {
+                message = correlatedMessageCodec.Encode(correlationId, message);
+            }
+            ((IByteRemoteSender)sender).Send(message);
+        }
+        else {
             String serializedMethodInvocation = serializer.Serialize(inputMethodInvocation);
+            if (correlationId != 0) {
+                serializedMethodInvocation = correlatedMessageCodec.Encode(correlationId, serializedMethodInvocation);
+            }
             sender.Send(serializedMethodInvocation);
+        }
+    }
+    
+    /**
+     * @return  The session token dictionary used by the serializer, or null if the serializer does not use one.
+     */
+    private SessionTokenDictionary GetTokenDictionary() {
+        if (serializer instanceof BinaryMethodInvocationSerializer) {
+            return ((BinaryMethodInvocationSerializer)serializer).getTokenDictionary();
+        }
+        else {
+            return null;
+        }
+    }
+    
+    /**
+     * Receives a serialized return value.
+     * @return            The serialized return value, either as a String, or as a ByteBuffer if the return value was received in a message containing attachments.
+     * @throws Exception
+     */
+    private Object Receive() throws Exception {
+        Object message = ReceiveMessage();
+        if (message instanceof ByteBuffer) {
+            return DecodeReturnValue((ByteBuffer)message);
+        }
+        else {
+            return message;
+        }
+    }
+    
+    /**
+     * Receives a message.
+     * @return            The message, either as a ByteBuffer if the receiver can receive messages as bytes, or otherwise as a String.
+     * @throws Exception
+     */
+    private Object ReceiveMessage() throws Exception {
+        // Receive as bytes if possible, as the return value may be an attachment
+        if ((serializer instanceof IAttachmentMethodInvocationSerializer) && (receiver instanceof IByteRemoteReceiver)) {
+            return ((IByteRemoteReceiver)receiver).ReceiveBytes();
+        }
+        else {
             return receiver.Receive();
         }
-        catch (Exception e) {
-            throw new Exception("Failed to invoke method.", e);
+    }
+    
+    /**
+     * Converts a serialized return value received as bytes to the form expected by the serializer.
+     * @param message  Buffer containing the serialized return value between its position and limit.
+     * @return         The serialized return value, either as a String, or as a ByteBuffer if the return value was received in a message containing attachments.
+     */
+    private Object DecodeReturnValue(ByteBuffer message) {
+        if (attachmentMessageCodec.IsAttachmentMessage(message) == true) {
+            return message;
+        }
+        else {
+            return StandardCharsets.UTF_8.decode(message).toString();
         }
     }
 
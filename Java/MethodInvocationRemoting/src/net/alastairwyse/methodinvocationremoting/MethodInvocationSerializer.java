@@ -17,9 +17,12 @@
 package net.alastairwyse.methodinvocationremoting;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
 import java.util.*;
 import java.text.*;
 import java.math.*;
+import java.lang.invoke.*;
 import java.lang.reflect.*;
 import javax.xml.stream.*;
 import net.alastairwyse.applicationlogging.*;
@@ -30,7 +33,7 @@ import net.alastairwyse.methodinvocationremotingmetrics.*;
  * Implements serialization and deserialization of IMethodInvocation objects.
  * @author Alastair Wyse
  */
-public class MethodInvocationSerializer implements IMethodInvocationSerializer {
+public class MethodInvocationSerializer implements IAttachmentMethodInvocationSerializer {
 
     // Constants used in XML document
     /** The name of the root element in the XML document written and read by the class. */
@@ -53,6 +56,8 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
     protected String arrayElementElementName = "Element";
     /** The name of the element storing the data type of an array element in the XML document written and read by the class. */
     protected String arrayElementDataTypeElementName = "ElementDataType";
+    /** The name of the element storing the packed elements of an array in the XML document written and read by the class. */
+    protected String packedElementsElementName = "PackedElements";
     private final String voidReturnValueName = "void";
     private final String emptyIndicatorElementName = "Empty";
     private final String xmlVersion = "1.0";
@@ -64,13 +69,31 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
     protected Integer doubleFloatingPointDigits = 16;
     /** The java.util.Locale to use when serializing and deserializing. */
     protected Locale defaultLocale = Locale.US;
+    /** Whether arrays of boxed numeric types (e.g. java.lang.Double[]) which contain no null elements should be serialized in packed form, rather than as individual elements.  Arrays of primitive types are always serialized in packed form. */
+    protected boolean packBoxedNumericArrays = false;
+    /** Whether to write and read XML documents using the lightweight XML writer and pull parser built into the class, rather than the javax.xml.stream implementation.  The documents written are identical in either case, but the lightweight implementation does not support namespaces or DTDs. */
+    protected boolean useLightweightXml = false;
+    /** Whether the Deserialize() methods return a LazyMethodInvocation, which deserializes only the method name and return type, and deserializes the parameters when they are first accessed. */
+    protected boolean deserializeParametersLazily = false;
+    /** The minimum number of elements in a packed array for the elements to be converted to and from their packed bytes in parallel chunks on the common ForkJoinPool, or 0 to convert all arrays on the calling thread.  The serialized document is identical in either case. */
+    protected int parallelArrayThreshold = 0;
 
     /** The ArraySerializer object to use for serializing and deserializing array objects. */
     protected ArraySerializer genericArraySerializer;
+    private PackedArrayCodec packedArrayCodec;
+    /** Predict the length of the documents serialized for each method name and return value class, so that the output buffer can be sized before the document is written. */
+    private PayloadSizeEstimator methodInvocationSizeEstimator;
+    private PayloadSizeEstimator returnValueSizeEstimator;
+    /** Formats and parses numeric and date/time values, writing the formatted characters directly to the XML writer. */
+    private TextValueCodec textValueCodec;
     private ISerializerOperationMap operationMap;
     private IApplicationLogger logger;
     private LoggingUtilities loggingUtilities;
     private IMetricLogger metricLogger;
+    /** Provides the XML writer, reader, and output buffer which are reused by all serialize and deserialize operations on a thread. */
+    private SerializationContextProvider serializationContextProvider;
+    /** The serialized representation of a void return value, which is constant so is only serialized once. */
+    private volatile String voidReturnValue;
     
     /**
      * Initialises a new instance of the MethodInvocationSerializer class.
@@ -79,6 +102,11 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
     public MethodInvocationSerializer(ISerializerOperationMap operationMap) {
         this.operationMap = operationMap;
         genericArraySerializer = new ArraySerializer();
+        packedArrayCodec = new PackedArrayCodec();
+        methodInvocationSizeEstimator = new PayloadSizeEstimator();
+        returnValueSizeEstimator = new PayloadSizeEstimator();
+        textValueCodec = new TextValueCodec();
+        serializationContextProvider = new SerializationContextProvider();
         logger = new ConsoleApplicationLogger(LogLevel.Information, '|', "  ");
         loggingUtilities = new LoggingUtilities(logger);
         metricLogger = new NullMetricLogger();
@@ -105,6 +133,15 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
         operationMap.AddMapping(Boolean[].class, "boolArray", genericArraySerializer);
         operationMap.AddMapping(BigDecimal[].class, "decimalArray", genericArraySerializer);
         operationMap.AddMapping(GregorianCalendar[].class, "dateTimeArray", genericArraySerializer);
+        operationMap.AddMapping(int[].class, "primitiveIntegerArray", new PrimitiveArraySerializer(int.class));
+        operationMap.AddMapping(long[].class, "primitiveLongIntegerArray", new PrimitiveArraySerializer(long.class));
+        operationMap.AddMapping(double[].class, "primitiveDoubleArray", new PrimitiveArraySerializer(double.class));
+        operationMap.AddMapping(float[].class, "primitiveFloatArray", new PrimitiveArraySerializer(float.class));
+        operationMap.AddMapping(short[].class, "primitiveShortIntegerArray", new PrimitiveArraySerializer(short.class));
+        operationMap.AddMapping(byte[].class, "primitiveSignedByteArray", new PrimitiveArraySerializer(byte.class));
+        operationMap.AddMapping(char[].class, "primitiveCharArray", new PrimitiveArraySerializer(char.class));
+        operationMap.AddMapping(boolean[].class, "primitiveBoolArray", new PrimitiveArraySerializer(boolean.class));
+        operationMap.AddMapping(Attachment.class, "attachment", new AttachmentSerializer());
     }
     
     /**
@@ -143,26 +180,30 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
     
     @Override
     public String getVoidReturnValue() throws SerializationException {
-        String returnString;
-
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            XMLOutputFactory xmlFactory = XMLOutputFactory.newInstance();
-            XMLStreamWriter writer = xmlFactory.createXMLStreamWriter(outputStream, xmlEncoding);
+        // The void return value does not change, so is serialized on the first call and then reused
+        //   Serialization cannot happen in the constructor, as subclasses may override the element names after this class' constructor has completed
+        if (voidReturnValue == null) {
+            SerializationContext context = null;
             
-            // Write document start tag (e.g. <?xml version="1.0" encoding="utf-8"?>)
-            writer.writeStartDocument(xmlEncoding, xmlVersion);
-            WriteElementString(writer, returnTypeElementName, voidReturnValueName);
-            writer.writeEndDocument();
-            
-            outputStream.flush();
-            returnString = outputStream.toString();
-            writer.close();
-        }
-        catch (Exception e) {
-            throw new SerializationException("Failed to serialize void return value.", e);
+            try {
+                context = serializationContextProvider.Acquire();
+                XMLStreamWriter writer = context.BeginWrite(useLightweightXml);
+                
+                // Write document start tag (e.g. <?xml version="1.0" encoding="utf-8"?>)
+                writer.writeStartDocument(xmlEncoding, xmlVersion);
+                WriteElementString(writer, returnTypeElementName, voidReturnValueName);
+                writer.writeEndDocument();
+                
+                voidReturnValue = context.EndWrite();
+                serializationContextProvider.Release(context);
+            }
+            catch (Exception e) {
+                serializationContextProvider.Discard(context);
+                throw new SerializationException("Failed to serialize void return value.", e);
+            }
         }
 
-        return returnString;
+        return voidReturnValue;
     }
 
     @Override
@@ -172,33 +213,14 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
         //[END_METRICS] */
         
         String returnString;
+        SerializationContext context = null;
 
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            XMLOutputFactory xmlFactory = XMLOutputFactory.newInstance();
-            XMLStreamWriter writer = xmlFactory.createXMLStreamWriter(outputStream, xmlEncoding);
-            
-            // Write document start tag (e.g. <?xml version="1.0" encoding="utf-8"?>)
-            writer.writeStartDocument(xmlEncoding, xmlVersion);
-            
-            // Write the root tag (e.g. <MethodInvocation>)
-            writer.writeStartElement(rootElementName);
-            
-            // Write the method name
-            SerializeMethodName(inputMethodInvocation.getName(), writer);
-            
-            // Write the parameters
-            SerializeParameters(inputMethodInvocation.getParameters(), writer);
-            
-            // Write the return type
-            SerializeReturnType(inputMethodInvocation.getReturnType(), writer);
-            
-            // Write the root end tag (e.g. </MethodInvocation>)
-            writer.writeEndElement();
-            writer.writeEndDocument();
-            
-            outputStream.flush();
-            returnString = outputStream.toString();
-            writer.close();
+        try {
+            context = serializationContextProvider.Acquire();
+            WriteMethodInvocation(inputMethodInvocation, context.BeginWrite(useLightweightXml, methodInvocationSizeEstimator.GetEstimate(inputMethodInvocation.getName())));
+            returnString = context.EndWrite();
+            methodInvocationSizeEstimator.Record(inputMethodInvocation.getName(), context.getWriteLength());
+            serializationContextProvider.Release(context);
             
             /* //[BEGIN_METRICS]
             metricLogger.End(new MethodInvocationSerializeTime());
@@ -210,6 +232,7 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
             //[END_LOGGING] */
         }
         catch (Exception e) {
+            serializationContextProvider.Discard(context);
             /* //[BEGIN_METRICS]
             metricLogger.CancelBegin(new MethodInvocationSerializeTime());
             //[END_METRICS] */
@@ -225,44 +248,30 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
         metricLogger.Begin(new MethodInvocationDeserializeTime());
         //[END_METRICS] */
         
-        String methodName;
-        ArrayList parameterArray;
-        Class<?> returnType = null;
         MethodInvocation returnMethodInvocation;
-        XMLInputFactory xmlFactory = XMLInputFactory.newInstance();
-        // Set coalescing property so that text/character elements are are returned in a contiguous block
-        xmlFactory.setProperty("javax.xml.stream.isCoalescing", true);
-        try (ByteArrayInputStream sourceStream = new ByteArrayInputStream(serializedMethodInvocation.getBytes())) {
-            XMLStreamReader reader = xmlFactory.createXMLStreamReader(sourceStream);
-            SimplifiedXMLStreamReader simpleReader = new SimplifiedXMLStreamReader(reader);
-            
-            // Consume the root tag (e.g. <MethodInvocation>)
-            simpleReader.ReadStartElement(rootElementName);
-            
-            // Read the method name
-            methodName = DeserializeMethodName(simpleReader);
-            
-            // Read the parameters
-            parameterArray = DeserializeParameters(simpleReader);
-            
-            // Read the return type
-            returnType = DeserializeReturnType(simpleReader);
-
-            // Consume the root end tag (e.g. </MethodInvocation>)
-            simpleReader.ReadEndElement();
-            
-            reader.close();
-            returnMethodInvocation = BuildMethodInvocation(methodName, parameterArray, returnType);
+        SerializationContext context = null;
+        
+        try {
+            context = serializationContextProvider.Acquire();
+            XMLStreamReader reader = context.CreateReader(serializedMethodInvocation, useLightweightXml);
+            if (deserializeParametersLazily == true) {
+                returnMethodInvocation = ReadLazyMethodInvocation(reader, new LazyParameterDecoder(serializedMethodInvocation));
+            }
+            else {
+                returnMethodInvocation = ReadMethodInvocation(reader);
+            }
+            serializationContextProvider.Release(context);
             
             /* //[BEGIN_METRICS]
             metricLogger.End(new MethodInvocationDeserializeTime());
             metricLogger.Increment(new MethodInvocationDeserialized());
             //[END_METRICS] */
             /* //[BEGIN_LOGGING]
-            logger.Log(this, LogLevel.Information, "Deserialized string to method invocation '" + methodName + "'.");
+            logger.Log(this, LogLevel.Information, "Deserialized string to method invocation '" + returnMethodInvocation.getName() + "'.");
             //[END_LOGGING] */
         }
         catch (Exception e) {
+            serializationContextProvider.Discard(context);
             /* //[BEGIN_METRICS]
             metricLogger.CancelBegin(new MethodInvocationDeserializeTime());
             //[END_METRICS] */
@@ -279,19 +288,14 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
         //[END_METRICS] */
         
         String returnString;
+        SerializationContext context = null;
 
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()){
-            XMLOutputFactory xmlFactory = XMLOutputFactory.newInstance();
-            XMLStreamWriter writer = xmlFactory.createXMLStreamWriter(outputStream, xmlEncoding);
-            
-            // Write document start tag (e.g. <?xml version="1.0" encoding="utf-8"?>)
-            writer.writeStartDocument(xmlEncoding, xmlVersion);
-            SerializeItem(inputReturnValue, returnValueElementName, writer);
-            writer.writeEndDocument();
-            
-            outputStream.flush();
-            returnString = outputStream.toString();
-            writer.close();
+        try {
+            context = serializationContextProvider.Acquire();
+            WriteReturnValue(inputReturnValue, context.BeginWrite(useLightweightXml, returnValueSizeEstimator.GetEstimate(GetSizeEstimateKey(inputReturnValue))));
+            returnString = context.EndWrite();
+            returnValueSizeEstimator.Record(GetSizeEstimateKey(inputReturnValue), context.getWriteLength());
+            serializationContextProvider.Release(context);
             
             /* //[BEGIN_METRICS]
             metricLogger.End(new ReturnValueSerializeTime());
@@ -303,6 +307,7 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
             //[END_LOGGING] */
         }
         catch (Exception e) {
+            serializationContextProvider.Discard(context);
             /* //[BEGIN_METRICS]
             metricLogger.CancelBegin(new ReturnValueSerializeTime());
             //[END_METRICS] */
@@ -319,19 +324,162 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
         //[END_METRICS] */
         
         Object returnValue = null;
+        SerializationContext context = null;
+        
+        try {
+            context = serializationContextProvider.Acquire();
+            returnValue = ReadReturnValue(context.CreateReader(serializedReturnValue, useLightweightXml));
+            serializationContextProvider.Release(context);
+            
+            /* //[BEGIN_METRICS]
+            metricLogger.End(new ReturnValueDeserializeTime());
+            metricLogger.Increment(new ReturnValueDeserialized());
+            //[END_METRICS] */
+            /* //[BEGIN_LOGGING]
+            loggingUtilities.LogDeserializedReturnValue(this, returnValue);
+            //[END_LOGGING] */
+        }
+        catch (Exception e) {
+            serializationContextProvider.Discard(context);
+            /* //[BEGIN_METRICS]
+            metricLogger.CancelBegin(new ReturnValueDeserializeTime());
+            //[END_METRICS] */
+            throw new DeserializationException("Failed to deserialize return value.", serializedReturnValue, e);
+        }
         
-        XMLInputFactory xmlFactory = XMLInputFactory.newInstance();
-        // Set coalescing property so that text/character elements are are returned in a contiguous block
-        xmlFactory.setProperty("javax.xml.stream.isCoalescing", true);
-        try (ByteArrayInputStream sourceStream = new ByteArrayInputStream(serializedReturnValue.getBytes())) {
-            XMLStreamReader reader = xmlFactory.createXMLStreamReader(sourceStream);
-            SimplifiedXMLStreamReader simpleReader = new SimplifiedXMLStreamReader(reader);
+        return returnValue;
+    }
+
+    @Override
+    public ByteBuffer Serialize(IMethodInvocation inputMethodInvocation, ByteBuffer outputBuffer) throws SerializationException {
+        return Serialize(inputMethodInvocation, outputBuffer, null, null);
+    }
+
+    @Override
+    public void Serialize(IMethodInvocation inputMethodInvocation, OutputStream outputStream) throws SerializationException {
+        Serialize(inputMethodInvocation, null, outputStream, null);
+    }
 
-            // Consume the root tag (e.g. <ReturnValue>)
-            simpleReader.ReadStartElement(returnValueElementName);
-            returnValue = DeserializeItem(simpleReader);
+    @Override
+    public MethodInvocation Deserialize(ByteBuffer serializedMethodInvocation) throws DeserializationException {
+        return Deserialize(serializedMethodInvocation, null, null);
+    }
+
+    @Override
+    public MethodInvocation Deserialize(InputStream serializedMethodInvocation) throws DeserializationException {
+        return Deserialize(null, serializedMethodInvocation, null);
+    }
+
+    @Override
+    public ByteBuffer SerializeReturnValue(Object inputReturnValue, ByteBuffer outputBuffer) throws SerializationException {
+        return SerializeReturnValue(inputReturnValue, outputBuffer, null, null);
+    }
+
+    @Override
+    public void SerializeReturnValue(Object inputReturnValue, OutputStream outputStream) throws SerializationException {
+        SerializeReturnValue(inputReturnValue, null, outputStream, null);
+    }
+
+    @Override
+    public Object DeserializeReturnValue(ByteBuffer serializedReturnValue) throws DeserializationException {
+        return DeserializeReturnValue(serializedReturnValue, null, null);
+    }
+
+    @Override
+    public Object DeserializeReturnValue(InputStream serializedReturnValue) throws DeserializationException {
+        return DeserializeReturnValue(null, serializedReturnValue, null);
+    }
+
+    @Override
+    public ByteBuffer Serialize(IMethodInvocation inputMethodInvocation, ByteBuffer outputBuffer, List<Attachment> attachments) throws SerializationException {
+        return Serialize(inputMethodInvocation, outputBuffer, null, attachments);
+    }
+
+    @Override
+    public MethodInvocation Deserialize(ByteBuffer serializedMethodInvocation, List<Attachment> attachments) throws DeserializationException {
+        return Deserialize(serializedMethodInvocation, null, attachments);
+    }
+
+    @Override
+    public ByteBuffer SerializeReturnValue(Object inputReturnValue, ByteBuffer outputBuffer, List<Attachment> attachments) throws SerializationException {
+        return SerializeReturnValue(inputReturnValue, outputBuffer, null, attachments);
+    }
+
+    @Override
+    public Object DeserializeReturnValue(ByteBuffer serializedReturnValue, List<Attachment> attachments) throws DeserializationException {
+        return DeserializeReturnValue(serializedReturnValue, null, attachments);
+    }
+
+    /**
+     * Deserializes a method invocation, parsing the document as it is read from the specified stream rather than first reading the complete stream.
+     * <p>
+     * Used by the IncrementalMessageDeserializer class so that a document can be parsed whilst it is being received.  As the document is not retained, the DeserializationException thrown if an error occurs does not contain the serialized document.  If the lightweight XML implementation or lazy parameter deserialization are enabled, the complete stream is read before parsing (as per method Deserialize(InputStream)).
+     * </p>
+     * @param serializedMethodInvocation  Stream containing the serialized method invocation.
+     * @return                            The method invocation.
+     * @throws DeserializationException   if an error occurs when deserializing the method invocation.
+     */
+    MethodInvocation DeserializeIncrementally(InputStream serializedMethodInvocation) throws DeserializationException {
+        if ((useLightweightXml == true) || (deserializeParametersLazily == true)) {
+            return Deserialize(null, serializedMethodInvocation, null);
+        }
+        
+        /* //[BEGIN_METRICS]
+        metricLogger.Begin(new MethodInvocationDeserializeTime());
+        //[END_METRICS] */
+        
+        MethodInvocation returnMethodInvocation;
+        SerializationContext context = null;
+        
+        try {
+            context = serializationContextProvider.Acquire();
+            returnMethodInvocation = ReadMethodInvocation(context.CreateReader(serializedMethodInvocation));
+            serializationContextProvider.Release(context);
             
-            reader.close();
+            /* //[BEGIN_METRICS]
+            metricLogger.End(new MethodInvocationDeserializeTime());
+            metricLogger.Increment(new MethodInvocationDeserialized());
+            //[END_METRICS] */
+            /* //[BEGIN_LOGGING]
+            logger.Log(this, LogLevel.Information, "Incrementally deserialized bytes to method invocation '" + returnMethodInvocation.getName() + "'.");
+            //[END_LOGGING] */
+        }
+        catch (Exception e) {
+            serializationContextProvider.Discard(context);
+            /* //[BEGIN_METRICS]
+            metricLogger.CancelBegin(new MethodInvocationDeserializeTime());
+            //[END_METRICS] */
+            throw new DeserializationException("Failed to deserialize method invocation.", e);
+        }
+        
+        return returnMethodInvocation;
+    }
+    
+    /**
+     * Deserializes the return value of a method invocation, parsing the document as it is read from the specified stream rather than first reading the complete stream.
+     * <p>
+     * Used by the IncrementalMessageDeserializer class so that a document can be parsed whilst it is being received.  As the document is not retained, the DeserializationException thrown if an error occurs does not contain the serialized document.  If the lightweight XML implementation is enabled, the complete stream is read before parsing (as per method DeserializeReturnValue(InputStream)).
+     * </p>
+     * @param serializedReturnValue      Stream containing the serialized return value.
+     * @return                           The return value.
+     * @throws DeserializationException  if an error occurs when deserializing the return value.
+     */
+    Object DeserializeReturnValueIncrementally(InputStream serializedReturnValue) throws DeserializationException {
+        if (useLightweightXml == true) {
+            return DeserializeReturnValue(null, serializedReturnValue, null);
+        }
+        
+        /* //[BEGIN_METRICS]
+        metricLogger.Begin(new ReturnValueDeserializeTime());
+        //[END_METRICS] */
+        
+        Object returnValue;
+        SerializationContext context = null;
+        
+        try {
+            context = serializationContextProvider.Acquire();
+            returnValue = ReadReturnValue(context.CreateReader(serializedReturnValue));
+            serializationContextProvider.Release(context);
             
             /* //[BEGIN_METRICS]
             metricLogger.End(new ReturnValueDeserializeTime());
@@ -342,15 +490,390 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
             //[END_LOGGING] */
         }
         catch (Exception e) {
+            serializationContextProvider.Discard(context);
             /* //[BEGIN_METRICS]
             metricLogger.CancelBegin(new ReturnValueDeserializeTime());
             //[END_METRICS] */
-            throw new DeserializationException("Failed to deserialize return value.", serializedReturnValue, e);
+            throw new DeserializationException("Failed to deserialize return value.", e);
+        }
+        
+        return returnValue;
+    }
+
+    /**
+     * Serializes a method invocation, writing the serialized document encoded as UTF-8 to either a buffer or a stream.
+     * @param inputMethodInvocation    The method invocation to serialize.
+     * @param outputBuffer             The buffer to write to, or null if writing to a stream.
+     * @param outputStream             The stream to write to, or null if writing to a buffer.
+     * @param attachments              The list to add attachments contained in the method invocation to, or null if the method invocation cannot contain attachments.
+     * @return                         The buffer written to, or null if writing to a stream.
+     * @throws SerializationException  if an error occurs when serializing the method invocation.
+     */
+    private ByteBuffer Serialize(IMethodInvocation inputMethodInvocation, ByteBuffer outputBuffer, OutputStream outputStream, List<Attachment> attachments) throws SerializationException {
+        /* //[BEGIN_METRICS]
+        metricLogger.Begin(new MethodInvocationSerializeTime());
+        //[END_METRICS] */
+        
+        int serializedLength;
+        SerializationContext context = null;
+
+        try {
+            context = serializationContextProvider.Acquire();
+            context.BeginAttachments(attachments);
+            WriteMethodInvocation(inputMethodInvocation, context.BeginWrite(useLightweightXml, methodInvocationSizeEstimator.GetEstimate(inputMethodInvocation.getName())));
+            if (outputStream == null) {
+                int startPosition = outputBuffer.position();
+                outputBuffer = context.EndWrite(outputBuffer);
+                serializedLength = outputBuffer.position() - startPosition;
+            }
+            else {
+                serializedLength = context.EndWrite(outputStream);
+            }
+            methodInvocationSizeEstimator.Record(inputMethodInvocation.getName(), context.getWriteLength());
+            context.EndAttachments();
+            serializationContextProvider.Release(context);
+            
+            /* //[BEGIN_METRICS]
+            metricLogger.End(new MethodInvocationSerializeTime());
+            metricLogger.Increment(new MethodInvocationSerialized());
+            metricLogger.Add(new SerializedMethodInvocationSize(serializedLength));
+            //[END_METRICS] */
+            /* //[BEGIN_LOGGING]
+            logger.Log(this, LogLevel.Information, "Serialized method invocation '" + inputMethodInvocation.getName() + "' to " + serializedLength + " bytes.");
+            //[END_LOGGING] */
+        }
+        catch (Exception e) {
+            serializationContextProvider.Discard(context);
+            /* //[BEGIN_METRICS]
+            metricLogger.CancelBegin(new MethodInvocationSerializeTime());
+            //[END_METRICS] */
+            throw new SerializationException("Failed to serialize invocation of method '" + inputMethodInvocation.getName() + "'.", inputMethodInvocation, e);
+        }
+
+        return outputBuffer;
+    }
+
+    /**
+     * Deserializes a method invocation from a UTF-8 encoded document held in either a buffer or a stream.
+     * @param serializedMethodInvocation  Buffer containing the serialized method invocation, or null if reading from a stream.
+     * @param inputStream                 Stream containing the serialized method invocation, or null if reading from a buffer.
+     * @param attachments                 The attachments referred to by the serialized method invocation, or null if the method invocation was received without attachments.  If attachments are specified, the parameters are deserialized immediately even if member deserializeParametersLazily is set.
+     * @return                            The method invocation.
+     * @throws DeserializationException   if an error occurs when deserializing the method invocation.
+     */
+    private MethodInvocation Deserialize(ByteBuffer serializedMethodInvocation, InputStream inputStream, List<Attachment> attachments) throws DeserializationException {
+        /* //[BEGIN_METRICS]
+        metricLogger.Begin(new MethodInvocationDeserializeTime());
+        //[END_METRICS] */
+        
+        MethodInvocation returnMethodInvocation;
+        ByteBuffer document = null;
+        SerializationContext context = null;
+        
+        try {
+            context = serializationContextProvider.Acquire();
+            context.BeginAttachments(attachments);
+            XMLStreamReader reader;
+            if (inputStream == null) {
+                document = serializedMethodInvocation.duplicate();
+                reader = context.CreateReader(serializedMethodInvocation, useLightweightXml);
+            }
+            else {
+                document = context.ReadStream(inputStream).duplicate();
+                reader = context.CreateReader(document.duplicate(), useLightweightXml);
+            }
+            if ((deserializeParametersLazily == true) && (attachments == null)) {
+                // Copy the document, as the buffer it is held in may be reused before the parameters are deserialized
+                ByteBuffer documentCopy = ByteBuffer.allocate(document.remaining());
+                documentCopy.put(document.duplicate());
+                documentCopy.flip();
+                returnMethodInvocation = ReadLazyMethodInvocation(reader, new LazyParameterDecoder(documentCopy));
+            }
+            else {
+                returnMethodInvocation = ReadMethodInvocation(reader);
+            }
+            context.EndAttachments();
+            serializationContextProvider.Release(context);
+            
+            /* //[BEGIN_METRICS]
+            metricLogger.End(new MethodInvocationDeserializeTime());
+            metricLogger.Increment(new MethodInvocationDeserialized());
+            //[END_METRICS] */
+            /* //[BEGIN_LOGGING]
+            logger.Log(this, LogLevel.Information, "Deserialized bytes to method invocation '" + returnMethodInvocation.getName() + "'.");
+            //[END_LOGGING] */
+        }
+        catch (Exception e) {
+            serializationContextProvider.Discard(context);
+            /* //[BEGIN_METRICS]
+            metricLogger.CancelBegin(new MethodInvocationDeserializeTime());
+            //[END_METRICS] */
+            throw new DeserializationException("Failed to deserialize method invocation.", DecodeDocument(document), e);
+        }
+        
+        return returnMethodInvocation;
+    }
+
+    /**
+     * Serializes the return value of a method invocation, writing the serialized document encoded as UTF-8 to either a buffer or a stream.
+     * @param inputReturnValue         The return value to serialize.
+     * @param outputBuffer             The buffer to write to, or null if writing to a stream.
+     * @param outputStream             The stream to write to, or null if writing to a buffer.
+     * @param attachments              The list to add attachments contained in the return value to, or null if the return value cannot contain attachments.
+     * @return                         The buffer written to, or null if writing to a stream.
+     * @throws SerializationException  if an error occurs when serializing the return value.
+     */
+    private ByteBuffer SerializeReturnValue(Object inputReturnValue, ByteBuffer outputBuffer, OutputStream outputStream, List<Attachment> attachments) throws SerializationException {
+        /* //[BEGIN_METRICS]
+        metricLogger.Begin(new ReturnValueSerializeTime());
+        //[END_METRICS] */
+        
+        int serializedLength;
+        SerializationContext context = null;
+
+        try {
+            context = serializationContextProvider.Acquire();
+            context.BeginAttachments(attachments);
+            WriteReturnValue(inputReturnValue, context.BeginWrite(useLightweightXml, returnValueSizeEstimator.GetEstimate(GetSizeEstimateKey(inputReturnValue))));
+            if (outputStream == null) {
+                int startPosition = outputBuffer.position();
+                outputBuffer = context.EndWrite(outputBuffer);
+                serializedLength = outputBuffer.position() - startPosition;
+            }
+            else {
+                serializedLength = context.EndWrite(outputStream);
+            }
+            returnValueSizeEstimator.Record(GetSizeEstimateKey(inputReturnValue), context.getWriteLength());
+            context.EndAttachments();
+            serializationContextProvider.Release(context);
+            
+            /* //[BEGIN_METRICS]
+            metricLogger.End(new ReturnValueSerializeTime());
+            metricLogger.Increment(new ReturnValueSerialized());
+            metricLogger.Add(new SerializedReturnValueSize(serializedLength));
+            //[END_METRICS] */
+            /* //[BEGIN_LOGGING]
+            logger.Log(this, LogLevel.Information, "Serialized return value to " + serializedLength + " bytes.");
+            //[END_LOGGING] */
+        }
+        catch (Exception e) {
+            serializationContextProvider.Discard(context);
+            /* //[BEGIN_METRICS]
+            metricLogger.CancelBegin(new ReturnValueSerializeTime());
+            //[END_METRICS] */
+            throw new SerializationException("Failed to serialize return value.", inputReturnValue, e);
+        }
+
+        return outputBuffer;
+    }
+
+    /**
+     * Deserializes the return value of a method invocation from a UTF-8 encoded document held in either a buffer or a stream.
+     * @param serializedReturnValue      Buffer containing the serialized return value, or null if reading from a stream.
+     * @param inputStream                Stream containing the serialized return value, or null if reading from a buffer.
+     * @param attachments                The attachments referred to by the serialized return value, or null if the return value was received without attachments.
+     * @return                           The return value.
+     * @throws DeserializationException  if an error occurs when deserializing the return value.
+     */
+    private Object DeserializeReturnValue(ByteBuffer serializedReturnValue, InputStream inputStream, List<Attachment> attachments) throws DeserializationException {
+        /* //[BEGIN_METRICS]
+        metricLogger.Begin(new ReturnValueDeserializeTime());
+        //[END_METRICS] */
+        
+        Object returnValue = null;
+        ByteBuffer document = null;
+        SerializationContext context = null;
+        
+        try {
+            context = serializationContextProvider.Acquire();
+            context.BeginAttachments(attachments);
+            if (inputStream == null) {
+                document = serializedReturnValue.duplicate();
+                returnValue = ReadReturnValue(context.CreateReader(serializedReturnValue, useLightweightXml));
+            }
+            else {
+                document = context.ReadStream(inputStream).duplicate();
+                returnValue = ReadReturnValue(context.CreateReader(document.duplicate(), useLightweightXml));
+            }
+            context.EndAttachments();
+            serializationContextProvider.Release(context);
+            
+            /* //[BEGIN_METRICS]
+            metricLogger.End(new ReturnValueDeserializeTime());
+            metricLogger.Increment(new ReturnValueDeserialized());
+            //[END_METRICS] */
+            /* //[BEGIN_LOGGING]
+            loggingUtilities.LogDeserializedReturnValue(this, returnValue);
+            //[END_LOGGING] */
+        }
+        catch (Exception e) {
+            serializationContextProvider.Discard(context);
+            /* //[BEGIN_METRICS]
+            metricLogger.CancelBegin(new ReturnValueDeserializeTime());
+            //[END_METRICS] */
+            throw new DeserializationException("Failed to deserialize return value.", DecodeDocument(document), e);
+        }
+        
+        return returnValue;
+    }
+
+    /**
+     * Writes a complete document containing the specified method invocation to an XMLStreamWriter.
+     * @param inputMethodInvocation  The method invocation to write.
+     * @param writer                 The XMLStreamWriter to write to.
+     * @throws Exception             if an error occurs writing the method invocation.
+     */
+    private void WriteMethodInvocation(IMethodInvocation inputMethodInvocation, XMLStreamWriter writer) throws Exception {
+        // Write document start tag (e.g. <?xml version="1.0" encoding="utf-8"?>)
+        writer.writeStartDocument(xmlEncoding, xmlVersion);
+        
+        // Write the root tag (e.g. <MethodInvocation>)
+        writer.writeStartElement(rootElementName);
+        
+        // Write the method name
+        SerializeMethodName(inputMethodInvocation.getName(), writer);
+        
+        // Write the parameters
+        SerializeParameters(inputMethodInvocation.getParameters(), writer);
+        
+        // Write the return type
+        SerializeReturnType(inputMethodInvocation.getReturnType(), writer);
+        
+        // Write the root end tag (e.g. </MethodInvocation>)
+        writer.writeEndElement();
+        writer.writeEndDocument();
+    }
+
+    /**
+     * Reads a complete document containing a method invocation from an XMLStreamReader.
+     * @param reader      The XMLStreamReader to read from.
+     * @return            The method invocation.
+     * @throws Exception  if an error occurs reading the method invocation.
+     */
+    private MethodInvocation ReadMethodInvocation(XMLStreamReader reader) throws Exception {
+        SimplifiedXMLStreamReader simpleReader = new SimplifiedXMLStreamReader(reader);
+        
+        // Consume the root tag (e.g. <MethodInvocation>)
+        simpleReader.ReadStartElement(rootElementName);
+        
+        // Read the method name
+        String methodName = DeserializeMethodName(simpleReader);
+        
+        // Read the parameters
+        ArrayList<Object> parameterArray = DeserializeParameters(simpleReader);
+        
+        // Read the return type
+        Class<?> returnType = DeserializeReturnType(simpleReader);
+
+        // Consume the root end tag (e.g. </MethodInvocation>)
+        simpleReader.ReadEndElement();
+        
+        reader.close();
+        
+        return BuildMethodInvocation(methodName, parameterArray, returnType);
+    }
+
+    /**
+     * Reads the method name and return type from a complete document containing a method invocation, skipping over the parameters.
+     * @param reader            The XMLStreamReader to read from.
+     * @param parameterDecoder  Object to use to deserialize the parameters when they are accessed.
+     * @return                  The method invocation.
+     * @throws Exception        if an error occurs reading the method invocation.
+     */
+    private LazyMethodInvocation ReadLazyMethodInvocation(XMLStreamReader reader, LazyParameterDecoder parameterDecoder) throws Exception {
+        SimplifiedXMLStreamReader simpleReader = new SimplifiedXMLStreamReader(reader);
+        
+        // Consume the root tag (e.g. <MethodInvocation>)
+        simpleReader.ReadStartElement(rootElementName);
+        
+        // Read the method name
+        String methodName = DeserializeMethodName(simpleReader);
+        
+        // Count and skip over the parameters
+        int parameterCount = 0;
+        // Consume parameters start tag (e.g. <Parameters>)
+        simpleReader.ReadStartElement(parametersElementName);
+        // Consume parameter start tag (e.g. <Parameter>)
+        //   If IsNextNodeStartElement() call returns false then the closing </Parameters> tag is consumed
+        while (simpleReader.IsNextNodeStartElement(parameterElementName) == true) {
+            simpleReader.SkipToEndElement();
+            parameterCount = parameterCount + 1;
+        }
+        
+        // Read the return type
+        Class<?> returnType = DeserializeReturnType(simpleReader);
+
+        // Consume the root end tag (e.g. </MethodInvocation>)
+        simpleReader.ReadEndElement();
+        
+        reader.close();
+        
+        try {
+            return new LazyMethodInvocation(methodName, returnType, parameterCount, parameterDecoder);
         }
+        catch (Exception e) {
+            throw new Exception("Failed to build method invocation object.", e);
+        }
+    }
+    
+    /**
+     * Reads a complete document containing a method invocation up to the start of the parameters.
+     * @param reader      The SimplifiedXMLStreamReader to read from.
+     * @throws Exception  if an error occurs reading the method invocation.
+     */
+    private void ReadToParameters(SimplifiedXMLStreamReader reader) throws Exception {
+        // Consume the root tag (e.g. <MethodInvocation>)
+        reader.ReadStartElement(rootElementName);
+        // Consume the method name
+        DeserializeMethodName(reader);
+    }
+
+    /**
+     * Writes a complete document containing the specified return value to an XMLStreamWriter.
+     * @param inputReturnValue  The return value to write.
+     * @param writer            The XMLStreamWriter to write to.
+     * @throws Exception        if an error occurs writing the return value.
+     */
+    private void WriteReturnValue(Object inputReturnValue, XMLStreamWriter writer) throws Exception {
+        // Write document start tag (e.g. <?xml version="1.0" encoding="utf-8"?>)
+        writer.writeStartDocument(xmlEncoding, xmlVersion);
+        SerializeItem(inputReturnValue, returnValueElementName, writer);
+        writer.writeEndDocument();
+    }
+
+    /**
+     * Reads a complete document containing a return value from an XMLStreamReader.
+     * @param reader      The XMLStreamReader to read from.
+     * @return            The return value.
+     * @throws Exception  if an error occurs reading the return value.
+     */
+    private Object ReadReturnValue(XMLStreamReader reader) throws Exception {
+        SimplifiedXMLStreamReader simpleReader = new SimplifiedXMLStreamReader(reader);
+
+        // Consume the root tag (e.g. <ReturnValue>)
+        simpleReader.ReadStartElement(returnValueElementName);
+        Object returnValue = DeserializeItem(simpleReader);
+        
+        reader.close();
         
         return returnValue;
     }
 
+    /**
+     * Decodes a UTF-8 encoded serialized document to a string, for inclusion in a DeserializationException.
+     * @param document  Buffer containing the document between its position and limit, or null if the document was not read.
+     * @return          The decoded document, or null if the document was not read.
+     */
+    private String DecodeDocument(ByteBuffer document) {
+        if (document == null) {
+            return null;
+        }
+        byte[] documentBytes = new byte[document.remaining()];
+        document.get(documentBytes);
+        
+        return new String(documentBytes, StandardCharsets.UTF_8);
+    }
+
     /**
      * Attempts to retrieve a serialized type corresponding to an inputted native type from the operation map, and throws an exception if the native type cannot be found.
      * @param nativeType  The native type to search the operation map for.
@@ -443,7 +966,9 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
      * @throws Exception
      */
     private void SerializeObject(Object inputObject, XMLStreamWriter writer) throws XMLStreamException, Exception {
-        IObjectSerializer serializer = operationMap.GetSerializer(inputObject.getClass());
+        // The serializer registered for the class of the object accepts the object
+        @SuppressWarnings("unchecked")
+        IObjectSerializer<Object> serializer = (IObjectSerializer<Object>)operationMap.GetSerializer(inputObject.getClass());
         // Write data start tag (e.g. <Data>)
         writer.writeStartElement(dataElementName);
         serializer.Serialize(inputObject, writer);
@@ -485,8 +1010,8 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
      * @throws XMLStreamException
      * @throws Exception
      */
-    private ArrayList DeserializeParameters(SimplifiedXMLStreamReader reader) throws XMLStreamException, Exception {
-        ArrayList returnParameterArray = new ArrayList();
+    private ArrayList<Object> DeserializeParameters(SimplifiedXMLStreamReader reader) throws XMLStreamException, Exception {
+        ArrayList<Object> returnParameterArray = new ArrayList<Object>();
 
         // Consume parameters start tag (e.g. <Parameters>)
         reader.ReadStartElement(parametersElementName);
@@ -546,7 +1071,7 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
         Object returnObject;
 
         Class<?> objectType = GetDeserializedTypeFromMap(dataType);
-        IObjectSerializer serializer = operationMap.GetSerializer(dataType);
+        IObjectSerializer<?> serializer = operationMap.GetSerializer(dataType);
         // Consume data start tag (e.g. <Data>)
         reader.ReadStartElement(dataElementName);
         returnObject = serializer.Deserialize(reader);
@@ -580,6 +1105,20 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
         return returnType;
     }
 
+    /**
+     * Returns the key used to estimate the serialized size of a return value.
+     * @param returnValue  The return value.
+     * @return             The class of the return value, or null if the return value is null.
+     */
+    private Class<?> GetSizeEstimateKey(Object returnValue) {
+        if (returnValue == null) {
+            return null;
+        }
+        else {
+            return returnValue.getClass();
+        }
+    }
+
     /**
      * Builds a method invocation object from the inputted name, parameters, and return type.
      * @param name           The name of the method.
@@ -588,7 +1127,7 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
      * @return               The method invocation.
      * @throws Exception
      */
-    private MethodInvocation BuildMethodInvocation(String name, ArrayList parameterList, Class<?> returnType) throws Exception {
+    private MethodInvocation BuildMethodInvocation(String name, ArrayList<Object> parameterList, Class<?> returnType) throws Exception {
         MethodInvocation returnMethodInvocation;
 
         try {
@@ -618,6 +1157,31 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
         return returnMethodInvocation;
     }
     
+    /**
+     * Adds mappings to the operation map for the specified class and arrays of the class, using a serializer derived from the fields of the class.
+     * <p>
+     * The class is introspected once when this method is called, and the serializer accesses the fields using MethodHandle objects, so reflection is not performed for each object serialized or deserialized.  The class must have a constructor with no parameters (which may be private).  All non-static, non-transient fields of the class and its superclasses are serialized, each as an item named after the field, so fields can be of any type which exists in the operation map, including other types added using this method, and arrays.
+     * </p>
+     * <p>
+     * The arrays of the class are mapped to the serialized type with 'Array' appended (e.g. 'interestRateCurve' and 'interestRateCurveArray').  Note that the serializer does not track references, so an object graph containing cycles cannot be serialized.
+     * </p>
+     * @param nativeType      The class.
+     * @param serializedType  A string representation of the class.
+     * @throws IllegalArgumentException  if the class does not have a constructor with no parameters, or is an interface, abstract class, array or primitive type.
+     */
+    public void AddReflectiveMapping(Class<?> nativeType, String serializedType) {
+        if (nativeType == null) {
+            throw new IllegalArgumentException("Parameter 'nativeType' cannot be null.");
+        }
+        if (serializedType == null) {
+            throw new IllegalArgumentException("Parameter 'serializedType' cannot be null.");
+        }
+
+        ReflectiveObjectSerializer serializer = new ReflectiveObjectSerializer(nativeType);
+        operationMap.AddMapping(nativeType, serializedType, serializer);
+        operationMap.AddMapping(Array.newInstance(nativeType, 0).getClass(), serializedType + "Array", genericArraySerializer);
+    }
+    
     /**
      * Writes a complete element with the specified name and value.
      * @param   writer              The XMLStreamWriter to write to.
@@ -633,6 +1197,7 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
     
     /**
      * Creates and returns a DecimalFormat object which will format a float or double in exponential notation using the inputted number of digits.
+     * <b>Note</b> that the built-in float and double serializers do not use this method, but write output identical to that of the returned DecimalFormat directly to the XML writer.
      * @param digits  The number of digits which should appear after the decimal point.
      * @return        The DecimalFormat object.
      */
@@ -642,11 +1207,22 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
         return new DecimalFormat(formatString);
     }
     
+    /**
+     * Writes the decimal representation of an integer to the specified XML writer.
+     * @param value                The integer.
+     * @param writer               The XML writer to write to.
+     * @throws XMLStreamException  if an error occurs writing to the XML writer.
+     */
+    private void WriteIntegerCharacters(long value, XMLStreamWriter writer) throws XMLStreamException {
+        char[] buffer = textValueCodec.GetBuffer();
+        writer.writeCharacters(buffer, 0, textValueCodec.WriteInteger(value, buffer, 0));
+    }
+    
     private class IntegerSerializer implements IObjectSerializer<Integer> {
 
         @Override
         public void Serialize(Integer inputInteger, XMLStreamWriter writer) throws XMLStreamException {
-            writer.writeCharacters(String.format(defaultLocale, "%d", inputInteger));
+            WriteIntegerCharacters(inputInteger, writer);
         }
 
         @Override
@@ -697,7 +1273,7 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
 
         @Override
         public void Serialize(Byte inputByte, XMLStreamWriter writer) throws Exception {
-            writer.writeCharacters(String.format(defaultLocale, "%d", inputByte));
+            WriteIntegerCharacters(inputByte, writer);
         }
 
         @Override
@@ -714,7 +1290,7 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
 
         @Override
         public void Serialize(Short inputShort, XMLStreamWriter writer) throws Exception {
-            writer.writeCharacters(String.format(defaultLocale, "%d", inputShort));
+            WriteIntegerCharacters(inputShort, writer);
         }
 
         @Override
@@ -731,7 +1307,7 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
 
         @Override
         public void Serialize(Long inputLong, XMLStreamWriter writer) throws Exception {
-            writer.writeCharacters(String.format(defaultLocale, "%d", inputLong));
+            WriteIntegerCharacters(inputLong, writer);
         }
 
         @Override
@@ -753,8 +1329,9 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
                 writer.writeCharacters(inputFloat.toString());
             }
             else {
-                DecimalFormat formatter = BuildDecimalFormatter(singleFloatingPointDigits);
-                writer.writeCharacters(formatter.format(inputFloat));
+                // Floats are widened to double before formatting, consistent with java.text.DecimalFormat
+                char[] buffer = textValueCodec.GetBuffer();
+                writer.writeCharacters(buffer, 0, textValueCodec.WriteExponential(inputFloat.doubleValue(), singleFloatingPointDigits, buffer, 0));
             }
         }
 
@@ -778,8 +1355,8 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
                 writer.writeCharacters(inputDouble.toString());
             }
             else {
-                DecimalFormat formatter = BuildDecimalFormatter(doubleFloatingPointDigits);
-                writer.writeCharacters(formatter.format(inputDouble));
+                char[] buffer = textValueCodec.GetBuffer();
+                writer.writeCharacters(buffer, 0, textValueCodec.WriteExponential(inputDouble, doubleFloatingPointDigits, buffer, 0));
             }
         }
 
@@ -797,7 +1374,9 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
 
         @Override
         public void Serialize(Character inputCharacter, XMLStreamWriter writer) throws Exception {
-            writer.writeCharacters(String.format(defaultLocale, "%c", inputCharacter));
+            char[] buffer = textValueCodec.GetBuffer();
+            buffer[0] = inputCharacter;
+            writer.writeCharacters(buffer, 0, 1);
         }
 
         @Override
@@ -814,7 +1393,7 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
 
         @Override
         public void Serialize(Boolean inputBoolean, XMLStreamWriter writer) throws Exception {
-            writer.writeCharacters(String.format(defaultLocale, "%b", inputBoolean));
+            writer.writeCharacters(inputBoolean.toString());
         }
 
         @Override
@@ -862,37 +1441,19 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
         
         @Override
         public void Serialize(GregorianCalendar inputCalendar, XMLStreamWriter writer) throws Exception {
-            SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", defaultLocale);
-            
             if (inputCalendar.get(Calendar.YEAR) > maxYear) {
                 throw new Exception("Year value exceeds maximum allowed size of " + maxYear + ".");
             }
-            // Create a string with the date/time portion of the GregorianCalendar serialized (i.e. no milliseconds)
-            String serializedDate = dateFormatter.format(inputCalendar.getTime());
-            // Add a 'T' to the 11th position to follow XML convention
-            String xmlSerializedDate = serializedDate.substring(0, 10) + "T" + serializedDate.substring(11, 19);
-            // Add the milliseconds 
-            Integer milliSeconds = inputCalendar.get(Calendar.MILLISECOND);
-            xmlSerializedDate = xmlSerializedDate + "." + String.format(defaultLocale, "%03d", milliSeconds);
-            
-            writer.writeCharacters(xmlSerializedDate);
+            // Write the date/time in format 'yyyy-MM-ddTHH:mm:ss.fff', with a 'T' in the 11th position to follow XML convention
+            char[] buffer = textValueCodec.GetBuffer();
+            writer.writeCharacters(buffer, 0, textValueCodec.WriteDateTime(inputCalendar, buffer, 0));
         }
 
         @Override
         public GregorianCalendar Deserialize(SimplifiedXMLStreamReader reader) throws Exception {
-            SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", defaultLocale);
-            
             // Read the complete serialized date from the XML stream
             String xmlSerializedDate = reader.ReadString();
-            // Remove the 'T' character from the 11th position
-            String serializedDate = xmlSerializedDate.substring(0, 10) + " " + xmlSerializedDate.substring(11, 19);
-            Date deserializedDate = dateFormatter.parse(serializedDate);
-            // Convert the Date to a GregorianCalendar
-            GregorianCalendar returnCalendar = new GregorianCalendar();
-            returnCalendar.setTime(deserializedDate);
-            // Set the milliseconds
-            Integer milliSeconds = Integer.parseInt(xmlSerializedDate.substring(20));
-            returnCalendar.set(Calendar.MILLISECOND, milliSeconds);
+            GregorianCalendar returnCalendar = textValueCodec.ParseDateTime(xmlSerializedDate);
 
             // Consume data end tag (e.g. </Data>)
             reader.ReadEndElement();
@@ -901,48 +1462,358 @@ public class MethodInvocationSerializer implements IMethodInvocationSerializer {
         }
     }
     
+    /**
+     * Serializes an Attachment as its index in the list of attachments written with the current document.
+     */
+    private class AttachmentSerializer implements IObjectSerializer<Attachment> {
+
+        @Override
+        public void Serialize(Attachment inputAttachment, XMLStreamWriter writer) throws Exception {
+            WriteIntegerCharacters(GetCurrentContext().AddAttachment(inputAttachment), writer);
+        }
+
+        @Override
+        public Attachment Deserialize(SimplifiedXMLStreamReader reader) throws Exception {
+            Attachment returnAttachment = GetCurrentContext().GetAttachment(Integer.parseInt(reader.ReadString()));
+            
+            // Consume data end tag (e.g. </Data>)
+            reader.ReadEndElement();
+            
+            return returnAttachment;
+        }
+        
+        /**
+         * @return            The serialization context of the current operation.
+         * @throws Exception  if a serialize or deserialize operation of the outer class is not being performed on the current thread.
+         */
+        private SerializationContext GetCurrentContext() throws Exception {
+            SerializationContext context = serializationContextProvider.GetCurrent();
+            if (context == null) {
+                throw new Exception("Attachments can only be serialized or deserialized by the MethodInvocationSerializer which added type '" + Attachment.class.getName() + "' to the operation map.");
+            }
+            
+            return context;
+        }
+    }
+    
     protected class ArraySerializer implements IObjectSerializer<Object[]> {
         
         @Override
         public void Serialize(Object[] inputObject, XMLStreamWriter writer) throws XMLStreamException, Exception {
             String elementSerializedType = GetSerializedTypeFromMap(inputObject.getClass().getComponentType());
             WriteElementString(writer, arrayElementDataTypeElementName, elementSerializedType);
-            // Write the elements
-            for(int i = 0; i < inputObject.length; i = i + 1) {
-                SerializeItem(inputObject[i], arrayElementElementName, writer);
+            if ((packBoxedNumericArrays == true) && (inputObject.length > 0) && (packedArrayCodec.IsPackable(inputObject) == true)) {
+                // Write the elements in packed form (e.g. <PackedElements>2:AQAAAAIAAAA=</PackedElements>)
+                WriteElementString(writer, packedElementsElementName, packedArrayCodec.Pack(inputObject, parallelArrayThreshold));
+            }
+            else {
+                // Write the elements
+                for(int i = 0; i < inputObject.length; i = i + 1) {
+                    SerializeItem(inputObject[i], arrayElementElementName, writer);
+                }
             }
         }
 
         @Override
         public Object[] Deserialize(SimplifiedXMLStreamReader reader) throws XMLStreamException, Exception {
             Object[] returnArray;
-            ArrayList returnArrayList = new ArrayList();
+            ArrayList<Object> returnArrayList = new ArrayList<Object>();
             
             // Get the data type of the array elements
             String datatype = reader.ReadElementString(arrayElementDataTypeElementName);
             Class<?> objectType = GetDeserializedTypeFromMap(datatype);
-            IObjectSerializer serializer = operationMap.GetSerializer(objectType);
-            // Attempt to consume element start tag (e.g. <Data>)
-            //   If IsNextNodeStartElement() call returns false then the closing outer </Data> tag (i.e. closing the data of the parameter not the element) is consumed.  The array is empty.
-            if(reader.IsNextNodeStartElement(arrayElementElementName) == true) {
-                // At this point the <Element> tag would have been already read, so need to set base depth 1 level lower than this at the <Data> tag
-                int baseDepth = (reader.getDepth() - 1);
-                while(reader.getDepth() >= baseDepth) {
-                    Object elementObject = DeserializeItem(reader);
-                    returnArrayList.add(elementObject);
-                    // Element end tag (e.g. </Element>) is consumed in DeserializeItem() routine
-                    // Consume element start tag (e.g. <Element>)
-                    //   If IsNextNodeStartElement() call returns false then the closing </Data> tag is consumed, baseDepth becomes lower than depth, and the loop will end
-                    reader.IsNextNodeStartElement(arrayElementElementName);
-                }
+            // Attempt to consume element start tag (e.g. <Element>) or packed elements start tag (e.g. <PackedElements>)
+            //   If null is returned then the closing outer </Data> tag (i.e. closing the data of the parameter not the element) is consumed.  The array is empty.
+            String elementName = reader.ReadNextStartElementName();
+            if (elementName == null) {
+                return (Object[])Array.newInstance(objectType, 0);
+            }
+            else if (elementName.equals(packedElementsElementName) == true) {
+                returnArray = (Object[])packedArrayCodec.Unpack(reader.ReadString(), objectType, parallelArrayThreshold);
+                // Consume packed elements end tag (e.g. </PackedElements>)
+                reader.ReadEndElement();
+                // Consume data end tag (e.g. </Data>)
+                reader.ReadEndElement();
+                
+                return returnArray;
+            }
+            else if (elementName.equals(arrayElementElementName) == false) {
+                throw new XMLStreamException("Element '" + arrayElementElementName + "' was not found.");
+            }
+            // At this point the <Element> tag would have been already read, so need to set base depth 1 level lower than this at the <Data> tag
+            int baseDepth = (reader.getDepth() - 1);
+            while(reader.getDepth() >= baseDepth) {
+                Object elementObject = DeserializeItem(reader);
+                returnArrayList.add(elementObject);
+                // Element end tag (e.g. </Element>) is consumed in DeserializeItem() routine
+                // Consume element start tag (e.g. <Element>)
+                //   If IsNextNodeStartElement() call returns false then the closing </Data> tag is consumed, baseDepth becomes lower than depth, and the loop will end
+                reader.IsNextNodeStartElement(arrayElementElementName);
             }
             // Convert the ArrayList to an array
             returnArray = (Object[])Array.newInstance(objectType, returnArrayList.size());
-            for (int i = 0; i < returnArray.length; i = i + 1) {
-                Array.set(returnArray, i, returnArrayList.get(i));
+            
+            return returnArrayList.toArray(returnArray);
+        }
+    }
+    
+    /**
+     * Deserializes the parameters of a method invocation returned by the Deserialize() methods when lazy deserialization of parameters is enabled.
+     */
+    private class LazyParameterDecoder implements LazyMethodInvocation.IParameterDecoder {
+        
+        /** The serialized method invocation, or null if held in documentBuffer. */
+        private String document;
+        /** The serialized method invocation encoded as UTF-8, or null if held in document. */
+        private ByteBuffer documentBuffer;
+        
+        /**
+         * Initialises a new instance of the LazyParameterDecoder class.
+         * @param document  The serialized method invocation.
+         */
+        public LazyParameterDecoder(String document) {
+            this.document = document;
+        }
+        
+        /**
+         * Initialises a new instance of the LazyParameterDecoder class.
+         * @param documentBuffer  Buffer containing the serialized method invocation encoded as UTF-8.  The buffer must not be modified after being passed to this constructor.
+         */
+        public LazyParameterDecoder(ByteBuffer documentBuffer) {
+            this.documentBuffer = documentBuffer;
+        }
+        
+        @Override
+        public Object DecodeParameter(int index) throws DeserializationException {
+            Object returnParameter;
+            SerializationContext context = null;
+            
+            try {
+                context = serializationContextProvider.Acquire();
+                XMLStreamReader reader = CreateReader(context);
+                SimplifiedXMLStreamReader simpleReader = new SimplifiedXMLStreamReader(reader);
+                ReadToParameters(simpleReader);
+                // Consume parameters start tag (e.g. <Parameters>)
+                simpleReader.ReadStartElement(parametersElementName);
+                // Skip over the parameters before the specified index
+                for (int i = 0; i < index; i = i + 1) {
+                    simpleReader.ReadStartElement(parameterElementName);
+                    simpleReader.SkipToEndElement();
+                }
+                // Consume parameter start tag (e.g. <Parameter>)
+                simpleReader.ReadStartElement(parameterElementName);
+                returnParameter = DeserializeItem(simpleReader);
+                reader.close();
+                serializationContextProvider.Release(context);
+                
+                /* //[BEGIN_LOGGING]
+                loggingUtilities.LogParameter(MethodInvocationSerializer.this, "Deserialized", returnParameter);
+                //[END_LOGGING] */
+            }
+            catch (Exception e) {
+                serializationContextProvider.Discard(context);
+                throw new DeserializationException("Failed to deserialize method invocation parameter.", GetDocument(), e);
+            }
+            
+            return returnParameter;
+        }
+        
+        @Override
+        public Object[] DecodeParameters() throws DeserializationException {
+            ArrayList<Object> parameterList;
+            SerializationContext context = null;
+            
+            try {
+                context = serializationContextProvider.Acquire();
+                XMLStreamReader reader = CreateReader(context);
+                SimplifiedXMLStreamReader simpleReader = new SimplifiedXMLStreamReader(reader);
+                ReadToParameters(simpleReader);
+                parameterList = DeserializeParameters(simpleReader);
+                reader.close();
+                serializationContextProvider.Release(context);
+            }
+            catch (Exception e) {
+                serializationContextProvider.Discard(context);
+                throw new DeserializationException("Failed to deserialize method invocation parameters.", GetDocument(), e);
             }
             
+            return parameterList.toArray();
+        }
+        
+        private XMLStreamReader CreateReader(SerializationContext context) throws Exception {
+            if (document != null) {
+                return context.CreateReader(document, useLightweightXml);
+            }
+            else {
+                return context.CreateReader(documentBuffer.duplicate(), useLightweightXml);
+            }
+        }
+        
+        private String GetDocument() {
+            if (document != null) {
+                return document;
+            }
+            else {
+                return DecodeDocument(documentBuffer.duplicate());
+            }
+        }
+    }
+    
+    /**
+     * Serializes and deserializes objects of a class by writing and reading each of the fields of the class as an item, using MethodHandle objects created when the serializer is constructed to get and set the field values.
+     */
+    protected class ReflectiveObjectSerializer implements IObjectSerializer<Object> {
+        
+        private Class<?> nativeType;
+        /** Creates a new instance of the class, adapted to type ()Object. */
+        private MethodHandle constructor;
+        private String[] fieldNames;
+        /** Gets the value of each field, adapted to type (Object)Object. */
+        private MethodHandle[] fieldGetters;
+        /** Sets the value of each field, adapted to type (Object,Object)void. */
+        private MethodHandle[] fieldSetters;
+        
+        /**
+         * Initialises a new instance of the ReflectiveObjectSerializer class.
+         * @param nativeType  The class of the objects to serialize and deserialize.
+         * @throws IllegalArgumentException  if the class does not have a constructor with no parameters, or is an interface, abstract class, array or primitive type.
+         */
+        public ReflectiveObjectSerializer(Class<?> nativeType) {
+            if ((nativeType.isInterface() == true) || (nativeType.isArray() == true) || (nativeType.isPrimitive() == true) || (Modifier.isAbstract(nativeType.getModifiers()) == true)) {
+                throw new IllegalArgumentException("Type '" + nativeType.getName() + "' cannot be serialized reflectively as it is an interface, abstract class, array, or primitive type.");
+            }
+            this.nativeType = nativeType;
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            
+            try {
+                Constructor<?> defaultConstructor = nativeType.getDeclaredConstructor();
+                defaultConstructor.setAccessible(true);
+                constructor = lookup.unreflectConstructor(defaultConstructor).asType(MethodType.methodType(Object.class));
+            }
+            catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException("Type '" + nativeType.getName() + "' does not have a constructor with no parameters.", e);
+            }
+            catch (Exception e) {
+                throw new IllegalArgumentException("Failed to access the constructor of type '" + nativeType.getName() + "'.", e);
+            }
+            
+            // Gather the fields, starting with those of the topmost superclass
+            LinkedList<Field> fields = new LinkedList<Field>();
+            for (Class<?> currentClass = nativeType; currentClass != Object.class; currentClass = currentClass.getSuperclass()) {
+                Field[] declaredFields = currentClass.getDeclaredFields();
+                for (int i = declaredFields.length - 1; i >= 0; i = i - 1) {
+                    int modifiers = declaredFields[i].getModifiers();
+                    if ((Modifier.isStatic(modifiers) == false) && (Modifier.isTransient(modifiers) == false) && (declaredFields[i].isSynthetic() == false)) {
+                        fields.addFirst(declaredFields[i]);
+                    }
+                }
+            }
+            
+            fieldNames = new String[fields.size()];
+            fieldGetters = new MethodHandle[fields.size()];
+            fieldSetters = new MethodHandle[fields.size()];
+            MethodType getterType = MethodType.methodType(Object.class, Object.class);
+            MethodType setterType = MethodType.methodType(void.class, Object.class, Object.class);
+            int index = 0;
+            for (Field currentField : fields) {
+                try {
+                    currentField.setAccessible(true);
+                    fieldNames[index] = currentField.getName();
+                    fieldGetters[index] = lookup.unreflectGetter(currentField).asType(getterType);
+                    fieldSetters[index] = lookup.unreflectSetter(currentField).asType(setterType);
+                }
+                catch (Exception e) {
+                    throw new IllegalArgumentException("Failed to access field '" + currentField.getName() + "' of type '" + nativeType.getName() + "'.", e);
+                }
+                index = index + 1;
+            }
+        }
+        
+        @Override
+        public void Serialize(Object inputObject, XMLStreamWriter writer) throws XMLStreamException, Exception {
+            for (int i = 0; i < fieldNames.length; i = i + 1) {
+                Object fieldValue;
+                try {
+                    fieldValue = (Object)fieldGetters[i].invokeExact(inputObject);
+                }
+                catch (Throwable e) {
+                    throw WrapAccessException("Failed to get the value of field '" + fieldNames[i] + "'", e);
+                }
+                SerializeItem(fieldValue, fieldNames[i], writer);
+            }
+        }
+
+        @Override
+        public Object Deserialize(SimplifiedXMLStreamReader reader) throws XMLStreamException, Exception {
+            Object returnObject;
+            try {
+                returnObject = (Object)constructor.invokeExact();
+            }
+            catch (Throwable e) {
+                throw WrapAccessException("Failed to create an instance", e);
+            }
+            
+            for (int i = 0; i < fieldNames.length; i = i + 1) {
+                // Consume field start tag (e.g. <currency>)
+                reader.ReadStartElement(fieldNames[i]);
+                // Field end tag (e.g. </currency>) is consumed in DeserializeItem() routine
+                Object fieldValue = DeserializeItem(reader);
+                try {
+                    fieldSetters[i].invokeExact(returnObject, fieldValue);
+                }
+                catch (Throwable e) {
+                    throw WrapAccessException("Failed to set the value of field '" + fieldNames[i] + "'", e);
+                }
+            }
+            // Consume data end tag (e.g. </Data>)
+            reader.ReadEndElement();
+            
+            return returnObject;
+        }
+        
+        /**
+         * Wraps a Throwable thrown by a MethodHandle in an Exception, or rethrows it if it is an Error.
+         * @param message  A description of the operation which failed.
+         * @param cause    The Throwable thrown.
+         * @return         The wrapping Exception.
+         */
+        private Exception WrapAccessException(String message, Throwable cause) {
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            return new Exception(message + " of type '" + nativeType.getName() + "'.", cause);
+        }
+    }
+    
+    /**
+     * Serializes and deserializes arrays of a primitive type (e.g. int[]), in packed form.
+     */
+    protected class PrimitiveArraySerializer implements IObjectSerializer<Object> {
+        
+        private Class<?> componentType;
+        
+        /**
+         * Initialises a new instance of the PrimitiveArraySerializer class.
+         * @param componentType  The primitive component type of the arrays serialized (e.g. int.class).
+         */
+        public PrimitiveArraySerializer(Class<?> componentType) {
+            this.componentType = componentType;
+        }
+        
+        @Override
+        public void Serialize(Object inputObject, XMLStreamWriter writer) throws XMLStreamException, Exception {
+            // Write the elements in packed form (e.g. <PackedElements>2:AQAAAAIAAAA=</PackedElements>)
+            WriteElementString(writer, packedElementsElementName, packedArrayCodec.Pack(inputObject, parallelArrayThreshold));
+        }
+
+        @Override
+        public Object Deserialize(SimplifiedXMLStreamReader reader) throws XMLStreamException, Exception {
+            Object returnArray = packedArrayCodec.Unpack(reader.ReadElementString(packedElementsElementName), componentType, parallelArrayThreshold);
+            // Consume data end tag (e.g. </Data>)
+            reader.ReadEndElement();
+            
             return returnArray;
         }
     }
+
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.util.*;
+
+/**
+ * Assigns sequential indices to the objects written to or read from a single serialized document, so that an object which occurs more than once in the document can be written in full once, and subsequently as a reference to its index.
+ * @author Alastair Wyse
+ */
+class ObjectReferenceTable {
+
+    /** Maps objects written to their indices, matched by identity. */
+    private IdentityHashMap<Object, Integer> writtenObjects;
+    /** Maps objects written to their indices, matched by equality. */
+    private HashMap<Object, Integer> writtenValues;
+    /** The objects read, in order of their indices. */
+    private ArrayList<Object> readObjects;
+    private int writtenCount;
+    
+    /**
+     * Initialises a new instance of the ObjectReferenceTable class.
+     */
+    public ObjectReferenceTable() {
+        writtenObjects = new IdentityHashMap<Object, Integer>();
+        writtenValues = new HashMap<Object, Integer>();
+        readObjects = new ArrayList<Object>();
+        writtenCount = 0;
+    }
+    
+    /**
+     * Removes all objects from the table, so that it can be used for a new document.
+     */
+    public void Clear() {
+        if (writtenCount > 0) {
+            writtenObjects.clear();
+            writtenValues.clear();
+            writtenCount = 0;
+        }
+        readObjects.clear();
+    }
+    
+    /**
+     * Returns the index of the specified object if it has previously been written, otherwise assigns the object the next index.
+     * @param item               The object being written.
+     * @param matchEqualValues   Whether to match a previously written object which is equal to (rather than the same instance as) the specified object.  Should only be set for immutable types.
+     * @return                   The index of the previously written object, or -1 if the object has not previously been written.
+     */
+    public int FindOrAddWritten(Object item, boolean matchEqualValues) {
+        Integer index;
+        if (matchEqualValues == true) {
+            index = writtenValues.get(item);
+        }
+        else {
+            index = writtenObjects.get(item);
+        }
+        
+        if (index != null) {
+            return index;
+        }
+        else {
+            if (matchEqualValues == true) {
+                writtenValues.put(item, writtenCount);
+            }
+            else {
+                writtenObjects.put(item, writtenCount);
+            }
+            writtenCount = writtenCount + 1;
+            return -1;
+        }
+    }
+    
+    /**
+     * Assigns the next index to the specified object which has been read.
+     * @param item  The object read.
+     */
+    public void AddRead(Object item) {
+        readObjects.add(item);
+    }
+    
+    /**
+     * Returns the previously read object with the specified index.
+     * @param index       The index of the object.
+     * @return            The object.
+     * @throws Exception  if no object has been read with the specified index.
+     */
+    public Object GetRead(int index) throws Exception {
+        if ((index < 0) || (index >= readObjects.size())) {
+            throw new Exception("Encountered reference to object " + index + ", but only " + readObjects.size() + " objects have been read.");
+        }
+        
+        return readObjects.get(index);
+    }
+}
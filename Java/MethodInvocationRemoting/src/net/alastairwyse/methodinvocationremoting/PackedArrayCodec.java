@@ -0,0 +1,409 @@
+/*
+ * Copyright 2015 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.lang.reflect.Array;
+import java.nio.*;
+import java.util.*;
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Converts arrays of primitive types and boxed numeric types to and from a packed representation consisting of the raw little endian bytes of the elements.
+ * <p>
+ * The packed text representation consists of the element count, followed by a ':' character, followed by the base64 encoded bytes (e.g. "2:AQAAAAIAAAA=" for int array { 1, 2 }).
+ * </p>
+ * @author Alastair Wyse
+ */
+class PackedArrayCodec {
+
+    private final char countSeparator = ':';
+
+    /** Maps the component types which can be packed to the size in bytes of each element. */
+    private HashMap<Class<?>, Integer> elementSizes;
+    private ParallelArrayProcessor parallelArrayProcessor;
+
+    /**
+     * Initialises a new instance of the PackedArrayCodec class.
+     */
+    public PackedArrayCodec() {
+        elementSizes = new HashMap<Class<?>, Integer>();
+        elementSizes.put(int.class, 4);
+        elementSizes.put(long.class, 8);
+        elementSizes.put(double.class, 8);
+        elementSizes.put(float.class, 4);
+        elementSizes.put(short.class, 2);
+        elementSizes.put(byte.class, 1);
+        elementSizes.put(char.class, 2);
+        elementSizes.put(boolean.class, 1);
+        elementSizes.put(Integer.class, 4);
+        elementSizes.put(Long.class, 8);
+        elementSizes.put(Double.class, 8);
+        elementSizes.put(Float.class, 4);
+        elementSizes.put(Short.class, 2);
+        elementSizes.put(Byte.class, 1);
+        parallelArrayProcessor = new ParallelArrayProcessor();
+    }
+
+    /**
+     * Indicates whether arrays with the specified component type can be packed.
+     * @param componentType  The component type of the array.
+     * @return               True if arrays of the type can be packed.
+     */
+    public boolean IsPackable(Class<?> componentType) {
+        return elementSizes.containsKey(componentType);
+    }
+
+    /**
+     * Indicates whether the specified array can be packed, i.e. whether its component type can be packed and it contains no null elements.
+     * @param inputArray  The array.
+     * @return            True if the array can be packed.
+     */
+    public boolean IsPackable(Object inputArray) {
+        Class<?> componentType = inputArray.getClass().getComponentType();
+
+        if (IsPackable(componentType) == false) {
+            return false;
+        }
+        if (componentType.isPrimitive() == false) {
+            Object[] inputObjectArray = (Object[])inputArray;
+            for (int i = 0; i < inputObjectArray.length; i = i + 1) {
+                if (inputObjectArray[i] == null) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Converts the specified array to its packed text representation.
+     * @param inputArray  The array to pack.  Must not contain null elements.
+     * @return            The packed text representation.
+     * @throws Exception  if the component type of the array cannot be packed.
+     */
+    public String Pack(Object inputArray) throws Exception {
+        return Pack(inputArray, 0);
+    }
+
+    /**
+     * Converts the specified array to its packed text representation.
+     * @param inputArray         The array to pack.  Must not contain null elements.
+     * @param parallelThreshold  The minimum number of elements for the elements to be converted in parallel, or 0 to convert the elements on the calling thread.
+     * @return                   The packed text representation.
+     * @throws Exception         if the component type of the array cannot be packed.
+     */
+    public String Pack(Object inputArray, int parallelThreshold) throws Exception {
+        int length = Array.getLength(inputArray);
+
+        return Integer.toString(length) + countSeparator + Base64.encodeBase64String(ToBytes(inputArray, parallelThreshold));
+    }
+
+    /**
+     * Converts the specified packed text representation to an array.
+     * @param packedArray    The packed text representation.
+     * @param componentType  The component type of the array to create.
+     * @return               The array.
+     * @throws Exception     if the packed text representation is invalid, or the component type cannot be packed.
+     */
+    public Object Unpack(String packedArray, Class<?> componentType) throws Exception {
+        return Unpack(packedArray, componentType, 0);
+    }
+
+    /**
+     * Converts the specified packed text representation to an array.
+     * @param packedArray        The packed text representation.
+     * @param componentType      The component type of the array to create.
+     * @param parallelThreshold  The minimum number of elements for the elements to be converted in parallel, or 0 to convert the elements on the calling thread.
+     * @return                   The array.
+     * @throws Exception         if the packed text representation is invalid, or the component type cannot be packed.
+     */
+    public Object Unpack(String packedArray, Class<?> componentType, int parallelThreshold) throws Exception {
+        int separatorIndex = packedArray.indexOf(countSeparator);
+        if (separatorIndex == -1) {
+            throw new Exception("Packed array data does not contain an element count.");
+        }
+        int length = Integer.parseInt(packedArray.substring(0, separatorIndex));
+        byte[] packedBytes = Base64.decodeBase64(packedArray.substring(separatorIndex + 1));
+
+        return FromBytes(packedBytes, length, componentType, parallelThreshold);
+    }
+
+    /**
+     * Returns the raw little endian bytes of the elements of the specified array.
+     * @param inputArray  The array.  Must not contain null elements.
+     * @return            The bytes of the elements.
+     * @throws Exception  if the component type of the array cannot be packed.
+     */
+    public byte[] ToBytes(Object inputArray) throws Exception {
+        return ToBytes(inputArray, 0);
+    }
+
+    /**
+     * Returns the raw little endian bytes of the elements of the specified array.
+     * <p>
+     * If the array contains at least the specified threshold number of elements, the elements are split into chunks which are converted in parallel on the common ForkJoinPool.  As each element is converted to a fixed number of bytes, each chunk is written directly to its position in the returned bytes, and the result is identical to converting the elements on the calling thread.
+     * </p>
+     * @param inputArray         The array.  Must not contain null elements.
+     * @param parallelThreshold  The minimum number of elements for the elements to be converted in parallel, or 0 to convert the elements on the calling thread.
+     * @return                   The bytes of the elements.
+     * @throws Exception         if the component type of the array cannot be packed.
+     */
+    public byte[] ToBytes(final Object inputArray, int parallelThreshold) throws Exception {
+        final Class<?> componentType = inputArray.getClass().getComponentType();
+        int length = Array.getLength(inputArray);
+        final int elementSize = GetElementSize(componentType);
+        final byte[] returnBytes = new byte[length * elementSize];
+
+        if (parallelArrayProcessor.IsParallel(length, parallelThreshold) == true) {
+            parallelArrayProcessor.Process(length, new ParallelArrayProcessor.IChunkOperation<Object>() {
+                @Override
+                public Object Process(int startIndex, int endIndex) throws Exception {
+                    ToBytes(inputArray, componentType, elementSize, startIndex, endIndex, returnBytes);
+                    return null;
+                }
+            });
+        }
+        else {
+            ToBytes(inputArray, componentType, elementSize, 0, length, returnBytes);
+        }
+
+        return returnBytes;
+    }
+
+    /**
+     * Creates an array of the specified component type and length, and populates it from the specified raw little endian bytes.
+     * @param inputBytes     The bytes of the elements.
+     * @param length         The number of elements in the array.
+     * @param componentType  The component type of the array.
+     * @return               The array.
+     * @throws Exception     if the number of bytes does not match the length of the array, or the component type cannot be packed.
+     */
+    public Object FromBytes(byte[] inputBytes, int length, Class<?> componentType) throws Exception {
+        return FromBytes(inputBytes, length, componentType, 0);
+    }
+
+    /**
+     * Creates an array of the specified component type and length, and populates it from the specified raw little endian bytes.
+     * <p>
+     * If the array contains at least the specified threshold number of elements, the elements are split into chunks which are converted in parallel on the common ForkJoinPool.
+     * </p>
+     * @param inputBytes         The bytes of the elements.
+     * @param length             The number of elements in the array.
+     * @param componentType      The component type of the array.
+     * @param parallelThreshold  The minimum number of elements for the elements to be converted in parallel, or 0 to convert the elements on the calling thread.
+     * @return                   The array.
+     * @throws Exception         if the number of bytes does not match the length of the array, or the component type cannot be packed.
+     */
+    public Object FromBytes(final byte[] inputBytes, int length, final Class<?> componentType, int parallelThreshold) throws Exception {
+        if (length < 0) {
+            throw new Exception("Packed array element count " + length + " is negative.");
+        }
+        final int elementSize = GetElementSize(componentType);
+        if ((long)length * elementSize != inputBytes.length) {
+            throw new Exception("Packed array data length " + inputBytes.length + " does not match element count " + length + " of type '" + componentType.getName() + "'.");
+        }
+        if (componentType == byte.class) {
+            return inputBytes;
+        }
+        final Object returnArray = Array.newInstance(componentType, length);
+
+        if (parallelArrayProcessor.IsParallel(length, parallelThreshold) == true) {
+            parallelArrayProcessor.Process(length, new ParallelArrayProcessor.IChunkOperation<Object>() {
+                @Override
+                public Object Process(int startIndex, int endIndex) throws Exception {
+                    FromBytes(inputBytes, componentType, elementSize, startIndex, endIndex, returnArray);
+                    return null;
+                }
+            });
+        }
+        else {
+            FromBytes(inputBytes, componentType, elementSize, 0, length, returnArray);
+        }
+
+        return returnArray;
+    }
+
+    /**
+     * Returns the size in bytes of each packed element of the specified type.
+     * @param componentType  The component type.
+     * @return               The size in bytes.
+     * @throws Exception     if the component type cannot be packed.
+     */
+    public int GetElementSize(Class<?> componentType) throws Exception {
+        Integer elementSize = elementSizes.get(componentType);
+
+        if (elementSize == null) {
+            throw new Exception("Arrays of type '" + componentType.getName() + "' cannot be packed.");
+        }
+
+        return elementSize;
+    }
+
+    /**
+     * Writes the raw little endian bytes of the elements of the specified array between the specified indices to the corresponding position in the specified bytes.
+     * @param inputArray     The array.
+     * @param componentType  The component type of the array.
+     * @param elementSize    The size in bytes of each packed element.
+     * @param startIndex     The index of the first element to write.
+     * @param endIndex       The index after the last element to write.
+     * @param outputBytes    The bytes to write to.
+     */
+    private void ToBytes(Object inputArray, Class<?> componentType, int elementSize, int startIndex, int endIndex, byte[] outputBytes) {
+        int count = endIndex - startIndex;
+        ByteBuffer buffer = ByteBuffer.wrap(outputBytes, startIndex * elementSize, count * elementSize).slice().order(ByteOrder.LITTLE_ENDIAN);
+
+        if (componentType == int.class) {
+            buffer.asIntBuffer().put((int[])inputArray, startIndex, count);
+        }
+        else if (componentType == long.class) {
+            buffer.asLongBuffer().put((long[])inputArray, startIndex, count);
+        }
+        else if (componentType == double.class) {
+            buffer.asDoubleBuffer().put((double[])inputArray, startIndex, count);
+        }
+        else if (componentType == float.class) {
+            buffer.asFloatBuffer().put((float[])inputArray, startIndex, count);
+        }
+        else if (componentType == short.class) {
+            buffer.asShortBuffer().put((short[])inputArray, startIndex, count);
+        }
+        else if (componentType == byte.class) {
+            buffer.put((byte[])inputArray, startIndex, count);
+        }
+        else if (componentType == char.class) {
+            buffer.asCharBuffer().put((char[])inputArray, startIndex, count);
+        }
+        else if (componentType == boolean.class) {
+            boolean[] booleanArray = (boolean[])inputArray;
+            for (int i = startIndex; i < endIndex; i = i + 1) {
+                outputBytes[i] = (byte)(booleanArray[i] == true ? 1 : 0);
+            }
+        }
+        else if (componentType == Integer.class) {
+            Integer[] integerArray = (Integer[])inputArray;
+            for (int i = startIndex; i < endIndex; i = i + 1) {
+                buffer.putInt(integerArray[i]);
+            }
+        }
+        else if (componentType == Long.class) {
+            Long[] longArray = (Long[])inputArray;
+            for (int i = startIndex; i < endIndex; i = i + 1) {
+                buffer.putLong(longArray[i]);
+            }
+        }
+        else if (componentType == Double.class) {
+            Double[] doubleArray = (Double[])inputArray;
+            for (int i = startIndex; i < endIndex; i = i + 1) {
+                buffer.putDouble(doubleArray[i]);
+            }
+        }
+        else if (componentType == Float.class) {
+            Float[] floatArray = (Float[])inputArray;
+            for (int i = startIndex; i < endIndex; i = i + 1) {
+                buffer.putFloat(floatArray[i]);
+            }
+        }
+        else if (componentType == Short.class) {
+            Short[] shortArray = (Short[])inputArray;
+            for (int i = startIndex; i < endIndex; i = i + 1) {
+                buffer.putShort(shortArray[i]);
+            }
+        }
+        else if (componentType == Byte.class) {
+            Byte[] byteArray = (Byte[])inputArray;
+            for (int i = startIndex; i < endIndex; i = i + 1) {
+                outputBytes[i] = byteArray[i];
+            }
+        }
+    }
+
+    /**
+     * Populates the elements of the specified array between the specified indices from the raw little endian bytes at the corresponding position in the specified bytes.
+     * @param inputBytes     The bytes of the elements.
+     * @param componentType  The component type of the array.
+     * @param elementSize    The size in bytes of each packed element.
+     * @param startIndex     The index of the first element to populate.
+     * @param endIndex       The index after the last element to populate.
+     * @param outputArray    The array to populate.
+     */
+    private void FromBytes(byte[] inputBytes, Class<?> componentType, int elementSize, int startIndex, int endIndex, Object outputArray) {
+        int count = endIndex - startIndex;
+        ByteBuffer buffer = ByteBuffer.wrap(inputBytes, startIndex * elementSize, count * elementSize).slice().order(ByteOrder.LITTLE_ENDIAN);
+
+        if (componentType == int.class) {
+            buffer.asIntBuffer().get((int[])outputArray, startIndex, count);
+        }
+        else if (componentType == long.class) {
+            buffer.asLongBuffer().get((long[])outputArray, startIndex, count);
+        }
+        else if (componentType == double.class) {
+            buffer.asDoubleBuffer().get((double[])outputArray, startIndex, count);
+        }
+        else if (componentType == float.class) {
+            buffer.asFloatBuffer().get((float[])outputArray, startIndex, count);
+        }
+        else if (componentType == short.class) {
+            buffer.asShortBuffer().get((short[])outputArray, startIndex, count);
+        }
+        else if (componentType == char.class) {
+            buffer.asCharBuffer().get((char[])outputArray, startIndex, count);
+        }
+        else if (componentType == boolean.class) {
+            boolean[] booleanArray = (boolean[])outputArray;
+            for (int i = startIndex; i < endIndex; i = i + 1) {
+                booleanArray[i] = (inputBytes[i] != 0);
+            }
+        }
+        else if (componentType == Integer.class) {
+            Integer[] integerArray = (Integer[])outputArray;
+            for (int i = startIndex; i < endIndex; i = i + 1) {
+                integerArray[i] = buffer.getInt();
+            }
+        }
+        else if (componentType == Long.class) {
+            Long[] longArray = (Long[])outputArray;
+            for (int i = startIndex; i < endIndex; i = i + 1) {
+                longArray[i] = buffer.getLong();
+            }
+        }
+        else if (componentType == Double.class) {
+            Double[] doubleArray = (Double[])outputArray;
+            for (int i = startIndex; i < endIndex; i = i + 1) {
+                doubleArray[i] = buffer.getDouble();
+            }
+        }
+        else if (componentType == Float.class) {
+            Float[] floatArray = (Float[])outputArray;
+            for (int i = startIndex; i < endIndex; i = i + 1) {
+                floatArray[i] = buffer.getFloat();
+            }
+        }
+        else if (componentType == Short.class) {
+            Short[] shortArray = (Short[])outputArray;
+            for (int i = startIndex; i < endIndex; i = i + 1) {
+                shortArray[i] = buffer.getShort();
+            }
+        }
+        else if (componentType == Byte.class) {
+            Byte[] byteArray = (Byte[])outputArray;
+            for (int i = startIndex; i < endIndex; i = i + 1) {
+                byteArray[i] = inputBytes[i];
+            }
+        }
+    }
+}
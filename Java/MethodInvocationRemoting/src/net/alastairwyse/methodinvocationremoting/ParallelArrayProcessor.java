@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Splits the elements of an array into contiguous chunks, and processes the chunks in parallel on a ForkJoinPool.
+ * @author Alastair Wyse
+ */
+class ParallelArrayProcessor {
+
+    /** The number of chunks created for each thread of the pool, so that the work is still spread evenly if some chunks take longer to process than others. */
+    private final int chunksPerThread = 4;
+
+    private ForkJoinPool pool;
+
+    /**
+     * Encapsulates an operation performed on a chunk of the elements of an array.
+     * @param <T>  The type of the result of the operation.
+     */
+    public interface IChunkOperation<T> {
+
+        /**
+         * Processes the elements of the array between the specified indices.
+         * @param startIndex  The index of the first element of the chunk.
+         * @param endIndex    The index after the last element of the chunk.
+         * @return            The result of processing the chunk.
+         * @throws Exception
+         */
+        public T Process(int startIndex, int endIndex) throws Exception;
+    }
+
+    /**
+     * Initialises a new instance of the ParallelArrayProcessor class, which processes chunks on the common ForkJoinPool.
+     */
+    public ParallelArrayProcessor() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Initialises a new instance of the ParallelArrayProcessor class.
+     * @param pool  The pool to process chunks on.
+     */
+    public ParallelArrayProcessor(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Indicates whether an array should be processed in parallel.
+     * @param length     The number of elements in the array.
+     * @param threshold  The minimum number of elements for an array to be processed in parallel, or 0 if arrays should never be processed in parallel.
+     * @return           Whether the array should be processed in parallel.
+     */
+    public boolean IsParallel(int length, int threshold) {
+        return (threshold > 0) && (length >= threshold) && (length > 1);
+    }
+
+    /**
+     * Processes the elements of an array in chunks in parallel.
+     * @param length      The number of elements in the array.
+     * @param operation   The operation to perform on each chunk.
+     * @return            The results of the operation for each chunk, in the order of the chunks in the array.
+     * @throws Exception  if the operation fails for any of the chunks.
+     */
+    public <T> List<T> Process(int length, final IChunkOperation<T> operation) throws Exception {
+        int chunkCount = (int)Math.min((long)Math.max(pool.getParallelism(), 1) * chunksPerThread, length);
+        int chunkSize = (int)(((long)length + chunkCount - 1) / chunkCount);
+        ArrayList<Callable<T>> chunkTasks = new ArrayList<Callable<T>>(chunkCount);
+        for (int i = 0; i < length; i = i + chunkSize) {
+            final int startIndex = i;
+            final int endIndex = (int)Math.min((long)i + chunkSize, length);
+            chunkTasks.add(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return operation.Process(startIndex, endIndex);
+                }
+            });
+        }
+
+        List<Future<T>> chunkResults = pool.invokeAll(chunkTasks);
+        ArrayList<T> returnResults = new ArrayList<T>(chunkResults.size());
+        for (Future<T> currentResult : chunkResults) {
+            try {
+                returnResults.add(currentResult.get());
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception)e.getCause();
+                }
+                else {
+                    throw new Exception("Failed to process array chunk.", e.getCause());
+                }
+            }
+        }
+
+        return returnResults;
+    }
+}
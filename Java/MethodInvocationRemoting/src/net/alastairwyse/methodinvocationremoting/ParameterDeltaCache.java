@@ -0,0 +1,538 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.lang.reflect.Array;
+import java.math.*;
+import java.util.*;
+
+/**
+ * Holds the parameters of the last method invocation sent and received for each method name over a connection, so that a MethodInvocationRemoteSender can send only the parameters (or ranges of array parameters) which have changed since the previous invocation of the same method, and a MethodInvocationRemoteReceiver can reconstruct the complete method invocation.
+ * <p>
+ * Changes are detected for parameters of the standard types (i.e. Integer, String, Byte, Short, Long, Float, Double, Character, Boolean, BigDecimal, and GregorianCalendar), arrays of the standard types, and arrays of primitive types.  Parameters of other types are sent in full in every invocation.  As the sender holds a copy of each parameter, array parameters which are modified in place between invocations are also detected.  An array parameter with a single contiguous range of changed elements is sent as that range, if the range covers less than half of the array.
+ * </p>
+ * <p>
+ * A method invocation containing changes is sent as a method invocation with the method name prefixed by '@delta:', which any IMethodInvocationSerializer can serialize.  Each such method invocation has a randomly initialised version, and refers to the version of the previous invocation which it contains changes from.  If the receiver does not hold that version (e.g. because it has been restarted), it responds to the sender, which then sends the method invocation in full.  Calling Reset() (or ConnectionEstablished(), which occurs when the cache is added as a connection established event handler of a TcpRemoteSender) causes the next invocation of each method to be sent in full.
+ * </p>
+ * @author Alastair Wyse
+ */
+public class ParameterDeltaCache implements IConnectionEstablishedEventHandler {
+    
+    /** Prefixed to the method name of a method invocation containing changes. */
+    private final String deltaMethodNamePrefix = "@delta:";
+    /** The response sent by the receiver when it does not hold the version that a method invocation contains changes from.  Cannot be mistaken for a serialized return value, as it is neither an XML document nor base64 encoded. */
+    private final String baseVersionMismatchResponse = "!DeltaBaseVersionMismatch";
+    /** The version used to indicate that a method invocation does not contain changes from a previous version (i.e. all parameters are sent in full). */
+    private final long noBaseVersion = 0;
+    // Values added to twice the parameter index to indicate whether the parameter is followed by its full value, or by the start index and elements of a changed range of an array
+    private final int fullValueIndicator = 0;
+    private final int arrayRangeIndicator = 1;
+    // The number of parameters of a method invocation containing changes which precede the changed parameters (the version, the base version, and the parameter count)
+    private final int headerParameterCount = 3;
+    
+    /** Indicates a parameter whose value is not held, as changes to values of its type are not detected. */
+    private final Object notHeld = new Object();
+    
+    /** Maps method names to the parameters of the last invocation sent and acknowledged by the receiver. */
+    private HashMap<String, ParameterSnapshot> sentSnapshots;
+    /** Maps method names to the parameters of the last invocation sent but not yet acknowledged. */
+    private HashMap<String, ParameterSnapshot> pendingSnapshots;
+    /** Maps method names to the parameters of the last invocation received. */
+    private HashMap<String, ParameterSnapshot> receivedSnapshots;
+    private long nextVersion;
+    private PackedArrayCodec packedArrayCodec;
+    
+    /**
+     * Initialises a new instance of the ParameterDeltaCache class.
+     */
+    public ParameterDeltaCache() {
+        sentSnapshots = new HashMap<String, ParameterSnapshot>();
+        pendingSnapshots = new HashMap<String, ParameterSnapshot>();
+        receivedSnapshots = new HashMap<String, ParameterSnapshot>();
+        // Start from a random version, so that a receiver which holds parameters sent by a previous instance (e.g. before the process was restarted) does not mistake the versions of this instance for those of the previous instance
+        nextVersion = new Random().nextLong();
+        packedArrayCodec = new PackedArrayCodec();
+    }
+    
+    /**
+     * Discards the parameters held for the method invocations sent, so that the next invocation of each method is sent in full.
+     */
+    public synchronized void Reset() {
+        sentSnapshots.clear();
+        pendingSnapshots.clear();
+    }
+    
+    @Override
+    public void ConnectionEstablished(Object source) {
+        Reset();
+    }
+    
+    /**
+     * @return  The response sent by the receiver when it does not hold the version that a method invocation contains changes from.
+     */
+    String getBaseVersionMismatchResponse() {
+        return baseVersionMismatchResponse;
+    }
+    
+    /**
+     * Indicates whether the specified method invocation can be sent as changes from a previous invocation (i.e. whether it has parameters).
+     * @param inputMethodInvocation  The method invocation.
+     * @return                       Whether the method invocation can be encoded.
+     */
+    boolean CanEncode(IMethodInvocation inputMethodInvocation) {
+        return (inputMethodInvocation.getParameters() != null) && (inputMethodInvocation.getParameters().length > 0);
+    }
+    
+    /**
+     * Indicates whether the specified received method invocation contains changes from a previous invocation.
+     * @param inputMethodInvocation  The method invocation.
+     * @return                       Whether the method invocation contains changes.
+     */
+    boolean IsEncoded(IMethodInvocation inputMethodInvocation) {
+        return inputMethodInvocation.getName().startsWith(deltaMethodNamePrefix);
+    }
+    
+    /**
+     * Creates a method invocation containing the parameters of the specified method invocation which have changed since the last acknowledged invocation of the same method, and holds the parameters until the invocation is acknowledged by calling Commit().
+     * @param inputMethodInvocation  The method invocation.  Must have parameters.
+     * @param sendInFull             Whether to include all parameters, regardless of whether they have changed.
+     * @return                       The method invocation containing the changes.
+     * @throws Exception             if an error occurs copying the parameters.
+     */
+    synchronized MethodInvocation Encode(IMethodInvocation inputMethodInvocation, boolean sendInFull) throws Exception {
+        String methodName = inputMethodInvocation.getName();
+        Object[] parameters = inputMethodInvocation.getParameters();
+        ParameterSnapshot baseSnapshot = null;
+        if (sendInFull == false) {
+            baseSnapshot = sentSnapshots.get(methodName);
+            if ((baseSnapshot != null) && (baseSnapshot.getValues().length != parameters.length)) {
+                baseSnapshot = null;
+            }
+        }
+        
+        ParameterSnapshot newSnapshot = new ParameterSnapshot(GetNextVersion(), new Object[parameters.length]);
+        ArrayList<Object> encodedParameters = new ArrayList<Object>();
+        encodedParameters.add(newSnapshot.getVersion());
+        if (baseSnapshot == null) {
+            encodedParameters.add(noBaseVersion);
+        }
+        else {
+            encodedParameters.add(baseSnapshot.getVersion());
+        }
+        encodedParameters.add(parameters.length);
+        for (int i = 0; i < parameters.length; i = i + 1) {
+            newSnapshot.getValues()[i] = CreateHeldValue(parameters[i]);
+            if (baseSnapshot == null) {
+                AddFullValue(i, parameters[i], encodedParameters);
+            }
+            else {
+                AddChanges(i, parameters[i], baseSnapshot.getValues()[i], newSnapshot.getValues()[i], encodedParameters);
+            }
+        }
+        pendingSnapshots.put(methodName, newSnapshot);
+        
+        return new MethodInvocation(deltaMethodNamePrefix + methodName, encodedParameters.toArray(), inputMethodInvocation.getReturnType());
+    }
+    
+    /**
+     * Records that the last method invocation encoded for the specified method was received, so that subsequent invocations can be sent as changes from it.
+     * @param methodName  The name of the method.
+     */
+    synchronized void Commit(String methodName) {
+        ParameterSnapshot pendingSnapshot = pendingSnapshots.remove(methodName);
+        if (pendingSnapshot != null) {
+            sentSnapshots.put(methodName, pendingSnapshot);
+        }
+    }
+    
+    /**
+     * Discards the parameters held for the specified method, so that the next invocation of the method is sent in full (e.g. after a failure to send an invocation).
+     * @param methodName  The name of the method.
+     */
+    synchronized void Discard(String methodName) {
+        sentSnapshots.remove(methodName);
+        pendingSnapshots.remove(methodName);
+    }
+    
+    /**
+     * Reconstructs the complete method invocation from a received method invocation containing changes, and the parameters of the previous invocation of the same method.
+     * @param encodedMethodInvocation  The method invocation containing changes.
+     * @return                         The complete method invocation, or null if the parameters of the version that the method invocation contains changes from are not held.
+     * @throws Exception               if the method invocation containing changes is invalid.
+     */
+    synchronized MethodInvocation Decode(IMethodInvocation encodedMethodInvocation) throws Exception {
+        String methodName = encodedMethodInvocation.getName().substring(deltaMethodNamePrefix.length());
+        Object[] encodedParameters = encodedMethodInvocation.getParameters();
+        if ((encodedParameters == null) || (encodedParameters.length < headerParameterCount) || (encodedParameters[0] instanceof Long == false) || (encodedParameters[1] instanceof Long == false) || (encodedParameters[2] instanceof Integer == false)) {
+            throw new Exception("Method invocation '" + encodedMethodInvocation.getName() + "' does not contain a valid version header.");
+        }
+        long version = (Long)encodedParameters[0];
+        long baseVersion = (Long)encodedParameters[1];
+        int parameterCount = (Integer)encodedParameters[2];
+        if (parameterCount < 1) {
+            throw new Exception("Method invocation '" + encodedMethodInvocation.getName() + "' contains invalid parameter count " + parameterCount + ".");
+        }
+        ParameterSnapshot baseSnapshot = null;
+        if (baseVersion != noBaseVersion) {
+            baseSnapshot = receivedSnapshots.get(methodName);
+            if ((baseSnapshot == null) || (baseSnapshot.getVersion() != baseVersion) || (baseSnapshot.getValues().length != parameterCount)) {
+                return null;
+            }
+        }
+        
+        Object[] parameters = new Object[parameterCount];
+        ParameterSnapshot newSnapshot = new ParameterSnapshot(version, new Object[parameterCount]);
+        boolean[] parameterSet = new boolean[parameterCount];
+        int currentIndex = headerParameterCount;
+        while (currentIndex < encodedParameters.length) {
+            if (encodedParameters[currentIndex] instanceof Integer == false) {
+                throw new Exception("Expected a parameter indicator at position " + currentIndex + " of method invocation '" + encodedMethodInvocation.getName() + "'.");
+            }
+            int indicator = (Integer)encodedParameters[currentIndex];
+            int parameterIndex = indicator / 2;
+            if ((indicator < 0) || (parameterIndex >= parameterCount) || (parameterSet[parameterIndex] == true)) {
+                throw new Exception("Method invocation '" + encodedMethodInvocation.getName() + "' contains invalid parameter indicator " + indicator + ".");
+            }
+            parameterSet[parameterIndex] = true;
+            if (indicator % 2 == fullValueIndicator) {
+                CheckParameterAvailable(currentIndex + 1, encodedParameters, encodedMethodInvocation);
+                parameters[parameterIndex] = encodedParameters[currentIndex + 1];
+                newSnapshot.getValues()[parameterIndex] = CreateHeldValue(parameters[parameterIndex]);
+                currentIndex = currentIndex + 2;
+            }
+            else {
+                CheckParameterAvailable(currentIndex + 2, encodedParameters, encodedMethodInvocation);
+                if ((baseSnapshot == null) || (encodedParameters[currentIndex + 1] instanceof Integer == false)) {
+                    throw new Exception("Method invocation '" + encodedMethodInvocation.getName() + "' contains an invalid array range for parameter " + parameterIndex + ".");
+                }
+                newSnapshot.getValues()[parameterIndex] = ApplyArrayRange(baseSnapshot.getValues()[parameterIndex], (Integer)encodedParameters[currentIndex + 1], encodedParameters[currentIndex + 2]);
+                parameters[parameterIndex] = CreateParameterValue(newSnapshot.getValues()[parameterIndex]);
+                currentIndex = currentIndex + 3;
+            }
+        }
+        // Take the unchanged parameters from the previous invocation
+        for (int i = 0; i < parameterCount; i = i + 1) {
+            if (parameterSet[i] == false) {
+                if ((baseSnapshot == null) || (baseSnapshot.getValues()[i] == notHeld)) {
+                    throw new Exception("Method invocation '" + encodedMethodInvocation.getName() + "' does not contain parameter " + i + ", and the parameter is not held from a previous invocation.");
+                }
+                newSnapshot.getValues()[i] = baseSnapshot.getValues()[i];
+                parameters[i] = CreateParameterValue(baseSnapshot.getValues()[i]);
+            }
+        }
+        receivedSnapshots.put(methodName, newSnapshot);
+        
+        return new MethodInvocation(methodName, parameters, encodedMethodInvocation.getReturnType());
+    }
+    
+    /**
+     * Adds the full value of a parameter to the parameters of a method invocation containing changes.
+     * @param parameterIndex     The index of the parameter.
+     * @param value              The value of the parameter.
+     * @param encodedParameters  The parameters of the method invocation containing changes.
+     */
+    private void AddFullValue(int parameterIndex, Object value, ArrayList<Object> encodedParameters) {
+        encodedParameters.add(parameterIndex * 2 + fullValueIndicator);
+        encodedParameters.add(value);
+    }
+    
+    /**
+     * Adds the changes to a parameter since the previous invocation to the parameters of a method invocation containing changes.
+     * @param parameterIndex     The index of the parameter.
+     * @param value              The value of the parameter.
+     * @param baseHeldValue      The held value of the parameter in the previous invocation.
+     * @param newHeldValue       The held value of the parameter.
+     * @param encodedParameters  The parameters of the method invocation containing changes.
+     * @throws Exception
+     */
+    private void AddChanges(int parameterIndex, Object value, Object baseHeldValue, Object newHeldValue, ArrayList<Object> encodedParameters) throws Exception {
+        if ((baseHeldValue == notHeld) || (newHeldValue == notHeld)) {
+            AddFullValue(parameterIndex, value, encodedParameters);
+        }
+        else if ((newHeldValue instanceof PackedArray) && (baseHeldValue instanceof PackedArray)) {
+            PackedArray basePackedArray = (PackedArray)baseHeldValue;
+            PackedArray newPackedArray = (PackedArray)newHeldValue;
+            if ((basePackedArray.getComponentType() != newPackedArray.getComponentType()) || (basePackedArray.getLength() != newPackedArray.getLength())) {
+                AddFullValue(parameterIndex, value, encodedParameters);
+                return;
+            }
+            // Find the range of changed bytes, and convert to the range of changed elements
+            byte[] baseBytes = basePackedArray.getBytes();
+            byte[] newBytes = newPackedArray.getBytes();
+            int firstChangedByte = 0;
+            while ((firstChangedByte < newBytes.length) && (baseBytes[firstChangedByte] == newBytes[firstChangedByte])) {
+                firstChangedByte = firstChangedByte + 1;
+            }
+            if (firstChangedByte == newBytes.length) {
+                return;
+            }
+            int lastChangedByte = newBytes.length - 1;
+            while (baseBytes[lastChangedByte] == newBytes[lastChangedByte]) {
+                lastChangedByte = lastChangedByte - 1;
+            }
+            int elementSize = packedArrayCodec.GetElementSize(newPackedArray.getComponentType());
+            AddArrayRange(parameterIndex, value, newPackedArray.getLength(), firstChangedByte / elementSize, lastChangedByte / elementSize + 1, encodedParameters);
+        }
+        else if ((newHeldValue instanceof Object[]) && (baseHeldValue instanceof Object[])) {
+            Object[] baseArray = (Object[])baseHeldValue;
+            Object[] newArray = (Object[])newHeldValue;
+            if ((baseArray.getClass() != newArray.getClass()) || (baseArray.length != newArray.length)) {
+                AddFullValue(parameterIndex, value, encodedParameters);
+                return;
+            }
+            int firstChangedElement = 0;
+            while ((firstChangedElement < newArray.length) && (Objects.equals(baseArray[firstChangedElement], newArray[firstChangedElement]) == true)) {
+                firstChangedElement = firstChangedElement + 1;
+            }
+            if (firstChangedElement == newArray.length) {
+                return;
+            }
+            int lastChangedElement = newArray.length - 1;
+            while (Objects.equals(baseArray[lastChangedElement], newArray[lastChangedElement]) == true) {
+                lastChangedElement = lastChangedElement - 1;
+            }
+            AddArrayRange(parameterIndex, value, newArray.length, firstChangedElement, lastChangedElement + 1, encodedParameters);
+        }
+        else if ((newHeldValue instanceof PackedArray) || (newHeldValue instanceof Object[]) || (Objects.equals(baseHeldValue, newHeldValue) == false)) {
+            AddFullValue(parameterIndex, value, encodedParameters);
+        }
+    }
+    
+    /**
+     * Adds a changed range of an array parameter to the parameters of a method invocation containing changes, or the full value of the parameter if the range covers at least half of the array.
+     * @param parameterIndex     The index of the parameter.
+     * @param value              The value of the parameter.
+     * @param length             The length of the array.
+     * @param startIndex         The index of the first changed element.
+     * @param endIndex           The index after the last changed element.
+     * @param encodedParameters  The parameters of the method invocation containing changes.
+     */
+    private void AddArrayRange(int parameterIndex, Object value, int length, int startIndex, int endIndex, ArrayList<Object> encodedParameters) {
+        if ((endIndex - startIndex) * 2 >= length) {
+            AddFullValue(parameterIndex, value, encodedParameters);
+        }
+        else {
+            Object range = Array.newInstance(value.getClass().getComponentType(), endIndex - startIndex);
+            System.arraycopy(value, startIndex, range, 0, endIndex - startIndex);
+            encodedParameters.add(parameterIndex * 2 + arrayRangeIndicator);
+            encodedParameters.add(startIndex);
+            encodedParameters.add(range);
+        }
+    }
+    
+    /**
+     * Applies a changed range of an array parameter to the held value of the parameter in the previous invocation.
+     * @param baseHeldValue  The held value of the parameter in the previous invocation.
+     * @param startIndex     The index of the first changed element.
+     * @param range          The changed elements.
+     * @return               The held value of the parameter.
+     * @throws Exception     if the range does not match the held value.
+     */
+    private Object ApplyArrayRange(Object baseHeldValue, int startIndex, Object range) throws Exception {
+        if ((range == null) || (range.getClass().isArray() == false)) {
+            throw new Exception("Array range is not an array.");
+        }
+        int rangeLength = Array.getLength(range);
+        
+        if (baseHeldValue instanceof PackedArray) {
+            PackedArray basePackedArray = (PackedArray)baseHeldValue;
+            if ((range.getClass().getComponentType() != basePackedArray.getComponentType()) || (startIndex < 0) || ((long)startIndex + rangeLength > basePackedArray.getLength())) {
+                throw new Exception("Array range of type '" + range.getClass().getName() + "' starting at index " + startIndex + " does not match the previous value of the parameter.");
+            }
+            int elementSize = packedArrayCodec.GetElementSize(basePackedArray.getComponentType());
+            byte[] newBytes = basePackedArray.getBytes().clone();
+            byte[] rangeBytes = packedArrayCodec.ToBytes(range);
+            System.arraycopy(rangeBytes, 0, newBytes, startIndex * elementSize, rangeBytes.length);
+            return new PackedArray(basePackedArray.getComponentType(), basePackedArray.getLength(), newBytes);
+        }
+        else if (baseHeldValue instanceof Object[]) {
+            Object[] baseArray = (Object[])baseHeldValue;
+            if ((range.getClass() != baseArray.getClass()) || (startIndex < 0) || ((long)startIndex + rangeLength > baseArray.length)) {
+                throw new Exception("Array range of type '" + range.getClass().getName() + "' starting at index " + startIndex + " does not match the previous value of the parameter.");
+            }
+            Object[] newArray = baseArray.clone();
+            Object[] rangeArray = (Object[])range;
+            for (int i = 0; i < rangeLength; i = i + 1) {
+                newArray[startIndex + i] = CopyElement(rangeArray[i]);
+            }
+            return newArray;
+        }
+        else {
+            throw new Exception("Array range was received for a parameter which was not previously an array.");
+        }
+    }
+    
+    /**
+     * Creates the value held for a parameter, which is a copy of the parameter, so that later changes to the parameter do not affect the held value.
+     * @param value       The value of the parameter.
+     * @return            The held value, or notHeld if changes to values of the type of the parameter are not detected.
+     * @throws Exception
+     */
+    private Object CreateHeldValue(Object value) throws Exception {
+        if (value == null) {
+            return null;
+        }
+        Class<?> valueType = value.getClass();
+        if (valueType.isArray() == true) {
+            Class<?> componentType = valueType.getComponentType();
+            if (componentType.isPrimitive() == true) {
+                return new PackedArray(componentType, Array.getLength(value), packedArrayCodec.ToBytes(value));
+            }
+            else if (IsStandardType(componentType) == true) {
+                Object[] heldArray = ((Object[])value).clone();
+                if (componentType == GregorianCalendar.class) {
+                    for (int i = 0; i < heldArray.length; i = i + 1) {
+                        heldArray[i] = CopyElement(heldArray[i]);
+                    }
+                }
+                return heldArray;
+            }
+            else {
+                return notHeld;
+            }
+        }
+        else if (IsStandardType(valueType) == true) {
+            return CopyElement(value);
+        }
+        else {
+            return notHeld;
+        }
+    }
+    
+    /**
+     * Creates a parameter value from a held value, which is a copy of the held value, so that changes to the parameter by the recipient of the method invocation do not affect the held value.
+     * @param heldValue   The held value.
+     * @return            The parameter value.
+     * @throws Exception
+     */
+    private Object CreateParameterValue(Object heldValue) throws Exception {
+        if (heldValue instanceof PackedArray) {
+            PackedArray packedArray = (PackedArray)heldValue;
+            if (packedArray.getComponentType() == byte.class) {
+                // PackedArrayCodec.FromBytes() returns the packed bytes themselves for byte arrays
+                return packedArray.getBytes().clone();
+            }
+            return packedArrayCodec.FromBytes(packedArray.getBytes(), packedArray.getLength(), packedArray.getComponentType());
+        }
+        else if (heldValue instanceof Object[]) {
+            Object[] parameterArray = ((Object[])heldValue).clone();
+            if (parameterArray.getClass().getComponentType() == GregorianCalendar.class) {
+                for (int i = 0; i < parameterArray.length; i = i + 1) {
+                    parameterArray[i] = CopyElement(parameterArray[i]);
+                }
+            }
+            return parameterArray;
+        }
+        else {
+            return CopyElement(heldValue);
+        }
+    }
+    
+    /**
+     * Copies a value of one of the standard types.  Only GregorianCalendar objects are copied, as the other standard types are immutable.
+     * @param value  The value.
+     * @return       The copy of the value.
+     */
+    private Object CopyElement(Object value) {
+        if (value instanceof GregorianCalendar) {
+            return ((GregorianCalendar)value).clone();
+        }
+        else {
+            return value;
+        }
+    }
+    
+    /**
+     * Indicates whether the specified type is one of the standard types, for which changes are detected.
+     * @param type  The type.
+     * @return      Whether the type is a standard type.
+     */
+    private boolean IsStandardType(Class<?> type) {
+        return (type == Integer.class) || (type == String.class) || (type == Byte.class) || (type == Short.class) || (type == Long.class) || (type == Float.class) || (type == Double.class) || (type == Character.class) || (type == Boolean.class) || (type == BigDecimal.class) || (type == GregorianCalendar.class);
+    }
+    
+    /**
+     * Throws an exception if a method invocation containing changes ends before the specified position.
+     */
+    private void CheckParameterAvailable(int position, Object[] encodedParameters, IMethodInvocation encodedMethodInvocation) throws Exception {
+        if (position >= encodedParameters.length) {
+            throw new Exception("Method invocation '" + encodedMethodInvocation.getName() + "' ended unexpectedly at position " + position + ".");
+        }
+    }
+    
+    /**
+     * @return  The next version, skipping the value used to indicate no base version.
+     */
+    private long GetNextVersion() {
+        if (nextVersion == noBaseVersion) {
+            nextVersion = nextVersion + 1;
+        }
+        long version = nextVersion;
+        nextVersion = nextVersion + 1;
+        return version;
+    }
+    
+    /**
+     * The version and held values of the parameters of a method invocation.
+     */
+    private class ParameterSnapshot {
+        
+        private long version;
+        private Object[] values;
+        
+        public ParameterSnapshot(long version, Object[] values) {
+            this.version = version;
+            this.values = values;
+        }
+        
+        public long getVersion() {
+            return version;
+        }
+        
+        public Object[] getValues() {
+            return values;
+        }
+    }
+    
+    /**
+     * The held value of a primitive array parameter, held as the packed bytes of its elements.
+     */
+    private class PackedArray {
+        
+        private Class<?> componentType;
+        private int length;
+        private byte[] bytes;
+        
+        public PackedArray(Class<?> componentType, int length, byte[] bytes) {
+            this.componentType = componentType;
+            this.length = length;
+            this.bytes = bytes;
+        }
+        
+        public Class<?> getComponentType() {
+            return componentType;
+        }
+        
+        public int getLength() {
+            return length;
+        }
+        
+        public byte[] getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.util.concurrent.*;
+
+/**
+ * Predicts the size of the next document serialized for a key (e.g. a method name, or the class of a return value), from the sizes of the documents previously serialized for the key, so that buffers can be allocated at the predicted size rather than being repeatedly grown and copied whilst the document is written.
+ * <p>
+ * The estimate for a key is a decaying maximum, i.e. the larger of the most recently recorded size and the previous estimate reduced by a decay factor.  Hence the estimate follows an increase in size immediately, and a decrease gradually.  As the estimates are only used to size buffers, they are updated without locking, and an update made concurrently with another update for the same key may be lost.
+ * </p>
+ * @author Alastair Wyse
+ */
+class PayloadSizeEstimator {
+
+    /** The proportion of the previous estimate retained when a smaller size is recorded. */
+    private final double decayFactor = 0.875;
+    /** The maximum number of keys to hold estimates for, so that the estimates cannot grow without bound if keys are generated dynamically. */
+    private final int maximumKeyCount = 4096;
+
+    private ConcurrentHashMap<Object, Integer> estimates;
+
+    /**
+     * Initialises a new instance of the PayloadSizeEstimator class.
+     */
+    public PayloadSizeEstimator() {
+        estimates = new ConcurrentHashMap<Object, Integer>();
+    }
+
+    /**
+     * Returns the predicted size of the next document serialized for the specified key.
+     * @param key  The key, or null if the document does not have a key.
+     * @return     The predicted size, or 0 if no sizes have been recorded for the key.
+     */
+    public int GetEstimate(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        Integer estimate = estimates.get(key);
+        if (estimate == null) {
+            return 0;
+        }
+        else {
+            return estimate;
+        }
+    }
+
+    /**
+     * Records the size of a document serialized for the specified key.
+     * @param key   The key, or null if the document does not have a key (in which case the size is not recorded).
+     * @param size  The size of the document.
+     */
+    public void Record(Object key, int size) {
+        if (key == null) {
+            return;
+        }
+        Integer previousEstimate = estimates.get(key);
+        if (previousEstimate == null) {
+            if (estimates.size() < maximumKeyCount) {
+                estimates.put(key, size);
+            }
+        }
+        else {
+            int decayedEstimate = (int)(previousEstimate * decayFactor);
+            estimates.put(key, Math.max(size, decayedEstimate));
+        }
+    }
+}
@@ -0,0 +1,559 @@
+/*
+ * Copyright 2015 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+import javax.xml.stream.*;
+
+/**
+ * Holds the objects used to write and read serialized documents, so they can be reused across serialize and deserialize operations on the same thread rather than being created for each operation.
+ * @author Alastair Wyse
+ */
+class SerializationContext {
+
+    private final String reuseInstancePropertyName = "reuse-instance";
+    private final int initialStreamBufferSize = 1024;
+    
+    /** Growable buffer that the XML writer writes to.  Reset rather than reallocated between operations. */
+    private DocumentCharArrayWriter outputBuffer;
+    private XMLStreamWriter writer;
+    private XMLInputFactory inputFactory;
+    private BinaryWriteBuffer binaryOutputBuffer;
+    /** Lightweight XML writer and reader, created when first used. */
+    private CharArrayXMLStreamWriter charArrayWriter;
+    private CharArrayXMLStreamReader charArrayReader;
+    /** Indicates whether the document currently being written is being written by the lightweight XML writer. */
+    private boolean charArrayWriterActive;
+    /** UTF-8 encoder and decoder used to convert documents to and from bytes, created when first used. */
+    private CharsetEncoder encoder;
+    private CharsetDecoder decoder;
+    /** Holds the characters of a document decoded from bytes. */
+    private char[] decodedDocument;
+    /** Holds the bytes of a document read from, or being written to a stream. */
+    private ByteBuffer streamBuffer;
+    /** Tracks the objects written to or read from the current document, created when first used. */
+    private ObjectReferenceTable referenceTable;
+    /** Indicates whether references are being tracked for the current document. */
+    private boolean referenceTrackingActive;
+    /** The session token dictionary used by the current document, or null if the document does not contain tokens. */
+    private SessionTokenDictionary tokenDictionary;
+    /** The generation of the session token dictionary that the current document belongs to. */
+    private int tokenGeneration;
+    /** Holds the tokens assigned to names first written in the current document, created when first used. */
+    private HashMap<String, Integer> documentTokens;
+    /** The attachments written to or referred to by the current document, or null if the document does not contain attachments. */
+    private List<Attachment> attachments;
+    /** Indicates whether the context is currently being used by a serialize or deserialize operation. */
+    public boolean inUse;
+    
+    /**
+     * Initialises a new instance of the SerializationContext class.
+     * @throws XMLStreamException  if an error occurs creating the XML writer.
+     */
+    public SerializationContext() throws XMLStreamException {
+        outputBuffer = new DocumentCharArrayWriter();
+        writer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputBuffer);
+        inputFactory = XMLInputFactory.newInstance();
+        // Set coalescing property so that text/character elements are are returned in a contiguous block
+        inputFactory.setProperty("javax.xml.stream.isCoalescing", true);
+        // If supported, allow the factory to reset and return the same XMLStreamReader on each call to createXMLStreamReader() (safe as the factory is confined to a single thread)
+        if (inputFactory.isPropertySupported(reuseInstancePropertyName) == true) {
+            inputFactory.setProperty(reuseInstancePropertyName, true);
+        }
+        binaryOutputBuffer = null;
+        charArrayWriter = null;
+        charArrayReader = null;
+        charArrayWriterActive = false;
+        encoder = null;
+        decoder = null;
+        decodedDocument = null;
+        streamBuffer = null;
+        referenceTable = null;
+        referenceTrackingActive = false;
+        tokenDictionary = null;
+        documentTokens = null;
+        attachments = null;
+        inUse = false;
+    }
+    
+    /**
+     * Clears the output buffer, and returns the XMLStreamWriter to write a new document to.
+     * @return  The XMLStreamWriter.
+     */
+    public XMLStreamWriter BeginWrite() {
+        return BeginWrite(false);
+    }
+    
+    /**
+     * Clears the output buffer, and returns the XMLStreamWriter to write a new document to.
+     * @param useCharArrayXml  Whether to return the lightweight CharArrayXMLStreamWriter rather than the javax.xml.stream implementation.
+     * @return                 The XMLStreamWriter.
+     */
+    public XMLStreamWriter BeginWrite(boolean useCharArrayXml) {
+        return BeginWrite(useCharArrayXml, 0);
+    }
+    
+    /**
+     * Clears the output buffer, ensures it has capacity for a document of the specified length, and returns the XMLStreamWriter to write a new document to.
+     * @param useCharArrayXml  Whether to return the lightweight CharArrayXMLStreamWriter rather than the javax.xml.stream implementation.
+     * @param expectedLength   The expected length of the document in characters, or 0 if not known.
+     * @return                 The XMLStreamWriter.
+     */
+    public XMLStreamWriter BeginWrite(boolean useCharArrayXml, int expectedLength) {
+        charArrayWriterActive = useCharArrayXml;
+        if (useCharArrayXml == true) {
+            if (charArrayWriter == null) {
+                charArrayWriter = new CharArrayXMLStreamWriter();
+            }
+            charArrayWriter.Reset();
+            charArrayWriter.EnsureCapacity(expectedLength);
+            return charArrayWriter;
+        }
+        outputBuffer.reset();
+        outputBuffer.EnsureCapacity(expectedLength);
+        return writer;
+    }
+    
+    /**
+     * Returns the length of the document written since the last call to BeginWrite().  Must be called after EndWrite(), so that the XMLStreamWriter has been flushed.
+     * @return  The length of the document in characters.
+     */
+    public int getWriteLength() {
+        if (charArrayWriterActive == true) {
+            return charArrayWriter.getLength();
+        }
+        return outputBuffer.size();
+    }
+    
+    /**
+     * Flushes the XMLStreamWriter and returns the document written since the last call to BeginWrite().
+     * @return                     The written document.
+     * @throws XMLStreamException  if an error occurs flushing the XMLStreamWriter.
+     */
+    public String EndWrite() throws XMLStreamException {
+        if (charArrayWriterActive == true) {
+            return charArrayWriter.ToDocumentString();
+        }
+        writer.flush();
+        return outputBuffer.toString();
+    }
+    
+    /**
+     * Flushes the XMLStreamWriter and writes the document written since the last call to BeginWrite() to the specified buffer, encoded as UTF-8.
+     * @param targetBuffer               The buffer to write to, starting at its current position.
+     * @return                           The buffer written to (either the specified buffer, or a newly allocated larger buffer if the specified buffer had insufficient space remaining), positioned after the last byte written.
+     * @throws XMLStreamException        if an error occurs flushing the XMLStreamWriter.
+     * @throws CharacterCodingException  if an error occurs encoding the document.
+     */
+    public ByteBuffer EndWrite(ByteBuffer targetBuffer) throws XMLStreamException, CharacterCodingException {
+        if (charArrayWriterActive == true) {
+            return Encode(charArrayWriter.getBuffer(), charArrayWriter.getLength(), targetBuffer);
+        }
+        writer.flush();
+        return Encode(outputBuffer.getBuffer(), outputBuffer.size(), targetBuffer);
+    }
+    
+    /**
+     * Flushes the XMLStreamWriter and writes the document written since the last call to BeginWrite() to the specified stream, encoded as UTF-8.
+     * @param outputStream               The stream to write to.
+     * @return                           The number of bytes written.
+     * @throws XMLStreamException        if an error occurs flushing the XMLStreamWriter.
+     * @throws CharacterCodingException  if an error occurs encoding the document.
+     * @throws IOException               if an error occurs writing to the stream.
+     */
+    public int EndWrite(OutputStream outputStream) throws XMLStreamException, CharacterCodingException, IOException {
+        ByteBuffer encodedDocument = EndWrite(GetStreamBuffer());
+        streamBuffer = encodedDocument;
+        outputStream.write(encodedDocument.array(), encodedDocument.arrayOffset(), encodedDocument.position());
+        
+        return encodedDocument.position();
+    }
+    
+    /**
+     * Creates an XMLStreamReader to read the specified document.
+     * @param document             The XML document to read.
+     * @return                     The XMLStreamReader.
+     * @throws XMLStreamException  if an error occurs creating the XMLStreamReader.
+     */
+    public XMLStreamReader CreateReader(String document) throws XMLStreamException {
+        return CreateReader(document, false);
+    }
+    
+    /**
+     * Creates an XMLStreamReader to read the specified document.
+     * @param document             The XML document to read.
+     * @param useCharArrayXml      Whether to return the lightweight CharArrayXMLStreamReader rather than the javax.xml.stream implementation.
+     * @return                     The XMLStreamReader.
+     * @throws XMLStreamException  if an error occurs creating the XMLStreamReader.
+     */
+    public XMLStreamReader CreateReader(String document, boolean useCharArrayXml) throws XMLStreamException {
+        if (useCharArrayXml == true) {
+            if (charArrayReader == null) {
+                charArrayReader = new CharArrayXMLStreamReader();
+            }
+            charArrayReader.Reset(document);
+            return charArrayReader;
+        }
+        return inputFactory.createXMLStreamReader(new StringReader(document));
+    }
+    
+    /**
+     * Creates an XMLStreamReader to read the specified UTF-8 encoded document.
+     * @param document                   Buffer containing the XML document to read, between its current position and limit.  The position of the buffer is advanced to its limit.
+     * @param useCharArrayXml            Whether to return the lightweight CharArrayXMLStreamReader rather than the javax.xml.stream implementation.
+     * @return                           The XMLStreamReader.
+     * @throws XMLStreamException        if an error occurs creating the XMLStreamReader.
+     * @throws CharacterCodingException  if an error occurs decoding the document.
+     */
+    public XMLStreamReader CreateReader(ByteBuffer document, boolean useCharArrayXml) throws XMLStreamException, CharacterCodingException {
+        int documentLength = Decode(document);
+        if (useCharArrayXml == true) {
+            if (charArrayReader == null) {
+                charArrayReader = new CharArrayXMLStreamReader();
+            }
+            charArrayReader.Reset(decodedDocument, documentLength);
+            return charArrayReader;
+        }
+        return inputFactory.createXMLStreamReader(new CharArrayReader(decodedDocument, 0, documentLength));
+    }
+    
+    /**
+     * Creates an XMLStreamReader which reads the specified UTF-8 encoded document directly from a stream, parsing the document as it is read rather than first reading the complete stream.
+     * @param document             Stream containing the XML document to read.
+     * @return                     The XMLStreamReader.
+     * @throws XMLStreamException  if an error occurs creating the XMLStreamReader.
+     */
+    public XMLStreamReader CreateReader(InputStream document) throws XMLStreamException {
+        return inputFactory.createXMLStreamReader(document, StandardCharsets.UTF_8.name());
+    }
+    
+    /**
+     * Reads the specified stream until its end.
+     * @param inputStream   The stream to read.
+     * @return              Buffer containing the bytes read, between its position and limit.  The buffer is reused by subsequent operations on the context.
+     * @throws IOException  if an error occurs reading from the stream.
+     */
+    public ByteBuffer ReadStream(InputStream inputStream) throws IOException {
+        ByteBuffer readBuffer = GetStreamBuffer();
+        
+        while (true) {
+            readBuffer = EnsureRemaining(readBuffer, 1);
+            int bytesRead = inputStream.read(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), readBuffer.remaining());
+            if (bytesRead == -1) {
+                break;
+            }
+            readBuffer.position(readBuffer.position() + bytesRead);
+        }
+        streamBuffer = readBuffer;
+        readBuffer.flip();
+        
+        return readBuffer;
+    }
+    
+    /**
+     * Ensures that the specified buffer has at least the specified number of bytes remaining, allocating a larger buffer if required.
+     * @param buffer  The buffer.
+     * @param length  The number of bytes required.
+     * @return        Either the specified buffer, or if it has insufficient space remaining, a newly allocated larger buffer containing the contents of the specified buffer before its position (the specified buffer is not modified).
+     */
+    public ByteBuffer EnsureRemaining(ByteBuffer buffer, int length) {
+        if (buffer.remaining() >= length) {
+            return buffer;
+        }
+        
+        int newCapacity = buffer.capacity() * 2;
+        if (newCapacity < buffer.position() + length) {
+            newCapacity = buffer.position() + length;
+        }
+        ByteBuffer newBuffer;
+        if (buffer.isDirect() == true) {
+            newBuffer = ByteBuffer.allocateDirect(newCapacity);
+        }
+        else {
+            newBuffer = ByteBuffer.allocate(newCapacity);
+        }
+        newBuffer.order(buffer.order());
+        ByteBuffer existingContents = buffer.duplicate();
+        existingContents.flip();
+        newBuffer.put(existingContents);
+        
+        return newBuffer;
+    }
+    
+    /**
+     * Clears and returns the buffer used to write binary documents.
+     * @return  The binary output buffer.
+     */
+    public BinaryWriteBuffer BeginBinaryWrite() {
+        return BeginBinaryWrite(0);
+    }
+    
+    /**
+     * Clears and returns the buffer used to write binary documents, ensuring it has capacity for a document of the specified length.
+     * @param expectedLength  The expected length of the document in bytes, or 0 if not known.
+     * @return                The binary output buffer.
+     */
+    public BinaryWriteBuffer BeginBinaryWrite(int expectedLength) {
+        if (binaryOutputBuffer == null) {
+            binaryOutputBuffer = new BinaryWriteBuffer();
+        }
+        binaryOutputBuffer.Reset();
+        binaryOutputBuffer.EnsureCapacity(expectedLength);
+        return binaryOutputBuffer;
+    }
+    
+    /**
+     * Clears and returns the table used to track the objects written to or read from the current document.
+     * @return  The reference table.
+     */
+    public ObjectReferenceTable BeginReferenceTracking() {
+        if (referenceTable == null) {
+            referenceTable = new ObjectReferenceTable();
+        }
+        referenceTable.Clear();
+        referenceTrackingActive = true;
+        return referenceTable;
+    }
+    
+    /**
+     * Stops tracking references for the current document, and clears the reference table so that the objects in it can be garbage collected.
+     */
+    public void EndReferenceTracking() {
+        if (referenceTrackingActive == true) {
+            referenceTable.Clear();
+            referenceTrackingActive = false;
+        }
+    }
+    
+    /**
+     * @return  The table used to track the objects written to or read from the current document, or null if references are not being tracked.
+     */
+    public ObjectReferenceTable getReferenceTable() {
+        if (referenceTrackingActive == true) {
+            return referenceTable;
+        }
+        else {
+            return null;
+        }
+    }
+    
+    /**
+     * Begins using the specified session token dictionary for the current document.
+     * @param tokenDictionary  The session token dictionary.
+     * @param generation       The generation of the dictionary that the current document belongs to.
+     */
+    public void BeginTokenTracking(SessionTokenDictionary tokenDictionary, int generation) {
+        if (documentTokens == null) {
+            documentTokens = new HashMap<String, Integer>();
+        }
+        documentTokens.clear();
+        this.tokenDictionary = tokenDictionary;
+        tokenGeneration = generation;
+    }
+    
+    /**
+     * Stops using the session token dictionary for the current document.  If the document was written, the tokens assigned to names first written in it are committed to the dictionary.
+     */
+    public void EndTokenTracking() {
+        if (tokenDictionary != null) {
+            if (documentTokens.isEmpty() == false) {
+                tokenDictionary.CommitWritten(documentTokens, tokenGeneration);
+                documentTokens.clear();
+            }
+            tokenDictionary = null;
+        }
+    }
+    
+    /**
+     * @return  The session token dictionary used by the current document, or null if the document does not contain tokens.
+     */
+    public SessionTokenDictionary getTokenDictionary() {
+        return tokenDictionary;
+    }
+    
+    /**
+     * @return  The generation of the session token dictionary that the current document belongs to.
+     */
+    public int getTokenGeneration() {
+        return tokenGeneration;
+    }
+    
+    /**
+     * @return  The tokens assigned to names first written in the current document.
+     */
+    public HashMap<String, Integer> getDocumentTokens() {
+        return documentTokens;
+    }
+    
+    /**
+     * Begins collecting the attachments written to the current document, or provides the attachments referred to by the document being read.
+     * @param attachments  The list to add attachments written to, or the attachments referred to by the document being read.
+     */
+    public void BeginAttachments(List<Attachment> attachments) {
+        this.attachments = attachments;
+    }
+    
+    /**
+     * Stops collecting or providing attachments, releasing the list specified in the call to BeginAttachments().
+     */
+    public void EndAttachments() {
+        attachments = null;
+    }
+    
+    /**
+     * Adds an attachment written to the current document to the list of attachments, unless the same instance has already been added.
+     * @param attachment  The attachment.
+     * @return            The index of the attachment in the list.
+     * @throws Exception  if attachments are not being collected for the current document.
+     */
+    public int AddAttachment(Attachment attachment) throws Exception {
+        if (attachments == null) {
+            throw new Exception("Attachments can only be serialized by the overloads of methods Serialize() and SerializeReturnValue() which accept a list of attachments.");
+        }
+        int index = attachments.indexOf(attachment);
+        if (index == -1) {
+            attachments.add(attachment);
+            index = attachments.size() - 1;
+        }
+        
+        return index;
+    }
+    
+    /**
+     * Returns an attachment referred to by the document being read.
+     * @param index       The index of the attachment.
+     * @return            The attachment.
+     * @throws Exception  if the document was not read with attachments, or the index is outside the range of the attachments.
+     */
+    public Attachment GetAttachment(int index) throws Exception {
+        if (attachments == null) {
+            throw new Exception("Encountered attachment " + index + " in a document which was not read with attachments.");
+        }
+        if ((index < 0) || (index >= attachments.size())) {
+            throw new Exception("Encountered attachment " + index + " but only " + attachments.size() + " attachments were read with the document.");
+        }
+        
+        return attachments.get(index);
+    }
+    
+    /**
+     * Encodes the specified characters as UTF-8, writing them to the specified buffer.
+     * @param characters    The characters to encode.
+     * @param length        The number of characters to encode.
+     * @param targetBuffer  The buffer to write to, starting at its current position.
+     * @return              The buffer written to (either the specified buffer, or a newly allocated larger buffer if the specified buffer had insufficient space remaining), positioned after the last byte written.
+     * @throws CharacterCodingException  if an error occurs encoding the characters.
+     */
+    private ByteBuffer Encode(char[] characters, int length, ByteBuffer targetBuffer) throws CharacterCodingException {
+        if (encoder == null) {
+            // Replace unpaired surrogates, consistent with String.getBytes()
+            encoder = StandardCharsets.UTF_8.newEncoder();
+            encoder.onMalformedInput(CodingErrorAction.REPLACE);
+            encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        encoder.reset();
+        CharBuffer source = CharBuffer.wrap(characters, 0, length);
+        // Most documents consist mainly of single byte characters, so initially assume 1 byte per character, and expand the buffer if it overflows
+        targetBuffer = EnsureRemaining(targetBuffer, length);
+        
+        CoderResult result = encoder.encode(source, targetBuffer, true);
+        while (result.isOverflow() == true) {
+            targetBuffer = EnsureRemaining(targetBuffer, (int)(source.remaining() * encoder.maxBytesPerChar()) + 1);
+            result = encoder.encode(source, targetBuffer, true);
+        }
+        if (result.isError() == true) {
+            result.throwException();
+        }
+        result = encoder.flush(targetBuffer);
+        if (result.isOverflow() == true) {
+            targetBuffer = EnsureRemaining(targetBuffer, (int)encoder.maxBytesPerChar());
+            result = encoder.flush(targetBuffer);
+        }
+        
+        return targetBuffer;
+    }
+    
+    /**
+     * Decodes the specified UTF-8 encoded bytes into the decoded document buffer.
+     * @param document                   Buffer containing the bytes to decode, between its current position and limit.  The position of the buffer is advanced to its limit.
+     * @return                           The number of characters decoded.
+     * @throws CharacterCodingException  if an error occurs decoding the bytes.
+     */
+    private int Decode(ByteBuffer document) throws CharacterCodingException {
+        if (decoder == null) {
+            // Replace malformed sequences, consistent with the String(byte[], String) constructor
+            decoder = StandardCharsets.UTF_8.newDecoder();
+            decoder.onMalformedInput(CodingErrorAction.REPLACE);
+            decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        decoder.reset();
+        int maximumLength = (int)(document.remaining() * decoder.maxCharsPerByte()) + 1;
+        if ((decodedDocument == null) || (decodedDocument.length < maximumLength)) {
+            decodedDocument = new char[maximumLength];
+        }
+        CharBuffer target = CharBuffer.wrap(decodedDocument);
+        
+        CoderResult result = decoder.decode(document, target, true);
+        if ((result.isError() == true) || (result.isOverflow() == true)) {
+            result.throwException();
+        }
+        result = decoder.flush(target);
+        if (result.isOverflow() == true) {
+            result.throwException();
+        }
+        
+        return target.position();
+    }
+    
+    /**
+     * Clears and returns the buffer used to read and write documents from and to streams.
+     * @return  The stream buffer.
+     */
+    private ByteBuffer GetStreamBuffer() {
+        if (streamBuffer == null) {
+            streamBuffer = ByteBuffer.allocate(initialStreamBufferSize);
+        }
+        streamBuffer.clear();
+        return streamBuffer;
+    }
+    
+    /**
+     * CharArrayWriter which provides access to its underlying character buffer, so that the written document can be encoded without first being copied.
+     */
+    private class DocumentCharArrayWriter extends CharArrayWriter {
+        
+        /**
+         * @return  The buffer containing the written characters.  Only the characters up to size() are valid.
+         */
+        public char[] getBuffer() {
+            return buf;
+        }
+        
+        /**
+         * Ensures the buffer has space for at least the specified number of additional characters, expanding it if required.
+         * @param additionalLength  The number of additional characters.
+         */
+        public void EnsureCapacity(int additionalLength) {
+            if (count + additionalLength > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + additionalLength));
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import javax.xml.stream.*;
+
+/**
+ * Provides a SerializationContext per thread, which is reused by all serialize and deserialize operations performed on that thread.
+ * @author Alastair Wyse
+ */
+class SerializationContextProvider {
+
+    private ThreadLocal<SerializationContext> threadSerializationContext;
+    
+    /**
+     * Initialises a new instance of the SerializationContextProvider class.
+     */
+    public SerializationContextProvider() {
+        threadSerializationContext = new ThreadLocal<SerializationContext>();
+    }
+    
+    /**
+     * Retrieves the serialization context for the current thread, creating it if it does not exist, and marks it as in use.
+     * If the context for the current thread is already in use (i.e. in the case of a reentrant call from an IObjectSerializer), a new temporary context is returned.
+     * @return                     The serialization context.
+     * @throws XMLStreamException  if an error occurs creating the XML writer for a new context.
+     */
+    public SerializationContext Acquire() throws XMLStreamException {
+        SerializationContext context = threadSerializationContext.get();
+        
+        if (context == null) {
+            context = new SerializationContext();
+            threadSerializationContext.set(context);
+        }
+        else if (context.inUse == true) {
+            context = new SerializationContext();
+        }
+        context.inUse = true;
+        
+        return context;
+    }
+    
+    /**
+     * Returns the serialization context in use by the operation being performed on the current thread, for IObjectSerializer implementations which require the state of the operation.
+     * @return  The serialization context, or null if an operation is not being performed.
+     */
+    public SerializationContext GetCurrent() {
+        SerializationContext context = threadSerializationContext.get();
+        if ((context == null) || (context.inUse == false)) {
+            return null;
+        }
+        
+        return context;
+    }
+    
+    /**
+     * Marks the specified serialization context as no longer in use, so that it can be reused by subsequent operations on the current thread.
+     * @param context  The serialization context.
+     */
+    public void Release(SerializationContext context) {
+        context.inUse = false;
+    }
+    
+    /**
+     * Discards the specified serialization context after a failed operation, as the state of its XML writer cannot be relied on.
+     * @param context  The serialization context.  May be null if the failure occurred before the context was acquired.
+     */
+    public void Discard(SerializationContext context) {
+        if ((context != null) && (threadSerializationContext.get() == context)) {
+            threadSerializationContext.remove();
+        }
+    }
+}
@@ -73,8 +73,9 @@ public class SerializerOperationMap implements ISerializerOperationMap {
     
     @Override
     public String GetSerializedType(Class<?> nativeType) {
-        if (nativeToSerializedMap.containsKey(nativeType) == true) {
-            return nativeToSerializedMap.get(nativeType).serializedType;
+        SerializedTypeSerializerMap mapping = nativeToSerializedMap.get(nativeType);
+        if (mapping != null) {
+            return mapping.serializedType;
         }
         else {
             return null;
@@ -83,8 +84,9 @@ public class SerializerOperationMap implements ISerializerOperationMap {
     
     @Override
     public Class<?> GetNativeType(String serializedType) {
-        if (serializedToNativeMap.containsKey(serializedType) == true) {
-            return serializedToNativeMap.get(serializedType).nativeType;
+        NativeTypeSerializerMap mapping = serializedToNativeMap.get(serializedType);
+        if (mapping != null) {
+            return mapping.nativeType;
         }
         else {
             return null;
@@ -93,8 +95,9 @@ public class SerializerOperationMap implements ISerializerOperationMap {
 
     @Override
     public IObjectSerializer<?> GetSerializer(Class<?> nativeType) {
-        if (nativeToSerializedMap.containsKey(nativeType) == true) {
-            return nativeToSerializedMap.get(nativeType).objectSerializer;
+        SerializedTypeSerializerMap mapping = nativeToSerializedMap.get(nativeType);
+        if (mapping != null) {
+            return mapping.objectSerializer;
         }
         else {
             return null;
@@ -103,8 +106,9 @@ public class SerializerOperationMap implements ISerializerOperationMap {
 
     @Override
     public IObjectSerializer<?> GetSerializer(String serializedType) {
-        if (serializedToNativeMap.containsKey(serializedType) == true) {
-            return serializedToNativeMap.get(serializedType).objectSerializer;
+        NativeTypeSerializerMap mapping = serializedToNativeMap.get(serializedType);
+        if (mapping != null) {
+            return mapping.objectSerializer;
         }
         else {
             return null;
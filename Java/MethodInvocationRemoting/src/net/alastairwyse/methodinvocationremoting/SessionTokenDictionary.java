@@ -0,0 +1,182 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.util.*;
+
+/**
+ * Assigns integer tokens to the method names and serialized type names written by a BinaryMethodInvocationSerializer over the lifetime of a connection, so that after the first occurrence of a name, subsequent documents can contain only its token.
+ * <p>
+ * The dictionary holds separate state for the documents written (e.g. method invocations sent by a MethodInvocationRemoteSender) and the documents read (e.g. return values received by the same MethodInvocationRemoteSender).  The first occurrence of a name in a written document includes both the name and its token, and the token is only used alone in subsequent documents once the document containing the name has been successfully written.  Hence the documents written must be delivered to the remote dictionary in the order they were written.  If a document cannot be sent, RollBackWritten() discards the tokens first written in the documents written since the last call to ConfirmWritten(), so that the names are written in full again.  The MethodInvocationRemoteSender and MethodInvocationRemoteReceiver call these methods after each send operation when their serializer is a BinaryMethodInvocationSerializer with a dictionary set.
+ * </p>
+ * <p>
+ * Each set of written tokens belongs to a generation, which is included in each document.  Calling Reset() (or ConnectionEstablished(), which occurs when the dictionary is added as a connection established event handler of a TcpRemoteSender or TcpRemoteReceiver) starts a new generation, and the remote dictionary discards its tokens when it reads the first document of the new generation.  A document written before the reset (e.g. a message which is re-sent after reconnecting) can still be read, as long as the remote dictionary has not already read a document of the new generation.
+ * </p>
+ * @author Alastair Wyse
+ */
+public class SessionTokenDictionary implements IConnectionEstablishedEventHandler {
+
+    /** Maps the names written in the current generation to their tokens. */
+    private HashMap<String, Integer> writtenTokens;
+    /** The token to assign to the next name written.  Not reset with the generation, so that a document of the previous generation which is still being written cannot assign the same token to a different name. */
+    private int nextToken;
+    private int writeGeneration;
+    /** Maps the names first written in documents which have not yet been confirmed as sent to their tokens. */
+    private HashMap<String, Integer> unconfirmedTokens;
+    /** Maps the tokens read in the current read generation to their names. */
+    private HashMap<Integer, String> readTokens;
+    private int readGeneration;
+    private boolean readGenerationSet;
+
+    /**
+     * Initialises a new instance of the SessionTokenDictionary class.
+     */
+    public SessionTokenDictionary() {
+        writtenTokens = new HashMap<String, Integer>();
+        unconfirmedTokens = new HashMap<String, Integer>();
+        nextToken = 0;
+        // Start from a random generation, so that a remote dictionary which has read documents written by a previous instance (e.g. before the process was restarted) does not mistake the tokens of this instance for those of the previous instance
+        writeGeneration = new Random().nextInt();
+        readTokens = new HashMap<Integer, String>();
+        readGenerationSet = false;
+    }
+
+    /**
+     * Discards the written tokens and starts a new generation, so that names are written in full again.
+     */
+    public synchronized void Reset() {
+        writtenTokens.clear();
+        unconfirmedTokens.clear();
+        writeGeneration = writeGeneration + 1;
+    }
+
+    /**
+     * Confirms that the documents written since the last call to ConfirmWritten() or RollBackWritten() have been sent, so that the tokens first written in them are retained if a subsequent document cannot be sent.
+     */
+    public synchronized void ConfirmWritten() {
+        unconfirmedTokens.clear();
+    }
+
+    /**
+     * Discards the tokens first written in the documents written since the last call to ConfirmWritten() or RollBackWritten(), as the documents could not be sent, so that the names are written in full in subsequent documents.
+     */
+    public synchronized void RollBackWritten() {
+        for (Map.Entry<String, Integer> currentToken : unconfirmedTokens.entrySet()) {
+            writtenTokens.remove(currentToken.getKey(), currentToken.getValue());
+        }
+        unconfirmedTokens.clear();
+    }
+
+    @Override
+    public void ConnectionEstablished(Object source) {
+        Reset();
+    }
+
+    /**
+     * @return  The current generation of written tokens.
+     */
+    synchronized int getWriteGeneration() {
+        return writeGeneration;
+    }
+
+    /**
+     * Returns the token assigned to the specified name, if the name has been written in a document of the specified generation.
+     * @param name        The name.
+     * @param generation  The generation of the document being written.
+     * @return            The token, or -1 if the name has not been written, or the dictionary has been reset since the specified generation.
+     */
+    synchronized int FindWritten(String name, int generation) {
+        if (generation != writeGeneration) {
+            return -1;
+        }
+        Integer token = writtenTokens.get(name);
+        if (token == null) {
+            return -1;
+        }
+        else {
+            return token;
+        }
+    }
+
+    /**
+     * Assigns a new token to a name which is being written in full.
+     * @return  The token.
+     */
+    synchronized int AssignToken() {
+        int token = nextToken;
+        nextToken = nextToken + 1;
+        return token;
+    }
+
+    /**
+     * Records the tokens assigned to names in a document which has been successfully written, so that they can be used alone in subsequent documents.  The tokens are rolled back by RollBackWritten() unless ConfirmWritten() is called first.
+     * @param documentTokens  The tokens assigned to names in the document.
+     * @param generation      The generation of the document.  If the dictionary has been reset since the generation, the tokens are discarded.
+     */
+    synchronized void CommitWritten(Map<String, Integer> documentTokens, int generation) {
+        if (generation != writeGeneration) {
+            return;
+        }
+        for (Map.Entry<String, Integer> currentToken : documentTokens.entrySet()) {
+            if (writtenTokens.containsKey(currentToken.getKey()) == false) {
+                writtenTokens.put(currentToken.getKey(), currentToken.getValue());
+                unconfirmedTokens.put(currentToken.getKey(), currentToken.getValue());
+            }
+        }
+    }
+
+    /**
+     * Prepares to read a document of the specified generation, discarding the read tokens if the generation differs from that of the previous document read.
+     * @param generation  The generation of the document.
+     */
+    synchronized void BeginRead(int generation) {
+        if ((readGenerationSet == false) || (generation != readGeneration)) {
+            readTokens.clear();
+            readGeneration = generation;
+            readGenerationSet = true;
+        }
+    }
+
+    /**
+     * Records the token and name read from a document.
+     * @param token       The token.
+     * @param name        The name.
+     * @throws Exception  if the token has already been read with a different name.
+     */
+    synchronized void AddRead(int token, String name) throws Exception {
+        String existingName = readTokens.get(token);
+        if ((existingName != null) && (existingName.equals(name) == false)) {
+            throw new Exception("Token " + token + " was read with name '" + name + "', but has previously been read with name '" + existingName + "'.");
+        }
+        readTokens.put(token, name);
+    }
+
+    /**
+     * Returns the name corresponding to a token read from a document.
+     * @param token       The token.
+     * @return            The name.
+     * @throws Exception  if the token has not been read.
+     */
+    synchronized String GetRead(int token) throws Exception {
+        String name = readTokens.get(token);
+        if (name == null) {
+            throw new Exception("Encountered token " + token + " which has not been defined in generation " + readGeneration + " of the token dictionary.");
+        }
+
+        return name;
+    }
+}
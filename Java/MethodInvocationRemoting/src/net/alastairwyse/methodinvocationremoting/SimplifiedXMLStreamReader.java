@@ -194,4 +194,49 @@ public class SimplifiedXMLStreamReader {
         
         return returnValue;
     }
+
+    /**
+     * Advances the reader past the end tag of the element most recently started, skipping over any content and nested elements.
+     * @throws  XMLStreamException  if the end of the document is reached before the end tag.
+     */
+    public void SkipToEndElement() throws XMLStreamException {
+        int elementDepth = 1;
+        while (elementDepth > 0) {
+            int eventType = underlyingStreamReader.next();
+            if (eventType == XMLStreamConstants.START_ELEMENT) {
+                elementDepth = elementDepth + 1;
+            }
+            else if (eventType == XMLStreamConstants.END_ELEMENT) {
+                elementDepth = elementDepth - 1;
+            }
+            else if (eventType == XMLStreamConstants.END_DOCUMENT) {
+                throw new XMLStreamException("End of document reached before end element.", underlyingStreamReader.getLocation());
+            }
+        }
+        depth = depth - 1;
+    }
+
+    /**
+     * Reads the next node and returns the name of the element if the node is a start element.  Returns null if the node is an end element.
+     * @return                      The name of the element if the next node is a start element, or null if the next node is an end element.
+     * @throws  XMLStreamException  if the next node was neither a start nor an end element.
+     */
+    public String ReadNextStartElementName() throws XMLStreamException {
+        String returnValue;
+
+        underlyingStreamReader.next();
+        if(underlyingStreamReader.getEventType() == XMLStreamConstants.START_ELEMENT) {
+            depth = depth + 1;
+            returnValue = underlyingStreamReader.getName().getLocalPart();
+        }
+        else if(underlyingStreamReader.getEventType() == XMLStreamConstants.END_ELEMENT) {
+            depth = depth - 1;
+            returnValue = null;
+        }
+        else {
+            throw new XMLStreamException("Node read was neither a start nor an end element.", underlyingStreamReader.getLocation());
+        }
+
+        return returnValue;
+    }
 }
@@ -0,0 +1,723 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.SelectionKey;
+import java.util.*;
+import java.util.concurrent.*;
+import net.alastairwyse.operatingsystemabstraction.*;
+import net.alastairwyse.applicationlogging.*;
+import net.alastairwyse.applicationmetrics.*;
+import net.alastairwyse.methodinvocationremotingmetrics.*;
+
+/**
+ * Receives messages from multiple remote locations via concurrent TCP socket connections.
+ * <p>
+ * Unlike TcpRemoteReceiver (which services a single TcpRemoteSender, and treats a new inbound connection as that TcpRemoteSender reconnecting), the class accepts connections from any number of TcpRemoteSenders.  A reactor thread waits on a selector for incoming connections and received data, parses the messages received on each connection, and sends back acknowledgements.  The parse state, last sequence number received, and negotiated acknowledgement mode are held separately for each connection.  Received messages are queued, and returned by the receive methods (which can be called concurrently by multiple threads) in the order they were received.
+ * </p>
+ * <p>
+ * The ReceiveWithConnectionId() method returns the identifier and remote address of the connection each message was received on, so that a reply can be sent to the correct remote location (see MethodInvocationRemoteReceiver.setReplySenderProvider()).  The Receive() and ReceiveBytes() methods discard the identifier, and allow the class to be used in place of a TcpRemoteReceiver.
+ * </p>
+ * <p>
+ * Messages are acknowledged when they are queued, rather than when they are returned by a receive method.  To limit the number of messages held, once the queue holds the number of messages set by setReceivedMessageQueueCapacity(), the reactor thread stops reading from (and acknowledging messages on) each connection, until a receive method has taken a message from the queue.  The TcpRemoteSenders then wait for their acknowledgements, and block once their socket send buffers are full.
+ * </p>
+ * <p>
+ * Cumulative acknowledgements are negotiated with each TcpRemoteSender following the same rules as TcpRemoteReceiver, and must similarly be allowed by calling setCumulativeAcknowledgementsAllowed().
+ * </p>
+ * <p>
+ * Note that a TcpRemoteSender which reconnects cannot be identified as the sender of an earlier connection, so duplicate messages are only detected within a connection.  A message which was received but not acknowledged before a connection broke may be received again on the new connection.
+ * </p>
+ * @author Alastair Wyse
+ */
+public class TcpMultiClientRemoteReceiver implements IRemoteReceiver, IByteRemoteReceiver, AutoCloseable {
+    
+    /** The number of bytes in a message before the message body (i.e. the start delimiter, sequence number, and message size header). */
+    private final int messageHeaderLength = 13;
+    
+    private int port;
+    private int connectionBacklog;
+    /** The capacity of the read buffer of each connection, unless a larger buffer is required to hold a message. */
+    private int readBufferCapacity;
+    private IServerSocketChannel serverSocketChannel;
+    private ISelector selector;
+    /** The selection key of the server socket channel. */
+    private SelectionKey serverSocketChannelKey;
+    /** The accepted connections, keyed by the selection key of their socket channel. */
+    private ConcurrentHashMap<SelectionKey, ClientConnection> connections;
+    /** The identifier to assign to the next accepted connection. */
+    private long nextConnectionId;
+    /** Messages which have been received and acknowledged, but not yet returned by a receive method. */
+    private LinkedBlockingQueue<TcpReceivedMessage> receivedMessages;
+    /** The number of messages in the received messages queue at which the reactor thread stops reading from connections. */
+    private volatile int receivedMessageQueueCapacity;
+    /** The connections which reading has been stopped on because the received messages queue is full.  Only accessed by the reactor thread. */
+    private ArrayList<ClientConnection> pausedConnections;
+    /** Indicates whether reading has been stopped on any connections because the received messages queue is full. */
+    private volatile boolean readsPaused;
+    /** Placed on the received messages queue to cause a waiting receive operation to return without a message. */
+    private final TcpReceivedMessage cancelMarker = new TcpReceivedMessage(-1, ByteBuffer.allocate(0));
+    /** Placed on the received messages queue to cause receive operations to throw an exception, after the reactor thread has stopped due to an error. */
+    private final TcpReceivedMessage reactorStoppedMarker = new TcpReceivedMessage(-1, ByteBuffer.allocate(0));
+    /** The exception which caused the reactor thread to stop, or null if it has not stopped due to an error. */
+    private volatile Exception reactorException;
+    private Thread reactorThread;
+    private volatile boolean stopRequest;
+    /** Indicates whether cumulative acknowledgements can be negotiated with a TcpRemoteSender. */
+    private volatile boolean cumulativeAcknowledgementsAllowed;
+    private IApplicationLogger logger;
+    private LoggingUtilities loggingUtilities;
+    private IMetricLogger metricLogger;
+    /** The string encoding to expect when receiving a message. */
+    protected String stringEncodingCharset = "UTF-8";
+    /** The byte which denotes the start of the message. */
+    protected byte messageStartDelimiter = 0x02;
+    /** The byte which denotes the end of the message. */
+    protected byte messageEndDelimiter = 0x03;
+    /** The byte used to send back to the TcpRemoteSender to acknowledge receipt of the message. */
+    protected byte messageAcknowledgementByte = 0x06;
+    /** The byte used to send back to the TcpRemoteSender to acknowledge a protocol negotiation message, and indicate that cumulative acknowledgements are supported. */
+    protected byte protocolNegotiationAcknowledgementByte = 0x16;
+    
+    /**
+     * Initialises a new instance of the TcpMultiClientRemoteReceiver class.
+     * @param port                  The port to listen for incoming connections on.
+     * @param connectionBacklog     The maximum number of pending incoming connections.
+     * @param socketReadBufferSize  The number of bytes to read from the socket of a connection in each read operation.
+     */
+    public TcpMultiClientRemoteReceiver(int port, int connectionBacklog, int socketReadBufferSize) {
+        this.port = port;
+        
+        if (connectionBacklog > 0) {
+            this.connectionBacklog = connectionBacklog;
+        }
+        else {
+            throw new IllegalArgumentException("Argument 'connectionBacklog' must be greater than 0.");
+        }
+        
+        if (socketReadBufferSize > 0) {
+            // The read buffer must be able to hold the smallest possible message
+            readBufferCapacity = Math.max(socketReadBufferSize, messageHeaderLength + 1);
+        }
+        else {
+            throw new IllegalArgumentException("Argument 'socketReadBufferSize' must be greater than 0.");
+        }
+        
+        serverSocketChannel = new ServerSocketChannel();
+        selector = new Selector();
+        logger = new ConsoleApplicationLogger(LogLevel.Information, '|', "  ");
+        loggingUtilities = new LoggingUtilities(logger);
+        metricLogger = new NullMetricLogger();
+        
+        serverSocketChannelKey = null;
+        connections = new ConcurrentHashMap<SelectionKey, ClientConnection>();
+        nextConnectionId = 1;
+        receivedMessages = new LinkedBlockingQueue<TcpReceivedMessage>();
+        receivedMessageQueueCapacity = 1000;
+        pausedConnections = new ArrayList<ClientConnection>();
+        readsPaused = false;
+        reactorException = null;
+        reactorThread = null;
+        stopRequest = false;
+        cumulativeAcknowledgementsAllowed = false;
+    }
+    
+    /**
+     * Initialises a new instance of the TcpMultiClientRemoteReceiver class.
+     * @param port                  The port to listen for incoming connections on.
+     * @param connectionBacklog     The maximum number of pending incoming connections.
+     * @param socketReadBufferSize  The number of bytes to read from the socket of a connection in each read operation.
+     * @param logger                The logger to write log events to.
+     */
+    public TcpMultiClientRemoteReceiver(int port, int connectionBacklog, int socketReadBufferSize, IApplicationLogger logger) {
+        this(port, connectionBacklog, socketReadBufferSize);
+        this.logger = logger;
+        loggingUtilities = new LoggingUtilities(logger);
+    }
+    
+    /**
+     * Initialises a new instance of the TcpMultiClientRemoteReceiver class.
+     * @param port                  The port to listen for incoming connections on.
+     * @param connectionBacklog     The maximum number of pending incoming connections.
+     * @param socketReadBufferSize  The number of bytes to read from the socket of a connection in each read operation.
+     * @param logger                The logger to write log events to.
+     * @param metricLogger          The metric logger to write metric and instrumentation events to.
+     */
+    public TcpMultiClientRemoteReceiver(int port, int connectionBacklog, int socketReadBufferSize, IApplicationLogger logger, IMetricLogger metricLogger) {
+        this(port, connectionBacklog, socketReadBufferSize, logger);
+        this.metricLogger = metricLogger;
+    }
+    
+    /**
+     * Initialises a new instance of the TcpMultiClientRemoteReceiver class.
+     * <b>Note</b> this is an additional constructor to facilitate unit tests, and should not be used to instantiate the class under normal conditions.
+     * @param port                  The port to listen for incoming connections on.
+     * @param connectionBacklog     The maximum number of pending incoming connections.
+     * @param socketReadBufferSize  The number of bytes to read from the socket of a connection in each read operation.
+     * @param logger                The logger to write log events to.
+     * @param metricLogger          The metric logger to write metric and instrumentation events to.
+     * @param serverSocketChannel   A test (mock) server socket channel.
+     * @param selector              A test (mock) selector.
+     */
+    public TcpMultiClientRemoteReceiver(int port, int connectionBacklog, int socketReadBufferSize, IApplicationLogger logger, IMetricLogger metricLogger, IServerSocketChannel serverSocketChannel, ISelector selector) {
+        this(port, connectionBacklog, socketReadBufferSize, logger, metricLogger);
+        this.serverSocketChannel = serverSocketChannel;
+        this.selector = selector;
+    }
+    
+    /**
+     * @return  The number of currently open connections.
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+    
+    /**
+     * Sets whether cumulative acknowledgements can be negotiated with a TcpRemoteSender which has an acknowledgement window size greater than 1.
+     * <p>
+     * Defaults to false, in which case each message is acknowledged by the acknowledgement byte alone, and each TcpRemoteSender sends one message at a time.
+     * </p>
+     * @param cumulativeAcknowledgementsAllowed  Whether cumulative acknowledgements can be negotiated.
+     */
+    public void setCumulativeAcknowledgementsAllowed(boolean cumulativeAcknowledgementsAllowed) {
+        this.cumulativeAcknowledgementsAllowed = cumulativeAcknowledgementsAllowed;
+    }
+    
+    /**
+     * Sets the number of received messages which can be held awaiting a receive operation, before the class stops reading from connections.
+     * @param receivedMessageQueueCapacity  The number of messages.  Defaults to 1000.
+     */
+    public void setReceivedMessageQueueCapacity(int receivedMessageQueueCapacity) {
+        if (receivedMessageQueueCapacity < 1) {
+            throw new IllegalArgumentException("Argument 'receivedMessageQueueCapacity' must be greater than 0.");
+        }
+        this.receivedMessageQueueCapacity = receivedMessageQueueCapacity;
+    }
+    
+    /**
+     * Starts listening for and accepting incoming connections on the configured TCP port.
+     * @throws Exception  if an error occurs while attempting to start listening.
+     */
+    public void Connect() throws Exception {
+        if (reactorThread != null) {
+            throw new Exception("Connection has already been established.");
+        }
+        
+        try {
+            serverSocketChannel.open();
+            serverSocketChannel.bind(new InetSocketAddress(port), connectionBacklog);
+            serverSocketChannel.configureBlocking(false);
+            if (selector.isOpen() == false) {
+                selector.open();
+            }
+            serverSocketChannelKey = serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (Exception e) {
+            throw new Exception("Failed to open ServerSocketChannel whilst connecting.", e);
+        }
+        
+        stopRequest = false;
+        reactorException = null;
+        receivedMessages.clear();
+        pausedConnections.clear();
+        readsPaused = false;
+        reactorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                RunReactor();
+            }
+        });
+        reactorThread.start();
+        
+        logger.Log(this, LogLevel.Information, "Listening for connections on port " + port + ".");
+    }
+    
+    /**
+     * Stops listening on the configured TCP port, and disconnects all connected clients.
+     * @throws Exception  if an error occurs while attempting to disconnect.
+     */
+    public void Disconnect() throws Exception {
+        try {
+            if (reactorThread != null) {
+                stopRequest = true;
+                selector.wakeup();
+                reactorThread.join();
+                reactorThread = null;
+            }
+            for (ClientConnection currentConnection : connections.values()) {
+                currentConnection.socketChannel.close();
+            }
+            connections.clear();
+            serverSocketChannel.close();
+            if (selector.isOpen() == true) {
+                selector.close();
+            }
+        }
+        catch(Exception e) {
+            throw new Exception("Failed to disconnect listener.", e);
+        }
+        
+        /* //[BEGIN_LOGGING]
+        logger.Log(this, LogLevel.Information, "Disconnected.");
+        //[END_LOGGING] */
+    }
+    
+    @Override
+    public void close() throws Exception {
+        Disconnect();
+    }
+    
+    @Override
+    public String Receive() throws Exception {
+        String returnMessage = "";
+        
+        TcpReceivedMessage receivedMessage = ReceiveWithConnectionId();
+        if (receivedMessage != null) {
+            ByteBuffer messageBytes = receivedMessage.getMessage();
+            returnMessage = new String(messageBytes.array(), messageBytes.arrayOffset() + messageBytes.position(), messageBytes.remaining(), stringEncodingCharset);
+            
+            /* //[BEGIN_METRICS]
+            metricLogger.Add(new ReceivedMessageSize(returnMessage.length()));
+            //[END_METRICS] */
+            /* //[BEGIN_LOGGING]
+            loggingUtilities.LogMessageReceived(this, returnMessage);
+            //[END_LOGGING] */
+        }
+        
+        return returnMessage;
+    }
+    
+    @Override
+    public ByteBuffer ReceiveBytes() throws Exception {
+        TcpReceivedMessage receivedMessage = ReceiveWithConnectionId();
+        if (receivedMessage == null) {
+            return ByteBuffer.allocate(0);
+        }
+        ByteBuffer messageBytes = receivedMessage.getMessage();
+        
+        /* //[BEGIN_METRICS]
+        metricLogger.Add(new ReceivedMessageSize(messageBytes.remaining()));
+        //[END_METRICS] */
+        /* //[BEGIN_LOGGING]
+        logger.Log(this, LogLevel.Information, "Received message of " + messageBytes.remaining() + " bytes.");
+        //[END_LOGGING] */
+        
+        return messageBytes;
+    }
+    
+    /**
+     * Receives a message from any connection, together with the identifier of the connection it was received on.
+     * <p>
+     * The receive operation is synchronous, i.e. does not return control until a message has been received, or the operation is cancelled.
+     * </p>
+     * @return            The message received, or null if the receive operation was cancelled.
+     * @throws Exception  if the reactor thread stopped due to an error, or the class is not listening for connections.
+     */
+    public TcpReceivedMessage ReceiveWithConnectionId() throws Exception {
+        if (reactorThread == null) {
+            throw new Exception("Connection on TCP socket has not been established.");
+        }
+        
+        // Discard any cancel requests made when no receive operation was waiting
+        while (receivedMessages.remove(cancelMarker) == true);
+        
+        TcpReceivedMessage receivedMessage = receivedMessages.take();
+        if (receivedMessage == cancelMarker) {
+            return null;
+        }
+        else if (receivedMessage == reactorStoppedMarker) {
+            // Replace the marker so that any other waiting receive operations also throw an exception
+            receivedMessages.put(reactorStoppedMarker);
+            throw new Exception("Error receiving message.  The reactor thread stopped due to an error.", reactorException);
+        }
+        // Wake the reactor thread, so that it resumes reading from the connections now that the queue has space
+        if (readsPaused == true) {
+            selector.wakeup();
+        }
+        
+        return receivedMessage;
+    }
+    
+    /**
+     * Cancels a receive operation in the case it is waiting for a message.  If multiple threads are waiting, one of the operations is cancelled.
+     */
+    @Override
+    public void CancelReceive() {
+        receivedMessages.offer(cancelMarker);
+        
+        /* //[BEGIN_LOGGING]
+        try {
+            logger.Log(this, LogLevel.Information, "Receive operation cancelled.");
+        }
+        catch(Exception e) {
+        }
+        //[END_LOGGING] */
+    }
+    
+    /**
+     * Waits on the selector for incoming connections and received data, and handles them until a stop is requested.  Run by the reactor thread.
+     */
+    private void RunReactor() {
+        ArrayList<SelectionKey> selectedKeys = new ArrayList<SelectionKey>();
+        
+        try {
+            while (stopRequest == false) {
+                if ((readsPaused == true) && (receivedMessages.size() < receivedMessageQueueCapacity)) {
+                    ResumeReads();
+                }
+                selectedKeys.clear();
+                selector.select(selectedKeys);
+                for (SelectionKey currentKey : selectedKeys) {
+                    if (currentKey == serverSocketChannelKey) {
+                        AcceptConnections();
+                    }
+                    else {
+                        ClientConnection connection = connections.get(currentKey);
+                        if (connection != null) {
+                            ReadAndParseMessages(connection);
+                        }
+                    }
+                }
+            }
+        }
+        catch (Exception e) {
+            reactorException = e;
+            receivedMessages.offer(reactorStoppedMarker);
+            try {
+                logger.Log(this, LogLevel.Critical, e.getClass().getSimpleName() + " occurred in the reactor thread.  No further messages will be received.", e);
+            }
+            catch (Exception loggingException) {
+            }
+        }
+    }
+    
+    /**
+     * Accepts all pending incoming connections, and registers them with the selector.
+     */
+    private void AcceptConnections() throws Exception {
+        try {
+            ISocketChannel acceptedSocketChannel = serverSocketChannel.accept();
+            while (acceptedSocketChannel != null) {
+                acceptedSocketChannel.configureBlocking(false);
+                SelectionKey key = acceptedSocketChannel.register(selector, SelectionKey.OP_READ);
+                connections.put(key, new ClientConnection(nextConnectionId, acceptedSocketChannel, GetRemoteAddress(acceptedSocketChannel), key, AllocateReadBuffer(readBufferCapacity)));
+                logger.Log(this, LogLevel.Information, "Connection " + nextConnectionId + " received on port " + port + ".");
+                nextConnectionId = nextConnectionId + 1;
+                
+                acceptedSocketChannel = serverSocketChannel.accept();
+            }
+        }
+        catch (IOException ioException) {
+            // Leave any connection which failed to be accepted pending, and retry at the next selection
+            logger.Log(this, LogLevel.Error, ioException.getClass().getSimpleName() + " occurred whilst trying to to receive connection on port " + port + ".", ioException);
+        }
+    }
+    
+    /**
+     * Returns the remote address of the specified socket channel.
+     * @param socketChannel  The socket channel.
+     * @return               The remote address, or null if it could not be obtained.
+     */
+    private SocketAddress GetRemoteAddress(ISocketChannel socketChannel) throws Exception {
+        try {
+            return socketChannel.getRemoteAddress();
+        }
+        catch (IOException e) {
+            logger.Log(this, LogLevel.Warning, e.getClass().getSimpleName() + " occurred whilst trying to obtain the remote address of connection " + nextConnectionId + ".", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Stops reading from the specified connection, as the received messages queue is full.
+     * @param connection  The connection.
+     */
+    private void PauseReads(ClientConnection connection) throws Exception {
+        if (connection.readPaused == false) {
+            connection.selectionKey.interestOps(0);
+            connection.readPaused = true;
+            pausedConnections.add(connection);
+            readsPaused = true;
+            
+            /* //[BEGIN_LOGGING]
+            logger.Log(this, LogLevel.Information, "Received message queue is full.  Stopped reading from connection " + connection.connectionId + ".");
+            //[END_LOGGING] */
+        }
+    }
+    
+    /**
+     * Resumes reading from the connections which reading was stopped on, and handles any complete messages which were read before reading was stopped.
+     */
+    private void ResumeReads() throws Exception {
+        ArrayList<ClientConnection> resumedConnections = new ArrayList<ClientConnection>(pausedConnections);
+        pausedConnections.clear();
+        readsPaused = false;
+        for (ClientConnection currentConnection : resumedConnections) {
+            currentConnection.readPaused = false;
+            if (connections.containsKey(currentConnection.selectionKey) == true) {
+                try {
+                    currentConnection.selectionKey.interestOps(SelectionKey.OP_READ);
+                    // If the queue becomes full again, reading is stopped again
+                    ParseReadBuffer(currentConnection);
+                }
+                catch (Exception e) {
+                    CloseConnection(currentConnection);
+                    logger.Log(this, LogLevel.Error, e.getClass().getSimpleName() + " occurred whilst attempting to resume receiving messages on connection " + currentConnection.connectionId + ".  Connection closed.", e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Reads the data available on the specified connection, and parses and acknowledges any complete messages.  The connection is closed if it was closed by the remote host, or an error occurs.
+     * @param connection  The connection to read from.
+     */
+    private void ReadAndParseMessages(ClientConnection connection) throws Exception {
+        try {
+            int readLength = connection.socketChannel.read(connection.readBuffer);
+            if (readLength == -1) {
+                CloseConnection(connection);
+                logger.Log(this, LogLevel.Information, "Connection " + connection.connectionId + " was closed by the remote host.");
+            }
+            else if (readLength > 0) {
+                ParseReadBuffer(connection);
+            }
+        }
+        catch (Exception e) {
+            CloseConnection(connection);
+            logger.Log(this, LogLevel.Error, e.getClass().getSimpleName() + " occurred whilst attempting to receive and acknowledge message on connection " + connection.connectionId + ".  Connection closed.", e);
+        }
+    }
+    
+    /**
+     * Parses and handles all complete messages in the read buffer of the specified connection, and retains the bytes of any subsequent incomplete message in the buffer.
+     * @param connection  The connection whose read buffer should be parsed.
+     */
+    private void ParseReadBuffer(ClientConnection connection) throws Exception {
+        ByteBuffer readBuffer = connection.readBuffer;
+        int requiredCapacity = 0;
+        
+        readBuffer.flip();
+        while (readBuffer.remaining() >= messageHeaderLength) {
+            // Leave the remaining messages unacknowledged in the buffer until the queue has space
+            if (receivedMessages.size() >= receivedMessageQueueCapacity) {
+                PauseReads(connection);
+                break;
+            }
+            int messageStart = readBuffer.position();
+            if (readBuffer.get(messageStart) != messageStartDelimiter) {
+                throw new Exception("First byte of received message was expected to be " + messageStartDelimiter + ", but was " + readBuffer.get(messageStart) + ".");
+            }
+            int messageSequenceNumber = readBuffer.getInt(messageStart + 1);
+            long messageBodyLength = readBuffer.getLong(messageStart + 5);
+            if ((messageBodyLength < 0) || (messageBodyLength > (Integer.MAX_VALUE - messageHeaderLength - 1))) {
+                throw new Exception("Message size header contained invalid size " + messageBodyLength + ".");
+            }
+            int messageLength = messageHeaderLength + (int)messageBodyLength + 1;
+            if (readBuffer.remaining() < messageLength) {
+                requiredCapacity = messageLength;
+                break;
+            }
+            if (readBuffer.get(messageStart + messageLength - 1) != messageEndDelimiter) {
+                throw new Exception("Last byte of received message was expected to be " + messageEndDelimiter + ", but was " + readBuffer.get(messageStart + messageLength - 1) + ".");
+            }
+            
+            // Copy the message body, as the read buffer is reused for subsequent reads
+            ByteBuffer messageBody = ByteBuffer.allocate((int)messageBodyLength);
+            System.arraycopy(readBuffer.array(), messageStart + messageHeaderLength, messageBody.array(), 0, (int)messageBodyLength);
+            readBuffer.position(messageStart + messageLength);
+            HandleMessage(connection, messageSequenceNumber, messageBody);
+        }
+        readBuffer.compact();
+        
+        // If the message being received is larger than the read buffer, replace the buffer with one which can hold the complete message
+        //   Once the buffer is empty again, revert to a buffer of the configured size
+        if (requiredCapacity > readBuffer.capacity()) {
+            readBuffer.flip();
+            connection.readBuffer = AllocateReadBuffer(requiredCapacity);
+            connection.readBuffer.put(readBuffer);
+        }
+        else if ((readBuffer.position() == 0) && (readBuffer.capacity() > readBufferCapacity)) {
+            connection.readBuffer = AllocateReadBuffer(readBufferCapacity);
+        }
+    }
+    
+    /**
+     * Acknowledges a complete message received on the specified connection, and queues it to be returned by a receive method, unless it is a protocol negotiation message or a duplicate.  A negative sequence number either denotes a protocol negotiation message (if the body is empty), or a message requesting cumulative acknowledgements.
+     * @param connection             The connection the message was received on.
+     * @param messageSequenceNumber  The sequence number of the message.
+     * @param messageBody            The body of the message.
+     */
+    private void HandleMessage(ClientConnection connection, int messageSequenceNumber, ByteBuffer messageBody) throws Exception {
+        boolean protocolNegotiationRequested = false;
+        if (messageSequenceNumber < 0) {
+            if (messageBody.remaining() == 0) {
+                // The message is a protocol negotiation message from a TcpRemoteSender which reconnected while holding unacknowledged messages (the acknowledgement window size is held in the sequence number)
+                if (cumulativeAcknowledgementsAllowed == true) {
+                    connection.cumulativeAcknowledgementsEnabled = true;
+                    WriteAcknowledgement(connection, EncodeSequenceNumberAcknowledgement(protocolNegotiationAcknowledgementByte, connection.lastMessageSequenceNumber));
+                }
+                else {
+                    WriteAcknowledgement(connection, ByteBuffer.wrap(new byte[] { messageAcknowledgementByte }));
+                }
+                return;
+            }
+            // The message requests cumulative acknowledgements, and the remaining bits hold its sequence number
+            protocolNegotiationRequested = cumulativeAcknowledgementsAllowed;
+            messageSequenceNumber = messageSequenceNumber & Integer.MAX_VALUE;
+        }
+        
+        // The message is checked for being a duplicate before cumulative acknowledgements are enabled, as the message requesting them may have been re-sent after the connection broke
+        boolean duplicate = IsDuplicateSequenceNumber(connection, messageSequenceNumber);
+        if (protocolNegotiationRequested == true) {
+            connection.cumulativeAcknowledgementsEnabled = true;
+            WriteAcknowledgement(connection, EncodeSequenceNumberAcknowledgement(protocolNegotiationAcknowledgementByte, messageSequenceNumber));
+        }
+        else if (connection.cumulativeAcknowledgementsEnabled == true) {
+            WriteAcknowledgement(connection, EncodeSequenceNumberAcknowledgement(messageAcknowledgementByte, messageSequenceNumber));
+        }
+        else {
+            WriteAcknowledgement(connection, ByteBuffer.wrap(new byte[] { messageAcknowledgementByte }));
+        }
+        
+        if (duplicate == false) {
+            connection.lastMessageSequenceNumber = messageSequenceNumber;
+            receivedMessages.offer(new TcpReceivedMessage(connection.connectionId, connection.remoteAddress, messageBody));
+            
+            /* //[BEGIN_METRICS]
+            metricLogger.Increment(new MessageReceived());
+            //[END_METRICS] */
+        }
+        else {
+            /* //[BEGIN_METRICS]
+            metricLogger.Increment(new TcpRemoteReceiverDuplicateSequenceNumber());
+            //[END_METRICS] */
+            logger.Log(this, LogLevel.Warning, "Duplicate message with sequence number " + messageSequenceNumber + " received on connection " + connection.connectionId + ".  Message discarded.");
+        }
+    }
+    
+    /**
+     * Writes an acknowledgement to the socket channel of the specified connection.
+     * @param connection       The connection to write the acknowledgement to.
+     * @param acknowledgement  Buffer containing the acknowledgement.
+     */
+    private void WriteAcknowledgement(ClientConnection connection, ByteBuffer acknowledgement) throws Exception {
+        connection.socketChannel.write(acknowledgement);
+        // The socket channel is non-blocking, so the write is incomplete if the TcpRemoteSender has stopped reading acknowledgements, and the socket's send buffer is full
+        if (acknowledgement.hasRemaining() == true) {
+            throw new IOException("Failed to write the complete message acknowledgement.");
+        }
+    }
+    
+    /**
+     * Creates an acknowledgement consisting of the specified acknowledgement byte followed by a sequence number encoded as a 4 byte little endian.
+     * @param acknowledgementByte  The acknowledgement byte.
+     * @param sequenceNumber       The sequence number.
+     * @return                     Buffer containing the acknowledgement.
+     */
+    private ByteBuffer EncodeSequenceNumberAcknowledgement(byte acknowledgementByte, int sequenceNumber) {
+        ByteBuffer acknowledgement = ByteBuffer.allocate(5);
+        acknowledgement.order(ByteOrder.LITTLE_ENDIAN);
+        acknowledgement.put(acknowledgementByte);
+        acknowledgement.putInt(sequenceNumber);
+        acknowledgement.flip();
+        
+        return acknowledgement;
+    }
+    
+    /**
+     * Determines whether the specified sequence number is the same as the sequence number of the last message received on the specified connection.
+     * <p>
+     * As for TcpRemoteReceiver, messages received on a connection with cumulative acknowledgements are never duplicates, as the TcpRemoteSender discards the messages up to the last message received before re-sending.
+     * </p>
+     * @param connection      The connection the message was received on.
+     * @param sequenceNumber  The sequence number to check.
+     * @return                True if the message with the sequence number is a duplicate.
+     */
+    private boolean IsDuplicateSequenceNumber(ClientConnection connection, int sequenceNumber) {
+        return ((connection.cumulativeAcknowledgementsEnabled == false) && (sequenceNumber == connection.lastMessageSequenceNumber));
+    }
+    
+    /**
+     * Closes the socket channel of the specified connection, and stops tracking the connection.
+     * @param connection  The connection to close.
+     */
+    private void CloseConnection(ClientConnection connection) {
+        connections.remove(connection.selectionKey);
+        try {
+            // Closing the channel also cancels its selection key
+            connection.socketChannel.close();
+        }
+        catch (IOException e) {
+        }
+    }
+    
+    /**
+     * Allocates a read buffer for a connection.
+     * @param capacity  The capacity of the buffer.
+     * @return          The buffer.
+     */
+    private ByteBuffer AllocateReadBuffer(int capacity) {
+        ByteBuffer readBuffer = ByteBuffer.allocate(capacity);
+        readBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        
+        return readBuffer;
+    }
+    
+    /**
+     * Container class holding the state of a connection accepted from a TcpRemoteSender.
+     */
+    private class ClientConnection {
+        /** The identifier of the connection. */
+        public long connectionId;
+        /** The socket channel of the connection. */
+        public ISocketChannel socketChannel;
+        /** The remote address of the socket channel, or null if it could not be obtained. */
+        public SocketAddress remoteAddress;
+        /** The selection key of the socket channel. */
+        public SelectionKey selectionKey;
+        /** The buffer which data is read from the socket channel into.  Holds the bytes of any message which has been partially received. */
+        public ByteBuffer readBuffer;
+        /** The sequence number of the last message received on the connection. */
+        public int lastMessageSequenceNumber;
+        /** Indicates whether cumulative acknowledgements were negotiated with the TcpRemoteSender on the connection. */
+        public boolean cumulativeAcknowledgementsEnabled;
+        /** Indicates whether reading from the connection has been stopped because the received messages queue is full. */
+        public boolean readPaused;
+        
+        /**
+         * Initialises a new instance of the ClientConnection class.
+         * @param connectionId   The identifier of the connection.
+         * @param socketChannel  The socket channel of the connection.
+         * @param remoteAddress  The remote address of the socket channel.
+         * @param selectionKey   The selection key of the socket channel.
+         * @param readBuffer     The buffer to read data from the socket channel into.
+         */
+        public ClientConnection(long connectionId, ISocketChannel socketChannel, SocketAddress remoteAddress, SelectionKey selectionKey, ByteBuffer readBuffer) {
+            this.connectionId = connectionId;
+            this.socketChannel = socketChannel;
+            this.remoteAddress = remoteAddress;
+            this.selectionKey = selectionKey;
+            this.readBuffer = readBuffer;
+            lastMessageSequenceNumber = 0;
+            cumulativeAcknowledgementsEnabled = false;
+            readPaused = false;
+        }
+    }
+}
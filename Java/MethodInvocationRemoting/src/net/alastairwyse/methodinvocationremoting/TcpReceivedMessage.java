@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.net.*;
+import java.nio.*;
+
+/**
+ * A message received by a TcpMultiClientRemoteReceiver, together with the identifier and remote address of the connection it was received on.
+ * @author Alastair Wyse
+ */
+public final class TcpReceivedMessage {
+    
+    private long connectionId;
+    private SocketAddress remoteAddress;
+    private ByteBuffer message;
+    
+    /**
+     * Initialises a new instance of the TcpReceivedMessage class.
+     * @param connectionId  The identifier of the connection the message was received on.
+     * @param message       Buffer containing the message, between its position and limit.
+     */
+    public TcpReceivedMessage(long connectionId, ByteBuffer message) {
+        this(connectionId, null, message);
+    }
+    
+    /**
+     * Initialises a new instance of the TcpReceivedMessage class.
+     * @param connectionId   The identifier of the connection the message was received on.
+     * @param remoteAddress  The remote address of the connection the message was received on, or null if it could not be obtained.
+     * @param message        Buffer containing the message, between its position and limit.
+     */
+    public TcpReceivedMessage(long connectionId, SocketAddress remoteAddress, ByteBuffer message) {
+        this.connectionId = connectionId;
+        this.remoteAddress = remoteAddress;
+        this.message = message;
+    }
+    
+    /**
+     * @return  The identifier of the connection the message was received on.  Identifiers are assigned in the order connections are accepted, and are not reused by the same TcpMultiClientRemoteReceiver.
+     */
+    public long getConnectionId() {
+        return connectionId;
+    }
+    
+    /**
+     * @return  The remote address of the connection the message was received on (i.e. the address of the TcpRemoteSender), or null if it could not be obtained.
+     */
+    public SocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+    
+    /**
+     * @return  Buffer containing the message, between its position and limit.
+     */
+    public ByteBuffer getMessage() {
+        return message;
+    }
+}
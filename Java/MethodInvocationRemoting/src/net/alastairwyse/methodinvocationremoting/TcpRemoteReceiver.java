@@ -19,6 +19,8 @@ package net.alastairwyse.methodinvocationremoting;
 import java.net.*;
 import java.io.*;
 import java.nio.*;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.CopyOnWriteArrayList;
 import net.alastairwyse.operatingsystemabstraction.*;
 import net.alastairwyse.applicationlogging.*;
 import net.alastairwyse.applicationmetrics.*;
@@ -45,10 +47,25 @@ enum MessageParseState {
 
 /**
  * Receives messages from a remote location via a TCP socket connection.
+ * <p>
+ * The listening server socket channel and the connected socket channel are registered with a selector, so that a receive operation waits until a connection or data arrives (or the operation is cancelled), rather than polling at the receive retry interval.
+ * </p>
+ * <p>
+ * Data is read from the socket channel into a single buffer which is reused for every read.  If a read returns the end of one message and the start of the next (e.g. when a TcpRemoteSender sends messages without waiting for each acknowledgement), the bytes following the end of the message are retained in the buffer, and parsed by the next receive operation.
+ * </p>
+ * <p>
+ * A TcpRemoteSender with an acknowledgement window size greater than 1 requests cumulative acknowledgements by setting the highest bit of the sequence number of the first message it sends on a connection (older versions of the class treat this as an ordinary message, and acknowledge it with the acknowledgement byte alone).  If cumulative acknowledgements have been allowed by calling setCumulativeAcknowledgementsAllowed(), the class acknowledges the message with the protocol negotiation acknowledgement byte followed by its sequence number, and enables cumulative acknowledgements for the connection, in which each message is acknowledged by the acknowledgement byte followed by the message's sequence number.  Otherwise the message is acknowledged with the acknowledgement byte alone, and the TcpRemoteSender sends one message at a time.
+ * </p>
+ * <p>
+ * A TcpRemoteSender which reconnects while holding unacknowledged messages from a connection with cumulative acknowledgements instead sends a protocol negotiation message (with an empty body and a negative sequence number), which is not returned by the receive methods.  The class replies with the protocol negotiation acknowledgement byte followed by the sequence number of the last message received, so that the TcpRemoteSender does not re-send the messages up to it.
+ * </p>
  * @author Alastair Wyse
  */
-public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
+public class TcpRemoteReceiver implements IRemoteReceiver, IByteRemoteReceiver, AutoCloseable {
 
+    /** The number of bytes in a message before the message body (i.e. the start delimiter, sequence number, and message size header). */
+    private final int messageHeaderLength = 13;
+    
     private int port;
     private int connectRetryCount;
     private int connectRetryInterval;
@@ -57,13 +74,37 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
     private IServerSocketChannel serverSocketChannel;
     private ISocketChannel socketChannel;
     private ISocketChannel pendingSocketChannel;  // Used to temporarily store any socket channel from a pending inbound connection 
+    /** Waits for incoming connections and received data, or null if the receiver should poll at the receive retry interval. */
+    private ISelector selector;
     private boolean connected;
+    /** Indicates whether the TcpRemoteSender closed the current connection (i.e. a read returned end of stream), in which case the socket channel has been closed, and only incoming connections are waited for. */
+    private boolean senderDisconnected;
     private volatile boolean cancelRequest;
     private volatile boolean waitingForRetry = false;
     private int lastMessageSequenceNumber;
     private IApplicationLogger logger;
     private LoggingUtilities loggingUtilities;
     private IMetricLogger metricLogger;
+    /** The objects to notify when a connection is established. */
+    private CopyOnWriteArrayList<IConnectionEstablishedEventHandler> connectionEstablishedEventHandlers;
+    /** The handler to pass the body of the message currently being received to, or null if the body is being buffered. */
+    private IMessageBodyHandler messageBodyHandler;
+    /** Indicates whether BeginMessageBody() has been called on the message body handler for the message currently being received. */
+    private boolean messageBodyHandlerActive;
+    /** The buffer which data is read from the socket channel into, reused for every read.  Bytes between the read buffer parse position and the position of the buffer have been read but not yet parsed (i.e. they are the start of a subsequent message). */
+    private ByteBuffer readBuffer;
+    /** The position in the read buffer to begin parsing from. */
+    private int readBufferParsePosition;
+    /** Holds the bytes of the sequence number of the message currently being received. */
+    private byte[] messageSequenceNumberBytes;
+    /** Holds the bytes of the size header of the message currently being received. */
+    private byte[] messageSizeHeaderBytes;
+    /** Indicates whether the body of the message currently being received can be returned as a view of the read buffer rather than a copy (i.e. it will be decoded before the read buffer is next written to). */
+    private boolean messageBodyInReadBufferAllowed;
+    /** Indicates whether cumulative acknowledgements can be negotiated with a TcpRemoteSender. */
+    private boolean cumulativeAcknowledgementsAllowed;
+    /** Indicates whether cumulative acknowledgements were negotiated with the TcpRemoteSender on the current connection. */
+    private boolean cumulativeAcknowledgementsEnabled;
     /** The string encoding to expect when receiving a message. */
     protected String stringEncodingCharset = "UTF-8";
     /** The byte which denotes the start of the message. */
@@ -72,13 +113,15 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
     protected byte messageEndDelimiter = 0x03;
     /** The byte used to send back to the TcpRemoteSender to acknowledge receipt of the message. */
     protected byte messageAcknowledgementByte = 0x06;
+    /** The byte used to send back to the TcpRemoteSender to acknowledge a protocol negotiation message, and indicate that cumulative acknowledgements are supported. */
+    protected byte protocolNegotiationAcknowledgementByte = 0x16;
 
     /**
      * Initialises a new instance of the TcpRemoteReceiver class.
      * @param port                  The port to listen for incoming connections on.
      * @param connectRetryCount     The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteSender.
      * @param connectRetryInterval  The interval between retries to connect or reconnect in milliseconds.
-     * @param receiveRetryInterval  The time to wait between attempts to receive a message in milliseconds.
+     * @param receiveRetryInterval  The time to wait between attempts to receive a message in milliseconds, when not waiting on a selector.
      * @param socketReadBufferSize  The number of bytes to read from the socket in each read operation.
      */
     public TcpRemoteReceiver(int port, int connectRetryCount, int connectRetryInterval, int receiveRetryInterval, int socketReadBufferSize) {
@@ -113,13 +156,25 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
         }
 
         serverSocketChannel = new ServerSocketChannel();
+        selector = new Selector();
         logger = new ConsoleApplicationLogger(LogLevel.Information, '|', "  ");
         loggingUtilities = new LoggingUtilities(logger);
         metricLogger = new NullMetricLogger();
         
         lastMessageSequenceNumber = 0;
+        cumulativeAcknowledgementsAllowed = false;
+        cumulativeAcknowledgementsEnabled = false;
         connected = false;
+        senderDisconnected = false;
         pendingSocketChannel = null;
+        connectionEstablishedEventHandlers = new CopyOnWriteArrayList<IConnectionEstablishedEventHandler>();
+        messageBodyHandler = null;
+        messageBodyHandlerActive = false;
+        readBuffer = ByteBuffer.allocate(socketReadBufferSize);
+        readBufferParsePosition = 0;
+        messageSequenceNumberBytes = new byte[4];
+        messageSizeHeaderBytes = new byte[8];
+        messageBodyInReadBufferAllowed = false;
     }
     
     /**
@@ -127,7 +182,7 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
      * @param port                  The port to listen for incoming connections on.
      * @param connectRetryCount     The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteSender.
      * @param connectRetryInterval  The interval between retries to connect or reconnect in milliseconds.
-     * @param receiveRetryInterval  The time to wait between attempts to receive a message in milliseconds.
+     * @param receiveRetryInterval  The time to wait between attempts to receive a message in milliseconds, when not waiting on a selector.
      * @param socketReadBufferSize  The number of bytes to read from the socket in each read operation.
      * @param logger                The logger to write log events to.
      */
@@ -142,7 +197,7 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
      * @param port                  The port to listen for incoming connections on.
      * @param connectRetryCount     The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteSender.
      * @param connectRetryInterval  The interval between retries to connect or reconnect in milliseconds.
-     * @param receiveRetryInterval  The time to wait between attempts to receive a message in milliseconds.
+     * @param receiveRetryInterval  The time to wait between attempts to receive a message in milliseconds, when not waiting on a selector.
      * @param socketReadBufferSize  The number of bytes to read from the socket in each read operation.
      * @param metricLogger          The metric logger to write metric and instrumentation events to.
      */
@@ -156,7 +211,7 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
      * @param port                  The port to listen for incoming connections on.
      * @param connectRetryCount     The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteSender.
      * @param connectRetryInterval  The interval between retries to connect or reconnect in milliseconds.
-     * @param receiveRetryInterval  The time to wait between attempts to receive a message in milliseconds.
+     * @param receiveRetryInterval  The time to wait between attempts to receive a message in milliseconds, when not waiting on a selector.
      * @param socketReadBufferSize  The number of bytes to read from the socket in each read operation.
      * @param logger                The logger to write log events to.
      * @param metricLogger          The metric logger to write metric and instrumentation events to.
@@ -174,7 +229,7 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
      * @param port                  The port to listen for incoming connections on.
      * @param connectRetryCount     The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteSender.
      * @param connectRetryInterval  The interval between retries to connect or reconnect in milliseconds.
-     * @param receiveRetryInterval  The time to wait between attempts to receive a message in milliseconds.
+     * @param receiveRetryInterval  The time to wait between attempts to receive a message in milliseconds, when not waiting on a selector.
      * @param socketReadBufferSize  The number of bytes to read from the socket in each read operation.
      * @param logger                The logger to write log events to.
      * @param metricLogger          The metric logger to write metric and instrumentation events to.
@@ -184,6 +239,65 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
         this(port, connectRetryCount, connectRetryInterval, receiveRetryInterval, socketReadBufferSize, logger);
         this.serverSocketChannel = serverSocketChannel;
         this.metricLogger = metricLogger;
+        // Poll at the receive retry interval, as the mock channels cannot be registered with a selector
+        this.selector = null;
+    }
+    
+    /**
+     * Initialises a new instance of the TcpRemoteReceiver class.  
+     * <b>Note</b> this is an additional constructor to facilitate unit tests, and should not be used to instantiate the class under normal conditions.
+     * @param port                  The port to listen for incoming connections on.
+     * @param connectRetryCount     The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteSender.
+     * @param connectRetryInterval  The interval between retries to connect or reconnect in milliseconds.
+     * @param receiveRetryInterval  The time to wait between attempts to receive a message in milliseconds, when not waiting on a selector.
+     * @param socketReadBufferSize  The number of bytes to read from the socket in each read operation.
+     * @param logger                The logger to write log events to.
+     * @param metricLogger          The metric logger to write metric and instrumentation events to.
+     * @param serverSocketChannel   A test (mock) server socket channel.
+     * @param selector              A test (mock) selector.
+     */
+    public TcpRemoteReceiver(int port, int connectRetryCount, int connectRetryInterval, int receiveRetryInterval, int socketReadBufferSize, IApplicationLogger logger, IMetricLogger metricLogger, IServerSocketChannel serverSocketChannel, ISelector selector) {
+        this(port, connectRetryCount, connectRetryInterval, receiveRetryInterval, socketReadBufferSize, logger, metricLogger, serverSocketChannel);
+        this.selector = selector;
+    }
+    
+    /**
+     * Sets the object to notify when a connection is accepted, either when connecting, or when a TcpRemoteSender reconnects.
+     * <p>
+     * As a reconnection may indicate that the remote process has been restarted, this can be used to reset state shared with the remote process (e.g. a SessionTokenDictionary used by the serializer which writes documents sent back to the remote process).
+     * </p>
+     * <p>
+     * Replaces any handlers previously set or added.  Use addConnectionEstablishedEventHandler() to notify more than one object (e.g. both a ParameterDeltaCache and a SessionTokenDictionary).
+     * </p>
+     * @param connectionEstablishedEventHandler  The object to notify, or null if no notification is required.
+     */
+    public void setConnectionEstablishedEventHandler(IConnectionEstablishedEventHandler connectionEstablishedEventHandler) {
+        connectionEstablishedEventHandlers.clear();
+        if (connectionEstablishedEventHandler != null) {
+            connectionEstablishedEventHandlers.add(connectionEstablishedEventHandler);
+        }
+    }
+    
+    /**
+     * Adds an object to notify when a connection is established, in addition to any handlers previously set or added.  Handlers are notified in the order they were added.
+     * @param connectionEstablishedEventHandler  The object to notify.
+     */
+    public void addConnectionEstablishedEventHandler(IConnectionEstablishedEventHandler connectionEstablishedEventHandler) {
+        if (connectionEstablishedEventHandler == null) {
+            throw new IllegalArgumentException("Argument 'connectionEstablishedEventHandler' cannot be null.");
+        }
+        connectionEstablishedEventHandlers.add(connectionEstablishedEventHandler);
+    }
+    
+    /**
+     * Sets whether cumulative acknowledgements can be negotiated with a TcpRemoteSender which has an acknowledgement window size greater than 1.
+     * <p>
+     * Defaults to false, in which case each message is acknowledged by the acknowledgement byte alone, as expected by a TcpRemoteSender which sends one message at a time.  Note that a TcpRemoteSender should only be set with an acknowledgement window size greater than 1 if its TcpRemoteReceiver recognises the protocol negotiation message (i.e. is a version which provides this method).
+     * </p>
+     * @param cumulativeAcknowledgementsAllowed  Whether cumulative acknowledgements can be negotiated.
+     */
+    public void setCumulativeAcknowledgementsAllowed(boolean cumulativeAcknowledgementsAllowed) {
+        this.cumulativeAcknowledgementsAllowed = cumulativeAcknowledgementsAllowed;
     }
     
     /**
@@ -208,6 +322,9 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
                 socketChannel.close();
             }
             serverSocketChannel.close();
+            if ((selector != null) && (selector.isOpen() == true)) {
+                selector.close();
+            }
             connected = false;
         }
         catch(Exception e) {
@@ -226,10 +343,120 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
     
     @Override
     public String Receive() throws Exception {
+        String returnMessage = "";
+        
+        // The message is decoded straight from the read buffer where possible, as the buffer is not written to again until the next receive operation
+        ByteBuffer messageBytes = ReceiveMessage(null, true);
+        if (messageBytes != null) {
+            returnMessage = new String(messageBytes.array(), messageBytes.arrayOffset(), messageBytes.remaining(), stringEncodingCharset);
+            
+            /* //[BEGIN_METRICS]
+            metricLogger.Add(new ReceivedMessageSize(returnMessage.length()));
+            //[END_METRICS] */
+            /* //[BEGIN_LOGGING]
+            loggingUtilities.LogMessageReceived(this, returnMessage);
+            //[END_LOGGING] */
+        }
+        
+        return returnMessage;
+    }
+    
+    @Override
+    public ByteBuffer ReceiveBytes() throws Exception {
+        ByteBuffer messageBytes = ReceiveMessage(null, false);
+        if (messageBytes == null) {
+            return ByteBuffer.allocate(0);
+        }
+        
+        /* //[BEGIN_METRICS]
+        metricLogger.Add(new ReceivedMessageSize(messageBytes.remaining()));
+        //[END_METRICS] */
+        /* //[BEGIN_LOGGING]
+        logger.Log(this, LogLevel.Information, "Received message of " + messageBytes.remaining() + " bytes.");
+        //[END_LOGGING] */
+        
+        return messageBytes;
+    }
+
+    /**
+     * Receives a message, passing the body of the message to the specified handler as it is read from the socket, rather than buffering the complete message.
+     * <p>
+     * This allows the body to be processed (e.g. deserialized by an IncrementalMessageDeserializer) whilst the remainder of the message is still being received.  The receive operation is synchronous, i.e. does not return control until the complete message has been received, and EndMessageBody() has been called on the handler.
+     * </p>
+     * @param messageBodyHandler  The handler to pass the message body to.
+     * @return                    True if a message was received, or false if the receive operation was cancelled.
+     * @throws Exception          if an error occurs when attempting to receive a message.
+     */
+    public boolean Receive(IMessageBodyHandler messageBodyHandler) throws Exception {
+        if (messageBodyHandler == null) {
+            throw new IllegalArgumentException("Argument 'messageBodyHandler' cannot be null.");
+        }
+        
+        ByteBuffer messageBytes = ReceiveMessage(messageBodyHandler, false);
+        if (messageBytes == null) {
+            return false;
+        }
+        
+        /* //[BEGIN_LOGGING]
+        logger.Log(this, LogLevel.Information, "Received message and passed to message body handler.");
+        //[END_LOGGING] */
+        
+        return true;
+    }
+
+    @Override
+    public void CancelReceive() {
+        cancelRequest = true;
+        // Wake the receive operation if it is waiting on the selector (or cause its next wait to return immediately)
+        if (selector != null) {
+            selector.wakeup();
+        }
+        while (waitingForRetry == true);
+        
+        /* //[BEGIN_LOGGING]
+        try {
+            logger.Log(this, LogLevel.Information, "Receive operation cancelled.");
+        }
+        catch(Exception e) {
+        }
+        //[END_LOGGING] */
+    }
+    
+    /**
+     * Waits for and receives a complete message, sending an acknowledgement once it has been received.
+     * @param messageBodyHandler              The handler to pass the body of the message to as it is received, or null to buffer the complete body.
+     * @param messageBodyInReadBufferAllowed  Whether the returned buffer can be a view of the read buffer (which is overwritten by the next receive operation) rather than a copy of the message body.
+     * @return                                Buffer containing the body of the message received, between its position and limit (an empty buffer if the body was passed to a message body handler), or null if the receive operation was cancelled.
+     * @throws Exception                      if an error occurs when attempting to receive a message.
+     */
+    private ByteBuffer ReceiveMessage(IMessageBodyHandler messageBodyHandler, boolean messageBodyInReadBufferAllowed) throws Exception {
         cancelRequest = false;
         CheckConnected();
+        ByteBuffer returnMessage = null;
+        this.messageBodyHandler = messageBodyHandler;
+        this.messageBodyInReadBufferAllowed = messageBodyInReadBufferAllowed;
+        
+        try {
+            returnMessage = WaitForAndReadMessage();
+        }
+        finally {
+            // Discard any partially received message body (e.g. if the receive operation was cancelled)
+            DiscardMessageBody();
+            this.messageBodyHandler = null;
+            this.messageBodyInReadBufferAllowed = false;
+        }
+        
+        return returnMessage;
+    }
+    
+    /**
+     * Waits for data to be received on the socket channel, and reads and parses the message, repeating until a complete message which is not a duplicate has been read.
+     * @return            Buffer containing the body of the message received, between its position and limit (an empty buffer if the body was passed to the message body handler), or null if the receive operation was cancelled.
+     * @throws Exception  if an error occurs when attempting to receive a message.
+     */
+    private ByteBuffer WaitForAndReadMessage() throws Exception {
         int messageSequenceNumber = -1;
-        String returnMessage = "";
+        ByteBuffer returnMessage = null;
         
         while (cancelRequest == false) {
             // Check if there are any pending connections which would indicate the TcpRemoteSender has encountered an error and reconnected
@@ -241,14 +468,20 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
                 //[END_METRICS] */
             }
             
-            // Check if any data has been received from the socket channel, and handle and retry if an exception occurs
-            ByteBuffer initialReceivedBytes = ByteBuffer.allocate(socketReadBufferSize);
-            int receivedDataCount = 0;
-            try {
-                receivedDataCount = socketChannel.read(initialReceivedBytes);
-            }
-            catch (Exception e) {
-                receivedDataCount = HandleExceptionAndReadReceivedData(initialReceivedBytes, e);
+            // If the read buffer holds bytes following the last message received, parse these first
+            //   Otherwise check if any data has been received from the socket channel, and handle and retry if an exception occurs
+            //   If the TcpRemoteSender has closed the connection, there is no data to read until it reconnects
+            int receivedDataCount = readBuffer.position() - readBufferParsePosition;
+            if ((receivedDataCount == 0) && (senderDisconnected == false)) {
+                try {
+                    receivedDataCount = socketChannel.read(readBuffer);
+                }
+                catch (Exception e) {
+                    receivedDataCount = HandleExceptionAndReadReceivedData(readBuffer, e);
+                }
+                if (receivedDataCount == -1) {
+                    HandleSenderDisconnected();
+                }
             }
         
             // If data has been received, attempt parse it and read and parse any remaining data, and handle and retry if an exception occurs
@@ -262,7 +495,7 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
                 SetupAndReadMessageParameters methodParameters = new SetupAndReadMessageParameters(parseState, messageSequenceNumber);
                 
                 try {
-                    messageBytes = SetupAndReadMessage(initialReceivedBytes, methodParameters);
+                    messageBytes = SetupAndReadMessage(methodParameters);
                 }
                 catch (Exception e) {
                     messageBytes = HandleExceptionAndRereadMessage(e, methodParameters);
@@ -275,20 +508,33 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
                 // If the complete message has been read, break out of the current while loop
                 //   If the complete message was not read it would have been caused by a cancel request, or by a pending connection which is handled outside this block
                 if ((cancelRequest == false) && (parseState == MessageParseState.ReadCompleteMessage)) {
+                    // Protocol negotiation messages have been acknowledged, and are not returned
+                    if (messageSequenceNumber < 0) {
+                        // Reset variables
+                        messageSequenceNumber = -1;
+                        returnMessage = null;
+                    }
                     // If the sequence number of the message is the same as the last received message, then discard the message
                     //   This situation can be caused by the connection breaking before the sender received the last acknowledgment
-                    if (messageSequenceNumber != lastMessageSequenceNumber) {
+                    else if (IsDuplicateSequenceNumber(messageSequenceNumber) == false) {
                         lastMessageSequenceNumber = messageSequenceNumber;
-                        returnMessage = new String(messageBytes.array(), stringEncodingCharset);
+                        if (methodParameters.protocolNegotiationRequested == true) {
+                            cumulativeAcknowledgementsEnabled = true;
+                        }
+                        if (messageBodyHandlerActive == true) {
+                            messageBodyHandlerActive = false;
+                            messageBodyHandler.EndMessageBody();
+                            returnMessage = ByteBuffer.allocate(0);
+                        }
+                        else {
+                            messageBytes.flip();
+                            returnMessage = messageBytes;
+                        }
                         
                         /* //[BEGIN_METRICS]
                         metricLogger.End(new MessageReceiveTime());
                         metricLogger.Increment(new MessageReceived());
-                        metricLogger.Add(new ReceivedMessageSize(returnMessage.length()));
                         //[END_METRICS] */
-                        /* //[BEGIN_LOGGING]
-                        loggingUtilities.LogMessageReceived(this, returnMessage);
-                        //[END_LOGGING] */
                         break;
                     }
                     else {
@@ -296,9 +542,12 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
                         metricLogger.Increment(new TcpRemoteReceiverDuplicateSequenceNumber());
                         //[END_METRICS] */
                         logger.Log(this, LogLevel.Warning, "Duplicate message with sequence number " + messageSequenceNumber + " received.  Message discarded.");
+                        if (methodParameters.protocolNegotiationRequested == true) {
+                            cumulativeAcknowledgementsEnabled = true;
+                        }
                         // Reset variables
                         messageSequenceNumber = -1;
-                        returnMessage = "";
+                        returnMessage = null;
                     }
                 }
                 /* //[BEGIN_METRICS]
@@ -306,29 +555,24 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
                 //[END_METRICS] */
             }
 
-            waitingForRetry = true;
-            if (receiveRetryInterval > 0){
-                Thread.sleep(receiveRetryInterval);
+            // Wait for more data, unless the read buffer still holds bytes of a subsequent message (e.g. following a discarded duplicate message)
+            //   A connection which has already been accepted is no longer ready on the selector, so is handled immediately rather than waited for
+            if ((readBufferParsePosition == readBuffer.position()) && (pendingSocketChannel == null)) {
+                waitingForRetry = true;
+                if (selector != null) {
+                    if (cancelRequest == false) {
+                        selector.select();
+                    }
+                }
+                else if (receiveRetryInterval > 0){
+                    Thread.sleep(receiveRetryInterval);
+                }
+                waitingForRetry = false;
             }
-            waitingForRetry = false;
         }
         
         return returnMessage;
     }
-
-    @Override
-    public void CancelReceive() {
-        cancelRequest = true;
-        while (waitingForRetry == true);
-        
-        /* //[BEGIN_LOGGING]
-        try {
-            logger.Log(this, LogLevel.Information, "Receive operation cancelled.");
-        }
-        catch(Exception e) {
-        }
-        //[END_LOGGING] */
-    }
     
     /**
      * Throws an exception if a connection has not been established.
@@ -346,16 +590,28 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
     private void AttemptConnect() throws Exception {
         int connectAttempt = 0;
         
-        if (socketChannel != null) {
+        // The socket channel has already been closed if the TcpRemoteSender closed the connection
+        if ((socketChannel != null) && (senderDisconnected == false)) {
             socketChannel.close();
         }
         socketChannel = null;
+        senderDisconnected = false;
+        // Any bytes remaining in the read buffer were received on the previous connection
+        ClearReadBuffer();
+        // Cumulative acknowledgements are negotiated separately for each connection
+        cumulativeAcknowledgementsEnabled = false;
 
         if (serverSocketChannel.isOpen() == false) {
             try {
                 serverSocketChannel.open();
                 serverSocketChannel.bind(new InetSocketAddress(port), 1);
                 serverSocketChannel.configureBlocking(false);
+                if (selector != null) {
+                    if (selector.isOpen() == false) {
+                        selector.open();
+                    }
+                    serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+                }
             }
             catch (Exception e) {
                 throw new Exception("Failed to open ServerSocketChannel whilst connecting.", e);
@@ -370,6 +626,9 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
                     socketChannel = pendingSocketChannel;
                     pendingSocketChannel = null;
                     socketChannel.configureBlocking(false);
+                    if (selector != null) {
+                        socketChannel.register(selector, SelectionKey.OP_READ);
+                    }
                     connected = true;
                     logger.Log(this, LogLevel.Information, "Connection received on port " + port + ".");
                     break;
@@ -377,7 +636,13 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
                 else {
                     logger.Log(this, LogLevel.Warning, "No pending connection requests on port " + port + ".");
                     if (connectRetryInterval > 0) {
-                        Thread.sleep(connectRetryInterval);
+                        // Wait on the selector if available, so that a connection arriving during the interval is accepted immediately
+                        if (selector != null) {
+                            selector.select(connectRetryInterval);
+                        }
+                        else {
+                            Thread.sleep(connectRetryInterval);
+                        }
                     }
                 }
             }
@@ -397,6 +662,10 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
         if (connected == false) {
             throw new Exception("Failed to receive connection on port " + port + " after " + connectAttempt + " attempts.");
         }
+        
+        for (IConnectionEstablishedEventHandler currentHandler : connectionEstablishedEventHandlers) {
+            currentHandler.ConnectionEstablished(this);
+        }
     }
 
     /**
@@ -417,6 +686,16 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
         }
     }
     
+    /**
+     * Closes the socket channel after the TcpRemoteSender has closed the connection, so that the selector subsequently waits only for an incoming connection rather than repeatedly returning the end of stream as ready to read.
+     * @throws Exception  if an error occurs when closing the socket channel.
+     */
+    private void HandleSenderDisconnected() throws Exception {
+        senderDisconnected = true;
+        socketChannel.close();
+        logger.Log(this, LogLevel.Warning, "Connection closed by TcpRemoteSender.  Waiting for reconnect.");
+    }
+    
     /**
      * Handles an exception that occurred when attempting to read data from the socket channel, and retries this operation.
      * @param receivedDataBuffer  The buffer to write the received data to.
@@ -448,71 +727,64 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
     }
     
     /**
-     * Sets up variables and objects, and calls routines to read a message or the remainder of a message.
-     * @param initialReceivedBytes  Bytes that were read from the network when initially checking for a received message.
-     * @param methodParameters      Container holding the primitive type parameters passed to the method.  These are wrapped in a container object to allow pass by reference.
-     * @return                      Buffer containing the bytes of the message body that were read.
-     * @throws Exception            if an unhandled error occurred.
+     * Sets up variables and objects, and calls routines to parse any bytes in the read buffer, and to read and parse the remainder of a message.
+     * @param methodParameters  Container holding the primitive type parameters passed to the method.  These are wrapped in a container object to allow pass by reference.
+     * @return                  Buffer containing the bytes of the message body that were read.
+     * @throws Exception        if an unhandled error occurred.
      */
-    private ByteBuffer SetupAndReadMessage(ByteBuffer initialReceivedBytes, SetupAndReadMessageParameters methodParameters) throws Exception {
-        ByteBuffer tempBuffer;                            // Temporary buffer to store bytes read from the network before parsing
-        int parseStartIndex = 0;                          // The position in the temporary buffer to begin parsing from
-        int parseLength;                                  // The number of bytes to parse from the temporary buffer
-        byte[] messageSequenceNumberBytes = new byte[4];  // Holds the bytes of the message sequence number
-        byte[] messageSizeHeaderBytes = new byte[8];      // Holds the bytes of the message size header
-        ByteBuffer messageBytes = null;                   // Holds the bytes of the message body
-        ParseMessageDataParameters parseMessageDataParameters = new ParseMessageDataParameters(methodParameters.parseState, 0, methodParameters.messageSequenceNumber, 0, messageBytes);
-        
-        // Parse the bytes in parameter initialReceivedBytes
-        if (initialReceivedBytes != null) {
-            ParseMessageData(initialReceivedBytes.array(), 0, initialReceivedBytes.position(), messageSequenceNumberBytes, messageSizeHeaderBytes, parseMessageDataParameters);
-
-            // If the initial buffer is full, create a new one
-            if (initialReceivedBytes.hasRemaining() == false) {
-                tempBuffer = ByteBuffer.allocate(socketReadBufferSize);
-                parseStartIndex = 0;
-                /* //[BEGIN_METRICS]
-                metricLogger.Increment(new TcpRemoteReceiverReadBufferCreated());
-                //[END_METRICS] */
-            }
-            // Otherwise set the initially read ByteBuffer to member tempBuffer, and update the parse start index to the correct position
-            else {
-                tempBuffer = initialReceivedBytes;
-                parseStartIndex = tempBuffer.position();
-            }
-            
-            // Copy primitive parameters back to the parameter container
-            methodParameters.parseState = parseMessageDataParameters.parseState;
-        }
-        else {
-            tempBuffer = ByteBuffer.allocate(socketReadBufferSize);
-        }
+    private ByteBuffer SetupAndReadMessage(SetupAndReadMessageParameters methodParameters) throws Exception {
+        ParseMessageDataParameters parseMessageDataParameters = new ParseMessageDataParameters(methodParameters.parseState, 0, methodParameters.messageSequenceNumber, 0, null);
+        
+        // Parse the bytes already in the read buffer
+        ParseReadBuffer(parseMessageDataParameters);
+        // Copy primitive parameters back to the parameter container
+        methodParameters.parseState = parseMessageDataParameters.parseState;
         
         // Continue to read until a complete message has been received, unless a cancel request has been received or there is a pending connection (i.e. TcpRemoteSender has reconnected due to an error)
-        while ((cancelRequest == false) && (PendingConnectionExists() == false) && (methodParameters.parseState != MessageParseState.ReadCompleteMessage)) { 
-            parseLength = socketChannel.read(tempBuffer);
-            ParseMessageData(tempBuffer.array(), parseStartIndex, parseLength, messageSequenceNumberBytes, messageSizeHeaderBytes, parseMessageDataParameters);
-            
-            // If the temporary buffer is full, create a new one
-            if (tempBuffer.hasRemaining() == false) {
-                tempBuffer = ByteBuffer.allocate(socketReadBufferSize);
-                parseStartIndex = 0;
-                /* //[BEGIN_METRICS]
-                metricLogger.Increment(new TcpRemoteReceiverReadBufferCreated());
-                //[END_METRICS] */
+        while ((cancelRequest == false) && (PendingConnectionExists() == false) && (methodParameters.parseState != MessageParseState.ReadCompleteMessage)) {
+            int readLength = 0;
+            if (senderDisconnected == false) {
+                readLength = socketChannel.read(readBuffer);
+                if (readLength == -1) {
+                    HandleSenderDisconnected();
+                }
             }
-            // Otherwise update the parse start index to the correct position
-            else {
-                parseStartIndex = parseStartIndex + parseLength;
+            // If no data is available, wait until the remainder of the message arrives
+            //   If the TcpRemoteSender has closed the connection, this waits until it reconnects, after which the message is received again on the new connection
+            if (readLength <= 0) {
+                if (selector != null) {
+                    selector.select();
+                }
+                else if ((senderDisconnected == true) && (receiveRetryInterval > 0)) {
+                    Thread.sleep(receiveRetryInterval);
+                }
             }
+            ParseReadBuffer(parseMessageDataParameters);
             
             // Copy primitive parameters back to the parameter container
             methodParameters.parseState = parseMessageDataParameters.parseState;
         }
         
-        // If a complete message has been received, send back the acknowledgement byte
+        // If a complete message has been received, send back the acknowledgement
+        methodParameters.protocolNegotiationRequested = false;
         if ((cancelRequest == false) && (methodParameters.parseState == MessageParseState.ReadCompleteMessage)) {
-            socketChannel.write(ByteBuffer.wrap(new byte[] { messageAcknowledgementByte }));
+            if ((parseMessageDataParameters.messageSequenceNumber < 0) && (cumulativeAcknowledgementsAllowed == true)) {
+                // The message is a protocol negotiation message, whose sequence number holds the acknowledgement window size of the TcpRemoteSender
+                //   Reply with the sequence number of the last message received, so that the TcpRemoteSender does not re-send messages up to it
+                cumulativeAcknowledgementsEnabled = true;
+                socketChannel.write(EncodeSequenceNumberAcknowledgement(protocolNegotiationAcknowledgementByte, lastMessageSequenceNumber));
+            }
+            else if ((parseMessageDataParameters.protocolNegotiationRequested == true) && (cumulativeAcknowledgementsAllowed == true)) {
+                // Cumulative acknowledgements are enabled once the message has been checked for being a duplicate (it may have been re-sent after the connection broke)
+                methodParameters.protocolNegotiationRequested = true;
+                socketChannel.write(EncodeSequenceNumberAcknowledgement(protocolNegotiationAcknowledgementByte, parseMessageDataParameters.messageSequenceNumber));
+            }
+            else if (cumulativeAcknowledgementsEnabled == true) {
+                socketChannel.write(EncodeSequenceNumberAcknowledgement(messageAcknowledgementByte, parseMessageDataParameters.messageSequenceNumber));
+            }
+            else {
+                socketChannel.write(ByteBuffer.wrap(new byte[] { messageAcknowledgementByte }));
+            }
         }
         
         // Copy primitive parameters back to the parameter container
@@ -522,63 +794,172 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
     }
     
     /**
-     * Parses a subset of message bytes specified by the inputted byte array, start index, and length.  Results of parsing are stored in the remaining parameters.
-     * @param parseBytes                  The portion of the message to parse.
-     * @param startIndex                  The index of parameter 'messageBytes' to begin parsing at.
-     * @param parseLength                 The number of bytes to parse.
-     * @param messageSequenceNumberBytes  The bytes containing the message sequence number.
-     * @param messageSizeHeaderBytes      The header bytes containing the message size.
-     * @param methodParameters            Container holding the primitive type parameters passed to the method.  These are wrapped in a container object to allow pass by reference.
+     * Creates an acknowledgement consisting of the specified acknowledgement byte followed by a sequence number encoded as a 4 byte little endian.
+     * @param acknowledgementByte  The acknowledgement byte.
+     * @param sequenceNumber       The sequence number.
+     * @return                     Buffer containing the acknowledgement.
+     */
+    private ByteBuffer EncodeSequenceNumberAcknowledgement(byte acknowledgementByte, int sequenceNumber) {
+        ByteBuffer acknowledgement = ByteBuffer.allocate(5);
+        acknowledgement.order(ByteOrder.LITTLE_ENDIAN);
+        acknowledgement.put(acknowledgementByte);
+        acknowledgement.putInt(sequenceNumber);
+        acknowledgement.flip();
+        
+        return acknowledgement;
+    }
+    
+    /**
+     * Determines whether the specified sequence number is the same as the sequence number of the last message received.
+     * <p>
+     * Messages received on a connection with cumulative acknowledgements are never duplicates, as the TcpRemoteSender discards the messages up to the last message received (which is sent in reply to the protocol negotiation message) before re-sending.  Not checking these messages also ensures that messages from a restarted TcpRemoteSender (whose sequence numbers begin again at 1) are not discarded.
+     * </p>
+     * @param sequenceNumber  The sequence number to check.
+     * @return                True if the message with the sequence number is a duplicate.
+     */
+    private boolean IsDuplicateSequenceNumber(int sequenceNumber) {
+        return ((cumulativeAcknowledgementsEnabled == false) && (sequenceNumber == lastMessageSequenceNumber));
+    }
+    
+    /**
+     * Parses the bytes in the read buffer which have not yet been parsed, up to the end of the message currently being received.  Once all the bytes in the read buffer have been parsed, the buffer is cleared so that the next read begins at its start.
+     * @param parseMessageDataParameters  Container holding the state of parsing the message.
      * @throws Exception                  if an unhandled error occurred.
      */
-    private void ParseMessageData(byte[] parseBytes, int startIndex, int parseLength, byte[] messageSequenceNumberBytes, byte[] messageSizeHeaderBytes, ParseMessageDataParameters methodParameters) throws Exception {
-        for (int i = startIndex; i < (startIndex + parseLength); i++) {
+    private void ParseReadBuffer(ParseMessageDataParameters parseMessageDataParameters) throws Exception {
+        try {
+            readBufferParsePosition = readBufferParsePosition + ParseMessageData(readBuffer.array(), readBufferParsePosition, readBuffer.position() - readBufferParsePosition, parseMessageDataParameters);
+        }
+        catch (Exception e) {
+            // The remaining bytes cannot be parsed, so discard them rather than parsing them again in the next receive operation
+            ClearReadBuffer();
+            throw e;
+        }
+        if (readBufferParsePosition == readBuffer.position()) {
+            ClearReadBuffer();
+        }
+    }
+    
+    /**
+     * Discards any bytes in the read buffer, so that the next read begins at its start.
+     */
+    private void ClearReadBuffer() {
+        readBuffer.clear();
+        readBufferParsePosition = 0;
+    }
+    
+    /**
+     * Parses a subset of message bytes specified by the inputted byte array, start index, and length, stopping after the end delimiter of the message.  Results of parsing are stored in the method parameters container.
+     * @param parseBytes        The portion of the message to parse.
+     * @param startIndex        The index of parameter 'parseBytes' to begin parsing at.
+     * @param parseLength       The number of bytes to parse.
+     * @param methodParameters  Container holding the primitive type parameters passed to the method.  These are wrapped in a container object to allow pass by reference.
+     * @return                  The number of bytes parsed.  This is less than parameter 'parseLength' if the message ends before the last byte, in which case the remaining bytes are the start of a subsequent message.
+     * @throws Exception        if an unhandled error occurred.
+     */
+    private int ParseMessageData(byte[] parseBytes, int startIndex, int parseLength, ParseMessageDataParameters methodParameters) throws Exception {
+        int i = startIndex;
+        int endIndex = startIndex + parseLength;
+        
+        while ((i < endIndex) && (methodParameters.parseState != MessageParseState.ReadCompleteMessage)) {
             switch (methodParameters.parseState) {
-                case StartOfMessage: 
+                case StartOfMessage:
                     if (parseBytes[i] != messageStartDelimiter) {
                         throw new Exception("First byte of received message was expected to be " + messageStartDelimiter + ", but was " + parseBytes[i] + ".");
                     }
                     else {
                         methodParameters.parseState = MessageParseState.ReadStartDelimiter;
                     }
+                    i++;
                     break;
-                    
+                
                 case ReadStartDelimiter:
-                    messageSequenceNumberBytes[methodParameters.messageSequenceNumberCurrentPosition] = parseBytes[i];
-                    methodParameters.messageSequenceNumberCurrentPosition++;
+                    // Copy all the bytes of the sequence number which are available in the parse bytes at once
+                    int sequenceNumberLength = Math.min(messageSequenceNumberBytes.length - methodParameters.messageSequenceNumberCurrentPosition, endIndex - i);
+                    System.arraycopy(parseBytes, i, messageSequenceNumberBytes, methodParameters.messageSequenceNumberCurrentPosition, sequenceNumberLength);
+                    methodParameters.messageSequenceNumberCurrentPosition = methodParameters.messageSequenceNumberCurrentPosition + sequenceNumberLength;
+                    i = i + sequenceNumberLength;
                     // If 4 bytes have been read into the sequence number byte array, then set the sequence number, and advance to the next parse state
-                    if (methodParameters.messageSequenceNumberCurrentPosition == 4) {
-                        // Decode as little endian
-                        ByteBuffer tempBuffer = ByteBuffer.wrap(messageSequenceNumberBytes);
-                        tempBuffer.order(ByteOrder.LITTLE_ENDIAN);
-                        methodParameters.messageSequenceNumber = tempBuffer.getInt();
+                    if (methodParameters.messageSequenceNumberCurrentPosition == messageSequenceNumberBytes.length) {
+                        methodParameters.messageSequenceNumber = (int)DecodeLittleEndian(messageSequenceNumberBytes);
                         methodParameters.parseState = MessageParseState.ReadSequenceNumber;
                     }
                     break;
-                    
+                
                 case ReadSequenceNumber:
-                    messageSizeHeaderBytes[methodParameters.messageSizeHeaderCurrentPosition] = parseBytes[i];
-                    methodParameters.messageSizeHeaderCurrentPosition++;
+                    // Copy all the bytes of the message size header which are available in the parse bytes at once
+                    int sizeHeaderLength = Math.min(messageSizeHeaderBytes.length - methodParameters.messageSizeHeaderCurrentPosition, endIndex - i);
+                    System.arraycopy(parseBytes, i, messageSizeHeaderBytes, methodParameters.messageSizeHeaderCurrentPosition, sizeHeaderLength);
+                    methodParameters.messageSizeHeaderCurrentPosition = methodParameters.messageSizeHeaderCurrentPosition + sizeHeaderLength;
+                    i = i + sizeHeaderLength;
                     // If 8 bytes have been read into the message size header byte array, then set the message size, and advance to the next parse state
-                    if (methodParameters.messageSizeHeaderCurrentPosition == 8) {
-                        // Decode as little endian
-                        ByteBuffer tempBuffer = ByteBuffer.wrap(messageSizeHeaderBytes);
-                        tempBuffer.order(ByteOrder.LITTLE_ENDIAN);
-                        // Initialise the message body byte array
-                        // TODO: Note that casting a long to an int like this could result in a negative number which will cause the allocate() method to throw an IllegalArgumentException
-                        methodParameters.messageBodyBytes = ByteBuffer.allocate((int)tempBuffer.getLong());
-                        methodParameters.parseState = MessageParseState.ReadSizeHeader;
+                    if (methodParameters.messageSizeHeaderCurrentPosition == messageSizeHeaderBytes.length) {
+                        methodParameters.messageBodyRemaining = DecodeLittleEndian(messageSizeHeaderBytes);
+                        if (methodParameters.messageBodyRemaining < 0) {
+                            throw new Exception("Message size header contained invalid size " + methodParameters.messageBodyRemaining + ".");
+                        }
+                        // A message with a body and the highest bit of its sequence number set requests cumulative acknowledgements, and the remaining bits hold its sequence number
+                        //   (a message with an empty body and a negative sequence number is a protocol negotiation message)
+                        if ((methodParameters.messageSequenceNumber < 0) && (methodParameters.messageBodyRemaining > 0)) {
+                            methodParameters.protocolNegotiationRequested = true;
+                            methodParameters.messageSequenceNumber = methodParameters.messageSequenceNumber & Integer.MAX_VALUE;
+                        }
+                        // Pass the message body to the handler if one is set, unless the message is a protocol negotiation message, or a duplicate of a message already received (which will be discarded)
+                        if ((messageBodyHandler != null) && (methodParameters.messageSequenceNumber >= 0) && (IsDuplicateSequenceNumber(methodParameters.messageSequenceNumber) == false)) {
+                            DiscardMessageBody();
+                            messageBodyHandler.BeginMessageBody(methodParameters.messageBodyRemaining);
+                            messageBodyHandlerActive = true;
+                            methodParameters.messageBodyBytes = null;
+                        }
+                        else if (methodParameters.messageBodyRemaining == 0) {
+                            methodParameters.messageBodyBytes = ByteBuffer.allocate(0);
+                        }
+                        else {
+                            // The body will be buffered, so its size must fit in a ByteBuffer (the same maximum message size as is accepted by the TcpMultiClientRemoteReceiver class)
+                            if (methodParameters.messageBodyRemaining > (Integer.MAX_VALUE - messageHeaderLength - 1)) {
+                                throw new Exception("Message size header contained invalid size " + methodParameters.messageBodyRemaining + ".");
+                            }
+                            // The message body buffer is set when the first bytes of the body are parsed
+                            methodParameters.messageBodyBytes = null;
+                        }
+                        if (methodParameters.messageBodyRemaining == 0) {
+                            methodParameters.parseState = MessageParseState.ReadMessageBody;
+                        }
+                        else {
+                            methodParameters.parseState = MessageParseState.ReadSizeHeader;
+                        }
                     }
                     break;
-                    
+                
                 case ReadSizeHeader:
-                    methodParameters.messageBodyBytes.put(parseBytes[i]);
-                    // If there is no space remaining in the message body buffer, advance to the next parse state
-                    if (methodParameters.messageBodyBytes.hasRemaining() == false) {
+                    // Handle all the bytes of the message body which are available in the parse bytes at once
+                    int bodyLength = (int)Math.min(methodParameters.messageBodyRemaining, (long)(endIndex - i));
+                    if (messageBodyHandlerActive == true) {
+                        messageBodyHandler.MessageBodyReceived(parseBytes, i, bodyLength);
+                    }
+                    else if (methodParameters.messageBodyBytes == null) {
+                        // If the complete body and the end delimiter are in the parse bytes, and the body can be returned as a view of the read buffer, refer to the body in place rather than copying it
+                        if ((messageBodyInReadBufferAllowed == true) && (bodyLength == methodParameters.messageBodyRemaining) && ((i + bodyLength) < endIndex)) {
+                            methodParameters.messageBodyBytes = ByteBuffer.wrap(parseBytes, i, bodyLength).slice();
+                            // Set the position to the end of the body, as it would be if the body had been copied
+                            methodParameters.messageBodyBytes.position(bodyLength);
+                        }
+                        else {
+                            methodParameters.messageBodyBytes = ByteBuffer.allocate((int)methodParameters.messageBodyRemaining);
+                            methodParameters.messageBodyBytes.put(parseBytes, i, bodyLength);
+                        }
+                    }
+                    else {
+                        methodParameters.messageBodyBytes.put(parseBytes, i, bodyLength);
+                    }
+                    methodParameters.messageBodyRemaining = methodParameters.messageBodyRemaining - bodyLength;
+                    i = i + bodyLength;
+                    // If the complete message body has been read, advance to the next parse state
+                    if (methodParameters.messageBodyRemaining == 0) {
                         methodParameters.parseState = MessageParseState.ReadMessageBody;
                     }
                     break;
-                    
+                
                 case ReadMessageBody:
                     if (parseBytes[i] != messageEndDelimiter) {
                         throw new Exception("Last byte of received message was expected to be " + messageEndDelimiter + ", but was " + parseBytes[i] + ".");
@@ -586,14 +967,14 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
                     else {
                         methodParameters.parseState = MessageParseState.ReadCompleteMessage;
                     }
+                    i++;
                     break;
-
-                case ReadCompleteMessage:
-                    throw new Exception("Surplus data encountered after message delimiter character, starting with " + parseBytes[i] + ".");
             }
         }
+        
+        return i - startIndex;
     }
-    
+
     /**
      * Handles an exception that occurred when attempting to read a message, before re-establishing the connection and repeating the read operation.
      * @param readException     The exception that occurred when attempting to read the message.
@@ -642,13 +1023,15 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
             
             logger.Log(this, LogLevel.Warning, "Attempting to reconnect to and re-receive.");
     
+            // The message will be re-received from the start, so discard any partially received message body
+            DiscardMessageBody();
             AttemptConnect();
             /* //[BEGIN_METRICS]
             metricLogger.Increment(new TcpRemoteReceiverReconnected());
             //[END_METRICS] */
             methodParameters.parseState = MessageParseState.StartOfMessage;
             try {
-                messageBytes = SetupAndReadMessage(null, methodParameters);
+                messageBytes = SetupAndReadMessage(methodParameters);
             }
             catch (Exception e) {
                 throw new Exception("Error receiving message.  Failed to read message after reconnecting.", e);
@@ -664,6 +1047,16 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
         return messageBytes;
     }
 
+    /**
+     * Calls DiscardMessageBody() on the message body handler, if BeginMessageBody() has been called for the message currently being received.
+     */
+    private void DiscardMessageBody() {
+        if (messageBodyHandlerActive == true) {
+            messageBodyHandlerActive = false;
+            messageBodyHandler.DiscardMessageBody();
+        }
+    }
+
     /**
      * Reverses the order of the inputted array of bytes.
      * @param inputByteArray  The array of bytes to reverse.
@@ -682,6 +1075,21 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
         }
     }
     
+    /**
+     * Decodes a little endian integer from the inputted array of bytes.
+     * @param inputByteArray  The bytes of the integer, least significant byte first.
+     * @return                The integer.
+     */
+    private long DecodeLittleEndian(byte[] inputByteArray) {
+        long value = 0;
+        
+        for (int i = inputByteArray.length - 1; i >= 0; i--) {
+            value = (value << 8) | (inputByteArray[i] & 0xFF);
+        }
+        
+        return value;
+    }
+    
     /**
      * Container class to hold parameters passed to method SetupAndReadMessage.  Allows values in the class to be changed, to simulate passing by reference.
      * @author Alastair Wyse
@@ -707,6 +1115,11 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
          * The sequence number of the received message.
          */
         public int messageSequenceNumber;
+        
+        /**
+         * Indicates whether the received message requested cumulative acknowledgements, and these were allowed.
+         */
+        public boolean protocolNegotiationRequested;
     }
     
     /**
@@ -755,5 +1168,15 @@ public class TcpRemoteReceiver implements IRemoteReceiver, AutoCloseable {
          * The bytes containing the message body.
          */
         public ByteBuffer messageBodyBytes;
+        
+        /**
+         * The number of bytes of the message body remaining to be parsed.
+         */
+        public long messageBodyRemaining;
+        
+        /**
+         * Indicates whether the message requested cumulative acknowledgements (i.e. the highest bit of its sequence number was set).
+         */
+        public boolean protocolNegotiationRequested;
     }
 }
@@ -19,6 +19,8 @@ package net.alastairwyse.methodinvocationremoting;
 import java.io.*;
 import java.net.*;
 import java.nio.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import net.alastairwyse.operatingsystemabstraction.*;
 import net.alastairwyse.applicationlogging.*;
 import net.alastairwyse.applicationmetrics.*;
@@ -26,20 +28,47 @@ import net.alastairwyse.methodinvocationremotingmetrics.*;
 
 /**
  * Sends messages to a remote location via a TCP socket connection.
+ * <p>
+ * Messages can be sent either as strings (which are encoded using the configured string encoding before sending), or as sequences of bytes which are sent without further encoding.
+ * </p>
+ * <p>
+ * By default each message is acknowledged by the TcpRemoteReceiver before the next message is sent.  If an acknowledgement window size greater than 1 is set, the class requests cumulative acknowledgements with the first message sent on each connection (by setting the highest bit of its sequence number), and if the TcpRemoteReceiver agrees, sends up to the window size of messages before waiting for an acknowledgement.  Unacknowledged messages are retained and re-sent after reconnecting.  A TcpRemoteReceiver on which cumulative acknowledgements have not been allowed, or an older version of TcpRemoteReceiver, receives the first message as an ordinary message and acknowledges it with the acknowledgement byte alone, in which case messages continue to be sent one at a time.
+ * </p>
  * @author Alastair Wyse
  */
-public class TcpRemoteSender implements IRemoteSender, AutoCloseable {
+public class TcpRemoteSender implements IRemoteSender, IByteRemoteSender, AutoCloseable {
 
     private InetAddress ipAddress;
     private int port;
     private int connectRetryCount;
     private int connectRetryInterval;
     private int acknowledgementReceiveTimeout;
-    private int acknowledgementReceiveRetryInterval;
     private ISocketChannel socketChannel;
     private int messageSequenceNumber;
     private IApplicationLogger logger;
     private IMetricLogger metricLogger;
+    /** The objects to notify when a connection is established. */
+    private CopyOnWriteArrayList<IConnectionEstablishedEventHandler> connectionEstablishedEventHandlers;
+    /** The maximum number of messages which can be sent before an acknowledgement is received, if the TcpRemoteReceiver supports cumulative acknowledgements. */
+    private int acknowledgementWindowSize;
+    /** Indicates whether cumulative acknowledgements were negotiated with the TcpRemoteReceiver on the current connection. */
+    private boolean cumulativeAcknowledgementsEnabled;
+    /** Indicates whether cumulative acknowledgements need to be requested with the next message sent on the current connection. */
+    private boolean protocolNegotiationPending;
+    /** Indicates whether the message currently being sent requested cumulative acknowledgements, in which case it must be re-sent in the same form after reconnecting, so that the TcpRemoteReceiver can detect it as a duplicate. */
+    private boolean protocolNegotiationMessageSent;
+    /** Messages which have been sent but not yet acknowledged, in the order they were sent. */
+    private ArrayDeque<UnacknowledgedMessage> unacknowledgedMessages;
+    /** Reusable buffer to read single byte acknowledgements into. */
+    private ByteBuffer acknowledgementBuffer;
+    /** Buffer to read cumulative acknowledgements into. */
+    private ByteBuffer cumulativeAcknowledgementBuffer;
+    /** Reusable buffer holding the start delimiter, sequence number and size header of the message being sent. */
+    private ByteBuffer messageHeaderBuffer;
+    /** Reusable buffer holding the end delimiter of the message being sent. */
+    private ByteBuffer messageTrailerBuffer;
+    /** Reusable array holding the header, body and trailer buffers of the message being sent, for passing to a gathering write. */
+    private ByteBuffer[] messageBuffers;
     /** The string encoding to use when sending a message. */
     protected String stringEncodingCharset = "UTF-8";
     /** The byte which denotes the start of the message when sending. */
@@ -48,17 +77,18 @@ public class TcpRemoteSender implements IRemoteSender, AutoCloseable {
     protected byte messageEndDelimiter = 0x03;
     /** The byte which is expected to be received back from the TcpRemoteReceiver to acknowledge receipt of the message. */
     protected byte messageAcknowledgementByte = 0x06;
+    /** The byte which is expected to be received back from a TcpRemoteReceiver which supports cumulative acknowledgements, in response to a protocol negotiation message. */
+    protected byte protocolNegotiationAcknowledgementByte = 0x16;
     
     /**
      * Initialises a new instance of the TcpRemoteSender class.
-     * @param ipAddress                            The remote IP address to connect to.
-     * @param port                                 The remote port to connect to.
-     * @param connectRetryCount                    The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
-     * @param connectRetryInterval                 The interval between retries to connect or reconnect in milliseconds.
-     * @param acknowledgementReceiveTimeout        The maximum time to wait for an acknowledgement of a message in milliseconds.
-     * @param acknowledgementReceiveRetryInterval  The time between retries to check for an acknowledgement in milliseconds.
+     * @param ipAddress                      The remote IP address to connect to.
+     * @param port                           The remote port to connect to.
+     * @param connectRetryCount              The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
+     * @param connectRetryInterval           The interval between retries to connect or reconnect in milliseconds.
+     * @param acknowledgementReceiveTimeout  The maximum time to wait for an acknowledgement of a message in milliseconds.
      */
-    public TcpRemoteSender(InetAddress ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, int acknowledgementReceiveRetryInterval) {
+    public TcpRemoteSender(InetAddress ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout) {
         if (this.ipAddress == null) {
             this.ipAddress = ipAddress;
         }
@@ -86,20 +116,167 @@ public class TcpRemoteSender implements IRemoteSender, AutoCloseable {
             throw new IllegalArgumentException("Argument 'acknowledgementReceiveTimeout' must be greater than or equal to 0.");
         }
 
-        if(acknowledgementReceiveRetryInterval >= 0) {
-            this.acknowledgementReceiveRetryInterval = acknowledgementReceiveRetryInterval;
-        }
-        else {
-            throw new IllegalArgumentException("Argument 'acknowledgementReceiveRetryInterval' must be greater than or equal to 0.");
-        }
-        
         logger = new ConsoleApplicationLogger(LogLevel.Information, '|', "  ");
         metricLogger = new NullMetricLogger();
         socketChannel = new SocketChannel();
+        connectionEstablishedEventHandlers = new CopyOnWriteArrayList<IConnectionEstablishedEventHandler>();
+        acknowledgementWindowSize = 1;
+        cumulativeAcknowledgementsEnabled = false;
+        protocolNegotiationPending = false;
+        protocolNegotiationMessageSent = false;
+        unacknowledgedMessages = new ArrayDeque<UnacknowledgedMessage>();
+        acknowledgementBuffer = ByteBuffer.allocate(1);
+        cumulativeAcknowledgementBuffer = ByteBuffer.allocate(5);
+        cumulativeAcknowledgementBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        messageHeaderBuffer = ByteBuffer.allocateDirect(13);
+        messageHeaderBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        messageTrailerBuffer = ByteBuffer.allocateDirect(1);
+        messageBuffers = new ByteBuffer[3];
 
         messageSequenceNumber = 1;
     }
     
+    /**
+     * Initialises a new instance of the TcpRemoteSender class.
+     * @param ipAddress                      The remote IP address to connect to.
+     * @param port                           The remote port to connect to.
+     * @param connectRetryCount              The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
+     * @param connectRetryInterval           The interval between retries to connect or reconnect in milliseconds.
+     * @param acknowledgementReceiveTimeout  The maximum time to wait for an acknowledgement of a message in milliseconds.
+     * @throws UnknownHostException          If the specified IP address could not be resolved.
+     */
+    public TcpRemoteSender(String ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout) throws UnknownHostException {
+        this(InetAddress.getByName(ipAddress), port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout);
+    }
+    
+    /**
+     * Initialises a new instance of the TcpRemoteSender class.
+     * @param ipAddress                      The remote IP address to connect to.
+     * @param port                           The remote port to connect to.
+     * @param connectRetryCount              The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
+     * @param connectRetryInterval           The interval between retries to connect or reconnect in milliseconds.
+     * @param acknowledgementReceiveTimeout  The maximum time to wait for an acknowledgement of a message in milliseconds.
+     * @param logger                         The logger to write log events to.
+     */
+    public TcpRemoteSender(InetAddress ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, IApplicationLogger logger) {
+        this(ipAddress, port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout);
+        this.logger = logger;
+    }
+    
+    /**
+     * Initialises a new instance of the TcpRemoteSender class.
+     * @param ipAddress                      The remote IP address to connect to.
+     * @param port                           The remote port to connect to.
+     * @param connectRetryCount              The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
+     * @param connectRetryInterval           The interval between retries to connect or reconnect in milliseconds.
+     * @param acknowledgementReceiveTimeout  The maximum time to wait for an acknowledgement of a message in milliseconds.
+     * @param metricLogger                   The metric logger to write metric and instrumentation events to.
+     */
+    public TcpRemoteSender(InetAddress ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, IMetricLogger metricLogger) {
+        this(ipAddress, port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout);
+        this.metricLogger = metricLogger;
+    }
+    
+    /**
+     * Initialises a new instance of the TcpRemoteSender class.
+     * @param ipAddress                      The remote IP address to connect to.
+     * @param port                           The remote port to connect to.
+     * @param connectRetryCount              The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
+     * @param connectRetryInterval           The interval between retries to connect or reconnect in milliseconds.
+     * @param acknowledgementReceiveTimeout  The maximum time to wait for an acknowledgement of a message in milliseconds.
+     * @param logger                         The logger to write log events to.
+     * @param metricLogger                   The metric logger to write metric and instrumentation events to.
+     */
+    public TcpRemoteSender(InetAddress ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, IApplicationLogger logger, IMetricLogger metricLogger) {
+        this(ipAddress, port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout);
+        this.logger = logger;
+        this.metricLogger = metricLogger;
+    }
+    
+    /**
+     * Initialises a new instance of the TcpRemoteSender class.
+     * @param ipAddress                      The remote IP address to connect to.
+     * @param port                           The remote port to connect to.
+     * @param connectRetryCount              The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
+     * @param connectRetryInterval           The interval between retries to connect or reconnect in milliseconds.
+     * @param acknowledgementReceiveTimeout  The maximum time to wait for an acknowledgement of a message in milliseconds.
+     * @param logger                         The logger to write log events to.
+     * @throws UnknownHostException          If the specified IP address could not be resolved.
+     */
+    public TcpRemoteSender(String ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, IApplicationLogger logger) throws UnknownHostException {
+        this(ipAddress, port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout);
+        this.logger = logger;
+    }
+    
+    /**
+     * Initialises a new instance of the TcpRemoteSender class.
+     * @param ipAddress                      The remote IP address to connect to.
+     * @param port                           The remote port to connect to.
+     * @param connectRetryCount              The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
+     * @param connectRetryInterval           The interval between retries to connect or reconnect in milliseconds.
+     * @param acknowledgementReceiveTimeout  The maximum time to wait for an acknowledgement of a message in milliseconds.
+     * @param metricLogger                   The metric logger to write metric and instrumentation events to.
+     * @throws UnknownHostException          If the specified IP address could not be resolved.
+     */
+    public TcpRemoteSender(String ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, IMetricLogger metricLogger) throws UnknownHostException {
+        this(ipAddress, port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout);
+        this.metricLogger = metricLogger;
+    }
+    
+    /**
+     * Initialises a new instance of the TcpRemoteSender class.
+     * @param ipAddress                      The remote IP address to connect to.
+     * @param port                           The remote port to connect to.
+     * @param connectRetryCount              The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
+     * @param connectRetryInterval           The interval between retries to connect or reconnect in milliseconds.
+     * @param acknowledgementReceiveTimeout  The maximum time to wait for an acknowledgement of a message in milliseconds.
+     * @param logger                         The logger to write log events to.
+     * @param metricLogger                   The metric logger to write metric and instrumentation events to.
+     * @throws UnknownHostException          If the specified IP address could not be resolved.
+     */
+    public TcpRemoteSender(String ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, IApplicationLogger logger, IMetricLogger metricLogger) throws UnknownHostException {
+        this(ipAddress, port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout);
+        this.logger = logger;
+        this.metricLogger = metricLogger;
+    }
+    
+    /**
+     * Initialises a new instance of the TcpRemoteSender class.  
+     * <b>Note</b> this is an additional constructor to facilitate unit tests, and should not be used to instantiate the class under normal conditions.
+     * @param ipAddress                      The remote IP address to connect to.
+     * @param port                           The remote port to connect to.
+     * @param connectRetryCount              The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
+     * @param connectRetryInterval           The interval between retries to connect or reconnect in milliseconds.
+     * @param acknowledgementReceiveTimeout  The maximum time to wait for an acknowledgement of a message in milliseconds.
+     * @param logger                         The logger to write log events to.
+     * @param metricLogger                   The metric logger to write metric and instrumentation events to.
+     * @param socketChannel                  A test (mock) socket channel.
+     * @throws UnknownHostException          If the specified IP address could not be resolved.
+     */
+    public TcpRemoteSender(String ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, IApplicationLogger logger, IMetricLogger metricLogger, ISocketChannel socketChannel) throws UnknownHostException {
+        this(InetAddress.getByName(ipAddress), port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout, logger, metricLogger);
+        this.socketChannel = socketChannel;
+    }
+    
+    /**
+     * Initialises a new instance of the TcpRemoteSender class.
+     * @param ipAddress                            The remote IP address to connect to.
+     * @param port                                 The remote port to connect to.
+     * @param connectRetryCount                    The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
+     * @param connectRetryInterval                 The interval between retries to connect or reconnect in milliseconds.
+     * @param acknowledgementReceiveTimeout        The maximum time to wait for an acknowledgement of a message in milliseconds.
+     * @param acknowledgementReceiveRetryInterval  Not used, as the acknowledgement is waited for with a blocking read which returns as soon as the acknowledgement is received.
+     * @deprecated  Use the equivalent constructor without the acknowledgementReceiveRetryInterval parameter.
+     */
+    @Deprecated
+    public TcpRemoteSender(InetAddress ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, int acknowledgementReceiveRetryInterval) {
+        this(ipAddress, port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout);
+        
+        if(acknowledgementReceiveRetryInterval < 0) {
+            throw new IllegalArgumentException("Argument 'acknowledgementReceiveRetryInterval' must be greater than or equal to 0.");
+        }
+    }
+    
     /**
      * Initialises a new instance of the TcpRemoteSender class.
      * @param ipAddress                            The remote IP address to connect to.
@@ -107,9 +284,11 @@ public class TcpRemoteSender implements IRemoteSender, AutoCloseable {
      * @param connectRetryCount                    The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
      * @param connectRetryInterval                 The interval between retries to connect or reconnect in milliseconds.
      * @param acknowledgementReceiveTimeout        The maximum time to wait for an acknowledgement of a message in milliseconds.
-     * @param acknowledgementReceiveRetryInterval  The time between retries to check for an acknowledgement in milliseconds.
+     * @param acknowledgementReceiveRetryInterval  Not used, as the acknowledgement is waited for with a blocking read which returns as soon as the acknowledgement is received.
      * @throws UnknownHostException                If the specified IP address could not be resolved.
+     * @deprecated  Use the equivalent constructor without the acknowledgementReceiveRetryInterval parameter.
      */
+    @Deprecated
     public TcpRemoteSender(String ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, int acknowledgementReceiveRetryInterval) throws UnknownHostException {
         this(InetAddress.getByName(ipAddress), port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout, acknowledgementReceiveRetryInterval);
     }
@@ -121,9 +300,11 @@ public class TcpRemoteSender implements IRemoteSender, AutoCloseable {
      * @param connectRetryCount                    The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
      * @param connectRetryInterval                 The interval between retries to connect or reconnect in milliseconds.
      * @param acknowledgementReceiveTimeout        The maximum time to wait for an acknowledgement of a message in milliseconds.
-     * @param acknowledgementReceiveRetryInterval  The time between retries to check for an acknowledgement in milliseconds.
+     * @param acknowledgementReceiveRetryInterval  Not used, as the acknowledgement is waited for with a blocking read which returns as soon as the acknowledgement is received.
      * @param logger                               The logger to write log events to.
+     * @deprecated  Use the equivalent constructor without the acknowledgementReceiveRetryInterval parameter.
      */
+    @Deprecated
     public TcpRemoteSender(InetAddress ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, int acknowledgementReceiveRetryInterval, IApplicationLogger logger) {
         this(ipAddress, port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout, acknowledgementReceiveRetryInterval);
         this.logger = logger;
@@ -136,9 +317,11 @@ public class TcpRemoteSender implements IRemoteSender, AutoCloseable {
      * @param connectRetryCount                    The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
      * @param connectRetryInterval                 The interval between retries to connect or reconnect in milliseconds.
      * @param acknowledgementReceiveTimeout        The maximum time to wait for an acknowledgement of a message in milliseconds.
-     * @param acknowledgementReceiveRetryInterval  The time between retries to check for an acknowledgement in milliseconds.
+     * @param acknowledgementReceiveRetryInterval  Not used, as the acknowledgement is waited for with a blocking read which returns as soon as the acknowledgement is received.
      * @param metricLogger                         The metric logger to write metric and instrumentation events to.
+     * @deprecated  Use the equivalent constructor without the acknowledgementReceiveRetryInterval parameter.
      */
+    @Deprecated
     public TcpRemoteSender(InetAddress ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, int acknowledgementReceiveRetryInterval, IMetricLogger metricLogger) {
         this(ipAddress, port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout, acknowledgementReceiveRetryInterval);
         this.metricLogger = metricLogger;
@@ -151,10 +334,12 @@ public class TcpRemoteSender implements IRemoteSender, AutoCloseable {
      * @param connectRetryCount                    The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
      * @param connectRetryInterval                 The interval between retries to connect or reconnect in milliseconds.
      * @param acknowledgementReceiveTimeout        The maximum time to wait for an acknowledgement of a message in milliseconds.
-     * @param acknowledgementReceiveRetryInterval  The time between retries to check for an acknowledgement in milliseconds.
+     * @param acknowledgementReceiveRetryInterval  Not used, as the acknowledgement is waited for with a blocking read which returns as soon as the acknowledgement is received.
      * @param logger                               The logger to write log events to.
      * @param metricLogger                         The metric logger to write metric and instrumentation events to.
+     * @deprecated  Use the equivalent constructor without the acknowledgementReceiveRetryInterval parameter.
      */
+    @Deprecated
     public TcpRemoteSender(InetAddress ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, int acknowledgementReceiveRetryInterval, IApplicationLogger logger, IMetricLogger metricLogger) {
         this(ipAddress, port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout, acknowledgementReceiveRetryInterval);
         this.logger = logger;
@@ -168,10 +353,12 @@ public class TcpRemoteSender implements IRemoteSender, AutoCloseable {
      * @param connectRetryCount                    The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
      * @param connectRetryInterval                 The interval between retries to connect or reconnect in milliseconds.
      * @param acknowledgementReceiveTimeout        The maximum time to wait for an acknowledgement of a message in milliseconds.
-     * @param acknowledgementReceiveRetryInterval  The time between retries to check for an acknowledgement in milliseconds.
+     * @param acknowledgementReceiveRetryInterval  Not used, as the acknowledgement is waited for with a blocking read which returns as soon as the acknowledgement is received.
      * @param logger                               The logger to write log events to.
      * @throws UnknownHostException                If the specified IP address could not be resolved.
+     * @deprecated  Use the equivalent constructor without the acknowledgementReceiveRetryInterval parameter.
      */
+    @Deprecated
     public TcpRemoteSender(String ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, int acknowledgementReceiveRetryInterval, IApplicationLogger logger) throws UnknownHostException {
         this(ipAddress, port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout, acknowledgementReceiveRetryInterval);
         this.logger = logger;
@@ -184,10 +371,12 @@ public class TcpRemoteSender implements IRemoteSender, AutoCloseable {
      * @param connectRetryCount                    The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
      * @param connectRetryInterval                 The interval between retries to connect or reconnect in milliseconds.
      * @param acknowledgementReceiveTimeout        The maximum time to wait for an acknowledgement of a message in milliseconds.
-     * @param acknowledgementReceiveRetryInterval  The time between retries to check for an acknowledgement in milliseconds.
+     * @param acknowledgementReceiveRetryInterval  Not used, as the acknowledgement is waited for with a blocking read which returns as soon as the acknowledgement is received.
      * @param metricLogger                         The metric logger to write metric and instrumentation events to.
      * @throws UnknownHostException                If the specified IP address could not be resolved.
+     * @deprecated  Use the equivalent constructor without the acknowledgementReceiveRetryInterval parameter.
      */
+    @Deprecated
     public TcpRemoteSender(String ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, int acknowledgementReceiveRetryInterval, IMetricLogger metricLogger) throws UnknownHostException {
         this(ipAddress, port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout, acknowledgementReceiveRetryInterval);
         this.metricLogger = metricLogger;
@@ -200,11 +389,13 @@ public class TcpRemoteSender implements IRemoteSender, AutoCloseable {
      * @param connectRetryCount                    The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
      * @param connectRetryInterval                 The interval between retries to connect or reconnect in milliseconds.
      * @param acknowledgementReceiveTimeout        The maximum time to wait for an acknowledgement of a message in milliseconds.
-     * @param acknowledgementReceiveRetryInterval  The time between retries to check for an acknowledgement in milliseconds.
+     * @param acknowledgementReceiveRetryInterval  Not used, as the acknowledgement is waited for with a blocking read which returns as soon as the acknowledgement is received.
      * @param logger                               The logger to write log events to.
      * @param metricLogger                         The metric logger to write metric and instrumentation events to.
      * @throws UnknownHostException                If the specified IP address could not be resolved.
+     * @deprecated  Use the equivalent constructor without the acknowledgementReceiveRetryInterval parameter.
      */
+    @Deprecated
     public TcpRemoteSender(String ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, int acknowledgementReceiveRetryInterval, IApplicationLogger logger, IMetricLogger metricLogger) throws UnknownHostException {
         this(ipAddress, port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout, acknowledgementReceiveRetryInterval);
         this.logger = logger;
@@ -219,17 +410,61 @@ public class TcpRemoteSender implements IRemoteSender, AutoCloseable {
      * @param connectRetryCount                    The number of times to retry when initially connecting, or attempting to reconnect to a TcpRemoteReceiver.
      * @param connectRetryInterval                 The interval between retries to connect or reconnect in milliseconds.
      * @param acknowledgementReceiveTimeout        The maximum time to wait for an acknowledgement of a message in milliseconds.
-     * @param acknowledgementReceiveRetryInterval  The time between retries to check for an acknowledgement in milliseconds.
+     * @param acknowledgementReceiveRetryInterval  Not used, as the acknowledgement is waited for with a blocking read which returns as soon as the acknowledgement is received.
      * @param logger                               The logger to write log events to.
      * @param metricLogger                         The metric logger to write metric and instrumentation events to.
      * @param socketChannel                        A test (mock) socket channel.
      * @throws UnknownHostException                If the specified IP address could not be resolved.
+     * @deprecated  Use the equivalent constructor without the acknowledgementReceiveRetryInterval parameter.
      */
+    @Deprecated
     public TcpRemoteSender(String ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, int acknowledgementReceiveRetryInterval, IApplicationLogger logger, IMetricLogger metricLogger, ISocketChannel socketChannel) throws UnknownHostException {
         this(InetAddress.getByName(ipAddress), port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout, acknowledgementReceiveRetryInterval, logger, metricLogger);
         this.socketChannel = socketChannel;
     }
     
+    /**
+     * Sets the object to notify when a connection is established, either when connecting, or when reconnecting after an error sending a message.
+     * <p>
+     * When reconnecting, the handler is notified before the message which was being sent is re-sent.
+     * </p>
+     * <p>
+     * Replaces any handlers previously set or added.  Use addConnectionEstablishedEventHandler() to notify more than one object (e.g. both a ParameterDeltaCache and a SessionTokenDictionary).
+     * </p>
+     * @param connectionEstablishedEventHandler  The object to notify, or null if no notification is required.
+     */
+    public void setConnectionEstablishedEventHandler(IConnectionEstablishedEventHandler connectionEstablishedEventHandler) {
+        connectionEstablishedEventHandlers.clear();
+        if (connectionEstablishedEventHandler != null) {
+            connectionEstablishedEventHandlers.add(connectionEstablishedEventHandler);
+        }
+    }
+    
+    /**
+     * Adds an object to notify when a connection is established, in addition to any handlers previously set or added.  Handlers are notified in the order they were added.
+     * @param connectionEstablishedEventHandler  The object to notify.
+     */
+    public void addConnectionEstablishedEventHandler(IConnectionEstablishedEventHandler connectionEstablishedEventHandler) {
+        if (connectionEstablishedEventHandler == null) {
+            throw new IllegalArgumentException("Argument 'connectionEstablishedEventHandler' cannot be null.");
+        }
+        connectionEstablishedEventHandlers.add(connectionEstablishedEventHandler);
+    }
+    
+    /**
+     * Sets the maximum number of messages which can be sent before an acknowledgement is received from the TcpRemoteReceiver.
+     * <p>
+     * A value greater than 1 causes cumulative acknowledgements to be requested with the first message sent on each connection, so should be set before calling the Connect() method.  The TcpRemoteReceiver must have cumulative acknowledgements allowed by calling its setCumulativeAcknowledgementsAllowed() method, otherwise messages continue to be sent one at a time.  Note that when messages are sent within the window, the Send() methods return before the message is acknowledged.  The Flush() method can be used to wait until all sent messages have been acknowledged.
+     * </p>
+     * @param acknowledgementWindowSize  The maximum number of unacknowledged messages.  Defaults to 1, in which case each message is acknowledged before the Send() method returns.
+     */
+    public void setAcknowledgementWindowSize(int acknowledgementWindowSize) {
+        if (acknowledgementWindowSize < 1) {
+            throw new IllegalArgumentException("Argument 'acknowledgementWindowSize' must be greater than or equal to 1.");
+        }
+        this.acknowledgementWindowSize = acknowledgementWindowSize;
+    }
+    
     /**
      * Connects to the configured IP address and port.
      * @throws Exception  If an error occurs while attempting to connect.
@@ -261,6 +496,53 @@ public class TcpRemoteSender implements IRemoteSender, AutoCloseable {
         Disconnect();
     }
     
+    /**
+     * Waits until all messages sent have been acknowledged by the TcpRemoteReceiver.  If an error occurs while waiting, the class reconnects and re-sends the unacknowledged messages.
+     * @throws Exception  If an error occurs while waiting for the acknowledgements.
+     */
+    public void Flush() throws Exception {
+        if (socketChannel.isConnected() == false) {
+            throw new Exception("Connection to TCP socket has not been established.");
+        }
+        
+        while (unacknowledgedMessages.isEmpty() == false) {
+            try {
+                ReceiveCumulativeAcknowledgement();
+            }
+            catch (Exception e) {
+                HandleExceptionAndResend(e, null);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the connection to the TcpRemoteReceiver is still usable, by testing whether it has been closed by the remote host.  Should not be called concurrently with sending messages.
+     * <p>
+     * If messages are awaiting acknowledgement, the connection is assumed to be usable, as its state is tested when the acknowledgements are received.
+     * </p>
+     * @return            Whether the connection is usable.
+     * @throws Exception  If an error occurs while checking the connection.
+     */
+    public boolean CheckConnection() throws Exception {
+        if (socketChannel.isConnected() == false) {
+            return false;
+        }
+        if (unacknowledgedMessages.isEmpty() == false) {
+            return true;
+        }
+
+        // A TcpRemoteReceiver only writes acknowledgements, so any data read (or the end of the stream) means the connection can't be used for further messages
+        int numBytesRead;
+        try {
+            acknowledgementBuffer.clear();
+            numBytesRead = socketChannel.read(acknowledgementBuffer, 1);
+        }
+        catch (IOException e) {
+            return false;
+        }
+        return (numBytesRead == 0);
+    }
+
     @Override
     public void Send(String message) throws Exception {
         /* //[BEGIN_METRICS]
@@ -271,12 +553,53 @@ public class TcpRemoteSender implements IRemoteSender, AutoCloseable {
             throw new Exception("Connection to TCP socket has not been established.");
         }
 
-        try {
-            EncodeAndSend(message);
+        ByteBuffer messageBytes = ByteBuffer.wrap(message.getBytes(stringEncodingCharset));
+        if (cumulativeAcknowledgementsEnabled == true) {
+            SendWithinAcknowledgementWindow(messageBytes);
         }
-        catch (Exception e) {
-            HandleExceptionAndResend(e, message);
+        else {
+            try {
+                EncodeAndSendOrNegotiate(messageBytes);
+            }
+            catch (Exception e) {
+                HandleExceptionAndResend(e, messageBytes);
+            }
+        }
+        
+        IncrementMessageSequenceNumber();
+        
+        /* //[BEGIN_METRICS]
+        metricLogger.End(new MessageSendTime());
+        metricLogger.Increment(new MessageSent());
+        //[END_METRICS] */
+        /* //[BEGIN_LOGGING]
+        logger.Log(this, LogLevel.Information, "Message sent and acknowledged.");
+        //[END_LOGGING] */
+    }
+    
+    @Override
+    public void Send(ByteBuffer message) throws Exception {
+        /* //[BEGIN_METRICS]
+        metricLogger.Begin(new MessageSendTime());
+        //[END_METRICS] */
+        
+        if (socketChannel.isConnected() == false) {
+            throw new Exception("Connection to TCP socket has not been established.");
+        }
+
+        if (cumulativeAcknowledgementsEnabled == true) {
+            // The message is retained until it is acknowledged, which may be after this method returns, so a copy is retained in case the caller reuses the buffer
+            SendWithinAcknowledgementWindow(CopyMessage(message));
         }
+        else {
+            try {
+                EncodeAndSendOrNegotiate(message);
+            }
+            catch (Exception e) {
+                HandleExceptionAndResend(e, message);
+            }
+        }
+        message.position(message.limit());
         
         IncrementMessageSequenceNumber();
         
@@ -319,91 +642,265 @@ public class TcpRemoteSender implements IRemoteSender, AutoCloseable {
         {
             throw new Exception("Failed to connect to " + ipAddress.toString() + ":" + port + " after " + connectAttempt + " attempts.");
         }
+        
+        cumulativeAcknowledgementsEnabled = false;
+        protocolNegotiationPending = (acknowledgementWindowSize > 1);
+        
+        for (IConnectionEstablishedEventHandler currentHandler : connectionEstablishedEventHandlers) {
+            currentHandler.ConnectionEstablished(this);
+        }
     }
     
     /**
      * Adds delimiter characters and header information to the specified message and sends it.
-     * @param message  The message to send.
+     * @param message  Buffer containing the message to send, between its position and limit.  The position of the buffer is not changed.
      */
-    private void EncodeAndSend(String message) throws Exception {
-        byte[] messageByteArray = message.getBytes(stringEncodingCharset);
-        
-        // Create a 4 byte message sequence number, and encode as little endian
-        ByteBuffer messageSequenceNumberByteBuffer = ByteBuffer.allocate(4);
-        messageSequenceNumberByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        messageSequenceNumberByteBuffer.putInt(messageSequenceNumber);
-        byte[] messageSequenceNumber = messageSequenceNumberByteBuffer.array();
-        
-        // Create 8 bytes containing the length of the message body, and encode as little endian
-        ByteBuffer messageSizeHeaderByteBuffer = ByteBuffer.allocate(8);
-        messageSizeHeaderByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        messageSizeHeaderByteBuffer.putLong((long)messageByteArray.length);
-        byte[] messageSizeHeader = messageSizeHeaderByteBuffer.array();
-        
-        // Encode the message
-        ByteBuffer encodedMessage = ByteBuffer.allocate(messageSequenceNumber.length + messageSizeHeader.length + messageByteArray.length + 2);
-        encodedMessage.put(messageStartDelimiter);
-        encodedMessage.put(messageSequenceNumber);
-        encodedMessage.put(messageSizeHeader);
-        encodedMessage.put(messageByteArray);
-        encodedMessage.put(messageEndDelimiter);
-        encodedMessage.flip();
-
-        // Send the message
-        socketChannel.write(encodedMessage);
+    private void EncodeAndSend(ByteBuffer message) throws Exception {
+        WriteMessage(message, messageSequenceNumber);
         WaitForMessageAcknowledgement();
     }
     
     /**
-     * Checks for a message acknowledgement on the underlying socket channel, and throws an exception if the acknowledgement is not received before the specified timeout period.
+     * Adds delimiter characters and header information to the specified message and sends it, requesting cumulative acknowledgements if they are pending negotiation on the current connection.
+     * <p>
+     * An empty message cannot request cumulative acknowledgements (as with a negative sequence number it would be a protocol negotiation message), so is sent as an ordinary message, and the request is made with the next message.
+     * </p>
+     * @param message  Buffer containing the message to send, between its position and limit.  The position of the buffer is not changed.
      */
-    private void WaitForMessageAcknowledgement() throws Exception {
-        // Set the socket channel to non-blocking mode
-        socketChannel.configureBlocking(false);
+    private void EncodeAndSendOrNegotiate(ByteBuffer message) throws Exception {
+        if ((protocolNegotiationPending == true) && (message.hasRemaining() == true)) {
+            SendAndNegotiateCumulativeAcknowledgements(message);
+        }
+        else {
+            EncodeAndSend(message);
+        }
+    }
+    
+    /**
+     * Adds delimiter characters and header information to the specified message and writes it to the underlying socket channel.
+     * <p>
+     * The delimiters and header are held in reusable buffers, and are written together with the message in a single gathering write, so the message is not copied.  The write is repeated until the whole message has been written, in case the socket channel writes only part of it.
+     * </p>
+     * @param message         Buffer containing the message to write, between its position and limit.  The position of the buffer is not changed.
+     * @param sequenceNumber  The sequence number of the message.
+     */
+    private void WriteMessage(ByteBuffer message, int sequenceNumber) throws Exception {
+        // Encode the start delimiter, and the sequence number and length of the message body as little endian
+        messageHeaderBuffer.clear();
+        messageHeaderBuffer.put(messageStartDelimiter);
+        messageHeaderBuffer.putInt(sequenceNumber);
+        messageHeaderBuffer.putLong((long)message.remaining());
+        messageHeaderBuffer.flip();
         
-        boolean acknowledgementReceived = false;
-        long waitStartTime = System.currentTimeMillis();
-        ByteBuffer acknowledgementBuffer = ByteBuffer.allocate(1);
+        messageTrailerBuffer.clear();
+        messageTrailerBuffer.put(messageEndDelimiter);
+        messageTrailerBuffer.flip();
         
+        messageBuffers[0] = messageHeaderBuffer;
+        messageBuffers[1] = message.duplicate();
+        messageBuffers[2] = messageTrailerBuffer;
         try {
-            while((System.currentTimeMillis() - waitStartTime <= acknowledgementReceiveTimeout) && (acknowledgementReceived == false)) {
-                int numBytesRead = socketChannel.read(acknowledgementBuffer);
-                
-                if(numBytesRead == 1) {
-                    acknowledgementBuffer.flip();
-                    byte byteRead = acknowledgementBuffer.get();
-                    if(byteRead != messageAcknowledgementByte) {
-                        throw new Exception("Acknowledgement byte was expected to be " + messageAcknowledgementByte + ", but was " + byteRead + ".");
-                    }
-                    else{
-                        acknowledgementReceived = true;
-                    }
-                }
-                
-                if (acknowledgementReceiveRetryInterval > 0) {
-                    Thread.sleep(acknowledgementReceiveRetryInterval);
-                }
+            while (messageTrailerBuffer.hasRemaining() == true) {
+                socketChannel.write(messageBuffers);
             }
         }
-        catch (Exception e) {
-            throw(e);
-        }
-        // Set the socket channel back to blocking regardless of whether the read of the acknowledgement is successful.
         finally {
-            socketChannel.configureBlocking(true);
+            messageBuffers[1] = null;
         }
+    }
+    
+    /**
+     * Copies the specified message into a new buffer.
+     * @param message  Buffer containing the message to copy, between its position and limit.  The position of the buffer is not changed.
+     * @return         Buffer containing the copy of the message, between its position and limit.
+     */
+    private ByteBuffer CopyMessage(ByteBuffer message) {
+        ByteBuffer messageCopy = ByteBuffer.allocate(message.remaining());
+        messageCopy.put(message.duplicate());
+        messageCopy.flip();
         
-        if (acknowledgementReceived == false) {
+        return messageCopy;
+    }
+    
+    /**
+     * Adds delimiter characters and header information to the specified message and sends it without waiting for it to be acknowledged, once the number of unacknowledged messages is within the acknowledgement window.
+     * @param message  Buffer containing the message to send, between its position and limit.  The buffer is retained until the message is acknowledged, so must not be modified by the caller.
+     */
+    private void SendWithinAcknowledgementWindow(ByteBuffer message) throws Exception {
+        boolean messageRetained = false;
+        try {
+            WaitForAcknowledgementWindowSpace();
+            unacknowledgedMessages.addLast(new UnacknowledgedMessage(messageSequenceNumber, message));
+            messageRetained = true;
+            WriteMessage(message, messageSequenceNumber);
+        }
+        catch (Exception e) {
+            // If the error occurred while waiting for space in the window, the message has not been retained, so is sent after reconnecting
+            if (messageRetained == true) {
+                HandleExceptionAndResend(e, null);
+            }
+            else {
+                HandleExceptionAndResend(e, message);
+            }
+        }
+    }
+    
+    /**
+     * Waits for cumulative acknowledgements until the number of unacknowledged messages is less than the acknowledgement window size, so that another message can be sent.
+     */
+    private void WaitForAcknowledgementWindowSpace() throws Exception {
+        while (unacknowledgedMessages.size() >= acknowledgementWindowSize) {
+            ReceiveCumulativeAcknowledgement();
+        }
+    }
+    
+    /**
+     * Sends the specified message with the highest bit of its sequence number set to request cumulative acknowledgements, waits for it to be acknowledged, and enables cumulative acknowledgements if the TcpRemoteReceiver agrees.
+     * <p>
+     * Sequence numbers are never negative, so the TcpRemoteReceiver can recognise the request, and recover the sequence number from the remaining bits.  A TcpRemoteReceiver which agrees acknowledges the message with the protocol negotiation acknowledgement byte followed by the message's sequence number.  A TcpRemoteReceiver on which cumulative acknowledgements have not been allowed, or an older version which doesn't support them, receives the message as an ordinary message and acknowledges it with the acknowledgement byte alone.
+     * </p>
+     * @param message  Buffer containing the message to send, between its position and limit.  The position of the buffer is not changed.
+     */
+    private void SendAndNegotiateCumulativeAcknowledgements(ByteBuffer message) throws Exception {
+        protocolNegotiationMessageSent = true;
+        WriteMessage(message, messageSequenceNumber | Integer.MIN_VALUE);
+        ReceiveProtocolNegotiationAcknowledgement();
+        protocolNegotiationMessageSent = false;
+    }
+    
+    /**
+     * Sends a protocol negotiation message to the TcpRemoteReceiver, and enables cumulative acknowledgements if the TcpRemoteReceiver supports them.
+     * <p>
+     * Only sent after reconnecting while holding unacknowledged messages (which are only retained on a connection with cumulative acknowledgements, so the TcpRemoteReceiver is known to support them).  The negotiation message has an empty body and a negative sequence number, whose absolute value is the acknowledgement window size.  A TcpRemoteReceiver which supports cumulative acknowledgements replies with the protocol negotiation acknowledgement byte, followed by the sequence number of the last message it received (which acknowledges any retained messages up to that sequence number).  A TcpRemoteReceiver on which cumulative acknowledgements have not been allowed replies with the acknowledgement byte alone, and does not pass the negotiation message to the application.
+     * </p>
+     */
+    private void NegotiateCumulativeAcknowledgements() throws Exception {
+        WriteMessage(ByteBuffer.allocate(0), -acknowledgementWindowSize);
+        ReceiveProtocolNegotiationAcknowledgement();
+    }
+    
+    /**
+     * Waits for the reply to a request for cumulative acknowledgements, and enables cumulative acknowledgements if the reply is the protocol negotiation acknowledgement byte (followed by a sequence number which acknowledges any retained messages up to it).
+     */
+    private void ReceiveProtocolNegotiationAcknowledgement() throws Exception {
+        cumulativeAcknowledgementBuffer.clear();
+        cumulativeAcknowledgementBuffer.limit(1);
+        ReadAcknowledgementBytes(cumulativeAcknowledgementBuffer);
+        byte byteRead = cumulativeAcknowledgementBuffer.get(0);
+        if (byteRead == protocolNegotiationAcknowledgementByte) {
+            cumulativeAcknowledgementBuffer.limit(5);
+            ReadAcknowledgementBytes(cumulativeAcknowledgementBuffer);
+            RemoveAcknowledgedMessages(cumulativeAcknowledgementBuffer.getInt(1));
+            cumulativeAcknowledgementsEnabled = true;
+            protocolNegotiationPending = false;
+            
+            /* //[BEGIN_LOGGING]
+            logger.Log(this, LogLevel.Information, "Negotiated cumulative acknowledgements with acknowledgement window size " + acknowledgementWindowSize + ".");
+            //[END_LOGGING] */
+        }
+        else if (byteRead == messageAcknowledgementByte) {
+            protocolNegotiationPending = false;
+            logger.Log(this, LogLevel.Warning, "TcpRemoteReceiver does not support or has not allowed cumulative acknowledgements.  Each message will be acknowledged before the next is sent.");
+        }
+        else {
+            throw new Exception("Protocol negotiation acknowledgement byte was expected to be " + protocolNegotiationAcknowledgementByte + " or " + messageAcknowledgementByte + ", but was " + byteRead + ".");
+        }
+    }
+    
+    /**
+     * Waits for a cumulative acknowledgement (consisting of the acknowledgement byte followed by the sequence number of the last message received) on the underlying socket channel, and removes the acknowledged messages from the unacknowledged messages.
+     */
+    private void ReceiveCumulativeAcknowledgement() throws Exception {
+        cumulativeAcknowledgementBuffer.clear();
+        ReadAcknowledgementBytes(cumulativeAcknowledgementBuffer);
+        byte byteRead = cumulativeAcknowledgementBuffer.get(0);
+        if(byteRead != messageAcknowledgementByte) {
+            throw new Exception("Acknowledgement byte was expected to be " + messageAcknowledgementByte + ", but was " + byteRead + ".");
+        }
+        RemoveAcknowledgedMessages(cumulativeAcknowledgementBuffer.getInt(1));
+    }
+    
+    /**
+     * Reads from the underlying socket channel until the specified buffer is full, and throws an exception if the bytes are not received before the specified timeout period.
+     * @param buffer  The buffer to read into.
+     */
+    private void ReadAcknowledgementBytes(ByteBuffer buffer) throws Exception {
+        while (buffer.hasRemaining() == true) {
+            int numBytesRead = socketChannel.read(buffer, Math.max(acknowledgementReceiveTimeout, 1));
+            if (numBytesRead == -1) {
+                throw new IOException("Connection was closed by the remote host before the message acknowledgement was received.");
+            }
+            else if (numBytesRead == 0) {
+                throw new MessageAcknowledgementTimeoutException("Failed to receive message acknowledgement within timeout period of " + acknowledgementReceiveTimeout + " milliseconds.");
+            }
+        }
+    }
+    
+    /**
+     * Removes the message with the specified sequence number, and all messages sent before it, from the unacknowledged messages.  Acknowledgements are cumulative, so acknowledge all messages up to and including the specified sequence number.
+     * @param sequenceNumber  The sequence number of the acknowledged message.  If no unacknowledged message has this sequence number, no messages are removed.
+     */
+    private void RemoveAcknowledgedMessages(int sequenceNumber) {
+        boolean messageFound = false;
+        for (UnacknowledgedMessage currentMessage : unacknowledgedMessages) {
+            if (currentMessage.sequenceNumber == sequenceNumber) {
+                messageFound = true;
+                break;
+            }
+        }
+        if (messageFound == true) {
+            while (unacknowledgedMessages.removeFirst().sequenceNumber != sequenceNumber);
+        }
+    }
+    
+    /**
+     * Re-sends all unacknowledged messages in the order they were originally sent.  If cumulative acknowledgements were not negotiated on the current connection, each message is acknowledged before the next is sent.
+     */
+    private void ResendUnacknowledgedMessages() throws Exception {
+        if (cumulativeAcknowledgementsEnabled == true) {
+            for (UnacknowledgedMessage currentMessage : unacknowledgedMessages) {
+                WriteMessage(currentMessage.message, currentMessage.sequenceNumber);
+            }
+        }
+        else {
+            while (unacknowledgedMessages.isEmpty() == false) {
+                WriteMessage(unacknowledgedMessages.peekFirst().message, unacknowledgedMessages.peekFirst().sequenceNumber);
+                WaitForMessageAcknowledgement();
+                unacknowledgedMessages.removeFirst();
+            }
+        }
+    }
+    
+    /**
+     * Waits for a message acknowledgement on the underlying socket channel, and throws an exception if the acknowledgement is not received before the specified timeout period.
+     * <p>
+     * The channel is left in blocking mode and read with a timeout, so the wait completes as soon as the acknowledgement arrives, rather than at the next poll of a non-blocking read.
+     * </p>
+     */
+    private void WaitForMessageAcknowledgement() throws Exception {
+        acknowledgementBuffer.clear();
+        int numBytesRead = socketChannel.read(acknowledgementBuffer, Math.max(acknowledgementReceiveTimeout, 1));
+        if (numBytesRead == 1) {
+            acknowledgementBuffer.flip();
+            byte byteRead = acknowledgementBuffer.get();
+            if(byteRead != messageAcknowledgementByte) {
+                throw new Exception("Acknowledgement byte was expected to be " + messageAcknowledgementByte + ", but was " + byteRead + ".");
+            }
+        }
+        else if (numBytesRead == -1) {
+            throw new IOException("Connection was closed by the remote host before the message acknowledgement was received.");
+        }
+        else {
             throw new MessageAcknowledgementTimeoutException("Failed to receive message acknowledgement within timeout period of " + acknowledgementReceiveTimeout + " milliseconds.");
         }
     }
     
     /**
-     * Handles an exception that occurred when attempting to send a message, before reconnecting and re-sending.
+     * Handles an exception that occurred when attempting to send a message, before reconnecting and re-sending any unacknowledged messages and the message.
      * @param sendException  The exception that occurred when attempting to send the message.
-     * @param message        The message to send.
+     * @param message        Buffer containing the message to send, between its position and limit, or null if the message is already held in the unacknowledged messages.
      */
-    private void HandleExceptionAndResend(Exception sendException, String message) throws Exception {
+    private void HandleExceptionAndResend(Exception sendException, ByteBuffer message) throws Exception {
         try {
             if (sendException instanceof IOException) {
                 logger.Log(this, LogLevel.Error, sendException.getClass().getSimpleName() + " occurred whilst attempting to send message.", sendException);
@@ -424,13 +921,35 @@ public class TcpRemoteSender implements IRemoteSender, AutoCloseable {
             metricLogger.Increment(new TcpRemoteSenderReconnected());
             //[END_METRICS] */
             try {
-                EncodeAndSend(message);
+                if ((protocolNegotiationPending == true) && (unacknowledgedMessages.isEmpty() == false)) {
+                    NegotiateCumulativeAcknowledgements();
+                }
+                ResendUnacknowledgedMessages();
+                if (message != null) {
+                    if (cumulativeAcknowledgementsEnabled == true) {
+                        // Cumulative acknowledgements may have been negotiated when reconnecting, in which case the message must be acknowledged cumulatively
+                        //   The re-sent messages may fill the acknowledgement window, so wait for space before sending
+                        WaitForAcknowledgementWindowSpace();
+                        ByteBuffer retainedMessage = CopyMessage(message);
+                        unacknowledgedMessages.addLast(new UnacknowledgedMessage(messageSequenceNumber, retainedMessage));
+                        WriteMessage(retainedMessage, messageSequenceNumber);
+                    }
+                    else if (protocolNegotiationMessageSent == true) {
+                        SendAndNegotiateCumulativeAcknowledgements(message);
+                    }
+                    else {
+                        // If the message was sent before the connection broke, it must be re-sent as an ordinary message, so that the TcpRemoteReceiver detects it as a duplicate
+                        //   Cumulative acknowledgements are then requested with the next message
+                        EncodeAndSend(message);
+                    }
+                }
             }
             catch (Exception e) {
                 throw new Exception("Error sending message.  Failed to send message after reconnecting.", e);
             }
         }
         catch (Exception e) {
+            protocolNegotiationMessageSent = false;
             /* //[BEGIN_METRICS]
             metricLogger.CancelBegin(new MessageSendTime());
             //[END_METRICS] */
@@ -449,4 +968,24 @@ public class TcpRemoteSender implements IRemoteSender, AutoCloseable {
             messageSequenceNumber = messageSequenceNumber + 1;
         }
     }
+    
+    /**
+     * Container class holding a message which has been sent but not yet acknowledged.
+     */
+    private class UnacknowledgedMessage {
+        /** The sequence number of the message. */
+        public int sequenceNumber;
+        /** Buffer containing the message, between its position and limit. */
+        public ByteBuffer message;
+        
+        /**
+         * Initialises a new instance of the UnacknowledgedMessage class.
+         * @param sequenceNumber  The sequence number of the message.
+         * @param message         Buffer containing the message, between its position and limit.
+         */
+        public UnacknowledgedMessage(int sequenceNumber, ByteBuffer message) {
+            this.sequenceNumber = sequenceNumber;
+            this.message = message;
+        }
+    }
 }
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.net.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import net.alastairwyse.applicationlogging.*;
+import net.alastairwyse.applicationmetrics.*;
+
+/**
+ * Sends messages to a remote location via a pool of TCP socket connections, and allows messages to be sent concurrently by multiple threads.
+ * <p>
+ * A TcpRemoteSender holds the state of a single connection, so cannot be used by multiple threads at once.  The class holds a fixed number of connected TcpRemoteSenders, and leases one to each send operation for the duration of the operation.  If all the TcpRemoteSenders are leased, a send operation waits for one to be returned for up to the configured lease timeout, or fails immediately if the timeout is 0.
+ * </p>
+ * <p>
+ * A TcpRemoteSender which fails to send a message (i.e. which could not reconnect within its connect retry count), or whose connection is found to have been closed by the remote host when idle connections are periodically checked, is removed from the pool.  A maintenance thread disconnects it and connects a new TcpRemoteSender in its place, retrying at the connect retry interval until it succeeds.  Each connection is opened separately on the remote host, so messages should be received with a TcpMultiClientRemoteReceiver.
+ * </p>
+ * <p>
+ * Consecutive messages may be sent on different connections, and the pool does not notify connection established event handlers when a connection is replaced.  Hence the pool cannot be used with state which must be kept for each connection, such as a ParameterDeltaCache or a SessionTokenDictionary (MethodInvocationRemoteSender rejects method invocations sent through the pool using either).
+ * </p>
+ * @author Alastair Wyse
+ */
+public class TcpRemoteSenderPool implements IRemoteSender, IByteRemoteSender, AutoCloseable {
+    
+    private int poolSize;
+    private int leaseTimeout;
+    private int healthCheckInterval;
+    private int connectRetryInterval;
+    private ISenderFactory senderFactory;
+    /** All TcpRemoteSenders created by the pool which have not been replaced, whether idle or leased. */
+    private Set<TcpRemoteSender> senders;
+    /** TcpRemoteSenders which are connected and available to be leased. */
+    private LinkedBlockingQueue<TcpRemoteSender> idleSenders;
+    /** TcpRemoteSenders which are broken and waiting to be replaced by the maintenance thread. */
+    private LinkedBlockingQueue<TcpRemoteSender> brokenSenders;
+    private Thread maintenanceThread;
+    private volatile boolean stopRequest;
+    private IApplicationLogger logger;
+    
+    /**
+     * Creates the TcpRemoteSenders held by the pool.
+     */
+    public interface ISenderFactory {
+        
+        /**
+         * Creates a TcpRemoteSender which has not been connected.
+         * @return            The TcpRemoteSender.
+         * @throws Exception  if an error occurs creating the TcpRemoteSender.
+         */
+        public TcpRemoteSender CreateSender() throws Exception;
+    }
+    
+    /**
+     * Initialises a new instance of the TcpRemoteSenderPool class.
+     * @param ipAddress                      The remote IP address to connect to.
+     * @param port                           The remote port to connect to.
+     * @param connectRetryCount              The number of times each TcpRemoteSender retries when initially connecting, or attempting to reconnect to the remote host.
+     * @param connectRetryInterval           The interval between retries to connect or reconnect in milliseconds, and between attempts to replace a broken TcpRemoteSender.
+     * @param acknowledgementReceiveTimeout  The maximum time to wait for an acknowledgement of a message in milliseconds.
+     * @param poolSize                       The number of connections to hold in the pool.
+     * @param leaseTimeout                   The maximum time in milliseconds that a send operation waits for a connection when all connections are in use, or 0 to fail immediately.
+     * @param healthCheckInterval            The interval in milliseconds between checks that idle connections have not been closed by the remote host, or 0 to not check idle connections.
+     */
+    public TcpRemoteSenderPool(InetAddress ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, int poolSize, int leaseTimeout, int healthCheckInterval) {
+        this(ipAddress, port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout, poolSize, leaseTimeout, healthCheckInterval, new ConsoleApplicationLogger(LogLevel.Information, '|', "  "), new NullMetricLogger());
+    }
+    
+    /**
+     * Initialises a new instance of the TcpRemoteSenderPool class.
+     * @param ipAddress                      The remote IP address to connect to.
+     * @param port                           The remote port to connect to.
+     * @param connectRetryCount              The number of times each TcpRemoteSender retries when initially connecting, or attempting to reconnect to the remote host.
+     * @param connectRetryInterval           The interval between retries to connect or reconnect in milliseconds, and between attempts to replace a broken TcpRemoteSender.
+     * @param acknowledgementReceiveTimeout  The maximum time to wait for an acknowledgement of a message in milliseconds.
+     * @param poolSize                       The number of connections to hold in the pool.
+     * @param leaseTimeout                   The maximum time in milliseconds that a send operation waits for a connection when all connections are in use, or 0 to fail immediately.
+     * @param healthCheckInterval            The interval in milliseconds between checks that idle connections have not been closed by the remote host, or 0 to not check idle connections.
+     * @param logger                         The logger to write log events to.
+     */
+    public TcpRemoteSenderPool(InetAddress ipAddress, int port, int connectRetryCount, int connectRetryInterval, int acknowledgementReceiveTimeout, int poolSize, int leaseTimeout, int healthCheckInterval, IApplicationLogger logger) {
+        this(ipAddress, port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout, poolSize, leaseTimeout, healthCheckInterval, logger, new NullMetricLogger());
+    }
+    
+    /**
+     * Initialises a new instance of the TcpRemoteSenderPool class.
+     * @param ipAddress                      The remote IP address to connect to.
+     * @param port                           The remote port to connect to.
+     * @param connectRetryCount              The number of times each TcpRemoteSender retries when initially connecting, or attempting to reconnect to the remote host.
+     * @param connectRetryInterval           The interval between retries to connect or reconnect in milliseconds, and between attempts to replace a broken TcpRemoteSender.
+     * @param acknowledgementReceiveTimeout  The maximum time to wait for an acknowledgement of a message in milliseconds.
+     * @param poolSize                       The number of connections to hold in the pool.
+     * @param leaseTimeout                   The maximum time in milliseconds that a send operation waits for a connection when all connections are in use, or 0 to fail immediately.
+     * @param healthCheckInterval            The interval in milliseconds between checks that idle connections have not been closed by the remote host, or 0 to not check idle connections.
+     * @param logger                         The logger to write log events to.
+     * @param metricLogger                   The metric logger which the TcpRemoteSenders write metric and instrumentation events to.
+     */
+    public TcpRemoteSenderPool(final InetAddress ipAddress, final int port, final int connectRetryCount, final int connectRetryInterval, final int acknowledgementReceiveTimeout, int poolSize, int leaseTimeout, int healthCheckInterval, final IApplicationLogger logger, final IMetricLogger metricLogger) {
+        this(poolSize, leaseTimeout, healthCheckInterval, connectRetryInterval, logger, new ISenderFactory() {
+            @Override
+            public TcpRemoteSender CreateSender() throws Exception {
+                return new TcpRemoteSender(ipAddress, port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout, logger, metricLogger);
+            }
+        });
+        
+        // Create a TcpRemoteSender to validate the arguments when the pool is constructed, rather than when it is connected
+        new TcpRemoteSender(ipAddress, port, connectRetryCount, connectRetryInterval, acknowledgementReceiveTimeout, logger, metricLogger);
+    }
+    
+    /**
+     * Initialises a new instance of the TcpRemoteSenderPool class.
+     * <b>Note</b> this is an additional constructor to facilitate unit tests, and should not be used to instantiate the class under normal conditions.
+     * @param poolSize              The number of connections to hold in the pool.
+     * @param leaseTimeout          The maximum time in milliseconds that a send operation waits for a connection when all connections are in use, or 0 to fail immediately.
+     * @param healthCheckInterval   The interval in milliseconds between checks that idle connections have not been closed by the remote host, or 0 to not check idle connections.
+     * @param connectRetryInterval  The interval between attempts to replace a broken TcpRemoteSender in milliseconds.
+     * @param logger                The logger to write log events to.
+     * @param senderFactory         A test (mock) factory which creates the TcpRemoteSenders.
+     */
+    public TcpRemoteSenderPool(int poolSize, int leaseTimeout, int healthCheckInterval, int connectRetryInterval, IApplicationLogger logger, ISenderFactory senderFactory) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Argument 'poolSize' must be greater than 0.");
+        }
+        if (leaseTimeout < 0) {
+            throw new IllegalArgumentException("Argument 'leaseTimeout' must be greater than or equal to 0.");
+        }
+        if (healthCheckInterval < 0) {
+            throw new IllegalArgumentException("Argument 'healthCheckInterval' must be greater than or equal to 0.");
+        }
+        if (connectRetryInterval < 0) {
+            throw new IllegalArgumentException("Argument 'connectRetryInterval' must be greater than or equal to 0.");
+        }
+        
+        this.poolSize = poolSize;
+        this.leaseTimeout = leaseTimeout;
+        this.healthCheckInterval = healthCheckInterval;
+        this.connectRetryInterval = connectRetryInterval;
+        this.logger = logger;
+        this.senderFactory = senderFactory;
+        senders = Collections.newSetFromMap(new ConcurrentHashMap<TcpRemoteSender, Boolean>());
+        idleSenders = new LinkedBlockingQueue<TcpRemoteSender>();
+        brokenSenders = new LinkedBlockingQueue<TcpRemoteSender>();
+        maintenanceThread = null;
+        stopRequest = false;
+    }
+    
+    /**
+     * @return  The number of connections which are available to be leased (i.e. which are not in use, and are not waiting to be replaced).
+     */
+    public int getAvailableConnectionCount() {
+        return idleSenders.size();
+    }
+    
+    /**
+     * Connects all the connections in the pool to the configured IP address and port, and starts the maintenance thread.
+     * @throws Exception  If an error occurs while attempting to connect.
+     */
+    public void Connect() throws Exception {
+        if (maintenanceThread != null) {
+            throw new Exception("Connection pool has already been connected.");
+        }
+        
+        idleSenders.clear();
+        brokenSenders.clear();
+        try {
+            for (int i = 0; i < poolSize; i++) {
+                TcpRemoteSender newSender = senderFactory.CreateSender();
+                senders.add(newSender);
+                newSender.Connect();
+                idleSenders.add(newSender);
+            }
+        }
+        catch (Exception e) {
+            DisconnectSenders();
+            throw new Exception("Failed to connect connection pool.", e);
+        }
+        
+        stopRequest = false;
+        maintenanceThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                RunMaintenance();
+            }
+        });
+        maintenanceThread.setDaemon(true);
+        maintenanceThread.start();
+        
+        logger.Log(this, LogLevel.Information, "Connected " + poolSize + " pooled connections.");
+    }
+    
+    /**
+     * Stops the maintenance thread, and disconnects all the connections in the pool.  Any send operations in progress will fail.
+     * @throws Exception  If an error occurs while attempting to disconnect.
+     */
+    public void Disconnect() throws Exception {
+        if (maintenanceThread != null) {
+            stopRequest = true;
+            maintenanceThread.interrupt();
+            maintenanceThread.join();
+            maintenanceThread = null;
+        }
+        DisconnectSenders();
+        
+        /* //[BEGIN_LOGGING]
+        logger.Log(this, LogLevel.Information, "Disconnected.");
+        //[END_LOGGING] */
+    }
+    
+    @Override
+    public void close() throws Exception {
+        Disconnect();
+    }
+    
+    @Override
+    public void Send(String message) throws Exception {
+        TcpRemoteSender sender = LeaseSender();
+        try {
+            sender.Send(message);
+        }
+        catch (Exception e) {
+            brokenSenders.offer(sender);
+            throw e;
+        }
+        idleSenders.offer(sender);
+    }
+    
+    @Override
+    public void Send(ByteBuffer message) throws Exception {
+        TcpRemoteSender sender = LeaseSender();
+        try {
+            sender.Send(message);
+        }
+        catch (Exception e) {
+            brokenSenders.offer(sender);
+            throw e;
+        }
+        idleSenders.offer(sender);
+    }
+    
+    /**
+     * Removes an idle TcpRemoteSender from the pool, waiting up to the lease timeout if none are available.
+     * @return            The TcpRemoteSender.
+     * @throws Exception  if the pool has not been connected, or no TcpRemoteSender became available within the lease timeout.
+     */
+    private TcpRemoteSender LeaseSender() throws Exception {
+        if ((maintenanceThread == null) || (stopRequest == true)) {
+            throw new Exception("Connection pool has not been connected.");
+        }
+        
+        TcpRemoteSender sender;
+        if (leaseTimeout == 0) {
+            sender = idleSenders.poll();
+        }
+        else {
+            sender = idleSenders.poll(leaseTimeout, TimeUnit.MILLISECONDS);
+        }
+        if (sender == null) {
+            throw new ConnectionPoolExhaustedException("Failed to lease a connection from the pool within timeout period of " + leaseTimeout + " milliseconds.");
+        }
+        
+        return sender;
+    }
+    
+    /**
+     * Replaces broken TcpRemoteSenders, and periodically checks the connections of idle TcpRemoteSenders, until a stop is requested.
+     */
+    private void RunMaintenance() {
+        long nextHealthCheckTime = System.currentTimeMillis() + healthCheckInterval;
+        
+        while (stopRequest == false) {
+            try {
+                TcpRemoteSender brokenSender;
+                if (healthCheckInterval == 0) {
+                    brokenSender = brokenSenders.take();
+                }
+                else {
+                    brokenSender = brokenSenders.poll(Math.max(nextHealthCheckTime - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+                }
+                
+                if (brokenSender != null) {
+                    if (ReplaceSender(brokenSender) == false) {
+                        // Retry replacing the TcpRemoteSender after the connect retry interval
+                        brokenSenders.offer(brokenSender);
+                        Thread.sleep(connectRetryInterval);
+                    }
+                }
+                if ((healthCheckInterval > 0) && (System.currentTimeMillis() >= nextHealthCheckTime)) {
+                    CheckIdleSenders();
+                    nextHealthCheckTime = System.currentTimeMillis() + healthCheckInterval;
+                }
+            }
+            catch (InterruptedException e) {
+                // Interrupted by the Disconnect() method, in which case the loop condition ends the thread
+            }
+            catch (Exception e) {
+                try {
+                    logger.Log(this, LogLevel.Critical, e.getClass().getSimpleName() + " occurred in the maintenance thread.", e);
+                }
+                catch (Exception loggingException) {
+                }
+            }
+        }
+    }
+    
+    /**
+     * Checks the connection of each idle TcpRemoteSender, and queues any whose connection has been closed to be replaced.
+     * @throws Exception  if an error occurs logging a closed connection.
+     */
+    private void CheckIdleSenders() throws Exception {
+        int idleCount = idleSenders.size();
+        for (int i = 0; i < idleCount; i++) {
+            TcpRemoteSender currentSender = idleSenders.poll();
+            if (currentSender == null) {
+                break;
+            }
+            
+            boolean connectionUsable;
+            try {
+                connectionUsable = currentSender.CheckConnection();
+            }
+            catch (Exception e) {
+                connectionUsable = false;
+            }
+            if (connectionUsable == true) {
+                idleSenders.offer(currentSender);
+            }
+            else {
+                logger.Log(this, LogLevel.Warning, "Idle pooled connection was closed by the remote host.");
+                brokenSenders.offer(currentSender);
+            }
+        }
+    }
+    
+    /**
+     * Disconnects a broken TcpRemoteSender, and adds a newly connected TcpRemoteSender to the pool in its place.
+     * @param brokenSender  The TcpRemoteSender to replace.
+     * @return              Whether the TcpRemoteSender was replaced.
+     * @throws Exception    if an error occurs logging the replacement.
+     */
+    private boolean ReplaceSender(TcpRemoteSender brokenSender) throws Exception {
+        senders.remove(brokenSender);
+        try {
+            brokenSender.Disconnect();
+        }
+        catch (Exception e) {
+            logger.Log(this, LogLevel.Warning, e.getClass().getSimpleName() + " occurred whilst disconnecting broken pooled connection.", e);
+        }
+        
+        TcpRemoteSender newSender = null;
+        try {
+            newSender = senderFactory.CreateSender();
+            senders.add(newSender);
+            newSender.Connect();
+        }
+        catch (Exception e) {
+            logger.Log(this, LogLevel.Error, e.getClass().getSimpleName() + " occurred whilst replacing broken pooled connection.", e);
+            if (newSender != null) {
+                senders.remove(newSender);
+            }
+            return false;
+        }
+        idleSenders.offer(newSender);
+        
+        logger.Log(this, LogLevel.Information, "Replaced broken pooled connection.");
+        
+        return true;
+    }
+    
+    /**
+     * Disconnects all TcpRemoteSenders created by the pool.
+     * @throws Exception  if an error occurs disconnecting any of the TcpRemoteSenders.
+     */
+    private void DisconnectSenders() throws Exception {
+        Exception disconnectException = null;
+        for (TcpRemoteSender currentSender : senders) {
+            try {
+                currentSender.Disconnect();
+            }
+            catch (Exception e) {
+                disconnectException = e;
+            }
+        }
+        senders.clear();
+        idleSenders.clear();
+        brokenSenders.clear();
+        if (disconnectException != null) {
+            throw new Exception("Failed to disconnect connection pool.", disconnectException);
+        }
+    }
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2015 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremoting;
+
+import java.math.*;
+import java.util.*;
+
+/**
+ * Formats and parses the text representations of numeric and date/time values written and read by class MethodInvocationSerializer, writing characters directly into a caller supplied buffer rather than creating intermediate formatter and string objects.
+ * <p>
+ * Output is identical to that of the formatters previously used by MethodInvocationSerializer (i.e. String.format() with '%d' for integers, DecimalFormat with pattern '#.##...#E0' for floating point numbers, and SimpleDateFormat with pattern 'yyyy-MM-dd HH:mm:ss' plus milliseconds for dates), using the '.' character as the decimal separator regardless of the default locale.  The digits of floating point numbers depend on the JDK version (see WriteExponential()).
+ * </p>
+ * @author Alastair Wyse
+ */
+class TextValueCodec {
+
+    /** The minimum length of a buffer passed to the Write*() methods.  Sufficient for any long integer, any floating point number at maximum (17 significant digit) precision, and any date/time with a 4 or 5 digit year. */
+    public final int minimumBufferLength = 32;
+    /** The maximum number of significant digits required to represent any double value exactly enough to round trip. */
+    private final int maxSignificantDigits = 17;
+    /** The limit (2^63) below which the digits of integer valued doubles are not flagged as exact by the JDK. */
+    private final double integerDigitsExactLimit = 9.223372036854775808E18;
+    private final char[] longMinValueCharacters = "-9223372036854775808".toCharArray();
+    private final char[] nanCharacters = "NaN".toCharArray();
+
+    /** Buffers for formatting values, and for storing the digits of floating point numbers, which are reused by all operations on a thread. */
+    private ThreadLocal<char[]> threadFormatBuffer;
+    private ThreadLocal<char[]> threadDigitBuffer;
+
+    /**
+     * Initialises a new instance of the TextValueCodec class.
+     */
+    public TextValueCodec() {
+        threadFormatBuffer = new ThreadLocal<char[]>();
+        threadDigitBuffer = new ThreadLocal<char[]>();
+    }
+
+    /**
+     * Returns a buffer of at least minimumBufferLength characters, which is reused by all calls to this method on the current thread.
+     * @return  The buffer.
+     */
+    public char[] GetBuffer() {
+        char[] buffer = threadFormatBuffer.get();
+        if (buffer == null) {
+            buffer = new char[minimumBufferLength];
+            threadFormatBuffer.set(buffer);
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Writes the decimal representation of an integer to a buffer (e.g. "-123").
+     * @param value   The integer.
+     * @param buffer  The buffer to write to.
+     * @param offset  The position in the buffer to start writing at.
+     * @return        The position in the buffer after the last character written.
+     */
+    public int WriteInteger(long value, char[] buffer, int offset) {
+        if (value == Long.MIN_VALUE) {
+            System.arraycopy(longMinValueCharacters, 0, buffer, offset, longMinValueCharacters.length);
+            return offset + longMinValueCharacters.length;
+        }
+
+        if (value < 0) {
+            buffer[offset] = '-';
+            offset = offset + 1;
+            value = -value;
+        }
+        int digitCount = 1;
+        for (long remainder = value / 10; remainder != 0; remainder = remainder / 10) {
+            digitCount = digitCount + 1;
+        }
+        int endPosition = offset + digitCount;
+        for (int i = endPosition - 1; i >= offset; i = i - 1) {
+            buffer[i] = (char)('0' + (value % 10));
+            value = value / 10;
+        }
+
+        return endPosition;
+    }
+
+    /**
+     * Writes a floating point number to a buffer in exponential notation with up to the specified number of digits after the decimal point (e.g. "-1.2345E-6"), rounding half to even.
+     * <p>
+     * The shortest digit string which uniquely distinguishes the number is rounded to the required precision, so output is identical to that of java.text.DecimalFormat with pattern "#.##...#E0".
+     * </p>
+     * <p>
+     * <b>Note</b> that the digit string is obtained from Double.toString(), which allocates a String for each value, and whose output depends on the JDK version.  Before JDK 19, Double.toString() does not always return the shortest digit string (e.g. 1.0E23 is returned as "9.999999999999999E22"), so for a small number of values the digits written at maximum precision differ between JDK versions.  The value parsed from the output is the same in either case.
+     * </p>
+     * @param value           The number.  Must not be infinite.
+     * @param fractionDigits  The maximum number of digits to write after the decimal point.
+     * @param buffer          The buffer to write to.
+     * @param offset          The position in the buffer to start writing at.
+     * @return                The position in the buffer after the last character written.
+     */
+    public int WriteExponential(double value, int fractionDigits, char[] buffer, int offset) {
+        if (fractionDigits < 0) {
+            throw new IllegalArgumentException("Parameter 'fractionDigits' must be greater than or equal to 0.");
+        }
+        if (Double.isNaN(value) == true) {
+            System.arraycopy(nanCharacters, 0, buffer, offset, nanCharacters.length);
+            return offset + nanCharacters.length;
+        }
+        if ((value < 0) || ((value == 0) && (1 / value < 0))) {
+            buffer[offset] = '-';
+            offset = offset + 1;
+            value = -value;
+        }
+        if (value == 0) {
+            buffer[offset] = '0';
+            offset = offset + 1;
+            if (fractionDigits == 0) {
+                buffer[offset] = '.';
+                offset = offset + 1;
+            }
+            buffer[offset] = 'E';
+            buffer[offset + 1] = '0';
+            return offset + 2;
+        }
+
+        // Extract the significant digits and decimal exponent from the shortest representation of the number
+        //   Double.toString() returns either plain (e.g. "123.45", "0.00123") or computerized scientific (e.g. "1.2345E-5") notation
+        char[] digits = GetDigitBuffer();
+        String shortestRepresentation = Double.toString(value);
+        int digitCount = 0;
+        int integerDigitCount = 0;
+        int leadingZeroCount = 0;
+        int notationExponent = 0;
+        boolean pastDecimalPoint = false;
+        for (int i = 0; i < shortestRepresentation.length(); i = i + 1) {
+            char currentChar = shortestRepresentation.charAt(i);
+            if (currentChar == '.') {
+                pastDecimalPoint = true;
+            }
+            else if (currentChar == 'E') {
+                notationExponent = ParseExponent(shortestRepresentation, i + 1);
+                break;
+            }
+            else {
+                if (pastDecimalPoint == false) {
+                    integerDigitCount = integerDigitCount + 1;
+                }
+                if ((digitCount == 0) && (currentChar == '0')) {
+                    leadingZeroCount = leadingZeroCount + 1;
+                }
+                else {
+                    digits[digitCount] = currentChar;
+                    digitCount = digitCount + 1;
+                }
+            }
+        }
+        // Calculate the exponent which corresponds to a single digit before the decimal point
+        int exponent = integerDigitCount + notationExponent - leadingZeroCount - 1;
+        while ((digitCount > 0) && (digits[digitCount - 1] == '0')) {
+            digitCount = digitCount - 1;
+        }
+
+        // Round to the required number of significant digits
+        int maximumDigits = fractionDigits + 1;
+        if (digitCount > maximumDigits) {
+            if (ShouldRoundUp(value, digits, digitCount, maximumDigits, exponent) == true) {
+                int i = maximumDigits - 1;
+                while ((i >= 0) && (digits[i] == '9')) {
+                    i = i - 1;
+                }
+                if (i < 0) {
+                    // All digits were 9, so the number becomes 1 followed by zeros with an increased exponent
+                    digits[0] = '1';
+                    digitCount = 1;
+                    exponent = exponent + 1;
+                }
+                else {
+                    digits[i] = (char)(digits[i] + 1);
+                    digitCount = i + 1;
+                }
+            }
+            else {
+                digitCount = maximumDigits;
+            }
+            while ((digitCount > 1) && (digits[digitCount - 1] == '0')) {
+                digitCount = digitCount - 1;
+            }
+        }
+
+        // Write the mantissa and exponent
+        buffer[offset] = digits[0];
+        offset = offset + 1;
+        // The decimal point is always written when no fraction digits are allowed, consistent with a "#.E0" DecimalFormat pattern
+        if ((digitCount > 1) || (fractionDigits == 0)) {
+            buffer[offset] = '.';
+            offset = offset + 1;
+            System.arraycopy(digits, 1, buffer, offset, digitCount - 1);
+            offset = offset + digitCount - 1;
+        }
+        buffer[offset] = 'E';
+        offset = offset + 1;
+
+        return WriteInteger(exponent, buffer, offset);
+    }
+
+    /**
+     * Writes a date and time to a buffer in format 'yyyy-MM-ddTHH:mm:ss.fff' (e.g. "2013-05-01T12:43:56.654").
+     * <p>
+     * The date and time fields are written as they appear in the default time zone, consistent with java.text.SimpleDateFormat.
+     * </p>
+     * @param calendar  The date and time.
+     * @param buffer    The buffer to write to.
+     * @param offset    The position in the buffer to start writing at.
+     * @return          The position in the buffer after the last character written.
+     */
+    public int WriteDateTime(Calendar calendar, char[] buffer, int offset) {
+        Calendar localCalendar = calendar;
+        if (calendar.getTimeZone().equals(TimeZone.getDefault()) == false) {
+            localCalendar = new GregorianCalendar();
+            localCalendar.setTimeInMillis(calendar.getTimeInMillis());
+        }
+
+        int year = localCalendar.get(Calendar.YEAR);
+        if (year > 9999) {
+            offset = WriteInteger(year, buffer, offset);
+        }
+        else {
+            offset = WritePaddedInteger(year, 4, buffer, offset);
+        }
+        buffer[offset] = '-';
+        offset = WritePaddedInteger(localCalendar.get(Calendar.MONTH) + 1, 2, buffer, offset + 1);
+        buffer[offset] = '-';
+        offset = WritePaddedInteger(localCalendar.get(Calendar.DAY_OF_MONTH), 2, buffer, offset + 1);
+        buffer[offset] = 'T';
+        offset = WritePaddedInteger(localCalendar.get(Calendar.HOUR_OF_DAY), 2, buffer, offset + 1);
+        buffer[offset] = ':';
+        offset = WritePaddedInteger(localCalendar.get(Calendar.MINUTE), 2, buffer, offset + 1);
+        buffer[offset] = ':';
+        offset = WritePaddedInteger(localCalendar.get(Calendar.SECOND), 2, buffer, offset + 1);
+        buffer[offset] = '.';
+
+        return WritePaddedInteger(calendar.get(Calendar.MILLISECOND), 3, buffer, offset + 1);
+    }
+
+    /**
+     * Parses a date and time in format 'yyyy-MM-ddTHH:mm:ss.fff' (e.g. "2013-05-01T12:43:56.654") in the default time zone.
+     * @param serializedDateTime  The date and time to parse.
+     * @return                    The parsed date and time.
+     * @throws Exception          if the date and time is not in the expected format.
+     */
+    public GregorianCalendar ParseDateTime(String serializedDateTime) throws Exception {
+        if ((serializedDateTime.length() < 21) || (serializedDateTime.charAt(4) != '-') || (serializedDateTime.charAt(7) != '-') || (serializedDateTime.charAt(13) != ':') || (serializedDateTime.charAt(16) != ':')) {
+            throw new Exception("Unparseable date '" + serializedDateTime + "'.");
+        }
+
+        int year = ParseDigits(serializedDateTime, 0, 4);
+        int month = ParseDigits(serializedDateTime, 5, 7);
+        int day = ParseDigits(serializedDateTime, 8, 10);
+        int hour = ParseDigits(serializedDateTime, 11, 13);
+        int minute = ParseDigits(serializedDateTime, 14, 16);
+        int second = ParseDigits(serializedDateTime, 17, 19);
+        int milliSeconds = ParseDigits(serializedDateTime, 20, serializedDateTime.length());
+
+        GregorianCalendar returnCalendar = new GregorianCalendar(year, month - 1, day, hour, minute, second);
+        returnCalendar.set(Calendar.MILLISECOND, milliSeconds);
+
+        return returnCalendar;
+    }
+
+    /**
+     * Writes a non-negative integer to a buffer, padded with leading zeros to the specified minimum number of digits.
+     * @param value          The integer.
+     * @param minimumDigits  The minimum number of digits to write.
+     * @param buffer         The buffer to write to.
+     * @param offset         The position in the buffer to start writing at.
+     * @return               The position in the buffer after the last character written.
+     */
+    private int WritePaddedInteger(int value, int minimumDigits, char[] buffer, int offset) {
+        int digitCount = 1;
+        for (int remainder = value / 10; remainder != 0; remainder = remainder / 10) {
+            digitCount = digitCount + 1;
+        }
+        if (digitCount < minimumDigits) {
+            digitCount = minimumDigits;
+        }
+        int endPosition = offset + digitCount;
+        for (int i = endPosition - 1; i >= offset; i = i - 1) {
+            buffer[i] = (char)('0' + (value % 10));
+            value = value / 10;
+        }
+
+        return endPosition;
+    }
+
+    /**
+     * Parses a non-negative integer from a range of characters in a string, all of which must be digits.
+     * @param inputString  The string.
+     * @param startIndex   The index of the first character to parse.
+     * @param endIndex     The index after the last character to parse.
+     * @return             The integer.
+     * @throws Exception   if any of the characters is not a digit.
+     */
+    private int ParseDigits(String inputString, int startIndex, int endIndex) throws Exception {
+        if ((endIndex - startIndex) > 9) {
+            throw new Exception("Unparseable date '" + inputString + "'.");
+        }
+        int returnValue = 0;
+        for (int i = startIndex; i < endIndex; i = i + 1) {
+            char currentChar = inputString.charAt(i);
+            if ((currentChar < '0') || (currentChar > '9')) {
+                throw new Exception("Unparseable date '" + inputString + "'.");
+            }
+            returnValue = (returnValue * 10) + (currentChar - '0');
+        }
+
+        return returnValue;
+    }
+
+    /**
+     * Parses the (possibly negative) exponent at the end of a number in computerized scientific notation.
+     * @param number      The number (e.g. "1.2345E-5").
+     * @param startIndex  The index of the first character of the exponent.
+     * @return            The exponent.
+     */
+    private int ParseExponent(String number, int startIndex) {
+        boolean negative = false;
+        if (number.charAt(startIndex) == '-') {
+            negative = true;
+            startIndex = startIndex + 1;
+        }
+        int returnValue = 0;
+        for (int i = startIndex; i < number.length(); i = i + 1) {
+            returnValue = (returnValue * 10) + (number.charAt(i) - '0');
+        }
+
+        return (negative == true) ? -returnValue : returnValue;
+    }
+
+    /**
+     * Determines whether the digits of a number should be rounded up when truncated to the specified number of digits, using half even rounding.
+     * <p>
+     * Where the discarded digits are exactly '5', the digits are compared against the exact binary value of the number to determine whether the value is above, below, or exactly at the midpoint, replicating the behaviour of java.text.DecimalFormat.
+     * </p>
+     * @param value          The number.
+     * @param digits         The significant digits of the shortest representation of the number.
+     * @param digitCount     The number of significant digits.
+     * @param maximumDigits  The number of digits to round to.
+     * @param exponent       The decimal exponent of the first significant digit.
+     * @return               True if the digits should be rounded up.
+     */
+    private boolean ShouldRoundUp(double value, char[] digits, int digitCount, int maximumDigits, int exponent) {
+        char firstDiscardedDigit = digits[maximumDigits];
+
+        if (firstDiscardedDigit > '5') {
+            return true;
+        }
+        else if (firstDiscardedDigit < '5') {
+            return false;
+        }
+        else if (digitCount > maximumDigits + 1) {
+            // Trailing zeros have been removed, so any further digits are non-zero and the value is above the midpoint
+            return true;
+        }
+        else if ((value >= 1) && (value < integerDigitsExactLimit) && (Math.rint(value) == value)) {
+            // The digits of integer values below 2^63 are generated by the JDK using long arithmetic, and are never flagged as exact, so java.text.DecimalFormat always rounds them up at the midpoint
+            return true;
+        }
+        else {
+            // The digits are exactly at the midpoint, but may have been rounded from the exact binary value
+            BigDecimal shortestValue = new BigDecimal(new BigInteger(new String(digits, 0, digitCount)), -(exponent - digitCount + 1));
+            int comparison = new BigDecimal(value).compareTo(shortestValue);
+            if (comparison != 0) {
+                return (comparison > 0);
+            }
+            else {
+                return ((digits[maximumDigits - 1] - '0') % 2 != 0);
+            }
+        }
+    }
+
+    private char[] GetDigitBuffer() {
+        char[] buffer = threadDigitBuffer.get();
+        if (buffer == null) {
+            buffer = new char[maxSignificantDigits + 8];
+            threadDigitBuffer.set(buffer);
+        }
+
+        return buffer;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremotingbenchmarks;
+
+import java.io.*;
+
+/**
+ * Measures and reports the average execution time of benchmark operations.
+ * <p>
+ * Each operation is executed for a number of warmup iterations (allowing the JIT compiler to compile the code under test), and then for a number of measured iterations, the total time of which is divided to give an average time per operation.
+ * </p>
+ * @author Alastair Wyse
+ */
+public class BenchmarkRunner {
+
+    private int warmupIterations;
+    private int measuredIterations;
+    private PrintStream outputStream;
+    /** Accumulates the hash codes of the results of the operations, so that the JIT compiler cannot eliminate them. */
+    private int resultAccumulator;
+
+    /**
+     * @return  A value derived from the results of all operations executed.
+     */
+    public int getResultAccumulator() {
+        return resultAccumulator;
+    }
+
+    /**
+     * Initialises a new instance of the BenchmarkRunner class.
+     * @param warmupIterations    The number of times to execute each operation before measuring.
+     * @param measuredIterations  The number of times to execute each operation while measuring.
+     * @param outputStream        The stream to write the results to.
+     */
+    public BenchmarkRunner(int warmupIterations, int measuredIterations, PrintStream outputStream) {
+        if (warmupIterations < 0) {
+            throw new IllegalArgumentException("Argument 'warmupIterations' must be greater than or equal to 0.");
+        }
+        if (measuredIterations < 1) {
+            throw new IllegalArgumentException("Argument 'measuredIterations' must be greater than or equal to 1.");
+        }
+
+        this.warmupIterations = warmupIterations;
+        this.measuredIterations = measuredIterations;
+        this.outputStream = outputStream;
+        resultAccumulator = 0;
+    }
+
+    /**
+     * Executes and measures the specified operation, and writes the average time per operation to the output stream.
+     * @param name        The name of the operation to include in the output.
+     * @param operation   The operation.
+     * @return            The average time per operation in nanoseconds.
+     * @throws Exception  if an error occurs executing the operation.
+     */
+    public double Run(String name, IBenchmarkOperation operation) throws Exception {
+        for (int i = 0; i < warmupIterations; i = i + 1) {
+            Accumulate(operation.Execute());
+        }
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < measuredIterations; i = i + 1) {
+            Accumulate(operation.Execute());
+        }
+        long elapsedTime = System.nanoTime() - startTime;
+
+        double averageTime = (double)elapsedTime / measuredIterations;
+        outputStream.println(String.format("%-60s %14.1f ns/op", name, averageTime));
+
+        return averageTime;
+    }
+
+    /**
+     * Writes a line of text to the output stream.
+     * @param text  The text to write.
+     */
+    public void WriteLine(String text) {
+        outputStream.println(text);
+    }
+
+    private void Accumulate(Object result) {
+        if (result != null) {
+            resultAccumulator = resultAccumulator + result.hashCode();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2015 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremotingbenchmarks;
+
+/**
+ * Defines a single iteration of an operation whose execution time is measured by class BenchmarkRunner.
+ * @author Alastair Wyse
+ */
+public interface IBenchmarkOperation {
+
+    /**
+     * Executes one iteration of the operation.
+     * @return            An object derived from the result of the operation.  Returned so that the operation cannot be optimized away by the JIT compiler.
+     * @throws Exception  if an error occurs executing the operation.
+     */
+    Object Execute() throws Exception;
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremotingbenchmarks;
+
+import java.math.*;
+import java.util.*;
+import net.alastairwyse.methodinvocationremoting.*;
+
+/**
+ * Compares the serialize and deserialize times, and serialized sizes of the IMethodInvocationSerializer implementations (including MethodInvocationSerializer using the lightweight XML writer and reader), for method invocations with parameters of each of the standard types, arrays of the standard types, and arrays of primitive types.
+ * <p>
+ * Accepts optional arguments specifying the number of warmup iterations, the number of measured iterations, and the length of the array parameters (defaults 20000, 20000, and 100).
+ * </p>
+ * @author Alastair Wyse
+ */
+public class SerializerBenchmarks {
+
+    public static void main(String[] args) throws Exception {
+        int warmupIterations = 20000;
+        int measuredIterations = 20000;
+        int arrayLength = 100;
+        if (args.length > 0) {
+            warmupIterations = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            measuredIterations = Integer.parseInt(args[1]);
+        }
+        if (args.length > 2) {
+            arrayLength = Integer.parseInt(args[2]);
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(warmupIterations, measuredIterations, System.out);
+        LinkedHashMap<String, IMethodInvocationSerializer> serializers = new LinkedHashMap<String, IMethodInvocationSerializer>();
+        serializers.put("MethodInvocationSerializer", new MethodInvocationSerializer(new SerializerOperationMap()));
+        serializers.put("MethodInvocationSerializer (lightweight XML)", new LightweightXmlMethodInvocationSerializer(new SerializerOperationMap()));
+        serializers.put("BinaryMethodInvocationSerializer", new BinaryMethodInvocationSerializer(new SerializerOperationMap()));
+
+        for (Map.Entry<String, Object> currentParameter : CreateParameters(arrayLength).entrySet()) {
+            final MethodInvocation methodInvocation = new MethodInvocation("TestMethod", new Object[] { currentParameter.getValue() }, currentParameter.getValue().getClass());
+
+            runner.WriteLine("");
+            runner.WriteLine(currentParameter.getKey());
+            for (Map.Entry<String, IMethodInvocationSerializer> currentSerializer : serializers.entrySet()) {
+                final IMethodInvocationSerializer serializer = currentSerializer.getValue();
+                final String serializedMethodInvocation = serializer.Serialize(methodInvocation);
+
+                runner.Run("  " + currentSerializer.getKey() + ".Serialize()", new IBenchmarkOperation() {
+                    @Override
+                    public Object Execute() throws Exception {
+                        return serializer.Serialize(methodInvocation);
+                    }
+                });
+                runner.Run("  " + currentSerializer.getKey() + ".Deserialize()", new IBenchmarkOperation() {
+                    @Override
+                    public Object Execute() throws Exception {
+                        return serializer.Deserialize(serializedMethodInvocation);
+                    }
+                });
+                runner.WriteLine(String.format("  %-60s %14d chars", currentSerializer.getKey() + " serialized size", serializedMethodInvocation.length()));
+            }
+        }
+
+        // Write the accumulated result, so that the results of the benchmarked operations are used
+        runner.WriteLine("");
+        runner.WriteLine("Result accumulator: " + runner.getResultAccumulator());
+    }
+
+    /**
+     * Creates a parameter of each of the standard types, an array of each of the standard types, and int and double primitive arrays.
+     * @param arrayLength  The length of the array parameters.
+     * @return             The parameters, keyed by a description of the parameter.
+     */
+    private static LinkedHashMap<String, Object> CreateParameters(int arrayLength) {
+        LinkedHashMap<String, Object> returnParameters = new LinkedHashMap<String, Object>();
+        Random random = new Random(1);
+
+        Integer[] integerArray = new Integer[arrayLength];
+        String[] stringArray = new String[arrayLength];
+        Byte[] byteArray = new Byte[arrayLength];
+        Short[] shortArray = new Short[arrayLength];
+        Long[] longArray = new Long[arrayLength];
+        Float[] floatArray = new Float[arrayLength];
+        Double[] doubleArray = new Double[arrayLength];
+        Character[] characterArray = new Character[arrayLength];
+        Boolean[] booleanArray = new Boolean[arrayLength];
+        BigDecimal[] bigDecimalArray = new BigDecimal[arrayLength];
+        GregorianCalendar[] calendarArray = new GregorianCalendar[arrayLength];
+        int[] primitiveIntegerArray = new int[arrayLength];
+        double[] primitiveDoubleArray = new double[arrayLength];
+        for (int i = 0; i < arrayLength; i = i + 1) {
+            integerArray[i] = random.nextInt();
+            stringArray[i] = "String value " + i;
+            byteArray[i] = (byte)random.nextInt();
+            shortArray[i] = (short)random.nextInt();
+            longArray[i] = random.nextLong();
+            floatArray[i] = random.nextFloat();
+            doubleArray[i] = random.nextDouble();
+            characterArray[i] = (char)('a' + random.nextInt(26));
+            booleanArray[i] = random.nextBoolean();
+            bigDecimalArray[i] = new BigDecimal(random.nextInt()).movePointLeft(4);
+            calendarArray[i] = CreateCalendar(random);
+            primitiveIntegerArray[i] = integerArray[i];
+            primitiveDoubleArray[i] = doubleArray[i];
+        }
+
+        returnParameters.put("Integer", random.nextInt());
+        returnParameters.put("String", "Benchmark string value");
+        returnParameters.put("Byte", (byte)random.nextInt());
+        returnParameters.put("Short", (short)random.nextInt());
+        returnParameters.put("Long", random.nextLong());
+        returnParameters.put("Float", random.nextFloat());
+        returnParameters.put("Double", random.nextDouble());
+        returnParameters.put("Character", 'x');
+        returnParameters.put("Boolean", true);
+        returnParameters.put("BigDecimal", new BigDecimal("12345.6789"));
+        returnParameters.put("GregorianCalendar", CreateCalendar(random));
+        returnParameters.put("Integer[" + arrayLength + "]", integerArray);
+        returnParameters.put("String[" + arrayLength + "]", stringArray);
+        returnParameters.put("Byte[" + arrayLength + "]", byteArray);
+        returnParameters.put("Short[" + arrayLength + "]", shortArray);
+        returnParameters.put("Long[" + arrayLength + "]", longArray);
+        returnParameters.put("Float[" + arrayLength + "]", floatArray);
+        returnParameters.put("Double[" + arrayLength + "]", doubleArray);
+        returnParameters.put("Character[" + arrayLength + "]", characterArray);
+        returnParameters.put("Boolean[" + arrayLength + "]", booleanArray);
+        returnParameters.put("BigDecimal[" + arrayLength + "]", bigDecimalArray);
+        returnParameters.put("GregorianCalendar[" + arrayLength + "]", calendarArray);
+        returnParameters.put("int[" + arrayLength + "]", primitiveIntegerArray);
+        returnParameters.put("double[" + arrayLength + "]", primitiveDoubleArray);
+
+        return returnParameters;
+    }
+
+    private static GregorianCalendar CreateCalendar(Random random) {
+        GregorianCalendar returnCalendar = new GregorianCalendar(2000 + random.nextInt(30), random.nextInt(12), 1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60));
+        returnCalendar.set(Calendar.MILLISECOND, random.nextInt(1000));
+
+        return returnCalendar;
+    }
+
+    /**
+     * Subclass of MethodInvocationSerializer which uses the lightweight XML writer and reader.
+     */
+    private static class LightweightXmlMethodInvocationSerializer extends MethodInvocationSerializer {
+
+        public LightweightXmlMethodInvocationSerializer(ISerializerOperationMap operationMap) {
+            super(operationMap);
+            useLightweightXml = true;
+        }
+    }
+}
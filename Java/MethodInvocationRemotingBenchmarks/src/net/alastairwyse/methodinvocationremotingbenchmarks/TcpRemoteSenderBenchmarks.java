@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremotingbenchmarks;
+
+import java.net.*;
+import net.alastairwyse.applicationlogging.*;
+import net.alastairwyse.methodinvocationremoting.*;
+
+/**
+ * Measures the round trip time of TcpRemoteSender.Send() (i.e. the time to send a message and receive its acknowledgement) to a TcpRemoteReceiver over the loopback interface, for messages of varying size.
+ * <p>
+ * Accepts optional arguments specifying the number of warmup iterations, the number of measured iterations, the port to use, the 'acknowledgementReceiveRetryInterval' of the TcpRemoteSender, and the acknowledgement window size of the TcpRemoteSender (defaults 200, 1000, 55010, 25 as used in SampleApplication5, and 1).  With an acknowledgement window size greater than 1, Send() returns without waiting for the acknowledgement, so the time measured is the time to send within the window.  The TcpRemoteReceiver waits on a selector for received data.
+ * </p>
+ * @author Alastair Wyse
+ */
+public class TcpRemoteSenderBenchmarks {
+
+    public static void main(String[] args) throws Exception {
+        int warmupIterations = 200;
+        int measuredIterations = 1000;
+        int port = 55010;
+        int acknowledgementReceiveRetryInterval = 25;
+        int acknowledgementWindowSize = 1;
+        if (args.length > 0) {
+            warmupIterations = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            measuredIterations = Integer.parseInt(args[1]);
+        }
+        if (args.length > 2) {
+            port = Integer.parseInt(args[2]);
+        }
+        if (args.length > 3) {
+            acknowledgementReceiveRetryInterval = Integer.parseInt(args[3]);
+        }
+        if (args.length > 4) {
+            acknowledgementWindowSize = Integer.parseInt(args[4]);
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(warmupIterations, measuredIterations, System.out);
+        IApplicationLogger logger = new ConsoleApplicationLogger(LogLevel.Critical, '|', "  ");
+        final TcpRemoteReceiver receiver = new TcpRemoteReceiver(port, 50, 20, 0, 4096, logger);
+        final TcpRemoteSender sender = new TcpRemoteSender(InetAddress.getLoopbackAddress(), port, 50, 20, 5000, acknowledgementReceiveRetryInterval, logger);
+        receiver.setCumulativeAcknowledgementsAllowed(true);
+        sender.setAcknowledgementWindowSize(acknowledgementWindowSize);
+
+        // The receiver waits for the incoming connection, so must be connected on a separate thread to the sender
+        Thread receiverConnectThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    receiver.Connect();
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        receiverConnectThread.start();
+        sender.Connect();
+        receiverConnectThread.join();
+
+        final ReceiveLoop receiveLoop = new ReceiveLoop(receiver);
+        Thread receiveLoopThread = new Thread(receiveLoop);
+        receiveLoopThread.start();
+
+        runner.WriteLine("TcpRemoteSender.Send() round trip (acknowledgementReceiveRetryInterval " + acknowledgementReceiveRetryInterval + "ms, acknowledgement window size " + acknowledgementWindowSize + ")");
+        for (int messageLength : new int[] { 16, 1024, 65536 }) {
+            StringBuilder messageBuilder = new StringBuilder(messageLength);
+            for (int i = 0; i < messageLength; i = i + 1) {
+                messageBuilder.append((char)('a' + (i % 26)));
+            }
+            final String message = messageBuilder.toString();
+
+            runner.Run("  " + messageLength + " byte message", new IBenchmarkOperation() {
+                @Override
+                public Object Execute() throws Exception {
+                    sender.Send(message);
+                    return null;
+                }
+            });
+        }
+
+        sender.Flush();
+        receiveLoop.Stop();
+        receiver.CancelReceive();
+        receiveLoopThread.join();
+        sender.Disconnect();
+        receiver.Disconnect();
+
+        runner.WriteLine("");
+        runner.WriteLine("Messages received: " + receiveLoop.getMessageCount());
+    }
+
+    /**
+     * Repeatedly receives messages from a TcpRemoteReceiver until stopped.
+     */
+    private static class ReceiveLoop implements Runnable {
+
+        private TcpRemoteReceiver receiver;
+        private volatile boolean stopRequest;
+        private volatile int messageCount;
+
+        public ReceiveLoop(TcpRemoteReceiver receiver) {
+            this.receiver = receiver;
+            stopRequest = false;
+            messageCount = 0;
+        }
+
+        /**
+         * @return  The number of messages received.
+         */
+        public int getMessageCount() {
+            return messageCount;
+        }
+
+        public void Stop() {
+            stopRequest = true;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (stopRequest == false) {
+                    if (receiver.Receive().length() > 0) {
+                        messageCount = messageCount + 1;
+                    }
+                }
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
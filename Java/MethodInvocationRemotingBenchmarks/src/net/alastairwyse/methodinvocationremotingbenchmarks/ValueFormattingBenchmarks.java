@@ -0,0 +1,243 @@
+/*
+ * Copyright 2015 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremotingbenchmarks;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+import javax.xml.stream.*;
+import net.alastairwyse.methodinvocationremoting.*;
+
+/**
+ * Compares the time taken by the IObjectSerializer implementations built into class MethodInvocationSerializer to format and parse numeric and date/time values, against the formatter based implementations they replaced (String.format(), DecimalFormat, and SimpleDateFormat).
+ * <p>
+ * Accepts optional arguments specifying the number of warmup iterations and the number of measured iterations (defaults 200000 and 200000).
+ * </p>
+ * @author Alastair Wyse
+ */
+public class ValueFormattingBenchmarks {
+
+    private final String dateTimeElementName = "Data";
+
+    private BenchmarkRunner runner;
+    private CharArrayWriter outputBuffer;
+    private XMLStreamWriter writer;
+    private XMLInputFactory inputFactory;
+
+    public static void main(String[] args) throws Exception {
+        int warmupIterations = 200000;
+        int measuredIterations = 200000;
+        if (args.length > 0) {
+            warmupIterations = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            measuredIterations = Integer.parseInt(args[1]);
+        }
+
+        new ValueFormattingBenchmarks(new BenchmarkRunner(warmupIterations, measuredIterations, System.out)).Run();
+    }
+
+    /**
+     * Initialises a new instance of the ValueFormattingBenchmarks class.
+     * @param runner      The runner to use to execute and measure the benchmark operations.
+     * @throws Exception  if an error occurs creating the XML writer.
+     */
+    public ValueFormattingBenchmarks(BenchmarkRunner runner) throws Exception {
+        this.runner = runner;
+        outputBuffer = new CharArrayWriter();
+        writer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputBuffer);
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    /**
+     * Runs the benchmarks, writing the results to the runner's output stream.
+     * @throws Exception  if an error occurs executing the benchmarks.
+     */
+    public void Run() throws Exception {
+        ISerializerOperationMap operationMap = new SerializerOperationMap();
+        new MethodInvocationSerializer(operationMap);
+        GregorianCalendar calendarValue = new GregorianCalendar(2013, 4, 1, 12, 43, 56);
+        calendarValue.set(Calendar.MILLISECOND, 654);
+
+        CompareSerialize("Integer", -1234567890, operationMap.GetSerializer(Integer.class), new LegacyIntegerSerializer());
+        CompareSerialize("Long", -1234567890123456789L, operationMap.GetSerializer(Long.class), new LegacyIntegerSerializer());
+        CompareSerialize("Short", (short)-12345, operationMap.GetSerializer(Short.class), new LegacyIntegerSerializer());
+        CompareSerialize("Byte", (byte)-123, operationMap.GetSerializer(Byte.class), new LegacyIntegerSerializer());
+        CompareSerialize("Float", 3.14159272E38f, operationMap.GetSerializer(Float.class), new LegacyFloatingPointSerializer(8));
+        CompareSerialize("Double", 1.6976931348623213E308, operationMap.GetSerializer(Double.class), new LegacyFloatingPointSerializer(16));
+        CompareSerialize("Double (short)", 0.25, operationMap.GetSerializer(Double.class), new LegacyFloatingPointSerializer(16));
+        CompareSerialize("GregorianCalendar", calendarValue, operationMap.GetSerializer(GregorianCalendar.class), new LegacyGregorianCalendarSerializer());
+        CompareDeserialize("GregorianCalendar", "2013-05-01T12:43:56.654", operationMap.GetSerializer(GregorianCalendar.class), new LegacyGregorianCalendarSerializer());
+
+        // Write the accumulated result, so that the results of the benchmarked operations are used
+        runner.WriteLine("");
+        runner.WriteLine("Result accumulator: " + runner.getResultAccumulator());
+    }
+
+    /**
+     * Measures the time to serialize the specified value using the current and legacy serializers.
+     * @param name              The name of the value type to include in the output.
+     * @param value             The value to serialize.
+     * @param currentSerializer The serializer built into class MethodInvocationSerializer.
+     * @param legacySerializer  The legacy serializer.
+     * @throws Exception        if an error occurs serializing.
+     */
+    @SuppressWarnings("unchecked")
+    private void CompareSerialize(String name, final Object value, IObjectSerializer<?> currentSerializer, IObjectSerializer<?> legacySerializer) throws Exception {
+        final IObjectSerializer<Object> current = (IObjectSerializer<Object>)currentSerializer;
+        final IObjectSerializer<Object> legacy = (IObjectSerializer<Object>)legacySerializer;
+
+        runner.WriteLine("");
+        runner.WriteLine(name + " serialize ('" + SerializeToString(current, value) + "')");
+        if (SerializeToString(current, value).equals(SerializeToString(legacy, value)) == false) {
+            throw new Exception("Current and legacy serializers produced different output for " + name + " value '" + value + "'.");
+        }
+        runner.Run("  Current", new IBenchmarkOperation() {
+            @Override
+            public Object Execute() throws Exception {
+                return SerializeToBuffer(current, value);
+            }
+        });
+        runner.Run("  Legacy", new IBenchmarkOperation() {
+            @Override
+            public Object Execute() throws Exception {
+                return SerializeToBuffer(legacy, value);
+            }
+        });
+    }
+
+    /**
+     * Measures the time to deserialize the specified serialized value using the current and legacy serializers.
+     * @param name              The name of the value type to include in the output.
+     * @param serializedValue   The serialized value.
+     * @param currentSerializer The serializer built into class MethodInvocationSerializer.
+     * @param legacySerializer  The legacy serializer.
+     * @throws Exception        if an error occurs deserializing.
+     */
+    private void CompareDeserialize(String name, String serializedValue, final IObjectSerializer<?> currentSerializer, final IObjectSerializer<?> legacySerializer) throws Exception {
+        final String serializedData = "<" + dateTimeElementName + ">" + serializedValue + "</" + dateTimeElementName + ">";
+
+        runner.WriteLine("");
+        runner.WriteLine(name + " deserialize ('" + serializedValue + "', includes XML reader creation)");
+        runner.Run("  Current", new IBenchmarkOperation() {
+            @Override
+            public Object Execute() throws Exception {
+                return currentSerializer.Deserialize(CreateReader(serializedData));
+            }
+        });
+        runner.Run("  Legacy", new IBenchmarkOperation() {
+            @Override
+            public Object Execute() throws Exception {
+                return legacySerializer.Deserialize(CreateReader(serializedData));
+            }
+        });
+    }
+
+    private int SerializeToBuffer(IObjectSerializer<Object> serializer, Object value) throws Exception {
+        outputBuffer.reset();
+        serializer.Serialize(value, writer);
+        writer.flush();
+
+        return outputBuffer.size();
+    }
+
+    private String SerializeToString(IObjectSerializer<Object> serializer, Object value) throws Exception {
+        SerializeToBuffer(serializer, value);
+
+        return outputBuffer.toString();
+    }
+
+    private SimplifiedXMLStreamReader CreateReader(String serializedData) throws Exception {
+        SimplifiedXMLStreamReader reader = new SimplifiedXMLStreamReader(inputFactory.createXMLStreamReader(new StringReader(serializedData)));
+        reader.ReadStartElement(dateTimeElementName);
+
+        return reader;
+    }
+
+    /**
+     * Serializes integer types using String.format(), as previously implemented in class MethodInvocationSerializer.
+     */
+    private class LegacyIntegerSerializer implements IObjectSerializer<Object> {
+
+        @Override
+        public void Serialize(Object inputObject, XMLStreamWriter writer) throws Exception {
+            writer.writeCharacters(String.format(Locale.US, "%d", inputObject));
+        }
+
+        @Override
+        public Object Deserialize(SimplifiedXMLStreamReader reader) throws Exception {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Serializes floating point types using a DecimalFormat created for each value, as previously implemented in class MethodInvocationSerializer.
+     */
+    private class LegacyFloatingPointSerializer implements IObjectSerializer<Object> {
+
+        private int digits;
+
+        public LegacyFloatingPointSerializer(int digits) {
+            this.digits = digits;
+        }
+
+        @Override
+        public void Serialize(Object inputObject, XMLStreamWriter writer) throws Exception {
+            String formatString = "#." + new String(new char[digits]).replace("\0", "#") + "E0";
+            DecimalFormat formatter = new DecimalFormat(formatString);
+            writer.writeCharacters(formatter.format(inputObject));
+        }
+
+        @Override
+        public Object Deserialize(SimplifiedXMLStreamReader reader) throws Exception {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Serializes and deserializes GregorianCalendar objects using SimpleDateFormat, as previously implemented in class MethodInvocationSerializer.
+     */
+    private class LegacyGregorianCalendarSerializer implements IObjectSerializer<Object> {
+
+        @Override
+        public void Serialize(Object inputObject, XMLStreamWriter writer) throws Exception {
+            GregorianCalendar inputCalendar = (GregorianCalendar)inputObject;
+            SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+            String serializedDate = dateFormatter.format(inputCalendar.getTime());
+            String xmlSerializedDate = serializedDate.substring(0, 10) + "T" + serializedDate.substring(11, 19);
+            Integer milliSeconds = inputCalendar.get(Calendar.MILLISECOND);
+            xmlSerializedDate = xmlSerializedDate + "." + String.format(Locale.US, "%03d", milliSeconds);
+            writer.writeCharacters(xmlSerializedDate);
+        }
+
+        @Override
+        public Object Deserialize(SimplifiedXMLStreamReader reader) throws Exception {
+            SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+            String xmlSerializedDate = reader.ReadString();
+            String serializedDate = xmlSerializedDate.substring(0, 10) + " " + xmlSerializedDate.substring(11, 19);
+            Date deserializedDate = dateFormatter.parse(serializedDate);
+            GregorianCalendar returnCalendar = new GregorianCalendar();
+            returnCalendar.setTime(deserializedDate);
+            Integer milliSeconds = Integer.parseInt(xmlSerializedDate.substring(20));
+            returnCalendar.set(Calendar.MILLISECOND, milliSeconds);
+            reader.ReadEndElement();
+
+            return returnCalendar;
+        }
+    }
+}
@@ -71,8 +71,6 @@ public class TcpRemoteReceiverLoggingTests {
     
     @Test
     public void ReceiveLoggingTest() throws Exception {
-        ByteBuffer readBuffer = ByteBuffer.allocate(socketReadBufferSize);
-        
         // Setup test messages
         byte[] testMessageBody = "<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocation><MethodName>TestMethod</MethodName><Parameters><Parameter><DataType>string</DataType><Data>abc</Data></Parameter><Parameter><DataType>integer</DataType><Data>123</Data></Parameter><Parameter /><Parameter><DataType>double</DataType><Data>4.5678899999999999e+002</Data></Parameter></Parameters><ReturnType /></MethodInvocation>".getBytes(stringEncodingCharset);
         byte[] testMessageSequenceNumber = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(123).array();
@@ -106,7 +104,7 @@ public class TcpRemoteReceiverLoggingTests {
             .thenReturn(null);
         // As the read method passes a reference to a ByteBuffer, and data is written to that ByteBuffer, to correctly mock this a custom Answer implementation is required.
         //   An instance of the ReadMethodAnswer class is used.
-        when(mockSocketChannel.read(readBuffer))
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
             .thenAnswer(new ReadMethodAnswer(testMessageByteArray, testMessageByteArray.remaining()))
             .thenAnswer(new ReadMethodAnswer(testSmallMessageByteArray, testSmallMessageByteArray.remaining()));
         
@@ -43,7 +43,9 @@ public class TcpRemoteSenderLoggingTests {
     public void setUp() throws Exception {
         mockSocketChannel = mock(ISocketChannel.class);
         mockApplicationLogger = mock(IApplicationLogger.class);
-        testTcpRemoteSender = new TcpRemoteSender(testIpAddress, testPort, 3, 10, 25, 10, mockApplicationLogger, new NullMetricLogger(), mockSocketChannel);
+        // The buffers passed to the gathering write() method are consumed by the write, so to correctly mock this a custom Answer implementation is required.
+        doAnswer(new MessageWriteAnswer()).when(mockSocketChannel).write(any(ByteBuffer[].class));
+        testTcpRemoteSender = new TcpRemoteSender(testIpAddress, testPort, 3, 10, 25, mockApplicationLogger, new NullMetricLogger(), mockSocketChannel);
     }
     
     @Test
@@ -75,7 +77,7 @@ public class TcpRemoteSenderLoggingTests {
         when(mockSocketChannel.isConnected()).thenReturn(true);
         // As the read method passes a reference to a ByteBuffer, and data is written to that ByteBuffer, to correctly mock this a custom Answer implementation is required.
         //   An instance of the AcknowledgementAnswer class is used.
-        when(mockSocketChannel.read(acknowledgementBuffer)).thenAnswer(new AcknowledgementAnswer((byte)0x06, 1));
+        when(mockSocketChannel.read(acknowledgementBuffer, 25)).thenAnswer(new AcknowledgementAnswer((byte)0x06, 1));
         
         testTcpRemoteSender.Send("<TestMessage>Test message content</TestMessage>");
         
@@ -110,4 +112,23 @@ public class TcpRemoteSenderLoggingTests {
             return returnValue;
         }
     }
+    
+    /**
+     * Mock answer for the SocketChannel.write() method (with multiple buffers), to simulate writing all bytes of a message
+     * @author Alastair Wyse
+     */
+    private class MessageWriteAnswer implements Answer<Long> {
+
+        @Override
+        public Long answer(InvocationOnMock invocation) throws Throwable {
+            ByteBuffer[] sourceByteBuffers = (ByteBuffer[])invocation.getArguments()[0];
+            long bytesWritten = 0;
+            for (ByteBuffer currentByteBuffer : sourceByteBuffers) {
+                bytesWritten = bytesWritten + currentByteBuffer.remaining();
+                currentByteBuffer.position(currentByteBuffer.limit());
+            }
+
+            return bytesWritten;
+        }
+    }
 }
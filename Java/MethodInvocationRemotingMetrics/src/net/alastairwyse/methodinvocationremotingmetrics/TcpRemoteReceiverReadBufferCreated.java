@@ -21,6 +21,7 @@ import net.alastairwyse.applicationmetrics.CountMetric;
 /**
  * Metric representing the number of times a new read buffer was created in TcpRemoteReceiver objects.
  * For maximum efficiency no additional read buffers should be created when reading a message.  If this occurs it indicates that the received message size is larger than the buffer size.
+ * Note that TcpRemoteReceiver reuses a single read buffer, and so does not log this metric.
  * @author Alastair Wyse
  */
 public class TcpRemoteReceiverReadBufferCreated extends CountMetric {
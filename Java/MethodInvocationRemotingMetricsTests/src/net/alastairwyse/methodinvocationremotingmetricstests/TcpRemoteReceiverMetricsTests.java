@@ -109,17 +109,13 @@ public class TcpRemoteReceiverMetricsTests {
     public void ReceiveAsynchronousCloseExceptionMetricsTest() throws Exception {
         // Tests that the CancelBegin() method is called when an AsynchronousCloseException is encountered during receiving
         
-        ByteBuffer readBuffer = ByteBuffer.allocate(socketReadBufferSize);
-        
         when(mockServerSocketChannel.isOpen()).thenReturn(false);
         when(mockServerSocketChannel.accept())
             .thenReturn(mockSocketChannel)
             .thenReturn(null);
-        // For the first read(), return the first 10 bytes of the message...
-        when(mockSocketChannel.read(readBuffer))
-            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10));
-        // ...and on the second read() throw an exception
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, false)))
+        // For the first read(), return the first 10 bytes of the message, and on the second read() throw an exception
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10))
             .thenThrow(new java.nio.channels.AsynchronousCloseException());
 
         try {
@@ -138,17 +134,13 @@ public class TcpRemoteReceiverMetricsTests {
     public void ReceiveUnhandledExceptionMetricsTest() throws Exception {
         // Tests that the CancelBegin() method is called when an unhandled exception is encountered during receiving
         
-        ByteBuffer readBuffer = ByteBuffer.allocate(socketReadBufferSize);
-        
         when(mockServerSocketChannel.isOpen()).thenReturn(false);
         when(mockServerSocketChannel.accept())
             .thenReturn(mockSocketChannel)
             .thenReturn(null);
-        // For the first read(), return the first 10 bytes of the message...
-        when(mockSocketChannel.read(readBuffer))
-            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10));
-        // ...and on the second read() throw an exception
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, false)))
+        // For the first read(), return the first 10 bytes of the message, and on the second read() throw an exception
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10))
             .thenThrow(new java.nio.channels.NotYetConnectedException());
 
         try {
@@ -176,13 +168,12 @@ public class TcpRemoteReceiverMetricsTests {
             // The below return simulates the new pending connection
             .thenReturn(mockSocketChannel)
             .thenReturn(null);
-        // Mock the initial calls to read(), in both cases returning the first 10 bytes of the message
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 0, socketReadBufferSize, false)))
+        // Mock the calls to read() on the initial connection, returning the first 10 bytes and then just the next 10 bytes of the message
+        //   Then mock the calls on the new connection, returning the first 10 bytes and then the entire remainder of the message
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10))
-            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10));
-        // Mock the subsequent calls the read(), in the first case returning just the next 10 bytes of the message, and in the second case the entire remainder of the message
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, false)))
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 10, 10, socketReadBufferSize, true), 10))
+            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10))
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 10, 20, socketReadBufferSize, true), 20));
         
         testTcpRemoteReceiver.Connect();
@@ -200,19 +191,15 @@ public class TcpRemoteReceiverMetricsTests {
     public void ReceiveReconnectExceptionMetricsTest() throws Exception {
         // Tests that if an exception occurs when receiving, subsequent failure to reconnect will call method CancelBegin() when handling the exception
         
-        ByteBuffer readBuffer = ByteBuffer.allocate(socketReadBufferSize);
-        
         when(mockServerSocketChannel.isOpen()).thenReturn(false);
         when(mockServerSocketChannel.accept())
             .thenReturn(mockSocketChannel)
             .thenReturn(null)
             // This mock action simulates repeated IOExceptions when attempting to reconnect (will be called for as many times as specified by parameter 'connectRetryCount')
             .thenThrow(new IOException("Mock IOException."));
-        // For the first read(), return the first 10 bytes of the message...
-        when(mockSocketChannel.read(readBuffer))
-            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10));
-        // ...and on the second read() throw an exception
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, false)))
+        // For the first read(), return the first 10 bytes of the message, and on the second read() throw an exception
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10))
             .thenThrow(new IOException());
         
         try {
@@ -240,13 +227,11 @@ public class TcpRemoteReceiverMetricsTests {
             .thenReturn(mockSocketChannel)
             .thenReturn(null);
 
-        // Mock the 1st and 3rd calls to read(), first returning just 10 bytes of the message, and then throwing an unhandled exception (after reconnecting)
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 0, socketReadBufferSize, false)))
+        // Mock the calls to read(), first returning just 10 bytes of the message, then causing a handled exception, and then throwing an unhandled exception (after reconnecting)
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10))
+            .thenThrow(new IOException("Mock IOException."))
             .thenThrow(new java.nio.channels.AsynchronousCloseException());
-        // Mock the 2nd call the read(), causing a handled exception
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, false)))
-            .thenThrow(new IOException("Mock IOException."));
 
         try {
             testTcpRemoteReceiver.Connect();
@@ -266,7 +251,6 @@ public class TcpRemoteReceiverMetricsTests {
         // Tests that a message received with the same sequence number as the previous message is ignored
         //   Ensures the correct order of metric logging in this case, especially that a corresponding End() is called for each Begin()
         
-        ByteBuffer readBuffer = ByteBuffer.allocate(socketReadBufferSize);
         byte[] secondMessageByteArray = new byte[testMessageByteArray.array().length];
         System.arraycopy(testMessageByteArray.array(), 0, secondMessageByteArray, 0, testMessageByteArray.array().length);
         // Update the sequence number in the second message
@@ -281,7 +265,7 @@ public class TcpRemoteReceiverMetricsTests {
             .thenReturn(mockSocketChannel)
             .thenReturn(null);
         // Return 'testMessageByteArray' twice (with same sequence number), and then return 'secondMessageByteArray'
-        when(mockSocketChannel.read(readBuffer))
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
             // ByteBuffer returned by the mockSocketChannel is altered as part of the read process, and hence can't be used twice.
             //   Hence return a copy of testMessageByteArray using method getByteBufferSubSet()
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 30, socketReadBufferSize, true), 30))
@@ -315,13 +299,11 @@ public class TcpRemoteReceiverMetricsTests {
             .thenReturn(mockSocketChannel)
             .thenReturn(null);
 
-        // Mock the 1st and 3rd calls to read(), first returning just 10 bytes of the message, and then returning the whole message (after reconnecting)
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 0, socketReadBufferSize, false)))
+        // Mock the calls to read(), first returning just 10 bytes of the message, then causing an exception, and then returning the whole message (after reconnecting)
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10))
+            .thenThrow(new IOException("Mock IOException."))
             .thenAnswer(new ReadMethodAnswer(testMessageByteArray, testMessageByteArray.remaining()));
-        // Mock the 2nd call the read(), causing an exception
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, false)))
-            .thenThrow(new IOException("Mock IOException."));
 
         testTcpRemoteReceiver.Connect();
         testTcpRemoteReceiver.Receive();
@@ -366,7 +348,7 @@ public class TcpRemoteReceiverMetricsTests {
     
     @Test
     public void ReceiveSmallBufferMetricsTest() throws Exception {
-        // Tests receiving a message where the buffer size is 1 byte, and logging of the metric 'TcpRemoteReceiverReadBufferCreated'
+        // Tests receiving a message where the buffer size is 1 byte, and that the metric 'TcpRemoteReceiverReadBufferCreated' is not logged (as the single read buffer is reused)
         
         // Setup a test message with no duplicate characters to make the test simpler (otherwise multiple return values must be defined for the same call the read... e.g. for both 'a' characters in the string <Data>)
         byte[] testMessageBody = "ABCDEF".getBytes(stringEncodingCharset);
@@ -384,9 +366,9 @@ public class TcpRemoteReceiverMetricsTests {
         when(mockServerSocketChannel.accept())
             .thenReturn(mockSocketChannel)
             .thenReturn(null);
-        // The read method will be called 20 times (once for each byte of the test message), and each time an empty byte buffer with capacity of 1 will be passed
+        // The read method will be called 20 times (once for each byte of the test message), and each time the same byte buffer with capacity of 1 will be passed
         //   Setup the mockSocketChannel to return the bytes of the test message one at a time in order
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 0, 1, false)))
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 1, 1, true), 1))
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 1, 1, 1, true), 1))
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 2, 1, 1, true), 1))
@@ -413,9 +395,7 @@ public class TcpRemoteReceiverMetricsTests {
         testTcpRemoteReceiver.Receive();
         
         verify(mockMetricLogger).Begin(isA(MessageReceiveTime.class));
-        // Expect the 'TcpRemoteReceiverReadBufferCreated' metric event to be logged 20 times... once after parsing each byte of the message into the single byte buffer
-        //   Note that a new buffer is also created after parsing the last byte of the message, even though this buffer is not subsequently read into
-        verify(mockMetricLogger, times(20)).Increment(isA(TcpRemoteReceiverReadBufferCreated.class));
+        verify(mockMetricLogger, never()).Increment(isA(TcpRemoteReceiverReadBufferCreated.class));
         verify(mockMetricLogger).End(isA(MessageReceiveTime.class));
         verify(mockMetricLogger).Increment(isA(MessageReceived.class));
         verify(mockMetricLogger).Add((argThat(new IsAmountMetric(new ReceivedMessageSize(6)))));
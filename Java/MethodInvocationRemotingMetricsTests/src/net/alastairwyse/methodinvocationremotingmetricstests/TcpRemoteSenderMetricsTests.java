@@ -57,7 +57,9 @@ public class TcpRemoteSenderMetricsTests {
     public void setUp() throws Exception {
         mockSocketChannel = mock(ISocketChannel.class);
         mockMetricLogger = mock(IMetricLogger.class);
-        testTcpRemoteSender = new TcpRemoteSender(testIpAddress, testPort, 3, 10, 25, 10, new ConsoleApplicationLogger(LogLevel.Critical, '|', "  "), mockMetricLogger, mockSocketChannel);
+        // The buffers passed to the gathering write() method are consumed by the write, so to correctly mock this a custom Answer implementation is required.
+        doAnswer(new MessageWriteAnswer()).when(mockSocketChannel).write(any(ByteBuffer[].class));
+        testTcpRemoteSender = new TcpRemoteSender(testIpAddress, testPort, 3, 10, 25, new ConsoleApplicationLogger(LogLevel.Critical, '|', "  "), mockMetricLogger, mockSocketChannel);
         // Setup test message
         testMessageByteArray = new byte[] { 0x3c, 0x41, 0x02, 0x42, 0x03, 0x43, 0x3e };  // Equivalent to '<A[ASCII message start]B[ASCII message end]C>'
         testMessageSequenceNumber = new byte[] { 1, 0, 0, 0 };  // Sequence number 1 (first sequence number sent after instantiating the class), encoded as a little endian
@@ -79,7 +81,7 @@ public class TcpRemoteSenderMetricsTests {
         when(mockSocketChannel.isConnected()).thenReturn(true);
         // As the read method passes a reference to a ByteBuffer, and data is written to that ByteBuffer, to correctly mock this a custom Answer implementation is required.
         //   An instance of the AcknowledgementAnswer class is used.
-        when(mockSocketChannel.read(acknowledgementBuffer)).thenAnswer(new AcknowledgementAnswer((byte)0x06, 1));
+        when(mockSocketChannel.read(acknowledgementBuffer, 25)).thenAnswer(new AcknowledgementAnswer((byte)0x06, 1));
         
         testTcpRemoteSender.Send("<TestMessage>Test message content</TestMessage>");
         
@@ -94,7 +96,7 @@ public class TcpRemoteSenderMetricsTests {
         // Tests that the CancelBegin() method is called when an unhandled exception is encountered during sending
         
         when(mockSocketChannel.isConnected()).thenReturn(true);
-        when(mockSocketChannel.write(testEncodedMessage)).thenThrow(new java.nio.channels.NotYetConnectedException());
+        doThrow(new java.nio.channels.NotYetConnectedException()).when(mockSocketChannel).write(argThat(new IsEncodedMessage(testEncodedMessage)));
     
         try {
             testTcpRemoteSender.Send(testMessage);
@@ -125,10 +127,10 @@ public class TcpRemoteSenderMetricsTests {
         
         when(mockSocketChannel.isConnected()).thenReturn(true);
         // Should throw exception on first call, and then return correctly on second (after reconnecting)
-        when(mockSocketChannel.write(testEncodedMessage))
-            .thenThrow(new IOException("Mock IOException."))
-            .thenReturn(testEncodedMessage.array().length);
-        when(mockSocketChannel.read(acknowledgementBuffer)).thenAnswer(new AcknowledgementAnswer((byte)0x06, 1));
+        doThrow(new IOException("Mock IOException."))
+            .doAnswer(new MessageWriteAnswer())
+            .when(mockSocketChannel).write(argThat(new IsEncodedMessage(testEncodedMessage)));
+        when(mockSocketChannel.read(acknowledgementBuffer, 25)).thenAnswer(new AcknowledgementAnswer((byte)0x06, 1));
 
         testTcpRemoteSender.Send(testMessage);
 
@@ -146,7 +148,7 @@ public class TcpRemoteSenderMetricsTests {
         when(mockSocketChannel.isConnected()).thenReturn(true);
         // Simulate an exception on the attempt to reconnect
         when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenThrow(new java.nio.channels.NotYetConnectedException());
-        when(mockSocketChannel.write(testEncodedMessage)).thenThrow(new IOException("Mock IOException."));
+        doThrow(new IOException("Mock IOException.")).when(mockSocketChannel).write(argThat(new IsEncodedMessage(testEncodedMessage)));
     
         try {
             testTcpRemoteSender.Send(testMessage);
@@ -165,7 +167,7 @@ public class TcpRemoteSenderMetricsTests {
         
         when(mockSocketChannel.isConnected()).thenReturn(true);
         when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
-        when(mockSocketChannel.write(testEncodedMessage)).thenThrow(new IOException("Mock IOException."));
+        doThrow(new IOException("Mock IOException.")).when(mockSocketChannel).write(argThat(new IsEncodedMessage(testEncodedMessage)));
     
         try {
             testTcpRemoteSender.Send(testMessage);
@@ -206,4 +208,23 @@ public class TcpRemoteSenderMetricsTests {
             return returnValue;
         }
     }
+    
+    /**
+     * Mock answer for the SocketChannel.write() method (with multiple buffers), to simulate writing all bytes of a message
+     * @author Alastair Wyse
+     */
+    private class MessageWriteAnswer implements Answer<Long> {
+
+        @Override
+        public Long answer(InvocationOnMock invocation) throws Throwable {
+            ByteBuffer[] sourceByteBuffers = (ByteBuffer[])invocation.getArguments()[0];
+            long bytesWritten = 0;
+            for (ByteBuffer currentByteBuffer : sourceByteBuffers) {
+                bytesWritten = bytesWritten + currentByteBuffer.remaining();
+                currentByteBuffer.position(currentByteBuffer.limit());
+            }
+
+            return bytesWritten;
+        }
+    }
 }
@@ -0,0 +1,731 @@
+/*
+ * Copyright 2015 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremotingunittests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import net.alastairwyse.methodinvocationremoting.*;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.math.*;
+import javax.xml.stream.*;
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Unit tests for class methodinvocationremoting.BinaryMethodInvocationSerializer.
+ * @author Alastair Wyse
+ */
+public class BinaryMethodInvocationSerializerTests {
+
+    private SerializerOperationMap operationMap;
+    private BinaryMethodInvocationSerializer testBinaryMethodInvocationSerializer;
+
+    @Before
+    public void setUp() throws Exception {
+        operationMap = new SerializerOperationMap();
+        testBinaryMethodInvocationSerializer = new BinaryMethodInvocationSerializer(operationMap);
+    }
+
+    @Test
+    public void DeserializeInvalidDocumentType() {
+        String serializedData = Base64.encodeBase64String(new byte[] { 2, 0 });
+
+        try {
+            testBinaryMethodInvocationSerializer.Deserialize(serializedData);
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e instanceof DeserializationException);
+            assertTrue(e.getMessage().contains("Failed to deserialize method invocation."));
+            assertTrue(e.getCause().getMessage().contains("Serialized data does not contain a method invocation (document type was 2)."));
+        }
+    }
+
+    @Test
+    public void DeserializeTruncatedData() throws Exception {
+        String serializedData = testBinaryMethodInvocationSerializer.Serialize(new MethodInvocation("TestMethod", new Object[] { 123L }));
+        byte[] serializedBytes = Base64.decodeBase64(serializedData);
+        String truncatedData = Base64.encodeBase64String(Arrays.copyOf(serializedBytes, serializedBytes.length - 4));
+
+        try {
+            testBinaryMethodInvocationSerializer.Deserialize(truncatedData);
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e instanceof DeserializationException);
+            assertTrue(e.getMessage().contains("Failed to deserialize method invocation."));
+            assertTrue(e.getCause().getMessage().contains("Unexpected end of data encountered"));
+        }
+    }
+
+    @Test
+    public void DeserializeBlankMethodName() {
+        // Document type 1, method name of length 0, 0 parameters, void return type
+        String serializedData = Base64.encodeBase64String(new byte[] { 1, 0, 0, 0 });
+
+        try {
+            testBinaryMethodInvocationSerializer.Deserialize(serializedData);
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e.getMessage().contains("Failed to deserialize method invocation."));
+            assertTrue(e.getCause().getMessage().contains("Failed to build method invocation object."));
+        }
+    }
+
+    @Test
+    public void DeserializeUnrecognisedTypeCode() {
+        // Document type 1, method name 'A', 1 parameter, type code 15
+        String serializedData = Base64.encodeBase64String(new byte[] { 1, 1, 65, 1, 15, 0 });
+
+        try {
+            testBinaryMethodInvocationSerializer.Deserialize(serializedData);
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e.getMessage().contains("Failed to deserialize method invocation."));
+            assertTrue(e.getCause().getMessage().contains("Encountered unrecognised type code 15."));
+        }
+    }
+
+    @Test
+    public void DeserializeTrailingData() throws Exception {
+        String serializedData = testBinaryMethodInvocationSerializer.Serialize(new MethodInvocation("TestMethod"));
+        byte[] serializedBytes = Base64.decodeBase64(serializedData);
+        String extendedData = Base64.encodeBase64String(Arrays.copyOf(serializedBytes, serializedBytes.length + 2));
+
+        try {
+            testBinaryMethodInvocationSerializer.Deserialize(extendedData);
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e.getMessage().contains("Failed to deserialize method invocation."));
+            assertTrue(e.getCause().getMessage().contains("Serialized data contains 2 unexpected trailing bytes."));
+        }
+    }
+
+    @Test
+    public void DeserializeUnmappedSerializedType() {
+        // Document type 1, method name 'A', 1 parameter, mapped type code 32, serialized type 'xyz'
+        String serializedData = Base64.encodeBase64String(new byte[] { 1, 1, 65, 1, 32, 3, 120, 121, 122, 0 });
+
+        try {
+            testBinaryMethodInvocationSerializer.Deserialize(serializedData);
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e.getMessage().contains("Failed to deserialize method invocation."));
+            assertTrue(e.getCause().getMessage().contains("Serialized type 'xyz' does not exist in the operation map."));
+        }
+    }
+
+    @Test
+    public void SerializeUnmappedNativeType() {
+        try {
+            testBinaryMethodInvocationSerializer.Serialize(new MethodInvocation("TestMethod", new Object[] { new HashMap<String, String>() }));
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e instanceof SerializationException);
+            assertTrue(e.getMessage().contains("Failed to serialize invocation of method 'TestMethod'."));
+            assertTrue(e.getCause().getMessage().contains("Native type 'java.util.HashMap' does not exist in the operation map."));
+        }
+    }
+
+    @Test
+    public void SerializeBigDecimalGreaterThanMaximum() {
+        try {
+            testBinaryMethodInvocationSerializer.SerializeReturnValue(new BigDecimal("79228162514264337593543950336"));
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e instanceof SerializationException);
+            assertTrue(e.getMessage().contains("Failed to serialize return value."));
+            assertTrue(e.getCause().getMessage().contains("BigDecimal value exceeds maximum allowed size of 79228162514264337593543950335."));
+        }
+    }
+
+    @Test
+    public void SerializeGregorianCalendarYearGreaterThanMaximum() {
+        try {
+            testBinaryMethodInvocationSerializer.SerializeReturnValue(new GregorianCalendar(10000, 0, 1));
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e instanceof SerializationException);
+            assertTrue(e.getCause().getMessage().contains("Year value exceeds maximum allowed size of 9999."));
+        }
+    }
+
+    @Test
+    public void VoidReturnValueSuccessTests() throws Exception {
+        String voidReturnValue = testBinaryMethodInvocationSerializer.getVoidReturnValue();
+
+        assertEquals(voidReturnValue, testBinaryMethodInvocationSerializer.getVoidReturnValue());
+        assertFalse(voidReturnValue.equals(testBinaryMethodInvocationSerializer.SerializeReturnValue(null)));
+    }
+
+    @Test
+    public void SerializeDeserializeNoParametersVoidReturnSuccessTests() throws Exception {
+        MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod");
+
+        MethodInvocation returnedMethodInvocation = testBinaryMethodInvocationSerializer.Deserialize(testBinaryMethodInvocationSerializer.Serialize(testMethodInvocation));
+
+        assertEquals("TestMethod", returnedMethodInvocation.getName());
+        assertNull(returnedMethodInvocation.getParameters());
+        assertNull(returnedMethodInvocation.getReturnType());
+    }
+
+    @Test
+    public void SerializeDeserializeStandardTypeParametersSuccessTests() throws Exception {
+        GregorianCalendar calendarParameter = new GregorianCalendar(2013, 4, 1, 12, 43, 56);
+        calendarParameter.set(Calendar.MILLISECOND, 654);
+        Object[] parameters = new Object[] {
+            Integer.MIN_VALUE,
+            "Test string \u00e9\u4e2d\ud83d\ude00 <&>",
+            (byte)-128,
+            (short)32767,
+            Long.MAX_VALUE,
+            -1.234567e-8f,
+            Double.MAX_VALUE,
+            '\u00e9',
+            true,
+            new BigDecimal("-79228162514264337593543950335"),
+            calendarParameter,
+            null,
+            ""
+        };
+        MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod", parameters, BigDecimal.class);
+
+        MethodInvocation returnedMethodInvocation = testBinaryMethodInvocationSerializer.Deserialize(testBinaryMethodInvocationSerializer.Serialize(testMethodInvocation));
+
+        assertEquals("TestMethod", returnedMethodInvocation.getName());
+        assertEquals(BigDecimal.class, returnedMethodInvocation.getReturnType());
+        assertEquals(parameters.length, returnedMethodInvocation.getParameters().length);
+        for (int i = 0; i < parameters.length; i = i + 1) {
+            assertEquals(parameters[i], returnedMethodInvocation.getParameters()[i]);
+        }
+        GregorianCalendar returnedCalendar = (GregorianCalendar)returnedMethodInvocation.getParameters()[10];
+        assertEquals(2013, returnedCalendar.get(Calendar.YEAR));
+        assertEquals(4, returnedCalendar.get(Calendar.MONTH));
+        assertEquals(1, returnedCalendar.get(Calendar.DATE));
+        assertEquals(12, returnedCalendar.get(Calendar.HOUR_OF_DAY));
+        assertEquals(43, returnedCalendar.get(Calendar.MINUTE));
+        assertEquals(56, returnedCalendar.get(Calendar.SECOND));
+        assertEquals(654, returnedCalendar.get(Calendar.MILLISECOND));
+    }
+
+    @Test
+    public void SerializeDeserializeStandardTypeArrayParametersSuccessTests() throws Exception {
+        Object[] parameters = new Object[] {
+            new Integer[] { 1, null, -3 },
+            new String[] { "a", "", null, "\u00e9" },
+            new Byte[] { 1, 2 },
+            new Short[] { null },
+            new Long[] { Long.MIN_VALUE, 0L },
+            new Float[] { Float.NaN, Float.NEGATIVE_INFINITY },
+            new Double[] { 0.1, null, null, null, null, null, null, null, null, 1e300 },
+            new Character[] { 'x' },
+            new Boolean[] { true, false, null },
+            new BigDecimal[] { new BigDecimal("1.000"), new BigDecimal("-0.5") },
+            new GregorianCalendar[] { new GregorianCalendar(2015, 0, 31), null },
+            new Integer[0]
+        };
+        MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod", parameters, String[].class);
+
+        MethodInvocation returnedMethodInvocation = testBinaryMethodInvocationSerializer.Deserialize(testBinaryMethodInvocationSerializer.Serialize(testMethodInvocation));
+
+        assertEquals(String[].class, returnedMethodInvocation.getReturnType());
+        for (int i = 0; i < parameters.length; i = i + 1) {
+            assertEquals(parameters[i].getClass(), returnedMethodInvocation.getParameters()[i].getClass());
+            assertArrayEquals((Object[])parameters[i], (Object[])returnedMethodInvocation.getParameters()[i]);
+        }
+    }
+
+    @Test
+    public void SerializeDeserializePrimitiveArrayParametersSuccessTests() throws Exception {
+        Object[] parameters = new Object[] {
+            new int[] { Integer.MIN_VALUE, 0, Integer.MAX_VALUE },
+            new long[] { Long.MIN_VALUE, Long.MAX_VALUE },
+            new double[] { Double.NaN, Double.NEGATIVE_INFINITY, 0.1 },
+            new float[] { 3.14159272E38f },
+            new short[] { Short.MIN_VALUE, Short.MAX_VALUE },
+            new byte[] { Byte.MIN_VALUE, Byte.MAX_VALUE },
+            new char[] { 'M', '\u00e9' },
+            new boolean[] { true, false },
+            new int[0]
+        };
+        MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod", parameters, double[].class);
+
+        MethodInvocation returnedMethodInvocation = testBinaryMethodInvocationSerializer.Deserialize(testBinaryMethodInvocationSerializer.Serialize(testMethodInvocation));
+
+        Object[] returnedParameters = returnedMethodInvocation.getParameters();
+        assertEquals(double[].class, returnedMethodInvocation.getReturnType());
+        assertArrayEquals((int[])parameters[0], (int[])returnedParameters[0]);
+        assertArrayEquals((long[])parameters[1], (long[])returnedParameters[1]);
+        assertArrayEquals((double[])parameters[2], (double[])returnedParameters[2], 0.0);
+        assertArrayEquals((float[])parameters[3], (float[])returnedParameters[3], 0.0f);
+        assertArrayEquals((short[])parameters[4], (short[])returnedParameters[4]);
+        assertArrayEquals((byte[])parameters[5], (byte[])returnedParameters[5]);
+        assertArrayEquals((char[])parameters[6], (char[])returnedParameters[6]);
+        assertTrue(Arrays.equals((boolean[])parameters[7], (boolean[])returnedParameters[7]));
+        assertArrayEquals((int[])parameters[8], (int[])returnedParameters[8]);
+    }
+
+    @Test
+    public void SerializeDeserializeReturnValueSuccessTests() throws Exception {
+        assertEquals(12345, testBinaryMethodInvocationSerializer.DeserializeReturnValue(testBinaryMethodInvocationSerializer.SerializeReturnValue(12345)));
+        assertEquals("Return string", testBinaryMethodInvocationSerializer.DeserializeReturnValue(testBinaryMethodInvocationSerializer.SerializeReturnValue("Return string")));
+        assertNull(testBinaryMethodInvocationSerializer.DeserializeReturnValue(testBinaryMethodInvocationSerializer.SerializeReturnValue(null)));
+        Double[] returnArray = new Double[] { 1.5, -2.25 };
+        assertArrayEquals(returnArray, (Double[])testBinaryMethodInvocationSerializer.DeserializeReturnValue(testBinaryMethodInvocationSerializer.SerializeReturnValue(returnArray)));
+    }
+
+    @Test
+    public void SerializeDeserializeMappedTypeSuccessTests() throws Exception {
+        operationMap.AddMapping(StringBuilder.class, "stringBuilder", new StringBuilderSerializer());
+        operationMap.AddMapping(StringBuilder[].class, "stringBuilderArray", new StringBuilderSerializer());
+        StringBuilder[] arrayParameter = new StringBuilder[] { new StringBuilder("First <value>"), null };
+        MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod", new Object[] { new StringBuilder("Test & value"), arrayParameter }, StringBuilder.class);
+
+        MethodInvocation returnedMethodInvocation = testBinaryMethodInvocationSerializer.Deserialize(testBinaryMethodInvocationSerializer.Serialize(testMethodInvocation));
+
+        assertEquals(StringBuilder.class, returnedMethodInvocation.getReturnType());
+        assertEquals("Test & value", returnedMethodInvocation.getParameters()[0].toString());
+        StringBuilder[] returnedArrayParameter = (StringBuilder[])returnedMethodInvocation.getParameters()[1];
+        assertEquals(2, returnedArrayParameter.length);
+        assertEquals("First <value>", returnedArrayParameter[0].toString());
+        assertNull(returnedArrayParameter[1]);
+    }
+
+    @Test
+    public void SerializeDeserializeBytesSuccessTests() throws Exception {
+        MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod", new Object[] { "\u00e9abc", 123, new int[] { 1, 2, 3 }, null }, String.class);
+        byte[] expectedBytes = Base64.decodeBase64(testBinaryMethodInvocationSerializer.Serialize(testMethodInvocation));
+
+        // Serialize to a buffer which is too small and has existing content, so that it is expanded and the existing content retained
+        ByteBuffer outputBuffer = ByteBuffer.allocate(4);
+        outputBuffer.put((byte)7);
+        ByteBuffer returnedBuffer = testBinaryMethodInvocationSerializer.Serialize(testMethodInvocation, outputBuffer);
+        assertEquals(1 + expectedBytes.length, returnedBuffer.position());
+        returnedBuffer.flip();
+        assertEquals(7, returnedBuffer.get());
+        assertEquals(ByteBuffer.wrap(expectedBytes), returnedBuffer);
+
+        // Deserialize from the buffer
+        IMethodInvocation returnedMethodInvocation = testBinaryMethodInvocationSerializer.Deserialize(returnedBuffer);
+        assertEquals(returnedBuffer.limit(), returnedBuffer.position());
+        assertEquals("TestMethod", returnedMethodInvocation.getName());
+        assertEquals("\u00e9abc", returnedMethodInvocation.getParameters()[0]);
+        assertEquals(123, returnedMethodInvocation.getParameters()[1]);
+        assertArrayEquals(new int[] { 1, 2, 3 }, (int[])returnedMethodInvocation.getParameters()[2]);
+        assertNull(returnedMethodInvocation.getParameters()[3]);
+        assertEquals(String.class, returnedMethodInvocation.getReturnType());
+
+        // Serialize to and deserialize from a stream
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        testBinaryMethodInvocationSerializer.Serialize(testMethodInvocation, outputStream);
+        assertArrayEquals(expectedBytes, outputStream.toByteArray());
+        returnedMethodInvocation = testBinaryMethodInvocationSerializer.Deserialize(new ByteArrayInputStream(outputStream.toByteArray()));
+        assertEquals("TestMethod", returnedMethodInvocation.getName());
+        assertEquals("\u00e9abc", returnedMethodInvocation.getParameters()[0]);
+
+        // Deserialize from a direct buffer
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(expectedBytes.length);
+        directBuffer.put(expectedBytes);
+        directBuffer.flip();
+        returnedMethodInvocation = testBinaryMethodInvocationSerializer.Deserialize(directBuffer);
+        assertEquals("TestMethod", returnedMethodInvocation.getName());
+
+        // Serialize and deserialize return values
+        returnedBuffer = testBinaryMethodInvocationSerializer.SerializeReturnValue(new BigDecimal("123.456"), ByteBuffer.allocate(0));
+        returnedBuffer.flip();
+        assertEquals(ByteBuffer.wrap(Base64.decodeBase64(testBinaryMethodInvocationSerializer.SerializeReturnValue(new BigDecimal("123.456")))), returnedBuffer);
+        assertEquals(new BigDecimal("123.456"), testBinaryMethodInvocationSerializer.DeserializeReturnValue(returnedBuffer));
+        outputStream = new ByteArrayOutputStream();
+        testBinaryMethodInvocationSerializer.SerializeReturnValue("abc", outputStream);
+        assertEquals("abc", testBinaryMethodInvocationSerializer.DeserializeReturnValue(new ByteArrayInputStream(outputStream.toByteArray())));
+    }
+
+    @Test
+    public void DeserializeBytesTruncatedData() throws Exception {
+        byte[] serializedData = Base64.decodeBase64(testBinaryMethodInvocationSerializer.Serialize(new MethodInvocation("TestMethod", new Object[] { "abc" })));
+        ByteBuffer truncatedData = ByteBuffer.wrap(serializedData, 0, serializedData.length - 1);
+
+        try {
+            testBinaryMethodInvocationSerializer.Deserialize(truncatedData);
+            fail("Exception was not thrown.");
+        }
+        catch (DeserializationException e) {
+            assertTrue(e.getMessage().contains("Failed to deserialize method invocation."));
+            assertEquals(Base64.encodeBase64String(Arrays.copyOf(serializedData, serializedData.length - 1)), e.getSerializedObject());
+        }
+    }
+
+    @Test
+    public void DeserializeBackReferenceInDocumentWithoutReferences() {
+        // Document type 1, method name 'A', 1 parameter, back-reference type code 33 to object 0
+        String serializedData = Base64.encodeBase64String(new byte[] { 1, 1, 65, 1, 33, 0, 0 });
+
+        try {
+            testBinaryMethodInvocationSerializer.Deserialize(serializedData);
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e.getMessage().contains("Failed to deserialize method invocation."));
+            assertTrue(e.getCause().getMessage().contains("Encountered back-reference in a document which does not contain back-references."));
+        }
+    }
+
+    @Test
+    public void DeserializeInvalidBackReference() {
+        // Document type 4, method name 'A', 2 parameters, string 'B', back-reference type code 33 to object 1
+        String serializedData = Base64.encodeBase64String(new byte[] { 4, 1, 65, 2, 2, 1, 66, 33, 1, 0 });
+
+        try {
+            testBinaryMethodInvocationSerializer.Deserialize(serializedData);
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e.getMessage().contains("Failed to deserialize method invocation."));
+            assertTrue(e.getCause().getMessage().contains("Encountered reference to object 1, but only 1 objects have been read."));
+        }
+    }
+
+    @Test
+    public void SerializeDeserializeTrackedReferencesSuccessTests() throws Exception {
+        operationMap.AddMapping(StringBuilder.class, "stringBuilder", new StringBuilderSerializer());
+        operationMap.AddMapping(StringBuilder[].class, "stringBuilderArray", new StringBuilderSerializer());
+        StringBuilder mappedParameter = new StringBuilder("Mapped value");
+        String stringParameter = "Repeated string value";
+        String equalStringParameter = new String(stringParameter);
+        BigDecimal bigDecimalParameter = new BigDecimal("12345.6789");
+        GregorianCalendar calendarParameter = new GregorianCalendar(2015, 4, 1, 12, 43, 56);
+        int[] primitiveArrayParameter = new int[] { 1, 2, 3 };
+        Object[] parameters = new Object[] { 
+            mappedParameter, 
+            new StringBuilder[] { mappedParameter, null, mappedParameter }, 
+            stringParameter, 
+            new String[] { stringParameter, null, equalStringParameter, stringParameter }, 
+            bigDecimalParameter, 
+            new BigDecimal[] { bigDecimalParameter, new BigDecimal("12345.6789") }, 
+            calendarParameter, 
+            new GregorianCalendar[] { calendarParameter }, 
+            primitiveArrayParameter, 
+            primitiveArrayParameter, 
+            1, 
+            1 
+        };
+        MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod", parameters, String.class);
+        String untrackedSerializedData = testBinaryMethodInvocationSerializer.Serialize(testMethodInvocation);
+
+        for (boolean matchEqualValues : new boolean[] { false, true }) {
+            BinaryMethodInvocationSerializer trackingSerializer = new ReferenceTrackingBinaryMethodInvocationSerializer(operationMap, matchEqualValues);
+            String serializedData = trackingSerializer.Serialize(testMethodInvocation);
+            assertTrue(serializedData.length() < untrackedSerializedData.length());
+
+            // Documents containing back-references should be deserializable by serializers with and without reference tracking enabled
+            for (BinaryMethodInvocationSerializer currentSerializer : new BinaryMethodInvocationSerializer[] { trackingSerializer, testBinaryMethodInvocationSerializer }) {
+                Object[] returnedParameters = currentSerializer.Deserialize(serializedData).getParameters();
+                assertEquals(12, returnedParameters.length);
+                assertEquals("Mapped value", returnedParameters[0].toString());
+                StringBuilder[] returnedMappedArray = (StringBuilder[])returnedParameters[1];
+                assertSame(returnedParameters[0], returnedMappedArray[0]);
+                assertNull(returnedMappedArray[1]);
+                assertSame(returnedParameters[0], returnedMappedArray[2]);
+                assertEquals(stringParameter, returnedParameters[2]);
+                String[] returnedStringArray = (String[])returnedParameters[3];
+                assertEquals(4, returnedStringArray.length);
+                assertSame(returnedParameters[2], returnedStringArray[0]);
+                assertNull(returnedStringArray[1]);
+                assertEquals(stringParameter, returnedStringArray[2]);
+                assertEquals(matchEqualValues, returnedParameters[2] == returnedStringArray[2]);
+                assertSame(returnedParameters[2], returnedStringArray[3]);
+                assertEquals(bigDecimalParameter, returnedParameters[4]);
+                BigDecimal[] returnedBigDecimalArray = (BigDecimal[])returnedParameters[5];
+                assertSame(returnedParameters[4], returnedBigDecimalArray[0]);
+                assertEquals(bigDecimalParameter, returnedBigDecimalArray[1]);
+                assertEquals(matchEqualValues, returnedParameters[4] == returnedBigDecimalArray[1]);
+                assertEquals(calendarParameter.getTimeInMillis(), ((GregorianCalendar)returnedParameters[6]).getTimeInMillis());
+                assertSame(returnedParameters[6], ((GregorianCalendar[])returnedParameters[7])[0]);
+                assertArrayEquals(primitiveArrayParameter, (int[])returnedParameters[8]);
+                assertSame(returnedParameters[8], returnedParameters[9]);
+                assertEquals(1, returnedParameters[10]);
+                assertEquals(1, returnedParameters[11]);
+            }
+        }
+    }
+
+    @Test
+    public void SerializeDeserializeTrackedReferencesReturnValueSuccessTests() throws Exception {
+        BinaryMethodInvocationSerializer trackingSerializer = new ReferenceTrackingBinaryMethodInvocationSerializer(new SerializerOperationMap(), true);
+        String[] returnValue = new String[] { "abc", "abc", "def", "abc" };
+
+        ByteBuffer serializedReturnValue = trackingSerializer.SerializeReturnValue(returnValue, ByteBuffer.allocate(0));
+        serializedReturnValue.flip();
+        // Document type 5, string array type code 18, length 4, no nulls, value follows 'abc', reference to 'abc' (object 1), value follows 'def', reference to 'abc'
+        assertEquals(ByteBuffer.wrap(new byte[] { 5, 18, 4, 0, 0, 3, 97, 98, 99, 2, 0, 3, 100, 101, 102, 2 }), serializedReturnValue);
+        String[] returnedValue = (String[])trackingSerializer.DeserializeReturnValue(serializedReturnValue);
+        assertArrayEquals(returnValue, returnedValue);
+        assertSame(returnedValue[0], returnedValue[3]);
+    }
+
+    @Test
+    public void SerializeDeserializeWithTokenDictionarySuccessTests() throws Exception {
+        operationMap.AddMapping(StringBuilder.class, "stringBuilder", new StringBuilderSerializer());
+        BinaryMethodInvocationSerializer senderSerializer = new BinaryMethodInvocationSerializer(operationMap);
+        senderSerializer.setTokenDictionary(new SessionTokenDictionary());
+        BinaryMethodInvocationSerializer receiverSerializer = new BinaryMethodInvocationSerializer(operationMap);
+        receiverSerializer.setTokenDictionary(new SessionTokenDictionary());
+        MethodInvocation testMethodInvocation = new MethodInvocation("TestMethodWithLongName", new Object[] { new StringBuilder("abc"), new StringBuilder("def") }, StringBuilder.class);
+        String untokenizedSerializedData = testBinaryMethodInvocationSerializer.Serialize(testMethodInvocation);
+
+        String firstSerializedData = senderSerializer.Serialize(testMethodInvocation);
+        String secondSerializedData = senderSerializer.Serialize(testMethodInvocation);
+        // The second document should contain only the tokens of the names defined in the first
+        assertTrue(secondSerializedData.length() < firstSerializedData.length());
+        assertTrue(secondSerializedData.length() < untokenizedSerializedData.length());
+
+        for (String currentSerializedData : new String[] { firstSerializedData, secondSerializedData }) {
+            MethodInvocation returnedMethodInvocation = receiverSerializer.Deserialize(currentSerializedData);
+            assertEquals("TestMethodWithLongName", returnedMethodInvocation.getName());
+            assertEquals(2, returnedMethodInvocation.getParameters().length);
+            assertEquals("abc", returnedMethodInvocation.getParameters()[0].toString());
+            assertEquals("def", returnedMethodInvocation.getParameters()[1].toString());
+            assertEquals(StringBuilder.class, returnedMethodInvocation.getReturnType());
+        }
+
+        // Return values should use the read and write state of the same dictionaries in the opposite direction
+        ByteBuffer serializedReturnValue = receiverSerializer.SerializeReturnValue(new StringBuilder("ghi"), ByteBuffer.allocate(0));
+        serializedReturnValue.flip();
+        assertEquals("ghi", senderSerializer.DeserializeReturnValue(serializedReturnValue).toString());
+    }
+
+    @Test
+    public void SerializeDeserializeWithTokenDictionaryAfterReset() throws Exception {
+        SessionTokenDictionary senderTokenDictionary = new SessionTokenDictionary();
+        BinaryMethodInvocationSerializer senderSerializer = new BinaryMethodInvocationSerializer(operationMap);
+        senderSerializer.setTokenDictionary(senderTokenDictionary);
+        BinaryMethodInvocationSerializer receiverSerializer = new BinaryMethodInvocationSerializer(operationMap);
+        receiverSerializer.setTokenDictionary(new SessionTokenDictionary());
+        BinaryMethodInvocationSerializer restartedReceiverSerializer = new BinaryMethodInvocationSerializer(operationMap);
+        restartedReceiverSerializer.setTokenDictionary(new SessionTokenDictionary());
+        MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod");
+
+        receiverSerializer.Deserialize(senderSerializer.Serialize(testMethodInvocation));
+        String tokenOnlySerializedData = senderSerializer.Serialize(testMethodInvocation);
+        // Simulate a document written before a reconnection and re-sent afterwards
+        senderTokenDictionary.ConnectionEstablished(this);
+        assertEquals("TestMethod", receiverSerializer.Deserialize(tokenOnlySerializedData).getName());
+        // A new dictionary will not have read the definition of the token
+        try {
+            restartedReceiverSerializer.Deserialize(tokenOnlySerializedData);
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e instanceof DeserializationException);
+            assertTrue(e.getCause().getMessage().contains("Encountered token 0 which has not been defined in generation"));
+        }
+
+        // After the reset, names should be written in full again, and readable by both dictionaries
+        String resetSerializedData = senderSerializer.Serialize(testMethodInvocation);
+        assertEquals("TestMethod", receiverSerializer.Deserialize(resetSerializedData).getName());
+        assertEquals("TestMethod", restartedReceiverSerializer.Deserialize(resetSerializedData).getName());
+        assertEquals("TestMethod", restartedReceiverSerializer.Deserialize(senderSerializer.Serialize(testMethodInvocation)).getName());
+    }
+
+    @Test
+    public void DeserializeTokensWithoutTokenDictionary() throws Exception {
+        BinaryMethodInvocationSerializer senderSerializer = new BinaryMethodInvocationSerializer(operationMap);
+        senderSerializer.setTokenDictionary(new SessionTokenDictionary());
+        String serializedData = senderSerializer.Serialize(new MethodInvocation("TestMethod"));
+
+        try {
+            testBinaryMethodInvocationSerializer.Deserialize(serializedData);
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e instanceof DeserializationException);
+            assertTrue(e.getCause().getMessage().contains("Serialized data contains tokens, but a session token dictionary has not been set."));
+        }
+    }
+
+    @Test
+    public void SerializeAttachmentsSuccessTests() throws Exception {
+        byte[] messageData = new byte[] { 9, 9, 1, 2, 3, 4, 9 };
+        // Attachment which is a view of part of a larger buffer, as on the receiving side
+        Attachment byteBufferAttachment = new Attachment(ByteBuffer.wrap(messageData, 2, 4));
+        Attachment stringAttachment = new Attachment("ABC");
+        MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod", new Object[] { byteBufferAttachment, 123, stringAttachment, byteBufferAttachment }, Attachment.class);
+
+        ArrayList<Attachment> attachments = new ArrayList<Attachment>();
+        ByteBuffer serializedMethodInvocation = testBinaryMethodInvocationSerializer.Serialize(testMethodInvocation, ByteBuffer.allocate(256), attachments);
+        serializedMethodInvocation.flip();
+        assertEquals(2, attachments.size());
+
+        MethodInvocation returnedMethodInvocation = testBinaryMethodInvocationSerializer.Deserialize(serializedMethodInvocation, attachments);
+        Attachment returnedAttachment = (Attachment)returnedMethodInvocation.getParameters()[0];
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, returnedAttachment.ToByteArray());
+        assertEquals(123, returnedMethodInvocation.getParameters()[1]);
+        assertEquals("ABC", ((Attachment)returnedMethodInvocation.getParameters()[2]).DecodeString());
+        assertSame(returnedAttachment, returnedMethodInvocation.getParameters()[3]);
+        assertEquals(Attachment.class, returnedMethodInvocation.getReturnType());
+        // The deserialized attachment should be a view of the original data, rather than a copy
+        messageData[2] = 5;
+        assertEquals(5, returnedAttachment.getData().get(0));
+
+        attachments.clear();
+        ByteBuffer serializedReturnValue = testBinaryMethodInvocationSerializer.SerializeReturnValue(stringAttachment, ByteBuffer.allocate(256), attachments);
+        serializedReturnValue.flip();
+        assertEquals("ABC", ((Attachment)testBinaryMethodInvocationSerializer.DeserializeReturnValue(serializedReturnValue, attachments)).DecodeString());
+    }
+
+    @Test
+    public void DeserializeAttachmentIndexOutOfRange() throws Exception {
+        ArrayList<Attachment> attachments = new ArrayList<Attachment>();
+        ByteBuffer serializedMethodInvocation = testBinaryMethodInvocationSerializer.Serialize(new MethodInvocation("TestMethod", new Object[] { new Attachment("ABC") }), ByteBuffer.allocate(256), attachments);
+        serializedMethodInvocation.flip();
+
+        try {
+            testBinaryMethodInvocationSerializer.Deserialize(serializedMethodInvocation, new ArrayList<Attachment>());
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e instanceof DeserializationException);
+            assertTrue(e.getMessage().contains("Failed to deserialize method invocation."));
+            assertTrue(e.getCause().getMessage().contains("Encountered attachment 0 but only 0 attachments were read with the document."));
+        }
+    }
+
+    @Test
+    public void SerializeArraysInParallelSuccessTests() throws Exception {
+        ParallelBinaryMethodInvocationSerializer parallelSerializer = new ParallelBinaryMethodInvocationSerializer(operationMap, 10);
+        long[] longArray = new long[1001];
+        String[] stringArray = new String[503];
+        BigDecimal[] bigDecimalArray = new BigDecimal[50];
+        for (int i = 0; i < longArray.length; i = i + 1) {
+            longArray[i] = i * -104729L;
+        }
+        for (int i = 0; i < stringArray.length; i = i + 1) {
+            if (i % 7 != 0) {
+                stringArray[i] = "Element " + i;
+            }
+        }
+        for (int i = 0; i < bigDecimalArray.length; i = i + 1) {
+            bigDecimalArray[i] = new BigDecimal(i).movePointLeft(i % 5);
+        }
+        MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod", new Object[] { longArray, stringArray, bigDecimalArray, new Integer[] { 1, 2 } }, long[].class);
+
+        // Output should be identical to that of serializing on a single thread
+        String serializedMethodInvocation = parallelSerializer.Serialize(testMethodInvocation);
+        assertEquals(testBinaryMethodInvocationSerializer.Serialize(testMethodInvocation), serializedMethodInvocation);
+
+        MethodInvocation returnedMethodInvocation = parallelSerializer.Deserialize(serializedMethodInvocation);
+        assertArrayEquals(longArray, (long[])returnedMethodInvocation.getParameters()[0]);
+        assertArrayEquals(stringArray, (String[])returnedMethodInvocation.getParameters()[1]);
+        assertArrayEquals(bigDecimalArray, (BigDecimal[])returnedMethodInvocation.getParameters()[2]);
+        assertArrayEquals(new Integer[] { 1, 2 }, (Integer[])returnedMethodInvocation.getParameters()[3]);
+    }
+
+    @Test
+    public void SerializeArraysInParallelInvalidElement() {
+        ParallelBinaryMethodInvocationSerializer parallelSerializer = new ParallelBinaryMethodInvocationSerializer(operationMap, 10);
+        BigDecimal[] bigDecimalArray = new BigDecimal[100];
+        Arrays.fill(bigDecimalArray, BigDecimal.ONE);
+        bigDecimalArray[73] = new BigDecimal("79228162514264337593543950336");
+
+        try {
+            parallelSerializer.Serialize(new MethodInvocation("TestMethod", new Object[] { bigDecimalArray }));
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e instanceof SerializationException);
+            assertTrue(e.getCause().getMessage().contains("BigDecimal value exceeds maximum allowed size of 79228162514264337593543950335."));
+        }
+    }
+
+    @Test
+    public void SerializeDocumentsOfVaryingSizeSuccessTests() throws Exception {
+        // The output buffer is sized according to the sizes of previous documents for the same method, so check that documents larger and smaller than the previous document are serialized correctly
+        int[] arrayLengths = new int[] { 10, 50000, 3, 200000, 0, 70000 };
+
+        for (int currentLength : arrayLengths) {
+            double[] testArray = new double[currentLength];
+            Arrays.fill(testArray, 1.5);
+            MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod", new Object[] { testArray }, double[].class);
+
+            assertArrayEquals(testArray, (double[])testBinaryMethodInvocationSerializer.Deserialize(testBinaryMethodInvocationSerializer.Serialize(testMethodInvocation)).getParameters()[0], 0.0);
+            ByteBuffer serializedMethodInvocation = testBinaryMethodInvocationSerializer.Serialize(testMethodInvocation, ByteBuffer.allocate(16));
+            serializedMethodInvocation.flip();
+            assertArrayEquals(testArray, (double[])testBinaryMethodInvocationSerializer.Deserialize(serializedMethodInvocation).getParameters()[0], 0.0);
+            assertArrayEquals(testArray, (double[])testBinaryMethodInvocationSerializer.DeserializeReturnValue(testBinaryMethodInvocationSerializer.SerializeReturnValue(testArray)), 0.0);
+        }
+    }
+
+    @Test
+    public void SerializeIsSmallerThanXmlSerializer() throws Exception {
+        MethodInvocationSerializer xmlSerializer = new MethodInvocationSerializer(new SerializerOperationMap());
+        MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod", new Object[] { 123, "abc", new Double[] { 1.0, 2.0, 3.0 } }, Integer.class);
+
+        assertTrue(testBinaryMethodInvocationSerializer.Serialize(testMethodInvocation).length() * 5 < xmlSerializer.Serialize(testMethodInvocation).length());
+    }
+
+    /**
+     * Subclass of BinaryMethodInvocationSerializer which writes objects occurring more than once as back-references.
+     */
+    private class ReferenceTrackingBinaryMethodInvocationSerializer extends BinaryMethodInvocationSerializer {
+
+        public ReferenceTrackingBinaryMethodInvocationSerializer(ISerializerOperationMap operationMap, boolean matchEqualValues) {
+            super(operationMap);
+            trackReferences = true;
+            this.matchEqualValues = matchEqualValues;
+        }
+    }
+
+    /**
+     * Subclass of BinaryMethodInvocationSerializer which serializes large arrays in parallel.
+     */
+    private class ParallelBinaryMethodInvocationSerializer extends BinaryMethodInvocationSerializer {
+
+        public ParallelBinaryMethodInvocationSerializer(ISerializerOperationMap operationMap, int parallelArrayThreshold) {
+            super(operationMap);
+            this.parallelArrayThreshold = parallelArrayThreshold;
+        }
+    }
+
+    private class StringBuilderSerializer implements IObjectSerializer<StringBuilder> {
+
+        @Override
+        public void Serialize(StringBuilder inputObject, XMLStreamWriter writer) throws Exception {
+            writer.writeStartElement("Value");
+            writer.writeCharacters(inputObject.toString());
+            writer.writeEndElement();
+        }
+
+        @Override
+        public StringBuilder Deserialize(SimplifiedXMLStreamReader reader) throws Exception {
+            StringBuilder returnStringBuilder = new StringBuilder(reader.ReadElementString("Value"));
+            // Consume data end tag (e.g. </Data>)
+            reader.ReadEndElement();
+
+            return returnStringBuilder;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremotingunittests;
+
+import static org.junit.Assert.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.xml.stream.XMLStreamWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+import net.alastairwyse.methodinvocationremoting.*;
+
+/**
+ * Unit tests for class methodinvocationremoting.ConcurrentSerializerOperationMap.
+ * @author Alastair Wyse
+ */
+public class ConcurrentSerializerOperationMapTests {
+
+    private ConcurrentSerializerOperationMap testSerializerOperationMap;
+    
+    @Before
+    public void setUp() throws Exception {
+        testSerializerOperationMap = new ConcurrentSerializerOperationMap();
+    }
+
+    @Test
+    public void AddMappingNativeTypeNull() {
+        try{
+            testSerializerOperationMap.AddMapping(null, "string", new StringSerializer());
+            fail("Exception was not thrown.");
+        }
+        catch(IllegalArgumentException e){
+            assertTrue(e.getMessage().contains("Parameter 'nativeType' cannot be null."));
+        }
+    }
+    
+    @Test
+    public void AddMappingSerializedTypeNull() {
+        try{
+            testSerializerOperationMap.AddMapping(String.class, null, new StringSerializer());
+            fail("Exception was not thrown.");
+        }
+        catch(IllegalArgumentException e){
+            assertTrue(e.getMessage().contains("Parameter 'serializedType' cannot be null."));
+        }
+    }
+    
+    @Test
+    public void AddMappingSerializerNull() {
+        try{
+            testSerializerOperationMap.AddMapping(String.class, "string", null);
+            fail("Exception was not thrown.");
+        }
+        catch(IllegalArgumentException e){
+            assertTrue(e.getMessage().contains("Parameter 'serializer' cannot be null."));
+        }
+    }
+    
+    @Test 
+    public void AddMappingNativeTypeExists() {
+        testSerializerOperationMap.AddMapping(String.class, "string", new StringSerializer());
+        try{
+            testSerializerOperationMap.AddMapping(String.class, "string2", new StringSerializer());
+            fail("Exception was not thrown.");
+        }
+        catch(IllegalArgumentException e){
+            assertTrue(e.getMessage().contains("The native type 'java.lang.String' already exists in the map."));
+        }
+    }
+    
+    @Test 
+    public void AddMappingSerializedTypeExists() {
+        testSerializerOperationMap.AddMapping(int.class, "integer", new IntegerSerializer());
+        try{
+            testSerializerOperationMap.AddMapping(long.class, "integer", new IntegerSerializer());
+            fail("Exception was not thrown.");
+        }
+        catch(IllegalArgumentException e){
+            assertTrue(e.getMessage().contains("The serialized type 'integer' already exists in the map."));
+        }
+    }
+
+    @Test
+    public void UpdateMappingNativeTypeNull() {
+        testSerializerOperationMap.AddMapping(String.class, "string", new StringSerializer());
+
+        try{
+            testSerializerOperationMap.UpdateMapping(null, "string", new StringSerializer());
+            fail("Exception was not thrown.");
+        }
+        catch(IllegalArgumentException e){
+            assertTrue(e.getMessage().contains("Parameter 'nativeType' cannot be null."));
+        }
+    }
+
+    @Test
+    public void UpdateMappingSerializedTypeNull() {
+        testSerializerOperationMap.AddMapping(String.class, "string", new StringSerializer());
+
+        try{
+            testSerializerOperationMap.UpdateMapping(String.class, null, new StringSerializer());
+            fail("Exception was not thrown.");
+        }
+        catch(IllegalArgumentException e){
+            assertTrue(e.getMessage().contains("Parameter 'serializedType' cannot be null."));
+        }
+    }
+
+    @Test
+    public void UpdateMappingSerializerNull() {
+        testSerializerOperationMap.AddMapping(String.class, "string", new StringSerializer());
+
+        try{
+            testSerializerOperationMap.UpdateMapping(String.class, "string", null);
+            fail("Exception was not thrown.");
+        }
+        catch(IllegalArgumentException e){
+            assertTrue(e.getMessage().contains("Parameter 'serializer' cannot be null."));
+        }
+    }
+
+    @Test
+    public void UpdateMappingNativeTypeDoesNotExist() {
+        testSerializerOperationMap.AddMapping(String.class, "string", new StringSerializer());
+
+        try{
+            testSerializerOperationMap.UpdateMapping(Integer.class, "integer", new StringSerializer());
+            fail("Exception was not thrown.");
+        }
+        catch(IllegalArgumentException e){
+            assertTrue(e.getMessage().contains("The native type 'java.lang.Integer' does not exist in the map."));
+        }
+    }
+
+    @Test
+    public void UpdateMappingSuccessTests() {
+        StringSerializer testStringSerializer = new StringSerializer();
+        IntegerSerializer testIntegerSerializer = new IntegerSerializer();
+        
+        testSerializerOperationMap.AddMapping(String.class, "string", testStringSerializer);
+        testSerializerOperationMap.AddMapping(Integer.class, "integer", testIntegerSerializer);
+        testSerializerOperationMap.UpdateMapping(String.class, "UpdatedString", testIntegerSerializer);
+        assertEquals("UpdatedString", testSerializerOperationMap.GetSerializedType(String.class));
+        IObjectSerializer returnedObjectSerializer = testSerializerOperationMap.GetSerializer(String.class);
+        assertEquals(testIntegerSerializer, returnedObjectSerializer);
+        returnedObjectSerializer = testSerializerOperationMap.GetSerializer("UpdatedString");
+        assertEquals(testIntegerSerializer, returnedObjectSerializer);
+        assertEquals(String.class, testSerializerOperationMap.GetNativeType("UpdatedString"));
+        assertNull(testSerializerOperationMap.GetNativeType("string"));
+        assertNull(testSerializerOperationMap.GetSerializer("string"));
+    }
+
+    @Test
+    public void UpdateMappingSerializedTypeExists() {
+        testSerializerOperationMap.AddMapping(String.class, "string", new StringSerializer());
+        testSerializerOperationMap.AddMapping(Integer.class, "integer", new IntegerSerializer());
+
+        try{
+            testSerializerOperationMap.UpdateMapping(String.class, "integer", new StringSerializer());
+            fail("Exception was not thrown.");
+        }
+        catch(IllegalArgumentException e){
+            assertTrue(e.getMessage().contains("The serialized type 'integer' already exists in the map."));
+        }
+        assertEquals("string", testSerializerOperationMap.GetSerializedType(String.class));
+        assertEquals(Integer.class, testSerializerOperationMap.GetNativeType("integer"));
+    }
+
+    @Test
+    public void GetSerializedTypeTypeDoesNotExist()
+    {
+        testSerializerOperationMap.AddMapping(String.class, "string", new StringSerializer());
+        String returnedString = testSerializerOperationMap.GetSerializedType(Date.class);
+        assertNull(returnedString);
+    }
+    
+    @Test
+    public void GetSerializedTypeTypeExists() {
+        testSerializerOperationMap.AddMapping(String.class, "string", new StringSerializer());
+        testSerializerOperationMap.AddMapping(int.class, "integer", new IntegerSerializer());
+        String returnedString = testSerializerOperationMap.GetSerializedType(String.class);
+        assertEquals("string", returnedString);
+    }
+    
+    @Test 
+    public void GetNativeTypeTypeDoesNotExist() {
+        testSerializerOperationMap.AddMapping(String.class, "string", new IntegerSerializer());
+        testSerializerOperationMap.AddMapping(long.class, "long", new IntegerSerializer());
+        Class<?> returnedType = testSerializerOperationMap.GetNativeType("double");
+        assertNull(returnedType);
+    }
+    
+    @Test
+    public void GetNativeTypeTypeExists()
+    {
+        testSerializerOperationMap.AddMapping(double.class, "Double", new IntegerSerializer());
+        testSerializerOperationMap.AddMapping(Date.class, "Date", new StringSerializer());
+        testSerializerOperationMap.AddMapping(String.class, "String", new StringSerializer());
+        Class<?> returnedType = testSerializerOperationMap.GetNativeType("Date");
+        assertEquals(Date.class, returnedType);
+    }
+    
+    @Test
+    public void GetSerializerWithNativeTypeTypeDoesNotExist() {
+        testSerializerOperationMap.AddMapping(String.class, "string", new StringSerializer());
+        testSerializerOperationMap.AddMapping(Integer.class, "integer", new IntegerSerializer());
+        IObjectSerializer<?> returnedSerializer = testSerializerOperationMap.GetSerializer(Date.class);
+        assertNull(returnedSerializer);
+    }
+    
+    @Test
+    public void GetSerializerWithNativeTypeTypeExists() {
+        StringSerializer testStringSerializer = new StringSerializer();
+        
+        testSerializerOperationMap.AddMapping(String.class, "string", testStringSerializer);
+        testSerializerOperationMap.AddMapping(Integer.class, "integer", new IntegerSerializer());
+        IObjectSerializer<?> returnedSerializer = testSerializerOperationMap.GetSerializer(String.class);
+        assertEquals(testStringSerializer, returnedSerializer);
+    }
+    
+    @Test
+    public void GetSerializerWithSerializedTypeTypeDoesNotExist() {
+        testSerializerOperationMap.AddMapping(String.class, "string", new StringSerializer());
+        testSerializerOperationMap.AddMapping(Integer.class, "integer", new IntegerSerializer());
+        IObjectSerializer<?> returnedSerializer = testSerializerOperationMap.GetSerializer("date");
+        assertNull(returnedSerializer);
+    }
+    
+    @Test
+    public void GetSerializerWithSerializedTypeTypeExists() {
+        StringSerializer testStringSerializer = new StringSerializer();
+        
+        testSerializerOperationMap.AddMapping(String.class, "string", testStringSerializer);
+        testSerializerOperationMap.AddMapping(Integer.class, "integer", new IntegerSerializer());
+        IObjectSerializer<?> returnedSerializer = testSerializerOperationMap.GetSerializer("string");
+        assertEquals(testStringSerializer, returnedSerializer);
+    }
+    
+    @Test
+    public void GetSerializedTypeSubclassResolvedToSuperclassMapping() {
+        testSerializerOperationMap.AddMapping(Calendar.class, "calendar", new StringSerializer());
+        testSerializerOperationMap.AddMapping(GregorianCalendar.class, "gregorianCalendar", new StringSerializer());
+        testSerializerOperationMap.AddMapping(Number.class, "number", new IntegerSerializer());
+
+        assertEquals("gregorianCalendar", testSerializerOperationMap.GetSerializedType(GregorianCalendar.class));
+        assertEquals("number", testSerializerOperationMap.GetSerializedType(Integer.class));
+        assertEquals("number", testSerializerOperationMap.GetSerializedType(AtomicLong.class));
+        // Check that the resolved mapping is returned consistently once cached
+        assertEquals("number", testSerializerOperationMap.GetSerializedType(Integer.class));
+    }
+
+    @Test
+    public void GetSerializedTypeInterfaceImplementationResolvedToInterfaceMapping() {
+        testSerializerOperationMap.AddMapping(CharSequence.class, "charSequence", new StringSerializer());
+        testSerializerOperationMap.AddMapping(Collection.class, "collection", new StringSerializer());
+
+        assertEquals("charSequence", testSerializerOperationMap.GetSerializedType(String.class));
+        assertEquals("charSequence", testSerializerOperationMap.GetSerializedType(StringBuilder.class));
+        // ArrayList implements List directly, which extends Collection
+        assertEquals("collection", testSerializerOperationMap.GetSerializedType(ArrayList.class));
+        assertNull(testSerializerOperationMap.GetSerializedType(Date.class));
+        assertEquals(CharSequence.class, testSerializerOperationMap.GetNativeType("charSequence"));
+    }
+
+    @Test
+    public void GetSerializedTypeSuperclassMappingPreferredToInterfaceMapping() {
+        testSerializerOperationMap.AddMapping(Comparable.class, "comparable", new StringSerializer());
+        testSerializerOperationMap.AddMapping(Number.class, "number", new IntegerSerializer());
+
+        assertEquals("number", testSerializerOperationMap.GetSerializedType(Integer.class));
+        assertEquals("comparable", testSerializerOperationMap.GetSerializedType(String.class));
+    }
+
+    @Test
+    public void GetSerializerSubclassResolvedToSuperclassMapping() {
+        IntegerSerializer testIntegerSerializer = new IntegerSerializer();
+
+        testSerializerOperationMap.AddMapping(Number.class, "number", testIntegerSerializer);
+        IObjectSerializer<?> returnedSerializer = testSerializerOperationMap.GetSerializer(Long.class);
+        assertEquals(testIntegerSerializer, returnedSerializer);
+        assertNull(testSerializerOperationMap.GetSerializer(String.class));
+    }
+
+    @Test
+    public void ResolvedMappingsRefreshedAfterAddMapping() {
+        testSerializerOperationMap.AddMapping(Number.class, "number", new IntegerSerializer());
+        assertEquals("number", testSerializerOperationMap.GetSerializedType(Integer.class));
+        assertNull(testSerializerOperationMap.GetSerializedType(String.class));
+
+        testSerializerOperationMap.AddMapping(Integer.class, "integer", new IntegerSerializer());
+        testSerializerOperationMap.AddMapping(String.class, "string", new StringSerializer());
+        assertEquals("integer", testSerializerOperationMap.GetSerializedType(Integer.class));
+        assertEquals("string", testSerializerOperationMap.GetSerializedType(String.class));
+        assertEquals("number", testSerializerOperationMap.GetSerializedType(Long.class));
+    }
+
+    @Test
+    public void ResolvedMappingsRefreshedAfterUpdateMapping() {
+        IntegerSerializer testIntegerSerializer = new IntegerSerializer();
+
+        testSerializerOperationMap.AddMapping(Number.class, "number", new StringSerializer());
+        assertEquals("number", testSerializerOperationMap.GetSerializedType(Integer.class));
+
+        testSerializerOperationMap.UpdateMapping(Number.class, "UpdatedNumber", testIntegerSerializer);
+        assertEquals("UpdatedNumber", testSerializerOperationMap.GetSerializedType(Integer.class));
+        assertEquals(testIntegerSerializer, testSerializerOperationMap.GetSerializer(Integer.class));
+    }
+
+    @Test
+    public void ConcurrentReadsAndMappingChanges() throws Exception {
+        final int readerThreadCount = 4;
+        final int updatedMappingCount = 500;
+        final StringSerializer testStringSerializer = new StringSerializer();
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final AtomicBoolean writerComplete = new AtomicBoolean(false);
+        final AtomicReference<String> failureMessage = new AtomicReference<String>(null);
+
+        testSerializerOperationMap.AddMapping(String.class, "string", testStringSerializer);
+        testSerializerOperationMap.AddMapping(Number.class, "number", new IntegerSerializer());
+
+        ArrayList<Thread> readerThreads = new ArrayList<Thread>();
+        for (int i = 0; i < readerThreadCount; i = i + 1) {
+            Thread readerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+                        while (writerComplete.get() == false) {
+                            if ("string".equals(testSerializerOperationMap.GetSerializedType(String.class)) == false) {
+                                failureMessage.set("Unexpected serialized type returned for class 'java.lang.String'.");
+                            }
+                            if (testSerializerOperationMap.GetSerializer("string") != testStringSerializer) {
+                                failureMessage.set("Unexpected serializer returned for serialized type 'string'.");
+                            }
+                            String integerSerializedType = testSerializerOperationMap.GetSerializedType(Integer.class);
+                            if ((integerSerializedType.startsWith("number") == false) && (integerSerializedType.equals("integer") == false)) {
+                                failureMessage.set("Unexpected serialized type '" + integerSerializedType + "' returned for class 'java.lang.Integer'.");
+                            }
+                            if (testSerializerOperationMap.GetSerializedType(Long.class).startsWith("number") == false) {
+                                failureMessage.set("Unexpected serialized type returned for class 'java.lang.Long'.");
+                            }
+                        }
+                    }
+                    catch (Exception e) {
+                        failureMessage.set(e.getMessage());
+                    }
+                }
+            });
+            readerThreads.add(readerThread);
+            readerThread.start();
+        }
+
+        startSignal.countDown();
+        testSerializerOperationMap.AddMapping(Integer.class, "integer", new IntegerSerializer());
+        for (int i = 0; i < updatedMappingCount; i = i + 1) {
+            testSerializerOperationMap.UpdateMapping(Number.class, "number" + i, new IntegerSerializer());
+        }
+        writerComplete.set(true);
+        for (Thread currentThread : readerThreads) {
+            currentThread.join();
+        }
+
+        assertNull(failureMessage.get());
+        assertEquals("integer", testSerializerOperationMap.GetSerializedType(Integer.class));
+        assertEquals("number" + (updatedMappingCount - 1), testSerializerOperationMap.GetSerializedType(Long.class));
+    }
+
+    @Test
+    public void UsedByMethodInvocationSerializer() throws Exception {
+        MethodInvocationSerializer testMethodInvocationSerializer = new MethodInvocationSerializer(testSerializerOperationMap);
+        GregorianCalendar testCalendar = new GregorianCalendar(2015, 4, 1, 12, 43, 56);
+        MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod", new Object[] { "abc", 123, testCalendar }, String.class);
+
+        MethodInvocation returnedMethodInvocation = testMethodInvocationSerializer.Deserialize(testMethodInvocationSerializer.Serialize(testMethodInvocation));
+        assertEquals("TestMethod", returnedMethodInvocation.getName());
+        assertEquals("abc", returnedMethodInvocation.getParameters()[0]);
+        assertEquals(123, returnedMethodInvocation.getParameters()[1]);
+        assertEquals(testCalendar.getTimeInMillis(), ((GregorianCalendar)returnedMethodInvocation.getParameters()[2]).getTimeInMillis());
+        assertEquals(String.class, returnedMethodInvocation.getReturnType());
+    }
+
+    private class StringSerializer implements IObjectSerializer<String> {
+
+        @Override
+        public void Serialize(String inputObject, XMLStreamWriter writer) {
+        }
+
+        @Override
+        public String Deserialize(SimplifiedXMLStreamReader reader) {
+            return null;
+        }
+    }
+    
+    private class IntegerSerializer implements IObjectSerializer<Integer> {
+
+        @Override
+        public void Serialize(Integer inputObject, XMLStreamWriter writer) {
+        }
+
+        @Override
+        public Integer Deserialize(SimplifiedXMLStreamReader reader) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremotingunittests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import net.alastairwyse.methodinvocationremoting.*;
+import java.io.*;
+
+/**
+ * Unit tests for class methodinvocationremoting.IncrementalMessageDeserializer.
+ * @author Alastair Wyse
+ */
+public class IncrementalMessageDeserializerTests {
+
+    private final String stringEncodingCharset = "UTF-8";
+    private final String serializedMethodInvocation = "<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocation><MethodName>TestMethod</MethodName><Parameters><Parameter><DataType>integer</DataType><Data>123</Data></Parameter><Parameter><DataType>string</DataType><Data>ABCDEFGHIJKLMNOPQRSTUVWXYZ</Data></Parameter></Parameters><ReturnType><DataType>integer</DataType></ReturnType></MethodInvocation>";
+    private MethodInvocationSerializer testMethodInvocationSerializer;
+    
+    @Before
+    public void setUp() throws Exception {
+        testMethodInvocationSerializer = new MethodInvocationSerializer(new SerializerOperationMap());
+    }
+    
+    @Test
+    public void InvalidBufferLimitArgument() {
+        try {
+            new IncrementalMessageDeserializer(testMethodInvocationSerializer, false, 0);
+            fail("Exception was not thrown.");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Argument 'bufferLimit' must be greater than 0."));
+        }
+    }
+    
+    @Test
+    public void GetMethodInvocationBeforeMessageBodyReceived() throws Exception {
+        try (IncrementalMessageDeserializer testIncrementalMessageDeserializer = new IncrementalMessageDeserializer(testMethodInvocationSerializer, false)) {
+            testIncrementalMessageDeserializer.BeginMessageBody(10);
+            testIncrementalMessageDeserializer.getMethodInvocation();
+            fail("Exception was not thrown.");
+        }
+        catch (Exception e) {
+            assertTrue(e.getMessage().contains("A message body has not been received in full."));
+        }
+    }
+    
+    @Test
+    public void GetReturnValueWhenDeserializingMethodInvocations() throws Exception {
+        try (IncrementalMessageDeserializer testIncrementalMessageDeserializer = new IncrementalMessageDeserializer(testMethodInvocationSerializer, false)) {
+            testIncrementalMessageDeserializer.getReturnValue();
+            fail("Exception was not thrown.");
+        }
+        catch (Exception e) {
+            assertTrue(e.getMessage().contains("The deserializer was constructed to deserialize method invocations."));
+        }
+    }
+    
+    @Test
+    public void DeserializeMethodInvocationSuccessTests() throws Exception {
+        // Uses a buffer limit smaller than the message, so that receipt of the message body is blocked until it is deserialized
+        try (IncrementalMessageDeserializer testIncrementalMessageDeserializer = new IncrementalMessageDeserializer(testMethodInvocationSerializer, false, 16)) {
+            ReceiveInPortions(testIncrementalMessageDeserializer, serializedMethodInvocation.getBytes(stringEncodingCharset), 7);
+            
+            IMethodInvocation returnedMethodInvocation = testIncrementalMessageDeserializer.getMethodInvocation();
+            assertEquals("TestMethod", returnedMethodInvocation.getName());
+            assertEquals(2, returnedMethodInvocation.getParameters().length);
+            assertEquals((Integer)123, (Integer)(returnedMethodInvocation.getParameters()[0]));
+            assertEquals("ABCDEFGHIJKLMNOPQRSTUVWXYZ", returnedMethodInvocation.getParameters()[1]);
+            assertEquals(Integer.class, returnedMethodInvocation.getReturnType());
+        }
+    }
+    
+    @Test
+    public void DeserializeReturnValueSuccessTests() throws Exception {
+        String serializedReturnValue = "<?xml version=\"1.0\" encoding=\"utf-8\"?><ReturnValue><DataType>integer</DataType><Data>789</Data></ReturnValue>";
+        
+        try (IncrementalMessageDeserializer testIncrementalMessageDeserializer = new IncrementalMessageDeserializer(testMethodInvocationSerializer, true)) {
+            ReceiveInPortions(testIncrementalMessageDeserializer, serializedReturnValue.getBytes(stringEncodingCharset), 5);
+            
+            assertEquals((Integer)789, (Integer)testIncrementalMessageDeserializer.getReturnValue());
+        }
+    }
+    
+    @Test
+    public void DeserializeAfterDiscardSuccessTests() throws Exception {
+        // Tests that a message body which is discarded part way through (e.g. due to reconnecting) does not affect the deserialization of the message body received subsequently
+        byte[] messageBody = serializedMethodInvocation.getBytes(stringEncodingCharset);
+        
+        try (IncrementalMessageDeserializer testIncrementalMessageDeserializer = new IncrementalMessageDeserializer(testMethodInvocationSerializer, false, 16)) {
+            testIncrementalMessageDeserializer.BeginMessageBody(messageBody.length);
+            testIncrementalMessageDeserializer.MessageBodyReceived(messageBody, 0, 40);
+            testIncrementalMessageDeserializer.DiscardMessageBody();
+            ReceiveInPortions(testIncrementalMessageDeserializer, messageBody, 11);
+            
+            assertEquals("TestMethod", testIncrementalMessageDeserializer.getMethodInvocation().getName());
+        }
+    }
+    
+    @Test
+    public void DeserializeInvalidMessageBody() throws Exception {
+        String invalidMethodInvocation = "<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocationX></MethodInvocationX>";
+        
+        try (IncrementalMessageDeserializer testIncrementalMessageDeserializer = new IncrementalMessageDeserializer(testMethodInvocationSerializer, false)) {
+            ReceiveInPortions(testIncrementalMessageDeserializer, invalidMethodInvocation.getBytes(stringEncodingCharset), 10);
+            testIncrementalMessageDeserializer.getMethodInvocation();
+            fail("Exception was not thrown.");
+        }
+        catch (Exception e) {
+            assertTrue(e instanceof DeserializationException);
+            assertTrue(e.getMessage().contains("Failed to deserialize method invocation."));
+        }
+    }
+    
+    @Test
+    public void DeserializeBinaryMethodInvocationSuccessTests() throws Exception {
+        BinaryMethodInvocationSerializer binarySerializer = new BinaryMethodInvocationSerializer(new SerializerOperationMap());
+        ByteArrayOutputStream binaryMethodInvocation = new ByteArrayOutputStream();
+        binarySerializer.Serialize(new MethodInvocation("TestMethod", new Object[] { (Integer)123 }, Integer.class), binaryMethodInvocation);
+        byte[] messageBody = binaryMethodInvocation.toByteArray();
+        
+        try (IncrementalMessageDeserializer testIncrementalMessageDeserializer = new IncrementalMessageDeserializer(binarySerializer, false, 4)) {
+            ReceiveInPortions(testIncrementalMessageDeserializer, messageBody, 3);
+            
+            IMethodInvocation returnedMethodInvocation = testIncrementalMessageDeserializer.getMethodInvocation();
+            assertEquals("TestMethod", returnedMethodInvocation.getName());
+            assertEquals((Integer)123, (Integer)(returnedMethodInvocation.getParameters()[0]));
+        }
+    }
+    
+    /**
+     * Passes a message body to the specified message body handler in portions of the specified size.
+     * @param messageBodyHandler  The message body handler.
+     * @param messageBody         The message body.
+     * @param portionSize         The number of bytes to pass in each portion.
+     * @throws Exception          if an error occurs passing the message body to the handler.
+     */
+    private void ReceiveInPortions(IMessageBodyHandler messageBodyHandler, byte[] messageBody, int portionSize) throws Exception {
+        messageBodyHandler.BeginMessageBody(messageBody.length);
+        for (int i = 0; i < messageBody.length; i = i + portionSize) {
+            messageBodyHandler.MessageBodyReceived(messageBody, i, Math.min(portionSize, messageBody.length - i));
+        }
+        messageBodyHandler.EndMessageBody();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremotingunittests;
+
+import java.nio.ByteBuffer;
+
+import org.hamcrest.Description;
+import org.mockito.ArgumentMatcher;
+
+/**
+ * Extension of the mockito ArgumentMatcher class, which can be used in mockito when() methods to confirm that the buffers passed to a gathering write of an ISocketChannel contain the encoded message specified in the constructor.
+ * <p>
+ * The buffers passed to a gathering write are reused and consumed by the write, so this class can only be used when stubbing, and not in verify() methods.
+ * </p>
+ * @author Alastair Wyse
+ */
+public class IsEncodedMessage extends ArgumentMatcher<ByteBuffer[]> {
+    
+    private ByteBuffer encodedMessage;
+    
+    public IsEncodedMessage(ByteBuffer encodedMessage) {
+        this.encodedMessage = encodedMessage;
+    }
+    
+    @Override
+    public boolean matches(Object argument) {
+        if ((argument instanceof ByteBuffer[]) == false) {
+            return false;
+        }
+        
+        ByteBuffer comparisonEncodedMessage = encodedMessage.duplicate();
+        for (ByteBuffer currentBuffer : (ByteBuffer[])argument) {
+            ByteBuffer currentBufferDuplicate = currentBuffer.duplicate();
+            while (currentBufferDuplicate.hasRemaining() == true) {
+                if ((comparisonEncodedMessage.hasRemaining() == false) || (currentBufferDuplicate.get() != comparisonEncodedMessage.get())) {
+                    return false;
+                }
+            }
+        }
+        
+        return (comparisonEncodedMessage.hasRemaining() == false);
+    }
+    
+    @Override
+    public void describeTo(Description description) {
+        description.appendText("EncodedMessage(" + encodedMessage.remaining() + " bytes)");
+    }
+}
@@ -20,6 +20,11 @@ import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.Test;
 import static org.mockito.Mockito.*;
+import java.net.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.mockito.ArgumentCaptor;
 import net.alastairwyse.methodinvocationremoting.*;
 
 /**
@@ -194,4 +199,267 @@ public class MethodInvocationRemoteReceiverTests {
             this.e = e;
         }
     }
+
+    @Test
+    public void ReceiveAttachmentsSuccessTests() throws Exception {
+        BinaryMethodInvocationSerializer binarySerializer = new BinaryMethodInvocationSerializer(new SerializerOperationMap());
+        // Create the method invocation message using a MethodInvocationRemoteSender
+        IRemoteSender methodInvocationSender = mock(IRemoteSender.class, withSettings().extraInterfaces(IByteRemoteSender.class));
+        IRemoteReceiver voidReturnReceiver = mock(IRemoteReceiver.class);
+        when(voidReturnReceiver.Receive()).thenReturn(binarySerializer.getVoidReturnValue());
+        new MethodInvocationRemoteSender(binarySerializer, methodInvocationSender, voidReturnReceiver).InvokeVoidMethod(new MethodInvocation("TestMethod", new Object[] { new Attachment("ABC"), 12345 }));
+        ArgumentCaptor<ByteBuffer> methodInvocationMessage = ArgumentCaptor.forClass(ByteBuffer.class);
+        verify((IByteRemoteSender)methodInvocationSender).Send(methodInvocationMessage.capture());
+        IRemoteReceiver byteRemoteReceiver = mock(IRemoteReceiver.class, withSettings().extraInterfaces(IByteRemoteReceiver.class));
+        when(((IByteRemoteReceiver)byteRemoteReceiver).ReceiveBytes()).thenReturn(methodInvocationMessage.getValue(), ByteBuffer.allocate(0));
+        testMethodInvocationRemoteReceiver = new MethodInvocationRemoteReceiver(binarySerializer, mockRemoteSender, byteRemoteReceiver);
+        testMethodInvocationRemoteReceiver.setReceivedEventHandler(mockMethodInvocationReceivedEventHandler);
+
+        testMethodInvocationRemoteReceiver.Receive();
+        // Need to pause so that receiveLoopThread has time to iterate before CancelReceive() is sent.
+        //   Unfortunately this is still not a deterministic way to test, but best that can be done given that the Receive() spawns off a new thread.
+        Thread.sleep(50);
+        testMethodInvocationRemoteReceiver.CancelReceive();
+
+        ArgumentCaptor<IMethodInvocation> receivedMethodInvocation = ArgumentCaptor.forClass(IMethodInvocation.class);
+        verify(mockMethodInvocationReceivedEventHandler).MethodInvocationReceived(eq(testMethodInvocationRemoteReceiver), receivedMethodInvocation.capture());
+        verify(byteRemoteReceiver).CancelReceive();
+        verify(mockMethodInvocationReceivedEventHandler, never()).MethodInvocationReceiveException(any(IMethodInvocationRemoteReceiver.class), any(Exception.class));
+        assertEquals("TestMethod", receivedMethodInvocation.getValue().getName());
+        assertEquals("ABC", ((Attachment)receivedMethodInvocation.getValue().getParameters()[0]).DecodeString());
+        assertEquals(12345, receivedMethodInvocation.getValue().getParameters()[1]);
+    }
+    
+    @Test
+    public void SendReturnValueAttachmentSenderNotByteRemoteSender() throws Exception {
+        testMethodInvocationRemoteReceiver = new MethodInvocationRemoteReceiver(new BinaryMethodInvocationSerializer(new SerializerOperationMap()), mockRemoteSender, mockRemoteReceiver);
+        try {
+            testMethodInvocationRemoteReceiver.SendReturnValue(new Attachment("ABC"));
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            verifyNoMoreInteractions(mockRemoteSender);
+            assertTrue(e.getMessage().contains("Failed to send return value."));
+            assertTrue(e.getCause().getMessage().contains("Attachment return values can only be sent using a serializer which implements IAttachmentMethodInvocationSerializer and a sender which implements IByteRemoteSender."));
+        }
+    }
+    
+    @Test
+    public void ReceiveDeltaCacheSuccessTests() throws Exception {
+        BinaryMethodInvocationSerializer binarySerializer = new BinaryMethodInvocationSerializer(new SerializerOperationMap());
+        // Create the method invocation messages using a MethodInvocationRemoteSender
+        IRemoteSender methodInvocationSender = mock(IRemoteSender.class);
+        IRemoteReceiver voidReturnReceiver = mock(IRemoteReceiver.class);
+        when(voidReturnReceiver.Receive()).thenReturn(binarySerializer.getVoidReturnValue());
+        MethodInvocationRemoteSender methodInvocationRemoteSender = new MethodInvocationRemoteSender(binarySerializer, methodInvocationSender, voidReturnReceiver);
+        methodInvocationRemoteSender.setDeltaCache(new ParameterDeltaCache());
+        double[] arrayParameter = new double[1000];
+        String[] stringArrayParameter = new String[] { "A", "B", "C", "D" };
+        methodInvocationRemoteSender.InvokeVoidMethod(new MethodInvocation("TestMethod", new Object[] { arrayParameter, stringArrayParameter, "ABC" }));
+        arrayParameter[500] = 1.5;
+        stringArrayParameter[3] = "E";
+        methodInvocationRemoteSender.InvokeVoidMethod(new MethodInvocation("TestMethod", new Object[] { arrayParameter, stringArrayParameter, "ABC" }));
+        ArgumentCaptor<String> methodInvocationMessages = ArgumentCaptor.forClass(String.class);
+        verify(methodInvocationSender, times(2)).Send(methodInvocationMessages.capture());
+        assertTrue(methodInvocationMessages.getAllValues().get(1).length() < methodInvocationMessages.getAllValues().get(0).length() / 10);
+        when(mockRemoteReceiver.Receive()).thenReturn(methodInvocationMessages.getAllValues().get(0), methodInvocationMessages.getAllValues().get(1), "");
+        testMethodInvocationRemoteReceiver = new MethodInvocationRemoteReceiver(binarySerializer, mockRemoteSender, mockRemoteReceiver);
+        testMethodInvocationRemoteReceiver.setReceivedEventHandler(mockMethodInvocationReceivedEventHandler);
+        ((MethodInvocationRemoteReceiver)testMethodInvocationRemoteReceiver).setDeltaCache(new ParameterDeltaCache());
+
+        testMethodInvocationRemoteReceiver.Receive();
+        // Need to pause so that receiveLoopThread has time to iterate before CancelReceive() is sent.
+        Thread.sleep(50);
+        testMethodInvocationRemoteReceiver.CancelReceive();
+
+        ArgumentCaptor<IMethodInvocation> receivedMethodInvocations = ArgumentCaptor.forClass(IMethodInvocation.class);
+        verify(mockMethodInvocationReceivedEventHandler, times(2)).MethodInvocationReceived(eq(testMethodInvocationRemoteReceiver), receivedMethodInvocations.capture());
+        verify(mockMethodInvocationReceivedEventHandler, never()).MethodInvocationReceiveException(any(IMethodInvocationRemoteReceiver.class), any(Exception.class));
+        verifyNoMoreInteractions(mockRemoteSender);
+        IMethodInvocation secondMethodInvocation = receivedMethodInvocations.getAllValues().get(1);
+        assertEquals("TestMethod", secondMethodInvocation.getName());
+        assertNull(secondMethodInvocation.getReturnType());
+        assertArrayEquals(arrayParameter, (double[])secondMethodInvocation.getParameters()[0], 0.0);
+        assertArrayEquals(new String[] { "A", "B", "C", "E" }, (String[])secondMethodInvocation.getParameters()[1]);
+        assertEquals("ABC", secondMethodInvocation.getParameters()[2]);
+        // Each received invocation should have its own copy of the array parameters
+        assertEquals(0.0, ((double[])receivedMethodInvocations.getAllValues().get(0).getParameters()[0])[500], 0.0);
+        assertNotSame(receivedMethodInvocations.getAllValues().get(0).getParameters()[1], secondMethodInvocation.getParameters()[1]);
+    }
+    
+    @Test
+    public void ReceiveDeltaCacheBaseVersionMismatch() throws Exception {
+        BinaryMethodInvocationSerializer binarySerializer = new BinaryMethodInvocationSerializer(new SerializerOperationMap());
+        IRemoteSender methodInvocationSender = mock(IRemoteSender.class);
+        IRemoteReceiver returnValueReceiver = mock(IRemoteReceiver.class);
+        MethodInvocationRemoteSender methodInvocationRemoteSender = new MethodInvocationRemoteSender(binarySerializer, methodInvocationSender, returnValueReceiver);
+        methodInvocationRemoteSender.setDeltaCache(new ParameterDeltaCache());
+        when(returnValueReceiver.Receive()).thenReturn(binarySerializer.getVoidReturnValue());
+        methodInvocationRemoteSender.InvokeVoidMethod(new MethodInvocation("TestMethod", new Object[] { "ABC", 12345 }));
+        methodInvocationRemoteSender.InvokeVoidMethod(new MethodInvocation("TestMethod", new Object[] { "ABC", 12346 }));
+        ArgumentCaptor<String> methodInvocationMessages = ArgumentCaptor.forClass(String.class);
+        verify(methodInvocationSender, times(2)).Send(methodInvocationMessages.capture());
+        // Receive only the second invocation, which contains changes from an invocation the receiver does not hold
+        when(mockRemoteReceiver.Receive()).thenReturn(methodInvocationMessages.getAllValues().get(1), "");
+        testMethodInvocationRemoteReceiver = new MethodInvocationRemoteReceiver(binarySerializer, mockRemoteSender, mockRemoteReceiver);
+        testMethodInvocationRemoteReceiver.setReceivedEventHandler(mockMethodInvocationReceivedEventHandler);
+        ParameterDeltaCache receiverDeltaCache = new ParameterDeltaCache();
+        ((MethodInvocationRemoteReceiver)testMethodInvocationRemoteReceiver).setDeltaCache(receiverDeltaCache);
+
+        testMethodInvocationRemoteReceiver.Receive();
+        Thread.sleep(50);
+        testMethodInvocationRemoteReceiver.CancelReceive();
+
+        verify(mockMethodInvocationReceivedEventHandler, never()).MethodInvocationReceived(any(IMethodInvocationRemoteReceiver.class), any(IMethodInvocation.class));
+        verify(mockMethodInvocationReceivedEventHandler, never()).MethodInvocationReceiveException(any(IMethodInvocationRemoteReceiver.class), any(Exception.class));
+        ArgumentCaptor<String> mismatchResponse = ArgumentCaptor.forClass(String.class);
+        verify(mockRemoteSender).Send(mismatchResponse.capture());
+        
+        // Sender should resend the invocation in full in response, which the receiver can then reconstruct
+        when(returnValueReceiver.Receive()).thenReturn(mismatchResponse.getValue(), binarySerializer.getVoidReturnValue());
+        methodInvocationRemoteSender.InvokeVoidMethod(new MethodInvocation("TestMethod", new Object[] { "ABC", 12347 }));
+        verify(methodInvocationSender, times(4)).Send(methodInvocationMessages.capture());
+        when(mockRemoteReceiver.Receive()).thenReturn(methodInvocationMessages.getAllValues().get(5), "");
+        testMethodInvocationRemoteReceiver.Receive();
+        Thread.sleep(50);
+        testMethodInvocationRemoteReceiver.CancelReceive();
+        
+        ArgumentCaptor<IMethodInvocation> receivedMethodInvocation = ArgumentCaptor.forClass(IMethodInvocation.class);
+        verify(mockMethodInvocationReceivedEventHandler).MethodInvocationReceived(eq(testMethodInvocationRemoteReceiver), receivedMethodInvocation.capture());
+        assertEquals("TestMethod", receivedMethodInvocation.getValue().getName());
+        assertEquals("ABC", receivedMethodInvocation.getValue().getParameters()[0]);
+        assertEquals(12347, receivedMethodInvocation.getValue().getParameters()[1]);
+    }
+    
+    @Test
+    public void ReceiveCorrelatedSendReturnValuesOutOfOrderSuccessTests() throws Exception {
+        String testSerializedReturnValue = "<?xml version=\"1.0\" encoding=\"utf-8\"?><ReturnValue><DataType>string</DataType><string>TestReturnValue</string></ReturnValue>";
+        String testVoidReturnValue = "<?xml version=\"1.0\" encoding=\"utf-8\"?><ReturnType>void</ReturnType>";
+        CorrelatedMethodInvocationReceivedEventHandlerStub stubEventHandler = new CorrelatedMethodInvocationReceivedEventHandlerStub(2);
+        
+        when(mockRemoteReceiver.Receive())
+            .thenReturn("\u00017:" + testSerializedMethodInvocation)
+            .thenReturn("\u00018:" + testSerializedMethodInvocation)
+            .thenReturn("");
+        when(mockMethodInvocationSerializer.Deserialize(testSerializedMethodInvocation)).thenReturn(testMethodInvocation);
+        when(mockMethodInvocationSerializer.SerializeReturnValue("TestReturnValue")).thenReturn(testSerializedReturnValue);
+        doReturn(testVoidReturnValue).when(mockMethodInvocationSerializer).getVoidReturnValue();
+        
+        testMethodInvocationRemoteReceiver.setReceivedEventHandler(stubEventHandler);
+        testMethodInvocationRemoteReceiver.Receive();
+        assertTrue(stubEventHandler.WaitForMethodInvocations());
+        // Send the return values in the opposite order to the method invocations
+        stubEventHandler.getSources().get(1).SendReturnValue("TestReturnValue");
+        stubEventHandler.getSources().get(0).SendVoidReturn();
+        testMethodInvocationRemoteReceiver.CancelReceive();
+        
+        assertNotSame(testMethodInvocationRemoteReceiver, stubEventHandler.getSources().get(0));
+        verify(mockRemoteSender).Send("\u00018:" + testSerializedReturnValue);
+        verify(mockRemoteSender).Send("\u00017:" + testVoidReturnValue);
+        verifyNoMoreInteractions(mockRemoteSender);
+    }
+    
+    @Test
+    public void ReceiveCorrelatedBytesSuccessTests() throws Exception {
+        IRemoteSender mockByteRemoteSender = mock(IRemoteSender.class, withSettings().extraInterfaces(IByteRemoteSender.class));
+        IRemoteReceiver mockByteRemoteReceiver = mock(IRemoteReceiver.class, withSettings().extraInterfaces(IByteRemoteReceiver.class));
+        IMethodInvocationSerializer mockAttachmentSerializer = mock(IMethodInvocationSerializer.class, withSettings().extraInterfaces(IAttachmentMethodInvocationSerializer.class));
+        CorrelatedMethodInvocationReceivedEventHandlerStub stubEventHandler = new CorrelatedMethodInvocationReceivedEventHandlerStub(1);
+        testMethodInvocationRemoteReceiver = new MethodInvocationRemoteReceiver(mockAttachmentSerializer, mockByteRemoteSender, mockByteRemoteReceiver);
+        
+        when(((IByteRemoteReceiver)mockByteRemoteReceiver).ReceiveBytes())
+            .thenReturn(ByteBuffer.wrap(("\u000112:" + testSerializedMethodInvocation).getBytes("UTF-8")))
+            .thenReturn(ByteBuffer.allocate(0));
+        when(mockAttachmentSerializer.Deserialize(testSerializedMethodInvocation)).thenReturn(testMethodInvocation);
+        when(mockAttachmentSerializer.SerializeReturnValue("TestReturnValue")).thenReturn("<ReturnValue/>");
+        
+        testMethodInvocationRemoteReceiver.setReceivedEventHandler(stubEventHandler);
+        testMethodInvocationRemoteReceiver.Receive();
+        assertTrue(stubEventHandler.WaitForMethodInvocations());
+        stubEventHandler.getSources().get(0).SendReturnValue("TestReturnValue");
+        testMethodInvocationRemoteReceiver.CancelReceive();
+        
+        verify(mockAttachmentSerializer).Deserialize(testSerializedMethodInvocation);
+        verify(mockByteRemoteSender).Send("\u000112:<ReturnValue/>");
+    }
+    
+    @Test
+    public void ReceiveReplySenderProviderSuccessTests() throws Exception {
+        TcpMultiClientRemoteReceiver mockMultiClientRemoteReceiver = mock(TcpMultiClientRemoteReceiver.class);
+        IReplySenderProvider mockReplySenderProvider = mock(IReplySenderProvider.class);
+        IRemoteSender firstReplySender = mock(IRemoteSender.class);
+        IRemoteSender secondReplySender = mock(IRemoteSender.class);
+        InetSocketAddress firstRemoteAddress = new InetSocketAddress("127.0.0.1", 50001);
+        InetSocketAddress secondRemoteAddress = new InetSocketAddress("127.0.0.1", 50002);
+        CorrelatedMethodInvocationReceivedEventHandlerStub stubEventHandler = new CorrelatedMethodInvocationReceivedEventHandlerStub(2);
+        MethodInvocationRemoteReceiver testReplyRemoteReceiver = new MethodInvocationRemoteReceiver(mockMethodInvocationSerializer, mockRemoteSender, mockMultiClientRemoteReceiver);
+        
+        when(mockMultiClientRemoteReceiver.ReceiveWithConnectionId())
+            .thenReturn(new TcpReceivedMessage(1, firstRemoteAddress, ByteBuffer.wrap(testSerializedMethodInvocation.getBytes("UTF-8"))))
+            .thenReturn(new TcpReceivedMessage(2, secondRemoteAddress, ByteBuffer.wrap(("\u00015:" + testSerializedMethodInvocation).getBytes("UTF-8"))))
+            .thenReturn(null);
+        when(mockReplySenderProvider.GetReplySender(1, firstRemoteAddress)).thenReturn(firstReplySender);
+        when(mockReplySenderProvider.GetReplySender(2, secondRemoteAddress)).thenReturn(secondReplySender);
+        when(mockMethodInvocationSerializer.Deserialize(testSerializedMethodInvocation)).thenReturn(testMethodInvocation);
+        when(mockMethodInvocationSerializer.SerializeReturnValue("TestReturnValue")).thenReturn("<ReturnValue/>");
+        
+        testReplyRemoteReceiver.setReplySenderProvider(mockReplySenderProvider);
+        testReplyRemoteReceiver.setReceivedEventHandler(stubEventHandler);
+        testReplyRemoteReceiver.Receive();
+        assertTrue(stubEventHandler.WaitForMethodInvocations());
+        stubEventHandler.getSources().get(1).SendReturnValue("TestReturnValue");
+        stubEventHandler.getSources().get(0).SendReturnValue("TestReturnValue");
+        testReplyRemoteReceiver.CancelReceive();
+        
+        // Each return value should be sent to the remote location which sent the method invocation
+        verify(firstReplySender).Send("<ReturnValue/>");
+        verify(secondReplySender).Send("\u00015:<ReturnValue/>");
+        verifyNoMoreInteractions(firstReplySender);
+        verifyNoMoreInteractions(secondReplySender);
+        verifyNoMoreInteractions(mockRemoteSender);
+    }
+    
+    @Test
+    public void ReceiveReplySenderProviderReceiverNotMultiClient() throws Exception {
+        ((MethodInvocationRemoteReceiver)testMethodInvocationRemoteReceiver).setReplySenderProvider(mock(IReplySenderProvider.class));
+        try {
+            testMethodInvocationRemoteReceiver.Receive();
+            fail("Exception was not thrown.");
+        }
+        catch (Exception e) {
+            assertTrue(e.getMessage().contains("A reply sender provider can only be used with a TcpMultiClientRemoteReceiver."));
+        }
+    }
+    
+    /**
+     * Stub IMethodInvocationReceivedEventHandler which records the source passed with each received method invocation.
+     */
+    private class CorrelatedMethodInvocationReceivedEventHandlerStub implements IMethodInvocationReceivedEventHandler {
+        
+        private List<IMethodInvocationRemoteReceiver> sources;
+        private CountDownLatch methodInvocationsReceivedLatch;
+        
+        public CorrelatedMethodInvocationReceivedEventHandlerStub(int methodInvocationCount) {
+            sources = Collections.synchronizedList(new ArrayList<IMethodInvocationRemoteReceiver>());
+            methodInvocationsReceivedLatch = new CountDownLatch(methodInvocationCount);
+        }
+        
+        public List<IMethodInvocationRemoteReceiver> getSources() {
+            return sources;
+        }
+        
+        public boolean WaitForMethodInvocations() throws InterruptedException {
+            return methodInvocationsReceivedLatch.await(5, TimeUnit.SECONDS);
+        }
+        
+        @Override
+        public void MethodInvocationReceived(IMethodInvocationRemoteReceiver source, IMethodInvocation receivedMethodInvocation) {
+            sources.add(source);
+            methodInvocationsReceivedLatch.countDown();
+        }
+        
+        @Override
+        public void MethodInvocationReceiveException(IMethodInvocationRemoteReceiver source, Exception e) {
+        }
+    }
 }
@@ -20,6 +20,13 @@ import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.Test;
 import static org.mockito.Mockito.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.*;
 import net.alastairwyse.methodinvocationremoting.*;
 
 /**
@@ -31,7 +38,7 @@ public class MethodInvocationRemoteSenderTests {
     private IMethodInvocationSerializer mockMethodInvocationSerializer;
     private IRemoteSender mockRemoteSender;
     private IRemoteReceiver mockRemoteReceiver;
-    private IMethodInvocationRemoteSender testMethodInvocationRemoteSender;
+    private IAsyncMethodInvocationRemoteSender testMethodInvocationRemoteSender;
     private IMethodInvocation testMethodInvocation;
     private String testSerializedMethodInvocation = "<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocation><MethodName>TestMethod</MethodName><Parameters><Parameter><DataType>string</DataType><string>ABC</string></Parameter><Parameter><DataType>integer</DataType><int>12345</int></Parameter><Parameter><DataType>boolean</DataType><boolean>true</boolean></Parameter></Parameters><ReturnType>string</ReturnType></MethodInvocation>";
     private String testSerializedReturnValue = "<?xml version=\"1.0\" encoding=\"utf-8\"?><DataType>string</DataType><string>Return Data</string>";
@@ -188,4 +195,522 @@ public class MethodInvocationRemoteSenderTests {
         verifyNoMoreInteractions(mockRemoteSender);
         verifyNoMoreInteractions(mockRemoteReceiver);
     }
+
+    @Test
+    public void InvokeVoidMethodAttachmentsSuccessTests() throws Exception {
+        BinaryMethodInvocationSerializer binarySerializer = new BinaryMethodInvocationSerializer(new SerializerOperationMap());
+        IRemoteSender byteRemoteSender = mock(IRemoteSender.class, withSettings().extraInterfaces(IByteRemoteSender.class));
+        IRemoteReceiver byteRemoteReceiver = mock(IRemoteReceiver.class, withSettings().extraInterfaces(IByteRemoteReceiver.class));
+        when(((IByteRemoteReceiver)byteRemoteReceiver).ReceiveBytes()).thenReturn(ByteBuffer.wrap(binarySerializer.getVoidReturnValue().getBytes(StandardCharsets.UTF_8)));
+        testMethodInvocationRemoteSender = new MethodInvocationRemoteSender(binarySerializer, byteRemoteSender, byteRemoteReceiver);
+        
+        testMethodInvocationRemoteSender.InvokeVoidMethod(new MethodInvocation("TestMethod", new Object[] { new Attachment("ABC"), 12345 }));
+        
+        ArgumentCaptor<ByteBuffer> sentMessage = ArgumentCaptor.forClass(ByteBuffer.class);
+        verify((IByteRemoteSender)byteRemoteSender).Send(sentMessage.capture());
+        verify((IByteRemoteReceiver)byteRemoteReceiver).ReceiveBytes();
+        verifyNoMoreInteractions(byteRemoteSender);
+        verifyNoMoreInteractions(byteRemoteReceiver);
+        // Message containing attachments should begin with a 0 byte
+        assertEquals(0, sentMessage.getValue().get(sentMessage.getValue().position()));
+    }
+    
+    @Test
+    public void InvokeMethodAttachmentReturnValueSuccessTests() throws Exception {
+        BinaryMethodInvocationSerializer binarySerializer = new BinaryMethodInvocationSerializer(new SerializerOperationMap());
+        // Create the return value message using a MethodInvocationRemoteReceiver
+        IRemoteSender returnValueSender = mock(IRemoteSender.class, withSettings().extraInterfaces(IByteRemoteSender.class));
+        new MethodInvocationRemoteReceiver(binarySerializer, returnValueSender, mock(IRemoteReceiver.class)).SendReturnValue(new Attachment("Return Data"));
+        ArgumentCaptor<ByteBuffer> returnValueMessage = ArgumentCaptor.forClass(ByteBuffer.class);
+        verify((IByteRemoteSender)returnValueSender).Send(returnValueMessage.capture());
+        IRemoteReceiver byteRemoteReceiver = mock(IRemoteReceiver.class, withSettings().extraInterfaces(IByteRemoteReceiver.class));
+        when(((IByteRemoteReceiver)byteRemoteReceiver).ReceiveBytes()).thenReturn(returnValueMessage.getValue());
+        testMethodInvocationRemoteSender = new MethodInvocationRemoteSender(binarySerializer, mockRemoteSender, byteRemoteReceiver);
+        
+        Object returnValue = testMethodInvocationRemoteSender.InvokeMethod(new MethodInvocation("TestMethod", new Object[] { "ABC" }, Attachment.class));
+        
+        verify(mockRemoteSender).Send(anyString());
+        assertEquals("Return Data", ((Attachment)returnValue).DecodeString());
+    }
+    
+    @Test
+    public void InvokeMethodAttachmentsSenderNotByteRemoteSender() throws Exception {
+        testMethodInvocationRemoteSender = new MethodInvocationRemoteSender(new BinaryMethodInvocationSerializer(new SerializerOperationMap()), mockRemoteSender, mockRemoteReceiver);
+        try {
+            testMethodInvocationRemoteSender.InvokeMethod(new MethodInvocation("TestMethod", new Object[] { new Attachment("ABC") }, String.class));
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            verifyNoMoreInteractions(mockRemoteSender);
+            verifyNoMoreInteractions(mockRemoteReceiver);
+            assertTrue(e.getMessage().contains("Failed to invoke method."));
+            assertTrue(e.getCause().getMessage().contains("Method invocations with attachment parameters can only be sent using a serializer which implements IAttachmentMethodInvocationSerializer and a sender which implements IByteRemoteSender."));
+        }
+    }
+    
+    @Test
+    public void InvokeVoidMethodDeltaCacheSuccessTests() throws Exception {
+        ParameterDeltaCache deltaCache = new ParameterDeltaCache();
+        ((MethodInvocationRemoteSender)testMethodInvocationRemoteSender).setDeltaCache(deltaCache);
+        when(mockMethodInvocationSerializer.Serialize(any(IMethodInvocation.class))).thenReturn(testVoidSerializedMethodInvocation);
+        when(mockMethodInvocationSerializer.getVoidReturnValue()).thenReturn(testVoidSerializedReturnValue);
+        doReturn(testVoidSerializedReturnValue).when(mockRemoteReceiver).Receive();
+        int[] arrayParameter = new int[100];
+        
+        testMethodInvocationRemoteSender.InvokeVoidMethod(new MethodInvocation("TestMethod", new Object[] { "ABC", arrayParameter, 12345 }));
+        arrayParameter[5] = 1;
+        arrayParameter[6] = 2;
+        testMethodInvocationRemoteSender.InvokeVoidMethod(new MethodInvocation("TestMethod", new Object[] { "ABC", arrayParameter, 12346 }));
+        testMethodInvocationRemoteSender.InvokeVoidMethod(new MethodInvocation("TestMethod", new Object[] { "ABC", arrayParameter, 12346 }));
+        deltaCache.Reset();
+        testMethodInvocationRemoteSender.InvokeVoidMethod(new MethodInvocation("TestMethod", new Object[] { "ABC", arrayParameter, 12346 }));
+        
+        ArgumentCaptor<IMethodInvocation> sentMethodInvocations = ArgumentCaptor.forClass(IMethodInvocation.class);
+        verify(mockMethodInvocationSerializer, times(4)).Serialize(sentMethodInvocations.capture());
+        verify(mockRemoteSender, times(4)).Send(testVoidSerializedMethodInvocation);
+        // First invocation should contain a version, no base version, the parameter count, and all parameters in full
+        IMethodInvocation firstInvocation = sentMethodInvocations.getAllValues().get(0);
+        assertEquals("@delta:TestMethod", firstInvocation.getName());
+        assertNull(firstInvocation.getReturnType());
+        assertEquals(9, firstInvocation.getParameters().length);
+        assertEquals(0L, firstInvocation.getParameters()[1]);
+        assertEquals(3, firstInvocation.getParameters()[2]);
+        assertEquals("ABC", firstInvocation.getParameters()[4]);
+        assertSame(arrayParameter, firstInvocation.getParameters()[6]);
+        // Second invocation should contain only the changed range of the array, and the changed integer
+        Object[] secondParameters = sentMethodInvocations.getAllValues().get(1).getParameters();
+        assertEquals(8, secondParameters.length);
+        assertEquals(firstInvocation.getParameters()[0], secondParameters[1]);
+        assertEquals(3, secondParameters[3]);
+        assertEquals(5, secondParameters[4]);
+        assertArrayEquals(new int[] { 1, 2 }, (int[])secondParameters[5]);
+        assertEquals(4, secondParameters[6]);
+        assertEquals(12346, secondParameters[7]);
+        // Third invocation should contain no parameters, as none have changed
+        Object[] thirdParameters = sentMethodInvocations.getAllValues().get(2).getParameters();
+        assertEquals(3, thirdParameters.length);
+        assertEquals(secondParameters[0], thirdParameters[1]);
+        // Invocation following Reset() should contain all parameters in full
+        Object[] fourthParameters = sentMethodInvocations.getAllValues().get(3).getParameters();
+        assertEquals(9, fourthParameters.length);
+        assertEquals(0L, fourthParameters[1]);
+    }
+    
+    @Test
+    public void InvokeVoidMethodDeltaCacheTcpRemoteSenderPool() throws Exception {
+        TcpRemoteSenderPool mockSenderPool = mock(TcpRemoteSenderPool.class);
+        testMethodInvocationRemoteSender = new MethodInvocationRemoteSender(mockMethodInvocationSerializer, mockSenderPool, mockRemoteReceiver);
+        ((MethodInvocationRemoteSender)testMethodInvocationRemoteSender).setDeltaCache(new ParameterDeltaCache());
+        try {
+            testMethodInvocationRemoteSender.InvokeVoidMethod(testVoidMethodInvocation);
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            verifyNoMoreInteractions(mockSenderPool);
+            verifyNoMoreInteractions(mockRemoteReceiver);
+            assertTrue(e.getCause().getMessage().contains("A ParameterDeltaCache or SessionTokenDictionary cannot be used with a TcpRemoteSenderPool, as consecutive messages may be sent on different connections."));
+        }
+    }
+    
+    @Test
+    public void InvokeVoidMethodSendExceptionRollsBackTokens() throws Exception {
+        // Tests that names first written in a method invocation which fails to send are written in full again in the next method invocation
+        BinaryMethodInvocationSerializer tokenSerializer = new BinaryMethodInvocationSerializer(new SerializerOperationMap());
+        tokenSerializer.setTokenDictionary(new SessionTokenDictionary());
+        MethodInvocationRemoteSender testTokenRemoteSender = new MethodInvocationRemoteSender(tokenSerializer, mockRemoteSender, mockRemoteReceiver);
+        doThrow(new Exception("Mock Send Failure")).doNothing().when(mockRemoteSender).Send(anyString());
+        when(mockRemoteReceiver.Receive()).thenReturn(tokenSerializer.getVoidReturnValue());
+        MethodInvocation tokenMethodInvocation = new MethodInvocation("TestMethodWithLongName");
+        
+        try {
+            testTokenRemoteSender.InvokeVoidMethod(tokenMethodInvocation);
+            fail("Exception was not thrown.");
+        }
+        catch (Exception e) {
+            assertTrue(e.getCause().getMessage().contains("Mock Send Failure"));
+        }
+        testTokenRemoteSender.InvokeVoidMethod(tokenMethodInvocation);
+        testTokenRemoteSender.InvokeVoidMethod(tokenMethodInvocation);
+        
+        ArgumentCaptor<String> sentMessages = ArgumentCaptor.forClass(String.class);
+        verify(mockRemoteSender, times(3)).Send(sentMessages.capture());
+        // The second method invocation should contain the method name in full, and the third only its token
+        assertEquals(sentMessages.getAllValues().get(0).length(), sentMessages.getAllValues().get(1).length());
+        assertTrue(sentMessages.getAllValues().get(2).length() < sentMessages.getAllValues().get(1).length());
+        BinaryMethodInvocationSerializer receiverSerializer = new BinaryMethodInvocationSerializer(new SerializerOperationMap());
+        receiverSerializer.setTokenDictionary(new SessionTokenDictionary());
+        assertEquals("TestMethodWithLongName", receiverSerializer.Deserialize(sentMessages.getAllValues().get(1)).getName());
+        assertEquals("TestMethodWithLongName", receiverSerializer.Deserialize(sentMessages.getAllValues().get(2)).getName());
+    }
+    
+    @Test
+    public void InvokeMethodDeltaCacheExceptionSendsInFull() throws Exception {
+        ((MethodInvocationRemoteSender)testMethodInvocationRemoteSender).setDeltaCache(new ParameterDeltaCache());
+        when(mockMethodInvocationSerializer.Serialize(any(IMethodInvocation.class))).thenReturn(testSerializedMethodInvocation);
+        when(mockMethodInvocationSerializer.DeserializeReturnValue(testSerializedReturnValue)).thenReturn(testReturnValue);
+        when(mockRemoteReceiver.Receive()).thenReturn(testSerializedReturnValue).thenThrow(new Exception("Mock Receive Failure")).thenReturn(testSerializedReturnValue);
+        
+        testMethodInvocationRemoteSender.InvokeMethod(testMethodInvocation);
+        try {
+            testMethodInvocationRemoteSender.InvokeMethod(testMethodInvocation);
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e.getMessage().contains("Failed to invoke method."));
+        }
+        Object returnValue = testMethodInvocationRemoteSender.InvokeMethod(testMethodInvocation);
+        
+        ArgumentCaptor<IMethodInvocation> sentMethodInvocations = ArgumentCaptor.forClass(IMethodInvocation.class);
+        verify(mockMethodInvocationSerializer, times(3)).Serialize(sentMethodInvocations.capture());
+        assertEquals(String.class, sentMethodInvocations.getAllValues().get(0).getReturnType());
+        // Second invocation should contain no parameters, as none have changed
+        assertEquals(3, sentMethodInvocations.getAllValues().get(1).getParameters().length);
+        // Invocation following the failure should contain all parameters in full
+        assertEquals(0L, sentMethodInvocations.getAllValues().get(2).getParameters()[1]);
+        assertEquals(9, sentMethodInvocations.getAllValues().get(2).getParameters().length);
+        assertEquals(testReturnValue, returnValue);
+    }
+    
+    @Test
+    public void InvokeMethodCorrelationIdsReturnValuesOutOfOrderSuccessTests() throws Exception {
+        final MethodInvocationRemoteSender testCorrelatedRemoteSender = new MethodInvocationRemoteSender(mockMethodInvocationSerializer, mockRemoteSender, mockRemoteReceiver);
+        final MethodInvocation secondTestMethodInvocation = new MethodInvocation("SecondTestMethod", new Object[] { "DEF" }, String.class);
+        final LinkedBlockingQueue<String> receivedMessages = new LinkedBlockingQueue<String>();
+        final List<String> sentMessages = Collections.synchronizedList(new ArrayList<String>());
+        
+        when(mockMethodInvocationSerializer.Serialize(testMethodInvocation)).thenReturn("<First/>");
+        when(mockMethodInvocationSerializer.Serialize(secondTestMethodInvocation)).thenReturn("<Second/>");
+        when(mockMethodInvocationSerializer.DeserializeReturnValue("<FirstReturnValue/>")).thenReturn("First Return Data");
+        when(mockMethodInvocationSerializer.DeserializeReturnValue("<SecondReturnValue/>")).thenReturn("Second Return Data");
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                sentMessages.add((String)invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(mockRemoteSender).Send(anyString());
+        when(mockRemoteReceiver.Receive()).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                return receivedMessages.take();
+            }
+        });
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                receivedMessages.offer("");
+                return null;
+            }
+        }).when(mockRemoteReceiver).CancelReceive();
+        
+        testCorrelatedRemoteSender.setCorrelationIdsEnabled(true);
+        ExecutorService invokeExecutor = Executors.newFixedThreadPool(2);
+        Future<Object> firstReturnValue = invokeExecutor.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return testCorrelatedRemoteSender.InvokeMethod(testMethodInvocation);
+            }
+        });
+        Future<Object> secondReturnValue = invokeExecutor.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return testCorrelatedRemoteSender.InvokeMethod(secondTestMethodInvocation);
+            }
+        });
+        verify(mockRemoteSender, timeout(5000).times(2)).Send(anyString());
+        // Return the values in the opposite order to the method invocations, using the correlation ids the method invocations were sent with
+        String firstCorrelationId = GetCorrelationId(sentMessages, "<First/>");
+        String secondCorrelationId = GetCorrelationId(sentMessages, "<Second/>");
+        assertFalse(firstCorrelationId.equals(secondCorrelationId));
+        receivedMessages.offer("\u0001" + secondCorrelationId + ":<SecondReturnValue/>");
+        receivedMessages.offer("\u0001" + firstCorrelationId + ":<FirstReturnValue/>");
+        
+        assertEquals("Second Return Data", secondReturnValue.get(5, TimeUnit.SECONDS));
+        assertEquals("First Return Data", firstReturnValue.get(5, TimeUnit.SECONDS));
+        testCorrelatedRemoteSender.CancelReceive();
+        invokeExecutor.shutdown();
+        verify(mockRemoteReceiver).CancelReceive();
+    }
+    
+    @Test
+    public void InvokeMethodCorrelationIdsReceiveException() throws Exception {
+        MethodInvocationRemoteSender testCorrelatedRemoteSender = new MethodInvocationRemoteSender(mockMethodInvocationSerializer, mockRemoteSender, mockRemoteReceiver);
+        
+        when(mockMethodInvocationSerializer.Serialize(testMethodInvocation)).thenReturn(testSerializedMethodInvocation);
+        doThrow(new Exception("Mock Receive Failure")).when(mockRemoteReceiver).Receive();
+        
+        testCorrelatedRemoteSender.setCorrelationIdsEnabled(true);
+        try {
+            testCorrelatedRemoteSender.InvokeMethod(testMethodInvocation);
+            fail("Exception was not thrown.");
+        }
+        catch (Exception e) {
+            assertTrue(e.getMessage().contains("Failed to invoke method."));
+            assertTrue(e.getCause().getMessage().contains("Failed to receive return value."));
+            assertTrue(e.getCause().getCause().getMessage().contains("Mock Receive Failure"));
+        }
+        
+        verify(mockRemoteSender).Send("\u00011:" + testSerializedMethodInvocation);
+    }
+    
+    @Test
+    public void InvokeVoidMethodCorrelationIdsCancelReceiveException() throws Exception {
+        final MethodInvocationRemoteSender testCorrelatedRemoteSender = new MethodInvocationRemoteSender(mockMethodInvocationSerializer, mockRemoteSender, mockRemoteReceiver);
+        final CountDownLatch cancelLatch = new CountDownLatch(1);
+        
+        when(mockMethodInvocationSerializer.Serialize(testVoidMethodInvocation)).thenReturn(testVoidSerializedMethodInvocation);
+        when(mockRemoteReceiver.Receive()).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                cancelLatch.await();
+                return "";
+            }
+        });
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                cancelLatch.countDown();
+                return null;
+            }
+        }).when(mockRemoteReceiver).CancelReceive();
+        
+        testCorrelatedRemoteSender.setCorrelationIdsEnabled(true);
+        ExecutorService invokeExecutor = Executors.newSingleThreadExecutor();
+        Future<Object> invokeResult = invokeExecutor.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                testCorrelatedRemoteSender.InvokeVoidMethod(testVoidMethodInvocation);
+                return null;
+            }
+        });
+        verify(mockRemoteSender, timeout(5000)).Send("\u00011:" + testVoidSerializedMethodInvocation);
+        testCorrelatedRemoteSender.CancelReceive();
+        try {
+            invokeResult.get(5, TimeUnit.SECONDS);
+            fail("Exception was not thrown.");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("Failed to invoke method."));
+            assertTrue(e.getCause().getCause().getMessage().contains("Receive operation was cancelled before the return value was received."));
+        }
+        finally {
+            invokeExecutor.shutdown();
+        }
+    }
+    
+    @Test
+    public void InvalidReturnValueTimeoutArgument() throws Exception {
+        try {
+            new MethodInvocationRemoteSender(mockMethodInvocationSerializer, mockRemoteSender, mockRemoteReceiver).setReturnValueTimeout(-1);
+            fail("Exception was not thrown.");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Argument 'returnValueTimeout' must be greater than or equal to 0."));
+        }
+    }
+    
+    @Test
+    public void InvokeMethodAsyncCorrelationIdsNotEnabled() throws Exception {
+        try {
+            testMethodInvocationRemoteSender.InvokeMethodAsync(testMethodInvocation);
+            fail("Exception was not thrown.");
+        }
+        catch (Exception e) {
+            assertTrue(e.getMessage().contains("Methods can only be invoked asynchronously when correlation ids are enabled."));
+        }
+        verifyNoMoreInteractions(mockRemoteSender);
+        verifyNoMoreInteractions(mockRemoteReceiver);
+    }
+    
+    @Test
+    public void InvokeMethodAsyncSuccessTests() throws Exception {
+        MethodInvocationRemoteSender testCorrelatedRemoteSender = new MethodInvocationRemoteSender(mockMethodInvocationSerializer, mockRemoteSender, mockRemoteReceiver);
+        LinkedBlockingQueue<String> receivedMessages = new LinkedBlockingQueue<String>();
+        SetupQueuedReceive(receivedMessages);
+        when(mockMethodInvocationSerializer.Serialize(testMethodInvocation)).thenReturn(testSerializedMethodInvocation);
+        when(mockMethodInvocationSerializer.DeserializeReturnValue(testSerializedReturnValue)).thenReturn(testReturnValue);
+        
+        testCorrelatedRemoteSender.setCorrelationIdsEnabled(true);
+        CompletableFuture<Object> returnValue = testCorrelatedRemoteSender.InvokeMethodAsync(testMethodInvocation);
+        verify(mockRemoteSender, timeout(5000)).Send("\u00011:" + testSerializedMethodInvocation);
+        assertFalse(returnValue.isDone());
+        receivedMessages.offer("\u00011:" + testSerializedReturnValue);
+        
+        assertEquals(testReturnValue, returnValue.get(5, TimeUnit.SECONDS));
+        testCorrelatedRemoteSender.CancelReceive();
+    }
+    
+    @Test
+    public void InvokeVoidMethodAsyncSuccessTests() throws Exception {
+        MethodInvocationRemoteSender testCorrelatedRemoteSender = new MethodInvocationRemoteSender(mockMethodInvocationSerializer, mockRemoteSender, mockRemoteReceiver);
+        LinkedBlockingQueue<String> receivedMessages = new LinkedBlockingQueue<String>();
+        SetupQueuedReceive(receivedMessages);
+        when(mockMethodInvocationSerializer.Serialize(testVoidMethodInvocation)).thenReturn(testVoidSerializedMethodInvocation);
+        when(mockMethodInvocationSerializer.getVoidReturnValue()).thenReturn(testVoidSerializedReturnValue);
+        
+        testCorrelatedRemoteSender.setCorrelationIdsEnabled(true);
+        CompletableFuture<Void> firstReturnValue = testCorrelatedRemoteSender.InvokeVoidMethodAsync(testVoidMethodInvocation);
+        CompletableFuture<Void> secondReturnValue = testCorrelatedRemoteSender.InvokeVoidMethodAsync(testVoidMethodInvocation);
+        receivedMessages.offer("\u00012:" + testVoidSerializedReturnValue);
+        receivedMessages.offer("\u00011:<NonVoid/>");
+        
+        assertNull(secondReturnValue.get(5, TimeUnit.SECONDS));
+        try {
+            firstReturnValue.get(5, TimeUnit.SECONDS);
+            fail("Exception was not thrown.");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("Invocation of void method returned non-void."));
+        }
+        testCorrelatedRemoteSender.CancelReceive();
+        verify(mockRemoteSender, timeout(5000)).Send("\u00011:" + testVoidSerializedMethodInvocation);
+        verify(mockRemoteSender, timeout(5000)).Send("\u00012:" + testVoidSerializedMethodInvocation);
+    }
+    
+    @Test
+    public void InvokeMethodAsyncDoesNotWaitForSendSuccessTests() throws Exception {
+        // Tests that InvokeMethodAsync() returns while a method invocation is being sent, and that subsequent method invocations are sent in order once the send operation completes
+        MethodInvocationRemoteSender testCorrelatedRemoteSender = new MethodInvocationRemoteSender(mockMethodInvocationSerializer, mockRemoteSender, mockRemoteReceiver);
+        LinkedBlockingQueue<String> receivedMessages = new LinkedBlockingQueue<String>();
+        SetupQueuedReceive(receivedMessages);
+        when(mockMethodInvocationSerializer.Serialize(testMethodInvocation)).thenReturn(testSerializedMethodInvocation);
+        when(mockMethodInvocationSerializer.DeserializeReturnValue(testSerializedReturnValue)).thenReturn(testReturnValue);
+        final CountDownLatch sendStartedSignal = new CountDownLatch(1);
+        final CountDownLatch sendCompleteSignal = new CountDownLatch(1);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                sendStartedSignal.countDown();
+                sendCompleteSignal.await();
+                return null;
+            }
+        }).when(mockRemoteSender).Send("\u00011:" + testSerializedMethodInvocation);
+        
+        testCorrelatedRemoteSender.setCorrelationIdsEnabled(true);
+        CompletableFuture<Object> firstReturnValue = testCorrelatedRemoteSender.InvokeMethodAsync(testMethodInvocation);
+        assertTrue(sendStartedSignal.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Object> secondReturnValue = testCorrelatedRemoteSender.InvokeMethodAsync(testMethodInvocation);
+        assertFalse(firstReturnValue.isDone());
+        assertFalse(secondReturnValue.isDone());
+        verify(mockRemoteSender, never()).Send("\u00012:" + testSerializedMethodInvocation);
+        
+        sendCompleteSignal.countDown();
+        verify(mockRemoteSender, timeout(5000)).Send("\u00012:" + testSerializedMethodInvocation);
+        receivedMessages.offer("\u00011:" + testSerializedReturnValue);
+        receivedMessages.offer("\u00012:" + testSerializedReturnValue);
+        assertEquals(testReturnValue, firstReturnValue.get(5, TimeUnit.SECONDS));
+        assertEquals(testReturnValue, secondReturnValue.get(5, TimeUnit.SECONDS));
+        testCorrelatedRemoteSender.CancelReceive();
+    }
+    
+    @Test
+    public void InvokeMethodAsyncSendException() throws Exception {
+        MethodInvocationRemoteSender testCorrelatedRemoteSender = new MethodInvocationRemoteSender(mockMethodInvocationSerializer, mockRemoteSender, mockRemoteReceiver);
+        SetupQueuedReceive(new LinkedBlockingQueue<String>());
+        when(mockMethodInvocationSerializer.Serialize(testMethodInvocation)).thenReturn(testSerializedMethodInvocation);
+        doThrow(new Exception("Mock Send Failure")).when(mockRemoteSender).Send("\u00011:" + testSerializedMethodInvocation);
+        
+        testCorrelatedRemoteSender.setCorrelationIdsEnabled(true);
+        CompletableFuture<Object> returnValue = testCorrelatedRemoteSender.InvokeMethodAsync(testMethodInvocation);
+        
+        try {
+            returnValue.get(5, TimeUnit.SECONDS);
+            fail("Exception was not thrown.");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("Failed to invoke method."));
+            assertTrue(e.getCause().getCause().getMessage().contains("Mock Send Failure"));
+        }
+        testCorrelatedRemoteSender.CancelReceive();
+    }
+    
+    @Test
+    public void InvokeMethodAsyncTimeoutException() throws Exception {
+        MethodInvocationRemoteSender testCorrelatedRemoteSender = new MethodInvocationRemoteSender(mockMethodInvocationSerializer, mockRemoteSender, mockRemoteReceiver);
+        LinkedBlockingQueue<String> receivedMessages = new LinkedBlockingQueue<String>();
+        SetupQueuedReceive(receivedMessages);
+        when(mockMethodInvocationSerializer.Serialize(testMethodInvocation)).thenReturn(testSerializedMethodInvocation);
+        when(mockMethodInvocationSerializer.DeserializeReturnValue(testSerializedReturnValue)).thenReturn(testReturnValue);
+        
+        testCorrelatedRemoteSender.setCorrelationIdsEnabled(true);
+        testCorrelatedRemoteSender.setReturnValueTimeout(20);
+        CompletableFuture<Object> returnValue = testCorrelatedRemoteSender.InvokeMethodAsync(testMethodInvocation);
+        try {
+            returnValue.get(5, TimeUnit.SECONDS);
+            fail("Exception was not thrown.");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("Failed to invoke method."));
+            assertTrue(e.getCause().getCause() instanceof java.util.concurrent.TimeoutException);
+            assertTrue(e.getCause().getCause().getMessage().contains("Failed to receive return value within timeout period of 20 milliseconds."));
+        }
+        
+        // The return value received after the timeout is discarded, and does not affect subsequent method invocations
+        receivedMessages.offer("\u00011:" + testSerializedReturnValue);
+        CompletableFuture<Object> secondReturnValue = testCorrelatedRemoteSender.InvokeMethodAsync(testMethodInvocation);
+        receivedMessages.offer("\u00012:" + testSerializedReturnValue);
+        assertEquals(testReturnValue, secondReturnValue.get(5, TimeUnit.SECONDS));
+        testCorrelatedRemoteSender.CancelReceive();
+    }
+    
+    @Test
+    public void InvokeMethodAsyncCancelSuccessTests() throws Exception {
+        MethodInvocationRemoteSender testCorrelatedRemoteSender = new MethodInvocationRemoteSender(mockMethodInvocationSerializer, mockRemoteSender, mockRemoteReceiver);
+        LinkedBlockingQueue<String> receivedMessages = new LinkedBlockingQueue<String>();
+        SetupQueuedReceive(receivedMessages);
+        when(mockMethodInvocationSerializer.Serialize(testMethodInvocation)).thenReturn(testSerializedMethodInvocation);
+        when(mockMethodInvocationSerializer.DeserializeReturnValue(testSerializedReturnValue)).thenReturn(testReturnValue);
+        
+        testCorrelatedRemoteSender.setCorrelationIdsEnabled(true);
+        CompletableFuture<Object> returnValue = testCorrelatedRemoteSender.InvokeMethodAsync(testMethodInvocation);
+        assertTrue(returnValue.cancel(true));
+        receivedMessages.offer("\u00011:" + testSerializedReturnValue);
+        CompletableFuture<Object> secondReturnValue = testCorrelatedRemoteSender.InvokeMethodAsync(testMethodInvocation);
+        receivedMessages.offer("\u00012:" + testSerializedReturnValue);
+        
+        assertEquals(testReturnValue, secondReturnValue.get(5, TimeUnit.SECONDS));
+        assertTrue(returnValue.isCancelled());
+        // Only the return value of the second method invocation is deserialized
+        verify(mockMethodInvocationSerializer, times(1)).DeserializeReturnValue(testSerializedReturnValue);
+        testCorrelatedRemoteSender.CancelReceive();
+    }
+    
+    /**
+     * Sets up the mock receiver to return messages from the specified queue, and to return an empty message when the receive operation is cancelled.
+     * @param receivedMessages  The queue of messages to return.
+     */
+    private void SetupQueuedReceive(final LinkedBlockingQueue<String> receivedMessages) throws Exception {
+        when(mockRemoteReceiver.Receive()).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                return receivedMessages.take();
+            }
+        });
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                receivedMessages.offer("");
+                return null;
+            }
+        }).when(mockRemoteReceiver).CancelReceive();
+    }
+    
+    /**
+     * Finds the correlation id that the specified serialized method invocation was sent with.
+     * @param sentMessages                The messages sent.
+     * @param serializedMethodInvocation  The serialized method invocation.
+     * @return                            The correlation id.
+     */
+    private String GetCorrelationId(List<String> sentMessages, String serializedMethodInvocation) {
+        synchronized (sentMessages) {
+            for (String currentMessage : sentMessages) {
+                if (currentMessage.endsWith(":" + serializedMethodInvocation) == true) {
+                    assertEquals('\u0001', currentMessage.charAt(0));
+                    return currentMessage.substring(1, currentMessage.indexOf(':'));
+                }
+            }
+        }
+        fail("Method invocation '" + serializedMethodInvocation + "' was not sent.");
+        return null;
+    }
 }
@@ -21,8 +21,11 @@ import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.Test;
 import net.alastairwyse.methodinvocationremoting.*;
+import java.io.*;
+import java.nio.*;
 import java.util.*;
 import java.math.*;
+import java.text.*;
 
 /**
  * Unit tests for class methodinvocationremoting.MethodInvocationSerializer.
@@ -208,6 +211,47 @@ public class MethodInvocationSerializerTests {
         }
     }
     
+    //******************************************************************************
+    // Serialization Context Reuse Tests
+    //******************************************************************************
+    
+    @Test
+    public void RepeatedSerializeSuccessTests() throws SerializationException, DeserializationException {
+        String expectedSerializedMethodInvocation = "<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocation><MethodName>TestMethod</MethodName><Parameters><Parameter><DataType>integer</DataType><Data>123</Data></Parameter></Parameters><ReturnType><DataType>string</DataType></ReturnType></MethodInvocation>";
+        MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod", new Object[] { (Integer)123 }, String.class);
+        
+        // Serializing and deserializing multiple times on the same thread reuses the same writer and reader, and should return the same result each time
+        for (int i = 0; i < 3; i = i + 1) {
+            assertEquals(expectedSerializedMethodInvocation, testMethodInvocationSerializer.Serialize(testMethodInvocation));
+            IMethodInvocation returnedMethodInvocation = testMethodInvocationSerializer.Deserialize(expectedSerializedMethodInvocation);
+            assertEquals("TestMethod", returnedMethodInvocation.getName());
+            assertEquals((Integer)123, (Integer)(returnedMethodInvocation.getParameters()[0]));
+            assertEquals(String.class, returnedMethodInvocation.getReturnType());
+        }
+    }
+    
+    @Test
+    public void SerializeAfterSerializationExceptionSuccessTests() throws SerializationException {
+        String expectedSerializedReturnValue = "<?xml version=\"1.0\" encoding=\"utf-8\"?><ReturnValue><DataType>integer</DataType><Data>789</Data></ReturnValue>";
+        
+        // Exception will occur part way through writing the document
+        try {
+            testMethodInvocationSerializer.Serialize(new MethodInvocation("TestMethod", new Object[] { (Integer)123, new HashMap<Integer, Integer>() }));
+            fail("Exception was not thrown.");
+        }
+        catch(SerializationException e) {
+        }
+        
+        assertEquals(expectedSerializedReturnValue, testMethodInvocationSerializer.SerializeReturnValue(789));
+    }
+    
+    @Test
+    public void VoidReturnValueRepeatedSuccessTests() throws SerializationException {
+        String firstVoidReturnValue = testMethodInvocationSerializer.getVoidReturnValue();
+        
+        assertSame(firstVoidReturnValue, testMethodInvocationSerializer.getVoidReturnValue());
+    }
+    
     //******************************************************************************
     // MethodInvocation Permutation Success Tests
     //******************************************************************************
@@ -508,6 +552,162 @@ public class MethodInvocationSerializerTests {
         assertEquals(3, returnValue.length);
     }
     
+    //******************************************************************************
+    // Packed Array Tests
+    //******************************************************************************
+    
+    @Test
+    public void SerializePrimitiveArrayParameterSuccessTests() throws SerializationException {
+        String expectedSerializedMethodInvocation = "<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocation><MethodName>TestMethod</MethodName><Parameters><Parameter><DataType>primitiveIntegerArray</DataType><Data><PackedElements>2:AQAAAP7///8=</PackedElements></Data></Parameter><Parameter><DataType>primitiveBoolArray</DataType><Data><PackedElements>0:</PackedElements></Data></Parameter></Parameters><ReturnType><DataType>primitiveDoubleArray</DataType></ReturnType></MethodInvocation>";
+        
+        String actualSerializedMethodInvocation = testMethodInvocationSerializer.Serialize(new MethodInvocation("TestMethod", new Object[] { new int[] { 1, -2 }, new boolean[0] }, double[].class));
+        assertEquals(expectedSerializedMethodInvocation, actualSerializedMethodInvocation);
+    }
+    
+    @Test
+    public void DeserializePrimitiveArrayParameterSuccessTests() throws DeserializationException {
+        String serializedMethodInvocation = "<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocation><MethodName>TestMethod</MethodName><Parameters><Parameter><DataType>primitiveIntegerArray</DataType><Data><PackedElements>2:AQAAAP7///8=</PackedElements></Data></Parameter><Parameter><DataType>primitiveBoolArray</DataType><Data><PackedElements>0:</PackedElements></Data></Parameter></Parameters><ReturnType><DataType>primitiveDoubleArray</DataType></ReturnType></MethodInvocation>";
+        
+        MethodInvocation returnedMethodInvocation = testMethodInvocationSerializer.Deserialize(serializedMethodInvocation);
+        assertArrayEquals(new int[] { 1, -2 }, (int[])returnedMethodInvocation.getParameters()[0]);
+        assertEquals(0, ((boolean[])returnedMethodInvocation.getParameters()[1]).length);
+        assertEquals(double[].class, returnedMethodInvocation.getReturnType());
+    }
+    
+    @Test
+    public void SerializeDeserializePrimitiveArraysSuccessTests() throws SerializationException, DeserializationException {
+        Object[] parameters = new Object[] {
+            new int[] { Integer.MIN_VALUE, 0, Integer.MAX_VALUE },
+            new long[] { Long.MIN_VALUE, Long.MAX_VALUE },
+            new double[] { -1.6976931348623213E-308, Double.NaN, Double.POSITIVE_INFINITY, 0.1 },
+            new float[] { 3.14159272E38f, Float.NEGATIVE_INFINITY },
+            new short[] { Short.MIN_VALUE, Short.MAX_VALUE },
+            new byte[] { Byte.MIN_VALUE, 0, Byte.MAX_VALUE },
+            new char[] { 'M', '<', '\u00e9' },
+            new boolean[] { true, false, true }
+        };
+        
+        MethodInvocation returnedMethodInvocation = testMethodInvocationSerializer.Deserialize(testMethodInvocationSerializer.Serialize(new MethodInvocation("TestMethod", parameters)));
+        
+        Object[] returnedParameters = returnedMethodInvocation.getParameters();
+        assertArrayEquals((int[])parameters[0], (int[])returnedParameters[0]);
+        assertArrayEquals((long[])parameters[1], (long[])returnedParameters[1]);
+        assertArrayEquals((double[])parameters[2], (double[])returnedParameters[2], 0.0);
+        assertArrayEquals((float[])parameters[3], (float[])returnedParameters[3], 0.0f);
+        assertArrayEquals((short[])parameters[4], (short[])returnedParameters[4]);
+        assertArrayEquals((byte[])parameters[5], (byte[])returnedParameters[5]);
+        assertArrayEquals((char[])parameters[6], (char[])returnedParameters[6]);
+        assertTrue(Arrays.equals((boolean[])parameters[7], (boolean[])returnedParameters[7]));
+    }
+    
+    @Test
+    public void DeserializePackedArrayInvalidElementCount() {
+        String serializedReturnValue = "<?xml version=\"1.0\" encoding=\"utf-8\"?><ReturnValue><DataType>primitiveIntegerArray</DataType><Data><PackedElements>3:AQAAAP7///8=</PackedElements></Data></ReturnValue>";
+        
+        try {
+            testMethodInvocationSerializer.DeserializeReturnValue(serializedReturnValue);
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e instanceof DeserializationException);
+            assertTrue(e.getCause().getMessage().contains("Packed array data length 8 does not match element count 3 of type 'int'."));
+        }
+    }
+    
+    @Test
+    public void SerializePackedBoxedArraySuccessTests() throws SerializationException {
+        String expectedSerializedReturnValue = "<?xml version=\"1.0\" encoding=\"utf-8\"?><ReturnValue><DataType>integerArray</DataType><Data><ElementDataType>integer</ElementDataType><PackedElements>2:ewAAADj+//8=</PackedElements></Data></ReturnValue>";
+        PackingMethodInvocationSerializer packingSerializer = new PackingMethodInvocationSerializer(new SerializerOperationMap());
+        
+        String actualSerializedReturnValue = packingSerializer.SerializeReturnValue(new Integer[] { 123, -456 });
+        assertEquals(expectedSerializedReturnValue, actualSerializedReturnValue);
+    }
+    
+    @Test
+    public void SerializePackedBoxedArrayContainingNullSuccessTests() throws SerializationException {
+        // Arrays containing null elements cannot be packed, so should be serialized as individual elements
+        String expectedSerializedReturnValue = "<?xml version=\"1.0\" encoding=\"utf-8\"?><ReturnValue><DataType>integerArray</DataType><Data><ElementDataType>integer</ElementDataType><Element><DataType>integer</DataType><Data>123</Data></Element><Element></Element></Data></ReturnValue>";
+        PackingMethodInvocationSerializer packingSerializer = new PackingMethodInvocationSerializer(new SerializerOperationMap());
+        
+        String actualSerializedReturnValue = packingSerializer.SerializeReturnValue(new Integer[] { 123, null });
+        assertEquals(expectedSerializedReturnValue, actualSerializedReturnValue);
+    }
+    
+    @Test
+    public void DeserializePackedBoxedArraySuccessTests() throws DeserializationException {
+        // Packed arrays should be deserialized regardless of whether the serializer is configured to pack boxed arrays
+        String serializedReturnValue = "<?xml version=\"1.0\" encoding=\"utf-8\"?><ReturnValue><DataType>integerArray</DataType><Data><ElementDataType>integer</ElementDataType><PackedElements>2:ewAAADj+//8=</PackedElements></Data></ReturnValue>";
+        
+        Integer[] returnValue = (Integer[])testMethodInvocationSerializer.DeserializeReturnValue(serializedReturnValue);
+        assertArrayEquals(new Integer[] { 123, -456 }, returnValue);
+    }
+    
+    @Test
+    public void SerializeDeserializePackedBoxedArraysSuccessTests() throws SerializationException, DeserializationException {
+        PackingMethodInvocationSerializer packingSerializer = new PackingMethodInvocationSerializer(new SerializerOperationMap());
+        Object[] parameters = new Object[] {
+            new Long[] { Long.MIN_VALUE, Long.MAX_VALUE },
+            new Double[] { -1.6976931348623213E-308, 1.6976931348623213E308 },
+            new Float[] { -3.14159261E-38f, 3.14159272E38f },
+            new Short[] { Short.MIN_VALUE, Short.MAX_VALUE },
+            new Byte[] { Byte.MIN_VALUE, Byte.MAX_VALUE }
+        };
+        
+        MethodInvocation returnedMethodInvocation = packingSerializer.Deserialize(packingSerializer.Serialize(new MethodInvocation("TestMethod", parameters)));
+        
+        for (int i = 0; i < parameters.length; i = i + 1) {
+            assertEquals(parameters[i].getClass(), returnedMethodInvocation.getParameters()[i].getClass());
+            assertArrayEquals((Object[])parameters[i], (Object[])returnedMethodInvocation.getParameters()[i]);
+        }
+    }
+    
+    @Test
+    public void SerializeDeserializePackedArraysInParallelSuccessTests() throws SerializationException, DeserializationException {
+        PackingMethodInvocationSerializer packingSerializer = new PackingMethodInvocationSerializer(new SerializerOperationMap());
+        PackingMethodInvocationSerializer parallelPackingSerializer = new PackingMethodInvocationSerializer(new SerializerOperationMap(), 10);
+        int[] intArray = new int[1001];
+        Double[] doubleArray = new Double[997];
+        char[] charArray = new char[9];
+        for (int i = 0; i < intArray.length; i = i + 1) {
+            intArray[i] = i * 7919;
+        }
+        for (int i = 0; i < doubleArray.length; i = i + 1) {
+            doubleArray[i] = i / 3.0;
+        }
+        MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod", new Object[] { intArray, doubleArray, charArray });
+        
+        // Output should be identical to that of serializing on a single thread
+        String serializedMethodInvocation = parallelPackingSerializer.Serialize(testMethodInvocation);
+        assertEquals(packingSerializer.Serialize(testMethodInvocation), serializedMethodInvocation);
+        
+        MethodInvocation returnedMethodInvocation = parallelPackingSerializer.Deserialize(serializedMethodInvocation);
+        assertArrayEquals(intArray, (int[])returnedMethodInvocation.getParameters()[0]);
+        assertArrayEquals(doubleArray, (Double[])returnedMethodInvocation.getParameters()[1]);
+        assertArrayEquals(charArray, (char[])returnedMethodInvocation.getParameters()[2]);
+    }
+    
+    @Test
+    public void SerializeDocumentsOfVaryingSizeSuccessTests() throws Exception {
+        // The output buffer is sized according to the sizes of previous documents for the same method, so check that documents larger and smaller than the previous document are serialized correctly
+        MethodInvocationSerializer[] serializers = new MethodInvocationSerializer[] { testMethodInvocationSerializer, new LightweightXmlMethodInvocationSerializer(new SerializerOperationMap(), false) };
+        int[] stringLengths = new int[] { 10, 50000, 3, 200000, 1, 70000 };
+        
+        for (MethodInvocationSerializer currentSerializer : serializers) {
+            for (int currentLength : stringLengths) {
+                char[] characters = new char[currentLength];
+                Arrays.fill(characters, 'x');
+                String testString = new String(characters);
+                MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod", new Object[] { testString }, String.class);
+                
+                assertEquals(testString, currentSerializer.Deserialize(currentSerializer.Serialize(testMethodInvocation)).getParameters()[0]);
+                ByteBuffer serializedMethodInvocation = currentSerializer.Serialize(testMethodInvocation, ByteBuffer.allocate(16));
+                serializedMethodInvocation.flip();
+                assertEquals(testString, currentSerializer.Deserialize(serializedMethodInvocation).getParameters()[0]);
+                assertEquals(testString, currentSerializer.DeserializeReturnValue(currentSerializer.SerializeReturnValue(testString)));
+            }
+        }
+    }
+    
     //******************************************************************************
     // Integer Parameter Tests
     //******************************************************************************
@@ -1001,6 +1201,569 @@ public class MethodInvocationSerializerTests {
         }
     }
     
+    //******************************************************************************
+    // Number and Date Formatting Tests
+    //******************************************************************************
+    
+    @Test
+    public void SerializeDoubleAndFloatSuccessTests() throws Exception {
+        // Values are chosen so that the shortest digit strings returned by Double.toString() are the same in all JDK versions
+        assertEquals("1E-1", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(0.1)));
+        assertEquals("3.333333333333333E-1", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(1.0 / 3)));
+        assertEquals("3.141592653589793E0", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(Math.PI)));
+        assertEquals("-2.718281828459045E0", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(-Math.E)));
+        assertEquals("1.7976931348623157E308", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(Double.MAX_VALUE)));
+        assertEquals("4.9E-324", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(Double.MIN_VALUE)));
+        assertEquals("2.2250738585072014E-308", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(Double.MIN_NORMAL)));
+        assertEquals("-1.6976931348623213E-308", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(-1.6976931348623213E-308)));
+        assertEquals("1.23456789E8", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(123456789.0)));
+        assertEquals("2E-3", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(0.002)));
+        assertEquals("1E0", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(1.0)));
+        assertEquals("-4.35E0", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(-4.35)));
+        
+        assertEquals("1.00000001E-1", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(0.1f)));
+        assertEquals("3.40282347E38", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(Float.MAX_VALUE)));
+        assertEquals("1.40129846E-45", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(Float.MIN_VALUE)));
+        assertEquals("-3.14159261E-38", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(-3.14159261E-38f)));
+        assertEquals("1.6777216E7", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(16777216f)));
+        assertEquals("-2.5E0", ExtractData(testMethodInvocationSerializer.SerializeReturnValue(-2.5f)));
+    }
+    
+    @Test
+    public void SerializeDoubleRoundingTests() throws Exception {
+        MethodInvocationSerializer precisionSerializer = new PrecisionMethodInvocationSerializer(new SerializerOperationMap(), 3, 3);
+        
+        // Rounding carries into the exponent
+        assertEquals("1E1", ExtractData(precisionSerializer.SerializeReturnValue(9.99951)));
+        // Shortest digits at the midpoint, but binary value above the midpoint
+        assertEquals("1.235E-1", ExtractData(precisionSerializer.SerializeReturnValue(0.12345)));
+        // Midpoint of integer value rounds up, consistent with DecimalFormat
+        assertEquals("8.049E4", ExtractData(precisionSerializer.SerializeReturnValue(80485.0)));
+        assertEquals("0E0", ExtractData(precisionSerializer.SerializeReturnValue(0.0)));
+        assertEquals("-0E0", ExtractData(precisionSerializer.SerializeReturnValue(-0.0)));
+        assertEquals("NaN", ExtractData(precisionSerializer.SerializeReturnValue(Double.NaN)));
+        assertEquals("-1.5E-3", ExtractData(precisionSerializer.SerializeReturnValue(-0.0015f)));
+        
+        // Exact midpoint rounds to even
+        precisionSerializer = new PrecisionMethodInvocationSerializer(new SerializerOperationMap(), 1, 1);
+        assertEquals("1.2E-1", ExtractData(precisionSerializer.SerializeReturnValue(0.125)));
+        assertEquals("3.8E-1", ExtractData(precisionSerializer.SerializeReturnValue(0.375)));
+        
+        // Test that the decimal point is always written when no fraction digits are allowed
+        precisionSerializer = new PrecisionMethodInvocationSerializer(new SerializerOperationMap(), 0, 0);
+        assertEquals("1.E3", ExtractData(precisionSerializer.SerializeReturnValue(1205.21875)));
+    }
+    
+    @Test
+    public void SerializeGregorianCalendarMatchesSimpleDateFormat() throws Exception {
+        Random random = new Random(1);
+        SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        
+        for (int i = 0; i < 2000; i = i + 1) {
+            GregorianCalendar calendarValue = new GregorianCalendar(TimeZone.getTimeZone((i % 2 == 0) ? "Asia/Tokyo" : "America/New_York"));
+            calendarValue.clear();
+            calendarValue.set(1 + random.nextInt(9998), random.nextInt(12), 1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60));
+            calendarValue.set(Calendar.MILLISECOND, random.nextInt(1000));
+            String expectedData = dateFormatter.format(calendarValue.getTime()) + "." + String.format("%03d", calendarValue.get(Calendar.MILLISECOND));
+            
+            String serializedReturnValue = testMethodInvocationSerializer.SerializeReturnValue(calendarValue);
+            assertEquals(expectedData, ExtractData(serializedReturnValue));
+            GregorianCalendar deserializedValue = (GregorianCalendar)testMethodInvocationSerializer.DeserializeReturnValue(serializedReturnValue);
+            assertEquals(calendarValue.getTimeInMillis(), deserializedValue.getTimeInMillis());
+        }
+    }
+    
+    @Test
+    public void DeserializeInvalidGregorianCalendar() {
+        String serializedReturnValue = "<?xml version=\"1.0\" encoding=\"utf-8\"?><ReturnValue><DataType>dateTime</DataType><Data>2013-0A-05T06:07:08.009</Data></ReturnValue>";
+        
+        try {
+            testMethodInvocationSerializer.DeserializeReturnValue(serializedReturnValue);
+            fail("Exception was not thrown.");
+        }
+        catch(Exception e) {
+            assertTrue(e instanceof DeserializationException);
+            assertTrue(e.getCause().getMessage().contains("Unparseable date '2013-0A-05T06:07:08.009'."));
+        }
+    }
+    
+    /**
+     * Returns the contents of the (first) Data element in the specified serialized XML document.
+     * @param serializedXml  The serialized XML document.
+     * @return               The contents of the Data element.
+     */
+    private String ExtractData(String serializedXml) {
+        int startIndex = serializedXml.indexOf("<Data>") + "<Data>".length();
+        return serializedXml.substring(startIndex, serializedXml.indexOf("</Data>", startIndex));
+    }
+    
+    //******************************************************************************
+    // Lightweight XML Tests
+    //******************************************************************************
+    
+    @Test
+    public void SerializeLightweightXmlMatchesDefault() throws Exception {
+        MethodInvocationSerializer lightweightSerializer = new LightweightXmlMethodInvocationSerializer(new SerializerOperationMap(), false);
+        MethodInvocation testMethodInvocation = CreateLightweightXmlTestMethodInvocation();
+        
+        assertEquals(testMethodInvocationSerializer.Serialize(testMethodInvocation), lightweightSerializer.Serialize(testMethodInvocation));
+        assertEquals(testMethodInvocationSerializer.SerializeReturnValue("<ReturnValue>&"), lightweightSerializer.SerializeReturnValue("<ReturnValue>&"));
+        assertEquals(testMethodInvocationSerializer.getVoidReturnValue(), lightweightSerializer.getVoidReturnValue());
+        
+        // Test with overridden element names
+        MethodInvocationSerializer shortNameSerializer = new LightweightXmlMethodInvocationSerializer(new SerializerOperationMap(), true);
+        assertEquals("<?xml version=\"1.0\" encoding=\"utf-8\"?><MI><MN>TestMethod</MN><Ps><P><DT>integerArray</DT><D><EDT>integer</EDT><E><DT>integer</DT><D>1</D></E><E></E></D></P></Ps><RT></RT></MI>", shortNameSerializer.Serialize(new MethodInvocation("TestMethod", new Object[] { new Integer[] { 1, null } })));
+    }
+    
+    @Test
+    public void DeserializeLightweightXmlSuccessTests() throws Exception {
+        MethodInvocationSerializer lightweightSerializer = new LightweightXmlMethodInvocationSerializer(new SerializerOperationMap(), false);
+        MethodInvocation testMethodInvocation = CreateLightweightXmlTestMethodInvocation();
+        
+        IMethodInvocation returnedMethodInvocation = lightweightSerializer.Deserialize(lightweightSerializer.Serialize(testMethodInvocation));
+        assertEquals("TestMethod", returnedMethodInvocation.getName());
+        assertEquals(String.class, returnedMethodInvocation.getReturnType());
+        Object[] parameters = returnedMethodInvocation.getParameters();
+        assertEquals("<TestString>This is a test string <>?/:\";''[]{}+=_-)(*&^%$#@!|\\</TestString>", parameters[0]);
+        assertEquals("", parameters[1]);
+        assertNull(parameters[2]);
+        assertEquals(-1.6976931348623213E-308, parameters[3]);
+        assertArrayEquals(new String[] { "\u00e9\u4e2d", "", null }, (String[])parameters[4]);
+        assertEquals(new BigDecimal("40958609456.39898479845"), parameters[5]);
+        assertEquals("\ud83d\ude00 line1\nline2", parameters[6]);
+        
+        // Test with overridden element names
+        MethodInvocationSerializer shortNameSerializer = new LightweightXmlMethodInvocationSerializer(new SerializerOperationMap(), true);
+        returnedMethodInvocation = shortNameSerializer.Deserialize("<?xml version=\"1.0\" encoding=\"utf-8\"?><MI><MN>TestMethod</MN><Ps><P><DT>integerArray</DT><D><EDT>integer</EDT><E><DT>integer</DT><D>1</D></E><E></E></D></P></Ps><RT></RT></MI>");
+        assertArrayEquals(new Integer[] { 1, null }, (Integer[])returnedMethodInvocation.getParameters()[0]);
+        assertEquals("abc", shortNameSerializer.DeserializeReturnValue(shortNameSerializer.SerializeReturnValue("abc")));
+    }
+    
+    @Test
+    public void DeserializeLightweightXmlMatchesDefault() throws Exception {
+        MethodInvocationSerializer lightweightSerializer = new LightweightXmlMethodInvocationSerializer(new SerializerOperationMap(), false);
+        // Document containing CDATA, character and entity references, line breaks, and empty elements
+        String serializedMethodInvocation = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\r\n<MethodInvocation><MethodName>Test<![CDATA[<Method>]]>&#x41;&#66;</MethodName><Parameters><Parameter><DataType>string</DataType><Data>a\r\nb&amp;<![CDATA[\r]]>&#13;</Data></Parameter><Parameter/><Parameter><DataType>string</DataType><Data><Empty/></Data></Parameter></Parameters><ReturnType/></MethodInvocation>";
+        
+        IMethodInvocation expectedMethodInvocation = testMethodInvocationSerializer.Deserialize(serializedMethodInvocation);
+        IMethodInvocation returnedMethodInvocation = lightweightSerializer.Deserialize(serializedMethodInvocation);
+        assertEquals("Test<Method>AB", returnedMethodInvocation.getName());
+        assertEquals(expectedMethodInvocation.getName(), returnedMethodInvocation.getName());
+        assertArrayEquals(expectedMethodInvocation.getParameters(), returnedMethodInvocation.getParameters());
+        assertEquals("a\nb&\n\r", returnedMethodInvocation.getParameters()[0]);
+        assertNull(returnedMethodInvocation.getParameters()[1]);
+        assertEquals("", returnedMethodInvocation.getParameters()[2]);
+        assertNull(returnedMethodInvocation.getReturnType());
+    }
+    
+    @Test
+    public void DeserializeLightweightXmlMalformedDocument() {
+        MethodInvocationSerializer lightweightSerializer = new LightweightXmlMethodInvocationSerializer(new SerializerOperationMap(), false);
+        String[] malformedDocuments = new String[] { 
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocation><MethodName>TestMethod</MethodNameX></MethodInvocation>", 
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocation><MethodName>Test&unknown;</MethodName></MethodInvocation>", 
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocation><MethodName>TestMethod</MethodName><Parameters>", 
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?><!DOCTYPE MethodInvocation [<!ENTITY x \"y\">]><MethodInvocation></MethodInvocation>", 
+            "" 
+        };
+        
+        for (String currentDocument : malformedDocuments) {
+            try {
+                lightweightSerializer.Deserialize(currentDocument);
+                fail("Exception was not thrown for document '" + currentDocument + "'.");
+            }
+            catch(Exception e) {
+                assertTrue(e instanceof DeserializationException);
+                assertTrue(e.getMessage().contains("Failed to deserialize method invocation."));
+            }
+        }
+    }
+    
+    /**
+     * Creates a method invocation with parameters containing characters which require escaping in XML, non-ASCII characters, and null and empty values.
+     * @return  The method invocation.
+     */
+    private MethodInvocation CreateLightweightXmlTestMethodInvocation() {
+        Object[] parameters = new Object[] { 
+            "<TestString>This is a test string <>?/:\";''[]{}+=_-)(*&^%$#@!|\\</TestString>", 
+            "", 
+            null, 
+            -1.6976931348623213E-308, 
+            new String[] { "\u00e9\u4e2d", "", null }, 
+            new BigDecimal("40958609456.39898479845"), 
+            "\ud83d\ude00 line1\nline2" 
+        };
+        return new MethodInvocation("TestMethod", parameters, String.class);
+    }
+    
+    //******************************************************************************
+    // Byte Serialization Tests
+    //******************************************************************************
+    
+    @Test
+    public void SerializeBytesMatchesStringSerialization() throws Exception {
+        MethodInvocation testMethodInvocation = CreateLightweightXmlTestMethodInvocation();
+        byte[] expectedBytes = testMethodInvocationSerializer.Serialize(testMethodInvocation).getBytes("UTF-8");
+        
+        // Serialize to a buffer which is too small and has existing content, so that it is expanded and the existing content retained
+        ByteBuffer outputBuffer = ByteBuffer.allocate(16);
+        outputBuffer.put(new byte[] { 1, 2, 3 });
+        ByteBuffer returnedBuffer = testMethodInvocationSerializer.Serialize(testMethodInvocation, outputBuffer);
+        assertNotSame(outputBuffer, returnedBuffer);
+        assertEquals(3 + expectedBytes.length, returnedBuffer.position());
+        returnedBuffer.flip();
+        assertEquals(1, returnedBuffer.get());
+        assertEquals(2, returnedBuffer.get());
+        assertEquals(3, returnedBuffer.get());
+        assertEquals(ByteBuffer.wrap(expectedBytes), returnedBuffer);
+        
+        // Serialize to a buffer which is large enough
+        outputBuffer = ByteBuffer.allocateDirect(expectedBytes.length);
+        returnedBuffer = testMethodInvocationSerializer.Serialize(testMethodInvocation, outputBuffer);
+        assertSame(outputBuffer, returnedBuffer);
+        returnedBuffer.flip();
+        assertEquals(ByteBuffer.wrap(expectedBytes), returnedBuffer);
+        
+        // Serialize to a stream, using the lightweight XML writer
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new LightweightXmlMethodInvocationSerializer(new SerializerOperationMap(), false).Serialize(testMethodInvocation, outputStream);
+        assertArrayEquals(expectedBytes, outputStream.toByteArray());
+        
+        // Serialize return values
+        expectedBytes = testMethodInvocationSerializer.SerializeReturnValue("\u00e9<ReturnValue>").getBytes("UTF-8");
+        returnedBuffer = testMethodInvocationSerializer.SerializeReturnValue("\u00e9<ReturnValue>", ByteBuffer.allocate(0));
+        returnedBuffer.flip();
+        assertEquals(ByteBuffer.wrap(expectedBytes), returnedBuffer);
+        outputStream = new ByteArrayOutputStream();
+        testMethodInvocationSerializer.SerializeReturnValue("\u00e9<ReturnValue>", outputStream);
+        assertArrayEquals(expectedBytes, outputStream.toByteArray());
+    }
+    
+    @Test
+    public void DeserializeBytesSuccessTests() throws Exception {
+        MethodInvocation testMethodInvocation = CreateLightweightXmlTestMethodInvocation();
+        MethodInvocationSerializer lightweightSerializer = new LightweightXmlMethodInvocationSerializer(new SerializerOperationMap(), false);
+        byte[] serializedMethodInvocation = testMethodInvocationSerializer.Serialize(testMethodInvocation).getBytes("UTF-8");
+        
+        for (MethodInvocationSerializer currentSerializer : new MethodInvocationSerializer[] { testMethodInvocationSerializer, lightweightSerializer }) {
+            // Deserialize from a buffer containing other data before and after the document
+            ByteBuffer inputBuffer = ByteBuffer.allocate(serializedMethodInvocation.length + 2);
+            inputBuffer.put((byte)1);
+            inputBuffer.put(serializedMethodInvocation);
+            inputBuffer.put((byte)2);
+            inputBuffer.position(1);
+            inputBuffer.limit(1 + serializedMethodInvocation.length);
+            IMethodInvocation returnedMethodInvocation = currentSerializer.Deserialize(inputBuffer);
+            assertEquals(inputBuffer.limit(), inputBuffer.position());
+            assertEquals("TestMethod", returnedMethodInvocation.getName());
+            assertEquals(String.class, returnedMethodInvocation.getReturnType());
+            assertArrayEquals((String[])testMethodInvocation.getParameters()[4], (String[])returnedMethodInvocation.getParameters()[4]);
+            assertEquals(testMethodInvocation.getParameters()[6], returnedMethodInvocation.getParameters()[6]);
+            
+            // Deserialize from a stream
+            returnedMethodInvocation = currentSerializer.Deserialize(new ByteArrayInputStream(serializedMethodInvocation));
+            assertEquals("TestMethod", returnedMethodInvocation.getName());
+            assertEquals(testMethodInvocation.getParameters()[0], returnedMethodInvocation.getParameters()[0]);
+            
+            // Deserialize return values
+            byte[] serializedReturnValue = currentSerializer.SerializeReturnValue("\u00e9<ReturnValue>").getBytes("UTF-8");
+            assertEquals("\u00e9<ReturnValue>", currentSerializer.DeserializeReturnValue(ByteBuffer.wrap(serializedReturnValue)));
+            assertEquals("\u00e9<ReturnValue>", currentSerializer.DeserializeReturnValue(new ByteArrayInputStream(serializedReturnValue)));
+        }
+    }
+    
+    @Test
+    public void DeserializeBytesMalformedDocument() throws Exception {
+        String malformedDocument = "<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocation><MethodName>TestMethod</MethodNameX></MethodInvocation>";
+        
+        try {
+            testMethodInvocationSerializer.Deserialize(ByteBuffer.wrap(malformedDocument.getBytes("UTF-8")));
+            fail("Exception was not thrown.");
+        }
+        catch (DeserializationException e) {
+            assertTrue(e.getMessage().contains("Failed to deserialize method invocation."));
+            assertEquals(malformedDocument, e.getSerializedObject());
+        }
+        
+        try {
+            testMethodInvocationSerializer.DeserializeReturnValue(new ByteArrayInputStream(malformedDocument.getBytes("UTF-8")));
+            fail("Exception was not thrown.");
+        }
+        catch (DeserializationException e) {
+            assertTrue(e.getMessage().contains("Failed to deserialize return value."));
+            assertEquals(malformedDocument, e.getSerializedObject());
+        }
+    }
+    
+    //******************************************************************************
+    // Reflective Mapping Tests
+    //******************************************************************************
+    
+    @Test
+    public void AddReflectiveMappingNullParameters() {
+        try {
+            testMethodInvocationSerializer.AddReflectiveMapping(null, "testPoint");
+            fail("Exception was not thrown.");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Parameter 'nativeType' cannot be null."));
+        }
+        
+        try {
+            testMethodInvocationSerializer.AddReflectiveMapping(ReflectiveTestPoint.class, null);
+            fail("Exception was not thrown.");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Parameter 'serializedType' cannot be null."));
+        }
+    }
+    
+    @Test
+    public void AddReflectiveMappingNoDefaultConstructor() {
+        try {
+            testMethodInvocationSerializer.AddReflectiveMapping(ReflectiveTestNoDefaultConstructor.class, "noDefaultConstructor");
+            fail("Exception was not thrown.");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Type 'net.alastairwyse.methodinvocationremotingunittests.MethodInvocationSerializerTests$ReflectiveTestNoDefaultConstructor' does not have a constructor with no parameters."));
+        }
+    }
+    
+    @Test
+    public void AddReflectiveMappingInterface() {
+        try {
+            testMethodInvocationSerializer.AddReflectiveMapping(List.class, "list");
+            fail("Exception was not thrown.");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Type 'java.util.List' cannot be serialized reflectively as it is an interface, abstract class, array, or primitive type."));
+        }
+    }
+    
+    @Test
+    public void SerializeReflectiveMappingSuccessTests() throws Exception {
+        testMethodInvocationSerializer.AddReflectiveMapping(ReflectiveTestPoint.class, "testPoint");
+        String expectedSerializedData = "<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocation><MethodName>TestMethod</MethodName><Parameters><Parameter><DataType>testPoint</DataType><Data><term><DataType>integer</DataType><Data>12</Data></term><rate><DataType>double</DataType><Data>2.5E0</Data></rate><label></label></Data></Parameter></Parameters><ReturnType></ReturnType></MethodInvocation>";
+        
+        MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod", new Object[] { new ReflectiveTestPoint(12, 2.5, null) });
+        String serializedData = testMethodInvocationSerializer.Serialize(testMethodInvocation);
+        assertEquals(expectedSerializedData, serializedData);
+    }
+    
+    @Test
+    public void DeserializeReflectiveMappingSuccessTests() throws Exception {
+        MethodInvocationSerializer lightweightSerializer = new LightweightXmlMethodInvocationSerializer(new SerializerOperationMap(), true);
+        GregorianCalendar testCalendar = new GregorianCalendar(2015, 4, 1, 12, 43, 56);
+        ReflectiveTestCurve testCurve = new ReflectiveTestCurve();
+        testCurve.setCurrency("AUD");
+        testCurve.asOfDate = testCalendar;
+        testCurve.points = new ReflectiveTestPoint[] { new ReflectiveTestPoint(1, 0.25, "1M"), null, new ReflectiveTestPoint(12, -1.5, "1Y") };
+        testCurve.tags = new String[] { "a", "b" };
+        testCurve.description = "Transient";
+        
+        for (MethodInvocationSerializer currentSerializer : new MethodInvocationSerializer[] { testMethodInvocationSerializer, lightweightSerializer }) {
+            currentSerializer.AddReflectiveMapping(ReflectiveTestPoint.class, "testPoint");
+            currentSerializer.AddReflectiveMapping(ReflectiveTestCurve.class, "testCurve");
+            
+            MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod", new Object[] { testCurve, testCurve.points }, ReflectiveTestCurve.class);
+            IMethodInvocation returnedMethodInvocation = currentSerializer.Deserialize(currentSerializer.Serialize(testMethodInvocation));
+            
+            assertEquals(ReflectiveTestCurve.class, returnedMethodInvocation.getReturnType());
+            ReflectiveTestCurve returnedCurve = (ReflectiveTestCurve)returnedMethodInvocation.getParameters()[0];
+            assertEquals("AUD", returnedCurve.getCurrency());
+            assertEquals(testCalendar.getTimeInMillis(), returnedCurve.asOfDate.getTimeInMillis());
+            assertArrayEquals(testCurve.tags, returnedCurve.tags);
+            assertNull(returnedCurve.description);
+            assertNull(returnedCurve.primaryPoint);
+            assertEquals(3, returnedCurve.points.length);
+            assertEquals(1, returnedCurve.points[0].term);
+            assertEquals(0.25, returnedCurve.points[0].rate, 0.0);
+            assertEquals("1M", returnedCurve.points[0].label);
+            assertNull(returnedCurve.points[1]);
+            assertEquals(12, returnedCurve.points[2].term);
+            assertEquals(-1.5, returnedCurve.points[2].rate, 0.0);
+            ReflectiveTestPoint[] returnedPoints = (ReflectiveTestPoint[])returnedMethodInvocation.getParameters()[1];
+            assertEquals("1Y", returnedPoints[2].label);
+            
+            // Test the array as a return value
+            ReflectiveTestPoint[] returnedReturnValue = (ReflectiveTestPoint[])currentSerializer.DeserializeReturnValue(currentSerializer.SerializeReturnValue(testCurve.points));
+            assertEquals(-1.5, returnedReturnValue[2].rate, 0.0);
+        }
+    }
+    
+    @Test
+    public void DeserializeReflectiveMappingNullPrimitiveField() throws Exception {
+        testMethodInvocationSerializer.AddReflectiveMapping(ReflectiveTestPoint.class, "testPoint");
+        String testXml = "<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocation><MethodName>TestMethod</MethodName><Parameters><Parameter><DataType>testPoint</DataType><Data><term></term><rate><DataType>double</DataType><Data>2.5E0</Data></rate><label></label></Data></Parameter></Parameters><ReturnType></ReturnType></MethodInvocation>";
+        
+        try {
+            testMethodInvocationSerializer.Deserialize(testXml);
+            fail("Exception was not thrown.");
+        }
+        catch (DeserializationException e) {
+            assertTrue(e.getMessage().contains("Failed to deserialize method invocation."));
+            assertTrue(e.getCause().getMessage().contains("Failed to set the value of field 'term' of type 'net.alastairwyse.methodinvocationremotingunittests.MethodInvocationSerializerTests$ReflectiveTestPoint'."));
+        }
+    }
+    
+    //******************************************************************************
+    // Lazy Deserialization Tests
+    //******************************************************************************
+    
+    @Test
+    public void DeserializeLazilySuccessTests() throws Exception {
+        MethodInvocation testMethodInvocation = CreateLightweightXmlTestMethodInvocation();
+        String serializedMethodInvocation = testMethodInvocationSerializer.Serialize(testMethodInvocation);
+        
+        for (boolean useLightweightXml : new boolean[] { false, true }) {
+            MethodInvocationSerializer lazySerializer = new LazyMethodInvocationSerializer(new SerializerOperationMap(), useLightweightXml);
+            
+            // Test deserializing individual parameters followed by all parameters
+            MethodInvocation returnedMethodInvocation = lazySerializer.Deserialize(serializedMethodInvocation);
+            assertTrue(returnedMethodInvocation instanceof LazyMethodInvocation);
+            LazyMethodInvocation lazyMethodInvocation = (LazyMethodInvocation)returnedMethodInvocation;
+            assertEquals("TestMethod", lazyMethodInvocation.getName());
+            assertEquals(String.class, lazyMethodInvocation.getReturnType());
+            assertEquals(7, lazyMethodInvocation.getParameterCount());
+            assertFalse(lazyMethodInvocation.getParametersDeserialized());
+            String[] returnedStringArray = (String[])lazyMethodInvocation.getParameter(4);
+            assertArrayEquals((String[])testMethodInvocation.getParameters()[4], returnedStringArray);
+            assertNull(lazyMethodInvocation.getParameter(2));
+            assertEquals(testMethodInvocation.getParameters()[6], lazyMethodInvocation.getParameter(6));
+            assertFalse(lazyMethodInvocation.getParametersDeserialized());
+            Object[] returnedParameters = lazyMethodInvocation.getParameters();
+            assertTrue(lazyMethodInvocation.getParametersDeserialized());
+            assertEquals(7, returnedParameters.length);
+            assertSame(returnedStringArray, returnedParameters[4]);
+            assertSame(returnedParameters, lazyMethodInvocation.getParameters());
+            assertEquals(testMethodInvocation.getParameters()[0], returnedParameters[0]);
+            assertEquals(testMethodInvocation.getParameters()[1], returnedParameters[1]);
+            assertNull(returnedParameters[2]);
+            assertEquals(testMethodInvocation.getParameters()[3], returnedParameters[3]);
+            assertEquals(testMethodInvocation.getParameters()[5], returnedParameters[5]);
+            assertSame(returnedParameters[5], lazyMethodInvocation.getParameter(5));
+            
+            // Test deserializing from bytes, and modifying the buffer before the parameters are deserialized
+            byte[] serializedBytes = serializedMethodInvocation.getBytes("UTF-8");
+            ByteBuffer inputBuffer = ByteBuffer.wrap(serializedBytes);
+            lazyMethodInvocation = (LazyMethodInvocation)lazySerializer.Deserialize(inputBuffer);
+            assertEquals(inputBuffer.limit(), inputBuffer.position());
+            Arrays.fill(serializedBytes, (byte)0);
+            assertEquals("TestMethod", lazyMethodInvocation.getName());
+            assertEquals(testMethodInvocation.getParameters()[0], lazyMethodInvocation.getParameters()[0]);
+            lazyMethodInvocation = (LazyMethodInvocation)lazySerializer.Deserialize(new ByteArrayInputStream(serializedMethodInvocation.getBytes("UTF-8")));
+            assertEquals(testMethodInvocation.getParameters()[5], lazyMethodInvocation.getParameter(5));
+        }
+    }
+    
+    @Test
+    public void DeserializeLazilyNoParametersAndVoidReturnType() throws Exception {
+        MethodInvocationSerializer lazySerializer = new LazyMethodInvocationSerializer(new SerializerOperationMap(), false);
+        String testXml = "<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocation><MethodName>TestMethod</MethodName><Parameters></Parameters><ReturnType></ReturnType></MethodInvocation>";
+        
+        LazyMethodInvocation returnedMethodInvocation = (LazyMethodInvocation)lazySerializer.Deserialize(testXml);
+        assertEquals("TestMethod", returnedMethodInvocation.getName());
+        assertNull(returnedMethodInvocation.getReturnType());
+        assertEquals(0, returnedMethodInvocation.getParameterCount());
+        assertNull(returnedMethodInvocation.getParameters());
+        
+        try {
+            returnedMethodInvocation.getParameter(0);
+            fail("Exception was not thrown.");
+        }
+        catch (IndexOutOfBoundsException e) {
+            assertTrue(e.getMessage().contains("Parameter 'index' with value 0 is outside the range of parameters (0)."));
+        }
+    }
+    
+    @Test
+    public void DeserializeLazilyInvalidParameter() throws Exception {
+        MethodInvocationSerializer lazySerializer = new LazyMethodInvocationSerializer(new SerializerOperationMap(), false);
+        String testXml = "<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocation><MethodName>TestMethod</MethodName><Parameters><Parameter><DataType>string</DataType><Data>abc</Data></Parameter><Parameter><DataType>integer</DataType><Data>invalid</Data></Parameter></Parameters><ReturnType><DataType>string</DataType></ReturnType></MethodInvocation>";
+        
+        // The invalid parameter should not cause an exception until it is accessed
+        LazyMethodInvocation returnedMethodInvocation = (LazyMethodInvocation)lazySerializer.Deserialize(testXml);
+        assertEquals(2, returnedMethodInvocation.getParameterCount());
+        assertEquals(String.class, returnedMethodInvocation.getReturnType());
+        assertEquals("abc", returnedMethodInvocation.getParameter(0));
+        
+        try {
+            returnedMethodInvocation.getParameter(1);
+            fail("Exception was not thrown.");
+        }
+        catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("Failed to deserialize parameter at index 1 of method invocation 'TestMethod'."));
+            assertTrue(e.getCause() instanceof DeserializationException);
+            assertEquals(testXml, ((DeserializationException)e.getCause()).getSerializedObject());
+        }
+        
+        try {
+            returnedMethodInvocation.getParameters();
+            fail("Exception was not thrown.");
+        }
+        catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("Failed to deserialize parameters of method invocation 'TestMethod'."));
+            assertTrue(e.getCause().getMessage().contains("Failed to deserialize method invocation parameters."));
+        }
+    }
+    
+    @Test
+    public void DeserializeLazilyMalformedDocument() {
+        MethodInvocationSerializer lazySerializer = new LazyMethodInvocationSerializer(new SerializerOperationMap(), false);
+        String testXml = "<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocation><MethodName>TestMethod</MethodName><Parameters><Parameter><DataType>string</DataType><Data>abc</Data></Parameter></Parameters></MethodInvocation>";
+        
+        try {
+            lazySerializer.Deserialize(testXml);
+            fail("Exception was not thrown.");
+        }
+        catch (DeserializationException e) {
+            assertTrue(e.getMessage().contains("Failed to deserialize method invocation."));
+            assertEquals(testXml, e.getSerializedObject());
+        }
+    }
+    
+    @Test
+    public void SerializeAttachmentsSuccessTests() throws Exception {
+        byte[] attachmentData = new byte[] { 1, 2, 3, 4 };
+        Attachment byteArrayAttachment = new Attachment(attachmentData);
+        Attachment stringAttachment = new Attachment("ABC");
+        MethodInvocation testMethodInvocation = new MethodInvocation("TestMethod", new Object[] { byteArrayAttachment, "ABC", stringAttachment, byteArrayAttachment }, Attachment.class);
+        
+        ArrayList<Attachment> attachments = new ArrayList<Attachment>();
+        ByteBuffer serializedMethodInvocation = testMethodInvocationSerializer.Serialize(testMethodInvocation, ByteBuffer.allocate(256), attachments);
+        serializedMethodInvocation.flip();
+        // The repeated attachment should only be included once
+        assertEquals(2, attachments.size());
+        assertSame(byteArrayAttachment, attachments.get(0));
+        assertSame(stringAttachment, attachments.get(1));
+        
+        MethodInvocation returnedMethodInvocation = testMethodInvocationSerializer.Deserialize(serializedMethodInvocation, attachments);
+        assertEquals(4, returnedMethodInvocation.getParameters().length);
+        assertArrayEquals(attachmentData, ((Attachment)returnedMethodInvocation.getParameters()[0]).ToByteArray());
+        assertEquals("ABC", returnedMethodInvocation.getParameters()[1]);
+        assertEquals("ABC", ((Attachment)returnedMethodInvocation.getParameters()[2]).DecodeString());
+        assertSame(returnedMethodInvocation.getParameters()[0], returnedMethodInvocation.getParameters()[3]);
+        assertEquals(Attachment.class, returnedMethodInvocation.getReturnType());
+        
+        attachments.clear();
+        ByteBuffer serializedReturnValue = testMethodInvocationSerializer.SerializeReturnValue(stringAttachment, ByteBuffer.allocate(256), attachments);
+        serializedReturnValue.flip();
+        assertEquals(1, attachments.size());
+        assertEquals("ABC", ((Attachment)testMethodInvocationSerializer.DeserializeReturnValue(serializedReturnValue, attachments)).DecodeString());
+    }
+    
+    @Test
+    public void SerializeAttachmentWithoutAttachmentList() {
+        try {
+            testMethodInvocationSerializer.Serialize(new MethodInvocation("TestMethod", new Object[] { new Attachment("ABC") }));
+            fail("Exception was not thrown.");
+        }
+        catch (Exception e) {
+            assertTrue(e instanceof SerializationException);
+            assertTrue(e.getCause().getMessage().contains("Attachments can only be serialized by the overloads of methods Serialize() and SerializeReturnValue() which accept a list of attachments."));
+        }
+    }
+    
     //******************************************************************************
     // Multi Parameter Tests
     //******************************************************************************
@@ -1327,4 +2090,131 @@ public class MethodInvocationSerializerTests {
         // Test return type
         assertEquals(GregorianCalendar.class, returnedMethodInvocation.getReturnType());
     }
+    
+    /**
+     * Subclass of MethodInvocationSerializer which serializes boxed numeric arrays in packed form.
+     */
+    private class PackingMethodInvocationSerializer extends MethodInvocationSerializer {
+        
+        public PackingMethodInvocationSerializer(ISerializerOperationMap operationMap) {
+            super(operationMap);
+            packBoxedNumericArrays = true;
+        }
+        
+        public PackingMethodInvocationSerializer(ISerializerOperationMap operationMap, int parallelArrayThreshold) {
+            this(operationMap);
+            this.parallelArrayThreshold = parallelArrayThreshold;
+        }
+    }
+    
+    /**
+     * Subclass of MethodInvocationSerializer which uses the lightweight XML writer and reader, optionally with shortened XML element names.
+     */
+    private class LightweightXmlMethodInvocationSerializer extends MethodInvocationSerializer {
+        
+        public LightweightXmlMethodInvocationSerializer(ISerializerOperationMap operationMap, boolean shortElementNames) {
+            super(operationMap);
+            useLightweightXml = true;
+            if (shortElementNames == true) {
+                rootElementName = "MI";
+                methodNameElementName = "MN";
+                parametersElementName = "Ps";
+                parameterElementName = "P";
+                dataTypeElementName = "DT";
+                dataElementName = "D";
+                returnTypeElementName = "RT";
+                returnValueElementName = "RV";
+                arrayElementDataTypeElementName = "EDT";
+                arrayElementElementName = "E";
+            }
+        }
+    }
+    
+    /**
+     * Subclass of MethodInvocationSerializer which deserializes method invocation parameters lazily.
+     */
+    private class LazyMethodInvocationSerializer extends MethodInvocationSerializer {
+        
+        public LazyMethodInvocationSerializer(ISerializerOperationMap operationMap, boolean useLightweightXml) {
+            super(operationMap);
+            deserializeParametersLazily = true;
+            this.useLightweightXml = useLightweightXml;
+        }
+    }
+    
+    /**
+     * Subclass of MethodInvocationSerializer which serializes floating point numbers with the specified number of digits after the decimal point.
+     */
+    private class PrecisionMethodInvocationSerializer extends MethodInvocationSerializer {
+        
+        public PrecisionMethodInvocationSerializer(ISerializerOperationMap operationMap, int singleDigits, int doubleDigits) {
+            super(operationMap);
+            singleFloatingPointDigits = singleDigits;
+            doubleFloatingPointDigits = doubleDigits;
+        }
+    }
+    
+    /**
+     * Class serialized using a reflective mapping, containing primitive and nullable fields.
+     */
+    private static class ReflectiveTestPoint {
+        
+        private int term;
+        private double rate;
+        private String label;
+        
+        private ReflectiveTestPoint() {
+        }
+        
+        public ReflectiveTestPoint(int term, double rate, String label) {
+            this.term = term;
+            this.rate = rate;
+            this.label = label;
+        }
+    }
+    
+    /**
+     * Base class of ReflectiveTestCurve, containing a private field which can only be accessed through a property.
+     */
+    private static class ReflectiveTestCurveBase {
+        
+        private String currency;
+        
+        public String getCurrency() {
+            return currency;
+        }
+        
+        public void setCurrency(String currency) {
+            this.currency = currency;
+        }
+    }
+    
+    /**
+     * Class serialized using a reflective mapping, containing fields of other reflectively mapped types, arrays, and fields which should not be serialized.
+     */
+    private static class ReflectiveTestCurve extends ReflectiveTestCurveBase {
+        
+        private static int instanceCount = 0;
+        private GregorianCalendar asOfDate;
+        private ReflectiveTestPoint primaryPoint;
+        private ReflectiveTestPoint[] points;
+        private String[] tags;
+        private transient String description;
+        
+        public ReflectiveTestCurve() {
+            instanceCount = instanceCount + 1;
+        }
+    }
+    
+    /**
+     * Class which cannot be serialized using a reflective mapping, as it does not have a constructor with no parameters.
+     */
+    private static class ReflectiveTestNoDefaultConstructor {
+        
+        private int value;
+        
+        public ReflectiveTestNoDefaultConstructor(int value) {
+            this.value = value;
+        }
+    }
 }
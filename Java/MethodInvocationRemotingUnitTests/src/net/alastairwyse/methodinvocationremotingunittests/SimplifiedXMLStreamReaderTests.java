@@ -333,6 +333,34 @@ public class SimplifiedXMLStreamReaderTests {
         assertEquals("Test string with <embedded>XML tag</embedded>", text);
     }
     
+    @Test
+    public void ReadNextStartElementNameNodeNotElement() throws XMLStreamException {
+        SetupTestClass("<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocation><MethodName>TestMethod</MethodName></MethodInvocation>");
+        testSimplifiedXMLStreamReader.ReadStartElement("MethodInvocation");
+        testSimplifiedXMLStreamReader.ReadStartElement("MethodName");
+        try {
+            testSimplifiedXMLStreamReader.ReadNextStartElementName();
+            fail("Exception was not thrown.");
+        }
+        catch (Exception e) {
+            assertTrue(e.getMessage().contains("Node read was neither a start nor an end element."));
+        }
+    }
+    
+    @Test
+    public void ReadNextStartElementNameSuccessTests() throws XMLStreamException {
+        SetupTestClass("<?xml version=\"1.0\" encoding=\"utf-8\"?><MethodInvocation><MethodName/></MethodInvocation>");
+        String result = testSimplifiedXMLStreamReader.ReadNextStartElementName();
+        assertEquals("MethodInvocation", result);
+        assertEquals(1, testSimplifiedXMLStreamReader.getDepth());
+        result = testSimplifiedXMLStreamReader.ReadNextStartElementName();
+        assertEquals("MethodName", result);
+        assertEquals(2, testSimplifiedXMLStreamReader.getDepth());
+        result = testSimplifiedXMLStreamReader.ReadNextStartElementName();
+        assertNull(result);
+        assertEquals(1, testSimplifiedXMLStreamReader.getDepth());
+    }
+    
     private void SetupTestClass(String inputXml) throws XMLStreamException {
         ByteArrayInputStream inputStream = new ByteArrayInputStream(inputXml.getBytes());
         XMLInputFactory factory = XMLInputFactory.newInstance();
@@ -0,0 +1,582 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremotingunittests;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.SelectionKey;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import static org.mockito.Mockito.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.*;
+import net.alastairwyse.operatingsystemabstraction.*;
+import net.alastairwyse.applicationlogging.*;
+import net.alastairwyse.applicationmetrics.*;
+import net.alastairwyse.methodinvocationremoting.*;
+
+/**
+ * Unit tests for class methodinvocationremoting.TcpMultiClientRemoteReceiver.
+ * @author Alastair Wyse
+ */
+public class TcpMultiClientRemoteReceiverTests {
+    private IServerSocketChannel mockServerSocketChannel;
+    private ISelector mockSelector;
+    private ISocketChannel mockSocketChannel;
+    private ISocketChannel secondMockSocketChannel;
+    private SelectionKey serverSocketChannelKey;
+    private SelectionKey socketChannelKey;
+    private SelectionKey secondSocketChannelKey;
+    private SelectAnswer selectAnswer;
+    /** Records of the write() method calls made on the mock socket channels. */
+    private List<RecordedWrite> recordedWrites;
+    private TcpMultiClientRemoteReceiver testTcpMultiClientRemoteReceiver;
+    private int testPort = 55000;
+    private ByteBuffer testMessageByteArray;
+    private final String stringEncodingCharset = "UTF-8";
+    
+    @Before
+    public void setUp() throws Exception {
+        mockServerSocketChannel = mock(IServerSocketChannel.class);
+        mockSelector = mock(ISelector.class);
+        mockSocketChannel = mock(ISocketChannel.class);
+        secondMockSocketChannel = mock(ISocketChannel.class);
+        // SelectionKey cannot be mocked, so real keys are used as the keys returned by the mock channels
+        serverSocketChannelKey = createSelectionKey();
+        socketChannelKey = createSelectionKey();
+        secondSocketChannelKey = createSelectionKey();
+        selectAnswer = new SelectAnswer();
+        recordedWrites = Collections.synchronizedList(new ArrayList<RecordedWrite>());
+        testTcpMultiClientRemoteReceiver = new TcpMultiClientRemoteReceiver(testPort, 10, 1024, new ConsoleApplicationLogger(LogLevel.Critical, '|', "  "), new NullMetricLogger(), mockServerSocketChannel, mockSelector);
+        when(mockServerSocketChannel.register(mockSelector, SelectionKey.OP_ACCEPT)).thenReturn(serverSocketChannelKey);
+        when(mockSocketChannel.register(mockSelector, SelectionKey.OP_READ)).thenReturn(socketChannelKey);
+        when(mockSocketChannel.write(any(ByteBuffer.class))).thenAnswer(new WriteMethodAnswer());
+        when(secondMockSocketChannel.register(mockSelector, SelectionKey.OP_READ)).thenReturn(secondSocketChannelKey);
+        when(secondMockSocketChannel.write(any(ByteBuffer.class))).thenAnswer(new WriteMethodAnswer());
+        when(mockSelector.select(anyCollectionOf(SelectionKey.class))).thenAnswer(selectAnswer);
+        // Setup test message
+        byte[] testMessageBody = "<Data>ABC</Data>".getBytes(stringEncodingCharset);
+        testMessageByteArray = ByteBuffer.allocate(testMessageBody.length + 14).order(ByteOrder.LITTLE_ENDIAN);
+        testMessageByteArray.put((byte)0x02);  // Set the start delimiter
+        testMessageByteArray.putInt(123);
+        testMessageByteArray.putLong(testMessageBody.length);
+        testMessageByteArray.put(testMessageBody);
+        testMessageByteArray.put((byte)0x03);  // Set the end delimiter
+        testMessageByteArray.flip();
+    }
+    
+    @Test
+    public void InvalidConnectionBacklogArgument() throws Exception {
+        try {
+            testTcpMultiClientRemoteReceiver = new TcpMultiClientRemoteReceiver(testPort, 0, 1024);
+            fail("Exception was not thrown.");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Argument 'connectionBacklog' must be greater than 0."));
+        }
+    }
+    
+    @Test
+    public void InvalidSocketReadBufferSizeArgument() throws Exception {
+        try {
+            testTcpMultiClientRemoteReceiver = new TcpMultiClientRemoteReceiver(testPort, 10, 0);
+            fail("Exception was not thrown.");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Argument 'socketReadBufferSize' must be greater than 0."));
+        }
+    }
+    
+    @Test
+    public void ConnectWhenAlreadyConnected() throws Exception {
+        testTcpMultiClientRemoteReceiver.Connect();
+        try {
+            testTcpMultiClientRemoteReceiver.Connect();
+            fail("Exception was not thrown.");
+        }
+        catch (Exception e) {
+            assertTrue(e.getMessage().contains("Connection has already been established."));
+        }
+        finally {
+            testTcpMultiClientRemoteReceiver.Disconnect();
+        }
+    }
+    
+    @Test
+    public void ReceiveWhenNotConnected() throws Exception {
+        try {
+            testTcpMultiClientRemoteReceiver.Receive();
+            fail("Exception was not thrown.");
+        }
+        catch (Exception e) {
+            assertTrue(e.getMessage().contains("Connection on TCP socket has not been established."));
+        }
+    }
+    
+    @Test
+    public void ReceiveSuccessTest() throws Exception {
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(testMessageByteArray));
+        selectAnswer.AddSelection(serverSocketChannelKey);
+        selectAnswer.AddSelection(socketChannelKey);
+        
+        testTcpMultiClientRemoteReceiver.Connect();
+        String receivedMessage = testTcpMultiClientRemoteReceiver.Receive();
+        testTcpMultiClientRemoteReceiver.Disconnect();
+        
+        verify(mockServerSocketChannel).open();
+        verify(mockServerSocketChannel).bind(new InetSocketAddress(testPort), 10);
+        verify(mockServerSocketChannel).configureBlocking(false);
+        verify(mockServerSocketChannel).register(mockSelector, SelectionKey.OP_ACCEPT);
+        verify(mockServerSocketChannel, times(2)).accept();
+        verify(mockSocketChannel).configureBlocking(false);
+        verify(mockSocketChannel).register(mockSelector, SelectionKey.OP_READ);
+        verify(mockSocketChannel).getRemoteAddress();
+        verify(mockSocketChannel).read(any(ByteBuffer.class));
+        verify(mockSocketChannel).write(any(ByteBuffer.class));
+        verify(mockSocketChannel).close();
+        verifyNoMoreInteractions(mockSocketChannel);
+        assertArrayEquals(new byte[] { 6 }, getWrittenBytes(mockSocketChannel));
+        assertEquals("<Data>ABC</Data>", receivedMessage);
+    }
+    
+    @Test
+    public void ReceiveFromMultipleConnectionsSuccessTest() throws Exception {
+        byte[] secondMessageByteArray = testMessageByteArray.array().clone();
+        // Update the body of the second message to be <Data>XYZ</Data>
+        secondMessageByteArray[19] = 0x58;
+        secondMessageByteArray[20] = 0x59;
+        secondMessageByteArray[21] = 0x5A;
+        
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(secondMockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(testMessageByteArray));
+        when(secondMockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(ByteBuffer.wrap(secondMessageByteArray)));
+        selectAnswer.AddSelection(serverSocketChannelKey);
+        selectAnswer.AddSelection(secondSocketChannelKey);
+        selectAnswer.AddSelection(socketChannelKey);
+        
+        testTcpMultiClientRemoteReceiver.Connect();
+        TcpReceivedMessage receivedMessage = testTcpMultiClientRemoteReceiver.ReceiveWithConnectionId();
+        TcpReceivedMessage secondReceivedMessage = testTcpMultiClientRemoteReceiver.ReceiveWithConnectionId();
+        int connectionCount = testTcpMultiClientRemoteReceiver.getConnectionCount();
+        testTcpMultiClientRemoteReceiver.Disconnect();
+        
+        verify(mockServerSocketChannel, times(3)).accept();
+        verify(mockSocketChannel).read(any(ByteBuffer.class));
+        verify(secondMockSocketChannel).read(any(ByteBuffer.class));
+        assertArrayEquals(new byte[] { 6 }, getWrittenBytes(mockSocketChannel));
+        assertArrayEquals(new byte[] { 6 }, getWrittenBytes(secondMockSocketChannel));
+        assertEquals(2, connectionCount);
+        // The second connection was selected first, so its message is received first
+        assertEquals(2, receivedMessage.getConnectionId());
+        assertEquals("<Data>XYZ</Data>", new String(receivedMessage.getMessage().array(), stringEncodingCharset));
+        assertEquals(1, secondReceivedMessage.getConnectionId());
+        assertEquals("<Data>ABC</Data>", new String(secondReceivedMessage.getMessage().array(), stringEncodingCharset));
+    }
+    
+    @Test
+    public void ReceiveMessageLargerThanReadBufferSuccessTest() throws Exception {
+        // Tests receiving a message larger than the socket read buffer size, in multiple reads
+        testTcpMultiClientRemoteReceiver = new TcpMultiClientRemoteReceiver(testPort, 10, 16, new ConsoleApplicationLogger(LogLevel.Critical, '|', "  "), new NullMetricLogger(), mockServerSocketChannel, mockSelector);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(ByteBuffer.wrap(testMessageByteArray.array(), 0, 16)))
+            .thenAnswer(new ReadMethodAnswer(ByteBuffer.wrap(testMessageByteArray.array(), 16, 14)));
+        selectAnswer.AddSelection(serverSocketChannelKey);
+        selectAnswer.AddSelection(socketChannelKey);
+        selectAnswer.AddSelection(socketChannelKey);
+        
+        testTcpMultiClientRemoteReceiver.Connect();
+        String receivedMessage = testTcpMultiClientRemoteReceiver.Receive();
+        testTcpMultiClientRemoteReceiver.Disconnect();
+        
+        verify(mockSocketChannel, times(2)).read(any(ByteBuffer.class));
+        assertArrayEquals(new byte[] { 6 }, getWrittenBytes(mockSocketChannel));
+        assertEquals("<Data>ABC</Data>", receivedMessage);
+    }
+    
+    @Test
+    public void ReceiveProtocolNegotiationCumulativeAcknowledgementSuccessTest() throws Exception {
+        // Tests that a protocol negotiation message (with an empty body and sequence number -4) is acknowledged and not returned, and that the subsequent message is acknowledged with its sequence number
+        ByteBuffer receivedBytes = ByteBuffer.allocate(14 + testMessageByteArray.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+        receivedBytes.put((byte)0x02);
+        receivedBytes.putInt(-4);
+        receivedBytes.putLong(0);
+        receivedBytes.put((byte)0x03);
+        receivedBytes.put(testMessageByteArray.array());
+        receivedBytes.flip();
+        
+        testTcpMultiClientRemoteReceiver.setCumulativeAcknowledgementsAllowed(true);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(receivedBytes));
+        selectAnswer.AddSelection(serverSocketChannelKey);
+        selectAnswer.AddSelection(socketChannelKey);
+        
+        testTcpMultiClientRemoteReceiver.Connect();
+        String receivedMessage = testTcpMultiClientRemoteReceiver.Receive();
+        testTcpMultiClientRemoteReceiver.Disconnect();
+        
+        verify(mockSocketChannel, times(2)).write(any(ByteBuffer.class));
+        assertArrayEquals(new byte[] { 0x16, 0, 0, 0, 0, 6, 123, 0, 0, 0 }, getWrittenBytes(mockSocketChannel));
+        assertEquals("<Data>ABC</Data>", receivedMessage);
+    }
+    
+    @Test
+    public void ReceiveProtocolNegotiationRequestSuccessTest() throws Exception {
+        // Tests that a message requesting cumulative acknowledgements (with the highest bit of its sequence number set) is returned, and acknowledged with the protocol negotiation acknowledgement byte and its sequence number, following the same rules as TcpRemoteReceiver
+        ByteBuffer receivedBytes = ByteBuffer.allocate(testMessageByteArray.remaining() * 2);
+        receivedBytes.put(testMessageByteArray.array());
+        receivedBytes.put(4, (byte)0x80);
+        receivedBytes.put(testMessageByteArray.array());
+        receivedBytes.put(testMessageByteArray.remaining() + 1, (byte)124);
+        receivedBytes.flip();
+        
+        testTcpMultiClientRemoteReceiver.setCumulativeAcknowledgementsAllowed(true);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(receivedBytes));
+        selectAnswer.AddSelection(serverSocketChannelKey);
+        selectAnswer.AddSelection(socketChannelKey);
+        
+        testTcpMultiClientRemoteReceiver.Connect();
+        String receivedMessage = testTcpMultiClientRemoteReceiver.Receive();
+        String secondReceivedMessage = testTcpMultiClientRemoteReceiver.Receive();
+        testTcpMultiClientRemoteReceiver.Disconnect();
+        
+        assertArrayEquals(new byte[] { 0x16, 123, 0, 0, 0, 6, 124, 0, 0, 0 }, getWrittenBytes(mockSocketChannel));
+        assertEquals("<Data>ABC</Data>", receivedMessage);
+        assertEquals("<Data>ABC</Data>", secondReceivedMessage);
+    }
+    
+    @Test
+    public void ReceiveProtocolNegotiationRequestNotAllowedSuccessTest() throws Exception {
+        // Tests that when cumulative acknowledgements have not been allowed, a message requesting them is returned and acknowledged with the acknowledgement byte alone
+        ByteBuffer receivedBytes = ByteBuffer.allocate(testMessageByteArray.remaining());
+        receivedBytes.put(testMessageByteArray.array());
+        receivedBytes.put(4, (byte)0x80);
+        receivedBytes.flip();
+        
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(receivedBytes));
+        selectAnswer.AddSelection(serverSocketChannelKey);
+        selectAnswer.AddSelection(socketChannelKey);
+        
+        testTcpMultiClientRemoteReceiver.Connect();
+        String receivedMessage = testTcpMultiClientRemoteReceiver.Receive();
+        testTcpMultiClientRemoteReceiver.Disconnect();
+        
+        assertArrayEquals(new byte[] { 6 }, getWrittenBytes(mockSocketChannel));
+        assertEquals("<Data>ABC</Data>", receivedMessage);
+    }
+    
+    @Test
+    public void ReceiveIncorrectStartMessageDelimiterClosesConnection() throws Exception {
+        // Tests that invalid data received on one connection causes only that connection to be closed
+        testMessageByteArray.put(0, (byte)0x41);
+        
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(testMessageByteArray));
+        selectAnswer.AddSelection(serverSocketChannelKey);
+        selectAnswer.AddSelection(socketChannelKey);
+        
+        testTcpMultiClientRemoteReceiver.Connect();
+        selectAnswer.WaitForSelections();
+        int connectionCount = testTcpMultiClientRemoteReceiver.getConnectionCount();
+        testTcpMultiClientRemoteReceiver.Disconnect();
+        
+        verify(mockSocketChannel).configureBlocking(false);
+        verify(mockSocketChannel).register(mockSelector, SelectionKey.OP_READ);
+        verify(mockSocketChannel).getRemoteAddress();
+        verify(mockSocketChannel).read(any(ByteBuffer.class));
+        verify(mockSocketChannel).close();
+        verifyNoMoreInteractions(mockSocketChannel);
+        assertEquals(0, connectionCount);
+    }
+    
+    @Test
+    public void ReceiveConnectionClosedByRemoteHost() throws Exception {
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class))).thenReturn(-1);
+        selectAnswer.AddSelection(serverSocketChannelKey);
+        selectAnswer.AddSelection(socketChannelKey);
+        
+        testTcpMultiClientRemoteReceiver.Connect();
+        selectAnswer.WaitForSelections();
+        int connectionCount = testTcpMultiClientRemoteReceiver.getConnectionCount();
+        testTcpMultiClientRemoteReceiver.Disconnect();
+        
+        verify(mockSocketChannel).read(any(ByteBuffer.class));
+        verify(mockSocketChannel).close();
+        assertEquals(0, connectionCount);
+    }
+    
+    @Test
+    public void CancelReceiveSuccessTest() throws Exception {
+        testTcpMultiClientRemoteReceiver.Connect();
+        Thread cancelThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException e) {
+                }
+                testTcpMultiClientRemoteReceiver.CancelReceive();
+            }
+        });
+        cancelThread.start();
+        String receivedMessage = testTcpMultiClientRemoteReceiver.Receive();
+        cancelThread.join();
+        testTcpMultiClientRemoteReceiver.Disconnect();
+        
+        assertEquals("", receivedMessage);
+    }
+    
+    @Test
+    public void ReceiveReactorThreadException() throws Exception {
+        when(mockSelector.select(anyCollectionOf(SelectionKey.class))).thenThrow(new IOException("Mock IOException."));
+        
+        testTcpMultiClientRemoteReceiver.Connect();
+        try {
+            testTcpMultiClientRemoteReceiver.Receive();
+            fail("Exception was not thrown.");
+        }
+        catch (Exception e) {
+            assertTrue(e.getMessage().contains("Error receiving message.  The reactor thread stopped due to an error."));
+            assertTrue(e.getCause().getMessage().contains("Mock IOException."));
+        }
+        finally {
+            testTcpMultiClientRemoteReceiver.Disconnect();
+        }
+    }
+    
+    @Test
+    public void DisconnectSuccessTest() throws Exception {
+        when(mockSelector.isOpen())
+            .thenReturn(false)
+            .thenReturn(true);
+        
+        testTcpMultiClientRemoteReceiver.Connect();
+        testTcpMultiClientRemoteReceiver.Disconnect();
+        
+        verify(mockSelector).open();
+        verify(mockSelector).wakeup();
+        verify(mockSelector).close();
+        verify(mockServerSocketChannel).close();
+    }
+    
+    @Test
+    public void ReceiveQueueFullStopsReadingSuccessTest() throws Exception {
+        // Tests that once the received message queue is full, reading from the connection (and acknowledging the messages already read) stops until a message is received
+        InetSocketAddress remoteAddress = new InetSocketAddress("127.0.0.1", 50001);
+        byte[] secondMessageByteArray = testMessageByteArray.array().clone();
+        // Update the sequence number of the second message to 124
+        secondMessageByteArray[1] = 124;
+        ByteBuffer twoMessages = ByteBuffer.allocate(testMessageByteArray.remaining() * 2);
+        twoMessages.put(testMessageByteArray.duplicate());
+        twoMessages.put(secondMessageByteArray);
+        twoMessages.flip();
+        
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.getRemoteAddress()).thenReturn(remoteAddress);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(twoMessages));
+        selectAnswer.AddSelection(serverSocketChannelKey);
+        selectAnswer.AddSelection(socketChannelKey);
+        
+        testTcpMultiClientRemoteReceiver.setReceivedMessageQueueCapacity(1);
+        testTcpMultiClientRemoteReceiver.Connect();
+        selectAnswer.WaitForSelections();
+        // Only the first message should have been acknowledged
+        assertArrayEquals(new byte[] { 6 }, getWrittenBytes(mockSocketChannel));
+        assertEquals(0, socketChannelKey.interestOps());
+        TcpReceivedMessage receivedMessage = testTcpMultiClientRemoteReceiver.ReceiveWithConnectionId();
+        TcpReceivedMessage secondReceivedMessage = testTcpMultiClientRemoteReceiver.ReceiveWithConnectionId();
+        int interestOps = socketChannelKey.interestOps();
+        testTcpMultiClientRemoteReceiver.Disconnect();
+        
+        verify(mockSocketChannel).read(any(ByteBuffer.class));
+        assertArrayEquals(new byte[] { 6, 6 }, getWrittenBytes(mockSocketChannel));
+        assertEquals(SelectionKey.OP_READ, interestOps);
+        assertEquals("<Data>ABC</Data>", new String(receivedMessage.getMessage().array(), stringEncodingCharset));
+        assertEquals("<Data>ABC</Data>", new String(secondReceivedMessage.getMessage().array(), stringEncodingCharset));
+        assertEquals(remoteAddress, receivedMessage.getRemoteAddress());
+        assertEquals(remoteAddress, secondReceivedMessage.getRemoteAddress());
+    }
+    
+    @Test
+    public void InvalidReceivedMessageQueueCapacityArgument() throws Exception {
+        try {
+            testTcpMultiClientRemoteReceiver.setReceivedMessageQueueCapacity(0);
+            fail("Exception was not thrown.");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Argument 'receivedMessageQueueCapacity' must be greater than 0."));
+        }
+    }
+    
+    /**
+     * Creates a selection key by registering the source channel of a new pipe with a new selector.
+     * @return  The selection key.
+     */
+    private SelectionKey createSelectionKey() throws Exception {
+        java.nio.channels.Pipe pipe = java.nio.channels.Pipe.open();
+        pipe.source().configureBlocking(false);
+        return pipe.source().register(java.nio.channels.Selector.open(), SelectionKey.OP_READ);
+    }
+    
+    /**
+     * Returns the bytes written to the specified mock socket channel, recorded by a WriteMethodAnswer.
+     * @param socketChannel  The mock socket channel.
+     * @return               The bytes written, in the order they were written.
+     */
+    private byte[] getWrittenBytes(ISocketChannel socketChannel) throws Exception {
+        ByteArrayOutputStream writtenBytes = new ByteArrayOutputStream();
+        synchronized (recordedWrites) {
+            for (RecordedWrite currentWrite : recordedWrites) {
+                if (currentWrite.socketChannel == socketChannel) {
+                    writtenBytes.write(currentWrite.bytes);
+                }
+            }
+        }
+        return writtenBytes.toByteArray();
+    }
+    
+    /**
+     * Container class holding the bytes written by a call to the write() method of a mock socket channel.
+     */
+    private class RecordedWrite {
+        public Object socketChannel;
+        public byte[] bytes;
+        
+        public RecordedWrite(Object socketChannel, byte[] bytes) {
+            this.socketChannel = socketChannel;
+            this.bytes = bytes;
+        }
+    }
+    
+    /**
+     * Mock answer for the ISocketChannel.write() method, which records and consumes the bytes written (as the class under test checks that the complete buffer was written).
+     * @author Alastair Wyse
+     */
+    private class WriteMethodAnswer implements Answer<Integer> {
+        
+        @Override
+        public Integer answer(InvocationOnMock invocation) throws Throwable {
+            ByteBuffer writtenByteBuffer = (ByteBuffer)invocation.getArguments()[0];
+            byte[] writtenBytes = new byte[writtenByteBuffer.remaining()];
+            writtenByteBuffer.get(writtenBytes);
+            recordedWrites.add(new RecordedWrite(invocation.getMock(), writtenBytes));
+            return writtenBytes.length;
+        }
+    }
+    
+    /**
+     * Mock answer for the ISocketChannel.read() method, to simulate the reading of data.
+     * @author Alastair Wyse
+     */
+    private class ReadMethodAnswer implements Answer<Integer> {
+        
+        private ByteBuffer bytesToWrite;
+        
+        /**
+         * Initialises a new instance of the ReadMethodAnswer class.
+         * @param bytesToWrite  The bytes to return when the read() method is called.
+         */
+        public ReadMethodAnswer(ByteBuffer bytesToWrite) {
+            this.bytesToWrite = bytesToWrite;
+        }
+        
+        @Override
+        public Integer answer(InvocationOnMock invocation) throws Throwable {
+            ByteBuffer returnByteBuffer = (ByteBuffer)invocation.getArguments()[0];
+            int returnValue = bytesToWrite.remaining();
+            returnByteBuffer.put(bytesToWrite.duplicate());
+            return returnValue;
+        }
+    }
+    
+    /**
+     * Mock answer for the ISelector.select() method (which adds the selected keys to a collection), which returns a predefined sequence of selected keys, and then simulates waiting with no channels ready.
+     * @author Alastair Wyse
+     */
+    private class SelectAnswer implements Answer<Integer> {
+        
+        private LinkedBlockingQueue<SelectionKey> selections = new LinkedBlockingQueue<SelectionKey>();
+        private CountDownLatch selectionsCompleteLatch = new CountDownLatch(1);
+        
+        /**
+         * Adds a key to be returned by a subsequent call to the select() method.
+         * @param selectionKey  The key.
+         */
+        public void AddSelection(SelectionKey selectionKey) {
+            selections.add(selectionKey);
+        }
+        
+        /**
+         * Waits until all the predefined keys have been returned, and the keys have been handled by the class under test (i.e. the next call to select() has been made).
+         */
+        public void WaitForSelections() throws Exception {
+            assertTrue(selectionsCompleteLatch.await(5, TimeUnit.SECONDS));
+        }
+        
+        @SuppressWarnings("unchecked")
+        @Override
+        public Integer answer(InvocationOnMock invocation) throws Throwable {
+            Collection<SelectionKey> selectedKeys = (Collection<SelectionKey>)invocation.getArguments()[0];
+            SelectionKey selectionKey = selections.poll();
+            if (selectionKey != null) {
+                selectedKeys.add(selectionKey);
+                return 1;
+            }
+            else {
+                selectionsCompleteLatch.countDown();
+                Thread.sleep(5);
+                return 0;
+            }
+        }
+    }
+}
@@ -23,9 +23,13 @@ import org.junit.Test;
 import java.net.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
 import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 import java.io.*;
 import static org.mockito.Mockito.*;
+import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.*;
 import net.alastairwyse.operatingsystemabstraction.*;
@@ -342,8 +346,33 @@ public class TcpRemoteReceiverTests {
         }
     }
     
+    @Test
+    public void ReceiveInvalidMessageSizeHeader() throws Exception {
+        ByteBuffer readBuffer = ByteBuffer.allocate(socketReadBufferSize);
+        // Set the message size header to a size too large to be held in a ByteBuffer
+        ByteBuffer.wrap(testMessageByteArray.array(), 5, 8).order(ByteOrder.LITTLE_ENDIAN).putLong(((long)Integer.MAX_VALUE) + 1);
+        
+        when(mockServerSocketChannel.isOpen()).thenReturn(false);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(readBuffer)).thenAnswer(new ReadMethodAnswer(testMessageByteArray, testMessageByteArray.remaining()));
+        
+        try {
+            testTcpRemoteReceiver.Connect();
+            testTcpRemoteReceiver.Receive();
+            fail("Exception was not thrown.");
+        }
+        catch (Exception e) {
+            verify(mockSocketChannel).read(any(ByteBuffer.class));
+            assertTrue(e.getMessage().contains("Error receiving message.  Unhandled exception while attempting to receive and acknowledge message."));
+            assertTrue(e.getCause().getMessage().contains("Message size header contained invalid size 2147483648."));
+        }
+    }
+    
     @Test
     public void ReceiveExtraBytesAfterEndMessageDelimiter() throws Exception {
+        // Tests that bytes following the end delimiter of a message are retained and parsed as the start of the next message
         ByteBuffer readBuffer = ByteBuffer.allocate(socketReadBufferSize);
         ByteBuffer longTestMessageByteArray = ByteBuffer.allocate(testMessageByteArray.array().length + 1);
         longTestMessageByteArray.put(testMessageByteArray.array());
@@ -356,8 +385,9 @@ public class TcpRemoteReceiverTests {
             .thenReturn(null);
         when(mockSocketChannel.read(readBuffer)).thenAnswer(new ReadMethodAnswer(longTestMessageByteArray, longTestMessageByteArray.remaining()));
         
+        testTcpRemoteReceiver.Connect();
+        String receivedMessage = testTcpRemoteReceiver.Receive();
         try {
-            testTcpRemoteReceiver.Connect();
             testTcpRemoteReceiver.Receive();
             fail("Exception was not thrown.");
         }
@@ -366,14 +396,16 @@ public class TcpRemoteReceiverTests {
             verify(mockServerSocketChannel).open();
             verify(mockServerSocketChannel).bind(new InetSocketAddress(testPort), 1);
             verify(mockServerSocketChannel).configureBlocking(false);
-            verify(mockServerSocketChannel, times(2)).accept();
+            verify(mockServerSocketChannel, times(4)).accept();
             verify(mockSocketChannel).configureBlocking(false);
-            // Using the readBuffer member in the below verify statement causes an exception.  Hence any ByteBuffer class is specified.  Correct calling of the Read() method is checked by the above when statement in any case.
+            // The second receive operation parses the retained byte without reading from the socket channel
             verify(mockSocketChannel).read(any(ByteBuffer.class));
+            verify(mockSocketChannel).write(ByteBuffer.wrap(new byte[] { 6 }));
             verifyNoMoreInteractions(mockServerSocketChannel);
             verifyNoMoreInteractions(mockSocketChannel);
+            assertEquals("<Data>ABC</Data>", receivedMessage);
             assertTrue(e.getMessage().contains("Error receiving message.  Unhandled exception while attempting to receive and acknowledge message."));
-            assertTrue(e.getCause().getMessage().contains("Surplus data encountered after message delimiter character, starting with 65."));
+            assertTrue(e.getCause().getMessage().contains("First byte of received message was expected to be 2, but was 65."));
         }
     }
     
@@ -407,6 +439,55 @@ public class TcpRemoteReceiverTests {
         assertEquals("<Data>ABC</Data>", receivedMessage);
     }
     
+    @Test
+    public void ReceiveBytesSuccessTest() throws Exception {
+        ByteBuffer readBuffer = ByteBuffer.allocate(socketReadBufferSize);
+        
+        when(mockServerSocketChannel.isOpen()).thenReturn(false);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(readBuffer)).thenAnswer(new ReadMethodAnswer(testMessageByteArray, testMessageByteArray.remaining()));
+        
+        testTcpRemoteReceiver.Connect();
+        ByteBuffer receivedMessage = testTcpRemoteReceiver.ReceiveBytes();
+        
+        verify(mockServerSocketChannel).isOpen();
+        verify(mockServerSocketChannel).open();
+        verify(mockServerSocketChannel).bind(new InetSocketAddress(testPort), 1);
+        verify(mockServerSocketChannel).configureBlocking(false);
+        verify(mockServerSocketChannel, times(3)).accept();
+        verify(mockSocketChannel).configureBlocking(false);
+        verify(mockSocketChannel).read(any(ByteBuffer.class));
+        verify(mockSocketChannel).write(ByteBuffer.wrap(new byte[] { 6 }));
+        verifyNoMoreInteractions(mockServerSocketChannel);
+        verifyNoMoreInteractions(mockSocketChannel);
+        assertEquals(ByteBuffer.wrap("<Data>ABC</Data>".getBytes("UTF-8")), receivedMessage);
+    }
+    
+    @Test
+    public void ReceiveBytesNotOverwrittenByNextReceiveSuccessTest() throws Exception {
+        // Tests that the buffer returned by ReceiveBytes() is not a view of the read buffer (which is reused by the next receive operation)
+        byte[] secondMessageByteArray = getSecondTestMessage();
+        
+        when(mockServerSocketChannel.isOpen()).thenReturn(false);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(testMessageByteArray, testMessageByteArray.remaining()))
+            .thenAnswer(new ReadMethodAnswer(ByteBuffer.wrap(secondMessageByteArray), secondMessageByteArray.length));
+        
+        testTcpRemoteReceiver.Connect();
+        ByteBuffer receivedMessage = testTcpRemoteReceiver.ReceiveBytes();
+        String secondReceivedMessage = testTcpRemoteReceiver.Receive();
+        
+        verify(mockSocketChannel, times(2)).read(any(ByteBuffer.class));
+        verify(mockSocketChannel, times(2)).write(ByteBuffer.wrap(new byte[] { 6 }));
+        assertEquals(ByteBuffer.wrap("<Data>ABC</Data>".getBytes("UTF-8")), receivedMessage);
+        assertEquals("<Data>XYZ</Data>", secondReceivedMessage);
+    }
+    
     @Test
     public void ReceiveByteByByteSuccessTest() throws Exception {
         // Tests receiving a message where the message is read from the underlying socket channel one byte at a time in multiple read() method calls
@@ -414,12 +495,10 @@ public class TcpRemoteReceiverTests {
         when(mockServerSocketChannel.accept())
             .thenReturn(mockSocketChannel)
             .thenReturn(null);
-        // The mockito when() method requires separate declarations for each distinct set of parameters passed to the method to be mocked
-        //   In this case the read() method is passed a different ByteBuffer every time its called, so need to setup mockSocketChannel to handle all these cases
-        //   In each case, the ByteBuffer passed to read() will be one byte bigger than the previous time, and the next single byte of the message should be added to it
+        // The same read buffer is passed to every call to read() (cleared once the byte it holds has been parsed), so setup mockSocketChannel to add the next single byte of the message on each call
+        OngoingStubbing<Integer> readStubbing = when(mockSocketChannel.read(any(ByteBuffer.class)));
         for (int i = 0; i < 30; i++) {
-            when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, i, socketReadBufferSize, false)))
-                .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, i, 1, socketReadBufferSize, true), 1));
+            readStubbing = readStubbing.thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, i, 1, socketReadBufferSize, true), 1));
         }
         
         testTcpRemoteReceiver.Connect();
@@ -458,9 +537,9 @@ public class TcpRemoteReceiverTests {
         when(mockServerSocketChannel.accept())
             .thenReturn(mockSocketChannel)
             .thenReturn(null);
-        // The read method will be called 20 times (once for each byte of the test message), and each time an empty byte buffer with capacity of 1 will be passed
+        // The read method will be called 20 times (once for each byte of the test message), and each time the same byte buffer with capacity of 1 will be passed
         //   Setup the mockSocketChannel to return the bytes of the test message one at a time in order
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 0, 1, false)))
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 1, 1, true), 1))
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 1, 1, 1, true), 1))
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 2, 1, 1, true), 1))
@@ -508,12 +587,11 @@ public class TcpRemoteReceiverTests {
             .thenReturn(null);
         // As the read method passes a reference to a ByteBuffer, and data is written to that ByteBuffer, to correctly mock this a custom Answer implementation is required.
         //   An instance of the ReadMethodAnswer class is used.
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 0, socketReadBufferSize, false)))
-            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10));
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, false)))
-            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 10, 10, socketReadBufferSize, true), 10));
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 20, socketReadBufferSize, false)))
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10))
+            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 10, 10, socketReadBufferSize, true), 10))
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 20, 10, socketReadBufferSize, true), 10));
+        ArgumentCaptor<ByteBuffer> readBufferCaptor = ArgumentCaptor.forClass(ByteBuffer.class);
         
         testTcpRemoteReceiver.Connect();
         String receivedMessage = testTcpRemoteReceiver.Receive();
@@ -524,7 +602,10 @@ public class TcpRemoteReceiverTests {
         verify(mockServerSocketChannel).configureBlocking(false);
         verify(mockServerSocketChannel, times(5)).accept();
         verify(mockSocketChannel).configureBlocking(false);
-        verify(mockSocketChannel, times(3)).read(any(ByteBuffer.class));
+        verify(mockSocketChannel, times(3)).read(readBufferCaptor.capture());
+        // The same read buffer should be reused for each read
+        assertSame(readBufferCaptor.getAllValues().get(0), readBufferCaptor.getAllValues().get(1));
+        assertSame(readBufferCaptor.getAllValues().get(0), readBufferCaptor.getAllValues().get(2));
         verify(mockSocketChannel).write(ByteBuffer.wrap(new byte[] { 6 }));
         verifyNoMoreInteractions(mockServerSocketChannel);
         verifyNoMoreInteractions(mockSocketChannel);
@@ -641,13 +722,11 @@ public class TcpRemoteReceiverTests {
             .thenReturn(mockSocketChannel)
             .thenReturn(null);
 
-        // Mock the 1st and 3rd calls to read(), first returning just 10 bytes of the message, and then returning the whole message (after reconnecting)
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 0, socketReadBufferSize, false)))
+        // Mock the calls to read(), first returning just 10 bytes of the message, then causing an exception, and then returning the whole message (after reconnecting)
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10))
+            .thenThrow(new IOException("Mock IOException."))
             .thenAnswer(new ReadMethodAnswer(testMessageByteArray, testMessageByteArray.remaining()));
-        // Mock the 2nd call the read(), causing an exception
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, false)))
-            .thenThrow(new IOException("Mock IOException."));
 
         testTcpRemoteReceiver.Connect();
         String receivedMessage = testTcpRemoteReceiver.Receive();
@@ -677,13 +756,12 @@ public class TcpRemoteReceiverTests {
             // The below return simulates the new pending connection
             .thenReturn(mockSocketChannel)
             .thenReturn(null);
-        // Mock the initial calls to read(), in both cases returning the first 10 bytes of the message
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 0, socketReadBufferSize, false)))
+        // Mock the calls to read() on the initial connection, returning the first 10 bytes and then just the next 10 bytes of the message
+        //   Then mock the calls on the new connection, returning the first 10 bytes and then the entire remainder of the message
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10))
-            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10));
-        // Mock the subsequent calls the read(), in the first case returning just the next 10 bytes of the message, and in the second case the entire remainder of the message
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, false)))
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 10, 10, socketReadBufferSize, true), 10))
+            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10))
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 10, 20, socketReadBufferSize, true), 20));
         
         testTcpRemoteReceiver.Connect();
@@ -711,11 +789,9 @@ public class TcpRemoteReceiverTests {
             .thenReturn(mockSocketChannel)
             .thenReturn(null);
 
-        // Mock the 1st call to read(), returning just 10 bytes of the message
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 0, socketReadBufferSize, false)))
-            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10));
-        // Mock the 2nd call the read(), causing an exception
-        when(mockSocketChannel.read(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, false)))
+        // Mock the 1st call to read() returning just 10 bytes of the message, and the 2nd call causing an exception
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10))
             .thenThrow(new java.nio.channels.AsynchronousCloseException());
 
         try {
@@ -740,22 +816,14 @@ public class TcpRemoteReceiverTests {
     @Test
     public void ReceiveDuplicateSequenceNumberRereceiveSuccessTest() throws Exception {
         // Tests that a message received with the same sequence number as the previous message is ignored
-        ByteBuffer readBuffer = ByteBuffer.allocate(socketReadBufferSize);
-        byte[] secondMessageByteArray = new byte[testMessageByteArray.array().length];
-        System.arraycopy(testMessageByteArray.array(), 0, secondMessageByteArray, 0, testMessageByteArray.array().length);
-        // Update the sequence number in the second message
-        secondMessageByteArray[1] = 124;
-        // Update the body of the second message to be <Data>XYZ</Data>
-        secondMessageByteArray[19] = 0x58;
-        secondMessageByteArray[20] = 0x59;
-        secondMessageByteArray[21] = 0x5A;
+        byte[] secondMessageByteArray = getSecondTestMessage();
         
         when(mockServerSocketChannel.isOpen()).thenReturn(false);
         when(mockServerSocketChannel.accept())
             .thenReturn(mockSocketChannel)
             .thenReturn(null);
         // Return 'testMessageByteArray' twice (with same sequence number), and then return 'secondMessageByteArray'
-        when(mockSocketChannel.read(readBuffer))
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
             // ByteBuffer returned by the mockSocketChannel is altered as part of the read process, and hence can't be used twice.
             //   Hence return a copy of testMessageByteArray using method getByteBufferSubSet()
             .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 30, socketReadBufferSize, true), 30))
@@ -772,7 +840,6 @@ public class TcpRemoteReceiverTests {
         verify(mockServerSocketChannel).configureBlocking(false);
         verify(mockServerSocketChannel, times(7)).accept();
         verify(mockSocketChannel).configureBlocking(false);
-        // Using the readBuffer member in the below verify statement causes an exception.  Hence any ByteBuffer class is specified.  Correct calling of the Read() method is checked by the above when statement in any case.
         verify(mockSocketChannel, times(3)).read(any(ByteBuffer.class));
         verify(mockSocketChannel, times(3)).write(ByteBuffer.wrap(new byte[] { 6 }));
         verifyNoMoreInteractions(mockServerSocketChannel);
@@ -781,6 +848,479 @@ public class TcpRemoteReceiverTests {
         assertEquals("<Data>XYZ</Data>", secondReceivedMessage);
     }
     
+    @Test
+    public void ReceiveMultipleMessagesInSingleReadSuccessTest() throws Exception {
+        // Tests receiving two messages which are both read from the underlying socket channel in a single read() method call
+        byte[] secondMessageByteArray = getSecondTestMessage();
+        ByteBuffer bothMessagesByteArray = ByteBuffer.allocate(testMessageByteArray.remaining() + secondMessageByteArray.length);
+        bothMessagesByteArray.put(testMessageByteArray.array());
+        bothMessagesByteArray.put(secondMessageByteArray);
+        bothMessagesByteArray.flip();
+        
+        when(mockServerSocketChannel.isOpen()).thenReturn(false);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(bothMessagesByteArray, bothMessagesByteArray.remaining()));
+        
+        testTcpRemoteReceiver.Connect();
+        String receivedMessage = testTcpRemoteReceiver.Receive();
+        String secondReceivedMessage = testTcpRemoteReceiver.Receive();
+        
+        verify(mockServerSocketChannel, times(5)).accept();
+        verify(mockSocketChannel).configureBlocking(false);
+        verify(mockSocketChannel).read(any(ByteBuffer.class));
+        verify(mockSocketChannel, times(2)).write(ByteBuffer.wrap(new byte[] { 6 }));
+        verifyNoMoreInteractions(mockSocketChannel);
+        assertEquals("<Data>ABC</Data>", receivedMessage);
+        assertEquals("<Data>XYZ</Data>", secondReceivedMessage);
+    }
+    
+    @Test
+    public void ReceiveMessageAndStartOfNextMessageInSingleReadSuccessTest() throws Exception {
+        // Tests receiving two messages, where the first read() method call returns the first message and the start of the second, and the second call returns the remainder of the second message
+        byte[] secondMessageByteArray = getSecondTestMessage();
+        ByteBuffer firstReadBytes = ByteBuffer.allocate(testMessageByteArray.remaining() + 10);
+        firstReadBytes.put(testMessageByteArray.array());
+        firstReadBytes.put(secondMessageByteArray, 0, 10);
+        firstReadBytes.flip();
+        
+        when(mockServerSocketChannel.isOpen()).thenReturn(false);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(firstReadBytes, firstReadBytes.remaining()))
+            .thenAnswer(new ReadMethodAnswer(ByteBuffer.wrap(secondMessageByteArray, 10, secondMessageByteArray.length - 10), secondMessageByteArray.length - 10));
+        
+        testTcpRemoteReceiver.Connect();
+        String receivedMessage = testTcpRemoteReceiver.Receive();
+        String secondReceivedMessage = testTcpRemoteReceiver.Receive();
+        
+        verify(mockServerSocketChannel, times(6)).accept();
+        verify(mockSocketChannel).configureBlocking(false);
+        verify(mockSocketChannel, times(2)).read(any(ByteBuffer.class));
+        verify(mockSocketChannel, times(2)).write(ByteBuffer.wrap(new byte[] { 6 }));
+        verifyNoMoreInteractions(mockSocketChannel);
+        assertEquals("<Data>ABC</Data>", receivedMessage);
+        assertEquals("<Data>XYZ</Data>", secondReceivedMessage);
+    }
+    
+    @Test
+    public void ReceiveProtocolNegotiationCumulativeAcknowledgementSuccessTest() throws Exception {
+        // Tests that a message requesting cumulative acknowledgements (with the highest bit of its sequence number set) is returned, and acknowledged with the protocol negotiation acknowledgement byte and its sequence number, and that subsequent messages are acknowledged with their sequence numbers
+        byte[] secondMessageByteArray = getSecondTestMessage();
+        ByteBuffer receivedBytes = ByteBuffer.allocate(testMessageByteArray.remaining() + secondMessageByteArray.length);
+        receivedBytes.put(getProtocolNegotiationRequestMessage(testMessageByteArray.array()));
+        receivedBytes.put(secondMessageByteArray);
+        receivedBytes.flip();
+        
+        testTcpRemoteReceiver.setCumulativeAcknowledgementsAllowed(true);
+        when(mockServerSocketChannel.isOpen()).thenReturn(false);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(receivedBytes, receivedBytes.remaining()));
+        
+        testTcpRemoteReceiver.Connect();
+        String receivedMessage = testTcpRemoteReceiver.Receive();
+        String secondReceivedMessage = testTcpRemoteReceiver.Receive();
+        
+        verify(mockSocketChannel).configureBlocking(false);
+        verify(mockSocketChannel).read(any(ByteBuffer.class));
+        verify(mockSocketChannel).write(ByteBuffer.wrap(new byte[] { 0x16, 123, 0, 0, 0 }));
+        verify(mockSocketChannel).write(ByteBuffer.wrap(new byte[] { 6, 124, 0, 0, 0 }));
+        verifyNoMoreInteractions(mockSocketChannel);
+        assertEquals("<Data>ABC</Data>", receivedMessage);
+        assertEquals("<Data>XYZ</Data>", secondReceivedMessage);
+    }
+    
+    @Test
+    public void ReceiveProtocolNegotiationCumulativeAcknowledgementsNotAllowedSuccessTest() throws Exception {
+        // Tests that when cumulative acknowledgements have not been allowed, a message requesting them is returned and acknowledged with the acknowledgement byte alone (as by a TcpRemoteReceiver which doesn't support them), as are subsequent messages
+        byte[] secondMessageByteArray = getSecondTestMessage();
+        ByteBuffer receivedBytes = ByteBuffer.allocate(testMessageByteArray.remaining() + secondMessageByteArray.length);
+        receivedBytes.put(getProtocolNegotiationRequestMessage(testMessageByteArray.array()));
+        receivedBytes.put(secondMessageByteArray);
+        receivedBytes.flip();
+        
+        when(mockServerSocketChannel.isOpen()).thenReturn(false);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(receivedBytes, receivedBytes.remaining()));
+        
+        testTcpRemoteReceiver.Connect();
+        String receivedMessage = testTcpRemoteReceiver.Receive();
+        String secondReceivedMessage = testTcpRemoteReceiver.Receive();
+        
+        verify(mockSocketChannel).configureBlocking(false);
+        verify(mockSocketChannel).read(any(ByteBuffer.class));
+        verify(mockSocketChannel, times(2)).write(ByteBuffer.wrap(new byte[] { 6 }));
+        verifyNoMoreInteractions(mockSocketChannel);
+        assertEquals("<Data>ABC</Data>", receivedMessage);
+        assertEquals("<Data>XYZ</Data>", secondReceivedMessage);
+    }
+    
+    @Test
+    public void ReceiveProtocolNegotiationRequestDuplicateSuccessTest() throws Exception {
+        // Tests that when a message requesting cumulative acknowledgements is re-sent after reconnecting (because its acknowledgement was not received), it is discarded as a duplicate, but still enables cumulative acknowledgements on the new connection
+        ISocketChannel mockReconnectedSocketChannel = mock(ISocketChannel.class);
+        byte[] secondMessageByteArray = getSecondTestMessage();
+        ByteBuffer receivedBytes = ByteBuffer.allocate(testMessageByteArray.remaining());
+        receivedBytes.put(getProtocolNegotiationRequestMessage(testMessageByteArray.array()));
+        receivedBytes.flip();
+        ByteBuffer reconnectedReceivedBytes = ByteBuffer.allocate(testMessageByteArray.remaining() + secondMessageByteArray.length);
+        reconnectedReceivedBytes.put(getProtocolNegotiationRequestMessage(testMessageByteArray.array()));
+        reconnectedReceivedBytes.put(secondMessageByteArray);
+        reconnectedReceivedBytes.flip();
+        
+        testTcpRemoteReceiver.setCumulativeAcknowledgementsAllowed(true);
+        when(mockServerSocketChannel.isOpen()).thenReturn(false);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(receivedBytes, receivedBytes.remaining()));
+        when(mockReconnectedSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(reconnectedReceivedBytes, reconnectedReceivedBytes.remaining()));
+        
+        testTcpRemoteReceiver.Connect();
+        String receivedMessage = testTcpRemoteReceiver.Receive();
+        // Simulate the TcpRemoteSender reconnecting
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockReconnectedSocketChannel)
+            .thenReturn(null);
+        String secondReceivedMessage = testTcpRemoteReceiver.Receive();
+        
+        verify(mockSocketChannel).write(ByteBuffer.wrap(new byte[] { 0x16, 123, 0, 0, 0 }));
+        verify(mockReconnectedSocketChannel).write(ByteBuffer.wrap(new byte[] { 0x16, 123, 0, 0, 0 }));
+        verify(mockReconnectedSocketChannel).write(ByteBuffer.wrap(new byte[] { 6, 124, 0, 0, 0 }));
+        assertEquals("<Data>ABC</Data>", receivedMessage);
+        assertEquals("<Data>XYZ</Data>", secondReceivedMessage);
+    }
+    
+    @Test
+    public void ReceiveProtocolNegotiationMessageSuccessTest() throws Exception {
+        // Tests that a protocol negotiation message (with an empty body and sequence number -4, i.e. an acknowledgement window size of 4) sent by a TcpRemoteSender reconnecting with unacknowledged messages is acknowledged with the last sequence number received, and not returned
+        ISocketChannel mockReconnectedSocketChannel = mock(ISocketChannel.class);
+        byte[] secondMessageByteArray = getSecondTestMessage();
+        ByteBuffer receivedBytes = ByteBuffer.allocate(testMessageByteArray.remaining());
+        receivedBytes.put(getProtocolNegotiationRequestMessage(testMessageByteArray.array()));
+        receivedBytes.flip();
+        ByteBuffer reconnectedReceivedBytes = ByteBuffer.allocate(getProtocolNegotiationMessage(4).length + secondMessageByteArray.length);
+        reconnectedReceivedBytes.put(getProtocolNegotiationMessage(4));
+        reconnectedReceivedBytes.put(secondMessageByteArray);
+        reconnectedReceivedBytes.flip();
+        
+        testTcpRemoteReceiver.setCumulativeAcknowledgementsAllowed(true);
+        when(mockServerSocketChannel.isOpen()).thenReturn(false);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(receivedBytes, receivedBytes.remaining()));
+        when(mockReconnectedSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(reconnectedReceivedBytes, reconnectedReceivedBytes.remaining()));
+        
+        testTcpRemoteReceiver.Connect();
+        String receivedMessage = testTcpRemoteReceiver.Receive();
+        // Simulate the TcpRemoteSender reconnecting
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockReconnectedSocketChannel)
+            .thenReturn(null);
+        String secondReceivedMessage = testTcpRemoteReceiver.Receive();
+        
+        verify(mockSocketChannel).write(ByteBuffer.wrap(new byte[] { 0x16, 123, 0, 0, 0 }));
+        verify(mockReconnectedSocketChannel).write(ByteBuffer.wrap(new byte[] { 0x16, 123, 0, 0, 0 }));
+        verify(mockReconnectedSocketChannel).write(ByteBuffer.wrap(new byte[] { 6, 124, 0, 0, 0 }));
+        assertEquals("<Data>ABC</Data>", receivedMessage);
+        assertEquals("<Data>XYZ</Data>", secondReceivedMessage);
+    }
+    
+    @Test
+    public void ReceiveProtocolNegotiationRestartedSenderSuccessTest() throws Exception {
+        // Tests that when a restarted TcpRemoteSender (whose sequence numbers begin again at 1) negotiates cumulative acknowledgements, its messages are not discarded as duplicates of the messages received from the TcpRemoteSender before it was restarted
+        ISocketChannel mockRestartedSocketChannel = mock(ISocketChannel.class);
+        byte[] firstMessageByteArray = Arrays.copyOf(testMessageByteArray.array(), testMessageByteArray.array().length);
+        firstMessageByteArray[1] = 1;
+        byte[] secondMessageByteArray = getSecondTestMessage();
+        secondMessageByteArray[1] = 2;
+        ByteBuffer receivedBytes = ByteBuffer.allocate(firstMessageByteArray.length + secondMessageByteArray.length);
+        receivedBytes.put(getProtocolNegotiationRequestMessage(firstMessageByteArray));
+        receivedBytes.put(secondMessageByteArray);
+        receivedBytes.flip();
+        // The restarted TcpRemoteSender sends the messages in the opposite order with the same sequence numbers
+        ByteBuffer restartedReceivedBytes = ByteBuffer.allocate(firstMessageByteArray.length + secondMessageByteArray.length);
+        secondMessageByteArray[1] = 1;
+        restartedReceivedBytes.put(getProtocolNegotiationRequestMessage(secondMessageByteArray));
+        firstMessageByteArray[1] = 2;
+        restartedReceivedBytes.put(firstMessageByteArray);
+        restartedReceivedBytes.flip();
+        
+        testTcpRemoteReceiver.setCumulativeAcknowledgementsAllowed(true);
+        when(mockServerSocketChannel.isOpen()).thenReturn(false);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(receivedBytes, receivedBytes.remaining()));
+        when(mockRestartedSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(restartedReceivedBytes, restartedReceivedBytes.remaining()));
+        
+        testTcpRemoteReceiver.Connect();
+        String receivedMessage = testTcpRemoteReceiver.Receive();
+        String secondReceivedMessage = testTcpRemoteReceiver.Receive();
+        // Simulate the restarted TcpRemoteSender connecting
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockRestartedSocketChannel)
+            .thenReturn(null);
+        String thirdReceivedMessage = testTcpRemoteReceiver.Receive();
+        String fourthReceivedMessage = testTcpRemoteReceiver.Receive();
+        
+        verify(mockSocketChannel).write(ByteBuffer.wrap(new byte[] { 0x16, 1, 0, 0, 0 }));
+        verify(mockSocketChannel).write(ByteBuffer.wrap(new byte[] { 6, 2, 0, 0, 0 }));
+        verify(mockSocketChannel).close();
+        verify(mockRestartedSocketChannel).write(ByteBuffer.wrap(new byte[] { 0x16, 1, 0, 0, 0 }));
+        verify(mockRestartedSocketChannel).write(ByteBuffer.wrap(new byte[] { 6, 2, 0, 0, 0 }));
+        assertEquals("<Data>ABC</Data>", receivedMessage);
+        assertEquals("<Data>XYZ</Data>", secondReceivedMessage);
+        assertEquals("<Data>XYZ</Data>", thirdReceivedMessage);
+        assertEquals("<Data>ABC</Data>", fourthReceivedMessage);
+    }
+    
+    @Test
+    public void ConnectWaitsOnSelectorSuccessTest() throws Exception {
+        ISelector mockSelector = mock(ISelector.class);
+        testTcpRemoteReceiver = new TcpRemoteReceiver(testPort, 3, 10, 20, socketReadBufferSize, new ConsoleApplicationLogger(LogLevel.Critical, '|', "  "), new NullMetricLogger(), mockServerSocketChannel, mockSelector);
+        when(mockServerSocketChannel.isOpen()).thenReturn(false);
+        when(mockSelector.isOpen()).thenReturn(false);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(null)
+            .thenReturn(mockSocketChannel);
+        
+        testTcpRemoteReceiver.Connect();
+        
+        verify(mockServerSocketChannel).open();
+        verify(mockServerSocketChannel).configureBlocking(false);
+        verify(mockSelector).open();
+        verify(mockServerSocketChannel).register(mockSelector, SelectionKey.OP_ACCEPT);
+        // Should wait on the selector for the connect retry interval, rather than sleeping
+        verify(mockSelector).select(10);
+        verify(mockServerSocketChannel, times(2)).accept();
+        verify(mockSocketChannel).configureBlocking(false);
+        verify(mockSocketChannel).register(mockSelector, SelectionKey.OP_READ);
+        verifyNoMoreInteractions(mockSocketChannel);
+    }
+    
+    @Test
+    public void ReceiveWaitsOnSelectorSuccessTest() throws Exception {
+        ISelector mockSelector = mock(ISelector.class);
+        ByteBuffer readBuffer = ByteBuffer.allocate(socketReadBufferSize);
+        testTcpRemoteReceiver = new TcpRemoteReceiver(testPort, 3, 10, 20, socketReadBufferSize, new ConsoleApplicationLogger(LogLevel.Warning, '|', "  "), new NullMetricLogger(), mockServerSocketChannel, mockSelector);
+        when(mockServerSocketChannel.isOpen()).thenReturn(false);
+        when(mockSelector.isOpen()).thenReturn(false);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        // No data is available on the first read, so the receiver should wait on the selector before reading again
+        when(mockSocketChannel.read(readBuffer))
+            .thenReturn(0)
+            .thenAnswer(new ReadMethodAnswer(testMessageByteArray, testMessageByteArray.remaining()));
+        
+        testTcpRemoteReceiver.Connect();
+        String receivedMessage = testTcpRemoteReceiver.Receive();
+        
+        verify(mockSelector).isOpen();
+        verify(mockSelector).open();
+        verify(mockServerSocketChannel).register(mockSelector, SelectionKey.OP_ACCEPT);
+        verify(mockSocketChannel).register(mockSelector, SelectionKey.OP_READ);
+        verify(mockSelector).select();
+        verify(mockSocketChannel, times(2)).read(any(ByteBuffer.class));
+        verify(mockSocketChannel).write(ByteBuffer.wrap(new byte[] { 6 }));
+        verifyNoMoreInteractions(mockSelector);
+        assertEquals("<Data>ABC</Data>", receivedMessage);
+    }
+    
+    @Test
+    public void ReceiveSenderDisconnectedWaitsOnSelectorForReconnectSuccessTest() throws Exception {
+        // Tests that when a read returns end of stream, the socket channel is closed and the receiver waits on the selector for the TcpRemoteSender to reconnect, rather than reading the closed connection again
+        ISelector mockSelector = mock(ISelector.class);
+        ISocketChannel mockReconnectedSocketChannel = mock(ISocketChannel.class);
+        testTcpRemoteReceiver = new TcpRemoteReceiver(testPort, 3, 10, 20, socketReadBufferSize, new ConsoleApplicationLogger(LogLevel.Critical, '|', "  "), new NullMetricLogger(), mockServerSocketChannel, mockSelector);
+        when(mockServerSocketChannel.isOpen()).thenReturn(false);
+        when(mockSelector.isOpen()).thenReturn(false);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null)
+            // The below return simulates the TcpRemoteSender reconnecting
+            .thenReturn(mockReconnectedSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class))).thenReturn(-1);
+        when(mockReconnectedSocketChannel.read(any(ByteBuffer.class))).thenAnswer(new ReadMethodAnswer(testMessageByteArray, testMessageByteArray.remaining()));
+
+        testTcpRemoteReceiver.Connect();
+        String receivedMessage = testTcpRemoteReceiver.Receive();
+
+        verify(mockSocketChannel).configureBlocking(false);
+        verify(mockSocketChannel).register(mockSelector, SelectionKey.OP_READ);
+        verify(mockSocketChannel).read(any(ByteBuffer.class));
+        verify(mockSocketChannel).close();
+        verify(mockSelector).select();
+        verify(mockReconnectedSocketChannel).register(mockSelector, SelectionKey.OP_READ);
+        verify(mockReconnectedSocketChannel).read(any(ByteBuffer.class));
+        verify(mockReconnectedSocketChannel).write(ByteBuffer.wrap(new byte[] { 6 }));
+        verifyNoMoreInteractions(mockSocketChannel);
+        assertEquals("<Data>ABC</Data>", receivedMessage);
+    }
+
+    @Test
+    public void ReceiveSenderDisconnectedDuringMessageWaitsOnSelectorForReconnectSuccessTest() throws Exception {
+        // Tests that when a read returns end of stream part way through a message, the socket channel is closed and the receiver waits on the selector for the TcpRemoteSender to reconnect and re-send the message
+        ISelector mockSelector = mock(ISelector.class);
+        ISocketChannel mockReconnectedSocketChannel = mock(ISocketChannel.class);
+        testTcpRemoteReceiver = new TcpRemoteReceiver(testPort, 3, 10, 20, socketReadBufferSize, new ConsoleApplicationLogger(LogLevel.Critical, '|', "  "), new NullMetricLogger(), mockServerSocketChannel, mockSelector);
+        when(mockServerSocketChannel.isOpen()).thenReturn(false);
+        when(mockSelector.isOpen()).thenReturn(false);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null)
+            .thenReturn(null)
+            // The below return simulates the TcpRemoteSender reconnecting
+            .thenReturn(mockReconnectedSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10))
+            .thenReturn(-1);
+        when(mockReconnectedSocketChannel.read(any(ByteBuffer.class))).thenAnswer(new ReadMethodAnswer(testMessageByteArray, testMessageByteArray.remaining()));
+
+        testTcpRemoteReceiver.Connect();
+        String receivedMessage = testTcpRemoteReceiver.Receive();
+
+        verify(mockSocketChannel, times(2)).read(any(ByteBuffer.class));
+        verify(mockSocketChannel).close();
+        verify(mockSelector).select();
+        verify(mockReconnectedSocketChannel).read(any(ByteBuffer.class));
+        verify(mockReconnectedSocketChannel).write(ByteBuffer.wrap(new byte[] { 6 }));
+        assertEquals("<Data>ABC</Data>", receivedMessage);
+    }
+
+    @Test
+    public void CancelReceiveWakesSelectorSuccessTest() throws Exception {
+        ISelector mockSelector = mock(ISelector.class);
+        testTcpRemoteReceiver = new TcpRemoteReceiver(testPort, 3, 10, 20, socketReadBufferSize, new ConsoleApplicationLogger(LogLevel.Warning, '|', "  "), new NullMetricLogger(), mockServerSocketChannel, mockSelector);
+        
+        testTcpRemoteReceiver.CancelReceive();
+        
+        verify(mockSelector).wakeup();
+        verifyNoMoreInteractions(mockSelector);
+    }
+    
+    @Test
+    public void DisconnectClosesSelectorSuccessTest() throws Exception {
+        ISelector mockSelector = mock(ISelector.class);
+        testTcpRemoteReceiver = new TcpRemoteReceiver(testPort, 3, 10, 20, socketReadBufferSize, new ConsoleApplicationLogger(LogLevel.Warning, '|', "  "), new NullMetricLogger(), mockServerSocketChannel, mockSelector);
+        when(mockServerSocketChannel.isOpen()).thenReturn(false);
+        when(mockSelector.isOpen())
+            .thenReturn(false)
+            .thenReturn(true);
+        when(mockServerSocketChannel.accept()).thenReturn(mockSocketChannel);
+        
+        testTcpRemoteReceiver.Connect();
+        testTcpRemoteReceiver.Disconnect();
+        
+        verify(mockSocketChannel).close();
+        verify(mockServerSocketChannel).close();
+        verify(mockSelector, times(2)).isOpen();
+        verify(mockSelector).open();
+        verify(mockSelector).close();
+        verifyNoMoreInteractions(mockSelector);
+    }
+    
+    @Test
+    public void ReceiveMessageBodyHandlerNullHandler() throws Exception {
+        try {
+            testTcpRemoteReceiver.Receive((IMessageBodyHandler)null);
+            fail("Exception was not thrown.");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Argument 'messageBodyHandler' cannot be null."));
+        }
+    }
+    
+    @Test
+    public void ReceiveMessageBodyHandlerReconnectAfterReadingSizeHeaderSuccessTest() throws Exception {
+        // Tests receiving a message to a message body handler, where a new pending connection is detected and accepted after reading part of the message body from the initial connection
+        RecordingMessageBodyHandler testMessageBodyHandler = new RecordingMessageBodyHandler();
+        when(mockServerSocketChannel.isOpen()).thenReturn(false);
+        when(mockServerSocketChannel.accept())
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null)
+            .thenReturn(null)
+            // The below return simulates the new pending connection
+            .thenReturn(mockSocketChannel)
+            .thenReturn(null);
+        when(mockSocketChannel.read(any(ByteBuffer.class)))
+            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10))
+            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 10, 10, socketReadBufferSize, true), 10))
+            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 0, 10, socketReadBufferSize, true), 10))
+            .thenAnswer(new ReadMethodAnswer(getByteBufferSubSet(testMessageByteArray, 10, 20, socketReadBufferSize, true), 20));
+        
+        testTcpRemoteReceiver.Connect();
+        boolean received = testTcpRemoteReceiver.Receive(testMessageBodyHandler);
+        
+        verify(mockSocketChannel, times(4)).read(any(ByteBuffer.class));
+        verify(mockSocketChannel).close();
+        verify(mockSocketChannel).write(ByteBuffer.wrap(new byte[] { 6 }));
+        assertTrue(received);
+        assertEquals(Arrays.asList("Begin 16", "Received <Data>A", "Discard", "Begin 16", "Received <Data>ABC</Data>", "End"), testMessageBodyHandler.events);
+    }
+    
+    /**
+     * Creates a copy of the test message with sequence number 124 and body <Data>XYZ</Data>.
+     * @return  The bytes of the message.
+     */
+    private byte[] getSecondTestMessage() {
+        byte[] secondMessageByteArray = new byte[testMessageByteArray.array().length];
+        System.arraycopy(testMessageByteArray.array(), 0, secondMessageByteArray, 0, testMessageByteArray.array().length);
+        // Update the sequence number in the second message
+        secondMessageByteArray[1] = 124;
+        // Update the body of the second message to be <Data>XYZ</Data>
+        secondMessageByteArray[19] = 0x58;
+        secondMessageByteArray[20] = 0x59;
+        secondMessageByteArray[21] = 0x5A;
+        return secondMessageByteArray;
+    }
+    
+    /**
+     * Creates a copy of the specified message with the highest bit of its sequence number set, as sent by a TcpRemoteSender to request cumulative acknowledgements.
+     * @param messageByteArray  The bytes of the message.
+     * @return                  The bytes of the message requesting cumulative acknowledgements.
+     */
+    private byte[] getProtocolNegotiationRequestMessage(byte[] messageByteArray) {
+        byte[] requestMessageByteArray = Arrays.copyOf(messageByteArray, messageByteArray.length);
+        // The sequence number is encoded as little endian in bytes 1 to 4
+        requestMessageByteArray[4] = (byte)(requestMessageByteArray[4] | 0x80);
+        return requestMessageByteArray;
+    }
+    
+    /**
+     * Creates a protocol negotiation message, as sent by a TcpRemoteSender with the specified acknowledgement window size.
+     * @param acknowledgementWindowSize  The acknowledgement window size.
+     * @return                           The bytes of the message.
+     */
+    private byte[] getProtocolNegotiationMessage(int acknowledgementWindowSize) {
+        ByteBuffer protocolNegotiationMessage = ByteBuffer.allocate(14).order(ByteOrder.LITTLE_ENDIAN);
+        protocolNegotiationMessage.put((byte)0x02);
+        protocolNegotiationMessage.putInt(-acknowledgementWindowSize);
+        protocolNegotiationMessage.putLong(0);
+        protocolNegotiationMessage.put((byte)0x03);
+        return protocolNegotiationMessage.array();
+    }
+    
     /**
      * Takes a subset of the contents of a ByteBuffer, and returns it in a new ByteBuffer.
      * @param inputByteBuffer       The source ByteBuffer;
@@ -825,4 +1365,33 @@ public class TcpRemoteReceiverTests {
             return returnValue;
         }
     }
+    
+    /**
+     * Implementation of IMessageBodyHandler which records the calls made to it.
+     * @author Alastair Wyse
+     */
+    private class RecordingMessageBodyHandler implements IMessageBodyHandler {
+        
+        public List<String> events = new ArrayList<String>();
+        
+        @Override
+        public void BeginMessageBody(long length) {
+            events.add("Begin " + length);
+        }
+        
+        @Override
+        public void MessageBodyReceived(byte[] bytes, int offset, int length) throws Exception {
+            events.add("Received " + new String(bytes, offset, length, stringEncodingCharset));
+        }
+        
+        @Override
+        public void EndMessageBody() {
+            events.add("End");
+        }
+        
+        @Override
+        public void DiscardMessageBody() {
+            events.add("Discard");
+        }
+    }
 }
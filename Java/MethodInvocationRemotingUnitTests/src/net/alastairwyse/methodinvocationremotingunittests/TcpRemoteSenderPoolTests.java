@@ -0,0 +1,331 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.methodinvocationremotingunittests;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import static org.mockito.Mockito.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.*;
+import net.alastairwyse.applicationlogging.*;
+import net.alastairwyse.methodinvocationremoting.*;
+
+/**
+ * Unit tests for class methodinvocationremoting.TcpRemoteSenderPool.
+ * @author Alastair Wyse
+ */
+public class TcpRemoteSenderPoolTests {
+    private TcpRemoteSenderPool.ISenderFactory mockSenderFactory;
+    private TcpRemoteSender mockSender;
+    private TcpRemoteSender secondMockSender;
+    private TcpRemoteSender replacementMockSender;
+    private IApplicationLogger logger;
+    private TcpRemoteSenderPool testTcpRemoteSenderPool;
+    
+    @Before
+    public void setUp() throws Exception {
+        mockSenderFactory = mock(TcpRemoteSenderPool.ISenderFactory.class);
+        mockSender = mock(TcpRemoteSender.class);
+        secondMockSender = mock(TcpRemoteSender.class);
+        replacementMockSender = mock(TcpRemoteSender.class);
+        logger = new ConsoleApplicationLogger(LogLevel.Critical, '|', "  ");
+        when(mockSenderFactory.CreateSender()).thenReturn(mockSender, secondMockSender, replacementMockSender);
+        when(mockSender.CheckConnection()).thenReturn(true);
+        when(secondMockSender.CheckConnection()).thenReturn(true);
+        when(replacementMockSender.CheckConnection()).thenReturn(true);
+        testTcpRemoteSenderPool = new TcpRemoteSenderPool(2, 0, 0, 5, logger, mockSenderFactory);
+    }
+    
+    @Test
+    public void InvalidPoolSizeArgument() throws Exception {
+        try {
+            testTcpRemoteSenderPool = new TcpRemoteSenderPool(0, 0, 0, 5, logger, mockSenderFactory);
+            fail("Exception was not thrown.");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Argument 'poolSize' must be greater than 0."));
+        }
+    }
+    
+    @Test
+    public void InvalidLeaseTimeoutArgument() throws Exception {
+        try {
+            testTcpRemoteSenderPool = new TcpRemoteSenderPool(2, -1, 0, 5, logger, mockSenderFactory);
+            fail("Exception was not thrown.");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Argument 'leaseTimeout' must be greater than or equal to 0."));
+        }
+    }
+    
+    @Test
+    public void InvalidHealthCheckIntervalArgument() throws Exception {
+        try {
+            testTcpRemoteSenderPool = new TcpRemoteSenderPool(2, 0, -1, 5, logger, mockSenderFactory);
+            fail("Exception was not thrown.");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Argument 'healthCheckInterval' must be greater than or equal to 0."));
+        }
+    }
+    
+    @Test
+    public void ConnectWhenAlreadyConnected() throws Exception {
+        testTcpRemoteSenderPool.Connect();
+        try {
+            testTcpRemoteSenderPool.Connect();
+            fail("Exception was not thrown.");
+        }
+        catch (Exception e) {
+            assertTrue(e.getMessage().contains("Connection pool has already been connected."));
+        }
+        finally {
+            testTcpRemoteSenderPool.Disconnect();
+        }
+    }
+    
+    @Test
+    public void ConnectExceptionDisconnectsConnectedSenders() throws Exception {
+        doThrow(new Exception("Failed to connect to 127.0.0.1:55000 after 3 attempts.")).when(secondMockSender).Connect();
+        
+        try {
+            testTcpRemoteSenderPool.Connect();
+            fail("Exception was not thrown.");
+        }
+        catch (Exception e) {
+            assertTrue(e.getMessage().contains("Failed to connect connection pool."));
+            assertTrue(e.getCause().getMessage().contains("Failed to connect to 127.0.0.1:55000 after 3 attempts."));
+        }
+        
+        verify(mockSender).Connect();
+        verify(mockSender).Disconnect();
+        verify(secondMockSender).Disconnect();
+    }
+    
+    @Test
+    public void SendWhenNotConnected() throws Exception {
+        try {
+            testTcpRemoteSenderPool.Send("<Data>ABC</Data>");
+            fail("Exception was not thrown.");
+        }
+        catch (Exception e) {
+            assertTrue(e.getMessage().contains("Connection pool has not been connected."));
+        }
+    }
+    
+    @Test
+    public void SendSuccessTest() throws Exception {
+        ByteBuffer testMessage = ByteBuffer.wrap(new byte[] { 0x41, 0x42, 0x43 });
+        
+        testTcpRemoteSenderPool.Connect();
+        testTcpRemoteSenderPool.Send("<Data>ABC</Data>");
+        testTcpRemoteSenderPool.Send(testMessage);
+        
+        // Idle senders are leased in the order they were returned
+        verify(mockSender).Send("<Data>ABC</Data>");
+        verify(secondMockSender).Send(testMessage);
+        assertEquals(2, testTcpRemoteSenderPool.getAvailableConnectionCount());
+        
+        testTcpRemoteSenderPool.Disconnect();
+        verify(mockSender).Disconnect();
+        verify(secondMockSender).Disconnect();
+    }
+    
+    @Test
+    public void SendPoolExhaustedException() throws Exception {
+        final CountDownLatch sendStartedLatch = new CountDownLatch(1);
+        final CountDownLatch sendCompleteLatch = new CountDownLatch(1);
+        testTcpRemoteSenderPool = new TcpRemoteSenderPool(1, 0, 0, 5, logger, mockSenderFactory);
+        doAnswer(new BlockingSendAnswer(sendStartedLatch, sendCompleteLatch)).when(mockSender).Send("<Data>ABC</Data>");
+        
+        AtomicReference<Exception> sendException = new AtomicReference<Exception>();
+        testTcpRemoteSenderPool.Connect();
+        Thread sendThread = StartSendThread("<Data>ABC</Data>", sendException);
+        sendStartedLatch.await();
+        try {
+            testTcpRemoteSenderPool.Send("<Data>XYZ</Data>");
+            fail("Exception was not thrown.");
+        }
+        catch (ConnectionPoolExhaustedException e) {
+            assertTrue(e.getMessage().contains("Failed to lease a connection from the pool within timeout period of 0 milliseconds."));
+        }
+        finally {
+            sendCompleteLatch.countDown();
+            sendThread.join();
+        }
+        
+        assertNull(sendException.get());
+        verify(mockSender, never()).Send("<Data>XYZ</Data>");
+        assertEquals(1, testTcpRemoteSenderPool.getAvailableConnectionCount());
+        testTcpRemoteSenderPool.Disconnect();
+    }
+    
+    @Test
+    public void SendPoolExhaustedWaitForLeaseSuccessTest() throws Exception {
+        final CountDownLatch sendStartedLatch = new CountDownLatch(1);
+        final CountDownLatch sendCompleteLatch = new CountDownLatch(1);
+        testTcpRemoteSenderPool = new TcpRemoteSenderPool(1, 5000, 0, 5, logger, mockSenderFactory);
+        doAnswer(new BlockingSendAnswer(sendStartedLatch, sendCompleteLatch)).when(mockSender).Send("<Data>ABC</Data>");
+        
+        AtomicReference<Exception> sendException = new AtomicReference<Exception>();
+        testTcpRemoteSenderPool.Connect();
+        Thread sendThread = StartSendThread("<Data>ABC</Data>", sendException);
+        sendStartedLatch.await();
+        // Complete the first send after the second send has started waiting for the sender
+        new Timer(true).schedule(new TimerTask() {
+            @Override
+            public void run() {
+                sendCompleteLatch.countDown();
+            }
+        }, 50);
+        testTcpRemoteSenderPool.Send("<Data>XYZ</Data>");
+        sendThread.join();
+        
+        assertNull(sendException.get());
+        verify(mockSender).Send("<Data>XYZ</Data>");
+        testTcpRemoteSenderPool.Disconnect();
+    }
+    
+    @Test
+    public void SendExceptionReplaceSenderSuccessTest() throws Exception {
+        doThrow(new Exception("Error sending message.  Failed to send message after reconnecting.", new IOException("Mock IOException"))).when(mockSender).Send("<Data>ABC</Data>");
+        
+        testTcpRemoteSenderPool.Connect();
+        try {
+            testTcpRemoteSenderPool.Send("<Data>ABC</Data>");
+            fail("Exception was not thrown.");
+        }
+        catch (Exception e) {
+            assertTrue(e.getMessage().contains("Error sending message.  Failed to send message after reconnecting."));
+        }
+        WaitForAvailableConnectionCount(2);
+        
+        verify(mockSender).Disconnect();
+        verify(replacementMockSender).Connect();
+        // The replacement sender is added to the pool after the existing idle sender
+        testTcpRemoteSenderPool.Send("<Data>DEF</Data>");
+        testTcpRemoteSenderPool.Send("<Data>GHI</Data>");
+        verify(secondMockSender).Send("<Data>DEF</Data>");
+        verify(replacementMockSender).Send("<Data>GHI</Data>");
+        verify(mockSender, never()).Send("<Data>GHI</Data>");
+        testTcpRemoteSenderPool.Disconnect();
+    }
+    
+    @Test
+    public void ReplaceSenderConnectExceptionRetrySuccessTest() throws Exception {
+        TcpRemoteSender secondReplacementMockSender = mock(TcpRemoteSender.class);
+        when(mockSenderFactory.CreateSender()).thenReturn(mockSender, secondMockSender, replacementMockSender, secondReplacementMockSender);
+        doThrow(new IOException("Mock IOException")).when(mockSender).Send("<Data>ABC</Data>");
+        doThrow(new Exception("Failed to connect to 127.0.0.1:55000 after 3 attempts.")).when(replacementMockSender).Connect();
+        
+        testTcpRemoteSenderPool.Connect();
+        try {
+            testTcpRemoteSenderPool.Send("<Data>ABC</Data>");
+            fail("Exception was not thrown.");
+        }
+        catch (IOException e) {
+        }
+        WaitForAvailableConnectionCount(2);
+        
+        verify(replacementMockSender).Connect();
+        verify(secondReplacementMockSender).Connect();
+        verify(mockSenderFactory, times(4)).CreateSender();
+        testTcpRemoteSenderPool.Disconnect();
+        verify(replacementMockSender, never()).Send(anyString());
+        verify(secondReplacementMockSender).Disconnect();
+    }
+    
+    @Test
+    public void HealthCheckReplaceClosedConnectionSuccessTest() throws Exception {
+        testTcpRemoteSenderPool = new TcpRemoteSenderPool(2, 0, 10, 5, logger, mockSenderFactory);
+        when(secondMockSender.CheckConnection()).thenReturn(false);
+        
+        testTcpRemoteSenderPool.Connect();
+        verify(secondMockSender, timeout(5000)).Disconnect();
+        verify(replacementMockSender, timeout(5000)).Connect();
+        WaitForAvailableConnectionCount(2);
+        testTcpRemoteSenderPool.Send("<Data>ABC</Data>");
+        testTcpRemoteSenderPool.Send("<Data>DEF</Data>");
+        
+        verify(secondMockSender, never()).Send(anyString());
+        verify(replacementMockSender).Send(anyString());
+        verify(mockSender).Send(anyString());
+        testTcpRemoteSenderPool.Disconnect();
+    }
+    
+    /**
+     * Waits until the pool under test has the specified number of available connections, failing if the count is not reached within 5 seconds.
+     * @param count  The number of available connections to wait for.
+     */
+    private void WaitForAvailableConnectionCount(int count) throws Exception {
+        long endTime = System.currentTimeMillis() + 5000;
+        while (testTcpRemoteSenderPool.getAvailableConnectionCount() != count) {
+            if (System.currentTimeMillis() > endTime) {
+                fail("Pool did not have " + count + " available connections within timeout period.");
+            }
+            Thread.sleep(5);
+        }
+    }
+    
+    /**
+     * Sends the specified message using the pool under test on a separate thread.
+     * @param message        The message to send.
+     * @param sendException  Set to any exception thrown by the send operation, to be checked after the thread is joined.
+     * @return               The thread sending the message.
+     */
+    private Thread StartSendThread(final String message, final AtomicReference<Exception> sendException) {
+        Thread sendThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    testTcpRemoteSenderPool.Send(message);
+                }
+                catch (Exception e) {
+                    sendException.set(e);
+                }
+            }
+        });
+        sendThread.start();
+        return sendThread;
+    }
+    
+    /**
+     * Implementation of Mockito Answer interface, which signals when a mock Send() method is called, and blocks until signalled to return.
+     */
+    private class BlockingSendAnswer implements Answer<Object> {
+        private CountDownLatch sendStartedLatch;
+        private CountDownLatch sendCompleteLatch;
+        
+        public BlockingSendAnswer(CountDownLatch sendStartedLatch, CountDownLatch sendCompleteLatch) {
+            this.sendStartedLatch = sendStartedLatch;
+            this.sendCompleteLatch = sendCompleteLatch;
+        }
+        
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable {
+            sendStartedLatch.countDown();
+            sendCompleteLatch.await();
+            return null;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.net.*;
 import java.nio.*;
 import java.io.*;
 import static org.mockito.Mockito.*;
+import org.mockito.InOrder;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.*;
 import net.alastairwyse.operatingsystemabstraction.*;
@@ -45,11 +46,16 @@ public class TcpRemoteSenderTests {
     private byte[] testMessageSequenceNumber;
     private byte[] testMessageSizeHeader;
     private ByteBuffer testEncodedMessage;
+    private MessageWriteAnswer messageWriteAnswer;
     
     @Before
     public void setUp() throws Exception {
         mockSocketChannel = mock(ISocketChannel.class);
-        testTcpRemoteSender = new TcpRemoteSender(testIpAddress, testPort, 3, 10, 25, 10, new ConsoleApplicationLogger(LogLevel.Warning, '|', "  "), new NullMetricLogger(), mockSocketChannel);
+        // The buffers passed to the gathering write() method are reused and consumed by the write, so to correctly mock this a custom Answer implementation is required, which records the bytes written.
+        //   The doAnswer() form is used, so that stubbing write() in a test does not invoke the answer.
+        messageWriteAnswer = new MessageWriteAnswer(Integer.MAX_VALUE);
+        doAnswer(messageWriteAnswer).when(mockSocketChannel).write(any(ByteBuffer[].class));
+        testTcpRemoteSender = new TcpRemoteSender(testIpAddress, testPort, 3, 10, 25, new ConsoleApplicationLogger(LogLevel.Warning, '|', "  "), new NullMetricLogger(), mockSocketChannel);
         // Setup test message
         testMessageByteArray = new byte[] { 0x3c, 0x41, 0x02, 0x42, 0x03, 0x43, 0x3e };  // Equivalent to '<A[ASCII message start]B[ASCII message end]C>'
         testMessageSequenceNumber = new byte[] { 1, 0, 0, 0 };  // Sequence number 1 (first sequence number sent after instantiating the class), encoded as a little endian
@@ -67,7 +73,7 @@ public class TcpRemoteSenderTests {
     @Test
     public void InvalidConnectRetryCountArgument() throws Exception {
         try {
-            testTcpRemoteSender = new TcpRemoteSender(testIpAddress, testPort, -1, 1000, 60000, 100, new ConsoleApplicationLogger(LogLevel.Warning, '|', "  "), new NullMetricLogger(), mockSocketChannel);
+            testTcpRemoteSender = new TcpRemoteSender(testIpAddress, testPort, -1, 1000, 60000, new ConsoleApplicationLogger(LogLevel.Warning, '|', "  "), new NullMetricLogger(), mockSocketChannel);
             fail("Exception was not thrown.");
         }
         catch (IllegalArgumentException e) {
@@ -78,7 +84,7 @@ public class TcpRemoteSenderTests {
     @Test
     public void InvalidConnectRetryIntervalArgument() throws Exception {
         try {
-            testTcpRemoteSender = new TcpRemoteSender(testIpAddress, testPort, 10, -1, 60000, 100, new ConsoleApplicationLogger(LogLevel.Warning, '|', "  "), new NullMetricLogger(), mockSocketChannel);
+            testTcpRemoteSender = new TcpRemoteSender(testIpAddress, testPort, 10, -1, 60000, new ConsoleApplicationLogger(LogLevel.Warning, '|', "  "), new NullMetricLogger(), mockSocketChannel);
             fail("Exception was not thrown.");
         }
         catch (IllegalArgumentException e) {
@@ -89,7 +95,7 @@ public class TcpRemoteSenderTests {
     @Test
     public void InvalidAcknowledgementReceiveTimeoutArgument() throws Exception {
         try {
-            testTcpRemoteSender = new TcpRemoteSender(testIpAddress, testPort, 100, 10, -1, 100, new ConsoleApplicationLogger(LogLevel.Warning, '|', "  "), new NullMetricLogger(), mockSocketChannel);
+            testTcpRemoteSender = new TcpRemoteSender(testIpAddress, testPort, 100, 10, -1, new ConsoleApplicationLogger(LogLevel.Warning, '|', "  "), new NullMetricLogger(), mockSocketChannel);
             fail("Exception was not thrown.");
         }
         catch (IllegalArgumentException e) {
@@ -239,7 +245,7 @@ public class TcpRemoteSenderTests {
         when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
         // As the read method passes a reference to a ByteBuffer, and data is written to that ByteBuffer, to correctly mock this a custom Answer implementation is required.
         //   An instance of the AcknowledgementAnswer class is used.
-        when(mockSocketChannel.read(acknowledgementBuffer)).thenAnswer(new AcknowledgementAnswer((byte)0x06, 1));
+        when(mockSocketChannel.read(acknowledgementBuffer, 25)).thenAnswer(new AcknowledgementAnswer((byte)0x06, 1));
         
         testTcpRemoteSender.Connect();
         testTcpRemoteSender.Send(testMessage);
@@ -247,14 +253,44 @@ public class TcpRemoteSenderTests {
         verify(mockSocketChannel, times(3)).isConnected();
         verify(mockSocketChannel).open();
         verify(mockSocketChannel).connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort));
-        verify(mockSocketChannel).write(testEncodedMessage);
-        verify(mockSocketChannel).configureBlocking(false);
+        verify(mockSocketChannel).write(any(ByteBuffer[].class));
+        assertArrayEquals(getMessageBytes(testEncodedMessage), messageWriteAnswer.getWrittenBytes());
         // Using the acknowledgementBuffer member in the below verify statement causes an exception.  Hence any ByteBuffer class is specified.  Correct calling of the Read() method is checked by the above when statement in any case.
-        verify(mockSocketChannel).read(any(ByteBuffer.class));
-        verify(mockSocketChannel).configureBlocking(true);
+        verify(mockSocketChannel).read(any(ByteBuffer.class), anyInt());
         verifyNoMoreInteractions(mockSocketChannel);
     }
     
+    @Test
+    public void SendBytesSuccessTest() throws Exception {
+        ByteBuffer acknowledgementBuffer = ByteBuffer.allocate(1);
+        // Test sending a message which does not start at position 0 of its buffer
+        ByteBuffer testMessageBuffer = ByteBuffer.allocate(testMessageByteArray.length + 3);
+        testMessageBuffer.put(new byte[] { 0x7f, 0x7f });
+        testMessageBuffer.put(testMessageByteArray);
+        testMessageBuffer.put((byte)0x7f);
+        testMessageBuffer.position(2);
+        testMessageBuffer.limit(2 + testMessageByteArray.length);
+        
+        when(mockSocketChannel.isConnected())
+            .thenReturn(false)
+            .thenReturn(true)
+            .thenReturn(true);
+        when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
+        when(mockSocketChannel.read(acknowledgementBuffer, 25)).thenAnswer(new AcknowledgementAnswer((byte)0x06, 1));
+        
+        testTcpRemoteSender.Connect();
+        testTcpRemoteSender.Send(testMessageBuffer);
+        
+        verify(mockSocketChannel, times(3)).isConnected();
+        verify(mockSocketChannel).open();
+        verify(mockSocketChannel).connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort));
+        verify(mockSocketChannel).write(any(ByteBuffer[].class));
+        assertArrayEquals(getMessageBytes(testEncodedMessage), messageWriteAnswer.getWrittenBytes());
+        verify(mockSocketChannel).read(any(ByteBuffer.class), anyInt());
+        verifyNoMoreInteractions(mockSocketChannel);
+        assertEquals(testMessageBuffer.limit(), testMessageBuffer.position());
+    }
+    
     @Test
     public void SendUnhandledException() throws Exception {
         when(mockSocketChannel.isConnected())
@@ -262,7 +298,7 @@ public class TcpRemoteSenderTests {
             .thenReturn(true)
             .thenReturn(true);
         when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
-        when(mockSocketChannel.write(testEncodedMessage)).thenThrow(new java.nio.channels.NotYetConnectedException());
+        doThrow(new java.nio.channels.NotYetConnectedException()).when(mockSocketChannel).write(argThat(new IsEncodedMessage(testEncodedMessage)));
         
         try {
             testTcpRemoteSender.Connect();
@@ -273,7 +309,7 @@ public class TcpRemoteSenderTests {
             verify(mockSocketChannel, times(3)).isConnected();
             verify(mockSocketChannel).open();
             verify(mockSocketChannel).connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort));
-            verify(mockSocketChannel).write(testEncodedMessage);
+            verify(mockSocketChannel).write(any(ByteBuffer[].class));
             verifyNoMoreInteractions(mockSocketChannel);
             assertTrue(e.getMessage().contains("Error sending message.  Unhandled exception while sending message."));
         }
@@ -290,10 +326,10 @@ public class TcpRemoteSenderTests {
             .thenReturn(true);
         when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
         // Should throw exception on first call, and then return correctly on second (after reconnecting)
-        when(mockSocketChannel.write(testEncodedMessage))
-        	.thenThrow(new IOException("Mock IOException."))
-        	.thenReturn(testEncodedMessage.array().length);
-        when(mockSocketChannel.read(acknowledgementBuffer)).thenAnswer(new AcknowledgementAnswer((byte)0x06, 1));
+        doThrow(new IOException("Mock IOException."))
+        	.doAnswer(messageWriteAnswer)
+        	.when(mockSocketChannel).write(argThat(new IsEncodedMessage(testEncodedMessage)));
+        when(mockSocketChannel.read(acknowledgementBuffer, 25)).thenAnswer(new AcknowledgementAnswer((byte)0x06, 1));
 
         testTcpRemoteSender.Connect();
         testTcpRemoteSender.Send(testMessage);
@@ -301,14 +337,74 @@ public class TcpRemoteSenderTests {
         verify(mockSocketChannel, times(4)).isConnected();
         verify(mockSocketChannel, times(2)).open();
         verify(mockSocketChannel, times(2)).connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort));
-        verify(mockSocketChannel, times(2)).write(testEncodedMessage);
+        verify(mockSocketChannel, times(2)).write(any(ByteBuffer[].class));
+        assertArrayEquals(getMessageBytes(testEncodedMessage), messageWriteAnswer.getWrittenBytes());
         verify(mockSocketChannel).close();
-        verify(mockSocketChannel).configureBlocking(false);
-        verify(mockSocketChannel).read(any(ByteBuffer.class));
-        verify(mockSocketChannel).configureBlocking(true);
+        verify(mockSocketChannel).read(any(ByteBuffer.class), anyInt());
         verifyNoMoreInteractions(mockSocketChannel);
     }
     
+    @Test
+    public void SendIOExceptionResendNotifiesConnectionEstablishedEventHandler() throws Exception {
+        IConnectionEstablishedEventHandler mockConnectionEstablishedEventHandler = mock(IConnectionEstablishedEventHandler.class);
+        ByteBuffer acknowledgementBuffer = ByteBuffer.allocate(1);
+        
+        when(mockSocketChannel.isConnected())
+            .thenReturn(false)
+            .thenReturn(true)
+            .thenReturn(true)
+            .thenReturn(true);
+        when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
+        doThrow(new IOException("Mock IOException."))
+            .doAnswer(messageWriteAnswer)
+            .when(mockSocketChannel).write(argThat(new IsEncodedMessage(testEncodedMessage)));
+        when(mockSocketChannel.read(acknowledgementBuffer, 25)).thenAnswer(new AcknowledgementAnswer((byte)0x06, 1));
+
+        testTcpRemoteSender.setConnectionEstablishedEventHandler(mockConnectionEstablishedEventHandler);
+        testTcpRemoteSender.Connect();
+        verify(mockConnectionEstablishedEventHandler).ConnectionEstablished(testTcpRemoteSender);
+        testTcpRemoteSender.Send(testMessage);
+
+        // Handler should be notified once on the initial connect, and again on reconnecting before re-sending
+        verify(mockConnectionEstablishedEventHandler, times(2)).ConnectionEstablished(testTcpRemoteSender);
+        verify(mockSocketChannel, times(2)).write(any(ByteBuffer[].class));
+        assertArrayEquals(getMessageBytes(testEncodedMessage), messageWriteAnswer.getWrittenBytes());
+        verifyNoMoreInteractions(mockConnectionEstablishedEventHandler);
+    }
+    
+    @Test
+    public void SendIOExceptionResendNotifiesMultipleConnectionEstablishedEventHandlers() throws Exception {
+        // Tests that a ParameterDeltaCache and a SessionTokenDictionary can both be reset by the same sender
+        ParameterDeltaCache deltaCache = spy(new ParameterDeltaCache());
+        SessionTokenDictionary tokenDictionary = spy(new SessionTokenDictionary());
+        ByteBuffer acknowledgementBuffer = ByteBuffer.allocate(1);
+        
+        when(mockSocketChannel.isConnected())
+            .thenReturn(false)
+            .thenReturn(true)
+            .thenReturn(true)
+            .thenReturn(true);
+        when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
+        doThrow(new IOException("Mock IOException."))
+            .doAnswer(messageWriteAnswer)
+            .when(mockSocketChannel).write(argThat(new IsEncodedMessage(testEncodedMessage)));
+        when(mockSocketChannel.read(acknowledgementBuffer, 25)).thenAnswer(new AcknowledgementAnswer((byte)0x06, 1));
+
+        testTcpRemoteSender.addConnectionEstablishedEventHandler(deltaCache);
+        testTcpRemoteSender.addConnectionEstablishedEventHandler(tokenDictionary);
+        testTcpRemoteSender.Connect();
+        verify(deltaCache).Reset();
+        verify(tokenDictionary).Reset();
+        testTcpRemoteSender.Send(testMessage);
+
+        // Both handlers should be notified on the initial connect, and again on reconnecting before re-sending
+        verify(deltaCache, times(2)).ConnectionEstablished(testTcpRemoteSender);
+        verify(deltaCache, times(2)).Reset();
+        verify(tokenDictionary, times(2)).ConnectionEstablished(testTcpRemoteSender);
+        verify(tokenDictionary, times(2)).Reset();
+        assertArrayEquals(getMessageBytes(testEncodedMessage), messageWriteAnswer.getWrittenBytes());
+    }
+    
     @Test
     public void SendIOExceptionResendException() throws Exception {
         when(mockSocketChannel.isConnected())
@@ -317,7 +413,7 @@ public class TcpRemoteSenderTests {
             .thenReturn(true)
             .thenReturn(true);
         when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
-        when(mockSocketChannel.write(testEncodedMessage)).thenThrow(new IOException("Mock IOException."));
+        doThrow(new IOException("Mock IOException.")).when(mockSocketChannel).write(argThat(new IsEncodedMessage(testEncodedMessage)));
 
         try {
             testTcpRemoteSender.Connect();
@@ -328,7 +424,7 @@ public class TcpRemoteSenderTests {
             verify(mockSocketChannel, times(4)).isConnected();
             verify(mockSocketChannel, times(2)).open();
             verify(mockSocketChannel, times(2)).connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort));
-            verify(mockSocketChannel, times(2)).write(testEncodedMessage);
+            verify(mockSocketChannel, times(2)).write(any(ByteBuffer[].class));
             verify(mockSocketChannel).close();
             verifyNoMoreInteractions(mockSocketChannel);
             assertTrue(e.getMessage().contains("Error sending message.  Failed to send message after reconnecting."));
@@ -344,7 +440,7 @@ public class TcpRemoteSenderTests {
             .thenReturn(true)
             .thenReturn(true);
         when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
-        when(mockSocketChannel.read(acknowledgementBuffer)).thenAnswer(new AcknowledgementAnswer((byte)0x04, 1));
+        when(mockSocketChannel.read(acknowledgementBuffer, 25)).thenAnswer(new AcknowledgementAnswer((byte)0x04, 1));
         
         try {
             testTcpRemoteSender.Connect();
@@ -355,10 +451,9 @@ public class TcpRemoteSenderTests {
             verify(mockSocketChannel, times(3)).isConnected();
             verify(mockSocketChannel).open();
             verify(mockSocketChannel).connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort));
-            verify(mockSocketChannel).write(testEncodedMessage);
-            verify(mockSocketChannel).configureBlocking(false);
-            verify(mockSocketChannel).read(any(ByteBuffer.class));
-            verify(mockSocketChannel).configureBlocking(true);
+            verify(mockSocketChannel).write(any(ByteBuffer[].class));
+            assertArrayEquals(getMessageBytes(testEncodedMessage), messageWriteAnswer.getWrittenBytes());
+            verify(mockSocketChannel).read(any(ByteBuffer.class), anyInt());
             verifyNoMoreInteractions(mockSocketChannel);
             assertTrue(e.getMessage().contains("Error sending message.  Unhandled exception while sending message."));
             assertTrue(e.getCause().getMessage().contains("Acknowledgement byte was expected to be 6, but was 4."));
@@ -368,18 +463,15 @@ public class TcpRemoteSenderTests {
     @Test
     public void SendAcknowledgementNotReceivedReconnectSuccessTest() throws Exception {
         ByteBuffer acknowledgementBuffer = ByteBuffer.allocate(1);
-        testTcpRemoteSender = new TcpRemoteSender(testIpAddress, testPort, 3, 10, 100, 40, new ConsoleApplicationLogger(LogLevel.Warning, '|', "  "), new NullMetricLogger(), mockSocketChannel);
+        testTcpRemoteSender = new TcpRemoteSender(testIpAddress, testPort, 3, 10, 100, new ConsoleApplicationLogger(LogLevel.Warning, '|', "  "), new NullMetricLogger(), mockSocketChannel);
         
         when(mockSocketChannel.isConnected())
             .thenReturn(false)
             .thenReturn(true)
             .thenReturn(true);
         when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
-        // This part is non-deterministic.  Parameter 'acknowledgementReceiveTimeout' is set to 100ms, and 'acknowledgementReceiveRetryInterval' set to 40ms.  Hence usually there should be 3 calls to read() before an exception is thrown.
-        //   However, if the test runs slowly it may be called less times, which will cause the test to fail
-        when(mockSocketChannel.read(acknowledgementBuffer))
-        	.thenReturn(0)
-        	.thenReturn(0)
+        // Parameter 'acknowledgementReceiveTimeout' is set to 100ms, which should be passed to read() as the timeout.  A return value of 0 indicates that the timeout expired.
+        when(mockSocketChannel.read(acknowledgementBuffer, 100))
         	.thenReturn(0)
         	.thenAnswer(new AcknowledgementAnswer((byte)0x06, 1));
 
@@ -389,10 +481,9 @@ public class TcpRemoteSenderTests {
         verify(mockSocketChannel, times(4)).isConnected();
         verify(mockSocketChannel, times(2)).open();
         verify(mockSocketChannel, times(2)).connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort));
-        verify(mockSocketChannel, times(2)).write(testEncodedMessage);
-        verify(mockSocketChannel, times(2)).configureBlocking(false);
-        verify(mockSocketChannel, times(4)).read(any(ByteBuffer.class));
-        verify(mockSocketChannel, times(2)).configureBlocking(true);
+        verify(mockSocketChannel, times(2)).write(any(ByteBuffer[].class));
+        assertArrayEquals(getMessageBytes(testEncodedMessage, testEncodedMessage), messageWriteAnswer.getWrittenBytes());
+        verify(mockSocketChannel, times(2)).read(any(ByteBuffer.class), eq(100));
         verify(mockSocketChannel).close();
         verifyNoMoreInteractions(mockSocketChannel);
     }
@@ -406,7 +497,7 @@ public class TcpRemoteSenderTests {
             .thenReturn(true)
             .thenReturn(true);
         when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
-        when(mockSocketChannel.read(acknowledgementBuffer))
+        when(mockSocketChannel.read(acknowledgementBuffer, 25))
         	.thenReturn(0);
 
         try {
@@ -418,11 +509,10 @@ public class TcpRemoteSenderTests {
 	        verify(mockSocketChannel, times(4)).isConnected();
 	        verify(mockSocketChannel, times(2)).open();
 	        verify(mockSocketChannel, times(2)).connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort));
-	        verify(mockSocketChannel, times(2)).write(testEncodedMessage);
-	        verify(mockSocketChannel, times(2)).configureBlocking(false);
-	        // Read should be called a minimum of 2 times, once for the first send attempt, and once for the second
-	        verify(mockSocketChannel, atLeast(2)).read(any(ByteBuffer.class));
-	        verify(mockSocketChannel, times(2)).configureBlocking(true);
+	        verify(mockSocketChannel, times(2)).write(any(ByteBuffer[].class));
+	        assertArrayEquals(getMessageBytes(testEncodedMessage, testEncodedMessage), messageWriteAnswer.getWrittenBytes());
+	        // Read should be called 2 times, once for the first send attempt, and once for the second
+	        verify(mockSocketChannel, times(2)).read(any(ByteBuffer.class), eq(25));
 	        verify(mockSocketChannel).close();
 	        verifyNoMoreInteractions(mockSocketChannel);
 	        assertTrue(e.getMessage().contains("Error sending message.  Failed to send message after reconnecting."));
@@ -430,8 +520,390 @@ public class TcpRemoteSenderTests {
         }
     }
     
+    @Test
+    public void SendConnectionClosedBeforeAcknowledgementReconnectSuccessTest() throws Exception {
+        ByteBuffer acknowledgementBuffer = ByteBuffer.allocate(1);
+        
+        when(mockSocketChannel.isConnected())
+            .thenReturn(false)
+            .thenReturn(true)
+            .thenReturn(true);
+        when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
+        // Return end-of-stream on the first read, which should cause a reconnect and resend
+        when(mockSocketChannel.read(acknowledgementBuffer, 25))
+            .thenReturn(-1)
+            .thenAnswer(new AcknowledgementAnswer((byte)0x06, 1));
+
+        testTcpRemoteSender.Connect();
+        testTcpRemoteSender.Send(testMessage);
+
+        verify(mockSocketChannel, times(4)).isConnected();
+        verify(mockSocketChannel, times(2)).open();
+        verify(mockSocketChannel, times(2)).connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort));
+        verify(mockSocketChannel, times(2)).write(any(ByteBuffer[].class));
+        assertArrayEquals(getMessageBytes(testEncodedMessage, testEncodedMessage), messageWriteAnswer.getWrittenBytes());
+        verify(mockSocketChannel, times(2)).read(any(ByteBuffer.class), eq(25));
+        verify(mockSocketChannel).close();
+        verifyNoMoreInteractions(mockSocketChannel);
+    }
+    
+    @Test
+    public void InvalidAcknowledgementWindowSizeArgument() throws Exception {
+        try {
+            testTcpRemoteSender.setAcknowledgementWindowSize(0);
+            fail("Exception was not thrown.");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Argument 'acknowledgementWindowSize' must be greater than or equal to 1."));
+        }
+    }
+    
+    @Test
+    public void SendCumulativeAcknowledgementsNegotiatedSuccessTest() throws Exception {
+        when(mockSocketChannel.isConnected())
+            .thenReturn(false)
+            .thenReturn(true);
+        when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
+        // Acknowledge the first message (which requests cumulative acknowledgements) with the protocol negotiation acknowledgement byte and its sequence number
+        when(mockSocketChannel.read(any(ByteBuffer.class), eq(25)))
+            .thenAnswer(new AcknowledgementAnswer((byte)0x16, 1))
+            .thenAnswer(new AcknowledgementBytesAnswer(new byte[] { 1, 0, 0, 0 }));
+        
+        testTcpRemoteSender.setAcknowledgementWindowSize(3);
+        testTcpRemoteSender.Connect();
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessage);
+        
+        // The first message is sent with the highest bit of its sequence number set, and the remaining messages are sent within the acknowledgement window, so no further acknowledgements are read
+        verify(mockSocketChannel, times(5)).isConnected();
+        verify(mockSocketChannel).open();
+        verify(mockSocketChannel).connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort));
+        verify(mockSocketChannel, times(3)).write(any(ByteBuffer[].class));
+        assertArrayEquals(getMessageBytes(getEncodedMessage(1 | Integer.MIN_VALUE, testMessageByteArray), getEncodedMessage(2, testMessageByteArray), getEncodedMessage(3, testMessageByteArray)), messageWriteAnswer.getWrittenBytes());
+        verify(mockSocketChannel, times(2)).read(any(ByteBuffer.class), eq(25));
+        verifyNoMoreInteractions(mockSocketChannel);
+    }
+    
+    @Test
+    public void SendCumulativeAcknowledgementsNotSupportedSuccessTest() throws Exception {
+        when(mockSocketChannel.isConnected())
+            .thenReturn(false)
+            .thenReturn(true);
+        when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
+        // Acknowledge the messages with the message acknowledgement byte (i.e. as a TcpRemoteReceiver which doesn't support cumulative acknowledgements would)
+        when(mockSocketChannel.read(any(ByteBuffer.class), eq(25))).thenAnswer(new AcknowledgementAnswer((byte)0x06, 1));
+        
+        testTcpRemoteSender.setAcknowledgementWindowSize(3);
+        testTcpRemoteSender.Connect();
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessage);
+        
+        // The second message should be sent as an ordinary message, and acknowledged before Send() returns
+        verify(mockSocketChannel, times(4)).isConnected();
+        verify(mockSocketChannel).open();
+        verify(mockSocketChannel).connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort));
+        verify(mockSocketChannel, times(2)).write(any(ByteBuffer[].class));
+        assertArrayEquals(getMessageBytes(getEncodedMessage(1 | Integer.MIN_VALUE, testMessageByteArray), getEncodedMessage(2, testMessageByteArray)), messageWriteAnswer.getWrittenBytes());
+        verify(mockSocketChannel, times(2)).read(any(ByteBuffer.class), eq(25));
+        verifyNoMoreInteractions(mockSocketChannel);
+    }
+    
+    @Test
+    public void SendCumulativeAcknowledgementsNegotiationMessageResentSuccessTest() throws Exception {
+        // Tests that if the connection breaks before the message requesting cumulative acknowledgements is acknowledged, the message is re-sent in the same form after reconnecting, so that the TcpRemoteReceiver can detect it as a duplicate
+        ByteBuffer firstEncodedMessage = getEncodedMessage(1 | Integer.MIN_VALUE, testMessageByteArray);
+        
+        when(mockSocketChannel.isConnected())
+            .thenReturn(false)
+            .thenReturn(true);
+        when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
+        when(mockSocketChannel.read(any(ByteBuffer.class), eq(25)))
+            .thenReturn(-1)
+            .thenAnswer(new AcknowledgementAnswer((byte)0x16, 1))
+            .thenAnswer(new AcknowledgementBytesAnswer(new byte[] { 1, 0, 0, 0 }));
+        
+        testTcpRemoteSender.setAcknowledgementWindowSize(3);
+        testTcpRemoteSender.Connect();
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessage);
+        
+        verify(mockSocketChannel, times(2)).open();
+        verify(mockSocketChannel).close();
+        verify(mockSocketChannel, times(3)).write(any(ByteBuffer[].class));
+        assertArrayEquals(getMessageBytes(firstEncodedMessage, firstEncodedMessage, getEncodedMessage(2, testMessageByteArray)), messageWriteAnswer.getWrittenBytes());
+        verify(mockSocketChannel, times(3)).read(any(ByteBuffer.class), eq(25));
+    }
+    
+    @Test
+    public void SendIOExceptionResendThenNegotiateSuccessTest() throws Exception {
+        // Tests that a message sent as an ordinary message before the connection broke is re-sent as an ordinary message after reconnecting (so the TcpRemoteReceiver can detect it as a duplicate), and cumulative acknowledgements are requested with the next message
+        when(mockSocketChannel.isConnected())
+            .thenReturn(false)
+            .thenReturn(true);
+        when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
+        when(mockSocketChannel.read(any(ByteBuffer.class), eq(25)))
+            .thenAnswer(new AcknowledgementAnswer((byte)0x06, 1))
+            .thenReturn(-1)
+            .thenAnswer(new AcknowledgementAnswer((byte)0x06, 1))
+            .thenAnswer(new AcknowledgementAnswer((byte)0x16, 1))
+            .thenAnswer(new AcknowledgementBytesAnswer(new byte[] { 3, 0, 0, 0 }));
+        
+        testTcpRemoteSender.setAcknowledgementWindowSize(3);
+        testTcpRemoteSender.Connect();
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessage);
+        
+        verify(mockSocketChannel, times(2)).open();
+        verify(mockSocketChannel).close();
+        verify(mockSocketChannel, times(4)).write(any(ByteBuffer[].class));
+        assertArrayEquals(getMessageBytes(getEncodedMessage(1 | Integer.MIN_VALUE, testMessageByteArray), getEncodedMessage(2, testMessageByteArray), getEncodedMessage(2, testMessageByteArray), getEncodedMessage(3 | Integer.MIN_VALUE, testMessageByteArray)), messageWriteAnswer.getWrittenBytes());
+        verify(mockSocketChannel, times(5)).read(any(ByteBuffer.class), eq(25));
+    }
+    
+    @Test
+    public void SendAcknowledgementWindowFullSuccessTest() throws Exception {
+        when(mockSocketChannel.isConnected())
+            .thenReturn(false)
+            .thenReturn(true);
+        when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
+        // The fourth message should wait for an acknowledgement, which acknowledges the second message
+        when(mockSocketChannel.read(any(ByteBuffer.class), eq(25)))
+            .thenAnswer(new AcknowledgementAnswer((byte)0x16, 1))
+            .thenAnswer(new AcknowledgementBytesAnswer(new byte[] { 1, 0, 0, 0 }))
+            .thenAnswer(new AcknowledgementBytesAnswer(new byte[] { 6, 2, 0, 0, 0 }));
+        
+        testTcpRemoteSender.setAcknowledgementWindowSize(2);
+        testTcpRemoteSender.Connect();
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessage);
+        
+        verify(mockSocketChannel, times(6)).isConnected();
+        verify(mockSocketChannel).open();
+        verify(mockSocketChannel).connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort));
+        verify(mockSocketChannel, times(4)).write(any(ByteBuffer[].class));
+        assertArrayEquals(getMessageBytes(getEncodedMessage(1 | Integer.MIN_VALUE, testMessageByteArray), getEncodedMessage(2, testMessageByteArray), getEncodedMessage(3, testMessageByteArray), getEncodedMessage(4, testMessageByteArray)), messageWriteAnswer.getWrittenBytes());
+        verify(mockSocketChannel, times(3)).read(any(ByteBuffer.class), eq(25));
+        verifyNoMoreInteractions(mockSocketChannel);
+    }
+    
+    @Test
+    public void FlushSuccessTest() throws Exception {
+        when(mockSocketChannel.isConnected())
+            .thenReturn(false)
+            .thenReturn(true);
+        when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
+        // A single cumulative acknowledgement of the third message acknowledges both messages sent within the window
+        when(mockSocketChannel.read(any(ByteBuffer.class), eq(25)))
+            .thenAnswer(new AcknowledgementAnswer((byte)0x16, 1))
+            .thenAnswer(new AcknowledgementBytesAnswer(new byte[] { 1, 0, 0, 0 }))
+            .thenAnswer(new AcknowledgementBytesAnswer(new byte[] { 6, 3, 0, 0, 0 }));
+        
+        testTcpRemoteSender.setAcknowledgementWindowSize(3);
+        testTcpRemoteSender.Connect();
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Flush();
+        
+        verify(mockSocketChannel, times(6)).isConnected();
+        verify(mockSocketChannel).open();
+        verify(mockSocketChannel).connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort));
+        verify(mockSocketChannel, times(3)).write(any(ByteBuffer[].class));
+        assertArrayEquals(getMessageBytes(getEncodedMessage(1 | Integer.MIN_VALUE, testMessageByteArray), getEncodedMessage(2, testMessageByteArray), getEncodedMessage(3, testMessageByteArray)), messageWriteAnswer.getWrittenBytes());
+        verify(mockSocketChannel, times(3)).read(any(ByteBuffer.class), eq(25));
+        verifyNoMoreInteractions(mockSocketChannel);
+    }
+    
+    @Test
+    public void CheckConnectionSuccessTest() throws Exception {
+        when(mockSocketChannel.isConnected()).thenReturn(true);
+        when(mockSocketChannel.read(any(ByteBuffer.class), eq(1)))
+            .thenReturn(0)
+            .thenReturn(-1);
+        
+        assertTrue(testTcpRemoteSender.CheckConnection());
+        assertFalse(testTcpRemoteSender.CheckConnection());
+        
+        verify(mockSocketChannel, times(2)).isConnected();
+        verify(mockSocketChannel, times(2)).read(any(ByteBuffer.class), eq(1));
+        verifyNoMoreInteractions(mockSocketChannel);
+    }
+    
+    @Test
+    public void CheckConnectionNotConnectedTest() throws Exception {
+        when(mockSocketChannel.isConnected()).thenReturn(false);
+        
+        assertFalse(testTcpRemoteSender.CheckConnection());
+        
+        verify(mockSocketChannel).isConnected();
+        verifyNoMoreInteractions(mockSocketChannel);
+    }
+    
+    @Test
+    public void SendIOExceptionResendUnacknowledgedMessagesSuccessTest() throws Exception {
+        ByteBuffer fourthEncodedMessage = getEncodedMessage(4, testMessageByteArray);
+        
+        when(mockSocketChannel.isConnected())
+            .thenReturn(false)
+            .thenReturn(true);
+        when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
+        // Sending the fourth message should throw an exception, and after reconnecting the TcpRemoteReceiver replies to the protocol negotiation message with last received sequence number 2
+        doThrow(new IOException("Mock IOException."))
+            .doAnswer(messageWriteAnswer)
+            .when(mockSocketChannel).write(argThat(new IsEncodedMessage(fourthEncodedMessage)));
+        when(mockSocketChannel.read(any(ByteBuffer.class), eq(25)))
+            .thenAnswer(new AcknowledgementAnswer((byte)0x16, 1))
+            .thenAnswer(new AcknowledgementBytesAnswer(new byte[] { 1, 0, 0, 0 }))
+            .thenAnswer(new AcknowledgementAnswer((byte)0x16, 1))
+            .thenAnswer(new AcknowledgementBytesAnswer(new byte[] { 2, 0, 0, 0 }));
+        
+        testTcpRemoteSender.setAcknowledgementWindowSize(3);
+        testTcpRemoteSender.Connect();
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessage);
+        
+        // As messages were retained, a protocol negotiation message is sent after reconnecting, and only the third and fourth messages should be re-sent (the first attempt to write the fourth message throws an exception, so writes no bytes)
+        verify(mockSocketChannel, times(7)).isConnected();
+        verify(mockSocketChannel, times(2)).open();
+        verify(mockSocketChannel, times(2)).connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort));
+        verify(mockSocketChannel).close();
+        verify(mockSocketChannel, times(7)).write(any(ByteBuffer[].class));
+        assertArrayEquals(getMessageBytes(getEncodedMessage(1 | Integer.MIN_VALUE, testMessageByteArray), getEncodedMessage(2, testMessageByteArray), getEncodedMessage(3, testMessageByteArray), getEncodedMessage(-3, new byte[0]), getEncodedMessage(3, testMessageByteArray), fourthEncodedMessage), messageWriteAnswer.getWrittenBytes());
+        verify(mockSocketChannel, times(4)).read(any(ByteBuffer.class), eq(25));
+        verifyNoMoreInteractions(mockSocketChannel);
+    }
+    
+    @Test
+    public void SendIOExceptionWaitingForAcknowledgementWindowResendWithinWindowSuccessTest() throws Exception {
+        // Tests that when an exception occurs while the fourth message is waiting for space in the acknowledgement window, the message is not sent after reconnecting until the re-sent messages leave space in the window
+        when(mockSocketChannel.isConnected())
+            .thenReturn(false)
+            .thenReturn(true);
+        when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
+        when(mockSocketChannel.read(any(ByteBuffer.class), eq(25)))
+            .thenAnswer(new AcknowledgementAnswer((byte)0x16, 1))
+            .thenAnswer(new AcknowledgementBytesAnswer(new byte[] { 1, 0, 0, 0 }))
+            .thenThrow(new IOException("Mock IOException."))
+            .thenAnswer(new AcknowledgementAnswer((byte)0x16, 1))
+            .thenAnswer(new AcknowledgementBytesAnswer(new byte[] { 1, 0, 0, 0 }))
+            .thenAnswer(new AcknowledgementBytesAnswer(new byte[] { 6, 2, 0, 0, 0 }));
+
+        testTcpRemoteSender.setAcknowledgementWindowSize(2);
+        testTcpRemoteSender.Connect();
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessage);
+
+        // The fourth message should only be written after the acknowledgement of the first re-sent message is read
+        InOrder inOrder = inOrder(mockSocketChannel);
+        inOrder.verify(mockSocketChannel, times(6)).read(any(ByteBuffer.class), eq(25));
+        inOrder.verify(mockSocketChannel).write(any(ByteBuffer[].class));
+        verify(mockSocketChannel, times(2)).open();
+        verify(mockSocketChannel).close();
+        verify(mockSocketChannel, times(7)).write(any(ByteBuffer[].class));
+        assertArrayEquals(getMessageBytes(getEncodedMessage(1 | Integer.MIN_VALUE, testMessageByteArray), getEncodedMessage(2, testMessageByteArray), getEncodedMessage(3, testMessageByteArray), getEncodedMessage(-2, new byte[0]), getEncodedMessage(2, testMessageByteArray), getEncodedMessage(3, testMessageByteArray), getEncodedMessage(4, testMessageByteArray)), messageWriteAnswer.getWrittenBytes());
+    }
+
+    @Test
+    public void SendPartialWritesSuccessTest() throws Exception {
+        // Write at most 5 bytes on each call to write(), so the 21 byte encoded message requires 5 calls
+        messageWriteAnswer = new MessageWriteAnswer(5);
+        doAnswer(messageWriteAnswer).when(mockSocketChannel).write(any(ByteBuffer[].class));
+        when(mockSocketChannel.isConnected())
+            .thenReturn(false)
+            .thenReturn(true)
+            .thenReturn(true);
+        when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
+        when(mockSocketChannel.read(any(ByteBuffer.class), eq(25))).thenAnswer(new AcknowledgementAnswer((byte)0x06, 1));
+        
+        testTcpRemoteSender.Connect();
+        testTcpRemoteSender.Send(testMessage);
+        
+        verify(mockSocketChannel, times(3)).isConnected();
+        verify(mockSocketChannel).open();
+        verify(mockSocketChannel).connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort));
+        verify(mockSocketChannel, times(5)).write(any(ByteBuffer[].class));
+        verify(mockSocketChannel).read(any(ByteBuffer.class), eq(25));
+        verifyNoMoreInteractions(mockSocketChannel);
+        assertArrayEquals(getMessageBytes(testEncodedMessage), messageWriteAnswer.getWrittenBytes());
+    }
+    
+    @Test
+    public void SendBytesIOExceptionResendRetainedMessageSuccessTest() throws Exception {
+        // Tests that a message sent within the acknowledgement window is re-sent with its original content, even if the caller has reused the buffer containing it
+        ByteBuffer testMessageBuffer = ByteBuffer.allocate(testMessageByteArray.length);
+        testMessageBuffer.put(testMessageByteArray);
+        testMessageBuffer.flip();
+        ByteBuffer thirdEncodedMessage = getEncodedMessage(3, testMessageByteArray);
+        
+        when(mockSocketChannel.isConnected())
+            .thenReturn(false)
+            .thenReturn(true);
+        when(mockSocketChannel.connect(new InetSocketAddress(InetAddress.getByName(testIpAddress), testPort))).thenReturn(true);
+        doThrow(new IOException("Mock IOException."))
+            .doAnswer(messageWriteAnswer)
+            .when(mockSocketChannel).write(argThat(new IsEncodedMessage(thirdEncodedMessage)));
+        when(mockSocketChannel.read(any(ByteBuffer.class), eq(25)))
+            .thenAnswer(new AcknowledgementAnswer((byte)0x16, 1))
+            .thenAnswer(new AcknowledgementBytesAnswer(new byte[] { 1, 0, 0, 0 }))
+            .thenAnswer(new AcknowledgementAnswer((byte)0x16, 1))
+            .thenAnswer(new AcknowledgementBytesAnswer(new byte[] { 1, 0, 0, 0 }));
+        
+        testTcpRemoteSender.setAcknowledgementWindowSize(3);
+        testTcpRemoteSender.Connect();
+        testTcpRemoteSender.Send(testMessage);
+        testTcpRemoteSender.Send(testMessageBuffer);
+        testMessageBuffer.clear();
+        testMessageBuffer.put(new byte[] { 0x7f, 0x7f, 0x7f, 0x7f, 0x7f, 0x7f, 0x7f });
+        testMessageBuffer.flip();
+        testTcpRemoteSender.Send(testMessage);
+        
+        verify(mockSocketChannel, times(6)).write(any(ByteBuffer[].class));
+        assertArrayEquals(getMessageBytes(getEncodedMessage(1 | Integer.MIN_VALUE, testMessageByteArray), getEncodedMessage(2, testMessageByteArray), getEncodedMessage(-3, new byte[0]), getEncodedMessage(2, testMessageByteArray), thirdEncodedMessage), messageWriteAnswer.getWrittenBytes());
+    }
+    
+    /**
+     * Concatenates the specified encoded messages into a single array of bytes.
+     * @param encodedMessages  The encoded messages.
+     * @return                 The bytes of the encoded messages.
+     */
+    private byte[] getMessageBytes(ByteBuffer... encodedMessages) {
+        ByteArrayOutputStream messageBytes = new ByteArrayOutputStream();
+        for (ByteBuffer currentEncodedMessage : encodedMessages) {
+            ByteBuffer currentEncodedMessageDuplicate = currentEncodedMessage.duplicate();
+            while (currentEncodedMessageDuplicate.hasRemaining() == true) {
+                messageBytes.write(currentEncodedMessageDuplicate.get());
+            }
+        }
+        return messageBytes.toByteArray();
+    }
+    
     /**
-     * Mock answer for the SocketChannel.Read() method, to simulate the reading of the message acknowledgement byte
+     * Encodes a message in the format sent by the TcpRemoteSender.
+     * @param sequenceNumber  The sequence number of the message.
+     * @param messageBody     The body of the message.
+     * @return                The encoded message.
+     */
+    private ByteBuffer getEncodedMessage(int sequenceNumber, byte[] messageBody) {
+        ByteBuffer encodedMessage = ByteBuffer.allocate(messageBody.length + 14).order(ByteOrder.LITTLE_ENDIAN);
+        encodedMessage.put((byte)0x02);
+        encodedMessage.putInt(sequenceNumber);
+        encodedMessage.putLong(messageBody.length);
+        encodedMessage.put(messageBody);
+        encodedMessage.put((byte)0x03);
+        encodedMessage.flip();
+        return encodedMessage;
+    }
+    
+    /**
+     * Mock answer for the SocketChannel.Read() method (with timeout), to simulate the reading of the message acknowledgement byte
      * @author Alastair Wyse
      */
     private class AcknowledgementAnswer implements Answer<Integer> {
@@ -457,4 +929,69 @@ public class TcpRemoteSenderTests {
             return returnValue;
         }
     }
+    
+    /**
+     * Mock answer for the SocketChannel.Read() method (with timeout), to simulate the reading of multiple bytes of a cumulative acknowledgement
+     * @author Alastair Wyse
+     */
+    private class AcknowledgementBytesAnswer implements Answer<Integer> {
+
+        private byte[] bytesToWrite;
+        
+        /**
+         * Initialises a new instance of the AcknowledgementBytesAnswer class.
+         * @param bytesToWrite  The bytes to return when the Read() method is called.
+         */
+        public AcknowledgementBytesAnswer(byte[] bytesToWrite) {
+            this.bytesToWrite = bytesToWrite;
+        }
+        
+        @Override
+        public Integer answer(InvocationOnMock invocation) throws Throwable {
+            ByteBuffer returnByteBuffer = (ByteBuffer)invocation.getArguments()[0];
+            returnByteBuffer.put(bytesToWrite);
+
+            return bytesToWrite.length;
+        }
+    }
+    
+    /**
+     * Mock answer for the SocketChannel.write() method (with multiple buffers), to simulate writing the bytes of a message, and to record the bytes written
+     * @author Alastair Wyse
+     */
+    private class MessageWriteAnswer implements Answer<Long> {
+
+        private int maximumBytesPerWrite;
+        private ByteArrayOutputStream writtenBytes;
+        
+        /**
+         * Initialises a new instance of the MessageWriteAnswer class.
+         * @param maximumBytesPerWrite  The maximum number of bytes to write each time the write() method is called, to simulate partial writes.
+         */
+        public MessageWriteAnswer(int maximumBytesPerWrite) {
+            this.maximumBytesPerWrite = maximumBytesPerWrite;
+            writtenBytes = new ByteArrayOutputStream();
+        }
+        
+        /**
+         * @return  All bytes written by calls to the write() method, in the order they were written.
+         */
+        public byte[] getWrittenBytes() {
+            return writtenBytes.toByteArray();
+        }
+        
+        @Override
+        public Long answer(InvocationOnMock invocation) throws Throwable {
+            ByteBuffer[] sourceByteBuffers = (ByteBuffer[])invocation.getArguments()[0];
+            long bytesWritten = 0;
+            for (ByteBuffer currentByteBuffer : sourceByteBuffers) {
+                while ((currentByteBuffer.hasRemaining() == true) && (bytesWritten < maximumBytesPerWrite)) {
+                    writtenBytes.write(currentByteBuffer.get());
+                    bytesWritten++;
+                }
+            }
+
+            return bytesWritten;
+        }
+    }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.operatingsystemabstraction;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * Provides an abstraction of the java.nio.channels.Selector class, to facilitate mocking and unit testing.
+ * @author Alastair Wyse
+ */
+public interface ISelector {
+
+    /**
+     * Tells whether or not this selector is open.
+     * @return  true if, and only if, this selector is open.
+     */
+    boolean isOpen();
+    
+    /**
+     * Opens a selector.  Note this differs from the java.nio.channels.Selector.open() method, as it assigns a new selector inside the class, rather than returning it.
+     * @throws IOException  if an I/O error occurs.
+     */
+    void open() throws IOException;
+    
+    /**
+     * Closes this selector.
+     * @throws IOException  if an I/O error occurs.
+     */
+    void close() throws IOException;
+    
+    /**
+     * Waits until at least one of the channels registered with this selector is ready for its registered operations, the wakeup() method is called, or the current thread is interrupted.  Unlike the java.nio.channels.Selector.select() method, the set of selected keys is cleared before returning, so that the same ready channels cause the next call to return again.
+     * @return                          The number of keys whose ready-operation sets were updated, possibly zero.
+     * @throws ClosedSelectorException  if this selector is closed.
+     * @throws IOException              if an I/O error occurs.
+     */
+    int select() throws ClosedSelectorException, IOException;
+    
+    /**
+     * Waits until at least one of the channels registered with this selector is ready for its registered operations, the wakeup() method is called, the current thread is interrupted, or the specified timeout expires.  The set of selected keys is cleared before returning.
+     * @param timeout                    The maximum time to wait in milliseconds.  Must be greater than 0.
+     * @return                           The number of keys whose ready-operation sets were updated, possibly zero.
+     * @throws IllegalArgumentException  if the value of the timeout argument is not greater than 0.
+     * @throws ClosedSelectorException   if this selector is closed.
+     * @throws IOException               if an I/O error occurs.
+     */
+    int select(long timeout) throws IllegalArgumentException, ClosedSelectorException, IOException;
+    
+    /**
+     * Waits until at least one of the channels registered with this selector is ready for its registered operations, the wakeup() method is called, or the current thread is interrupted, and adds the keys of the ready channels to the specified collection.  The set of selected keys is cleared before returning.
+     * @param selectedKeys              The collection to add the keys of the ready channels to.
+     * @return                          The number of keys whose ready-operation sets were updated, possibly zero.
+     * @throws ClosedSelectorException  if this selector is closed.
+     * @throws IOException              if an I/O error occurs.
+     */
+    int select(Collection<SelectionKey> selectedKeys) throws ClosedSelectorException, IOException;
+    
+    /**
+     * Causes the first selection operation that has not yet returned to return immediately.  If no selection operation is in progress, the next selection operation returns immediately.
+     */
+    void wakeup();
+}
@@ -76,4 +76,16 @@ public interface IServerSocketChannel {
      * @throws IOException             if an I/O error occurs.
      */
     SelectableChannel configureBlocking(boolean block) throws ClosedChannelException, IOException;
+    
+    /**
+     * Registers this channel with the given selector.
+     * @param sel                            The selector with which this channel is to be registered.  Must be an instance of operatingsystemabstraction.Selector.
+     * @param ops                            The interest set for the resulting key.
+     * @return                               A key representing the registration of this channel with the given selector.
+     * @throws ClosedChannelException        if this channel is closed.
+     * @throws ClosedSelectorException       if the selector is closed.
+     * @throws IllegalBlockingModeException  if this channel is in blocking mode.
+     * @throws IllegalArgumentException      if a bit in the ops set does not correspond to an operation that is supported by this channel.
+     */
+    SelectionKey register(ISelector sel, int ops) throws ClosedChannelException, ClosedSelectorException, IllegalBlockingModeException, IllegalArgumentException;
 }
@@ -73,6 +73,18 @@ public interface ISocketChannel {
      */
     int write(ByteBuffer src) throws NotYetConnectedException, ClosedChannelException, AsynchronousCloseException, ClosedByInterruptException, IOException;
     
+    /**
+     * Writes a sequence of bytes to this channel from the given buffers, in the order the buffers appear in the array (a gathering write).
+     * @param srcs                         The buffers from which bytes are to be retrieved.
+     * @return                             The number of bytes written, possibly zero.
+     * @throws NotYetConnectedException    if this channel is not yet connected.
+     * @throws ClosedChannelException      if this channel is closed.
+     * @throws AsynchronousCloseException  if another thread closes this channel while the write operation is in progress.
+     * @throws ClosedByInterruptException  if another thread interrupts the current thread while the write operation is in progress, thereby closing the channel and setting the current thread's interrupt status.
+     * @throws IOException                 if some other I/O error occurs.
+     */
+    long write(ByteBuffer[] srcs) throws NotYetConnectedException, ClosedChannelException, AsynchronousCloseException, ClosedByInterruptException, IOException;
+    
     /**
      * Reads a sequence of bytes from this channel into the given buffer. 
      * @param dst                          The buffer into which bytes are to be transferred.
@@ -85,6 +97,18 @@ public interface ISocketChannel {
      */
     int read(ByteBuffer dst) throws NotYetConnectedException, ClosedChannelException, AsynchronousCloseException, ClosedByInterruptException, IOException;
     
+    /**
+     * Reads a sequence of bytes from this channel into the given buffer, waiting until at least one byte is available or the specified timeout expires.  This channel must be in blocking mode.
+     * @param dst                            The buffer into which bytes are to be transferred.
+     * @param timeout                        The maximum time to wait for at least one byte to become available in milliseconds.  Must be greater than 0.
+     * @return                               The number of bytes read, 0 if the timeout expired before any bytes were available, or -1 if the channel has reached end-of-stream.
+     * @throws NotYetConnectedException      if this channel is not yet connected.
+     * @throws ClosedChannelException        if this channel is closed.
+     * @throws IllegalBlockingModeException  if this channel is in non-blocking mode.
+     * @throws IOException                   if some other I/O error occurs.
+     */
+    int read(ByteBuffer dst, int timeout) throws NotYetConnectedException, ClosedChannelException, IllegalBlockingModeException, IOException;
+    
     /**
      * Adjusts this channel's blocking mode. 
      * @param block                    If true then this channel will be placed in blocking mode; if false then it will be placed non-blocking mode.
@@ -93,4 +117,24 @@ public interface ISocketChannel {
      * @throws IOException             if an I/O error occurs.
      */
     SelectableChannel configureBlocking(boolean block) throws ClosedChannelException, IOException;
+    
+    /**
+     * Registers this channel with the given selector.
+     * @param sel                            The selector with which this channel is to be registered.  Must be an instance of operatingsystemabstraction.Selector.
+     * @param ops                            The interest set for the resulting key.
+     * @return                               A key representing the registration of this channel with the given selector.
+     * @throws ClosedChannelException        if this channel is closed.
+     * @throws ClosedSelectorException       if the selector is closed.
+     * @throws IllegalBlockingModeException  if this channel is in blocking mode.
+     * @throws IllegalArgumentException      if a bit in the ops set does not correspond to an operation that is supported by this channel.
+     */
+    SelectionKey register(ISelector sel, int ops) throws ClosedChannelException, ClosedSelectorException, IllegalBlockingModeException, IllegalArgumentException;
+    
+    /**
+     * Returns the remote address to which this channel's socket is connected.
+     * @return                         The remote address, or null if the channel's socket is not connected.
+     * @throws ClosedChannelException  if this channel is closed.
+     * @throws IOException             if an I/O error occurs.
+     */
+    SocketAddress getRemoteAddress() throws ClosedChannelException, IOException;
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 Alastair Wyse (http://www.oraclepermissiongenerator.net/methodinvocationremoting/)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.alastairwyse.operatingsystemabstraction;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * Provides an abstraction of the java.nio.channels.Selector class, to facilitate mocking and unit testing.
+ * @author Alastair Wyse
+ */
+public class Selector implements ISelector, AutoCloseable {
+    private java.nio.channels.Selector selector;
+    
+    /**
+     * Initialises a new instance of the Selector class.
+     */
+    public Selector() {
+    }
+    
+    /**
+     * @return  The java.nio.channels.Selector underlying the instance of the class, for registering channels with.
+     */
+    java.nio.channels.Selector getUnderlyingSelector() {
+        return selector;
+    }
+    
+    @Override
+    public boolean isOpen() {
+        if(selector == null) {
+            return false;
+        }
+        else {
+            return selector.isOpen();
+        }
+    }
+    
+    @Override
+    public void open() throws IOException {
+        if(selector != null) {
+            selector.close();
+        }
+        selector = java.nio.channels.Selector.open();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        selector.close();
+    }
+    
+    @Override
+    public int select() throws ClosedSelectorException, IOException {
+        int selectedKeyCount = selector.select();
+        selector.selectedKeys().clear();
+        return selectedKeyCount;
+    }
+    
+    @Override
+    public int select(long timeout) throws IllegalArgumentException, ClosedSelectorException, IOException {
+        // java.nio.channels.Selector treats a timeout of 0 as an indefinite wait
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Argument 'timeout' must be greater than 0.");
+        }
+        int selectedKeyCount = selector.select(timeout);
+        selector.selectedKeys().clear();
+        return selectedKeyCount;
+    }
+    
+    @Override
+    public int select(Collection<SelectionKey> selectedKeys) throws ClosedSelectorException, IOException {
+        int selectedKeyCount = selector.select();
+        selectedKeys.addAll(selector.selectedKeys());
+        selector.selectedKeys().clear();
+        return selectedKeyCount;
+    }
+    
+    @Override
+    public void wakeup() {
+        selector.wakeup();
+    }
+}
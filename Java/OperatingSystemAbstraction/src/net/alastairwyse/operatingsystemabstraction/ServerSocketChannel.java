@@ -77,4 +77,9 @@ public class ServerSocketChannel implements IServerSocketChannel {
     public SelectableChannel configureBlocking(boolean block) throws ClosedChannelException, IOException {
         return serverSocketChannel.configureBlocking(block);
     }
+    
+    @Override
+    public SelectionKey register(ISelector sel, int ops) throws ClosedChannelException, ClosedSelectorException, IllegalBlockingModeException, IllegalArgumentException {
+        return serverSocketChannel.register(((Selector)sel).getUnderlyingSelector(), ops);
+    }
 }
@@ -90,13 +90,66 @@ public class SocketChannel implements ISocketChannel, AutoCloseable {
         return socketChannel.write(src);
     }
     
+    @Override
+    public long write(ByteBuffer[] srcs) throws NotYetConnectedException, ClosedChannelException, AsynchronousCloseException, ClosedByInterruptException, IOException {
+        return socketChannel.write(srcs);
+    }
+    
     @Override
     public int read(ByteBuffer dst) throws NotYetConnectedException, ClosedChannelException, AsynchronousCloseException, ClosedByInterruptException, IOException {
         return socketChannel.read(dst);
     }
     
+    @Override
+    public int read(ByteBuffer dst, int timeout) throws NotYetConnectedException, ClosedChannelException, IllegalBlockingModeException, IOException {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Argument 'timeout' must be greater than 0.");
+        }
+        // The stream of the socket adaptor honours the socket timeout, whereas reading from the channel directly would block indefinitely
+        Socket socket = socketChannel.socket();
+        socket.setSoTimeout(timeout);
+        byte[] readBuffer;
+        int readOffset;
+        if (dst.hasArray() == true) {
+            readBuffer = dst.array();
+            readOffset = dst.arrayOffset() + dst.position();
+        }
+        else {
+            readBuffer = new byte[dst.remaining()];
+            readOffset = 0;
+        }
+        
+        int numBytesRead;
+        try {
+            numBytesRead = socket.getInputStream().read(readBuffer, readOffset, dst.remaining());
+        }
+        catch (SocketTimeoutException e) {
+            return 0;
+        }
+        if (numBytesRead > 0) {
+            if (dst.hasArray() == true) {
+                dst.position(dst.position() + numBytesRead);
+            }
+            else {
+                dst.put(readBuffer, 0, numBytesRead);
+            }
+        }
+        
+        return numBytesRead;
+    }
+    
     @Override
     public SelectableChannel configureBlocking(boolean block) throws ClosedChannelException, IOException {
         return socketChannel.configureBlocking(block);
     }
+    
+    @Override
+    public SelectionKey register(ISelector sel, int ops) throws ClosedChannelException, ClosedSelectorException, IllegalBlockingModeException, IllegalArgumentException {
+        return socketChannel.register(((Selector)sel).getUnderlyingSelector(), ops);
+    }
+    
+    @Override
+    public SocketAddress getRemoteAddress() throws ClosedChannelException, IOException {
+        return socketChannel.getRemoteAddress();
+    }
 }